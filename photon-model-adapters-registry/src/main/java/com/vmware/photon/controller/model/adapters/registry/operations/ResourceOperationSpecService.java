@@ -118,7 +118,8 @@ public class ResourceOperationSpecService extends StatefulService {
          * <p>
          * Callers shall evaluate the targetCriteria in the context of the resource for which the
          * operation is activated, e.g. for Compute this shall be the {@link
-         * com.vmware.photon.controller.model.resources.ComputeService.ComputeState}
+         * com.vmware.photon.controller.model.resources.ComputeService.ComputeState}. The resource
+         * is read-only, and its public fields are the properties of the {@code resource} object.
          * <p>
          * example: {@code ResourceOperationUtils.SCRIPT_CONTEXT_RESOURCE +
          * ".hostName.startsWith('myPrefix') && "
@@ -17,15 +17,12 @@ import static com.vmware.photon.controller.model.util.ClusterUtil.ServiceTypeClu
 
 import java.net.URI;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
-import javax.script.ScriptContext;
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
-import javax.script.ScriptException;
-
 import com.vmware.photon.controller.model.adapters.registry.operations.ResourceOperationSpecService.ResourceOperationSpec;
 import com.vmware.photon.controller.model.adapters.registry.operations.ResourceOperationSpecService.ResourceType;
 import com.vmware.photon.controller.model.query.QueryUtils.QueryTop;
@@ -176,45 +173,25 @@ public class ResourceOperationUtils {
      * evaluated to {@literal true} for the given {@code resourceState}
      */
     public static boolean isAvailable(ResourceState resourceState, ResourceOperationSpec spec) {
-        AssertUtil.assertNotNull(spec, "'spec' must be set.");
-        if (spec.targetCriteria == null) {
-            return true;
-        }
-
-        ScriptEngine engine = new ScriptEngineManager().getEngineByName(SCRIPT_ENGINE_NAME_JS);
-
-        if (resourceState != null) {
-            //Clone original object to avoid changing props of original object from vulnerable
-            // targetCriteria
-            ResourceState clone = Utils.cloneObject(resourceState);
-            engine.getBindings(ScriptContext.ENGINE_SCOPE).put(SCRIPT_CONTEXT_RESOURCE, clone);
-        }
-        try {
-            Object res = engine.eval(spec.targetCriteria);
-            if (res instanceof Boolean) {
-                return ((Boolean) res).booleanValue();
-            } else {
-                Utils.log(ResourceOperationUtils.class, "isAvailable",
-                        Level.WARNING,
-                        "Expect boolean result when evaluate targetCriteria \"%s\" of "
-                                + "endpointType: %s, resourceType: %s, operation: %s, "
-                                + "adapterReference: %s. Result: %s",
-                        spec.targetCriteria,
-                        spec.endpointType, spec.resourceType, spec.operation,
-                        spec.adapterReference, res);
-            }
-        } catch (ScriptException e) {
-            Utils.log(ResourceOperationUtils.class, "isAvailable",
-                    Level.SEVERE,
-                    "Cannot evaluate targetCriteria '%s' of "
-                            + "endpointType: %s, resourceType: %s, operation: %s, "
-                            + "adapterReference: %s. Cause: %s",
-                    spec.targetCriteria,
-                    spec.endpointType, spec.resourceType, spec.operation, spec.adapterReference,
-                    Utils.toString(e));
+        return TargetCriteriaEvaluator.isAvailable(resourceState, spec);
+    }
 
-        }
-        return false;
+    /**
+     * Evaluates the target criteria of each of the provided {@code specs} against each of the
+     * specified {@code resourceStates}, as {@link #isAvailable(ResourceState,
+     * ResourceOperationSpec)} does, and returns the specs available for each resource
+     * @param resourceStates
+     *         the resource states for which to check which of the given {@code specs} are
+     *         available
+     * @param specs
+     *         the {@link ResourceOperationSpec}s which to check whether are available for the given
+     *         {@code resourceStates}
+     * @return the available specs, in the order of {@code specs}, by resource self link
+     */
+    public static Map<String, List<ResourceOperationSpec>> getAvailable(
+            Collection<? extends ResourceState> resourceStates,
+            Collection<ResourceOperationSpec> specs) {
+        return TargetCriteriaEvaluator.getAvailable(resourceStates, specs);
     }
 
     /**
@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.registry.operations;
+
+import static com.vmware.photon.controller.model.adapters.registry.operations.ResourceOperationUtils.SCRIPT_CONTEXT_RESOURCE;
+import static com.vmware.photon.controller.model.adapters.registry.operations.ResourceOperationUtils.SCRIPT_ENGINE_NAME_JS;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+import jdk.nashorn.api.scripting.AbstractJSObject;
+import jdk.nashorn.api.scripting.JSObject;
+
+import com.vmware.photon.controller.model.UriPaths;
+import com.vmware.photon.controller.model.adapters.registry.operations.ResourceOperationSpecService.ResourceOperationSpec;
+import com.vmware.photon.controller.model.resources.ResourceState;
+import com.vmware.photon.controller.model.util.AssertUtil;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Evaluates the {@link ResourceOperationSpec#targetCriteria} of specs against resources.
+ * <p>
+ * Each thread creates its script engine once, and compiles each distinct criteria once, keeping
+ * the last {@link #DEFAULT_CACHE_SIZE} ones. Each compiled criteria runs in its own global
+ * scope, created once, so the globals set by a criteria are not seen by the other ones; the
+ * globals it sets are removed after each evaluation. The criteria see the resource through a
+ * read-only view, so a criteria cannot change the resource, and the resource does not have to be
+ * cloned. As with the resource itself, unknown fields of the view are undefined.
+ */
+public class TargetCriteriaEvaluator {
+
+    public static final int DEFAULT_CACHE_SIZE = Integer.getInteger(
+            UriPaths.PROPERTY_PREFIX + "TargetCriteriaEvaluator.cacheSize", 256);
+
+    private static final ThreadLocal<Compiler> compilers = ThreadLocal.withInitial(
+            Compiler::new);
+
+    /**
+     * A criteria compiled to a script with the global scope it runs in, or the error which
+     * prevented compiling it.
+     */
+    private static class CompiledCriteria {
+        final CompiledScript script;
+        final Bindings bindings;
+        final Set<String> initialKeys;
+        final ScriptException error;
+
+        CompiledCriteria(CompiledScript script, Bindings bindings, ScriptException error) {
+            this.script = script;
+            this.bindings = bindings;
+            this.initialKeys = bindings == null ? null : new HashSet<>(bindings.keySet());
+            this.error = error;
+        }
+
+        /**
+         * Removes the resource and the globals set by the last evaluation.
+         */
+        void clear() {
+            for (String key : new ArrayList<>(this.bindings.keySet())) {
+                if (!this.initialKeys.contains(key)) {
+                    this.bindings.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * The script engine of a thread and the criteria it compiled, least recently used first.
+     */
+    private static class Compiler {
+        final ScriptEngine engine = new ScriptEngineManager().getEngineByName(
+                SCRIPT_ENGINE_NAME_JS);
+
+        // the undefined value, which the engine does not translate to null when read this way
+        final Object undefined = ((JSObject) this.engine.getBindings(ScriptContext.ENGINE_SCOPE))
+                .getMember("undefined");
+
+        final Map<String, CompiledCriteria> compiled = new LinkedHashMap<String, CompiledCriteria>(
+                16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledCriteria> eldest) {
+                return size() > DEFAULT_CACHE_SIZE;
+            }
+        };
+
+        CompiledCriteria compile(String targetCriteria) {
+            return this.compiled.computeIfAbsent(targetCriteria, criteria -> {
+                try {
+                    return new CompiledCriteria(((Compilable) this.engine).compile(criteria),
+                            this.engine.createBindings(), null);
+                } catch (ScriptException e) {
+                    return new CompiledCriteria(null, null, e);
+                }
+            });
+        }
+    }
+
+    private TargetCriteriaEvaluator() {
+    }
+
+    /**
+     * Returns whether the given spec is available for the given resource, see
+     * {@link ResourceOperationUtils#isAvailable(ResourceState, ResourceOperationSpec)}.
+     */
+    public static boolean isAvailable(ResourceState resourceState, ResourceOperationSpec spec) {
+        AssertUtil.assertNotNull(spec, "'spec' must be set.");
+        if (spec.targetCriteria == null) {
+            return true;
+        }
+        Compiler compiler = compilers.get();
+        return evaluate(compiler, readOnlyView(resourceState, compiler.undefined), spec);
+    }
+
+    /**
+     * Returns the specs available for each of the given resources, by resource link, see
+     * {@link ResourceOperationUtils#getAvailable(Collection, Collection)}.
+     */
+    public static Map<String, List<ResourceOperationSpec>> getAvailable(
+            Collection<? extends ResourceState> resourceStates,
+            Collection<ResourceOperationSpec> specs) {
+        AssertUtil.assertNotNull(resourceStates, "'resourceStates' must be set.");
+        AssertUtil.assertNotNull(specs, "'specs' must be set.");
+
+        Compiler compiler = compilers.get();
+        Map<String, List<ResourceOperationSpec>> availableSpecs = new LinkedHashMap<>();
+        for (ResourceState resourceState : resourceStates) {
+            JSObject resource = readOnlyView(resourceState, compiler.undefined);
+            List<ResourceOperationSpec> available = new ArrayList<>();
+            for (ResourceOperationSpec spec : specs) {
+                if (spec.targetCriteria == null || evaluate(compiler, resource, spec)) {
+                    available.add(spec);
+                }
+            }
+            availableSpecs.put(resourceState.documentSelfLink, available);
+        }
+        return availableSpecs;
+    }
+
+    private static boolean evaluate(Compiler compiler, JSObject resource,
+            ResourceOperationSpec spec) {
+        CompiledCriteria criteria = compiler.compile(spec.targetCriteria);
+        if (criteria.script == null) {
+            logEvaluationError(spec, criteria.error);
+            return false;
+        }
+
+        Bindings bindings = criteria.bindings;
+        if (resource != null) {
+            bindings.put(SCRIPT_CONTEXT_RESOURCE, resource);
+        }
+        try {
+            Object res = criteria.script.eval(bindings);
+            if (res instanceof Boolean) {
+                return ((Boolean) res).booleanValue();
+            } else {
+                Utils.log(TargetCriteriaEvaluator.class, "isAvailable",
+                        Level.WARNING,
+                        "Expect boolean result when evaluate targetCriteria \"%s\" of "
+                                + "endpointType: %s, resourceType: %s, operation: %s, "
+                                + "adapterReference: %s. Result: %s",
+                        spec.targetCriteria,
+                        spec.endpointType, spec.resourceType, spec.operation,
+                        spec.adapterReference, res);
+            }
+        } catch (ScriptException | RuntimeException e) {
+            // changing the read-only view fails with an UnsupportedOperationException
+            logEvaluationError(spec, e);
+        } finally {
+            criteria.clear();
+        }
+        return false;
+    }
+
+    private static void logEvaluationError(ResourceOperationSpec spec, Exception e) {
+        Utils.log(TargetCriteriaEvaluator.class, "isAvailable",
+                Level.SEVERE,
+                "Cannot evaluate targetCriteria '%s' of "
+                        + "endpointType: %s, resourceType: %s, operation: %s, "
+                        + "adapterReference: %s. Cause: %s",
+                spec.targetCriteria,
+                spec.endpointType, spec.resourceType, spec.operation, spec.adapterReference,
+                Utils.toString(e));
+    }
+
+    private static JSObject readOnlyView(Object object, Object undefined) {
+        return object == null ? null : new ReadOnlyView(object, undefined);
+    }
+
+    /**
+     * Read-only script object of the public fields of an object. The collections and objects of
+     * the fields are read-only too, and the fields the object does not have are undefined.
+     */
+    private static class ReadOnlyView extends AbstractJSObject {
+        private static final ConcurrentMap<Class<?>, Map<String, Field>> fieldsByType =
+                new ConcurrentHashMap<>();
+
+        private final Object target;
+        private final Object undefined;
+        private final Map<String, Field> fields;
+
+        ReadOnlyView(Object target, Object undefined) {
+            this.target = target;
+            this.undefined = undefined;
+            this.fields = fieldsByType.computeIfAbsent(target.getClass(),
+                    ReadOnlyView::getPublicFields);
+        }
+
+        private static Map<String, Field> getPublicFields(Class<?> type) {
+            Map<String, Field> fields = new HashMap<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isPublic(modifiers) && !Modifier.isStatic(modifiers)) {
+                        // fields of subclasses hide the ones of their superclasses
+                        fields.putIfAbsent(field.getName(), field);
+                    }
+                }
+            }
+            return fields;
+        }
+
+        @Override
+        public boolean hasMember(String name) {
+            return this.fields.containsKey(name);
+        }
+
+        @Override
+        public Object getMember(String name) {
+            Field field = this.fields.get(name);
+            if (field == null) {
+                return this.undefined;
+            }
+            try {
+                return readOnly(field.get(this.target));
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public Object getSlot(int index) {
+            return this.undefined;
+        }
+
+        @Override
+        public void setMember(String name, Object value) {
+            throw new UnsupportedOperationException("setMember");
+        }
+
+        @Override
+        public void setSlot(int index, Object value) {
+            throw new UnsupportedOperationException("setSlot");
+        }
+
+        @Override
+        public void removeMember(String name) {
+            throw new UnsupportedOperationException("removeMember");
+        }
+
+        @Override
+        public Set<String> keySet() {
+            return Collections.unmodifiableSet(this.fields.keySet());
+        }
+
+        @Override
+        public Collection<Object> values() {
+            List<Object> values = new ArrayList<>(this.fields.size());
+            for (String name : this.fields.keySet()) {
+                values.add(getMember(name));
+            }
+            return Collections.unmodifiableList(values);
+        }
+
+        private Object readOnly(Object value) {
+            if (value == null || value instanceof String || value instanceof Number
+                    || value instanceof Boolean || value instanceof Character
+                    || value instanceof Enum) {
+                return value;
+            }
+            if (value instanceof Map) {
+                return Collections.unmodifiableMap((Map<?, ?>) value);
+            }
+            if (value instanceof List) {
+                return Collections.unmodifiableList((List<?>) value);
+            }
+            if (value instanceof Set) {
+                return Collections.unmodifiableSet((Set<?>) value);
+            }
+            if (value instanceof Collection) {
+                return Collections.unmodifiableCollection((Collection<?>) value);
+            }
+            return new ReadOnlyView(value, this.undefined);
+        }
+    }
+}
@@ -17,11 +17,17 @@ import static com.vmware.photon.controller.model.adapters.registry.operations.Ba
 import static com.vmware.photon.controller.model.adapters.registry.operations.BaseResourceOperationTest.createResourceOperationSpec;
 import static com.vmware.photon.controller.model.adapters.registry.operations.ResourceOperationUtils.SCRIPT_CONTEXT_RESOURCE;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 import org.junit.Assert;
 import org.junit.Test;
 
 import com.vmware.photon.controller.model.adapters.registry.operations.ResourceOperationSpecService.ResourceOperationSpec;
 import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.photon.controller.model.resources.ComputeService.PowerState;
 
 public class ResourceOperationUtilsTest {
 
@@ -105,4 +111,103 @@ public class ResourceOperationUtilsTest {
         Assert.assertEquals(originalValue, computeState.hostName);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testIsAvailable_changeCollectionFromScript() {
+        ResourceOperationSpec spec = createResourceOperationSpec();
+        spec.targetCriteria = SCRIPT_CONTEXT_RESOURCE + ".customProperties.put('p1', 'changed')"
+                + " == null";
+
+        ComputeState computeState = createComputeState("testIsAvailable_changeCollectionFromScript");
+
+        Assert.assertFalse(ResourceOperationUtils.isAvailable(computeState, spec));
+        Assert.assertEquals("v1", computeState.customProperties.get("p1"));
+    }
+
+    @Test
+    public void testIsAvailable_noComputeStateAfterComputeState() {
+        ResourceOperationSpec spec = createResourceOperationSpec();
+        spec.targetCriteria = SCRIPT_CONTEXT_RESOURCE + ".cpuCount==4";
+
+        ComputeState computeState = createComputeState("testIsAvailable_noComputeStateAfterComputeState");
+
+        Assert.assertTrue(ResourceOperationUtils.isAvailable(computeState, spec));
+        // the resource of the previous evaluation is not visible
+        Assert.assertFalse(ResourceOperationUtils.isAvailable(null, spec));
+    }
+
+    @Test
+    public void testIsAvailable_globalsDoNotLeak() {
+        ResourceOperationSpec define = createResourceOperationSpec();
+        define.targetCriteria = "leaked = true; Object.prototype.leaked = true; true";
+        ResourceOperationSpec check = createResourceOperationSpec();
+        check.targetCriteria = "typeof leaked == 'undefined' && ({}).leaked === undefined";
+
+        ComputeState computeState = createComputeState("testIsAvailable_globalsDoNotLeak");
+
+        Assert.assertTrue(ResourceOperationUtils.isAvailable(computeState, define));
+        Assert.assertTrue(ResourceOperationUtils.isAvailable(computeState, check));
+    }
+
+    @Test
+    public void testIsAvailable_globalsAreCleared() {
+        ResourceOperationSpec spec = createResourceOperationSpec();
+        spec.targetCriteria = "var first = typeof seen == 'undefined'; seen = true; first";
+
+        ComputeState computeState = createComputeState("testIsAvailable_globalsAreCleared");
+
+        Assert.assertTrue(ResourceOperationUtils.isAvailable(computeState, spec));
+        Assert.assertTrue(ResourceOperationUtils.isAvailable(computeState, spec));
+    }
+
+    @Test
+    public void testIsAvailable_unknownFieldIsUndefined() {
+        ResourceOperationSpec spec = createResourceOperationSpec();
+        spec.targetCriteria = SCRIPT_CONTEXT_RESOURCE + ".noSuchField === undefined && typeof "
+                + SCRIPT_CONTEXT_RESOURCE + ".noSuchField == 'undefined' && "
+                + SCRIPT_CONTEXT_RESOURCE + ".hostName === null";
+
+        ComputeState computeState = createComputeState("testIsAvailable_unknownFieldIsUndefined");
+        computeState.hostName = null;
+
+        Assert.assertTrue(ResourceOperationUtils.isAvailable(computeState, spec));
+    }
+
+    @Test
+    public void testIsAvailable_invalidCriteria_neg() {
+        ResourceOperationSpec spec = createResourceOperationSpec();
+        spec.targetCriteria = SCRIPT_CONTEXT_RESOURCE + ".cpuCount==";
+
+        ComputeState computeState = createComputeState("testIsAvailable_invalidCriteria_neg");
+
+        Assert.assertFalse(ResourceOperationUtils.isAvailable(computeState, spec));
+        Assert.assertFalse(ResourceOperationUtils.isAvailable(computeState, spec));
+    }
+
+    @Test
+    public void testGetAvailable() {
+        ResourceOperationSpec powerOn = createResourceOperationSpec();
+        powerOn.targetCriteria = ResourceOperationUtils.TargetCriteria.RESOURCE_POWER_STATE_ON
+                .getCriteria();
+        ResourceOperationSpec snapshot = createResourceOperationSpec();
+        snapshot.targetCriteria = ResourceOperationUtils.TargetCriteria.RESOURCE_HAS_SNAPSHOTS
+                .getCriteria();
+        ResourceOperationSpec any = createResourceOperationSpec();
+
+        ComputeState on = createComputeState("on");
+        on.documentSelfLink = "/on";
+        on.powerState = PowerState.ON;
+        ComputeState off = createComputeState("off");
+        off.documentSelfLink = "/off";
+        off.powerState = PowerState.OFF;
+        off.customProperties.put("__hasSnapshot", "True");
+
+        Map<String, List<ResourceOperationSpec>> available = ResourceOperationUtils.getAvailable(
+                Arrays.asList(on, off), Arrays.asList(powerOn, snapshot, any));
+
+        Assert.assertEquals(Arrays.asList(powerOn, any), available.get("/on"));
+        Assert.assertEquals(Arrays.asList(snapshot, any), available.get("/off"));
+        Assert.assertEquals(Collections.singletonList(any),
+                ResourceOperationUtils.getAvailable(Collections.singletonList(on),
+                        Collections.singletonList(any)).get("/on"));
+    }
+}
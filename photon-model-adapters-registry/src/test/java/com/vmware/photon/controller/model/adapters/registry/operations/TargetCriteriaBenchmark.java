@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.registry.operations;
+
+import static com.vmware.photon.controller.model.adapters.registry.operations.BaseResourceOperationTest.createComputeState;
+import static com.vmware.photon.controller.model.adapters.registry.operations.BaseResourceOperationTest.createResourceOperationSpec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.vmware.photon.controller.model.adapters.registry.operations.ResourceOperationSpecService.ResourceOperationSpec;
+import com.vmware.photon.controller.model.adapters.registry.operations.ResourceOperationUtils.TargetCriteria;
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.photon.controller.model.resources.ComputeService.PowerState;
+import com.vmware.photon.controller.model.resources.ResourceState;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Measures the cost of evaluating the target criteria of day-2 operation specs:
+ * <ul>
+ * <li>{@code isAvailable}: one spec against one resource,</li>
+ * <li>{@code getAvailable}: the specs against a page of resources in one call,</li>
+ * <li>{@code scriptEnginePerEvaluation}: one spec against one resource the way it was done
+ * before, with a new script engine and a clone of the resource per evaluation.</li>
+ * </ul>
+ * Run with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.vmware.photon.controller.model.adapters.registry.operations.TargetCriteriaBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TargetCriteriaBenchmark {
+
+    private static final int RESOURCES = 50;
+
+    private List<ComputeState> resources;
+    private List<ResourceOperationSpec> specs;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.resources = new ArrayList<>(RESOURCES);
+        for (int i = 0; i < RESOURCES; i++) {
+            ComputeState resource = createComputeState("host-" + i);
+            resource.documentSelfLink = "/resources/compute/" + i;
+            resource.powerState = i % 2 == 0 ? PowerState.ON : PowerState.OFF;
+            resource.customProperties.put("__hasSnapshot", Boolean.toString(i % 3 == 0));
+            this.resources.add(resource);
+        }
+
+        this.specs = Arrays.asList(
+                spec(TargetCriteria.RESOURCE_POWER_STATE_ON.getCriteria()),
+                spec(TargetCriteria.RESOURCE_HAS_SNAPSHOTS.getCriteria()),
+                spec("resource.hostName.startsWith('host') && resource.cpuCount == 4"));
+    }
+
+    private static ResourceOperationSpec spec(String targetCriteria) {
+        ResourceOperationSpec spec = createResourceOperationSpec();
+        spec.targetCriteria = targetCriteria;
+        return spec;
+    }
+
+    private ComputeState nextResource() {
+        this.next = (this.next + 1) % RESOURCES;
+        return this.resources.get(this.next);
+    }
+
+    @Benchmark
+    public boolean isAvailable() {
+        ComputeState resource = nextResource();
+        return ResourceOperationUtils.isAvailable(resource, this.specs.get(this.next % 3));
+    }
+
+    @Benchmark
+    public Map<String, List<ResourceOperationSpec>> getAvailable() {
+        return ResourceOperationUtils.getAvailable(this.resources, this.specs);
+    }
+
+    @Benchmark
+    public Object scriptEnginePerEvaluation() throws Exception {
+        ComputeState resource = nextResource();
+        ScriptEngine engine = new ScriptEngineManager().getEngineByName(
+                ResourceOperationUtils.SCRIPT_ENGINE_NAME_JS);
+        ResourceState clone = Utils.cloneObject(resource);
+        engine.getBindings(ScriptContext.ENGINE_SCOPE).put(
+                ResourceOperationUtils.SCRIPT_CONTEXT_RESOURCE, clone);
+        return engine.eval(this.specs.get(this.next % 3).targetCriteria);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(TargetCriteriaBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -21,7 +21,9 @@ import static com.vmware.photon.controller.model.adapters.awsadapter.AWSConstant
 import static com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants.STORAGE_TYPE_S3;
 import static com.vmware.photon.controller.model.util.PhotonModelUriUtils.createInventoryUri;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.URI;
@@ -56,6 +58,7 @@ import com.amazonaws.event.ProgressEventType;
 import com.amazonaws.event.ProgressListener;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.transfer.TransferManager;
 
 import org.apache.commons.collections.CollectionUtils;
@@ -127,6 +130,11 @@ public class AWSCostStatsService extends StatelessService {
     public static final int INTERNAL_REQUEST_TIMEOUT_SECONDS = Integer.getInteger(
             UriPaths.PROPERTY_PREFIX + "aws.costCollection.internalRequestTimeoutSecs", 300);
     public static final int DEFAULT_BATCH_SIZE = 500;
+    // When enabled, bills are parsed while being read from S3 instead of being downloaded and
+    // extracted to the temp directory first.
+    public static final String STREAMING_BILL_INGESTION_KEY = UriPaths.PROPERTY_PREFIX
+            + "aws.costCollection.streamingBillIngestion";
+    private static final int BILL_STREAM_BUFFER_SIZE = 1024 * 1024;
     // Past months for which bills need to be collected, default is 11, excluding current month's bill.
     protected static final String BILLS_BACK_IN_TIME_MONTHS_KEY = "aws.costsCollection.backInTime.months";
 
@@ -531,7 +539,11 @@ public class AWSCostStatsService extends StatelessService {
                 if (context.billMonthToDownload.compareTo(firstDayOfCurrentMonth) <= 0) {
                     String billsBucketName = context.computeDesc.customProperties
                             .get(AWSConstants.AWS_BILLS_S3_BUCKET_NAME_KEY);
-                    downloadParseAndCreateStats(context, billsBucketName);
+                    if (Boolean.getBoolean(STREAMING_BILL_INGESTION_KEY)) {
+                        streamParseAndCreateStats(context, billsBucketName);
+                    } else {
+                        downloadParseAndCreateStats(context, billsBucketName);
+                    }
                 } else {
                     context.stage = next;
                     handleCostStatsCreationRequest(context);
@@ -936,6 +948,37 @@ public class AWSCostStatsService extends StatelessService {
         }
     }
 
+    /**
+     * Parses the bill while it is read from the S3 object, without writing the archive or the
+     * extracted CSV to disk. Runs on the calling thread.
+     */
+    private void streamParseAndCreateStats(AWSCostStatsCreationContext statsData, String awsBucketName) {
+        AWSCsvBillParser parser = new AWSCsvBillParser();
+        final String csvBillZipFileName = parser
+                .getCsvBillFileName(statsData.billMonthToDownload, statsData.accountId, true);
+        LocalDate billMonth = new LocalDate(statsData.billMonthToDownload.getYear(),
+                statsData.billMonthToDownload.getMonthOfYear(), 1);
+        try (S3Object billObject = statsData.s3Client.getAmazonS3Client()
+                .getObject(awsBucketName, csvBillZipFileName);
+                InputStream billStream = new BufferedInputStream(billObject.getObjectContent(),
+                        BILL_STREAM_BUFFER_SIZE)) {
+            OperationContext.restoreOperationContext(statsData.opContext);
+            logWithContext(statsData, Level.INFO, () -> String.format("Streaming" +
+                    " bill for the month: %s.", billMonth));
+
+            parser.parseDetailedCsvBill(statsData.ignorableInvoiceCharge, billStream,
+                    statsData.awsAccountIdToComputeStates.keySet(),
+                    getHourlyStatsConsumer(billMonth, statsData),
+                    getMonthlyStatsConsumer(billMonth, statsData));
+        } catch (Exception exception) {
+            billDownloadFailureHandler(statsData, awsBucketName, exception);
+            return;
+        }
+        // Continue processing the bills for past and current months' bills
+        statsData.billMonthToDownload = statsData.billMonthToDownload.plusMonths(1);
+        handleCostStatsCreationRequest(statsData);
+    }
+
     /**
      * Consumes a single batch of hourly stats of parsed bill rows and creates stats
      */
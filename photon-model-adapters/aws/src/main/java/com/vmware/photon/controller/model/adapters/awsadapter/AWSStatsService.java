@@ -38,8 +38,10 @@ import com.vmware.photon.controller.model.adapterapi.ComputeStatsRequest;
 import com.vmware.photon.controller.model.adapterapi.ComputeStatsResponse.ComputeStats;
 import com.vmware.photon.controller.model.adapters.awsadapter.util.AWSClientManager;
 import com.vmware.photon.controller.model.adapters.awsadapter.util.AWSClientManagerFactory;
+import com.vmware.photon.controller.model.adapters.awsadapter.util.AWSMetricDataBatcher;
 import com.vmware.photon.controller.model.adapters.awsadapter.util.AWSStatsNormalizer;
 import com.vmware.photon.controller.model.adapters.util.AdapterUtils;
+import com.vmware.photon.controller.model.adapters.util.ReferenceDocumentCache;
 import com.vmware.photon.controller.model.adapters.util.TaskManager;
 import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription.ComputeType;
 import com.vmware.photon.controller.model.resources.ComputeService.ComputeStateWithDescription;
@@ -61,6 +63,7 @@ import com.vmware.xenon.services.common.AuthCredentialsService.AuthCredentialsSe
  */
 public class AWSStatsService extends StatelessService {
     private AWSClientManager clientManager;
+    private AWSMetricDataBatcher metricDataBatcher;
 
     public static final String AWS_COLLECTION_PERIOD_SECONDS = UriPaths.PROPERTY_PREFIX + "AWSStatsService.collectionPeriod";
     private static final long DEFAULT_AWS_COLLECTION_PERIOD_SECONDS = TimeUnit.HOURS.toSeconds(1);
@@ -122,6 +125,7 @@ public class AWSStatsService extends StatelessService {
 
         this.clientManager = AWSClientManagerFactory
                 .getClientManager(AWSConstants.AwsClientType.CLOUD_WATCH);
+        this.metricDataBatcher = new AWSMetricDataBatcher(getHost().getScheduledExecutor());
 
         super.handleStart(op);
     }
@@ -173,22 +177,23 @@ public class AWSStatsService extends StatelessService {
     }
 
     private void getParentVMDescription(AWSStatsDataHolder statsData) {
-        Consumer<Operation> onSuccess = (op) -> {
-            statsData.parentDesc = op.getBody(ComputeStateWithDescription.class);
-            getParentAuth(statsData);
-        };
         URI computeUri = UriUtils.extendUriWithQuery(
                 UriUtils.buildUri(getHost(), statsData.computeDesc.parentLink),
                 UriUtils.URI_PARAM_ODATA_EXPAND,
                 Boolean.TRUE.toString());
-        AdapterUtils.getServiceState(this, computeUri, onSuccess, getFailureConsumer(statsData));
+        ReferenceDocumentCache.getInstance(getHost())
+                .get(this, computeUri, ComputeStateWithDescription.class)
+                .whenComplete((parentDesc, e) -> {
+                    if (e != null) {
+                        getFailureConsumer(statsData).accept(e);
+                        return;
+                    }
+                    statsData.parentDesc = parentDesc;
+                    getParentAuth(statsData);
+                });
     }
 
     private void getParentAuth(AWSStatsDataHolder statsData) {
-        Consumer<Operation> onSuccess = (op) -> {
-            statsData.parentAuth = op.getBody(AuthCredentialsServiceState.class);
-            getStats(statsData);
-        };
         String authLink;
         if (statsData.isComputeHost) {
             authLink = statsData.computeDesc.description.authCredentialsLink;
@@ -196,7 +201,16 @@ public class AWSStatsService extends StatelessService {
             authLink = statsData.parentDesc.description.authCredentialsLink;
         }
         URI authURI = createInventoryUri(this.getHost(), authLink);
-        AdapterUtils.getServiceState(this, authURI, onSuccess, getFailureConsumer(statsData));
+        ReferenceDocumentCache.getInstance(getHost())
+                .get(this, authURI, AuthCredentialsServiceState.class)
+                .whenComplete((parentAuth, e) -> {
+                    if (e != null) {
+                        getFailureConsumer(statsData).accept(e);
+                        return;
+                    }
+                    statsData.parentAuth = parentAuth;
+                    getStats(statsData);
+                });
     }
 
     private Consumer<Throwable> getFailureConsumer(AWSStatsDataHolder statsData) {
@@ -229,7 +243,51 @@ public class AWSStatsService extends StatelessService {
                     }
 
                     statsData.statsClient = client;
-                    getEC2Stats(statsData, METRIC_NAMES, false);
+                    if (AWSMetricDataBatcher.MAX_QUERIES > 1) {
+                        getBatchedEC2Stats(statsData);
+                    } else {
+                        getEC2Stats(statsData, METRIC_NAMES, false);
+                    }
+                });
+    }
+
+    /**
+     * Gets the EC2 statistics of the instance together with the other instances of its region
+     * collected at the same time, see {@link AWSMetricDataBatcher}.
+     */
+    private void getBatchedEC2Stats(AWSStatsDataHolder statsData) {
+        Long collectionPeriod = Long.getLong(AWS_COLLECTION_PERIOD_SECONDS,
+                DEFAULT_AWS_COLLECTION_PERIOD_SECONDS);
+        GetMetricStatisticsRequest window = new GetMetricStatisticsRequest();
+        try {
+            setRequestCollectionWindow(
+                    TimeUnit.MINUTES.toMicros(MAX_METRIC_COLLECTION_WINDOW_IN_MINUTES),
+                    statsData.statsRequest.lastCollectionTimeMicrosUtc, collectionPeriod,
+                    window);
+        } catch (IllegalStateException e) {
+            // no data to process. notify parent
+            statsData.taskManager.finishTask();
+            return;
+        }
+        if (window.getStartTime() == null) {
+            // GetMetricData requires a start time
+            getEC2Stats(statsData, METRIC_NAMES, false);
+            return;
+        }
+
+        OperationContext opContext = OperationContext.getOperationContext();
+        this.metricDataBatcher.query(statsData.statsClient, statsData.computeDesc.id,
+                METRIC_NAMES, window.getStartTime(), window.getEndTime(),
+                collectionPeriod.intValue())
+                .whenComplete((stats, e) -> {
+                    OperationContext.restoreOperationContext(opContext);
+                    this.metricDataBatcher.publishStats(this);
+                    if (e != null) {
+                        statsData.taskManager.patchTaskToFailure(e);
+                        return;
+                    }
+                    statsData.statsResponse.statValues.putAll(stats);
+                    sendStats(statsData);
                 });
     }
 
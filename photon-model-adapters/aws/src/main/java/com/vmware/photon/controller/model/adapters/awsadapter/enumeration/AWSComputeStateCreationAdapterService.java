@@ -60,6 +60,7 @@ import com.vmware.photon.controller.model.adapters.awsadapter.util.AWSClientMana
 import com.vmware.photon.controller.model.adapters.awsadapter.util.AWSEnumerationUtils;
 import com.vmware.photon.controller.model.adapters.awsadapter.util.AWSEnumerationUtils.InstanceDescKey;
 import com.vmware.photon.controller.model.adapters.awsadapter.util.AWSEnumerationUtils.ZoneData;
+import com.vmware.photon.controller.model.adapters.util.OperationPipeline;
 import com.vmware.photon.controller.model.query.QueryUtils;
 import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
 import com.vmware.photon.controller.model.resources.ComputeService;
@@ -101,8 +102,16 @@ public class AWSComputeStateCreationAdapterService extends StatelessService {
     private static final long QUERY_TASK_EXPIRY_MICROS = TimeUnit.MINUTES.toMicros(1);
     public static final List<String> internalTagList = Arrays.asList(ec2_instance.toString(),
             ec2_net_interface.toString());
+    private static final String STAGE_UPDATE_TAG_LINKS = "updateTagLinks";
+
     private AWSClientManager clientManager;
 
+    /**
+     * Bounds the number of compute states having their tag links updated at a time, across all
+     * enumerations handled by this service.
+     */
+    private final OperationPipeline operationPipeline = new OperationPipeline();
+
     /**
      * Request accepted by this service to trigger create or update of Compute states representing
      * compute instances in Amazon.
@@ -696,22 +705,24 @@ public class AWSComputeStateCreationAdapterService extends StatelessService {
             return DeferredResult.completed(context);
         } else {
 
-            List<DeferredResult<Set<String>>> updateCSTagLinksOps = new ArrayList<>();
-
-            for (String instanceId : context.request.instancesToBeUpdated.keySet()) {
-                Instance instance = context.request.instancesToBeUpdated.get(instanceId);
-                ComputeState existingComputeState = context.request.computeStatesToBeUpdated
-                        .get(instanceId);
-                Map<String, String> remoteTags = new HashMap<>();
-                for (Tag awsInstanceTag : instance.getTags()) {
-                    if (!awsInstanceTag.getKey().equals(AWSConstants.AWS_TAG_NAME)) {
-                        remoteTags.put(awsInstanceTag.getKey(), awsInstanceTag.getValue());
-                    }
-                }
-                updateCSTagLinksOps
-                        .add(updateLocalTagStates(this, existingComputeState, remoteTags, null));
-            }
-            return DeferredResult.allOf(updateCSTagLinksOps).thenApply(gnore -> context);
+            return this.operationPipeline.submitAll(STAGE_UPDATE_TAG_LINKS,
+                    context.request.instancesToBeUpdated.keySet(),
+                    instanceId -> {
+                        Instance instance = context.request.instancesToBeUpdated.get(instanceId);
+                        ComputeState existingComputeState = context.request.computeStatesToBeUpdated
+                                .get(instanceId);
+                        Map<String, String> remoteTags = new HashMap<>();
+                        for (Tag awsInstanceTag : instance.getTags()) {
+                            if (!awsInstanceTag.getKey().equals(AWSConstants.AWS_TAG_NAME)) {
+                                remoteTags.put(awsInstanceTag.getKey(), awsInstanceTag.getValue());
+                            }
+                        }
+                        return updateLocalTagStates(this, existingComputeState, remoteTags, null);
+                    })
+                    .thenApply(ignore -> {
+                        this.operationPipeline.publishLatencyStats(this);
+                        return context;
+                    });
         }
     }
 
@@ -15,17 +15,11 @@ package com.vmware.photon.controller.model.adapters.awsadapter.util;
 
 import static com.vmware.photon.controller.model.adapterapi.EndpointConfigRequest.ARN_KEY;
 import static com.vmware.photon.controller.model.adapterapi.EndpointConfigRequest.EXTERNAL_ID_KEY;
-import static com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants.CW_CLIENT_CACHE_INITIAL_SIZE;
 import static com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants.CW_CLIENT_CACHE_MAX_SIZE;
-import static com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants.EC2_CLIENT_CACHE_INITIAL_SIZE;
 import static com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants.EC2_CLIENT_CACHE_MAX_SIZE;
-import static com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants.INVALID_CLIENT_CACHE_INITIAL_SIZE;
 import static com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants.INVALID_CLIENT_CACHE_MAX_SIZE;
-import static com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants.LB_CLIENT_CACHE_INITIAL_SIZE;
 import static com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants.LB_CLIENT_CACHE_MAX_SIZE;
-import static com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants.S3_CLIENT_CACHE_INITIAL_SIZE;
 import static com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants.S3_CLIENT_CACHE_MAX_SIZE;
-import static com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants.S3_TM_CLIENT_CACHE_INITIAL_SIZE;
 import static com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants.S3_TM_CLIENT_CACHE_MAX_SIZE;
 import static com.vmware.photon.controller.model.adapters.awsadapter.AWSUtils.TILDA;
 import static com.vmware.photon.controller.model.adapters.awsadapter.AWSUtils.awsSessionCredentialsToAuthCredentialsState;
@@ -34,7 +28,9 @@ import static com.vmware.photon.controller.model.adapters.awsadapter.AWSUtils.is
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -52,7 +48,7 @@ import com.amazonaws.services.s3.transfer.TransferManager;
 import com.vmware.photon.controller.model.UriPaths;
 import com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants.AwsClientType;
 import com.vmware.photon.controller.model.adapters.awsadapter.AWSUtils;
-import com.vmware.photon.controller.model.adapters.util.LRUCache;
+import com.vmware.photon.controller.model.adapters.util.BoundedConcurrentCache;
 import com.vmware.xenon.common.DeferredResult;
 import com.vmware.xenon.common.OperationContext;
 import com.vmware.xenon.common.StatelessService;
@@ -67,18 +63,21 @@ public class AWSClientManager {
     private static String SEPARATOR = "-";
     // Flag for determining the type of AWS client managed by this client manager.
     private AwsClientType awsClientType;
-    private Map<String, AmazonEC2AsyncClient> ec2ClientCache;
-    private Map<String, AmazonCloudWatchAsyncClient> cloudWatchClientCache;
-    private Map<String, AmazonS3Client> s3clientCache;
-    private Map<String, TransferManager> s3TransferManagerCache;
-    private Map<String, AmazonElasticLoadBalancingAsyncClient> loadBalancingClientCache;
+    private BoundedConcurrentCache<String, AmazonEC2AsyncClient> ec2ClientCache;
+    private BoundedConcurrentCache<String, AmazonCloudWatchAsyncClient> cloudWatchClientCache;
+    private BoundedConcurrentCache<String, AmazonS3Client> s3clientCache;
+    private BoundedConcurrentCache<String, TransferManager> s3TransferManagerCache;
+    private BoundedConcurrentCache<String, AmazonElasticLoadBalancingAsyncClient> loadBalancingClientCache;
     private Map<String, DeferredResult<AuthCredentialsServiceState>> arnCredentialsCache;
     private ExecutorService executorService;
+    // The executor handed to the clients, which they cannot shut down.
+    private ExecutorService clientExecutorService;
 
-    private LRUCache<String, Long> invalidEc2Clients;
-    private LRUCache<String, Long> invalidCloudWatchClients;
-    private LRUCache<String, Long> invalidLoadBalancingClients;
-    private LRUCache<String, Long> invalidS3Clients;
+    // Cache entries are the times at which the clients were marked invalid.
+    private BoundedConcurrentCache<String, Long> invalidEc2Clients;
+    private BoundedConcurrentCache<String, Long> invalidCloudWatchClients;
+    private BoundedConcurrentCache<String, Long> invalidLoadBalancingClients;
+    private BoundedConcurrentCache<String, Long> invalidS3Clients;
 
     public static final String AWS_RETRY_AFTER_INTERVAL_MINUTES = UriPaths.PROPERTY_PREFIX
             + "AWSClientManager.retryInterval";
@@ -86,42 +85,36 @@ public class AWSClientManager {
     private static final int RETRY_AFTER_INTERVAL_MINUTES = Integer
             .getInteger(AWS_RETRY_AFTER_INTERVAL_MINUTES, DEFAULT_RETRY_AFTER_INTERVAL_MINUTES);
 
+    public static final String AWS_CLIENT_IDLE_TIMEOUT_MINUTES = UriPaths.PROPERTY_PREFIX
+            + "AWSClientManager.clientIdleTimeout";
+    private static final int DEFAULT_CLIENT_IDLE_TIMEOUT_MINUTES = 60;
+    private static final int CLIENT_IDLE_TIMEOUT_MINUTES = Integer
+            .getInteger(AWS_CLIENT_IDLE_TIMEOUT_MINUTES, DEFAULT_CLIENT_IDLE_TIMEOUT_MINUTES);
+
     AWSClientManager(AwsClientType awsClientType) {
         this.arnCredentialsCache = Collections.synchronizedMap(new HashMap<>());
         this.awsClientType = awsClientType;
+        // Evicted clients are not shut down, as callers may still hold them for long running
+        // requests, e.g. bill downloads or enumerations; they are released once unreferenced.
         switch (awsClientType) {
         case EC2:
-            this.ec2ClientCache = Collections
-                    .synchronizedMap(new LRUCache<>(EC2_CLIENT_CACHE_INITIAL_SIZE,
-                            EC2_CLIENT_CACHE_MAX_SIZE));
-            this.invalidEc2Clients = new LRUCache<>(INVALID_CLIENT_CACHE_INITIAL_SIZE,
-                    INVALID_CLIENT_CACHE_MAX_SIZE);
+            this.ec2ClientCache = newClientCache(EC2_CLIENT_CACHE_MAX_SIZE);
+            this.invalidEc2Clients = newInvalidClientCache();
             return;
         case CLOUD_WATCH:
-            this.cloudWatchClientCache = Collections
-                    .synchronizedMap(new LRUCache<>(CW_CLIENT_CACHE_INITIAL_SIZE,
-                            CW_CLIENT_CACHE_MAX_SIZE));
-            this.invalidCloudWatchClients = new LRUCache<>(INVALID_CLIENT_CACHE_INITIAL_SIZE,
-                    INVALID_CLIENT_CACHE_MAX_SIZE);
+            this.cloudWatchClientCache = newClientCache(CW_CLIENT_CACHE_MAX_SIZE);
+            this.invalidCloudWatchClients = newInvalidClientCache();
             return;
         case S3:
-            this.s3clientCache = Collections
-                    .synchronizedMap(new LRUCache<>(S3_CLIENT_CACHE_INITIAL_SIZE,
-                            S3_CLIENT_CACHE_MAX_SIZE));
-            this.invalidS3Clients = new LRUCache<>(INVALID_CLIENT_CACHE_INITIAL_SIZE,
-                    INVALID_CLIENT_CACHE_MAX_SIZE);
+            this.s3clientCache = newClientCache(S3_CLIENT_CACHE_MAX_SIZE);
+            this.invalidS3Clients = newInvalidClientCache();
             return;
         case S3_TRANSFER_MANAGER:
-            this.s3TransferManagerCache = Collections
-                    .synchronizedMap(new LRUCache<>(S3_TM_CLIENT_CACHE_INITIAL_SIZE,
-                            S3_TM_CLIENT_CACHE_MAX_SIZE));
+            this.s3TransferManagerCache = newClientCache(S3_TM_CLIENT_CACHE_MAX_SIZE);
             return;
         case LOAD_BALANCING:
-            this.loadBalancingClientCache = Collections
-                    .synchronizedMap(new LRUCache<>(LB_CLIENT_CACHE_INITIAL_SIZE,
-                            LB_CLIENT_CACHE_MAX_SIZE));
-            this.invalidLoadBalancingClients = new LRUCache<>(INVALID_CLIENT_CACHE_INITIAL_SIZE,
-                    INVALID_CLIENT_CACHE_MAX_SIZE);
+            this.loadBalancingClientCache = newClientCache(LB_CLIENT_CACHE_MAX_SIZE);
+            this.invalidLoadBalancingClients = newInvalidClientCache();
             return;
         default:
             String msg = "The specified AWS client type " + awsClientType
@@ -133,6 +126,62 @@ public class AWSClientManager {
     public AWSClientManager(AwsClientType awsClientType, ExecutorService executorService) {
         this(awsClientType);
         this.executorService = executorService;
+        this.clientExecutorService = executorService == null ? null
+                : new NonTerminatingExecutorService(executorService);
+    }
+
+    private static <T> BoundedConcurrentCache<String, T> newClientCache(int maxSize) {
+        return new BoundedConcurrentCache<String, T>(maxSize)
+                .setExpireAfterAccess(CLIENT_IDLE_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+    }
+
+    private static BoundedConcurrentCache<String, Long> newInvalidClientCache() {
+        return new BoundedConcurrentCache<String, Long>(INVALID_CLIENT_CACHE_MAX_SIZE)
+                .setExpireAfterWrite(RETRY_AFTER_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * View of the shared executor of this client manager, handed to the AWS async clients. Their
+     * shutdown also shuts down their executor, which would break all the other clients. The
+     * executor itself is shut down by {@link AWSClientManagerFactory}.
+     */
+    private static class NonTerminatingExecutorService extends AbstractExecutorService {
+
+        private final ExecutorService executorService;
+
+        NonTerminatingExecutorService(ExecutorService executorService) {
+            this.executorService = executorService;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            this.executorService.execute(command);
+        }
+
+        @Override
+        public void shutdown() {
+            // Not owned by the client
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return this.executorService.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return this.executorService.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return this.executorService.awaitTermination(timeout, unit);
+        }
     }
 
     /**
@@ -151,7 +200,7 @@ public class AWSClientManager {
      *                to be allocated.
      * @return A {@link DeferredResult} of the AWS client.
      */
-    public synchronized DeferredResult<AmazonEC2AsyncClient> getOrCreateEC2ClientAsync(
+    public DeferredResult<AmazonEC2AsyncClient> getOrCreateEC2ClientAsync(
             AuthCredentialsServiceState credentials, String regionId, StatelessService service) {
         if (this.awsClientType != AwsClientType.EC2) {
             return DeferredResult.failed(new UnsupportedOperationException(
@@ -198,7 +247,7 @@ public class AWSClientManager {
         String cacheKey = createCredentialRegionCacheKey(credentials, regionId);
         try {
             amazonEC2Client = this.ec2ClientCache.computeIfAbsent(cacheKey, key -> AWSUtils
-                    .getAsyncClient(credentials, regionId, getExecutor()));
+                    .getAsyncClient(credentials, regionId, this.clientExecutorService));
         } catch (Throwable e) {
             service.logSevere(e);
             failConsumer.accept(e);
@@ -229,9 +278,7 @@ public class AWSClientManager {
     public boolean isEc2ClientInvalid(AuthCredentialsServiceState credentials,
             String regionId) {
         String cacheKey = createCredentialRegionCacheKey(credentials, regionId);
-        synchronized (this.ec2ClientCache) {
-            return isInvalidClient(this.invalidEc2Clients, cacheKey);
-        }
+        return isInvalidClient(this.invalidEc2Clients, cacheKey);
     }
 
     /**
@@ -247,10 +294,7 @@ public class AWSClientManager {
             AuthCredentialsServiceState credentials, String regionId) {
         String cacheKey = createCredentialRegionCacheKey(credentials, regionId);
         service.logWarning("Marking EC2 client cache entry invalid for key: " + cacheKey);
-        synchronized (this.ec2ClientCache) {
-            this.invalidEc2Clients.put(cacheKey, Utils.getNowMicrosUtc());
-            this.ec2ClientCache.remove(cacheKey);
-        }
+        invalidateClient(this.ec2ClientCache, this.invalidEc2Clients, cacheKey);
     }
 
     /**
@@ -266,7 +310,7 @@ public class AWSClientManager {
      *                to be allocated.
      * @return The AWSClient
      */
-    public synchronized DeferredResult<AmazonCloudWatchAsyncClient> getOrCreateCloudWatchClientAsync(
+    public DeferredResult<AmazonCloudWatchAsyncClient> getOrCreateCloudWatchClientAsync(
             AuthCredentialsServiceState credentials, String regionId, StatelessService service,
             boolean isMock) {
         if (this.awsClientType != AwsClientType.CLOUD_WATCH) {
@@ -321,7 +365,7 @@ public class AWSClientManager {
         try {
             amazonCloudWatchClient = this.cloudWatchClientCache.computeIfAbsent(cacheKey, key -> {
                 AmazonCloudWatchAsyncClient client = AWSUtils.getStatsAsyncClient
-                        (credentials, regionId, getExecutor(), isMock);
+                        (credentials, regionId, this.clientExecutorService, isMock);
                 client.describeAlarmsAsync(
                         new AsyncHandler<DescribeAlarmsRequest, DescribeAlarmsResult>() {
                             @Override
@@ -345,18 +389,13 @@ public class AWSClientManager {
     }
 
     private boolean isCloudWatchClientInvalid(String cacheKey) {
-        synchronized (this.cloudWatchClientCache) {
-            return isInvalidClient(this.invalidCloudWatchClients, cacheKey);
-        }
+        return isInvalidClient(this.invalidCloudWatchClients, cacheKey);
     }
 
     public void markCloudWatchClientInvalid(StatelessService service,
             String cacheKey) {
         service.logWarning("Marking cloudwatch client cache entry invalid for key: " + cacheKey);
-        synchronized (this.cloudWatchClientCache) {
-            this.invalidCloudWatchClients.put(cacheKey, Utils.getNowMicrosUtc());
-            this.cloudWatchClientCache.remove(cacheKey);
-        }
+        invalidateClient(this.cloudWatchClientCache, this.invalidCloudWatchClients, cacheKey);
     }
 
     /**
@@ -372,7 +411,7 @@ public class AWSClientManager {
      *                to be allocated.
      * @return The AWSClient
      */
-    public synchronized DeferredResult<TransferManager> getOrCreateS3TransferManagerAsync(
+    public DeferredResult<TransferManager> getOrCreateS3TransferManagerAsync(
             AuthCredentialsServiceState credentials, String regionId, StatelessService service) {
         if (this.awsClientType != AwsClientType.S3_TRANSFER_MANAGER) {
             return DeferredResult.failed(new UnsupportedOperationException(
@@ -403,7 +442,7 @@ public class AWSClientManager {
      * @param failConsumer A callback to handle failure responses.
      * @return The AWSClient
      */
-    public synchronized TransferManager getOrCreateS3TransferManager(
+    public TransferManager getOrCreateS3TransferManager(
             AuthCredentialsServiceState credentials,
             String regionId, StatelessService service, Consumer<Throwable> failConsumer) {
         if (this.awsClientType != AwsClientType.S3_TRANSFER_MANAGER) {
@@ -419,7 +458,7 @@ public class AWSClientManager {
         String cacheKey = createCredentialRegionCacheKey(credentials, regionId);
         try {
             return this.s3TransferManagerCache.computeIfAbsent(cacheKey, key -> AWSUtils
-                    .getS3TransferManager(credentials, regionId, getExecutor()));
+                    .getS3TransferManager(credentials, regionId, this.clientExecutorService));
 
         } catch (Throwable t) {
             service.logSevere(t);
@@ -442,7 +481,7 @@ public class AWSClientManager {
      *                to be allocated.
      * @return The AWSClient
      */
-    public synchronized DeferredResult<AmazonElasticLoadBalancingAsyncClient> getOrCreateLoadBalancingClientAsync(
+    public DeferredResult<AmazonElasticLoadBalancingAsyncClient> getOrCreateLoadBalancingClientAsync(
             AuthCredentialsServiceState credentials, String regionId, StatelessService service,
             boolean isMock) {
         if (this.awsClientType != AwsClientType.LOAD_BALANCING) {
@@ -495,7 +534,8 @@ public class AWSClientManager {
         }
         try {
             return this.loadBalancingClientCache.computeIfAbsent(cacheKey, key -> AWSUtils
-                    .getLoadBalancingAsyncClient(credentials, regionId, getExecutor()));
+                    .getLoadBalancingAsyncClient(credentials, regionId,
+                            this.clientExecutorService));
         } catch (Throwable e) {
             service.logSevere(e);
             failConsumer.accept(e);
@@ -504,9 +544,7 @@ public class AWSClientManager {
     }
 
     private boolean isLoadBalancingClientInvalid(String cacheKey) {
-        synchronized (this.loadBalancingClientCache) {
-            return isInvalidClient(this.invalidLoadBalancingClients, cacheKey);
-        }
+        return isInvalidClient(this.invalidLoadBalancingClients, cacheKey);
     }
 
     /**
@@ -523,10 +561,7 @@ public class AWSClientManager {
         String cacheKey = createCredentialRegionCacheKey(credentials, regionId);
         service.logWarning(
                 "Marking load balancing client cache entry invalid for key: " + cacheKey);
-        synchronized (this.loadBalancingClientCache) {
-            this.invalidLoadBalancingClients.put(cacheKey, Utils.getNowMicrosUtc());
-            this.loadBalancingClientCache.remove(cacheKey);
-        }
+        invalidateClient(this.loadBalancingClientCache, this.invalidLoadBalancingClients, cacheKey);
     }
 
     /**
@@ -542,7 +577,7 @@ public class AWSClientManager {
      *                to be allocated.
      * @return The AWSClient
      */
-    public synchronized DeferredResult<AmazonS3Client> getOrCreateS3ClientAsync(
+    public DeferredResult<AmazonS3Client> getOrCreateS3ClientAsync(
             AuthCredentialsServiceState credentials, String regionId, StatelessService service) {
         if (this.awsClientType != AwsClientType.S3) {
             return DeferredResult.failed(new UnsupportedOperationException(
@@ -611,10 +646,7 @@ public class AWSClientManager {
             AuthCredentialsServiceState credentials, String regionId) {
         String cacheKey = createCredentialRegionCacheKey(credentials, regionId);
         service.logWarning("Marking S3 client cache entry invalid for key: " + cacheKey);
-        synchronized (this.s3clientCache) {
-            this.invalidS3Clients.put(cacheKey, Utils.getNowMicrosUtc());
-            this.s3clientCache.remove(cacheKey);
-        }
+        invalidateClient(this.s3clientCache, this.invalidS3Clients, cacheKey);
     }
 
     /**
@@ -628,33 +660,36 @@ public class AWSClientManager {
     public boolean isS3ClientInvalid(AuthCredentialsServiceState credentials,
             String regionId) {
         String cacheKey = createCredentialRegionCacheKey(credentials, regionId);
-        synchronized (this.s3clientCache) {
-            return isInvalidClient(this.invalidS3Clients, cacheKey);
+        return isInvalidClient(this.invalidS3Clients, cacheKey);
+    }
+
+    /**
+     * Marks the client cached for the given key as invalid and removes it from the cache. Only
+     * the client seen when marking it is removed, not one cached in the meantime by another
+     * thread.
+     */
+    private static <T> void invalidateClient(BoundedConcurrentCache<String, T> clientCache,
+            BoundedConcurrentCache<String, Long> invalidClients, String cacheKey) {
+        T client = clientCache.get(cacheKey);
+        invalidClients.put(cacheKey, Utils.getNowMicrosUtc());
+        if (client != null) {
+            clientCache.remove(cacheKey, client);
         }
     }
 
     /**
      * Checks if a client (via cache key) has been marked as invalid within the last
      * {@link #RETRY_AFTER_INTERVAL_MINUTES} minutes. If a client has been marked before, but
-     * {@link #RETRY_AFTER_INTERVAL_MINUTES} minutes has passed, the client is removed from the
-     * cache and it is no longer considered invalid.
+     * {@link #RETRY_AFTER_INTERVAL_MINUTES} minutes has passed, the entry has expired from the
+     * cache and the client is no longer considered invalid.
      * @param cache
      *         The cache to check.
      * @param cacheKey
      *         The commonly used key to identify a client in the cache.
      * @return true if the client is marked as invalid, false otherwise.
      */
-    private boolean isInvalidClient(LRUCache<String, Long> cache, String cacheKey) {
-        Long entryTimestamp = cache.get(cacheKey);
-        if (entryTimestamp != null) {
-            if ((entryTimestamp + TimeUnit.MINUTES.toMicros(RETRY_AFTER_INTERVAL_MINUTES)) < Utils
-                    .getNowMicrosUtc()) {
-                cache.remove(cacheKey);
-            } else {
-                return true;
-            }
-        }
-        return false;
+    private boolean isInvalidClient(BoundedConcurrentCache<String, Long> cache, String cacheKey) {
+        return cache.get(cacheKey) != null;
     }
 
     /**
@@ -681,11 +716,16 @@ public class AWSClientManager {
      * @param credentials The auth credentials to be used for the client creation
      * @param service A service to issue requests
      */
-    public synchronized DeferredResult<AuthCredentialsServiceState> getArnCredentialsFromCache(
+    public DeferredResult<AuthCredentialsServiceState> getArnCredentialsFromCache(
             AuthCredentialsServiceState credentials, StatelessService service) {
         if (!isArnCredentials(credentials)) {
             return DeferredResult.completed(credentials);
         }
+        return getOrRefreshArnCredentials(credentials, service);
+    }
+
+    private synchronized DeferredResult<AuthCredentialsServiceState> getOrRefreshArnCredentials(
+            AuthCredentialsServiceState credentials, StatelessService service) {
 
         String arn = credentials.customProperties.get(ARN_KEY);
         String arnCacheKey = Utils.computeHash(arn);
@@ -748,27 +788,23 @@ public class AWSClientManager {
         cleanUpArnCache();
         switch (this.awsClientType) {
         case CLOUD_WATCH:
-            cleanupCache(this.cloudWatchClientCache, c -> c.shutdown());
+            this.cloudWatchClientCache.clear(c -> c.shutdown());
             break;
 
         case EC2:
-            this.ec2ClientCache.values().forEach(c -> c.shutdown());
-            this.ec2ClientCache.clear();
-            cleanupCache(this.ec2ClientCache, c -> c.shutdown());
+            this.ec2ClientCache.clear(c -> c.shutdown());
             break;
 
         case S3:
-            this.s3clientCache.values().forEach(c -> c.shutdown());
-            this.s3clientCache.clear();
-            cleanupCache(this.s3clientCache, c -> c.shutdown());
+            this.s3clientCache.clear(c -> c.shutdown());
             break;
 
         case S3_TRANSFER_MANAGER:
-            cleanupCache(this.s3TransferManagerCache, c -> c.shutdownNow());
+            this.s3TransferManagerCache.clear(c -> c.shutdownNow());
             break;
 
         case LOAD_BALANCING:
-            cleanupCache(this.loadBalancingClientCache, c -> c.shutdown());
+            this.loadBalancingClientCache.clear(c -> c.shutdown());
             break;
 
         default:
@@ -777,13 +813,6 @@ public class AWSClientManager {
         }
     }
 
-    private <T> void cleanupCache(Map<?, T> cache, Consumer<T> consumer) {
-        synchronized (cache) {
-            cache.values().forEach(c -> consumer.accept(c));
-            cache.clear();
-        }
-    }
-
     /**
      * Returns the executor pool associated with the service host. In case one does not exist already,
      * creates a new one and saves that in a cache.
@@ -793,25 +822,26 @@ public class AWSClientManager {
     }
 
     /**
-     * Returns the count of the clients that are cached in the client cache for the specified client type.
+     * Returns the count of the clients that are cached in the client cache for the specified client
+     * type, not counting the expired ones.
      */
     public int getCacheCount() {
         int size = 0;
         switch (this.awsClientType) {
         case EC2:
-            size = this.ec2ClientCache.size();
+            size = this.ec2ClientCache.values().size();
             break;
         case CLOUD_WATCH:
-            size = this.cloudWatchClientCache.size();
+            size = this.cloudWatchClientCache.values().size();
             break;
         case S3:
-            size = this.s3clientCache.size();
+            size = this.s3clientCache.values().size();
             break;
         case S3_TRANSFER_MANAGER:
-            size = this.s3TransferManagerCache.size();
+            size = this.s3TransferManagerCache.values().size();
             break;
         case LOAD_BALANCING:
-            size = this.loadBalancingClientCache.size();
+            size = this.loadBalancingClientCache.values().size();
             break;
         default:
         }
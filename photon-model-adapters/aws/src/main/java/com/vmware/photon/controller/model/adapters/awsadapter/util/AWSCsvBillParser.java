@@ -22,6 +22,8 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -91,14 +93,42 @@ public class AWSCsvBillParser {
                 .substring(0, csvBillZipFilePath.toString().lastIndexOf('.'));
         Path unzippedCsvFilePath = Paths.get(unzippedCsvFilePathStr);
         try (InputStream extractedObjectContentInputStream = new FileInputStream(unzippedCsvFilePath.toFile())) {
-            parseDetailedCsvBill(extractedObjectContentInputStream, ignorableInvoiceCharge, configuredAccounts,
+            parseExtractedCsvBill(extractedObjectContentInputStream, ignorableInvoiceCharge, configuredAccounts,
                     hourlyStatsConsumer, monthlyStatsConsumer);
         } finally {
             Files.deleteIfExists(unzippedCsvFilePath);
         }
     }
 
-    private void parseDetailedCsvBill(InputStream inputStream, Collection<String> ignorableInvoiceCharge,
+    /**
+     * Parses a zipped detailed bill directly from the given stream, e.g. the content of the S3
+     * object, without extracting it to disk. Rows are read by a header-indexed reader that reuses
+     * a single row buffer, so memory usage does not depend on the size of the bill.
+     */
+    public void parseDetailedCsvBill(List<String> ignorableInvoiceCharge,
+            InputStream csvBillZipStream, Set<String> configuredAccounts,
+            BiConsumer<Map<String, AwsAccountDetailDto>, String> hourlyStatsConsumer,
+            Consumer<Map<String, AwsAccountDetailDto>> monthlyStatsConsumer)
+            throws IOException {
+
+        try (ZipInputStream zipInputStream = new ZipInputStream(csvBillZipStream)) {
+            if (zipInputStream.getNextEntry() == null) {
+                throw new IOException("AWS bill archive does not contain any entries.");
+            }
+            DetailedCsvRowReader rowReader = new DetailedCsvRowReader(
+                    new InputStreamReader(zipInputStream, StandardCharsets.UTF_8));
+            String[] header = rowReader.readHeader();
+            if (header == null) {
+                throw new IOException("AWS bill archive does not contain a header row.");
+            }
+            List<String> tagHeaders = getTagHeaders(header);
+            parseRows(() -> rowReader.readRow() ? rowReader : null, tagHeaders,
+                    ignorableInvoiceCharge, configuredAccounts, hourlyStatsConsumer,
+                    monthlyStatsConsumer);
+        }
+    }
+
+    private void parseExtractedCsvBill(InputStream inputStream, Collection<String> ignorableInvoiceCharge,
             Set<String> configuredAccounts, BiConsumer<Map<String, AwsAccountDetailDto>, String> hourlyStatsConsumer,
             Consumer<Map<String, AwsAccountDetailDto>> monthlyStatsConsumer) throws IOException {
         final CsvPreference STANDARD_SKIP_COMMENTS = new CsvPreference.Builder(
@@ -114,51 +144,70 @@ public class AWSCsvBillParser {
             final CellProcessor[] basicProcessors = getDetailedProcessors(header);
 
             processorList.addAll(Arrays.asList(basicProcessors));
-            List<String> tagHeaders = new ArrayList<>();
+            List<String> tagHeaders = getTagHeaders(header);
 
             // Add new cell-processors for each extra tag column
-            int numberOfTags = header.length - basicProcessors.length;
-            if (numberOfTags > 0) {
-                for (int i = 0; i < numberOfTags; i++) {
-                    processorList.add(new Optional());
-                    tagHeaders.add(header[basicProcessors.length + i]);
-                }
+            for (int i = 0; i < tagHeaders.size(); i++) {
+                processorList.add(new Optional());
             }
             CellProcessor[] cellProcessorArray = new CellProcessor[processorList.size()];
-
-            Map<String, AwsAccountDetailDto> monthlyBill = new HashMap<>();
             cellProcessorArray = processorList.toArray(cellProcessorArray);
-            Map<String, Object> rowMap;
-            Long prevRowTime = null;
-            Long prevRowEndTime;
-            String interval = null;
-            while ((rowMap = mapReader.read(header, cellProcessorArray)) != null) {
-                LocalDateTime currRowLocalDateTime = (LocalDateTime) rowMap
-                        .get(DetailedCsvHeaders.USAGE_START_DATE);
-                Long curRowTime = getMillisForHour(currRowLocalDateTime);
-                if (prevRowTime != null && curRowTime != null && !prevRowTime.equals(curRowTime)
-                        && !StringUtils.contains(interval, "-")) {
-                    // This indicates that we have processed all rows belonging to a corresponding hour in the
-                    // current month bill. Consume the batch
-                    hourlyStatsConsumer.accept(monthlyBill, interval);
-                }
-                try {
-                    readRow(rowMap, monthlyBill, tagHeaders, ignorableInvoiceCharge, configuredAccounts);
-                } catch (Exception e) {
-                    this.logger.warning(String.format("Got error while parsing a row in aws bill of %s",
-                            getStringFieldValue(rowMap, DetailedCsvHeaders.PAYER_ACCOUNT_ID) + e));
-                }
-                if (curRowTime != null) {
-                    prevRowTime = curRowTime;
-                    prevRowEndTime = getMillisForHour((LocalDateTime) rowMap.get(DetailedCsvHeaders.USAGE_END_DATE));
-                    interval = createInterval(prevRowTime, prevRowEndTime);
-                }
+            final CellProcessor[] processors = cellProcessorArray;
+
+            MapBillRow row = new MapBillRow();
+            parseRows(() -> {
+                Map<String, Object> rowMap = mapReader.read(header, processors);
+                return rowMap == null ? null : row.wrap(rowMap);
+            }, tagHeaders, ignorableInvoiceCharge, configuredAccounts, hourlyStatsConsumer,
+                    monthlyStatsConsumer);
+        }
+    }
+
+    private void parseRows(BillRowSupplier rows, List<String> tagHeaders,
+            Collection<String> ignorableInvoiceCharge, Set<String> configuredAccounts,
+            BiConsumer<Map<String, AwsAccountDetailDto>, String> hourlyStatsConsumer,
+            Consumer<Map<String, AwsAccountDetailDto>> monthlyStatsConsumer) throws IOException {
+        Map<String, AwsAccountDetailDto> monthlyBill = new HashMap<>();
+        BillRow row;
+        Long prevRowTime = null;
+        Long prevRowEndTime;
+        String interval = null;
+        while ((row = rows.next()) != null) {
+            LocalDateTime currRowLocalDateTime = (LocalDateTime) row
+                    .get(DetailedCsvHeaders.USAGE_START_DATE);
+            Long curRowTime = getMillisForHour(currRowLocalDateTime);
+            if (prevRowTime != null && curRowTime != null && !prevRowTime.equals(curRowTime)
+                    && !StringUtils.contains(interval, "-")) {
+                // This indicates that we have processed all rows belonging to a corresponding hour in the
+                // current month bill. Consume the batch
+                hourlyStatsConsumer.accept(monthlyBill, interval);
             }
+            try {
+                readRow(row, monthlyBill, tagHeaders, ignorableInvoiceCharge, configuredAccounts);
+            } catch (Exception e) {
+                this.logger.warning(String.format("Got error while parsing a row in aws bill of %s",
+                        getStringFieldValue(row, DetailedCsvHeaders.PAYER_ACCOUNT_ID) + e));
+            }
+            if (curRowTime != null) {
+                prevRowTime = curRowTime;
+                prevRowEndTime = getMillisForHour((LocalDateTime) row.get(DetailedCsvHeaders.USAGE_END_DATE));
+                interval = createInterval(prevRowTime, prevRowEndTime);
+            }
+        }
+
+        // Consume the final batch of parsed rows
+        hourlyStatsConsumer.accept(monthlyBill, interval);
+        monthlyStatsConsumer.accept(monthlyBill);
+    }
 
-            // Consume the final batch of parsed rows
-            hourlyStatsConsumer.accept(monthlyBill, interval);
-            monthlyStatsConsumer.accept(monthlyBill);
+    private static List<String> getTagHeaders(String[] header) {
+        List<String> tagHeaders = new ArrayList<>();
+        // Every column after the basic ones is a tag column
+        int basicColumns = getDetailedProcessors(header).length;
+        for (int i = basicColumns; i < header.length; i++) {
+            tagHeaders.add(header[i]);
         }
+        return tagHeaders;
     }
 
     public String getCsvBillFileName(LocalDate date, String accountId, boolean isZipFile) {
@@ -207,12 +256,12 @@ public class AWSCsvBillParser {
      * are not required, creates or updates the corresponding entry in
      * monthlyBill Map.
      **/
-    private void readRow(Map<String, Object> rowMap, Map<String, AwsAccountDetailDto> monthlyBill,
+    private void readRow(BillRow row, Map<String, AwsAccountDetailDto> monthlyBill,
             List<String> tagHeaders, Collection<String> ignorableInvoiceCharge, Set<String> configuredAccounts) {
 
-        final String linkedAccountId = getStringFieldValue(rowMap, DetailedCsvHeaders.LINKED_ACCOUNT_ID);
-        String serviceName = getStringFieldValue(rowMap, DetailedCsvHeaders.PRODUCT_NAME);
-        String subscriptionId = getStringFieldValue(rowMap, DetailedCsvHeaders.SUBSCRIPTION_ID);
+        final String linkedAccountId = getStringFieldValue(row, DetailedCsvHeaders.LINKED_ACCOUNT_ID);
+        String serviceName = getStringFieldValue(row, DetailedCsvHeaders.PRODUCT_NAME);
+        String subscriptionId = getStringFieldValue(row, DetailedCsvHeaders.SUBSCRIPTION_ID);
 
         //------------------------------------------------------------------------------------
         // Summary Row: For all rows except summary rows this is not null.
@@ -220,7 +269,7 @@ public class AWSCsvBillParser {
                 || serviceName.length() == 0) {
             // Reads the summary lines in bill file, which consists of the
             // account cost and puts it in the monthly bill map
-            readSummaryRow(rowMap, linkedAccountId, serviceName, monthlyBill, ignorableInvoiceCharge);
+            readSummaryRow(row, linkedAccountId, serviceName, monthlyBill, ignorableInvoiceCharge);
             return;
         }
 
@@ -235,19 +284,19 @@ public class AWSCsvBillParser {
         //------------------------------------------------------------------------------------
         // Non-summary rows.
         if (this.billInvoiceId == null) {
-            this.billInvoiceId = getStringFieldValue(rowMap, DetailedCsvHeaders.INVOICE_ID);
+            this.billInvoiceId = getStringFieldValue(row, DetailedCsvHeaders.INVOICE_ID);
         }
-        LocalDateTime usageStartTimeFromCsv = (LocalDateTime) rowMap.get(DetailedCsvHeaders.USAGE_START_DATE);
+        LocalDateTime usageStartTimeFromCsv = (LocalDateTime) row.get(DetailedCsvHeaders.USAGE_START_DATE);
         Long millisForBillHour = getMillisForHour(usageStartTimeFromCsv);
-        boolean isRowMarkedAsReserved = isRowReservedInstanceRecurringCost(rowMap);
+        boolean isRowMarkedAsReserved = isRowReservedInstanceRecurringCost(row);
 
         // Populate hourly resource and service stats only for current month since they are not needed
         // for previous months.
         if (millisForBillHour == null || (millisForBillHour >= this.monthStartMillis)) {
 
-            String resourceId = getStringFieldValue(rowMap, DetailedCsvHeaders.RESOURCE_ID);
+            String resourceId = getStringFieldValue(row, DetailedCsvHeaders.RESOURCE_ID);
             AwsServiceDetailDto serviceDetail = createOrGetServiceDetailObject(accountDetails, serviceName, resourceId);
-            Double resourceCost = getResourceCost(rowMap);
+            Double resourceCost = getResourceCost(row);
             // In case we do not have resource id, this might be unknown
             // cost(unallocated) or one of summary line items {otherCost
             // (recurring charges for reserved instance)or sign up charges(which we have to ignore)}
@@ -255,7 +304,7 @@ public class AWSCsvBillParser {
                 // Check if this row has usageStartTime, if so set otherCost for
                 // day, otherwise set it as common for month, can divide later for all days
                 if (millisForBillHour != null) {
-                    if (isRowMarkedAsReserved && matchFieldValue(rowMap, DetailedCsvHeaders.OPERATION, RUN_INSTANCES)) {
+                    if (isRowMarkedAsReserved && matchFieldValue(row, DetailedCsvHeaders.OPERATION, RUN_INSTANCES)) {
                         serviceDetail.addToReservedRecurringCosts(millisForBillHour, resourceCost);
                     } else {
                         serviceDetail.addToOtherCosts(millisForBillHour, resourceCost);
@@ -270,10 +319,10 @@ public class AWSCsvBillParser {
                     //currently we need only EC2 instances,volumes and s3 buckets
                     if (resourceId.startsWith(AWS_INSTANCE_ID_PREFIX) || resourceId.startsWith(AWS_VOLUME_ID_PREFIX)
                             || AwsServices.S3.getName().equalsIgnoreCase(serviceName)) {
-                        AwsResourceDetailDto resourceDetail = createOrGetResourceDetailObject(rowMap, serviceDetail,
+                        AwsResourceDetailDto resourceDetail = createOrGetResourceDetailObject(row, serviceDetail,
                                 resourceId);
                         resourceDetail.addToDirectCosts(millisForBillHour, resourceCost);
-                        setLatestResourceValues(rowMap, tagHeaders, resourceDetail);
+                        setLatestResourceValues(row, tagHeaders, resourceDetail);
                     }
                 }
             }
@@ -286,7 +335,7 @@ public class AWSCsvBillParser {
 
         // update the line count of the account to whom this row belongs to
         if (millisForBillHour != null) {
-            LocalDateTime usageEndTimeFromCsv = (LocalDateTime) rowMap.get(DetailedCsvHeaders.USAGE_END_DATE);
+            LocalDateTime usageEndTimeFromCsv = (LocalDateTime) row.get(DetailedCsvHeaders.USAGE_END_DATE);
             Long endMillisForBillHour = getMillisForHour(usageEndTimeFromCsv);
             String interval = createInterval(millisForBillHour, endMillisForBillHour);
             Integer currentLineCount = accountDetails.lineCountPerInterval.getOrDefault(interval, 0);
@@ -294,8 +343,8 @@ public class AWSCsvBillParser {
         }
     }
 
-    private boolean isRowReservedInstanceRecurringCost(Map<String, Object> rowMap) {
-        return convertReservedInstance(getStringFieldValue(rowMap, DetailedCsvHeaders.IS_RESERVED_INSTANCE));
+    private boolean isRowReservedInstanceRecurringCost(BillRow row) {
+        return convertReservedInstance(getStringFieldValue(row, DetailedCsvHeaders.IS_RESERVED_INSTANCE));
     }
 
     private String createInterval(Long startMillis, Long endMillis) {
@@ -312,19 +361,19 @@ public class AWSCsvBillParser {
         return localDateTime.toDateTime(DateTimeZone.UTC).getMillis();
     }
 
-    private Double getResourceCost(Map<String, Object> rowMap) {
+    private Double getResourceCost(BillRow row) {
         Double resourceCost = 0d;
-        if (rowMap.containsKey(DetailedCsvHeaders.BLENDED_COST)) {
-            resourceCost = getAmountFieldValue(rowMap, DetailedCsvHeaders.BLENDED_COST);
-        } else if (rowMap.containsKey(DetailedCsvHeaders.COST)) {
-            resourceCost = getAmountFieldValue(rowMap, DetailedCsvHeaders.COST);
+        if (row.containsKey(DetailedCsvHeaders.BLENDED_COST)) {
+            resourceCost = getAmountFieldValue(row, DetailedCsvHeaders.BLENDED_COST);
+        } else if (row.containsKey(DetailedCsvHeaders.COST)) {
+            resourceCost = getAmountFieldValue(row, DetailedCsvHeaders.COST);
         }
         return resourceCost;
     }
 
-    private void setLatestResourceValues(Map<String, Object> rowMap, List<String> tagHeaders,
+    private void setLatestResourceValues(BillRow row, List<String> tagHeaders,
             AwsResourceDetailDto resourceDetail) {
-        LocalDateTime usageStartTimeFromCsv = (LocalDateTime) rowMap
+        LocalDateTime usageStartTimeFromCsv = (LocalDateTime) row
                 .get(DetailedCsvHeaders.USAGE_START_DATE);
         LocalDateTime existingUsageStartTime = null;
         if (resourceDetail.usageStartTime != null) {
@@ -332,11 +381,11 @@ public class AWSCsvBillParser {
         }
         if (existingUsageStartTime == null
                 || existingUsageStartTime.compareTo(usageStartTimeFromCsv) <= 0) {
-            resourceDetail.itemDescription = getStringFieldValue(rowMap,
+            resourceDetail.itemDescription = getStringFieldValue(row,
                     DetailedCsvHeaders.ITEM_DESCRIPTION);
             resourceDetail.usageStartTime = usageStartTimeFromCsv.toDate().getTime();
-            resourceDetail.tags = getTagsForResources(rowMap, tagHeaders);
-            boolean isRowMarkedAsReserved = isRowReservedInstanceRecurringCost(rowMap);
+            resourceDetail.tags = getTagsForResources(row, tagHeaders);
+            boolean isRowMarkedAsReserved = isRowReservedInstanceRecurringCost(row);
             boolean isResourceReservedForThisHour;
             Long millisForBillDay = getMillisForHour(usageStartTimeFromCsv);
             if (existingUsageStartTime != null
@@ -356,12 +405,12 @@ public class AWSCsvBillParser {
         }
     }
 
-    private AwsResourceDetailDto createOrGetResourceDetailObject(Map<String, Object> rowMap,
+    private AwsResourceDetailDto createOrGetResourceDetailObject(BillRow row,
             AwsServiceDetailDto serviceDetail, String resourceId) {
         AwsResourceDetailDto resourceDetail = serviceDetail.getResourceDetail(resourceId);
         if (resourceDetail == null) {
             resourceDetail = new AwsResourceDetailDto();
-            resourceDetail.availabilityZone = ((String) rowMap
+            resourceDetail.availabilityZone = ((String) row
                     .get(DetailedCsvHeaders.AVAILABILITY_ZONE));
             resourceDetail.type = "OTHERS";
             serviceDetail.addToResourceDetailMap(resourceId, resourceDetail);
@@ -369,24 +418,24 @@ public class AWSCsvBillParser {
         return resourceDetail;
     }
 
-    private String getStringFieldValue(Map<String, Object> rowMap, String fieldName) {
-        Object obj = rowMap.get(fieldName);
+    private String getStringFieldValue(BillRow row, String fieldName) {
+        Object obj = row.get(fieldName);
         if (obj != null) {
             return obj.toString();
         }
         return "";
     }
 
-    private Double getAmountFieldValue(Map<String, Object> rowMap, String fieldName) {
-        Object obj = rowMap.get(fieldName);
+    private Double getAmountFieldValue(BillRow row, String fieldName) {
+        Object obj = row.get(fieldName);
         if (obj != null) {
             return Double.valueOf(obj.toString());
         }
         return 0d;
     }
 
-    private boolean matchFieldValue(Map<String, Object> rowMap, String fieldName, String value) {
-        Object fieldObj = rowMap.get(fieldName);
+    private boolean matchFieldValue(BillRow row, String fieldName, String value) {
+        Object fieldObj = row.get(fieldName);
         if (fieldObj != null) {
             if (fieldObj.toString().equalsIgnoreCase(value)) {
                 return true;
@@ -444,11 +493,11 @@ public class AWSCsvBillParser {
         }
     }
 
-    private Map<String, String> getTagsForResources(Map<String, Object> rowMap,
+    private Map<String, String> getTagsForResources(BillRow row,
             List<String> tagHeaders) {
         Map<String, String> tagMappings = new HashMap<>();
         for (String tagKey : tagHeaders) {
-            String tagValue = (String) rowMap.get(tagKey);
+            String tagValue = (String) row.get(tagKey);
             if (tagValue != null) {
                 // tags are always like [user | somethingelse]:tagFamily
                 tagMappings.put(tagKey.split(TAG_KEY_DELIMITTER)[1], tagValue);
@@ -457,7 +506,7 @@ public class AWSCsvBillParser {
         return tagMappings;
     }
 
-    private void readSummaryRow(Map<String, Object> rowMap, String linkedAccountId,
+    private void readSummaryRow(BillRow row, String linkedAccountId,
             String productName,
             Map<String, AwsAccountDetailDto> accountDetails,
             Collection<String> ignorableInvoiceCharge) {
@@ -467,21 +516,21 @@ public class AWSCsvBillParser {
             // non-consolidated bills and has to be fetched from PayerAccountId
             // column from the bill file
             awsAccountDetail = createOrGetAccountDetailObject(accountDetails,
-                    getStringFieldValue(rowMap, DetailedCsvHeaders.PAYER_ACCOUNT_ID));
+                    getStringFieldValue(row, DetailedCsvHeaders.PAYER_ACCOUNT_ID));
         } else {
             awsAccountDetail = createOrGetAccountDetailObject(accountDetails, linkedAccountId);
         }
-        String lineInvoiceId = getStringFieldValue(rowMap, DetailedCsvHeaders.INVOICE_ID);
-        Double resourceCost = getResourceCost(rowMap);
+        String lineInvoiceId = getStringFieldValue(row, DetailedCsvHeaders.INVOICE_ID);
+        Double resourceCost = getResourceCost(row);
 
-        if (matchFieldValue(rowMap, DetailedCsvHeaders.RECORD_TYPE, DetailedCsvHeaders.LINE_ITEM)) {
+        if (matchFieldValue(row, DetailedCsvHeaders.RECORD_TYPE, DetailedCsvHeaders.LINE_ITEM)) {
 
-            LocalDateTime usageStartTimeFromCsv = (LocalDateTime) rowMap.get(DetailedCsvHeaders.USAGE_START_DATE);
+            LocalDateTime usageStartTimeFromCsv = (LocalDateTime) row.get(DetailedCsvHeaders.USAGE_START_DATE);
             Long millisForBillHour = getMillisForHour(usageStartTimeFromCsv);
             AwsServiceDetailDto serviceDetail = createOrGetServiceDetailObject(awsAccountDetail, productName, null);
 
             if (serviceDetail != null && millisForBillHour != null) {
-                if (matchFieldValue(rowMap, DetailedCsvHeaders.OPERATION, RUN_INSTANCES)) {
+                if (matchFieldValue(row, DetailedCsvHeaders.OPERATION, RUN_INSTANCES)) {
                     serviceDetail.addToReservedRecurringCosts(millisForBillHour, resourceCost);
                     return;
                 }
@@ -497,10 +546,10 @@ public class AWSCsvBillParser {
 
             awsAccountDetail.otherCharges += resourceCost;
 
-        } else if (matchFieldValue(rowMap, DetailedCsvHeaders.RECORD_TYPE, ACCOUNT_TOTAL)) {
+        } else if (matchFieldValue(row, DetailedCsvHeaders.RECORD_TYPE, ACCOUNT_TOTAL)) {
             // If the RecordType is AccountTotal, this is the account monthly cost for consolidated bills
             awsAccountDetail.cost = resourceCost;
-        } else if (matchFieldValue(rowMap, DetailedCsvHeaders.RECORD_TYPE, INVOICE_TOTAL)) {
+        } else if (matchFieldValue(row, DetailedCsvHeaders.RECORD_TYPE, INVOICE_TOTAL)) {
             // If the RecordType is InvoiceTotal, this is the account monthly cost for non-consolidated bills
             // ie, for primary accounts with no linked accounts
             if (!ignorableInvoiceCharge.contains(lineInvoiceId)) {
@@ -575,6 +624,212 @@ public class AWSCsvBillParser {
         }
     }
 
+    /**
+     * Read-only view of a single bill row, keyed by column header.
+     */
+    private interface BillRow {
+        Object get(String fieldName);
+
+        boolean containsKey(String fieldName);
+    }
+
+    @FunctionalInterface
+    private interface BillRowSupplier {
+        /**
+         * Returns the next row, or {@code null} when all rows have been read.
+         */
+        BillRow next() throws IOException;
+    }
+
+    /**
+     * Adapts the rows produced by {@link CsvMapReader}.
+     */
+    private static class MapBillRow implements BillRow {
+        private Map<String, Object> rowMap;
+
+        BillRow wrap(Map<String, Object> rowMap) {
+            this.rowMap = rowMap;
+            return this;
+        }
+
+        @Override
+        public Object get(String fieldName) {
+            return this.rowMap.get(fieldName);
+        }
+
+        @Override
+        public boolean containsKey(String fieldName) {
+            return this.rowMap.containsKey(fieldName);
+        }
+    }
+
+    /**
+     * Streaming reader of detailed bill CSV rows. Values of the current row are kept in an array
+     * indexed by header position and overwritten by the next row. Empty cells are returned as
+     * {@code null} and the usage date columns are returned as {@link LocalDateTime}, the same as
+     * the {@link CsvMapReader} based path. Since rows are ordered by usage hour, the last parsed
+     * date of each date column is cached.
+     */
+    private static class DetailedCsvRowReader implements BillRow {
+        private static final int BUFFER_SIZE = 64 * 1024;
+        private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormat
+                .forPattern(DETAILED_CSV_DATE_FORMAT_YYYY_MM_DD_HH_MM_SS);
+
+        private final Reader reader;
+        private final char[] buffer = new char[BUFFER_SIZE];
+        private int position;
+        private int limit;
+        private final StringBuilder cell = new StringBuilder();
+
+        private List<String> headerCells;
+        private final Map<String, Integer> columnIndexes = new HashMap<>();
+        private String[] values;
+        private boolean[] dateColumns;
+        private String[] lastDateTexts;
+        private LocalDateTime[] lastDates;
+
+        DetailedCsvRowReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * Reads the header row, skipping leading comment rows. Returns {@code null} if the input
+         * is empty.
+         */
+        String[] readHeader() throws IOException {
+            this.headerCells = new ArrayList<>();
+            do {
+                this.headerCells.clear();
+                if (readRecord() < 0) {
+                    return null;
+                }
+            } while (isComment(this.headerCells.isEmpty() ? null : this.headerCells.get(0)));
+
+            String[] header = this.headerCells.toArray(new String[this.headerCells.size()]);
+            this.headerCells = null;
+            this.values = new String[header.length];
+            this.dateColumns = new boolean[header.length];
+            this.lastDateTexts = new String[header.length];
+            this.lastDates = new LocalDateTime[header.length];
+            for (int i = 0; i < header.length; i++) {
+                this.columnIndexes.putIfAbsent(header[i], i);
+                this.dateColumns[i] = DetailedCsvHeaders.USAGE_START_DATE.equals(header[i])
+                        || DetailedCsvHeaders.USAGE_END_DATE.equals(header[i]);
+            }
+            return header;
+        }
+
+        /**
+         * Advances to the next non-comment row. Returns {@code false} at the end of the input.
+         */
+        boolean readRow() throws IOException {
+            int columns;
+            do {
+                columns = readRecord();
+                if (columns < 0) {
+                    return false;
+                }
+                for (int i = columns; i < this.values.length; i++) {
+                    this.values[i] = null;
+                }
+            } while (isComment(this.values[0]));
+            return true;
+        }
+
+        @Override
+        public Object get(String fieldName) {
+            Integer index = this.columnIndexes.get(fieldName);
+            if (index == null) {
+                return null;
+            }
+            String value = this.values[index];
+            if (value == null || !this.dateColumns[index]) {
+                return value;
+            }
+            if (!value.equals(this.lastDateTexts[index])) {
+                try {
+                    this.lastDates[index] = DATE_FORMATTER.parseLocalDateTime(value);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(
+                            String.format("Could not parse '%s' as a LocalDateTime", value), e);
+                }
+                this.lastDateTexts[index] = value;
+            }
+            return this.lastDates[index];
+        }
+
+        @Override
+        public boolean containsKey(String fieldName) {
+            return this.columnIndexes.containsKey(fieldName);
+        }
+
+        private static boolean isComment(String firstCell) {
+            return firstCell != null && firstCell.startsWith(AWS_SKIP_COMMENTS);
+        }
+
+        /**
+         * Reads one RFC 4180 record, skipping empty lines. Returns the number of cells read, or -1
+         * at the end of the input.
+         */
+        private int readRecord() throws IOException {
+            int c = read();
+            while (c == '\r' || c == '\n') {
+                c = read();
+            }
+            if (c == -1) {
+                return -1;
+            }
+            int column = 0;
+            while (true) {
+                this.cell.setLength(0);
+                if (c == '"') {
+                    while (true) {
+                        c = read();
+                        if (c == -1) {
+                            throw new IOException("Unterminated quoted cell in AWS bill.");
+                        }
+                        if (c == '"') {
+                            c = read();
+                            if (c != '"') {
+                                break;
+                            }
+                        }
+                        this.cell.append((char) c);
+                    }
+                }
+                while (c != ',' && c != '\r' && c != '\n' && c != -1) {
+                    this.cell.append((char) c);
+                    c = read();
+                }
+                setCell(column++, this.cell.length() == 0 ? null : this.cell.toString());
+                if (c != ',') {
+                    return column;
+                }
+                c = read();
+            }
+        }
+
+        private void setCell(int column, String value) {
+            if (this.headerCells != null) {
+                this.headerCells.add(value);
+            } else if (column < this.values.length) {
+                this.values[column] = value;
+            }
+        }
+
+        private int read() throws IOException {
+            if (this.position == this.limit) {
+                this.limit = this.reader.read(this.buffer, 0, this.buffer.length);
+                this.position = 0;
+                if (this.limit <= 0) {
+                    this.limit = 0;
+                    return -1;
+                }
+            }
+            return this.buffer[this.position++];
+        }
+    }
+
     public static class DetailedCsvHeaders {
         static final String COST = "Cost";
         static final String PAYER_ACCOUNT_ID = "PayerAccountId";
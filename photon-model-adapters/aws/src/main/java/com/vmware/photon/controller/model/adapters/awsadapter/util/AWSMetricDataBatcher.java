@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.awsadapter.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatchAsync;
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.GetMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.GetMetricDataResult;
+import com.amazonaws.services.cloudwatch.model.Metric;
+import com.amazonaws.services.cloudwatch.model.MetricDataQuery;
+import com.amazonaws.services.cloudwatch.model.MetricDataResult;
+import com.amazonaws.services.cloudwatch.model.MetricStat;
+
+import com.vmware.photon.controller.model.UriPaths;
+import com.vmware.photon.controller.model.adapters.awsadapter.AWSConstants;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.ServiceStats.ServiceStat;
+
+/**
+ * Coalesces the EC2 metric queries of the instances of a region, which the stats collection sends
+ * one compute at a time, into GetMetricData calls of up to {@link #MAX_QUERIES} metric queries,
+ * instead of one GetMetricStatistics call per metric and instance. A batch is sent when full, or
+ * {@link #LINGER_MILLIS} after its first query. The datapoints are handed back to each instance
+ * separately, keyed by the normalized metric name.
+ * <p>
+ * Throttled calls are retried with an exponential backoff, up to {@link #MAX_THROTTLE_RETRIES}
+ * times. The number of calls and retries is published by {@link #publishStats(Service)}.
+ */
+public class AWSMetricDataBatcher {
+    private static final Logger logger = Logger.getLogger(AWSMetricDataBatcher.class.getName());
+
+    /**
+     * Max number of metric queries per GetMetricData call, as limited by CloudWatch. 1 disables
+     * batching.
+     */
+    public static final int MAX_QUERIES = Integer.getInteger(
+            UriPaths.PROPERTY_PREFIX + "AWSMetricDataBatcher.maxQueries", 100);
+
+    public static final long LINGER_MILLIS = Long.getLong(
+            UriPaths.PROPERTY_PREFIX + "AWSMetricDataBatcher.lingerMillis", 250);
+
+    public static final int MAX_THROTTLE_RETRIES = Integer.getInteger(
+            UriPaths.PROPERTY_PREFIX + "AWSMetricDataBatcher.maxThrottleRetries", 5);
+
+    private static final long THROTTLE_BACKOFF_MILLIS = 200;
+
+    public static final String STAT_NAME_API_CALLS = "cloudWatchGetMetricDataCalls";
+    public static final String STAT_NAME_THROTTLE_RETRIES = "cloudWatchThrottleRetries";
+    public static final String STAT_NAME_BATCHED_INSTANCES = "cloudWatchBatchedInstances";
+
+    private static final String NAMESPACE = "AWS/EC2";
+    private static final String DIMENSION_INSTANCE_ID = "InstanceId";
+    private static final String STATISTIC = "Average";
+
+    private static final Set<String> THROTTLING_ERROR_CODES = new HashSet<>(Arrays.asList(
+            "Throttling", "ThrottlingException", "RequestLimitExceeded"));
+
+    // GetMetricData does not return the unit of the datapoints
+    private static final Map<String, String> METRIC_UNITS = Collections.singletonMap(
+            AWSConstants.CPU_UTILIZATION, AWSConstants.UNIT_PERCENT);
+
+    private static final class PendingQuery {
+        final String instanceId;
+        final String[] metricNames;
+        final Date startTime;
+        final DeferredResult<Map<String, List<ServiceStat>>> result = new DeferredResult<>();
+        final Map<String, List<ServiceStat>> stats = new HashMap<>();
+
+        PendingQuery(String instanceId, String[] metricNames, Date startTime) {
+            this.instanceId = instanceId;
+            this.metricNames = metricNames;
+            this.startTime = startTime;
+        }
+    }
+
+    private static final class Batch {
+        final AmazonCloudWatchAsync client;
+        final Date endTime;
+        final int period;
+        final List<PendingQuery> queries = new ArrayList<>();
+        int size;
+
+        // Query id to instance query and metric name, set when the batch is sent
+        final Map<String, PendingQuery> queryById = new HashMap<>();
+        final Map<String, String> metricById = new HashMap<>();
+
+        Batch(AmazonCloudWatchAsync client, Date endTime, int period) {
+            this.client = client;
+            this.endTime = endTime;
+            this.period = period;
+        }
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final int maxQueries;
+    private final long lingerMillis;
+    private final int maxThrottleRetries;
+
+    // Batches not sent yet, by client and collection window. Guarded by this.
+    private final Map<List<Object>, Batch> openBatches = new HashMap<>();
+
+    private final AtomicLong apiCalls = new AtomicLong();
+    private final AtomicLong throttleRetries = new AtomicLong();
+    private final AtomicLong batchedInstances = new AtomicLong();
+
+    public AWSMetricDataBatcher(ScheduledExecutorService scheduler) {
+        this(scheduler, MAX_QUERIES, LINGER_MILLIS, MAX_THROTTLE_RETRIES);
+    }
+
+    public AWSMetricDataBatcher(ScheduledExecutorService scheduler, int maxQueries,
+            long lingerMillis, int maxThrottleRetries) {
+        this.scheduler = scheduler;
+        this.maxQueries = maxQueries;
+        this.lingerMillis = lingerMillis;
+        this.maxThrottleRetries = maxThrottleRetries;
+    }
+
+    /**
+     * Queries the average of the given EC2 metrics of an instance between the given times in the
+     * next batch of the given client, which is the client of the credentials and region of the
+     * instance. The batch is queried from the earliest start time of its instances, the
+     * datapoints before the start time of each instance are dropped.
+     *
+     * @return The datapoints by normalized metric name, without the metrics which have none.
+     */
+    public DeferredResult<Map<String, List<ServiceStat>>> query(AmazonCloudWatchAsync client,
+            String instanceId, String[] metricNames, Date startTime, Date endTime, int period) {
+        PendingQuery query = new PendingQuery(instanceId, metricNames, startTime);
+        // the clients are cached by credentials and region, and compared by identity
+        List<Object> key = Arrays.asList(client, endTime.getTime(), period);
+
+        Batch batch;
+        boolean first;
+        boolean full;
+        synchronized (this) {
+            batch = this.openBatches.computeIfAbsent(key,
+                    k -> new Batch(client, endTime, period));
+            batch.queries.add(query);
+            batch.size += metricNames.length;
+            first = batch.queries.size() == 1;
+            // full when the next query of as many metrics would not fit
+            full = batch.size + metricNames.length > this.maxQueries;
+            if (full) {
+                this.openBatches.remove(key);
+            }
+        }
+
+        if (full) {
+            send(batch);
+        } else if (first) {
+            this.scheduler.schedule(() -> flush(key, batch), this.lingerMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+        return query.result;
+    }
+
+    private void flush(List<Object> key, Batch batch) {
+        synchronized (this) {
+            // already sent if it filled up in the meantime
+            if (!this.openBatches.remove(key, batch)) {
+                return;
+            }
+        }
+        send(batch);
+    }
+
+    private void send(Batch batch) {
+        this.batchedInstances.addAndGet(batch.queries.size());
+
+        Date startTime = batch.endTime;
+        List<MetricDataQuery> metricQueries = new ArrayList<>(batch.size);
+        for (PendingQuery query : batch.queries) {
+            if (query.startTime.before(startTime)) {
+                startTime = query.startTime;
+            }
+            for (String metricName : query.metricNames) {
+                String id = "q" + metricQueries.size();
+                batch.queryById.put(id, query);
+                batch.metricById.put(id, metricName);
+                metricQueries.add(new MetricDataQuery()
+                        .withId(id)
+                        .withMetricStat(new MetricStat()
+                                .withMetric(new Metric()
+                                        .withNamespace(NAMESPACE)
+                                        .withMetricName(metricName)
+                                        .withDimensions(new Dimension()
+                                                .withName(DIMENSION_INSTANCE_ID)
+                                                .withValue(query.instanceId)))
+                                .withPeriod(batch.period)
+                                .withStat(STATISTIC)));
+            }
+        }
+
+        GetMetricDataRequest request = new GetMetricDataRequest()
+                .withMetricDataQueries(metricQueries)
+                .withStartTime(startTime)
+                .withEndTime(batch.endTime);
+        getMetricData(batch, request, 0);
+    }
+
+    private void getMetricData(Batch batch, GetMetricDataRequest request, int retries) {
+        this.apiCalls.incrementAndGet();
+        batch.client.getMetricDataAsync(request,
+                new AsyncHandler<GetMetricDataRequest, GetMetricDataResult>() {
+                    @Override
+                    public void onError(Exception e) {
+                        if (isThrottlingError(e)
+                                && retries < AWSMetricDataBatcher.this.maxThrottleRetries) {
+                            AWSMetricDataBatcher.this.throttleRetries.incrementAndGet();
+                            long backoff = THROTTLE_BACKOFF_MILLIS << retries;
+                            backoff += ThreadLocalRandom.current().nextLong(backoff);
+                            AWSMetricDataBatcher.this.scheduler.schedule(
+                                    () -> getMetricData(batch, request, retries + 1),
+                                    backoff, TimeUnit.MILLISECONDS);
+                            return;
+                        }
+                        batch.queries.forEach(q -> q.result.fail(e));
+                    }
+
+                    @Override
+                    public void onSuccess(GetMetricDataRequest req, GetMetricDataResult result) {
+                        try {
+                            addDatapoints(batch, result.getMetricDataResults());
+                        } catch (Exception e) {
+                            batch.queries.forEach(q -> q.result.fail(e));
+                            return;
+                        }
+                        if (result.getNextToken() != null) {
+                            getMetricData(batch, request.clone()
+                                    .withNextToken(result.getNextToken()), 0);
+                            return;
+                        }
+                        batch.queries.forEach(q -> q.result.complete(q.stats));
+                    }
+                });
+    }
+
+    private static void addDatapoints(Batch batch, List<MetricDataResult> results) {
+        for (MetricDataResult result : results) {
+            PendingQuery query = batch.queryById.get(result.getId());
+            if (query == null) {
+                continue;
+            }
+            if (!"Complete".equals(result.getStatusCode())) {
+                logger.log(Level.FINE, () -> String.format("Datapoints of instance %s are %s",
+                        query.instanceId, result.getStatusCode()));
+            }
+
+            String metricName = batch.metricById.get(result.getId());
+            String unit = AWSStatsNormalizer.getNormalizedUnitValue(
+                    METRIC_UNITS.get(metricName));
+            List<Date> timestamps = result.getTimestamps();
+            List<Double> values = result.getValues();
+            List<ServiceStat> stats = null;
+            for (int i = 0; i < timestamps.size(); i++) {
+                if (timestamps.get(i).before(query.startTime)) {
+                    continue;
+                }
+                ServiceStat stat = new ServiceStat();
+                stat.latestValue = values.get(i);
+                stat.unit = unit;
+                stat.sourceTimeMicrosUtc = TimeUnit.MILLISECONDS
+                        .toMicros(timestamps.get(i).getTime());
+                if (stats == null) {
+                    stats = query.stats.computeIfAbsent(
+                            AWSStatsNormalizer.getNormalizedStatKeyValue(metricName),
+                            k -> new ArrayList<>());
+                }
+                stats.add(stat);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the given failure is CloudWatch rejecting calls over its rate limit.
+     */
+    public static boolean isThrottlingError(Throwable e) {
+        if (e != null && !(e instanceof AmazonServiceException)) {
+            e = e.getCause();
+        }
+        return e instanceof AmazonServiceException
+                && THROTTLING_ERROR_CODES.contains(((AmazonServiceException) e).getErrorCode());
+    }
+
+    /**
+     * Sets the GetMetricData calls, throttle retries and batched instances as stats of the given
+     * service.
+     */
+    public void publishStats(Service service) {
+        service.setStat(STAT_NAME_API_CALLS, this.apiCalls.get());
+        service.setStat(STAT_NAME_THROTTLE_RETRIES, this.throttleRetries.get());
+        service.setStat(STAT_NAME_BATCHED_INSTANCES, this.batchedInstances.get());
+    }
+
+    public long getApiCallCount() {
+        return this.apiCalls.get();
+    }
+
+    public long getThrottleRetryCount() {
+        return this.throttleRetries.get();
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.awsadapter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.joda.time.LocalTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.vmware.photon.controller.model.adapters.awsadapter.util.AWSCsvBillParser;
+
+/**
+ * Compares the extract-to-disk parsing of detailed AWS bills with the streaming parsing done
+ * when {@link AWSCostStatsService#STREAMING_BILL_INGESTION_KEY} is set, over a generated
+ * synthetic bill. Reports the parsing time together with rows/sec and the peak heap usage of
+ * each run. The default of 10M rows is about 4GB of uncompressed CSV. Run with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.vmware.photon.controller.model.adapters.awsadapter.AWSCsvBillParserBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class AWSCsvBillParserBenchmark {
+
+    private static final int BILL_HOURS = 28 * 24;
+    private static final String PAYER_ACCOUNT_ID = "123456789";
+    private static final String[] LINKED_ACCOUNT_IDS = { "123456789", "555555555", "777777777" };
+    private static final String[] HEADER = { "InvoiceID", "PayerAccountId", "LinkedAccountId",
+            "RecordType", "RecordId", "ProductName", "RateId", "SubscriptionId", "PricingPlanId",
+            "UsageType", "Operation", "AvailabilityZone", "ReservedInstance", "ItemDescription",
+            "UsageStartDate", "UsageEndDate", "UsageQuantity", "BlendedRate", "BlendedCost",
+            "UnBlendedRate", "UnBlendedCost", "ResourceId", "user:Name", "user:Owner" };
+
+    @Param({ "10000000" })
+    public long rows;
+
+    @Param({ "5000" })
+    public int resources;
+
+    private Path workingDir;
+    private Path billZipPath;
+    private Set<String> configuredAccounts;
+    private List<MemoryPoolMXBean> heapPools;
+
+    /**
+     * Per-run counters reported next to the timing results.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class ParseCounters {
+        public long rowsPerSecond;
+        public long peakHeapMegabytes;
+    }
+
+    @Setup(Level.Trial)
+    public void generateBill() throws IOException {
+        // Use the current month, for which the parser also collects hourly resource costs
+        LocalDateTime monthStart = new LocalDate(DateTimeZone.UTC).withDayOfMonth(1)
+                .toLocalDateTime(LocalTime.MIDNIGHT);
+        this.workingDir = Files.createTempDirectory("aws-bill-benchmark");
+        this.billZipPath = this.workingDir.resolve(PAYER_ACCOUNT_ID
+                + AWSCsvBillParser.AWS_DETAILED_BILL_CSV_FILE_NAME_MID
+                + monthStart.toString("yyyy-MM")
+                + AWSCsvBillParser.AWS_BILL_CSV_FILE_NAME_SUFFIX
+                + AWSCsvBillParser.AWS_BILL_ZIP_FILE_NAME_SUFFIX);
+        this.configuredAccounts = new HashSet<>(Arrays.asList(LINKED_ACCOUNT_IDS));
+        this.heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                this.heapPools.add(pool);
+            }
+        }
+
+        DateTimeFormatter formatter = DateTimeFormat
+                .forPattern(AWSCsvBillParser.DETAILED_CSV_DATE_FORMAT_YYYY_MM_DD_HH_MM_SS);
+        long rowsPerHour = Math.max(1, this.rows / BILL_HOURS);
+
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(this.billZipPath))) {
+            String csvName = this.billZipPath.getFileName().toString();
+            zip.putNextEntry(new ZipEntry(csvName.substring(0, csvName.lastIndexOf('.'))));
+            Writer writer = new BufferedWriter(new OutputStreamWriter(zip, StandardCharsets.UTF_8),
+                    1024 * 1024);
+            writeRow(writer, HEADER);
+            String[] row = new String[HEADER.length];
+            for (long i = 0; i < this.rows; i++) {
+                LocalDateTime start = monthStart.plusHours((int) Math.min(i / rowsPerHour, BILL_HOURS - 1));
+                int resource = (int) (i % this.resources);
+                boolean volume = resource % 4 == 0;
+                row[0] = "81400131";
+                row[1] = PAYER_ACCOUNT_ID;
+                row[2] = LINKED_ACCOUNT_IDS[resource % LINKED_ACCOUNT_IDS.length];
+                row[3] = "LineItem";
+                row[4] = Long.toString(54956152562769948L + i);
+                row[5] = "Amazon Elastic Compute Cloud";
+                row[6] = "13401830";
+                row[7] = "65634040";
+                row[8] = "936332";
+                row[9] = volume ? "EBS:VolumeUsage.gp2" : "BoxUsage:t2.micro";
+                row[10] = volume ? "CreateVolume-Gp2" : "RunInstances";
+                row[11] = "us-east-1a";
+                row[12] = resource % 10 == 0 ? "Y" : "N";
+                row[13] = volume ? "$0.10 per GB-month of General Purpose SSD (gp2)"
+                        : "$0.0116 per On Demand Linux t2.micro Instance Hour";
+                row[14] = formatter.print(start);
+                row[15] = formatter.print(start.plusHours(1));
+                row[16] = "1.00000000";
+                row[17] = "0.0116000000";
+                row[18] = "0.01160000";
+                row[19] = "0.0116000000";
+                row[20] = "0.01160000";
+                row[21] = String.format(volume ? "vol-%08x" : "i-%08x", resource);
+                row[22] = "resource-" + resource;
+                row[23] = resource % 3 == 0 ? null : "team-" + (resource % 7);
+                writeRow(writer, row);
+            }
+            writer.flush();
+            zip.closeEntry();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteBill() throws IOException {
+        Files.deleteIfExists(this.billZipPath);
+        Files.deleteIfExists(this.workingDir);
+    }
+
+    @Setup(Level.Invocation)
+    public void resetPeakHeap() {
+        System.gc();
+        this.heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+    }
+
+    // The hourly consumers drop the parsed service details, as the cost stats service does once
+    // the stats of an hour have been created.
+
+    @Benchmark
+    public void extractAndParse(ParseCounters counters) throws IOException {
+        long startNanos = System.nanoTime();
+        new AWSCsvBillParser().parseDetailedCsvBill(new ArrayList<>(), this.billZipPath,
+                this.configuredAccounts, (bill, interval) -> bill.values()
+                        .forEach(account -> account.serviceDetailsMap.clear()),
+                bill -> { });
+        record(counters, startNanos);
+    }
+
+    @Benchmark
+    public void streamAndParse(ParseCounters counters) throws IOException {
+        long startNanos = System.nanoTime();
+        try (InputStream billStream = new BufferedInputStream(
+                Files.newInputStream(this.billZipPath), 1024 * 1024)) {
+            new AWSCsvBillParser().parseDetailedCsvBill(new ArrayList<>(), billStream,
+                    this.configuredAccounts, (bill, interval) -> bill.values()
+                            .forEach(account -> account.serviceDetailsMap.clear()),
+                    bill -> { });
+        }
+        record(counters, startNanos);
+    }
+
+    private void record(ParseCounters counters, long startNanos) {
+        long elapsedNanos = Math.max(1, System.nanoTime() - startNanos);
+        counters.rowsPerSecond = this.rows * TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        long peakHeapBytes = 0;
+        for (MemoryPoolMXBean pool : this.heapPools) {
+            peakHeapBytes += pool.getPeakUsage().getUsed();
+        }
+        counters.peakHeapMegabytes = peakHeapBytes / (1024 * 1024);
+    }
+
+    private static void writeRow(Writer writer, String[] row) throws IOException {
+        for (int i = 0; i < row.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write('"');
+            if (row[i] != null) {
+                writer.write(row[i]);
+            }
+            writer.write('"');
+        }
+        writer.write('\n');
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(AWSCsvBillParserBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
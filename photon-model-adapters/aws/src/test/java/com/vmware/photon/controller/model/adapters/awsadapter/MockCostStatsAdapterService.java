@@ -15,8 +15,10 @@ package com.vmware.photon.controller.model.adapters.awsadapter;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.InputStream;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collections;
 import java.util.HashMap;
@@ -142,9 +144,18 @@ public class MockCostStatsAdapterService extends AWSCostStatsService {
             csvBillZipFilePath = TestUtils.getTestResourcePath(TestAWSCostAdapterService.class,
                     TestAWSSetupUtils.getCurrentMonthsSampleBillFilePath().toString());
             LocalDate billMonth = LocalDate.now(DateTimeZone.UTC).withDayOfMonth(1);
-            parser.parseDetailedCsvBill(statsData.ignorableInvoiceCharge, csvBillZipFilePath,
-                    statsData.awsAccountIdToComputeStates.keySet(), getHourlyStatsConsumer(billMonth, statsData),
-                    getMonthlyStatsConsumer(billMonth, statsData));
+            if (Boolean.getBoolean(AWSCostStatsService.STREAMING_BILL_INGESTION_KEY)) {
+                try (InputStream billStream = Files.newInputStream(csvBillZipFilePath)) {
+                    parser.parseDetailedCsvBill(statsData.ignorableInvoiceCharge, billStream,
+                            statsData.awsAccountIdToComputeStates.keySet(),
+                            getHourlyStatsConsumer(billMonth, statsData),
+                            getMonthlyStatsConsumer(billMonth, statsData));
+                }
+            } else {
+                parser.parseDetailedCsvBill(statsData.ignorableInvoiceCharge, csvBillZipFilePath,
+                        statsData.awsAccountIdToComputeStates.keySet(), getHourlyStatsConsumer(billMonth, statsData),
+                        getMonthlyStatsConsumer(billMonth, statsData));
+            }
         } catch (Throwable e) {
             statsData.taskManager.patchTaskToFailure(e);
             return;
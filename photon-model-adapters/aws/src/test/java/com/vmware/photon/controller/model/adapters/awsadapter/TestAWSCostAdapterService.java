@@ -113,6 +113,7 @@ public class TestAWSCostAdapterService extends BaseModelTest {
             TestUtils.deleteCurrentMonthsBill();
         }
         System.clearProperty(AWSCostStatsService.BATCH_SIZE_KEY);
+        System.clearProperty(AWSCostStatsService.STREAMING_BILL_INGESTION_KEY);
     }
 
     @Test
@@ -122,6 +123,14 @@ public class TestAWSCostAdapterService extends BaseModelTest {
         issueStatsRequest(account);
     }
 
+    @Test
+    public void testAwsBillStreamingParsingAndStatsCreation() throws Throwable {
+        System.setProperty(AWSCostStatsService.STREAMING_BILL_INGESTION_KEY, "true");
+        ComputeState account = new ComputeState();
+        account.documentSelfLink = account1SelfLink;
+        issueStatsRequest(account);
+    }
+
     @Test
     public void testAwsCostAdapterEndToEnd() throws Throwable {
         if (this.isMock || new LocalDate(DateTimeZone.UTC).getDayOfMonth() == 1) {
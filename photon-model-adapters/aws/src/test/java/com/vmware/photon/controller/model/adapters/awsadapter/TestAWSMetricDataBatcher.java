@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.awsadapter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.cloudwatch.AbstractAmazonCloudWatchAsync;
+import com.amazonaws.services.cloudwatch.model.GetMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.GetMetricDataResult;
+import com.amazonaws.services.cloudwatch.model.MetricDataQuery;
+import com.amazonaws.services.cloudwatch.model.MetricDataResult;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.adapters.awsadapter.util.AWSMetricDataBatcher;
+import com.vmware.photon.controller.model.adapters.awsadapter.util.AWSStatsNormalizer;
+import com.vmware.photon.controller.model.constants.PhotonModelConstants;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.ServiceStats.ServiceStat;
+
+/**
+ * Unit test for {@link AWSMetricDataBatcher}
+ */
+public class TestAWSMetricDataBatcher {
+
+    private static final String[] METRIC_NAMES = { AWSConstants.CPU_UTILIZATION };
+    private static final int PERIOD = 3600;
+    private static final Date END_TIME = new Date(TimeUnit.HOURS.toMillis(100));
+    private static final Date START_TIME = new Date(TimeUnit.HOURS.toMillis(90));
+
+    /**
+     * CloudWatch which returns a datapoint at the start and one before the end of each metric
+     * query, the value being the number of the instance.
+     */
+    private static class MockCloudWatch extends AbstractAmazonCloudWatchAsync {
+        final List<GetMetricDataRequest> requests = Collections.synchronizedList(
+                new ArrayList<>());
+        int throttledCalls;
+        boolean paginate;
+
+        @Override
+        public Future<GetMetricDataResult> getMetricDataAsync(GetMetricDataRequest request,
+                AsyncHandler<GetMetricDataRequest, GetMetricDataResult> handler) {
+            this.requests.add(request);
+            synchronized (this) {
+                if (this.throttledCalls > 0) {
+                    this.throttledCalls--;
+                    AmazonServiceException e = new AmazonServiceException("Rate exceeded");
+                    e.setErrorCode("Throttling");
+                    handler.onError(e);
+                    return null;
+                }
+            }
+
+            GetMetricDataResult result = new GetMetricDataResult();
+            boolean firstPage = request.getNextToken() == null;
+            for (MetricDataQuery query : request.getMetricDataQueries()) {
+                String instanceId = query.getMetricStat().getMetric().getDimensions().get(0)
+                        .getValue();
+                double value = Double.parseDouble(instanceId.substring("i-".length()));
+                MetricDataResult data = new MetricDataResult()
+                        .withId(query.getId())
+                        .withStatusCode("Complete");
+                if (!this.paginate || firstPage) {
+                    data.withTimestamps(request.getStartTime()).withValues(value);
+                }
+                if (!this.paginate || !firstPage) {
+                    data.withTimestamps(new Date(request.getEndTime().getTime()
+                            - TimeUnit.SECONDS.toMillis(PERIOD))).withValues(value);
+                }
+                result.withMetricDataResults(data);
+            }
+            if (this.paginate && firstPage) {
+                result.setNextToken("page-2");
+            }
+            handler.onSuccess(request, result);
+            return null;
+        }
+    }
+
+    private ScheduledExecutorService scheduler;
+    private MockCloudWatch cloudWatch;
+
+    @Before
+    public void setUp() {
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        this.cloudWatch = new MockCloudWatch();
+    }
+
+    @After
+    public void tearDown() {
+        this.scheduler.shutdownNow();
+    }
+
+    private List<DeferredResult<Map<String, List<ServiceStat>>>> queryInstances(
+            AWSMetricDataBatcher batcher, int instances, Date startTime) {
+        List<DeferredResult<Map<String, List<ServiceStat>>>> results = new ArrayList<>();
+        for (int i = 0; i < instances; i++) {
+            results.add(batcher.query(this.cloudWatch, "i-" + i, METRIC_NAMES, startTime,
+                    END_TIME, PERIOD));
+        }
+        return results;
+    }
+
+    private static List<ServiceStat> cpuUtilization(
+            DeferredResult<Map<String, List<ServiceStat>>> result) {
+        return result.toCompletionStage().toCompletableFuture().join()
+                .get(AWSStatsNormalizer.getNormalizedStatKeyValue(AWSConstants.CPU_UTILIZATION));
+    }
+
+    @Test
+    public void testInstancesShareCalls() {
+        AWSMetricDataBatcher batcher = new AWSMetricDataBatcher(this.scheduler, 100, 10, 0);
+
+        List<DeferredResult<Map<String, List<ServiceStat>>>> results = queryInstances(batcher,
+                250, START_TIME);
+
+        for (int i = 0; i < results.size(); i++) {
+            List<ServiceStat> stats = cpuUtilization(results.get(i));
+            assertEquals(2, stats.size());
+            for (ServiceStat stat : stats) {
+                assertEquals(i, stat.latestValue, 0);
+                assertEquals(PhotonModelConstants.UNIT_PERCENT, stat.unit);
+            }
+        }
+        assertEquals(3, this.cloudWatch.requests.size());
+        assertEquals(3, batcher.getApiCallCount());
+        assertEquals(100, this.cloudWatch.requests.get(0).getMetricDataQueries().size());
+        assertEquals(50, this.cloudWatch.requests.get(2).getMetricDataQueries().size());
+    }
+
+    @Test
+    public void testThrottledCallIsRetried() {
+        AWSMetricDataBatcher batcher = new AWSMetricDataBatcher(this.scheduler, 100, 10, 3);
+        this.cloudWatch.throttledCalls = 2;
+
+        List<DeferredResult<Map<String, List<ServiceStat>>>> results = queryInstances(batcher,
+                10, START_TIME);
+
+        for (DeferredResult<Map<String, List<ServiceStat>>> result : results) {
+            assertEquals(2, cpuUtilization(result).size());
+        }
+        assertEquals(3, batcher.getApiCallCount());
+        assertEquals(2, batcher.getThrottleRetryCount());
+    }
+
+    @Test
+    public void testPagesAreJoinedAndEarlierDatapointsDropped() {
+        AWSMetricDataBatcher batcher = new AWSMetricDataBatcher(this.scheduler, 100, 10, 0);
+        this.cloudWatch.paginate = true;
+
+        DeferredResult<Map<String, List<ServiceStat>>> early = batcher.query(this.cloudWatch,
+                "i-1", METRIC_NAMES, START_TIME, END_TIME, PERIOD);
+        DeferredResult<Map<String, List<ServiceStat>>> late = batcher.query(this.cloudWatch,
+                "i-2", METRIC_NAMES, new Date(START_TIME.getTime() + 1), END_TIME, PERIOD);
+
+        assertEquals(2, cpuUtilization(early).size());
+        // the batch is queried from the earliest start time
+        List<ServiceStat> lateStats = cpuUtilization(late);
+        assertEquals(1, lateStats.size());
+        assertTrue(lateStats.get(0).sourceTimeMicrosUtc > TimeUnit.MILLISECONDS
+                .toMicros(START_TIME.getTime()));
+        assertEquals(2, this.cloudWatch.requests.size());
+        assertEquals(START_TIME, this.cloudWatch.requests.get(0).getStartTime());
+        assertFalse(AWSMetricDataBatcher.isThrottlingError(new IllegalStateException()));
+    }
+}
@@ -17,8 +17,11 @@ import static com.vmware.photon.controller.model.adapters.azure.constants
         .AzureCostConstants.NO_OF_DAYS_MARGIN_FOR_AZURE_TO_UPDATE_BILL_IN_MILLIS;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
@@ -26,8 +29,7 @@ import java.util.Set;
 import java.util.function.BiConsumer;
 import java.util.logging.Logger;
 
-import com.opencsv.CSVReader;
-import com.opencsv.bean.HeaderColumnNameMappingStrategy;
+import com.opencsv.CSVParser;
 
 import com.vmware.photon.controller.model.adapters.azure.constants.AzureCostConstants;
 import com.vmware.photon.controller.model.adapters.azure.model.cost.AzureService;
@@ -86,14 +88,26 @@ public class AzureDetailedBillHandler {
             long billProcessedTimeMillis, String currency,
             BiConsumer<Map<String, AzureSubscription>, Long> dailyStatsConsumer)
             throws IOException {
-        logger.fine(() -> "Beginning to parse CSV file.");
-        try (CSVReader csvReader = new CSVReader(new FileReader(billFile),
-                AzureCostConstants.DEFAULT_COLUMN_SEPARATOR, AzureCostConstants.DEFAULT_QUOTE_CHARACTER,
-                AzureCostConstants.DEFAULT_ESCAPE_CHARACTER, (int) status.getNoLinesRead())) {
+        return parseDetailedCsv(billFile, newSubscriptions, status, billProcessedTimeMillis,
+                currency, dailyStatsConsumer, false);
+    }
 
-            HeaderColumnNameMappingStrategy<EaDetailedBillElement> strategy =
-                    new HeaderColumnNameMappingStrategy<>();
-            strategy.setType(EaDetailedBillElement.class);
+    /**
+     * Parses the detailed bill starting at the position recorded in {@code status}.
+     *
+     * Unless {@code singlePass} is set, parsing stops once all rows of a day have been read and
+     * the batch has been handed to {@code dailyStatsConsumer}; the returned status then records
+     * the byte offset to continue from. With {@code singlePass} the whole bill is read at once
+     * and every daily batch is handed to {@code dailyStatsConsumer} as soon as it is complete,
+     * so the consumer has to be done with a batch when it returns.
+     */
+    public BillParsingStatus parseDetailedCsv(File billFile, Set<String> newSubscriptions,
+            BillParsingStatus status, long billProcessedTimeMillis, String currency,
+            BiConsumer<Map<String, AzureSubscription>, Long> dailyStatsConsumer,
+            boolean singlePass) throws IOException {
+        logger.fine(() -> "Beginning to parse CSV file.");
+        try (FileChannel channel = FileChannel.open(billFile.toPath(), StandardOpenOption.READ)) {
+            BillReader billReader = new BillReader(channel, status);
             long timeToStartBillProcessing = getTimeToStartBillProcessing(billProcessedTimeMillis);
 
             // This map will contain daily subscription, service & resource cost. The subscription
@@ -102,7 +116,7 @@ public class AzureDetailedBillHandler {
             Map<String, AzureSubscription> monthlyBill = new HashMap<>();
             String[] nextRow;
             Long prevRowEpoch = null;
-            while ((nextRow = csvReader.readNext()) != null) {
+            while ((nextRow = billReader.readNext()) != null) {
                 final String[] finalNextRow = nextRow;
                 if (nextRow.length != BillHeaders.values().length) {
                     // Skip any blank or malformed rows
@@ -114,32 +128,34 @@ public class AzureDetailedBillHandler {
 
                 EaDetailedBillElement detailedBillElement = AzureCostHelper
                         .sanitizeDetailedBillElement(nextRow, currency);
-                AzureSubscription subscription = populateSubscriptionCost(monthlyBill,
-                        detailedBillElement);
                 long curRowEpoch = detailedBillElement.epochDate;
-                if (shouldCreateServiceAndResourceCost(detailedBillElement, newSubscriptions,
-                        timeToStartBillProcessing)) {
-                    AzureService service = populateServiceCost(subscription,
-                            detailedBillElement);
-                    populateResourceCost(service, detailedBillElement);
-                }
+                populateCosts(monthlyBill, detailedBillElement, newSubscriptions,
+                        timeToStartBillProcessing);
                 billProcessedTimeMillis =
                         billProcessedTimeMillis < curRowEpoch ?
                                 curRowEpoch : billProcessedTimeMillis;
-                monthlyBill.put(detailedBillElement.subscriptionGuid, subscription);
                 if (prevRowEpoch != null && !prevRowEpoch.equals(curRowEpoch)) {
                     // This indicates that we have processed all rows belonging to a
                     // corresponding day in the current month's bill.
                     // Consume the batch
-                    // Subtract 1, to account for detecting date change line.
-                    status.setNoLinesRead(csvReader.getLinesRead() - 1);
+                    // The next batch starts again with the row which detected the date change.
+                    status.setNoLinesRead(billReader.getRecordStartLines());
+                    status.setByteOffset(billReader.getRecordStartOffset());
                     dailyStatsConsumer.accept(monthlyBill, null);
-                    break;
+                    if (!singlePass) {
+                        break;
+                    }
+                    monthlyBill = new HashMap<>();
+                    populateCosts(monthlyBill, AzureCostHelper
+                            .sanitizeDetailedBillElement(nextRow, currency), newSubscriptions,
+                            timeToStartBillProcessing);
                 }
                 prevRowEpoch = curRowEpoch;
             }
             if ((nextRow == null && monthlyBill.size() > 0) || (nextRow == null
-                    && csvReader.getLinesRead() == AzureCostConstants.DEFAULT_LINES_TO_SKIP)) {
+                    && billReader.getLinesRead() == AzureCostConstants.DEFAULT_LINES_TO_SKIP)) {
+                status.setNoLinesRead(billReader.getLinesRead());
+                status.setByteOffset(billReader.getOffset());
                 status.setParsingComplete(true);
                 dailyStatsConsumer.accept(monthlyBill, billProcessedTimeMillis);
                 logger.fine(() -> "Finished parsing CSV bill.");
@@ -148,6 +164,20 @@ public class AzureDetailedBillHandler {
         }
     }
 
+    private void populateCosts(Map<String, AzureSubscription> monthlyBill,
+            EaDetailedBillElement detailedBillElement, Set<String> newSubscriptions,
+            long timeToStartBillProcessing) {
+        AzureSubscription subscription = populateSubscriptionCost(monthlyBill,
+                detailedBillElement);
+        if (shouldCreateServiceAndResourceCost(detailedBillElement, newSubscriptions,
+                timeToStartBillProcessing)) {
+            AzureService service = populateServiceCost(subscription,
+                    detailedBillElement);
+            populateResourceCost(service, detailedBillElement);
+        }
+        monthlyBill.put(detailedBillElement.subscriptionGuid, subscription);
+    }
+
     /**
      * Create service and resource cost only if the time of the bill row is greater than
      * the time when we last processed this bill or if there are any new subscriptions
@@ -202,4 +232,114 @@ public class AzureDetailedBillHandler {
         return billProcessedTime - NO_OF_DAYS_MARGIN_FOR_AZURE_TO_UPDATE_BILL_IN_MILLIS;
     }
 
+    /**
+     * Reads CSV records from the bill while keeping track of the byte offset and the number of
+     * physical lines read, so that parsing can be resumed from the start of any record by seeking
+     * the file channel. Lines are split on {@code '\n'}, a trailing {@code '\r'} is dropped.
+     */
+    private static class BillReader {
+        private static final int BUFFER_SIZE = 64 * 1024;
+
+        private final FileChannel channel;
+        private final CSVParser parser = new CSVParser(AzureCostConstants.DEFAULT_COLUMN_SEPARATOR,
+                AzureCostConstants.DEFAULT_QUOTE_CHARACTER,
+                AzureCostConstants.DEFAULT_ESCAPE_CHARACTER);
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private byte[] lineBytes = new byte[1024];
+        private long offset;
+        private long linesRead;
+        private long recordStartOffset;
+        private long recordStartLines;
+
+        BillReader(FileChannel channel, BillParsingStatus status) throws IOException {
+            this.channel = channel;
+            this.buffer.flip();
+            if (status.getByteOffset() >= 0) {
+                this.offset = status.getByteOffset();
+                this.linesRead = status.getNoLinesRead();
+                channel.position(this.offset);
+            } else {
+                for (long i = 0; i < status.getNoLinesRead(); i++) {
+                    if (readLine() == null) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the next record, or {@code null} at the end of the bill.
+         */
+        String[] readNext() throws IOException {
+            this.recordStartOffset = this.offset;
+            this.recordStartLines = this.linesRead;
+            String[] result = null;
+            do {
+                String line = readLine();
+                if (line == null) {
+                    return result;
+                }
+                // A cell spanning several lines is returned by the parser once it is complete
+                String[] tokens = this.parser.parseLineMulti(line);
+                if (result == null) {
+                    result = tokens;
+                } else if (tokens.length > 0) {
+                    String[] combined = Arrays.copyOf(result, result.length + tokens.length);
+                    System.arraycopy(tokens, 0, combined, result.length, tokens.length);
+                    result = combined;
+                }
+            } while (this.parser.isPending());
+            return result;
+        }
+
+        private String readLine() throws IOException {
+            int length = 0;
+            boolean read = false;
+            while (true) {
+                if (!this.buffer.hasRemaining()) {
+                    this.buffer.clear();
+                    int count = this.channel.read(this.buffer);
+                    this.buffer.flip();
+                    if (count <= 0) {
+                        if (!read) {
+                            return null;
+                        }
+                        break;
+                    }
+                }
+                read = true;
+                byte b = this.buffer.get();
+                this.offset++;
+                if (b == '\n') {
+                    break;
+                }
+                if (length == this.lineBytes.length) {
+                    this.lineBytes = Arrays.copyOf(this.lineBytes, length * 2);
+                }
+                this.lineBytes[length++] = b;
+            }
+            this.linesRead++;
+            if (length > 0 && this.lineBytes[length - 1] == '\r') {
+                length--;
+            }
+            return new String(this.lineBytes, 0, length, Charset.defaultCharset());
+        }
+
+        long getOffset() {
+            return this.offset;
+        }
+
+        long getLinesRead() {
+            return this.linesRead;
+        }
+
+        long getRecordStartOffset() {
+            return this.recordStartOffset;
+        }
+
+        long getRecordStartLines() {
+            return this.recordStartLines;
+        }
+    }
+
 }
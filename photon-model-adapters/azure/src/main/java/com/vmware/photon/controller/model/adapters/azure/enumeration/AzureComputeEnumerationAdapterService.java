@@ -87,6 +87,7 @@ import com.vmware.photon.controller.model.adapters.azure.utils.AzureSdkClients;
 import com.vmware.photon.controller.model.adapters.azure.utils.AzureUtils;
 import com.vmware.photon.controller.model.adapters.util.AdapterUtils;
 import com.vmware.photon.controller.model.adapters.util.ComputeEnumerateAdapterRequest;
+import com.vmware.photon.controller.model.adapters.util.OperationPipeline;
 import com.vmware.photon.controller.model.adapters.util.TagsUtil;
 import com.vmware.photon.controller.model.adapters.util.enums.EnumerationStages;
 import com.vmware.photon.controller.model.constants.PhotonModelConstants;
@@ -146,6 +147,8 @@ public class AzureComputeEnumerationAdapterService extends StatelessService {
     private static final String NETWORK_INTERFACE_TAG_TYPE_VALUE = AzureResourceType.azure_net_interface
             .toString();
 
+    private static final String STAGE_PATCH_COMPUTE_STATE = "patchComputeState";
+
     /**
      * The enumeration service context that holds all the information needed to determine the list
      * of instances that need to be represented in the system.
@@ -255,6 +258,12 @@ public class AzureComputeEnumerationAdapterService extends StatelessService {
 
     private ExecutorService executorService;
 
+    /**
+     * Bounds the number of VM instance views being loaded and compute states being updated at a
+     * time, across all enumerations handled by this service.
+     */
+    private final OperationPipeline operationPipeline = new OperationPipeline();
+
     public AzureComputeEnumerationAdapterService() {
         super.toggleOption(ServiceOption.INSTRUMENTATION, true);
     }
@@ -965,23 +974,23 @@ public class AzureComputeEnumerationAdapterService extends StatelessService {
 
         // POST each of the tags. If a tag exists it won't be created again. We don't want the name
         // tags, so filter them out
-        List<DeferredResult<Operation>> operations = context.virtualMachines
+        List<TagState> tagStates = context.virtualMachines
                 .values()
                 .stream()
                 .filter(vm -> vm.getTags() != null && !vm.getTags().isEmpty())
                 .flatMap(vm -> vm.getTags().entrySet().stream())
                 .map(entry -> newTagState(entry.getKey(), entry.getValue(), true,
                         context.parentCompute.tenantLinks))
-                .map(tagState -> sendWithDeferredResult(Operation
-                        .createPost(context.request.buildUri(TagService.FACTORY_LINK))
-                        .setBody(tagState)))
                 .collect(java.util.stream.Collectors.toList());
 
-        if (operations.isEmpty()) {
+        if (tagStates.isEmpty()) {
             context.subStage = next;
             handleSubStage(context);
         } else {
-            DeferredResult.allOf(operations)
+            TagsUtil.TAG_OPERATION_PIPELINE.submitAll(TagsUtil.STAGE_CREATE_TAG, tagStates,
+                    tagState -> sendWithDeferredResult(Operation
+                            .createPost(context.request.buildUri(TagService.FACTORY_LINK))
+                            .setBody(tagState)))
                     .whenComplete(thenHandleSubStage(context, next));
         }
     }
@@ -2167,19 +2176,17 @@ public class AzureComputeEnumerationAdapterService extends StatelessService {
 
             VirtualMachinesInner vmOps = azureClient.virtualMachines().inner();
 
-            DeferredResult.allOf(ctx.computeStatesForPatching
-                    .values()
-                    .stream()
-                    .map(c -> patchVMInstanceDetails(ctx, vmOps, c))
-                    .map(dr -> dr.thenCompose(c -> sendWithDeferredResult(
-                            Operation.createPut(ctx.request.buildUri(c.documentSelfLink))
-                                    .setBody(c)))
-                    )
-                    .collect(Collectors.toList()))
+            this.operationPipeline.submitAll(STAGE_PATCH_COMPUTE_STATE,
+                    ctx.computeStatesForPatching.values(),
+                    c -> patchVMInstanceDetails(ctx, vmOps, c)
+                            .thenCompose(patched -> sendWithDeferredResult(
+                                    Operation.createPut(ctx.request.buildUri(patched.documentSelfLink))
+                                            .setBody(patched))))
                     .whenComplete((all, e) -> {
                         if (e != null) {
                             logWarning(() -> String.format("Error: %s", Utils.toString(e)));
                         }
+                        this.operationPipeline.publishLatencyStats(this);
                         ctx.subStage = next;
                         handleSubStage(ctx);
                     });
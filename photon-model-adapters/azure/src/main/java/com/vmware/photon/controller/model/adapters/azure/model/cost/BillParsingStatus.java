@@ -15,13 +15,21 @@ package com.vmware.photon.controller.model.adapters.azure.model.cost;
 
 import com.vmware.photon.controller.model.adapters.azure.constants.AzureCostConstants;
 
+/**
+ * Cursor into a detailed bill which is parsed one day at a time. The cursor points at the first
+ * line which has not been consumed yet, both as a line number and as a byte offset, so that the
+ * next batch can seek directly to it instead of skipping the lines already read.
+ */
 public class BillParsingStatus {
     private boolean parsingComplete;
     private long noLinesRead;
+    // Byte offset of line noLinesRead, -1 if not known yet.
+    private long byteOffset;
 
     public BillParsingStatus() {
         this.parsingComplete = false;
         this.noLinesRead = AzureCostConstants.DEFAULT_LINES_TO_SKIP;
+        this.byteOffset = -1;
     }
 
     public boolean isParsingComplete() {
@@ -40,11 +48,20 @@ public class BillParsingStatus {
         this.noLinesRead = noLinesRead;
     }
 
+    public long getByteOffset() {
+        return this.byteOffset;
+    }
+
+    public void setByteOffset(long byteOffset) {
+        this.byteOffset = byteOffset;
+    }
+
     @Override
     public String toString() {
         return "BillParsingStatus{" +
                 "parsingComplete=" + this.parsingComplete +
                 ", noLinesRead=" + this.noLinesRead +
+                ", byteOffset=" + this.byteOffset +
                 '}';
     }
 }
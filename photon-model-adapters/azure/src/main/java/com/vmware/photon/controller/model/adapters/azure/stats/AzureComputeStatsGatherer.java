@@ -31,7 +31,6 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 import com.microsoft.azure.credentials.ApplicationTokenCredentials;
-import com.microsoft.azure.storage.CloudStorageAccount;
 import com.microsoft.azure.storage.ResultSegment;
 import com.microsoft.azure.storage.StorageException;
 import com.microsoft.azure.storage.table.CloudTable;
@@ -56,9 +55,12 @@ import com.vmware.photon.controller.model.adapters.azure.model.stats.Location;
 import com.vmware.photon.controller.model.adapters.azure.model.stats.MetricAvailability;
 import com.vmware.photon.controller.model.adapters.azure.model.stats.MetricDefinitions;
 import com.vmware.photon.controller.model.adapters.azure.model.stats.TableInfo;
+import com.vmware.photon.controller.model.adapters.azure.stats.AzureMetricTableCache.MetricTableLocation;
 import com.vmware.photon.controller.model.adapters.azure.utils.AzureStatsNormalizer;
 import com.vmware.photon.controller.model.adapters.azure.utils.AzureUtils;
 import com.vmware.photon.controller.model.adapters.util.AdapterUtils;
+import com.vmware.photon.controller.model.adapters.util.BatchedDocumentLoader;
+import com.vmware.photon.controller.model.adapters.util.ReferenceDocumentCache;
 import com.vmware.photon.controller.model.adapters.util.TaskManager;
 import com.vmware.photon.controller.model.constants.PhotonModelConstants;
 import com.vmware.photon.controller.model.resources.ComputeService.ComputeStateWithDescription;
@@ -79,7 +81,11 @@ import com.vmware.xenon.services.common.AuthCredentialsService.AuthCredentialsSe
 /**
  * This service queries the Azure storage table account to obtain the metrics of a VM.
  * It is called per compute VM to obtain the metrics.
- *
+ * <p>
+ * The boot disks of the VMs collected at the same time are loaded with a
+ * {@link BatchedDocumentLoader}, their parent, storage account and credentials from the
+ * {@link ReferenceDocumentCache}, and their metric tables from the {@link AzureMetricTableCache},
+ * so that a VM mostly costs the GET of its compute and the query of its metrics.
  */
 public class AzureComputeStatsGatherer extends StatelessService {
     public static final String SELF_LINK = AzureUriPaths.AZURE_COMPUTE_STATS_GATHERER;
@@ -90,10 +96,14 @@ public class AzureComputeStatsGatherer extends StatelessService {
             AzureConstants.PERCENT_MEMORY_USED};
 
     private ExecutorService executorService;
+    private AzureMetricTableCache metricTableCache;
+    private BatchedDocumentLoader<DiskState> diskLoader;
 
     @Override
     public void handleStart(Operation startPost) {
         this.executorService = getHost().allocateExecutor(this);
+        this.metricTableCache = new AzureMetricTableCache();
+        this.diskLoader = new BatchedDocumentLoader<>(DiskState.class);
         super.handleStart(startPost);
     }
 
@@ -155,32 +165,37 @@ public class AzureComputeStatsGatherer extends StatelessService {
     }
 
     private void getParentVMDescription(AzureStatsDataHolder statsData) {
-        Consumer<Operation> onSuccess = (op) -> {
-            statsData.parentDesc = op.getBody(ComputeStateWithDescription.class);
-            getParentAuth(statsData);
-        };
         URI computeUri = UriUtils.extendUriWithQuery(
                 UriUtils.buildUri(getHost(), statsData.computeDesc.parentLink),
                 UriUtils.URI_PARAM_ODATA_EXPAND, Boolean.TRUE.toString());
-        AdapterUtils.getServiceState(this, computeUri, onSuccess, getFailureConsumer(statsData));
+        ReferenceDocumentCache.getInstance(getHost())
+                .get(this, computeUri, ComputeStateWithDescription.class)
+                .whenComplete((parentDesc, e) -> {
+                    if (e != null) {
+                        getFailureConsumer(statsData).accept(e);
+                        return;
+                    }
+                    statsData.parentDesc = parentDesc;
+                    getParentAuth(statsData);
+                });
     }
 
     private void getParentAuth(AzureStatsDataHolder statsData) {
-        Consumer<Operation> onSuccess = (op) -> {
-            statsData.parentAuth = op
-                    .getBody(AuthCredentialsService.AuthCredentialsServiceState.class);
-            getBootDisk(statsData);
-        };
-        AdapterUtils.getServiceState(this, createInventoryUri(this.getHost(),
-                statsData.parentDesc.description.authCredentialsLink), onSuccess,
-                getFailureConsumer(statsData));
+        URI authUri = createInventoryUri(this.getHost(),
+                statsData.parentDesc.description.authCredentialsLink);
+        ReferenceDocumentCache.getInstance(getHost())
+                .get(this, authUri, AuthCredentialsServiceState.class)
+                .whenComplete((parentAuth, e) -> {
+                    if (e != null) {
+                        getFailureConsumer(statsData).accept(e);
+                        return;
+                    }
+                    statsData.parentAuth = parentAuth;
+                    getBootDisk(statsData);
+                });
     }
 
     private void getBootDisk(AzureStatsDataHolder statsData) {
-        Consumer<Operation> onSuccess = (op) -> {
-            statsData.bootDisk = op.getBody(DiskState.class);
-            getStorageAccount(statsData);
-        };
         /*
          * VSYM-655 - https://jira-hzn.eng.vmware.com/browse/VSYM-655
          * Until Azure design is finalized, the first and only disk will always be the boot disk.
@@ -188,37 +203,53 @@ public class AzureComputeStatsGatherer extends StatelessService {
         if (statsData.computeDesc.diskLinks == null ||
                 statsData.computeDesc.diskLinks.isEmpty()) {
             statsData.taskManager.patchTaskToFailure(new IllegalStateException("No disks found"));
+            return;
         }
-        AdapterUtils.getServiceState(this, statsData.computeDesc.diskLinks.get(0), onSuccess,
-                getFailureConsumer(statsData));
+        this.diskLoader.load(this, statsData.computeDesc.diskLinks.get(0))
+                .whenComplete((bootDisk, e) -> {
+                    if (e != null) {
+                        getFailureConsumer(statsData).accept(e);
+                        return;
+                    }
+                    statsData.bootDisk = bootDisk;
+                    getStorageAccount(statsData);
+                });
     }
 
     private void getStorageAccount(AzureStatsDataHolder statsData) {
-        Consumer<Operation> onSuccess = (op) -> {
-            statsData.storageDescripton = op.getBody(StorageDescription.class);
-            getStorageAccountAuth(statsData);
-        };
-        AdapterUtils.getServiceState(this, statsData.computeDesc.customProperties
-                        .get(AZURE_DIAGNOSTIC_STORAGE_ACCOUNT_LINK), onSuccess,
-                ((throwable) -> {
+        URI storageUri = createInventoryUri(this.getHost(),
+                statsData.computeDesc.customProperties.get(AZURE_DIAGNOSTIC_STORAGE_ACCOUNT_LINK));
+        ReferenceDocumentCache.getInstance(getHost())
+                .get(this, storageUri, StorageDescription.class)
+                .whenComplete((storageDescription, throwable) -> {
                     if (throwable instanceof ServiceNotFoundException) {
                         logInfo(() -> String.format("Skipping stats collection - storage account"
                                 + " not found for [%s]", statsData.computeDesc.name));
                         patchEmptyResponse(statsData);
                         return;
                     }
-                    statsData.taskManager.patchTaskToFailure(throwable);
-                }));
+                    if (throwable != null) {
+                        statsData.taskManager.patchTaskToFailure(throwable);
+                        return;
+                    }
+                    statsData.storageDescripton = storageDescription;
+                    getStorageAccountAuth(statsData);
+                });
     }
 
     private void getStorageAccountAuth(AzureStatsDataHolder statsData) {
-        Consumer<Operation> onSuccess = (op) -> {
-            statsData.storageAccountAuth = op.getBody(AuthCredentialsServiceState.class);
-            getStats(statsData);
-        };
-        AdapterUtils.getServiceState(this,
-                createInventoryUri(this.getHost(), statsData.storageDescripton.authCredentialsLink), onSuccess,
-                getFailureConsumer(statsData));
+        URI authUri = createInventoryUri(this.getHost(),
+                statsData.storageDescripton.authCredentialsLink);
+        ReferenceDocumentCache.getInstance(getHost())
+                .get(this, authUri, AuthCredentialsServiceState.class)
+                .whenComplete((storageAccountAuth, e) -> {
+                    if (e != null) {
+                        getFailureConsumer(statsData).accept(e);
+                        return;
+                    }
+                    statsData.storageAccountAuth = storageAccountAuth;
+                    getStats(statsData);
+                });
     }
 
     private Consumer<Throwable> getFailureConsumer(AzureStatsDataHolder statsData) {
@@ -245,6 +276,18 @@ public class AzureComputeStatsGatherer extends StatelessService {
 
     private void getStats(AzureStatsDataHolder statsData) {
         getAzureApplicationTokenCredential(statsData);
+        MetricTableLocation location = this.metricTableCache.getLocation(
+                statsData.computeDesc.id);
+        if (location != null) {
+            statsData.tableName = location.tableName;
+            statsData.partitionValue = location.partitionKey;
+            try {
+                getMetrics(statsData);
+            } catch (Exception e) {
+                statsData.taskManager.patchTaskToFailure(e);
+            }
+            return;
+        }
         try {
             getMetricDefinitions(statsData);
         } catch (Exception e) {
@@ -277,7 +320,9 @@ public class AzureComputeStatsGatherer extends StatelessService {
         operation.addRequestHeader(Operation.ACCEPT_HEADER, Operation.MEDIA_TYPE_APPLICATION_JSON);
         operation.addRequestHeader(Operation.AUTHORIZATION_HEADER,
                 AzureConstants.AUTH_HEADER_BEARER_PREFIX + statsData.credentials.getToken(AzureUtils.getAzureBaseUri()));
+        long startNanos = System.nanoTime();
         operation.setCompletion((op, ex) -> {
+            this.metricTableCache.recordDefinitionsCall(System.nanoTime() - startNanos);
             if (ex != null) {
                 statsData.taskManager.patchTaskToFailure(ex);
                 return;
@@ -306,6 +351,8 @@ public class AzureComputeStatsGatherer extends StatelessService {
                 }
             }
             if (statsData.tableName != null && statsData.tableName.length() > 0) {
+                this.metricTableCache.putLocation(statsData.computeDesc.id,
+                        new MetricTableLocation(statsData.tableName, statsData.partitionValue));
                 try {
                     getMetrics(statsData);
                 } catch (Exception e) {
@@ -389,6 +436,12 @@ public class AzureComputeStatsGatherer extends StatelessService {
             }
 
             if (this.statsData.numResponses.incrementAndGet() == METRIC_NAMES.length) {
+                if (this.statsData.statsResponse.statValues.isEmpty()) {
+                    // the table may have been rolled over, resolve it again next time
+                    AzureComputeStatsGatherer.this.metricTableCache
+                            .invalidateLocation(this.statsData.computeDesc.id);
+                }
+                AzureComputeStatsGatherer.this.metricTableCache.publishStats(this.service);
                 SingleResourceStatsCollectionTaskState respBody = new SingleResourceStatsCollectionTaskState();
                 this.statsData.statsResponse.computeLink = this.statsData.computeDesc.documentSelfLink;
                 respBody.taskStage = SingleResourceTaskCollectionStage.valueOf(this.statsData.statsRequest.nextStage);
@@ -419,10 +472,9 @@ public class AzureComputeStatsGatherer extends StatelessService {
             public void run() {
                 AzureMetricResponse response = new AzureMetricResponse();
                 try {
-                    // Create the table client required to make calls to the table
-                    CloudStorageAccount cloudStorageAccount = AzureUtils
-                            .getAzureStorageClient(request.getStorageConnectionString());
-                    CloudTableClient tableClient = cloudStorageAccount.createCloudTableClient();
+                    // Get the table client required to make calls to the table
+                    CloudTableClient tableClient = AzureComputeStatsGatherer.this.metricTableCache
+                            .getTableClient(request.getStorageConnectionString());
 
                     // Get the table reference using the table name
                     CloudTable table = tableClient.getTableReference(request.getTableName());
@@ -451,8 +503,11 @@ public class AzureComputeStatsGatherer extends StatelessService {
 
                     response.setLabel(request.getMetricName());
                     List<Datapoint> datapoints = new ArrayList<>();
+                    long startNanos = System.nanoTime();
                     ResultSegment<DynamicTableEntity> entities = table
                             .executeSegmented(query, null);
+                    AzureComputeStatsGatherer.this.metricTableCache
+                            .recordTableQuery(System.nanoTime() - startNanos);
                     for (DynamicTableEntity entity : entities.getResults()) {
                         HashMap<String, EntityProperty> properties = entity
                                 .getProperties();
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.azure.stats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.microsoft.azure.storage.table.CloudTableClient;
+
+import com.vmware.photon.controller.model.UriPaths;
+import com.vmware.photon.controller.model.adapters.azure.utils.AzureUtils;
+import com.vmware.photon.controller.model.adapters.util.BoundedConcurrentCache;
+import com.vmware.photon.controller.model.adapters.util.LatencyHistogram;
+import com.vmware.xenon.common.Service;
+
+/**
+ * Caches what {@link AzureComputeStatsGatherer} resolves before it can read the metrics of a VM
+ * from the diagnostics tables of its storage account:
+ * <ul>
+ * <li>the table and partition of the VM metrics, read from the {@code /metricDefinitions} of the
+ * VM, by VM id,</li>
+ * <li>the table client of the storage account, by storage connection string.</li>
+ * </ul>
+ * The entries expire {@link #DEFAULT_TTL_MILLIS} after they were resolved, so that the tables
+ * which the diagnostics extension rolls over every ten days are picked up.
+ * <p>
+ * The calls to the {@code /metricDefinitions} endpoint and to the tables are counted, and their
+ * latencies recorded, for {@link #publishStats(Service)}.
+ */
+public class AzureMetricTableCache {
+
+    public static final long DEFAULT_TTL_MILLIS = Long.getLong(
+            UriPaths.PROPERTY_PREFIX + "AzureMetricTableCache.ttlMillis",
+            TimeUnit.HOURS.toMillis(1));
+
+    public static final int DEFAULT_MAX_SIZE = Integer.getInteger(
+            UriPaths.PROPERTY_PREFIX + "AzureMetricTableCache.maxSize", 10000);
+
+    public static final String STAT_NAME_LOCATION_HITS = "metricTableCacheHits";
+    public static final String STAT_NAME_LOCATION_MISSES = "metricTableCacheMisses";
+    public static final String STAT_NAME_DEFINITIONS_CALLS = "metricDefinitionsCalls";
+    public static final String STAT_NAME_DEFINITIONS_P50 = "metricDefinitionsLatencyP50Micros";
+    public static final String STAT_NAME_DEFINITIONS_P90 = "metricDefinitionsLatencyP90Micros";
+    public static final String STAT_NAME_DEFINITIONS_P99 = "metricDefinitionsLatencyP99Micros";
+    public static final String STAT_NAME_TABLE_QUERIES = "metricTableQueries";
+    public static final String STAT_NAME_TABLE_QUERY_P50 = "metricTableQueryLatencyP50Micros";
+    public static final String STAT_NAME_TABLE_QUERY_P90 = "metricTableQueryLatencyP90Micros";
+    public static final String STAT_NAME_TABLE_QUERY_P99 = "metricTableQueryLatencyP99Micros";
+
+    /**
+     * The table and partition holding the metrics of a VM.
+     */
+    public static class MetricTableLocation {
+        public final String tableName;
+        public final String partitionKey;
+
+        public MetricTableLocation(String tableName, String partitionKey) {
+            this.tableName = tableName;
+            this.partitionKey = partitionKey;
+        }
+    }
+
+    private final BoundedConcurrentCache<String, MetricTableLocation> locations;
+    private final BoundedConcurrentCache<String, CloudTableClient> tableClients;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final LatencyHistogram definitionsLatency = new LatencyHistogram();
+    private final LatencyHistogram tableQueryLatency = new LatencyHistogram();
+
+    public AzureMetricTableCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TTL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public AzureMetricTableCache(int maxSize, long ttl, TimeUnit unit) {
+        this.locations = new BoundedConcurrentCache<String, MetricTableLocation>(maxSize)
+                .setExpireAfterWrite(ttl, unit);
+        this.tableClients = new BoundedConcurrentCache<String, CloudTableClient>(maxSize)
+                .setExpireAfterWrite(ttl, unit);
+    }
+
+    /**
+     * Returns the cached metric table location of the given VM, or {@code null} if it has to be
+     * resolved.
+     */
+    public MetricTableLocation getLocation(String vmId) {
+        MetricTableLocation location = this.locations.get(vmId);
+        if (location != null) {
+            this.hits.incrementAndGet();
+        } else {
+            this.misses.incrementAndGet();
+        }
+        return location;
+    }
+
+    public void putLocation(String vmId, MetricTableLocation location) {
+        this.locations.put(vmId, location);
+    }
+
+    /**
+     * Drops the metric table location of the given VM, for example because its table has no
+     * recent metrics, so that it is resolved again.
+     */
+    public void invalidateLocation(String vmId) {
+        this.locations.remove(vmId);
+    }
+
+    /**
+     * Returns the table client of the storage account with the given connection string.
+     */
+    public CloudTableClient getTableClient(String storageConnectionString) {
+        return this.tableClients.computeIfAbsent(storageConnectionString, connectionString -> {
+            try {
+                return AzureUtils.getAzureStorageClient(connectionString)
+                        .createCloudTableClient();
+            } catch (Exception e) {
+                throw new IllegalArgumentException(e);
+            }
+        });
+    }
+
+    /**
+     * Records the latency of a call to the {@code /metricDefinitions} endpoint.
+     */
+    public void recordDefinitionsCall(long latencyNanos) {
+        this.definitionsLatency.record(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    }
+
+    /**
+     * Records the latency of a query of the metric table.
+     */
+    public void recordTableQuery(long latencyNanos) {
+        this.tableQueryLatency.record(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    }
+
+    /**
+     * Sets the cache hits and misses, and the number of calls and latency percentiles of the
+     * metric definitions and table queries as stats of the given service.
+     */
+    public void publishStats(Service service) {
+        service.setStat(STAT_NAME_LOCATION_HITS, this.hits.get());
+        service.setStat(STAT_NAME_LOCATION_MISSES, this.misses.get());
+        service.setStat(STAT_NAME_DEFINITIONS_CALLS, this.definitionsLatency.getCount());
+        service.setStat(STAT_NAME_DEFINITIONS_P50, this.definitionsLatency.getPercentileMicros(50));
+        service.setStat(STAT_NAME_DEFINITIONS_P90, this.definitionsLatency.getPercentileMicros(90));
+        service.setStat(STAT_NAME_DEFINITIONS_P99, this.definitionsLatency.getPercentileMicros(99));
+        service.setStat(STAT_NAME_TABLE_QUERIES, this.tableQueryLatency.getCount());
+        service.setStat(STAT_NAME_TABLE_QUERY_P50, this.tableQueryLatency.getPercentileMicros(50));
+        service.setStat(STAT_NAME_TABLE_QUERY_P90, this.tableQueryLatency.getPercentileMicros(90));
+        service.setStat(STAT_NAME_TABLE_QUERY_P99, this.tableQueryLatency.getPercentileMicros(99));
+    }
+
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    public long getMissCount() {
+        return this.misses.get();
+    }
+}
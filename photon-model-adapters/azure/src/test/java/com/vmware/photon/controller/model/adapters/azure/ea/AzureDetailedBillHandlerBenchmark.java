@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.azure.ea;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.vmware.photon.controller.model.adapters.azure.constants.AzureCostConstants;
+import com.vmware.photon.controller.model.adapters.azure.ea.utils.AzureDetailedBillHandler;
+import com.vmware.photon.controller.model.adapters.azure.model.cost.BillParsingStatus;
+
+/**
+ * Measures the time to parse a single day-batch of a synthetic month-long EA detailed bill,
+ * depending on how far into the bill the batch is. With {@code byteOffset} the batch seeks to the
+ * cursor, otherwise it skips the lines already read, as the parser used to do. The time of a
+ * byte-offset batch should not depend on {@code day}. {@link #singlePass} parses the whole bill.
+ * Run with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.vmware.photon.controller.model.adapters.azure.ea.AzureDetailedBillHandlerBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AzureDetailedBillHandlerBenchmark {
+
+    private static final int DAYS = 31;
+
+    @Param({ "1", "10", "20", "30" })
+    public int day;
+
+    @Param({ "true", "false" })
+    public boolean byteOffset;
+
+    @Param({ "20000" })
+    public int rowsPerDay;
+
+    private File billFile;
+    private BillParsingStatus cursor;
+    private AzureDetailedBillHandler handler = new AzureDetailedBillHandler();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.billFile = Files.createTempFile("azure-ea-bill", ".csv").toFile();
+        AzureDetailedBillHandlerTest.writeSyntheticBill(this.billFile, DAYS, this.rowsPerDay, 20);
+
+        // Move the cursor to the start of the requested day
+        BillParsingStatus status = new BillParsingStatus();
+        for (int i = 1; i < this.day; i++) {
+            parse(status, false);
+        }
+        this.cursor = new BillParsingStatus();
+        this.cursor.setNoLinesRead(status.getNoLinesRead());
+        if (this.byteOffset) {
+            this.cursor.setByteOffset(status.getByteOffset());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.billFile.toPath());
+    }
+
+    @Benchmark
+    public BillParsingStatus dayBatch() throws IOException {
+        BillParsingStatus status = new BillParsingStatus();
+        status.setNoLinesRead(this.cursor.getNoLinesRead());
+        status.setByteOffset(this.cursor.getByteOffset());
+        return parse(status, false);
+    }
+
+    @Benchmark
+    public BillParsingStatus singlePass() throws IOException {
+        return parse(new BillParsingStatus(), true);
+    }
+
+    private BillParsingStatus parse(BillParsingStatus status, boolean singlePass)
+            throws IOException {
+        return this.handler.parseDetailedCsv(this.billFile, Collections.emptySet(), status, 0,
+                AzureCostConstants.DEFAULT_CURRENCY_VALUE, (bill, parsedMillis) -> { },
+                singlePass);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(AzureDetailedBillHandlerBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.azure.ea;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.vmware.photon.controller.model.adapters.azure.constants.AzureCostConstants;
+import com.vmware.photon.controller.model.adapters.azure.ea.utils.AzureDetailedBillHandler;
+import com.vmware.photon.controller.model.adapters.azure.ea.utils.AzureDetailedBillHandler.BillHeaders;
+import com.vmware.photon.controller.model.adapters.azure.model.cost.AzureSubscription;
+import com.vmware.photon.controller.model.adapters.azure.model.cost.BillParsingStatus;
+
+public class AzureDetailedBillHandlerTest {
+
+    private static final int DAYS = 5;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testResumableParsingMatchesSinglePass() throws IOException {
+        File billFile = this.folder.newFile();
+        writeSyntheticBill(billFile, DAYS, 40, 3);
+        AzureDetailedBillHandler handler = new AzureDetailedBillHandler();
+
+        // One day per invocation, each continuing from the byte offset of the previous one
+        List<Map<String, Map<Long, Double>>> resumedBatches = new ArrayList<>();
+        BillParsingStatus status = new BillParsingStatus();
+        List<BillParsingStatus> cursors = new ArrayList<>();
+        long previousOffset = -1;
+        while (!status.isParsingComplete()) {
+            cursors.add(copyOf(status));
+            handler.parseDetailedCsv(billFile, Collections.emptySet(), status, 0,
+                    AzureCostConstants.DEFAULT_CURRENCY_VALUE,
+                    (bill, parsedMillis) -> resumedBatches.add(getDailyCosts(bill)));
+            assertTrue(status.getByteOffset() > previousOffset);
+            previousOffset = status.getByteOffset();
+        }
+        assertEquals(DAYS, resumedBatches.size());
+        assertEquals(billFile.length(), status.getByteOffset());
+
+        // Whole bill in one invocation
+        List<Map<String, Map<Long, Double>>> singlePassBatches = new ArrayList<>();
+        BillParsingStatus singlePassStatus = new BillParsingStatus();
+        handler.parseDetailedCsv(billFile, Collections.emptySet(), singlePassStatus, 0,
+                AzureCostConstants.DEFAULT_CURRENCY_VALUE,
+                (bill, parsedMillis) -> singlePassBatches.add(getDailyCosts(bill)), true);
+        assertTrue(singlePassStatus.isParsingComplete());
+        assertEquals(resumedBatches, singlePassBatches);
+
+        // A cursor without byte offset falls back to skipping lines
+        for (int i = 0; i < cursors.size(); i++) {
+            BillParsingStatus lineCursor = new BillParsingStatus();
+            lineCursor.setNoLinesRead(cursors.get(i).getNoLinesRead());
+            List<Map<String, Map<Long, Double>>> batches = new ArrayList<>();
+            handler.parseDetailedCsv(billFile, Collections.emptySet(), lineCursor, 0,
+                    AzureCostConstants.DEFAULT_CURRENCY_VALUE,
+                    (bill, parsedMillis) -> batches.add(getDailyCosts(bill)));
+            assertEquals(Collections.singletonList(resumedBatches.get(i)), batches);
+        }
+    }
+
+    private static BillParsingStatus copyOf(BillParsingStatus status) {
+        BillParsingStatus copy = new BillParsingStatus();
+        copy.setNoLinesRead(status.getNoLinesRead());
+        copy.setByteOffset(status.getByteOffset());
+        return copy;
+    }
+
+    private static Map<String, Map<Long, Double>> getDailyCosts(
+            Map<String, AzureSubscription> bill) {
+        Map<String, Map<Long, Double>> dailyCosts = new HashMap<>();
+        bill.forEach((guid, subscription) -> dailyCosts.put(guid, new HashMap<>(subscription.cost)));
+        return dailyCosts;
+    }
+
+    /**
+     * Writes an EA detailed bill for the given number of days, with the two leading lines which
+     * precede the header in bills downloaded from Azure.
+     */
+    public static void writeSyntheticBill(File billFile, int days, int rowsPerDay,
+            int subscriptions) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(billFile.toPath())) {
+            writer.write("\"Usage Data Extract\"\r\n");
+            writer.write("\"\"\r\n");
+            StringBuilder header = new StringBuilder();
+            for (BillHeaders billHeader : BillHeaders.values()) {
+                header.append(header.length() == 0 ? "" : ",").append(billHeader.name());
+            }
+            writer.write(header.append("\r\n").toString());
+
+            String[] row = new String[BillHeaders.values().length];
+            for (int day = 1; day <= days; day++) {
+                for (int i = 0; i < rowsPerDay; i++) {
+                    int subscription = i % subscriptions;
+                    row[BillHeaders.ACCOUNT_OWNER_ID.position] = "owner@example.com";
+                    row[BillHeaders.ACCOUNT_NAME.position] = "account";
+                    row[BillHeaders.SERVICE_ADMINISTRATOR_ID.position] = "admin@example.com";
+                    row[BillHeaders.SUBSCRIPTION_ID.position] = Integer.toString(subscription);
+                    row[BillHeaders.SUBSCRIPTION_GUID.position] = "guid-" + subscription;
+                    row[BillHeaders.SUBSCRIPTION_NAME.position] = "subscription-" + subscription;
+                    row[BillHeaders.DATE.position] = String.format("01/%02d/2018", day);
+                    row[BillHeaders.MONTH.position] = "1";
+                    row[BillHeaders.DAY.position] = Integer.toString(day);
+                    row[BillHeaders.YEAR.position] = "2018";
+                    row[BillHeaders.PRODUCT.position] = "Standard D1 VM (Windows)";
+                    row[BillHeaders.METER_ID.position] = "meter-" + (i % 7);
+                    row[BillHeaders.METER_CATEGORY.position] = i % 2 == 0 ? "Virtual Machines"
+                            : "Storage";
+                    row[BillHeaders.METER_SUB_CATEGORY.position] = "Standard";
+                    row[BillHeaders.METER_REGION.position] = "US West";
+                    row[BillHeaders.METER_NAME.position] = "Compute Hours";
+                    row[BillHeaders.CONSUMED_QUANTITY.position] = "24";
+                    row[BillHeaders.RESOURCE_RATE.position] = "0.125";
+                    row[BillHeaders.EXTENDED_COST.position] = Double.toString(0.25 * (i % 13));
+                    row[BillHeaders.RESOURCE_LOCATION.position] = "westus";
+                    row[BillHeaders.CONSUMED_SERVICE.position] = "Microsoft.Compute";
+                    row[BillHeaders.INSTANCE_ID.position] = "/subscriptions/guid-" + subscription
+                            + "/resourceGroups/rg/providers/Microsoft.Compute/virtualMachines/vm-"
+                            + (i % 50);
+                    row[BillHeaders.SERVICE_INFO_1.position] = "";
+                    row[BillHeaders.SERVICE_INFO_2.position] = "";
+                    row[BillHeaders.ADDITIONAL_INFO.position] = "{\"\"ImageType\"\":\"\"Windows\"\"}";
+                    row[BillHeaders.TAGS.position] = "{\"\"env\"\":\"\"test, staging\"\"}";
+                    row[BillHeaders.STORE_SERVICE_IDENTIFIER.position] = "";
+                    row[BillHeaders.DEPARTMENT_NAME.position] = "department";
+                    row[BillHeaders.COST_CENTER.position] = "";
+                    row[BillHeaders.UNIT_OF_MEASURE.position] = "Hours";
+                    row[BillHeaders.RESOURCE_GROUP.position] = "rg";
+                    StringBuilder line = new StringBuilder();
+                    for (int c = 0; c < row.length; c++) {
+                        line.append(c == 0 ? "\"" : ",\"").append(row[c]).append('"');
+                    }
+                    writer.write(line.append("\r\n").toString());
+                }
+            }
+        }
+    }
+}
@@ -42,6 +42,7 @@ import com.vmware.photon.controller.model.adapters.gcp.utils.GCPStatsNormalizer;
 import com.vmware.photon.controller.model.adapters.gcp.utils.GCPUtils;
 import com.vmware.photon.controller.model.adapters.gcp.utils.JSONWebToken;
 import com.vmware.photon.controller.model.adapters.util.AdapterUtils;
+import com.vmware.photon.controller.model.adapters.util.ReferenceDocumentCache;
 import com.vmware.photon.controller.model.adapters.util.TaskManager;
 import com.vmware.photon.controller.model.resources.ComputeService.ComputeStateWithDescription;
 import com.vmware.photon.controller.model.resources.ResourceGroupService.ResourceGroupState;
@@ -422,15 +423,20 @@ public class GCPStatsService extends StatelessService {
      * @param nextStage The next stage of StatsCollectionStage for the service.
      */
     private void getParentVMDescription(GCPStatsDataHolder statsData, StatsCollectionStage nextStage) {
-        Consumer<Operation> onSuccess = (op) -> {
-            statsData.parentDesc = op.getBody(ComputeStateWithDescription.class);
-            statsData.stage = nextStage;
-            handleStatsRequest(statsData);
-        };
         URI computeUri = UriUtils.extendUriWithQuery(
                 UriUtils.buildUri(getHost(), statsData.computeDesc.parentLink),
                 UriUtils.URI_PARAM_ODATA_EXPAND, Boolean.TRUE.toString());
-        AdapterUtils.getServiceState(this, computeUri, onSuccess, getFailureConsumer(statsData));
+        ReferenceDocumentCache.getInstance(getHost())
+                .get(this, computeUri, ComputeStateWithDescription.class)
+                .whenComplete((parentDesc, e) -> {
+                    if (e != null) {
+                        getFailureConsumer(statsData).accept(e);
+                        return;
+                    }
+                    statsData.parentDesc = parentDesc;
+                    statsData.stage = nextStage;
+                    handleStatsRequest(statsData);
+                });
     }
 
     /**
@@ -439,21 +445,26 @@ public class GCPStatsService extends StatelessService {
      * @param nextStage The next stage of StatsCollectionStage for the service.
      */
     private void getParentAuth(GCPStatsDataHolder statsData, StatsCollectionStage nextStage) {
-        Consumer<Operation> onSuccess = (op) -> {
-            statsData.parentAuth = op.getBody(AuthCredentialsServiceState.class);
-            statsData.userEmail = statsData.parentAuth.userEmail;
-            statsData.privateKey = EncryptionUtils.decrypt(statsData.parentAuth.privateKey);
-            statsData.stage = nextStage;
-            handleStatsRequest(statsData);
-        };
         String authLink;
         if (statsData.isComputeHost) {
             authLink = statsData.computeDesc.description.authCredentialsLink;
         } else {
             authLink = statsData.parentDesc.description.authCredentialsLink;
         }
-        AdapterUtils.getServiceState(this, createInventoryUri(this.getHost(), authLink), onSuccess,
-                getFailureConsumer(statsData));
+        ReferenceDocumentCache.getInstance(getHost())
+                .get(this, createInventoryUri(this.getHost(), authLink),
+                        AuthCredentialsServiceState.class)
+                .whenComplete((parentAuth, e) -> {
+                    if (e != null) {
+                        getFailureConsumer(statsData).accept(e);
+                        return;
+                    }
+                    statsData.parentAuth = parentAuth;
+                    statsData.userEmail = parentAuth.userEmail;
+                    statsData.privateKey = EncryptionUtils.decrypt(parentAuth.privateKey);
+                    statsData.stage = nextStage;
+                    handleStatsRequest(statsData);
+                });
     }
 
     /**
@@ -194,10 +194,8 @@ public class BaseAdapterContext<T extends BaseAdapterContext<T>> {
 
         ref = ComputeStateWithDescription.buildUri(ref);
 
-        Operation op = Operation.createGet(ref);
-
-        return context.service
-                .sendWithDeferredResult(op, ComputeStateWithDescription.class)
+        return getReferenceDocumentCache(context)
+                .get(context.service, ref, ComputeStateWithDescription.class)
                 .thenApply(state -> {
                     context.parent = state;
                     return context;
@@ -220,9 +218,9 @@ public class BaseAdapterContext<T extends BaseAdapterContext<T>> {
             }
         }
         if (context.endpointReference != null) {
-            Operation op = Operation.createGet(context.endpointReference);
-            return context.service
-                    .sendWithDeferredResult(op, EndpointService.EndpointState.class)
+            return getReferenceDocumentCache(context)
+                    .get(context.service, context.endpointReference,
+                            EndpointService.EndpointState.class)
                     .thenApply(state -> {
                         context.endpoint = state;
                         return context;
@@ -241,10 +239,8 @@ public class BaseAdapterContext<T extends BaseAdapterContext<T>> {
 
         URI parentAuthRef = getParentAuthRef(context);
 
-        Operation op = Operation.createGet(parentAuthRef);
-
-        return context.service
-                .sendWithDeferredResult(op, AuthCredentialsServiceState.class)
+        return getReferenceDocumentCache(context)
+                .get(context.service, parentAuthRef, AuthCredentialsServiceState.class)
                 .thenApply(state -> {
                     context.parentAuth = state;
                     context.endpointAuth = state;
@@ -252,6 +248,14 @@ public class BaseAdapterContext<T extends BaseAdapterContext<T>> {
                 });
     }
 
+    /**
+     * The cache of the parent, endpoint and endpoint auth documents, which are shared by the
+     * computes of an endpoint.
+     */
+    protected ReferenceDocumentCache getReferenceDocumentCache(T context) {
+        return ReferenceDocumentCache.getInstance(context.service.getHost());
+    }
+
     /**
      * Descendants might implement this hook to provide custom link to endpoint auth.
      */
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.photon.controller.model.UriPaths;
+import com.vmware.photon.controller.model.query.QueryUtils;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceHost.ServiceNotFoundException;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryTask;
+import com.vmware.xenon.services.common.QueryTask.Query;
+import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryOption;
+
+/**
+ * Loads documents of one type by link, coalescing the loads requested by concurrent resource
+ * requests into a single query of up to {@link #DEFAULT_BATCH_SIZE} links instead of a GET each.
+ * A batch is queried when full, or {@link #DEFAULT_LINGER_MILLIS} after its first link.
+ * <p>
+ * A load of a link which does not exist fails with {@link ServiceNotFoundException}, as the GET
+ * would.
+ */
+public class BatchedDocumentLoader<T extends ServiceDocument> {
+
+    public static final int DEFAULT_BATCH_SIZE = Integer.getInteger(
+            UriPaths.PROPERTY_PREFIX + "BatchedDocumentLoader.batchSize", 100);
+
+    public static final long DEFAULT_LINGER_MILLIS = Long.getLong(
+            UriPaths.PROPERTY_PREFIX + "BatchedDocumentLoader.lingerMillis", 100);
+
+    private final Class<T> type;
+    private final int batchSize;
+    private final long lingerMillis;
+
+    // The loads of the open batch by link. Guarded by this.
+    private Map<String, List<DeferredResult<T>>> openBatch = new HashMap<>();
+
+    public BatchedDocumentLoader(Class<T> type) {
+        this(type, DEFAULT_BATCH_SIZE, DEFAULT_LINGER_MILLIS);
+    }
+
+    public BatchedDocumentLoader(Class<T> type, int batchSize, long lingerMillis) {
+        this.type = type;
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+    }
+
+    /**
+     * Loads the document with the given link in the next batch, queried by the given service.
+     */
+    public DeferredResult<T> load(Service sender, String documentLink) {
+        DeferredResult<T> result = new DeferredResult<>();
+
+        Map<String, List<DeferredResult<T>>> batch;
+        boolean first;
+        boolean full;
+        synchronized (this) {
+            batch = this.openBatch;
+            batch.computeIfAbsent(documentLink, k -> new ArrayList<>()).add(result);
+            first = batch.size() == 1 && batch.get(documentLink).size() == 1;
+            full = batch.size() >= this.batchSize;
+            if (full) {
+                this.openBatch = new HashMap<>();
+            }
+        }
+
+        if (full) {
+            send(sender, batch);
+        } else if (first) {
+            scheduleFlush(sender, () -> flush(sender, batch));
+        }
+        return result;
+    }
+
+    /**
+     * Schedules the query of a batch which may not fill up.
+     */
+    protected void scheduleFlush(Service sender, Runnable flush) {
+        sender.getHost().schedule(flush, this.lingerMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush(Service sender, Map<String, List<DeferredResult<T>>> batch) {
+        synchronized (this) {
+            // already sent if it filled up in the meantime
+            if (this.openBatch != batch) {
+                return;
+            }
+            this.openBatch = new HashMap<>();
+        }
+        send(sender, batch);
+    }
+
+    private void send(Service sender, Map<String, List<DeferredResult<T>>> batch) {
+        query(sender, new ArrayList<>(batch.keySet())).whenComplete((documents, e) -> {
+            batch.forEach((link, results) -> {
+                if (e != null) {
+                    results.forEach(r -> r.fail(e));
+                    return;
+                }
+                T document = documents.get(link);
+                if (document == null) {
+                    results.forEach(r -> r.fail(new ServiceNotFoundException(link)));
+                    return;
+                }
+                results.get(0).complete(document);
+                // each load gets its own copy
+                results.stream().skip(1).forEach(r -> r.complete(Utils.clone(document)));
+            });
+        });
+    }
+
+    /**
+     * Queries the documents with the given links, by link.
+     */
+    protected DeferredResult<Map<String, T>> query(Service sender, List<String> documentLinks) {
+        Query query = Query.Builder.create()
+                .addKindFieldClause(this.type)
+                .addInClause(ServiceDocument.FIELD_NAME_SELF_LINK, documentLinks)
+                .build();
+        QueryTask queryTask = QueryTask.Builder.createDirectTask()
+                .setQuery(query)
+                .addOption(QueryOption.EXPAND_CONTENT)
+                .build();
+
+        return QueryUtils.startInventoryQueryTask(sender, queryTask).thenApply(qt -> {
+            Map<String, T> documents = new HashMap<>();
+            if (qt.results.documents != null) {
+                qt.results.documents.forEach((link, json) -> documents.put(link,
+                        Utils.fromJson(json, this.type)));
+            }
+            return documents;
+        });
+    }
+}
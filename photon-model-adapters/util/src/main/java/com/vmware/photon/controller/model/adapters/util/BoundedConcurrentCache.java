@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import com.vmware.photon.controller.model.util.AssertUtil;
+
+/**
+ * Concurrent cache bounded by size and by time, meant for expensive objects such as cloud
+ * clients, which are read far more often than they are created. Unlike {@link LRUCache}, reads do
+ * not change the structure of the cache and do not take any lock, so they scale with the number of
+ * threads.
+ * <ul>
+ * <li>Entries expire a configured time after they were written, or after they were last read.</li>
+ * <li>When the cache grows above its max size, expired entries and then the least recently read
+ * ones are evicted. Eviction is done by a single inserting thread at a time and never blocks
+ * readers.</li>
+ * <li>Values that are evicted, expired or removed are only dropped from the cache, since callers
+ * may still be using them. Only {@link #clear(Consumer)} closes the values.</li>
+ * </ul>
+ */
+public class BoundedConcurrentCache<K, V> {
+
+    private static final class Entry<V> {
+        final V value;
+        final long writeNanos;
+        volatile long accessNanos;
+
+        Entry(V value, long nowNanos) {
+            this.value = value;
+            this.writeNanos = nowNanos;
+            this.accessNanos = nowNanos;
+        }
+    }
+
+    private final int maxSize;
+
+    private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private long expireAfterWriteNanos = Long.MAX_VALUE;
+
+    private long expireAfterAccessNanos = Long.MAX_VALUE;
+
+    /**
+     * Reads refresh the access time of an entry only once per this period, so that concurrent
+     * readers of a hot entry do not keep writing to it.
+     */
+    private long accessGranularityNanos = TimeUnit.SECONDS.toNanos(1);
+
+    public BoundedConcurrentCache(int maxSize) {
+        AssertUtil.assertTrue(maxSize > 0, "'maxSize' must be positive");
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Expire entries the given time after they were written.
+     */
+    public BoundedConcurrentCache<K, V> setExpireAfterWrite(long duration, TimeUnit unit) {
+        this.expireAfterWriteNanos = unit.toNanos(duration);
+        return this;
+    }
+
+    /**
+     * Expire entries the given time after they were last read or written.
+     */
+    public BoundedConcurrentCache<K, V> setExpireAfterAccess(long duration, TimeUnit unit) {
+        this.expireAfterAccessNanos = unit.toNanos(duration);
+        this.accessGranularityNanos = Math.min(this.accessGranularityNanos,
+                this.expireAfterAccessNanos / 16);
+        return this;
+    }
+
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * Returns the number of entries, including the expired ones not evicted yet.
+     */
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Returns the value cached for the given key, or {@code null} if there is none or it has
+     * expired.
+     */
+    public V get(K key) {
+        Entry<V> entry = this.entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        long now = System.nanoTime();
+        if (isExpired(entry, now)) {
+            this.entries.remove(key, entry);
+            return null;
+        }
+        touch(entry, now);
+        return entry.value;
+    }
+
+    /**
+     * Returns the value cached for the given key, creating it with the given function if there is
+     * none or it has expired. The function is called at most once per key at a time. If it returns
+     * {@code null} nothing is cached and {@code null} is returned.
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+
+        boolean[] created = { false };
+        Entry<V> entry = this.entries.computeIfAbsent(key, k -> {
+            V newValue = mappingFunction.apply(k);
+            if (newValue == null) {
+                return null;
+            }
+            created[0] = true;
+            return new Entry<>(newValue, System.nanoTime());
+        });
+        if (created[0] && this.entries.size() > this.maxSize) {
+            evict();
+        }
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * Caches the given value, replacing the previous one, if any.
+     */
+    public void put(K key, V value) {
+        AssertUtil.assertNotNull(value, "'value' must be set");
+        this.entries.put(key, new Entry<>(value, System.nanoTime()));
+        if (this.entries.size() > this.maxSize) {
+            evict();
+        }
+    }
+
+    /**
+     * Removes the value cached for the given key.
+     *
+     * @return The removed value, or {@code null} if there was none.
+     */
+    public V remove(K key) {
+        Entry<V> entry = this.entries.remove(key);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * Removes the value cached for the given key only if it is the given one, so that a value
+     * cached in the meantime by another thread is kept.
+     *
+     * @return Whether the value was removed.
+     */
+    public boolean remove(K key, V value) {
+        Entry<V> entry = this.entries.get(key);
+        return entry != null && entry.value == value && this.entries.remove(key, entry);
+    }
+
+    /**
+     * Removes all values and closes them right away with the given action instead of the closer.
+     */
+    public void clear(Consumer<? super V> closeAction) {
+        new ArrayList<>(this.entries.keySet()).forEach(key -> {
+            Entry<V> entry = this.entries.remove(key);
+            if (entry != null && closeAction != null) {
+                closeAction.accept(entry.value);
+            }
+        });
+    }
+
+    /**
+     * Returns a snapshot of the values which have not expired.
+     */
+    public List<V> values() {
+        long now = System.nanoTime();
+        List<V> values = new ArrayList<>();
+        this.entries.values().forEach(entry -> {
+            if (!isExpired(entry, now)) {
+                values.add(entry.value);
+            }
+        });
+        return values;
+    }
+
+    private boolean isExpired(Entry<V> entry, long now) {
+        return now - entry.writeNanos >= this.expireAfterWriteNanos
+                || now - entry.accessNanos >= this.expireAfterAccessNanos;
+    }
+
+    private void touch(Entry<V> entry, long now) {
+        if (now - entry.accessNanos >= this.accessGranularityNanos) {
+            entry.accessNanos = now;
+        }
+    }
+
+    /**
+     * Evicts the expired entries and, if still above the max size, the least recently read ones.
+     * Skipped if another thread is already evicting, since it brings the size back anyway.
+     */
+    private void evict() {
+        if (!this.evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long now = System.nanoTime();
+            List<Map.Entry<K, Entry<V>>> candidates = new ArrayList<>();
+            for (Map.Entry<K, Entry<V>> mapEntry : this.entries.entrySet()) {
+                if (isExpired(mapEntry.getValue(), now)) {
+                    this.entries.remove(mapEntry.getKey(), mapEntry.getValue());
+                } else {
+                    candidates.add(mapEntry);
+                }
+            }
+
+            int excess = this.entries.size() - this.maxSize;
+            if (excess <= 0) {
+                return;
+            }
+            candidates.sort(Comparator.comparingLong(mapEntry -> mapEntry.getValue().accessNanos));
+            for (int i = 0; i < candidates.size() && excess > 0; i++) {
+                if (this.entries.remove(candidates.get(i).getKey(), candidates.get(i).getValue())) {
+                    excess--;
+                }
+            }
+        } finally {
+            this.evicting.set(false);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe histogram of latencies in microseconds. Latencies are counted in buckets with power
+ * of two upper bounds, so percentiles are accurate within a factor of two, which is enough to tell
+ * a healthy stage from a congested one at a constant memory cost.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = Long.SIZE;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * Records a single latency.
+     */
+    public void record(long latencyMicros) {
+        long latency = Math.max(0, latencyMicros);
+        this.counts.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(latency));
+        this.count.incrementAndGet();
+        this.sumMicros.addAndGet(latency);
+        this.maxMicros.accumulateAndGet(latency, Math::max);
+    }
+
+    public long getCount() {
+        return this.count.get();
+    }
+
+    public long getMaxMicros() {
+        return this.maxMicros.get();
+    }
+
+    public long getMeanMicros() {
+        long total = this.count.get();
+        return total == 0 ? 0 : this.sumMicros.get() / total;
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the given percentile, capped by the max
+     * recorded latency.
+     *
+     * @param percentile
+     *            Percentile in the (0, 100] range.
+     */
+    public long getPercentileMicros(double percentile) {
+        long total = this.count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.counts.get(i);
+            if (seen >= rank) {
+                long upperBound = i == 0 ? 0 : (1L << i) - 1;
+                return Math.min(upperBound, getMaxMicros());
+            }
+        }
+        return getMaxMicros();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, mean=%dus, p50=%dus, p90=%dus, p99=%dus, max=%dus",
+                getCount(), getMeanMicros(), getPercentileMicros(50), getPercentileMicros(90),
+                getPercentileMicros(99), getMaxMicros());
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.util;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import com.vmware.photon.controller.model.UriPaths;
+import com.vmware.photon.controller.model.util.AssertUtil;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.Service;
+
+/**
+ * Windowed sender which limits the number of asynchronous operations in flight. Operations
+ * submitted while the window is full are queued, and are not even created until a slot is freed
+ * by a completing operation. This replaces the fan-out of a whole page of resources with
+ * {@link DeferredResult#allOf(List)}, which sends all operations at once and may overflow the
+ * pending operation queues of the target host.
+ * <p>
+ * Each operation is submitted under a stage name. The time from the start of an operation to its
+ * completion is recorded in a {@link LatencyHistogram} of its stage, and the time spent waiting
+ * for a slot in the histogram of the {@code <stage>.queued} stage.
+ * <p>
+ * <b>Note</b>: An operation must not wait for other operations submitted to the same pipeline,
+ * otherwise a full window never frees up. Nested fan-outs should use separate pipelines.
+ */
+public class OperationPipeline {
+
+    public static final String QUEUED_STAGE_SUFFIX = ".queued";
+
+    public static final String STAT_NAME_SUFFIX_COUNT = ".count";
+    public static final String STAT_NAME_SUFFIX_P50 = ".latencyP50Micros";
+    public static final String STAT_NAME_SUFFIX_P99 = ".latencyP99Micros";
+    public static final String STAT_NAME_SUFFIX_MAX = ".latencyMaxMicros";
+
+    /**
+     * The default limit of operations in flight.
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = Integer.getInteger(
+            UriPaths.PROPERTY_PREFIX + "adapters.max.in.flight.operations", 64);
+
+    private final int maxInFlight;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final Queue<PendingOperation<?>> queue = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger drainRequests = new AtomicInteger();
+
+    private final Map<String, LatencyHistogram> latencyHistograms = new ConcurrentHashMap<>();
+
+    private class PendingOperation<R> {
+        final String stage;
+        final Supplier<DeferredResult<R>> operation;
+        final DeferredResult<R> result = new DeferredResult<>();
+        final long queuedNanos = System.nanoTime();
+
+        PendingOperation(String stage, Supplier<DeferredResult<R>> operation) {
+            this.stage = stage;
+            this.operation = operation;
+        }
+
+        void start() {
+            long startNanos = System.nanoTime();
+            record(this.stage + QUEUED_STAGE_SUFFIX, startNanos - this.queuedNanos);
+
+            DeferredResult<R> operationDR;
+            try {
+                operationDR = this.operation.get();
+            } catch (Throwable t) {
+                operationDR = DeferredResult.failed(t);
+            }
+
+            operationDR.whenComplete((r, e) -> {
+                record(this.stage, System.nanoTime() - startNanos);
+                release();
+                if (e != null) {
+                    this.result.fail(e);
+                } else {
+                    this.result.complete(r);
+                }
+            });
+        }
+    }
+
+    public OperationPipeline() {
+        this(DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public OperationPipeline(int maxInFlight) {
+        AssertUtil.assertTrue(maxInFlight > 0, "'maxInFlight' must be positive");
+        this.maxInFlight = maxInFlight;
+    }
+
+    public int getMaxInFlight() {
+        return this.maxInFlight;
+    }
+
+    /**
+     * Returns the number of operations currently in flight.
+     */
+    public int getInFlight() {
+        return this.inFlight.get();
+    }
+
+    /**
+     * Returns the number of operations waiting for a slot.
+     */
+    public int getQueued() {
+        return this.queue.size();
+    }
+
+    /**
+     * Submits an operation. It is started right away if there is a free slot, otherwise when one
+     * is freed.
+     *
+     * @param stage
+     *            Name of the stage whose latency histogram to record the operation in.
+     * @param operation
+     *            Creates and sends the operation.
+     * @return The result of the operation.
+     */
+    public <R> DeferredResult<R> submit(String stage, Supplier<DeferredResult<R>> operation) {
+        PendingOperation<R> pendingOperation = new PendingOperation<>(stage, operation);
+        this.queue.add(pendingOperation);
+        drain();
+        return pendingOperation.result;
+    }
+
+    /**
+     * Submits an operation per item, and returns the results in the order of the items. Like
+     * {@link DeferredResult#allOf(List)}, the returned result fails if any of the operations
+     * fails, but only once all of them have completed.
+     */
+    public <T, R> DeferredResult<List<R>> submitAll(String stage, Collection<T> items,
+            Function<? super T, DeferredResult<R>> operation) {
+        if (items.isEmpty()) {
+            return DeferredResult.completed(Collections.emptyList());
+        }
+        List<DeferredResult<R>> results = items.stream()
+                .map(item -> submit(stage, () -> operation.apply(item)))
+                .collect(Collectors.toList());
+        return DeferredResult.allOf(results);
+    }
+
+    /**
+     * Returns the latency histogram of the given stage, or {@code null} if no operation of that
+     * stage has started.
+     */
+    public LatencyHistogram getLatencyHistogram(String stage) {
+        return this.latencyHistograms.get(stage);
+    }
+
+    /**
+     * Returns the latency histograms of all stages.
+     */
+    public Map<String, LatencyHistogram> getLatencyHistograms() {
+        return Collections.unmodifiableMap(this.latencyHistograms);
+    }
+
+    /**
+     * Sets the operation count and the median, 99th percentile and max latencies of each stage as
+     * stats of the given service. Stats are only kept by services with
+     * {@code ServiceOption.INSTRUMENTATION}.
+     */
+    public void publishLatencyStats(Service service) {
+        this.latencyHistograms.forEach((stage, histogram) -> {
+            service.setStat(stage + STAT_NAME_SUFFIX_COUNT, histogram.getCount());
+            service.setStat(stage + STAT_NAME_SUFFIX_P50, histogram.getPercentileMicros(50));
+            service.setStat(stage + STAT_NAME_SUFFIX_P99, histogram.getPercentileMicros(99));
+            service.setStat(stage + STAT_NAME_SUFFIX_MAX, histogram.getMaxMicros());
+        });
+    }
+
+    private void record(String stage, long latencyNanos) {
+        this.latencyHistograms.computeIfAbsent(stage, k -> new LatencyHistogram())
+                .record(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    }
+
+    private void release() {
+        this.inFlight.decrementAndGet();
+        drain();
+    }
+
+    /**
+     * Starts queued operations while there are free slots. Operations completing synchronously
+     * call back into this method, so only the first caller drains and the others just make it
+     * loop once more, which keeps the stack flat.
+     */
+    private void drain() {
+        if (this.drainRequests.getAndIncrement() != 0) {
+            return;
+        }
+        int requests = 1;
+        do {
+            while (!this.queue.isEmpty() && tryAcquire()) {
+                PendingOperation<?> pendingOperation = this.queue.poll();
+                if (pendingOperation == null) {
+                    this.inFlight.decrementAndGet();
+                    break;
+                }
+                pendingOperation.start();
+            }
+            requests = this.drainRequests.addAndGet(-requests);
+        } while (requests != 0);
+    }
+
+    private boolean tryAcquire() {
+        int current;
+        do {
+            current = this.inFlight.get();
+            if (current >= this.maxInFlight) {
+                return false;
+            }
+        } while (!this.inFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+}
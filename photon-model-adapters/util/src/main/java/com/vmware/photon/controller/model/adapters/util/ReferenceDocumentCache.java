@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.util;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vmware.photon.controller.model.UriPaths;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Host-wide read-through cache of the documents referred to by many resources, such as the parent
+ * compute with its description, the endpoint and the endpoint credentials, which the adapters
+ * read for every compute they handle.
+ * <ul>
+ * <li>A cached document is served for {@link #DEFAULT_MAX_AGE_MILLIS} after it was read. After
+ * that the next lookup reads it again and compares its {@code documentVersion} with the cached
+ * one, counting the entry as revalidated or stale.</li>
+ * <li>Concurrent lookups of a document which is not cached share a single GET.</li>
+ * <li>Each lookup gets its own copy of the document, so callers may change it.</li>
+ * <li>Failures are not cached.</li>
+ * </ul>
+ * The lookups are not authorized against the cached documents, so the cache is meant for
+ * documents read by adapters on behalf of the system.
+ */
+public class ReferenceDocumentCache {
+
+    /**
+     * How long a cached document is served without reading it again. 0 disables caching, only
+     * concurrent lookups are coalesced.
+     */
+    public static final long DEFAULT_MAX_AGE_MILLIS = Long.getLong(
+            UriPaths.PROPERTY_PREFIX + "ReferenceDocumentCache.maxAgeMillis",
+            TimeUnit.SECONDS.toMillis(10));
+
+    public static final int DEFAULT_MAX_SIZE = Integer.getInteger(
+            UriPaths.PROPERTY_PREFIX + "ReferenceDocumentCache.maxSize", 10000);
+
+    public static final String STAT_NAME_HITS = "referenceCacheHits";
+    public static final String STAT_NAME_MISSES = "referenceCacheMisses";
+    public static final String STAT_NAME_REVALIDATIONS = "referenceCacheRevalidations";
+    public static final String STAT_NAME_STALE = "referenceCacheStaleEntries";
+
+    private static final long IDLE_TIMEOUT_MINUTES = 10;
+
+    private static final Map<ServiceHost, ReferenceDocumentCache> caches = Collections
+            .synchronizedMap(new WeakHashMap<>());
+
+    private static final class Entry {
+        final ServiceDocument document;
+        final long readNanos;
+
+        Entry(ServiceDocument document, long readNanos) {
+            this.document = document;
+            this.readNanos = readNanos;
+        }
+    }
+
+    private final long maxAgeNanos;
+
+    private final BoundedConcurrentCache<String, Entry> entries;
+
+    private final Map<String, DeferredResult<ServiceDocument>> pendingReads =
+            new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong staleEntries = new AtomicLong();
+
+    /**
+     * Returns the cache shared by the services of the given host.
+     */
+    public static ReferenceDocumentCache getInstance(ServiceHost host) {
+        return caches.computeIfAbsent(host, h -> new ReferenceDocumentCache(DEFAULT_MAX_SIZE,
+                DEFAULT_MAX_AGE_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    public ReferenceDocumentCache(int maxSize, long maxAge, TimeUnit unit) {
+        this.maxAgeNanos = unit.toNanos(maxAge);
+        this.entries = new BoundedConcurrentCache<String, Entry>(maxSize)
+                .setExpireAfterAccess(IDLE_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Returns a copy of the document at the given URI, read by the given service if it is not
+     * cached or was cached more than the max age ago, and publishes the counters of the cache to
+     * the stats of the service.
+     */
+    public <T extends ServiceDocument> DeferredResult<T> get(Service sender, URI uri,
+            Class<T> type) {
+        String key = type.getName() + ':' + uri;
+        long now = System.nanoTime();
+
+        Entry entry = this.entries.get(key);
+        if (entry != null && now - entry.readNanos < this.maxAgeNanos) {
+            this.hits.incrementAndGet();
+            publishStats(sender);
+            return DeferredResult.completed(type.cast(Utils.clone(entry.document)));
+        }
+
+        DeferredResult<ServiceDocument> read = new DeferredResult<>();
+        DeferredResult<ServiceDocument> pendingRead = this.pendingReads.putIfAbsent(key, read);
+        if (pendingRead != null) {
+            // Another lookup is reading the document already
+            this.hits.incrementAndGet();
+        } else {
+            this.misses.incrementAndGet();
+            pendingRead = read;
+            fetch(sender, uri, type).whenComplete((document, e) -> {
+                if (e != null) {
+                    this.pendingReads.remove(key, read);
+                    read.fail(e);
+                    return;
+                }
+                if (entry != null) {
+                    if (entry.document.documentVersion == document.documentVersion) {
+                        this.revalidations.incrementAndGet();
+                    } else {
+                        this.staleEntries.incrementAndGet();
+                    }
+                }
+                // Cache before ending the read, so that no lookup misses both
+                this.entries.put(key, new Entry(document, now));
+                this.pendingReads.remove(key, read);
+                read.complete(document);
+            });
+        }
+        publishStats(sender);
+
+        return pendingRead.thenApply(document -> type.cast(Utils.clone(document)));
+    }
+
+    /**
+     * Reads the document at the given URI.
+     */
+    protected <T extends ServiceDocument> DeferredResult<T> fetch(Service sender, URI uri,
+            Class<T> type) {
+        DeferredResult<T> result = new DeferredResult<>();
+        sender.sendRequest(Operation.createGet(uri).setCompletion((o, e) -> {
+            if (e != null) {
+                result.fail(e);
+                return;
+            }
+            result.complete(o.getBody(type));
+        }));
+        return result;
+    }
+
+    /**
+     * Sets the hits, misses, revalidated and stale entries of the cache as stats of the given
+     * service.
+     */
+    public void publishStats(Service service) {
+        if (service == null) {
+            return;
+        }
+        service.setStat(STAT_NAME_HITS, this.hits.get());
+        service.setStat(STAT_NAME_MISSES, this.misses.get());
+        service.setStat(STAT_NAME_REVALIDATIONS, this.revalidations.get());
+        service.setStat(STAT_NAME_STALE, this.staleEntries.get());
+    }
+
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    public long getRevalidationCount() {
+        return this.revalidations.get();
+    }
+
+    public long getStaleEntryCount() {
+        return this.staleEntries.get();
+    }
+}
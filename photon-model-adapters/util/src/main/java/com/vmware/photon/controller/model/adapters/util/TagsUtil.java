@@ -51,6 +51,17 @@ import com.vmware.xenon.services.common.QueryTask.Query;
  */
 public class TagsUtil {
 
+    /**
+     * Name of the {@link #TAG_OPERATION_PIPELINE} stage creating a tag state.
+     */
+    public static final String STAGE_CREATE_TAG = "createTagState";
+
+    /**
+     * Bounds the number of tag states being created at a time by all callers of this class, as
+     * each enumerated resource may fan out to as many POSTs as it has tags.
+     */
+    public static final OperationPipeline TAG_OPERATION_PIPELINE = new OperationPipeline();
+
     /**
      * Create or update the tag states of the provided ResourceState. In case there is an existing
      * state (currentState), update the resource's links, returning the updated links set.
@@ -102,16 +113,16 @@ public class TagsUtil {
                 () -> String.format(msg, localState.getClass().getSimpleName(), localState.name,
                         remoteTagsMap.size(), "STARTING"));
 
-        List<DeferredResult<TagState>> localTagStatesDRs = remoteTagsMap.entrySet().stream()
-                .map(tagEntry -> newTagState(tagEntry.getKey(), tagEntry.getValue(), true,
-                        localState.tenantLinks))
-                .map(tagState -> Operation
+        DeferredResult<List<TagState>> localTagStatesDR = TAG_OPERATION_PIPELINE.submitAll(
+                STAGE_CREATE_TAG,
+                remoteTagsMap.entrySet(),
+                tagEntry -> service.sendWithDeferredResult(Operation
                         .createPost(createInventoryUri(service.getHost(), TagService.FACTORY_LINK))
-                        .setBody(tagState))
-                .map(tagOp -> service.sendWithDeferredResult(tagOp, TagState.class))
-                .collect(Collectors.toList());
+                        .setBody(newTagState(tagEntry.getKey(), tagEntry.getValue(), true,
+                                localState.tenantLinks)),
+                        TagState.class));
 
-        return DeferredResult.allOf(localTagStatesDRs).thenApply(tagStatesList -> {
+        return localTagStatesDR.thenApply(tagStatesList -> {
 
             service.logFine(
                     () -> String.format(msg, localState.getClass().getSimpleName(), localState.name,
@@ -193,18 +204,14 @@ public class TagsUtil {
             resultTagLinks.addAll(tagLinksToAdd);
 
             // not existing locally tags should be created
-            List<DeferredResult<TagState>> localTagStatesDRs = tagLinksToAdd.stream()
-                    .map(tagLinkObj -> remoteTagStates.get(tagLinkObj))
-                    .map(tagState -> Operation
-                            .createPost(createInventoryUri(service.getHost(),
+            createAllLocalTagStatesDR = TAG_OPERATION_PIPELINE.submitAll(
+                    STAGE_CREATE_TAG,
+                    tagLinksToAdd,
+                    tagLink -> service.sendWithDeferredResult(
+                            Operation.createPost(createInventoryUri(service.getHost(),
                                     TagService.FACTORY_LINK))
-                            .setBody(tagState))
-                    .map(tagOperation -> service.sendWithDeferredResult(
-                            tagOperation,
-                            TagState.class))
-                    .collect(Collectors.toList());
-
-            createAllLocalTagStatesDR = DeferredResult.allOf(localTagStatesDRs);
+                                    .setBody(remoteTagStates.get(tagLink)),
+                            TagState.class));
         }
 
         final DeferredResult<Collection<String>> removeAllExternalTagLinksDR;
@@ -31,13 +31,20 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.logging.Level;
-import java.util.stream.Collectors;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 
 import com.vmware.photon.controller.model.UriPaths;
 import com.vmware.photon.controller.model.adapterapi.EndpointConfigRequest;
+import com.vmware.photon.controller.model.adapters.util.OperationPipeline;
 import com.vmware.photon.controller.model.adapters.util.TagsUtil;
 import com.vmware.photon.controller.model.constants.PhotonModelConstants.EndpointType;
 import com.vmware.photon.controller.model.query.QueryUtils.QueryByPages;
@@ -80,6 +87,40 @@ public abstract class EndpointEnumerationProcess<T extends EndpointEnumerationPr
             .getInteger(UriPaths.PROPERTY_PREFIX
                     + "enum.max.resources.query.on.delete", 950);
 
+    private static final boolean DEFAULT_DETECT_CHANGES = !Boolean.getBoolean(
+            UriPaths.PROPERTY_PREFIX + "enum.disable.change.detection");
+
+    /**
+     * Custom property holding the fingerprint of the state last written by the enumeration. It is
+     * compared with the fingerprint of the state built for the next enumeration cycle in order to
+     * skip PATCHes which would not change anything.
+     */
+    public static final String FINGERPRINT_PROP_NAME = "__enumerationFingerprint";
+
+    /**
+     * Name of the stat holding the number of local states created or updated during the last
+     * enumeration cycle.
+     */
+    public static final String STAT_NAME_LOCAL_STATE_WRITES_SENT = "localStateWritesSent";
+
+    /**
+     * Name of the stat holding the number of local state updates skipped during the last
+     * enumeration cycle because the remote resource had not changed.
+     */
+    public static final String STAT_NAME_LOCAL_STATE_WRITES_SKIPPED = "localStateWritesSkipped";
+
+    private static final String DOCUMENT_FIELD_NAME_PREFIX = "document";
+
+    /**
+     * Name of the pipeline stage creating or updating a local state, together with its tags.
+     */
+    public static final String STAGE_CREATE_UPDATE = "createUpdateLocalResourceState";
+
+    /**
+     * Name of the pipeline stage disassociating a stale local state.
+     */
+    public static final String STAGE_DISASSOCIATE = "disassociateLocalResourceState";
+
     /**
      * The service that is creating and initiating this enumeration process.
      */
@@ -122,6 +163,36 @@ public abstract class EndpointEnumerationProcess<T extends EndpointEnumerationPr
      */
     private boolean applyEndpointLink = true;
 
+    /**
+     * Flag controlling whether PATCHes of local states that have not changed since the previous
+     * enumeration cycle should be skipped. Default value is {@code true}, unless the
+     * {@code enum.disable.change.detection} system property is set.
+     * <p>
+     * The fingerprint is the one of the state built from the remote resource, not of the local
+     * document. So changes made to a local document out of band, e.g. by a user or by another
+     * service, are no longer reverted by the next enumeration cycle, but only once the remote
+     * resource changes. Disable change detection where such changes must be reverted.
+     *
+     * @see #computeFingerprint(LocalStateHolder)
+     */
+    private boolean detectChanges = DEFAULT_DETECT_CHANGES;
+
+    /**
+     * Number of local states created or updated during current enumeration cycle.
+     */
+    public final AtomicLong localStateWritesSent = new AtomicLong();
+
+    /**
+     * Number of local state updates skipped during current enumeration cycle.
+     */
+    public final AtomicLong localStateWritesSkipped = new AtomicLong();
+
+    /**
+     * Bounds the number of local states being created, updated or disassociated at a time. Its
+     * latency histograms are kept across enumeration cycles.
+     */
+    protected OperationPipeline operationPipeline = new OperationPipeline();
+
     /**
      * Represents a single page of remote resources.
      */
@@ -272,6 +343,26 @@ public abstract class EndpointEnumerationProcess<T extends EndpointEnumerationPr
         this.applyEndpointLink = applyEndpointLink;
     }
 
+    public boolean isDetectChanges() {
+        return this.detectChanges;
+    }
+
+    public void setDetectChanges(boolean detectChanges) {
+        this.detectChanges = detectChanges;
+    }
+
+    public OperationPipeline getOperationPipeline() {
+        return this.operationPipeline;
+    }
+
+    /**
+     * Sets the maximum number of local states being created, updated or disassociated at a time.
+     * Default value is {@link OperationPipeline#DEFAULT_MAX_IN_FLIGHT}.
+     */
+    public void setMaxInFlightOperations(int maxInFlightOperations) {
+        this.operationPipeline = new OperationPipeline(maxInFlightOperations);
+    }
+
     /**
      * The main method that starts the enumeration process and returns a {@link DeferredResult} to
      * signal completion.
@@ -279,6 +370,8 @@ public abstract class EndpointEnumerationProcess<T extends EndpointEnumerationPr
     public DeferredResult<T> enumerate() {
 
         this.enumStartTimeInMicros = Utils.getNowMicrosUtc();
+        this.localStateWritesSent.set(0);
+        this.localStateWritesSkipped.set(0);
 
         return DeferredResult.completed(self())
                 .thenCompose(this::getEndpointState)
@@ -288,7 +381,32 @@ public abstract class EndpointEnumerationProcess<T extends EndpointEnumerationPr
                 .thenCompose(this::enumeratePageByPage)
                 .thenApply(log("enumeratePageByPage"))
                 .thenCompose(this::disassociateLocalResourceStates)
-                .thenApply(log("disassociateLocalResourceStates"));
+                .thenApply(log("disassociateLocalResourceStates"))
+                .thenApply(this::publishWriteStats);
+    }
+
+    /**
+     * Publish the number of sent and skipped local state writes of the completed enumeration cycle,
+     * together with the latencies of the {@link #operationPipeline}, as stats of the enumerating
+     * service.
+     */
+    protected T publishWriteStats(T context) {
+        long sent = context.localStateWritesSent.get();
+        long skipped = context.localStateWritesSkipped.get();
+
+        context.service.setStat(STAT_NAME_LOCAL_STATE_WRITES_SENT, sent);
+        context.service.setStat(STAT_NAME_LOCAL_STATE_WRITES_SKIPPED, skipped);
+
+        context.service.logFine(() -> String.format(
+                "%s: %d local %s writes sent, %d skipped as unchanged",
+                this.getClass().getSimpleName(), sent,
+                context.localStateClass.getSimpleName(), skipped));
+        context.operationPipeline.publishLatencyStats(context.service);
+        context.service.logFine(() -> String.format("%s: operation latencies %s",
+                this.getClass().getSimpleName(),
+                context.operationPipeline.getLatencyHistograms()));
+
+        return context;
     }
 
     /**
@@ -545,9 +663,11 @@ public abstract class EndpointEnumerationProcess<T extends EndpointEnumerationPr
             return DeferredResult.completed(context);
         }
 
-        List<DeferredResult<Operation>> drs = context.remoteResources.entrySet().stream()
-
-                .map(remoteResourceEntry -> {
+        // Bound the POST/PATCH (and tag) operations in flight instead of firing the whole page
+        DeferredResult<List<Operation>> drs = context.operationPipeline.submitAll(
+                STAGE_CREATE_UPDATE,
+                context.remoteResources.entrySet(),
+                remoteResourceEntry -> {
 
                     String remoteResourceId = remoteResourceEntry.getKey();
                     REMOTE remoteResource = remoteResourceEntry.getValue();
@@ -570,11 +690,9 @@ public abstract class EndpointEnumerationProcess<T extends EndpointEnumerationPr
 
                             // Then actually update/create the state
                             .thenCompose(this::createUpdateLocalResourceState);
-                })
-
-                .collect(Collectors.toList());
+                });
 
-        return DeferredResult.allOf(drs).thenApply(ops -> {
+        return drs.thenApply(ops -> {
 
             this.service.logFine(() -> String.format(msg,
                     context.localStateClass.getSimpleName(),
@@ -603,19 +721,13 @@ public abstract class EndpointEnumerationProcess<T extends EndpointEnumerationPr
         if (currentState == null) {
             // Create case
 
-            if (localState.regionId == null) {
-                // By default populate REGION_ID, if not already set by descendant
-                localState.regionId = getEndpointRegion();
-            }
+            applyCreateDefaults(localState);
 
             if (isApplyInfraFields()) {
-                // By default populate TENANT_LINKS
-                localState.tenantLinks = this.endpointState.tenantLinks;
                 // By default populate ENDPOINT_LINK
                 setEndpointLink(localState, this.endpointState.documentSelfLink);
                 updateEndpointLinks(localState, this.endpointState.documentSelfLink);
             }
-            localState.computeHostLink = this.computeHostLink;
 
             localStateOp = Operation.createPost(createInventoryUri(this.service.getHost(),
                     this.localStateServiceFactoryLink));
@@ -631,6 +743,26 @@ public abstract class EndpointEnumerationProcess<T extends EndpointEnumerationPr
                     currentState.documentSelfLink));
         }
 
+        if (isDetectChanges()) {
+            // Both cases are fingerprinted with the defaults populated on create, otherwise the
+            // first update after a create never matches the fingerprint of the create
+            String fingerprint = computeFingerprint(currentState == null
+                    ? localStateHolder : withCreateDefaults(localStateHolder));
+
+            if (currentState != null && isUnchanged(currentState, fingerprint)) {
+                // Nothing to PATCH. The state not being touched is fine for the deletion stage
+                // since it relies on enumExternalResourcesIds to tell which states are stale.
+                this.localStateWritesSkipped.incrementAndGet();
+                return DeferredResult.completed(null);
+            }
+
+            if (localState.customProperties == null) {
+                localState.customProperties = new HashMap<>();
+            }
+            localState.customProperties.put(FINGERPRINT_PROP_NAME, fingerprint);
+        }
+        this.localStateWritesSent.incrementAndGet();
+
         DeferredResult<Set<String>> tagLinksDR = TagsUtil.createOrUpdateTagStates(
                 this.service,
                 localState,
@@ -665,11 +797,118 @@ public abstract class EndpointEnumerationProcess<T extends EndpointEnumerationPr
                 });
     }
 
+    /**
+     * Populates the fields of a local state about to be created which are not set by descendants:
+     * {@code regionId}, {@code tenantLinks} and {@code computeHostLink}.
+     */
+    private void applyCreateDefaults(ResourceState localState) {
+        if (localState.regionId == null) {
+            // By default populate REGION_ID, if not already set by descendant
+            localState.regionId = getEndpointRegion();
+        }
+        if (isApplyInfraFields()) {
+            // By default populate TENANT_LINKS
+            localState.tenantLinks = this.endpointState.tenantLinks;
+        }
+        localState.computeHostLink = this.computeHostLink;
+    }
+
+    /**
+     * Returns a copy of the holder of a local state about to be updated, with the fields
+     * populated on create, see {@link #applyCreateDefaults(ResourceState)}. The state itself is
+     * left as is, not to PATCH these fields.
+     */
+    private LocalStateHolder withCreateDefaults(LocalStateHolder localStateHolder) {
+        LocalStateHolder copy = new LocalStateHolder();
+        copy.localState = Utils.clone(localStateHolder.localState);
+        copy.remoteTags = localStateHolder.remoteTags;
+        copy.internalTagLinks = localStateHolder.internalTagLinks;
+        applyCreateDefaults(copy.localState);
+        return copy;
+    }
+
+    /**
+     * Checks whether the existing local state was last written by the enumeration with the given
+     * fingerprint and is still associated with the end-point.
+     */
+    private boolean isUnchanged(LOCAL_STATE currentState, String fingerprint) {
+        if (currentState.customProperties == null
+                || !fingerprint.equals(currentState.customProperties.get(FINGERPRINT_PROP_NAME))) {
+            return false;
+        }
+        // A state disassociated in a previous cycle should be re-associated by the PATCH
+        return !isApplyInfraFields() || (currentState.endpointLinks != null
+                && currentState.endpointLinks.contains(this.endpointState.documentSelfLink));
+    }
+
+    /**
+     * Computes the fingerprint of the local state about to be created or updated, together with
+     * its remote and internal tags. Two holders describing the same state produce the same
+     * fingerprint regardless of the order of map entries, while {@code document*} fields and the
+     * stored fingerprint itself are ignored.
+     * <p>
+     * Descendants might override to exclude properties that change on every enumeration cycle
+     * without representing an actual change of the remote resource.
+     */
+    protected String computeFingerprint(LocalStateHolder localStateHolder) {
+        return computeFingerprint(localStateHolder.localState, localStateHolder.remoteTags,
+                localStateHolder.internalTagLinks);
+    }
+
+    static String computeFingerprint(ResourceState localState, Map<String, String> remoteTags,
+            Set<String> internalTagLinks) {
+
+        JsonObject json = new JsonParser().parse(Utils.toJson(localState)).getAsJsonObject();
+
+        new ArrayList<>(json.entrySet()).forEach(entry -> {
+            if (entry.getKey().startsWith(DOCUMENT_FIELD_NAME_PREFIX)) {
+                json.remove(entry.getKey());
+            }
+        });
+        JsonElement customProperties = json.get(ResourceState.FIELD_NAME_CUSTOM_PROPERTIES);
+        if (customProperties != null && customProperties.isJsonObject()) {
+            customProperties.getAsJsonObject().remove(FINGERPRINT_PROP_NAME);
+        }
+
+        StringBuilder content = new StringBuilder();
+        appendCanonicalJson(json, content);
+        content.append(remoteTags == null ? "" : new TreeMap<>(remoteTags));
+        content.append(internalTagLinks == null ? "" : new TreeSet<>(internalTagLinks));
+
+        return Utils.computeHash(content.toString());
+    }
+
+    private static void appendCanonicalJson(JsonElement json, StringBuilder content) {
+        if (json.isJsonObject()) {
+            Map<String, JsonElement> sortedFields = new TreeMap<>();
+            json.getAsJsonObject().entrySet()
+                    .forEach(entry -> sortedFields.put(entry.getKey(), entry.getValue()));
+
+            content.append('{');
+            sortedFields.forEach((name, value) -> {
+                content.append('"').append(name).append("\":");
+                appendCanonicalJson(value, content);
+                content.append(',');
+            });
+            content.append('}');
+        } else if (json.isJsonArray()) {
+            content.append('[');
+            json.getAsJsonArray().forEach(value -> {
+                appendCanonicalJson(value, content);
+                content.append(',');
+            });
+            content.append(']');
+        } else {
+            content.append(json.toString());
+        }
+    }
+
     /**
      * Disassociate stale local resource states. The logic works by recording a timestamp when
      * enumeration starts. This timestamp is used to lookup resources which have not been touched as
-     * part of current enumeration cycle. Resources not associated with any endpointLink will be
-     * removed by the groomer task.
+     * part of current enumeration cycle. Since unchanged resources are not touched either (see
+     * {@link #isDetectChanges()}), the stale ones are finally picked by {@link #shouldDelete}.
+     * Resources not associated with any endpointLink will be removed by the groomer task.
      * <p>
      * Here is the list of criteria used to locate the stale local resources states:
      * <ul>
@@ -751,8 +990,9 @@ public abstract class EndpointEnumerationProcess<T extends EndpointEnumerationPr
                     // just ignored.
                     CompletionHandler disassociateOpCompletion = disassociateOp.getCompletion();
 
-                    DeferredResult<Operation> disassociateDR = context.service
-                            .sendWithDeferredResult(disassociateOp)
+                    DeferredResult<Operation> disassociateDR = context.operationPipeline
+                            .submit(STAGE_DISASSOCIATE,
+                                    () -> context.service.sendWithDeferredResult(disassociateOp))
                             // First complete ORIGINAL disassociate callback
                             .whenComplete(disassociateOpCompletion::handle)
                             // Then do the logging
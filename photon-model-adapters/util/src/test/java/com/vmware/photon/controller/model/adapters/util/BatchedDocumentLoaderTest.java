@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+
+import org.junit.Test;
+
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceHost.ServiceNotFoundException;
+
+/**
+ * Unit test for {@link BatchedDocumentLoader}
+ */
+public class BatchedDocumentLoaderTest {
+
+    /**
+     * Loader whose queries return the documents of the links starting with "/existing".
+     */
+    private static class TestLoader extends BatchedDocumentLoader<ServiceDocument> {
+        final List<List<String>> queries = new ArrayList<>();
+        final List<Runnable> flushes = new ArrayList<>();
+
+        TestLoader(int batchSize) {
+            super(ServiceDocument.class, batchSize, 0);
+        }
+
+        @Override
+        protected void scheduleFlush(Service sender, Runnable flush) {
+            this.flushes.add(flush);
+        }
+
+        @Override
+        protected DeferredResult<Map<String, ServiceDocument>> query(Service sender,
+                List<String> documentLinks) {
+            this.queries.add(documentLinks);
+            Map<String, ServiceDocument> documents = new HashMap<>();
+            for (String link : documentLinks) {
+                if (link.startsWith("/existing")) {
+                    ServiceDocument document = new ServiceDocument();
+                    document.documentSelfLink = link;
+                    documents.put(link, document);
+                }
+            }
+            return DeferredResult.completed(documents);
+        }
+    }
+
+    private static ServiceDocument join(DeferredResult<ServiceDocument> load) {
+        return load.toCompletionStage().toCompletableFuture().join();
+    }
+
+    @Test
+    public void testFullBatchIsQueriedOnce() {
+        TestLoader loader = new TestLoader(3);
+
+        DeferredResult<ServiceDocument> first = loader.load(null, "/existing/1");
+        DeferredResult<ServiceDocument> second = loader.load(null, "/existing/2");
+        DeferredResult<ServiceDocument> again = loader.load(null, "/existing/1");
+        assertTrue(loader.queries.isEmpty());
+        DeferredResult<ServiceDocument> third = loader.load(null, "/existing/3");
+
+        assertEquals(1, loader.queries.size());
+        assertEquals(3, loader.queries.get(0).size());
+        assertEquals("/existing/1", join(first).documentSelfLink);
+        assertEquals("/existing/2", join(second).documentSelfLink);
+        assertEquals("/existing/3", join(third).documentSelfLink);
+        // loads of the same link get their own copy
+        assertNotSame(join(first), join(again));
+        assertEquals("/existing/1", join(again).documentSelfLink);
+
+        // the flush of a batch which filled up does nothing
+        assertEquals(1, loader.flushes.size());
+        loader.flushes.get(0).run();
+        assertEquals(1, loader.queries.size());
+    }
+
+    @Test
+    public void testPartialBatchIsQueriedOnFlush() {
+        TestLoader loader = new TestLoader(100);
+
+        DeferredResult<ServiceDocument> load = loader.load(null, "/existing/1");
+        assertTrue(loader.queries.isEmpty());
+        assertEquals(1, loader.flushes.size());
+
+        loader.flushes.get(0).run();
+        assertEquals(1, loader.queries.size());
+        assertEquals("/existing/1", join(load).documentSelfLink);
+
+        // the next load starts a new batch
+        loader.load(null, "/existing/2");
+        assertEquals(2, loader.flushes.size());
+    }
+
+    @Test
+    public void testMissingDocumentFailsItsLoad() {
+        TestLoader loader = new TestLoader(2);
+
+        DeferredResult<ServiceDocument> existing = loader.load(null, "/existing/1");
+        DeferredResult<ServiceDocument> missing = loader.load(null, "/missing/1");
+
+        assertEquals("/existing/1", join(existing).documentSelfLink);
+        try {
+            join(missing);
+            fail("the load of a missing document should fail");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof ServiceNotFoundException);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.util;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the throughput of client lookups in the synchronized {@link LRUCache} previously used
+ * by the AWS client manager with {@link BoundedConcurrentCache}, with all lookups hitting the
+ * cache as they mostly do in practice. {@link #main} runs with 1, 8 and 32 threads:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.vmware.photon.controller.model.adapters.util.BoundedConcurrentCacheBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoundedConcurrentCacheBenchmark {
+
+    private static final int[] THREADS = { 1, 8, 32 };
+
+    @Param({ "200" })
+    public int keys;
+
+    private String[] cacheKeys;
+    private Map<String, Object> lruCache;
+    private BoundedConcurrentCache<String, Object> boundedCache;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.cacheKeys = new String[this.keys];
+        this.lruCache = Collections.synchronizedMap(new LRUCache<>(this.keys, this.keys));
+        this.boundedCache = new BoundedConcurrentCache<String, Object>(this.keys)
+                .setExpireAfterAccess(1, TimeUnit.HOURS);
+        for (int i = 0; i < this.keys; i++) {
+            this.cacheKeys[i] = "accessKey-" + i + "-us-east-1";
+            this.lruCache.put(this.cacheKeys[i], new Object());
+            this.boundedCache.put(this.cacheKeys[i], new Object());
+        }
+    }
+
+    private String nextKey() {
+        return this.cacheKeys[ThreadLocalRandom.current().nextInt(this.keys)];
+    }
+
+    @Benchmark
+    public Object synchronizedLruCache() {
+        return this.lruCache.computeIfAbsent(nextKey(), key -> new Object());
+    }
+
+    @Benchmark
+    public Object boundedConcurrentCache() {
+        return this.boundedCache.computeIfAbsent(nextKey(), key -> new Object());
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int threads : THREADS) {
+            new Runner(new OptionsBuilder()
+                    .include(BoundedConcurrentCacheBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build()).run();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link BoundedConcurrentCache}
+ */
+public class BoundedConcurrentCacheTest {
+    public static final int MAXIMUM_SIZE = 5;
+    public static final String TEST_ENTRY = "test-entry";
+
+    @Test
+    public void testSizeIsBoundedAndEldestIsEvicted() {
+        BoundedConcurrentCache<Integer, String> cache = new BoundedConcurrentCache<>(MAXIMUM_SIZE);
+        for (int i = 0; i < MAXIMUM_SIZE + 2; i++) {
+            cache.put(i, TEST_ENTRY + i);
+        }
+        assertEquals(MAXIMUM_SIZE, cache.size());
+        assertNull(cache.get(0));
+        assertNull(cache.get(1));
+        assertEquals(TEST_ENTRY + 2, cache.get(2));
+    }
+
+    @Test
+    public void testEntriesExpireAfterWrite() throws InterruptedException {
+        BoundedConcurrentCache<Integer, String> cache = new BoundedConcurrentCache<Integer, String>(
+                MAXIMUM_SIZE).setExpireAfterWrite(50, TimeUnit.MILLISECONDS);
+        cache.put(0, TEST_ENTRY);
+        assertEquals(TEST_ENTRY, cache.get(0));
+
+        Thread.sleep(100);
+        assertNull(cache.get(0));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testValuesExcludeExpiredEntries() throws InterruptedException {
+        BoundedConcurrentCache<Integer, String> cache = new BoundedConcurrentCache<Integer, String>(
+                MAXIMUM_SIZE).setExpireAfterAccess(50, TimeUnit.MILLISECONDS);
+        cache.put(0, TEST_ENTRY);
+        assertEquals(1, cache.values().size());
+
+        Thread.sleep(100);
+        assertTrue(cache.values().isEmpty());
+    }
+
+    @Test
+    public void testRemove() {
+        BoundedConcurrentCache<Integer, String> cache = new BoundedConcurrentCache<>(MAXIMUM_SIZE);
+        cache.put(0, TEST_ENTRY);
+
+        assertEquals(TEST_ENTRY, cache.remove(0));
+        assertNull(cache.remove(0));
+    }
+
+    @Test
+    public void testRemoveOnlyGivenValue() {
+        BoundedConcurrentCache<Integer, String> cache = new BoundedConcurrentCache<>(MAXIMUM_SIZE);
+        String replaced = new String(TEST_ENTRY);
+        cache.put(0, replaced);
+        cache.put(0, TEST_ENTRY);
+
+        // the value cached in the meantime is kept
+        assertFalse(cache.remove(0, replaced));
+        assertEquals(TEST_ENTRY, cache.get(0));
+
+        assertTrue(cache.remove(0, TEST_ENTRY));
+        assertNull(cache.get(0));
+    }
+
+    @Test
+    public void testComputeIfAbsentCreatesValueOnce() {
+        AtomicInteger creations = new AtomicInteger();
+        BoundedConcurrentCache<Integer, Object> cache = new BoundedConcurrentCache<>(
+                MAXIMUM_SIZE);
+
+        Object value = cache.computeIfAbsent(0, key -> {
+            creations.incrementAndGet();
+            return new Object();
+        });
+        assertSame(value, cache.computeIfAbsent(0, key -> {
+            creations.incrementAndGet();
+            return new Object();
+        }));
+        assertEquals(1, creations.get());
+
+        // Null values are not cached
+        assertNull(cache.computeIfAbsent(1, key -> null));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testClearClosesAllValues() {
+        List<String> closed = new CopyOnWriteArrayList<>();
+        BoundedConcurrentCache<Integer, String> cache = new BoundedConcurrentCache<>(MAXIMUM_SIZE);
+        for (int i = 0; i < MAXIMUM_SIZE; i++) {
+            cache.put(i, TEST_ENTRY + i);
+        }
+
+        cache.clear(closed::add);
+        assertEquals(0, cache.size());
+        assertEquals(MAXIMUM_SIZE, closed.size());
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.vmware.xenon.common.DeferredResult;
+
+/**
+ * Unit test for {@link OperationPipeline}
+ */
+public class OperationPipelineTest {
+
+    private static final String STAGE = "test";
+
+    @Test
+    public void testInFlightOperationsAreBounded() throws InterruptedException {
+        OperationPipeline pipeline = new OperationPipeline(3);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        List<DeferredResult<Integer>> started = new ArrayList<>();
+
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            items.add(i);
+        }
+        AtomicReference<List<Integer>> results = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        pipeline.submitAll(STAGE, items, item -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            DeferredResult<Integer> result = new DeferredResult<>();
+            synchronized (started) {
+                started.add(result);
+            }
+            return result.thenApply(value -> item);
+        }).whenComplete((list, e) -> {
+            results.set(list);
+            done.countDown();
+        });
+
+        // Only the first window is started until operations complete
+        assertEquals(3, started.size());
+        assertEquals(7, pipeline.getQueued());
+
+        for (int i = 0; i < items.size(); i++) {
+            DeferredResult<Integer> next;
+            synchronized (started) {
+                next = started.get(i);
+            }
+            inFlight.decrementAndGet();
+            next.complete(i);
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(items, results.get());
+        assertEquals(3, maxInFlight.get());
+        assertEquals(0, pipeline.getInFlight());
+        assertNotNull(pipeline.getLatencyHistogram(STAGE));
+        assertEquals(10, pipeline.getLatencyHistogram(STAGE).getCount());
+    }
+
+    @Test
+    public void testFailureReleasesSlot() {
+        OperationPipeline pipeline = new OperationPipeline(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        pipeline.submit(STAGE, () -> {
+            throw new IllegalStateException("boom");
+        }).whenComplete((ignore, e) -> failure.set(e));
+        Integer result = pipeline.submit(STAGE, () -> DeferredResult.completed(42))
+                .toCompletionStage().toCompletableFuture().join();
+
+        assertNotNull(failure.get());
+        assertEquals(Integer.valueOf(42), result);
+        assertEquals(0, pipeline.getInFlight());
+    }
+
+    @Test
+    public void testLatencyHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(50, histogram.getMeanMicros());
+        assertEquals(63, histogram.getPercentileMicros(50));
+        assertEquals(100, histogram.getPercentileMicros(99));
+        assertEquals(100, histogram.getMaxMicros());
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.ServiceDocument;
+
+/**
+ * Unit test for {@link ReferenceDocumentCache}
+ */
+public class ReferenceDocumentCacheTest {
+
+    private static final URI ENDPOINT_URI = URI.create("http://localhost/resources/endpoints/e1");
+
+    /**
+     * Cache whose reads are completed by the test.
+     */
+    private static class TestCache extends ReferenceDocumentCache {
+        final List<DeferredResult<ServiceDocument>> reads = new ArrayList<>();
+
+        TestCache(long maxAge, TimeUnit unit) {
+            super(100, maxAge, unit);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected <T extends ServiceDocument> DeferredResult<T> fetch(Service sender, URI uri,
+                Class<T> type) {
+            DeferredResult<ServiceDocument> read = new DeferredResult<>();
+            this.reads.add(read);
+            return (DeferredResult<T>) read;
+        }
+
+        void completeRead(int index, long documentVersion) {
+            ServiceDocument document = new ServiceDocument();
+            document.documentSelfLink = ENDPOINT_URI.getPath();
+            document.documentVersion = documentVersion;
+            this.reads.get(index).complete(document);
+        }
+    }
+
+    private static ServiceDocument get(ReferenceDocumentCache cache) {
+        return cache.get(null, ENDPOINT_URI, ServiceDocument.class)
+                .toCompletionStage().toCompletableFuture().join();
+    }
+
+    @Test
+    public void testCachedDocumentIsServedUntilMaxAge() {
+        TestCache cache = new TestCache(1, TimeUnit.HOURS);
+
+        DeferredResult<ServiceDocument> first = cache.get(null, ENDPOINT_URI,
+                ServiceDocument.class);
+        cache.completeRead(0, 1);
+        ServiceDocument firstDocument = first.toCompletionStage().toCompletableFuture().join();
+        ServiceDocument secondDocument = get(cache);
+
+        assertEquals(1, cache.reads.size());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, secondDocument.documentVersion);
+        // each lookup gets its own copy
+        assertNotSame(firstDocument, secondDocument);
+    }
+
+    @Test
+    public void testConcurrentLookupsShareRead() {
+        TestCache cache = new TestCache(1, TimeUnit.HOURS);
+
+        List<DeferredResult<ServiceDocument>> lookups = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            lookups.add(cache.get(null, ENDPOINT_URI, ServiceDocument.class));
+        }
+        assertEquals(1, cache.reads.size());
+
+        cache.completeRead(0, 3);
+        for (DeferredResult<ServiceDocument> lookup : lookups) {
+            assertEquals(3, lookup.toCompletionStage().toCompletableFuture().join()
+                    .documentVersion);
+        }
+        assertEquals(1, cache.getMissCount());
+        assertEquals(9, cache.getHitCount());
+    }
+
+    @Test
+    public void testExpiredDocumentIsRevalidated() {
+        TestCache cache = new TestCache(0, TimeUnit.MILLISECONDS);
+
+        DeferredResult<ServiceDocument> lookup = cache.get(null, ENDPOINT_URI,
+                ServiceDocument.class);
+        cache.completeRead(0, 1);
+        lookup.toCompletionStage().toCompletableFuture().join();
+
+        // Same version
+        lookup = cache.get(null, ENDPOINT_URI, ServiceDocument.class);
+        cache.completeRead(1, 1);
+        lookup.toCompletionStage().toCompletableFuture().join();
+        assertEquals(1, cache.getRevalidationCount());
+        assertEquals(0, cache.getStaleEntryCount());
+
+        // Updated in the meantime
+        lookup = cache.get(null, ENDPOINT_URI, ServiceDocument.class);
+        cache.completeRead(2, 2);
+        assertEquals(2, lookup.toCompletionStage().toCompletableFuture().join()
+                .documentVersion);
+        assertEquals(1, cache.getRevalidationCount());
+        assertEquals(1, cache.getStaleEntryCount());
+        assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void testFailureIsNotCached() {
+        TestCache cache = new TestCache(1, TimeUnit.HOURS);
+
+        DeferredResult<ServiceDocument> lookup = cache.get(null, ENDPOINT_URI,
+                ServiceDocument.class);
+        cache.reads.get(0).fail(new IllegalStateException("not found"));
+        try {
+            lookup.toCompletionStage().toCompletableFuture().join();
+            fail("the lookup should have failed");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        lookup = cache.get(null, ENDPOINT_URI, ServiceDocument.class);
+        cache.completeRead(1, 1);
+        assertEquals(1, lookup.toCompletionStage().toCompletableFuture().join()
+                .documentVersion);
+        assertEquals(2, cache.reads.size());
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.util.enums;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.PhotonModelServices;
+import com.vmware.photon.controller.model.adapterapi.EndpointConfigRequest;
+import com.vmware.photon.controller.model.constants.PhotonModelConstants.EndpointType;
+import com.vmware.photon.controller.model.resources.DiskService;
+import com.vmware.photon.controller.model.resources.DiskService.DiskState;
+import com.vmware.photon.controller.model.resources.EndpointService.EndpointState;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.common.test.VerificationHost;
+import com.vmware.xenon.services.common.QueryTask.Query;
+
+public class EndpointEnumerationProcessFingerprintTest {
+
+    private static final String ENDPOINT_LINK = "/resources/endpoints/endpoint";
+    private static final String COMPUTE_HOST_LINK = "/resources/compute/host";
+
+    private static VerificationHost host;
+    private static StatelessService service;
+
+    /**
+     * Process which creates or updates the disks given by the test, and manages the disks of the
+     * given name.
+     */
+    private static class TestEnumerationProcess extends
+            EndpointEnumerationProcess<TestEnumerationProcess, DiskState, String> {
+
+        private final String diskName;
+
+        TestEnumerationProcess(String diskName) {
+            super(service, UriUtils.buildUri(host, ENDPOINT_LINK), COMPUTE_HOST_LINK,
+                    DiskState.class, DiskService.FACTORY_LINK);
+            this.diskName = diskName;
+
+            this.endpointState = new EndpointState();
+            this.endpointState.documentSelfLink = ENDPOINT_LINK;
+            this.endpointState.endpointType = EndpointType.aws.name();
+            this.endpointState.endpointProperties = Collections.singletonMap(
+                    EndpointConfigRequest.REGION_KEY, "region");
+            this.endpointState.tenantLinks = Collections.singletonList("/tenants/tenant");
+        }
+
+        @Override
+        protected DeferredResult<RemoteResourcesPage> getExternalResources(
+                String nextPageLink) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected DeferredResult<LocalStateHolder> buildLocalResourceState(String remoteResource,
+                DiskState existingLocalResourceState) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void customizeLocalStatesQuery(Query.Builder qBuilder) {
+            qBuilder.addFieldClause(DiskState.FIELD_NAME_NAME, this.diskName);
+        }
+
+        /**
+         * Creates or updates the local state of the given disk, as built from the remote one.
+         */
+        Operation createUpdate(DiskState disk) {
+            LocalStateHolder localStateHolder = new LocalStateHolder();
+            localStateHolder.localState = disk;
+            return join(createUpdateLocalResourceState(localStateHolder));
+        }
+    }
+
+    @BeforeClass
+    public static void setUpHost() throws Throwable {
+        host = VerificationHost.create(0);
+        host.start();
+        PhotonModelServices.startServices(host);
+        host.waitForServiceAvailable(PhotonModelServices.LINKS);
+
+        service = new StatelessService();
+        host.startServiceAndWait(service, "/test/enumeration", null);
+    }
+
+    @AfterClass
+    public static void tearDownHost() {
+        if (host != null) {
+            host.tearDown();
+        }
+    }
+
+    @Test
+    public void testUnchangedStateIsNotPatched() {
+        TestEnumerationProcess process = new TestEnumerationProcess("patched");
+        DiskState disk = newDiskState();
+        disk.id = "disk-unchanged";
+        disk.name = "patched";
+
+        DiskState created = process.createUpdate(Utils.clone(disk)).getBody(DiskState.class);
+        assertEquals(COMPUTE_HOST_LINK, created.computeHostLink);
+        assertEquals("region", created.regionId);
+        assertNotNull(created.customProperties.get(
+                EndpointEnumerationProcess.FINGERPRINT_PROP_NAME));
+
+        // the state built on the next cycle misses the fields populated on create
+        process.localResourceStates.put(created.id, created);
+        assertNull(process.createUpdate(Utils.clone(disk)));
+        assertEquals(1, process.localStateWritesSent.get());
+        assertEquals(1, process.localStateWritesSkipped.get());
+        assertEquals(created.documentVersion, get(created.documentSelfLink).documentVersion);
+
+        // a change is PATCHed
+        DiskState resizedDisk = Utils.clone(disk);
+        resizedDisk.capacityMBytes = 2048;
+        assertNotNull(process.createUpdate(resizedDisk));
+        assertEquals(2, process.localStateWritesSent.get());
+        assertEquals(2048, get(created.documentSelfLink).capacityMBytes);
+    }
+
+    @Test
+    public void testUnchangedStateIsNotDisassociated() {
+        TestEnumerationProcess process = new TestEnumerationProcess("disassociated");
+        DiskState unchangedDisk = newDiskState();
+        unchangedDisk.id = "disk-enumerated";
+        unchangedDisk.name = "disassociated";
+        DiskState unchanged = process.createUpdate(Utils.clone(unchangedDisk))
+                .getBody(DiskState.class);
+        DiskState staleDisk = newDiskState();
+        staleDisk.id = "disk-stale";
+        staleDisk.name = "disassociated";
+        DiskState stale = process.createUpdate(staleDisk).getBody(DiskState.class);
+
+        // next cycle: only the first disk is enumerated, and it has not changed
+        TestEnumerationProcess nextProcess = new TestEnumerationProcess("disassociated");
+        nextProcess.enumStartTimeInMicros = Utils.getNowMicrosUtc();
+        nextProcess.enumExternalResourcesIds.add(unchanged.id);
+        nextProcess.localResourceStates.put(unchanged.id, unchanged);
+        assertNull(nextProcess.createUpdate(Utils.clone(unchangedDisk)));
+
+        join(nextProcess.disassociateLocalResourceStates(nextProcess));
+
+        // the unchanged state is older than the cycle, but still associated with the endpoint
+        DiskState current = get(unchanged.documentSelfLink);
+        assertEquals(unchanged.documentVersion, current.documentVersion);
+        assertTrue(current.endpointLinks.contains(ENDPOINT_LINK));
+        assertFalse(exists(stale.documentSelfLink));
+    }
+
+    @Test
+    public void testFingerprintIgnoresEntryOrderAndVolatileFields() {
+        DiskState disk = newDiskState();
+        disk.customProperties = new LinkedHashMap<>();
+        disk.customProperties.put("a", "1");
+        disk.customProperties.put("b", "2");
+
+        DiskState sameDisk = newDiskState();
+        sameDisk.customProperties = new LinkedHashMap<>();
+        sameDisk.customProperties.put("b", "2");
+        sameDisk.customProperties.put("a", "1");
+        sameDisk.customProperties.put(EndpointEnumerationProcess.FINGERPRINT_PROP_NAME, "old");
+        sameDisk.documentSelfLink = "/resources/disks/disk";
+        sameDisk.documentVersion = 7;
+        sameDisk.documentUpdateTimeMicros = 123;
+
+        Map<String, String> tags = new HashMap<>();
+        tags.put("env", "test");
+        tags.put("owner", "me");
+        Map<String, String> sameTags = new LinkedHashMap<>();
+        sameTags.put("owner", "me");
+        sameTags.put("env", "test");
+
+        assertEquals(
+                EndpointEnumerationProcess.computeFingerprint(disk, tags, Collections.emptySet()),
+                EndpointEnumerationProcess.computeFingerprint(sameDisk, sameTags,
+                        Collections.emptySet()));
+    }
+
+    @Test
+    public void testFingerprintDetectsChanges() {
+        DiskState disk = newDiskState();
+        String fingerprint = EndpointEnumerationProcess.computeFingerprint(disk,
+                Collections.emptyMap(), Collections.emptySet());
+
+        DiskState resizedDisk = newDiskState();
+        resizedDisk.capacityMBytes = 2048;
+        assertNotEquals(fingerprint, EndpointEnumerationProcess.computeFingerprint(resizedDisk,
+                Collections.emptyMap(), Collections.emptySet()));
+
+        assertNotEquals(fingerprint, EndpointEnumerationProcess.computeFingerprint(disk,
+                Collections.singletonMap("env", "test"), Collections.emptySet()));
+
+        assertNotEquals(fingerprint, EndpointEnumerationProcess.computeFingerprint(disk,
+                Collections.emptyMap(), Collections.singleton("/resources/tags/internal")));
+    }
+
+    private static <T> T join(DeferredResult<T> result) {
+        return result.toCompletionStage().toCompletableFuture().join();
+    }
+
+    private static DiskState get(String documentSelfLink) {
+        return join(service.sendWithDeferredResult(
+                Operation.createGet(host, documentSelfLink), DiskState.class));
+    }
+
+    private static boolean exists(String documentSelfLink) {
+        try {
+            get(documentSelfLink);
+            return true;
+        } catch (CompletionException e) {
+            return false;
+        }
+    }
+
+    private static DiskState newDiskState() {
+        DiskState disk = new DiskState();
+        disk.id = "disk-1";
+        disk.name = "disk";
+        disk.capacityMBytes = 1024;
+        disk.endpointLink = "/resources/endpoints/endpoint";
+        return disk;
+    }
+}
@@ -35,21 +35,19 @@ import com.vmware.photon.controller.model.resources.DiskService;
 import com.vmware.photon.controller.model.resources.DiskService.DiskStateExpanded;
 import com.vmware.vim25.FileBackedVirtualDiskSpec;
 import com.vmware.vim25.FileFaultFaultMsg;
-import com.vmware.vim25.InvalidCollectorVersionFaultMsg;
 import com.vmware.vim25.InvalidDatastoreFaultMsg;
-import com.vmware.vim25.InvalidPropertyFaultMsg;
 import com.vmware.vim25.ManagedObjectReference;
 import com.vmware.vim25.RuntimeFaultFaultMsg;
-import com.vmware.vim25.TaskInfo;
-import com.vmware.vim25.TaskInfoState;
 import com.vmware.vim25.VirtualDiskAdapterType;
 import com.vmware.vim25.VirtualDiskType;
 import com.vmware.vim25.VirtualMachineDefinedProfileSpec;
+import com.vmware.xenon.common.DeferredResult;
 import com.vmware.xenon.common.Utils;
 
 /**
  * A simple client for vsphere which handles disk related operation. Consist of a valid connection
- * and some context. This class does blocking IO but doesn't talk back to xenon.
+ * and some context. This class does blocking IO but doesn't talk back to xenon; the vCenter tasks
+ * it starts are watched without blocking, and the connection must not be used once they end.
  */
 public class DiskClient extends BaseHelper {
 
@@ -69,8 +67,10 @@ public class DiskClient extends BaseHelper {
 
     /**
      * Create Virtual Disk
+     *
+     * @return completed once the disk is created and its state updated
      */
-    public void createVirtualDisk() throws Exception {
+    public DeferredResult<Void> createVirtualDisk() throws Exception {
         ManagedObjectReference diskManager = this.connection.getServiceContent()
                 .getVirtualDiskManager();
         List<VirtualMachineDefinedProfileSpec> pbmSpec = getPbmProfileSpec(this.diskState);
@@ -87,27 +87,30 @@ public class DiskClient extends BaseHelper {
         ManagedObjectReference createTask = getVimPort().createVirtualDiskTask(diskManager,
                 diskFullPath, this.diskContext.datacenterMoRef,
                 createVirtualDiskSpec(this.diskState, pbmSpec));
-        TaskInfo info = waitTaskEnd(createTask);
 
-        if (info.getState() == TaskInfoState.ERROR) {
-            VimUtils.rethrow(info.getError());
-        }
-
-        // Update the details of the disk
-        CustomProperties.of(this.diskState)
-                .put(DISK_FULL_PATH, diskFullPath)
-                .put(DISK_PARENT_DIRECTORY, parentDir)
-                .put(DISK_DATASTORE_NAME, dsName);
-        this.diskState.status = DiskService.DiskStatus.AVAILABLE;
-        this.diskState.id = diskName;
-        this.diskState.regionId = VimUtils.convertMoRefToString(this.diskContext.datacenterMoRef);
-        AdapterUtils.addToEndpointLinks(this.diskState, this.diskState.endpointLink);
+        return VimUtils.watchTaskEnd(this.connection, createTask).thenAccept(info -> {
+            VimUtils.requireSuccess(info);
+
+            // Update the details of the disk
+            CustomProperties.of(this.diskState)
+                    .put(DISK_FULL_PATH, diskFullPath)
+                    .put(DISK_PARENT_DIRECTORY, parentDir)
+                    .put(DISK_DATASTORE_NAME, dsName);
+            this.diskState.status = DiskService.DiskStatus.AVAILABLE;
+            this.diskState.id = diskName;
+            this.diskState.regionId = VimUtils
+                    .convertMoRefToString(this.diskContext.datacenterMoRef);
+            AdapterUtils.addToEndpointLinks(this.diskState, this.diskState.endpointLink);
+        });
     }
 
     /**
-     * Delete Virtual disk.
+     * Delete Virtual disk. The folder that holds it is deleted separately, with
+     * {@link #deleteParentDirectory()}.
+     *
+     * @return completed once the vmdk file is deleted
      */
-    public void deleteVirtualDisk()
+    public DeferredResult<Void> deleteVirtualDisk()
             throws Exception {
         ManagedObjectReference diskManager = this.connection.getServiceContent()
                 .getVirtualDiskManager();
@@ -124,34 +127,28 @@ public class DiskClient extends BaseHelper {
         // Delete the vmdk file
         ManagedObjectReference deleteTask = getVimPort().deleteVirtualDiskTask(diskManager,
                 diskFullPath, this.diskContext.datacenterMoRef);
-        TaskInfo info = waitTaskEnd(deleteTask);
-
-        if (info.getState() == TaskInfoState.ERROR) {
-            VimUtils.rethrow(info.getError());
-        }
+        return VimUtils.watchTaskEnd(this.connection, deleteTask)
+                .thenAccept(VimUtils::requireSuccess);
+    }
 
-        // Delete the folder that holds the vmdk file
+    /**
+     * Delete the folder that holds the vmdk file, once deleted by {@link #deleteVirtualDisk()}.
+     *
+     * @return completed once the folder is deleted
+     */
+    public DeferredResult<Void> deleteParentDirectory() throws Exception {
         String dirName = CustomProperties.of(this.diskState).getString(DISK_PARENT_DIRECTORY, null);
-        if (dirName != null) {
-            ManagedObjectReference fileManager = this.connection.getServiceContent()
-                    .getFileManager();
-            ManagedObjectReference deleteFile = getVimPort().deleteDatastoreFileTask(fileManager, dirName, this.diskContext
-                    .datacenterMoRef);
-            info = waitTaskEnd(deleteFile);
-            if (info.getState() == TaskInfoState.ERROR) {
-                VimUtils.rethrow(info.getError());
-            }
-        } else {
+        if (dirName == null) {
             Utils.logWarning("Disk parent directory is null, hence couldn't cleanup disk directory in the datastore");
+            return DeferredResult.completed(null);
         }
-    }
 
-    /**
-     * Wait for the server initiated task to complete.
-     */
-    private TaskInfo waitTaskEnd(ManagedObjectReference task)
-            throws InvalidCollectorVersionFaultMsg, InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
-        return VimUtils.waitTaskEnd(this.connection, task);
+        ManagedObjectReference fileManager = this.connection.getServiceContent()
+                .getFileManager();
+        ManagedObjectReference deleteFile = getVimPort().deleteDatastoreFileTask(fileManager,
+                dirName, this.diskContext.datacenterMoRef);
+        return VimUtils.watchTaskEnd(this.connection, deleteFile)
+                .thenAccept(VimUtils::requireSuccess);
     }
 
     /**
@@ -17,6 +17,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Phaser;
 
 import com.vmware.photon.controller.model.adapterapi.ComputeEnumerateResourceRequest;
@@ -50,6 +51,11 @@ public class EnumerationProgress {
 
     private Map<String, List<String>> dataStoresToStoragePolicyMap;
 
+    /**
+     * The ids of the tags attached to objects, by moref, listed in bulk ahead of processing them.
+     */
+    private final Map<String, List<String>> attachedTags = new ConcurrentHashMap<>();
+
     private Phaser vmTracker;
     private Phaser snapshotTracker;
     private String regionId;
@@ -80,6 +86,18 @@ public class EnumerationProgress {
         return this.endpoint;
     }
 
+    public void putAttachedTags(String moref, List<String> tagIds) {
+        this.attachedTags.put(moref, tagIds);
+    }
+
+    /**
+     * Returns the ids of the tags attached to the given object, or {@code null} if they were not
+     * listed ahead.
+     */
+    public List<String> getAttachedTags(ManagedObjectReference ref) {
+        return this.attachedTags.get(VimUtils.convertMoRefToString(ref));
+    }
+
     public ComputeEnumerateResourceRequest getRequest() {
         return this.request;
     }
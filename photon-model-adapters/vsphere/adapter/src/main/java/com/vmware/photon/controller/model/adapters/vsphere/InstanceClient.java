@@ -219,9 +219,12 @@ public class InstanceClient extends BaseHelper {
         this.get = new GetMoRef(this.connection);
     }
 
-    public ComputeState createInstanceFromTemplate(ManagedObjectReference template)
-            throws Exception {
-        ManagedObjectReference vm = cloneVm(template);
+    /**
+     * Customizes the VM cloned by the given task of {@link #startCloneFromTemplate} or
+     * {@link #startCloneFromSnapshot}.
+     */
+    public ComputeState createInstanceFromClone(TaskInfo cloneInfo) throws Exception {
+        ManagedObjectReference vm = getClonedVm(cloneInfo);
 
         if (vm == null) {
             // vm was created by someone else
@@ -239,7 +242,11 @@ public class InstanceClient extends BaseHelper {
         return state;
     }
 
-    public ComputeState createInstanceFromSnapshot() throws Exception {
+    /**
+     * Starts a linked clone of the snapshot of the context, to be completed with
+     * {@link #createInstanceFromClone(TaskInfo)} once the returned task ends.
+     */
+    public ManagedObjectReference startCloneFromSnapshot() throws Exception {
         String message = "";
         if (this.ctx.snapshotMoRef == null) {
             message = String.format("No MoRef found for the specified snapshot %s",
@@ -275,36 +282,8 @@ public class InstanceClient extends BaseHelper {
         ManagedObjectReference folder = getVmFolder();
         String displayName = this.ctx.child.name;
 
-        ManagedObjectReference linkedCloneTask = getVimPort()
+        return getVimPort()
                 .cloneVMTask(this.ctx.referenceComputeMoRef, folder, displayName, cloneSpec);
-
-        TaskInfo info = waitTaskEnd(linkedCloneTask);
-
-        if (info.getState() == TaskInfoState.ERROR) {
-            MethodFault fault = info.getError().getFault();
-            if (fault instanceof FileAlreadyExists) {
-                // a .vmx file already exists, assume someone won the race to create the vm
-                return null;
-            } else {
-                return VimUtils.rethrow(info.getError());
-            }
-        }
-
-        ManagedObjectReference clonedVM = (ManagedObjectReference) info.getResult();
-        if (clonedVM == null) {
-            // vm was created by someone else
-            return null;
-        }
-        // store reference to created vm for further processing
-        this.vm = clonedVM;
-
-        customizeAfterClone();
-
-        ComputeState state = new ComputeState();
-        state.resourcePoolLink = VimUtils
-                .firstNonNull(this.ctx.child.resourcePoolLink, this.ctx.parent.resourcePoolLink);
-
-        return state;
     }
 
     private void customizeAfterClone() throws Exception {
@@ -450,7 +429,12 @@ public class InstanceClient extends BaseHelper {
         return ov;
     }
 
-    private ManagedObjectReference cloneVm(ManagedObjectReference template) throws Exception {
+    /**
+     * Starts cloning the given template, to be completed with
+     * {@link #createInstanceFromClone(TaskInfo)} once the returned task ends.
+     */
+    public ManagedObjectReference startCloneFromTemplate(ManagedObjectReference template)
+            throws Exception {
         ManagedObjectReference folder = getVmFolder();
         List<VirtualMachineDefinedProfileSpec> pbmSpec = getPbmProfileSpec(this.bootDisk);
         ManagedObjectReference datastore = getDataStoreForDisk(this.bootDisk, pbmSpec);
@@ -493,11 +477,10 @@ public class InstanceClient extends BaseHelper {
 
         String displayName = this.ctx.child.name;
 
-        ManagedObjectReference cloneTask = getVimPort()
-                .cloneVMTask(template, folder, displayName, cloneSpec);
-
-        TaskInfo info = waitTaskEnd(cloneTask);
+        return getVimPort().cloneVMTask(template, folder, displayName, cloneSpec);
+    }
 
+    private ManagedObjectReference getClonedVm(TaskInfo info) throws Exception {
         if (info.getState() == TaskInfoState.ERROR) {
             MethodFault fault = info.getError().getFault();
             if (fault instanceof FileAlreadyExists) {
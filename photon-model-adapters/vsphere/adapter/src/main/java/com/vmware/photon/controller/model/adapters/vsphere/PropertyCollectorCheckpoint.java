@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.vsphere;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+import com.vmware.photon.controller.model.adapters.vsphere.EnumerationClient.ObjectUpdateIterator;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.ObjectUpdateKind;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.VimPortType;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * The position of a property collector in its change feed: the collector, the version of its
+ * last update, and a digest of the objects it reported, by moref.
+ * <p>
+ * A collector lives as long as the session which created it, so the collector of a checkpoint
+ * saved by another session is usually gone. When the collector or its version is rejected, a new
+ * collector retrieves the current objects, and only the objects whose digest changed are reported
+ * as updates, instead of all of them.
+ */
+public class PropertyCollectorCheckpoint {
+
+    /**
+     * Digest of an object whose properties are not all known, so it never matches.
+     */
+    static final String UNKNOWN_DIGEST = "";
+
+    /**
+     * The property collector, as returned by {@link VimUtils#convertMoRefToString}.
+     */
+    public String collector;
+
+    /**
+     * The version of the last update of the collector.
+     */
+    public String version;
+
+    /**
+     * The digest of the properties of each object reported by the collector, by moref.
+     */
+    public Map<String, String> objectDigests = new HashMap<>();
+
+    public PropertyCollectorCheckpoint() {
+    }
+
+    /**
+     * Creates the checkpoint of a collector which reported all its objects through the iterator.
+     */
+    public PropertyCollectorCheckpoint(ObjectUpdateIterator iterator) {
+        this.collector = VimUtils.convertMoRefToString(iterator.getPropertyCollector());
+        this.version = iterator.getVersion();
+    }
+
+    /**
+     * Returns the updates of the collector since the checkpoint and moves the checkpoint after
+     * them.
+     */
+    public List<ObjectUpdate> collect(VimPortType vimPort) {
+        ObjectUpdateIterator iterator = new ObjectUpdateIterator(
+                VimUtils.convertStringToMoRef(this.collector), vimPort, this.version);
+        List<ObjectUpdate> updates = collectUpdates(iterator);
+        // update the version soon after iterating
+        this.version = iterator.getVersion();
+        updates.forEach(this::track);
+        return updates;
+    }
+
+    /**
+     * Same as {@link #collect(VimPortType)}, but when the collector or its version is rejected,
+     * replaces the collector with one created by {@code collectorFactory} and returns the changes
+     * between the objects it retrieves and the digests of the checkpoint: objects which are new
+     * as {@link ObjectUpdateKind#ENTER}, objects which changed as {@link ObjectUpdateKind#MODIFY}
+     * with all their properties, and objects which are gone as {@link ObjectUpdateKind#LEAVE}.
+     */
+    public List<ObjectUpdate> resume(VimPortType vimPort,
+            Callable<ManagedObjectReference> collectorFactory) throws Exception {
+        if (this.collector != null && this.version != null && !this.version.isEmpty()) {
+            try {
+                return collect(vimPort);
+            } catch (RuntimeException e) {
+                Utils.log(PropertyCollectorCheckpoint.class, "resume", Level.INFO,
+                        "Cannot resume property collector %s from version %s, resyncing: %s",
+                        this.collector, this.version, e.getMessage());
+            }
+        }
+
+        ManagedObjectReference pc = collectorFactory.call();
+        ObjectUpdateIterator iterator = new ObjectUpdateIterator(pc, vimPort, "");
+        List<ObjectUpdate> current = collectUpdates(iterator);
+        this.collector = VimUtils.convertMoRefToString(pc);
+        this.version = iterator.getVersion();
+        return diff(current);
+    }
+
+    /**
+     * Records an update reported by the collector. A modification reports only the changed
+     * properties, so the digest of the object becomes unknown.
+     */
+    public void track(ObjectUpdate update) {
+        String key = VimUtils.convertMoRefToString(update.getObj());
+        switch (update.getKind()) {
+        case ENTER:
+            this.objectDigests.put(key, digest(update));
+            break;
+        case MODIFY:
+            this.objectDigests.put(key, UNKNOWN_DIGEST);
+            break;
+        case LEAVE:
+            this.objectDigests.remove(key);
+            break;
+        default:
+            break;
+        }
+    }
+
+    private List<ObjectUpdate> diff(List<ObjectUpdate> current) {
+        Map<String, String> digests = new HashMap<>(current.size() * 4 / 3 + 1);
+        List<ObjectUpdate> changes = new ArrayList<>();
+        for (ObjectUpdate update : current) {
+            if (update.getKind() == ObjectUpdateKind.LEAVE) {
+                continue;
+            }
+            String key = VimUtils.convertMoRefToString(update.getObj());
+            String digest = digest(update);
+            digests.put(key, digest);
+
+            String previous = this.objectDigests.get(key);
+            if (previous == null) {
+                update.setKind(ObjectUpdateKind.ENTER);
+                changes.add(update);
+            } else if (!previous.equals(digest)) {
+                update.setKind(ObjectUpdateKind.MODIFY);
+                changes.add(update);
+            }
+        }
+
+        for (String key : this.objectDigests.keySet()) {
+            if (!digests.containsKey(key)) {
+                ObjectUpdate leave = new ObjectUpdate();
+                leave.setObj(VimUtils.convertStringToMoRef(key));
+                leave.setKind(ObjectUpdateKind.LEAVE);
+                changes.add(leave);
+            }
+        }
+
+        this.objectDigests = digests;
+        return changes;
+    }
+
+    /**
+     * Returns a digest of all the properties of an object, which does not depend on their order.
+     */
+    static String digest(ObjectUpdate update) {
+        List<PropertyChange> changes = new ArrayList<>(update.getChangeSet());
+        changes.sort(Comparator.comparing(PropertyChange::getName));
+
+        CRC32 crc = new CRC32();
+        for (PropertyChange change : changes) {
+            crc.update(change.getName().getBytes(StandardCharsets.UTF_8));
+            crc.update('=');
+            if (change.getVal() != null) {
+                crc.update(Utils.toJson(change.getVal()).getBytes(StandardCharsets.UTF_8));
+            }
+            crc.update(';');
+        }
+        return Long.toHexString(crc.getValue());
+    }
+
+    static List<ObjectUpdate> collectUpdates(ObjectUpdateIterator iterator) {
+        List<ObjectUpdate> updates = new ArrayList<>();
+        while (iterator.hasNext()) {
+            UpdateSet page = iterator.next();
+            if (null != page) {
+                for (PropertyFilterUpdate propertyFilterUpdate : page.getFilterSet()) {
+                    updates.addAll(propertyFilterUpdate.getObjectSet());
+                }
+            }
+        }
+        return updates;
+    }
+}
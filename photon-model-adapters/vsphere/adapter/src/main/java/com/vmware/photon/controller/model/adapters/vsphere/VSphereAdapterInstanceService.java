@@ -140,120 +140,164 @@ public class VSphereAdapterInstanceService extends StatelessService {
                     try {
                         InstanceClient client = new InstanceClient(connection, ctx);
 
+                        ManagedObjectReference template = getTemplate(ctx);
+                        boolean fromSnapshot = template == null && ctx.image == null
+                                && ctx.snapshotMoRef != null;
+                        if (template != null || fromSnapshot) {
+                            ManagedObjectReference cloneTask = fromSnapshot
+                                    ? client.startCloneFromSnapshot()
+                                    : client.startCloneFromTemplate(template);
+                            // the clone is watched without holding the connection or this
+                            // thread, the VM is then customized with a connection borrowed anew
+                            VimUtils.watchTaskEnd(connection, cloneTask)
+                                    .whenComplete((info, e) -> {
+                                        if (!ctx.fail(e)) {
+                                            handleClonedInstance(ctx, info);
+                                        }
+                                    });
+                            return;
+                        }
+
                         ComputeState state;
 
-                        if (ctx.templateMoRef != null) {
-                            state = client.createInstanceFromTemplate(ctx.templateMoRef);
-                        } else if (ctx.image != null) {
-                            ManagedObjectReference moRef = CustomProperties.of(ctx.image)
-                                    .getMoRef(CustomProperties.MOREF);
-                            if (moRef != null) {
-                                // the image is backed by a template VM
-                                state = client.createInstanceFromTemplate(moRef);
-                            } else {
-                                // library item
-                                state = client.createInstanceFromLibraryItem(ctx.image);
-                            }
-                        } else if (ctx.snapshotMoRef != null) {
-                            state = client.createInstanceFromSnapshot();
+                        if (ctx.image != null) {
+                            // library item
+                            state = client.createInstanceFromLibraryItem(ctx.image);
                         } else {
                             state = client.createInstance();
                         }
 
-                        if (state == null) {
-                            // someone else won the race to create the vim
-                            // assume they will patch the task if they have provisioned the vm
-                            return;
-                        }
+                        completeCreateInstance(ctx, connection, client, state);
+                    } catch (Exception e) {
+                        ctx.fail(e);
+                    }
+                });
+    }
 
-                        // populate state, MAC address being very important
-                        VmOverlay vmOverlay = client.enrichStateFromVm(state);
-
-                        Operation[] finishTask = new Operation[1];
-
-                        for (NetworkInterfaceStateWithDetails nic : ctx.nics) {
-                            // request guest customization while vm of powered off
-
-                            SubnetState subnet = nic.subnet;
-                            if (subnet != null && nic.description != null
-                                    && nic.description.assignment == IpAssignment.STATIC) {
-                                CustomizationClient cc = new CustomizationClient(connection,
-                                        ctx.child, vmOverlay.getGuestId());
-                                CustomizationSpec template = new CustomizationSpec();
-                                cc.customizeNic(vmOverlay.getPrimaryMac(), ctx.child.hostName,
-                                        nic.address, subnet, template);
-                                cc.customizeDns(subnet.dnsServerAddresses, subnet.dnsSearchDomains,
-                                        template);
-                                ManagedObjectReference task = cc
-                                        .customizeGuest(client.getVm(), template);
-
-                                TaskInfo taskInfo = VimUtils.waitTaskEnd(connection, task);
-                                if (taskInfo.getState() == TaskInfoState.ERROR) {
-                                    VimUtils.rethrow(taskInfo.getError());
-                                }
-                            }
-                        }
+    /**
+     * Returns the template VM to clone, if any: the one of the context or the one backing its
+     * image.
+     */
+    private ManagedObjectReference getTemplate(ProvisionContext ctx) {
+        if (ctx.templateMoRef != null) {
+            return ctx.templateMoRef;
+        }
+        if (ctx.image != null) {
+            // the image may be backed by a template VM, or else by a library item
+            return CustomProperties.of(ctx.image).getMoRef(CustomProperties.MOREF);
+        }
+        return null;
+    }
 
-                        // power on machine before enrichment
-                        if (ctx.child.powerState == PowerState.ON) {
-                            new PowerStateClient(connection).changePowerState(client.getVm(),
-                                    PowerState.ON, null, 0);
-                            state.powerState = PowerState.ON;
-
-                            Operation op = ctx.mgr.createTaskPatch(TaskStage.FINISHED);
-                            Boolean awaitIp = CustomProperties.of(ctx.child)
-                                    .getBoolean(ComputeProperties.CUSTOM_PROP_COMPUTE_AWAIT_IP,
-                                            true);
-                            if (awaitIp) {
-                                Runnable runnable = createCheckForIpTask(ctx.pool, op,
-                                        client.getVm(),
-                                        connection.createUnmanagedCopy(),
-                                        ctx.child.documentSelfLink, ctx);
-
-                                ctx.pool.schedule(runnable,
-                                        IP_CHECK_INTERVAL_SECONDS,
-                                        TimeUnit.SECONDS);
-                            } else {
-                                finishTask[0] = op;
-                            }
-                        } else {
-                            // only finish the task without waiting for IP
-                            finishTask[0] = ctx.mgr.createTaskPatch(TaskStage.FINISHED);
-                        }
+    private void handleClonedInstance(ProvisionContext ctx, TaskInfo cloneInfo) {
+        ctx.pool.submit(ctx.getAdapterManagementReference(), ctx.vSphereCredentials,
+                (connection, ce) -> {
+                    if (ctx.fail(ce)) {
+                        return;
+                    }
 
-                        updateNicsAfterProvisionSuccess(vmOverlay.getNics(), ctx);
-                        updateDiskLinksAfterProvisionSuccess(state, vmOverlay.getDisks(), ctx);
-
-                        state.lifecycleState = LifecycleState.READY;
-                        state.id = vmOverlay.getInstanceUuid();
-
-                        // Find the host link where the computed is provisioned and patch the
-                        // compute state.
-                        queryHostDocumentAndUpdateCompute(ctx, vmOverlay.getHost())
-                                .thenCompose(computeState -> {
-                                    ComputeState hostState = computeState.iterator().next();
-                                    CustomProperties.of(state)
-                                            .put(VC_UUID, CustomProperties.of(hostState).getString(VC_UUID))
-                                            // set the datacenter delf link from host state
-                                            .put(DATACENTER_SELF_LINK, CustomProperties.of(hostState).getString(DATACENTER_SELF_LINK))
-                                            // set the host state self link
-                                            .put(COMPUTE_HOST_LINK_PROP_NAME, hostState.documentSelfLink);
-                                    return createComputeResourcePatch(state, ctx.computeReference);
-                                }).whenComplete((o, e) -> {
-                                    if (e != null) {
-                                        ctx.fail(e);
-                                        return;
-                                    }
-                                    if (finishTask.length > 0) {
-                                        finishTask[0].sendWith(this);
-                                    }
-                                });
+                    try {
+                        InstanceClient client = new InstanceClient(connection, ctx);
+                        completeCreateInstance(ctx, connection, client,
+                                client.createInstanceFromClone(cloneInfo));
                     } catch (Exception e) {
                         ctx.fail(e);
                     }
                 });
     }
 
+    private void completeCreateInstance(ProvisionContext ctx, Connection connection,
+            InstanceClient client, ComputeState state) throws Exception {
+        if (state == null) {
+            // someone else won the race to create the vim
+            // assume they will patch the task if they have provisioned the vm
+            return;
+        }
+
+        // populate state, MAC address being very important
+        VmOverlay vmOverlay = client.enrichStateFromVm(state);
+
+        Operation[] finishTask = new Operation[1];
+
+        for (NetworkInterfaceStateWithDetails nic : ctx.nics) {
+            // request guest customization while vm of powered off
+
+            SubnetState subnet = nic.subnet;
+            if (subnet != null && nic.description != null
+                    && nic.description.assignment == IpAssignment.STATIC) {
+                CustomizationClient cc = new CustomizationClient(connection,
+                        ctx.child, vmOverlay.getGuestId());
+                CustomizationSpec template = new CustomizationSpec();
+                cc.customizeNic(vmOverlay.getPrimaryMac(), ctx.child.hostName,
+                        nic.address, subnet, template);
+                cc.customizeDns(subnet.dnsServerAddresses, subnet.dnsSearchDomains,
+                        template);
+                ManagedObjectReference task = cc
+                        .customizeGuest(client.getVm(), template);
+
+                TaskInfo taskInfo = VimUtils.waitTaskEnd(connection, task);
+                if (taskInfo.getState() == TaskInfoState.ERROR) {
+                    VimUtils.rethrow(taskInfo.getError());
+                }
+            }
+        }
+
+        // power on machine before enrichment
+        if (ctx.child.powerState == PowerState.ON) {
+            new PowerStateClient(connection).changePowerState(client.getVm(),
+                    PowerState.ON, null, 0);
+            state.powerState = PowerState.ON;
+
+            Operation op = ctx.mgr.createTaskPatch(TaskStage.FINISHED);
+            Boolean awaitIp = CustomProperties.of(ctx.child)
+                    .getBoolean(ComputeProperties.CUSTOM_PROP_COMPUTE_AWAIT_IP,
+                            true);
+            if (awaitIp) {
+                Runnable runnable = createCheckForIpTask(ctx.pool, op,
+                        client.getVm(),
+                        connection.createUnmanagedCopy(),
+                        ctx.child.documentSelfLink, ctx);
+
+                ctx.pool.schedule(runnable,
+                        IP_CHECK_INTERVAL_SECONDS,
+                        TimeUnit.SECONDS);
+            } else {
+                finishTask[0] = op;
+            }
+        } else {
+            // only finish the task without waiting for IP
+            finishTask[0] = ctx.mgr.createTaskPatch(TaskStage.FINISHED);
+        }
+
+        updateNicsAfterProvisionSuccess(vmOverlay.getNics(), ctx);
+        updateDiskLinksAfterProvisionSuccess(state, vmOverlay.getDisks(), ctx);
+
+        state.lifecycleState = LifecycleState.READY;
+        state.id = vmOverlay.getInstanceUuid();
+
+        // Find the host link where the computed is provisioned and patch the
+        // compute state.
+        queryHostDocumentAndUpdateCompute(ctx, vmOverlay.getHost())
+                .thenCompose(computeState -> {
+                    ComputeState hostState = computeState.iterator().next();
+                    CustomProperties.of(state)
+                            .put(VC_UUID, CustomProperties.of(hostState).getString(VC_UUID))
+                            // set the datacenter delf link from host state
+                            .put(DATACENTER_SELF_LINK, CustomProperties.of(hostState).getString(DATACENTER_SELF_LINK))
+                            // set the host state self link
+                            .put(COMPUTE_HOST_LINK_PROP_NAME, hostState.documentSelfLink);
+                    return createComputeResourcePatch(state, ctx.computeReference);
+                }).whenComplete((o, e) -> {
+                    if (e != null) {
+                        ctx.fail(e);
+                        return;
+                    }
+                    if (finishTask.length > 0) {
+                        finishTask[0].sendWith(this);
+                    }
+                });
+    }
+
     /**
      * Query with the MangedObjectReference of the compute host where the VM is provisioned to
      * get the self link of host ComputeState and update the VM ComputeState with the link.
@@ -33,7 +33,9 @@ import com.vmware.xenon.common.Utils;
  * vSphere enumeration can be requested with either START or REFRESH enumeration action.
  * <p>
  * When START is specified, this service performs a full enumeration and then starts collecting
- * incremental changes from endpoint by maintaining a session.
+ * incremental changes from endpoint by maintaining a session. The position of the incremental
+ * changes is checkpointed, so a later START resumes from the checkpoint instead of performing a
+ * full enumeration again.
  * To Stop the enumeration, client can issue a request with Enumeration.STOP action.
  * </p>
  * <p>
@@ -114,6 +116,10 @@ public class VSphereAdapterResourceEnumerationService extends StatelessService {
                         // patch the task to finished if the enumeration action is STOP.
                         // The delete service call will take care of stopping any running enumeration.
                         if (request.enumerationAction == EnumerationAction.STOP) {
+                            // drop the checkpoint too, so that the next START enumerates in full
+                            Operation.createDelete(this, VSphereEnumerationCheckpointService
+                                    .checkpointLink(request.endpointLink))
+                                    .sendWith(this);
                             logInfo("Successfully stopped enumeration for endpoint "
                                     + request.endpointLink);
                             mgr.patchTask(TaskState.TaskStage.FINISHED);
@@ -103,7 +103,8 @@ public class VSphereAdapters {
             createAdapter(OvfImporterService.class).build(),
             createAdapter(DatacenterEnumeratorService.class).build(),
             createAdapter(VsphereResourceCleanerService.class).build(),
-            createFactoryAdapter(VSphereIncrementalEnumerationService.class).build()
+            createFactoryAdapter(VSphereIncrementalEnumerationService.class).build(),
+            createFactoryAdapter(VSphereEnumerationCheckpointService.class).build()
 
     };
 
@@ -146,6 +147,7 @@ public class VSphereAdapters {
      * @return list of self links whose swagger generation needs to be excluded.
      */
     public static List<String> swaggerExcludedPrefixes() {
-        return Arrays.asList(new String[] { VSphereIncrementalEnumerationService.FACTORY_LINK });
+        return Arrays.asList(new String[] { VSphereIncrementalEnumerationService.FACTORY_LINK,
+                VSphereEnumerationCheckpointService.FACTORY_LINK });
     }
 }
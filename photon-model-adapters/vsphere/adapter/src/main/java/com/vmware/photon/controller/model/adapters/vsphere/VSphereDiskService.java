@@ -99,13 +99,19 @@ public class VSphereDiskService extends StatelessService {
 
                     DiskClient diskClient = new DiskClient(connection, ctx);
                     try {
-                        diskClient.createVirtualDisk();
-                        if (ctx.diskState.storageDescriptionLink == null) {
-                            // if the storage desc link is null, then find the link where the disk is provisioned.
-                            queryDiskSDAndFinishCreateOperation(ctx);
-                        } else {
-                            finishDiskCreateOperation(ctx);
-                        }
+                        // the disk is created without holding the connection or this thread
+                        diskClient.createVirtualDisk().whenComplete((o, e) -> {
+                            if (ctx.fail(e)) {
+                                return;
+                            }
+                            if (ctx.diskState.storageDescriptionLink == null) {
+                                // if the storage desc link is null, then find the link where
+                                // the disk is provisioned.
+                                queryDiskSDAndFinishCreateOperation(ctx);
+                            } else {
+                                finishDiskCreateOperation(ctx);
+                            }
+                        });
                     } catch (Exception e) {
                         ctx.fail(e);
                     }
@@ -136,10 +142,34 @@ public class VSphereDiskService extends StatelessService {
 
                     DiskClient diskClient = new DiskClient(connection, ctx);
                     try {
-                        diskClient.deleteVirtualDisk();
+                        // the disk is deleted without holding the connection or this thread,
+                        // its folder is then deleted with a connection borrowed anew
+                        diskClient.deleteVirtualDisk().whenComplete((o, e) -> {
+                            if (!ctx.fail(e)) {
+                                deleteDiskDirectory(ctx);
+                            }
+                        });
+                    } catch (Exception e) {
+                        ctx.fail(e);
+                    }
+                });
+    }
 
-                        // Call delete on the disk resource and finish the request.
-                        finishDiskDeleteOperation(ctx);
+    private void deleteDiskDirectory(DiskContext ctx) {
+        ctx.pool.submit(ctx.adapterManagementReference, ctx.vSphereCredentials,
+                (connection, ce) -> {
+                    if (ctx.fail(ce)) {
+                        return;
+                    }
+
+                    DiskClient diskClient = new DiskClient(connection, ctx);
+                    try {
+                        diskClient.deleteParentDirectory().whenComplete((o, e) -> {
+                            if (!ctx.fail(e)) {
+                                // Call delete on the disk resource and finish the request.
+                                finishDiskDeleteOperation(ctx);
+                            }
+                        });
                     } catch (Exception e) {
                         ctx.fail(e);
                     }
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.vsphere;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vmware.photon.controller.model.ServiceUtils;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceDocumentDescription.PropertyIndexingOption;
+import com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption;
+import com.vmware.xenon.common.StatefulService;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Durable checkpoint of the incremental enumeration of a vSphere endpoint: the position of the
+ * property collectors of each datacenter, so that the enumeration resumes from there after a
+ * restart or on another node, instead of enumerating the endpoint again. There is one checkpoint
+ * per endpoint, named after the endpoint, see {@link #checkpointLink(String)}.
+ */
+public class VSphereEnumerationCheckpointService extends StatefulService {
+
+    public static final String FACTORY_LINK = VSphereUriPaths.ENUMERATION_CHECKPOINT_SERVICE;
+
+    /**
+     * The checkpoint documents hold a digest of every VM and resource of the endpoint.
+     */
+    static final int MAX_SERIALIZED_SIZE_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * The position of the property collectors of a datacenter.
+     */
+    public static class DatacenterCheckpoint {
+        /**
+         * The datacenter, as returned by {@link VimUtils#convertMoRefToString}.
+         */
+        public String datacenter;
+
+        /**
+         * The collector of the folders, networks, datastores, clusters, hosts and resource pools.
+         */
+        public PropertyCollectorCheckpoint resources;
+
+        /**
+         * The collector of the virtual machines.
+         */
+        public PropertyCollectorCheckpoint vms;
+    }
+
+    public static class EnumerationCheckpointState extends ServiceDocument {
+        @Documentation(description = "The endpoint being enumerated")
+        @UsageOption(option = PropertyUsageOption.REQUIRED)
+        public String endpointLink;
+
+        @Documentation(description = "The position of the property collectors of each datacenter")
+        @PropertyOptions(indexing = { PropertyIndexingOption.STORE_ONLY })
+        public List<DatacenterCheckpoint> datacenters = new ArrayList<>();
+    }
+
+    public VSphereEnumerationCheckpointService() {
+        super(EnumerationCheckpointState.class);
+        super.toggleOption(ServiceOption.PERSISTENCE, true);
+        super.toggleOption(ServiceOption.REPLICATION, true);
+        super.toggleOption(ServiceOption.OWNER_SELECTION, true);
+        super.toggleOption(ServiceOption.IDEMPOTENT_POST, true);
+    }
+
+    /**
+     * Returns the link of the checkpoint of the given endpoint.
+     */
+    public static String checkpointLink(String endpointLink) {
+        return UriUtils.buildUriPath(FACTORY_LINK, UriUtils.getLastPathSegment(endpointLink));
+    }
+
+    @Override
+    public void handleCreate(Operation create) {
+        processInput(create);
+        create.complete();
+    }
+
+    @Override
+    public void handlePut(Operation put) {
+        EnumerationCheckpointState state = processInput(put);
+        setState(put, state);
+        put.complete();
+    }
+
+    private EnumerationCheckpointState processInput(Operation op) {
+        if (!op.hasBody()) {
+            throw new IllegalArgumentException("body is required");
+        }
+        EnumerationCheckpointState state = op.getBody(EnumerationCheckpointState.class);
+        Utils.validateState(getStateDescription(), state);
+        return state;
+    }
+
+    @Override
+    public ServiceDocument getDocumentTemplate() {
+        ServiceDocument template = super.getDocumentTemplate();
+        ServiceUtils.setRetentionLimit(template);
+        template.documentDescription.serializedStateSizeLimit = MAX_SERIALIZED_SIZE_BYTES;
+        return template;
+    }
+}
@@ -22,7 +22,6 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
-import java.util.logging.Logger;
 
 import org.apache.commons.lang3.StringUtils;
 
@@ -33,24 +32,24 @@ import com.vmware.photon.controller.model.adapters.vsphere.util.connection.Conne
 import com.vmware.photon.controller.model.security.ssl.ServerX509TrustManager;
 import com.vmware.photon.controller.model.security.util.EncryptionUtils;
 import com.vmware.xenon.common.Operation;
-import com.vmware.xenon.common.OperationContext;
 import com.vmware.xenon.common.Service;
 import com.vmware.xenon.common.ServiceHost;
-import com.vmware.xenon.common.Utils;
 import com.vmware.xenon.services.common.AuthCredentialsService.AuthCredentialsServiceState;
 
 /**
  * Manages a threadpool that executes request to vsphere instances. A threadpool is allocated per
- * ServiceHost, not per vSphere.
+ * ServiceHost, not per vSphere. Connections given to callbacks are borrowed from a
+ * {@link VSphereSessionPool} rather than logged in and out for each callback.
  */
 public class VSphereIOThreadPool {
-    private static final Logger logger = Logger.getLogger(VSphereIOThreadPool.class.getName());
     private final ScheduledExecutorService executorService;
     private final ServiceHost host;
+    private final VSphereSessionPool sessionPool;
 
     public VSphereIOThreadPool(ServiceHost host, ScheduledExecutorService executorService) {
         this.host = host;
         this.executorService = executorService;
+        this.sessionPool = new VSphereSessionPool(executorService);
     }
 
     public static VSphereIOThreadPool createDefault(ServiceHost host, int concurrency) {
@@ -59,7 +58,9 @@ public class VSphereIOThreadPool {
 
     /**
      * This method will execute the provided callback in a managed threadpool and give it a
-     * connection authenticated with the credentials found in the parentAuthLink.
+     * connection authenticated with the credentials found in the parentAuthLink. The connection
+     * is returned to the session pool when the callback returns, so it must not be used after
+     * that; use {@link Connection#createUnmanagedCopy()} to keep a connection.
      *
      * @param adapterReference
      *            SDK url of vSpehere host, usually found in
@@ -102,7 +103,14 @@ public class VSphereIOThreadPool {
                     }
 
                     AuthCredentialsServiceState auth = o.getBody(AuthCredentialsServiceState.class);
-                    execute(adapterReference, auth, callback);
+                    execute(adapterReference, auth, (connection, error) -> {
+                        try {
+                            callback.doInConnection(connection, error);
+                        } finally {
+                            this.sessionPool.publishStats(sender);
+                            VSphereTaskWatcher.publishStats(sender);
+                        }
+                    });
                 });
 
         sender.sendRequest(op);
@@ -119,8 +127,21 @@ public class VSphereIOThreadPool {
         this.executorService.submit(task);
     }
 
+    public VSphereSessionPool getSessionPool() {
+        return this.sessionPool;
+    }
+
     private void execute(URI adapterReference, AuthCredentialsServiceState auth,
             ConnectionCallback callback) {
+        String sessionKey = VSphereSessionPool.sessionKey(adapterReference.toString(), auth.type,
+                auth.privateKeyId, auth.privateKey);
+        // don't connect now, but as late as possible as the session can expire
+        this.sessionPool.execute(sessionKey, () -> createConnection(adapterReference, auth),
+                callback);
+    }
+
+    private BasicConnection createConnection(URI adapterReference,
+            AuthCredentialsServiceState auth) {
         BasicConnection connection = new BasicConnection();
 
         // ignores the certificate for testing purposes
@@ -139,40 +160,7 @@ public class VSphereIOThreadPool {
 
         connection.setURI(adapterReference);
 
-        // don't connect now, but as late as possible as the session can expire
-        executeCallback(connection, callback);
-    }
-
-    private void executeCallback(BasicConnection connection, ConnectionCallback callback) {
-        OperationContext opContext = OperationContext.getOperationContext();
-        this.executorService.submit(() -> {
-            OperationContext.restoreOperationContext(opContext);
-            try {
-                // login and session creation
-                connection.connect();
-            } catch (ConnectionException e) {
-                callback.doInConnection(null, e);
-                return;
-            }
-
-            try {
-                callback.doInConnection(connection, null);
-            } catch (Exception e) {
-                logger.log(Level.SEVERE,
-                        "Uncaught exception in vSphere IO Pool: " + Utils.toString(e));
-            } finally {
-                closeQuietly(connection);
-            }
-        });
-    }
-
-    private void closeQuietly(BasicConnection connection) {
-        try {
-            connection.close();
-        } catch (Exception e) {
-            logger.log(Level.WARNING, "Error closing connection to " + connection.getURI() + ": "
-                    + Utils.toString(e));
-        }
+        return connection;
     }
 
     public void schedule(Runnable task, int timeout, TimeUnit unit) {
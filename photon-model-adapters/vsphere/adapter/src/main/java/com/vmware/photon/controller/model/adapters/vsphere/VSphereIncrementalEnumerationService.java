@@ -36,8 +36,11 @@ import com.vmware.photon.controller.model.adapterapi.ComputeEnumerateResourceReq
 import com.vmware.photon.controller.model.adapterapi.EnumerationAction;
 import com.vmware.photon.controller.model.adapters.util.TaskManager;
 import com.vmware.photon.controller.model.adapters.vsphere.EnumerationClient.ObjectUpdateIterator;
+import com.vmware.photon.controller.model.adapters.vsphere.VSphereEnumerationCheckpointService.DatacenterCheckpoint;
+import com.vmware.photon.controller.model.adapters.vsphere.VSphereEnumerationCheckpointService.EnumerationCheckpointState;
 import com.vmware.photon.controller.model.adapters.vsphere.VsphereResourceCleanerService.ResourceCleanRequest;
 import com.vmware.photon.controller.model.adapters.vsphere.tagging.TagCache;
+import com.vmware.photon.controller.model.adapters.vsphere.tagging.TaggingStats;
 import com.vmware.photon.controller.model.adapters.vsphere.util.MoRefKeyedMap;
 import com.vmware.photon.controller.model.adapters.vsphere.util.VimNames;
 import com.vmware.photon.controller.model.adapters.vsphere.util.connection.Connection;
@@ -71,6 +74,7 @@ import com.vmware.xenon.common.OperationJoin;
 import com.vmware.xenon.common.ServiceDocument;
 import com.vmware.xenon.common.StatelessService;
 import com.vmware.xenon.common.TaskState.TaskStage;
+import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.Utils;
 import com.vmware.xenon.services.common.QueryTask;
 import com.vmware.xenon.services.common.QueryTask.Query.Occurance;
@@ -80,7 +84,9 @@ import com.vmware.xenon.services.common.QueryTask.Query.Occurance;
  * There are two types of enumeration - full enumeration and incremental enumeration.
  * A full enumeration collects the vsphere state and syncs photon model with the state.
  * An incremental enumeration performs a full enumeration and keeps incrementally querying
- * the endpoint to sync changes.
+ * the endpoint to sync changes. The position of the incremental queries is checkpointed in
+ * {@link VSphereEnumerationCheckpointService}, so that an incremental enumeration started again,
+ * after a restart or on another node, resumes from there instead of performing a full enumeration.
  */
 public class VSphereIncrementalEnumerationService extends StatelessService {
 
@@ -101,14 +107,6 @@ public class VSphereIncrementalEnumerationService extends StatelessService {
         public ComputeEnumerateResourceRequest request;
     }
 
-    public class CollectorDetails {
-        private ManagedObjectReference resourcesPropertyCollector;
-        private ManagedObjectReference vmPropertyCollector;
-        private String resourcesCollectorVersion;
-        private String vmCollectorVersion;
-        private String datacenter;
-    }
-
     private static class SegregatedOverlays {
         MoRefKeyedMap<NetworkOverlay> networks = new MoRefKeyedMap<>();
         List<HostSystemOverlay> hosts = new ArrayList<>();
@@ -130,13 +128,22 @@ public class VSphereIncrementalEnumerationService extends StatelessService {
 
     /**
      * Stores property collector and version information for each data center in this endpoint.
+     * It is checkpointed in {@link VSphereEnumerationCheckpointService} once per incremental
+     * cycle, after all data centers are processed, if any property collector moved.
      */
-    private final List<CollectorDetails> collectors = new ArrayList<>();
+    private final List<DatacenterCheckpoint> collectors = new ArrayList<>();
 
-    private final TagCache tagCache = new TagCache();
+    private final TaggingStats taggingStats = new TaggingStats();
 
     public TagCache getTagCache() {
-        return this.tagCache;
+        return TagCache.getShared();
+    }
+
+    /**
+     * Returns the calls to the tagging service of the current enumeration.
+     */
+    public TaggingStats getTaggingStats() {
+        return this.taggingStats;
     }
 
     @Override
@@ -169,9 +176,9 @@ public class VSphereIncrementalEnumerationService extends StatelessService {
         VsphereEnumerationHelper.getComputeStateDescription(getHost(), request.resourceReference)
                 .thenCompose(computeState -> {
                     this.parent = computeState;
-                    return collectAllEndpointResources(request, computeState.documentSelfLink);
+                    return getCheckpoint(request);
                 })
-                .thenAccept(resourceLinks -> {
+                .thenAccept(checkpoint -> {
                     VSphereIOThreadPool pool = VSphereIOThreadPoolAllocator.getPool(this);
                     this.logInfo("Submitting enumeration job to thread pool for endpoint %s", request.endpointLink);
                     pool.submit(this, this.parent.adapterManagementReference, endpoint.authCredentialsLink,
@@ -180,15 +187,69 @@ public class VSphereIncrementalEnumerationService extends StatelessService {
                                     String msg = String.format("Cannot establish connection to %s", this.parent.adapterManagementReference);
                                     logWarning(msg);
                                     mgr.patchTaskToFailure(msg, e);
-                                } else {
-                                    // create an un-managed connection and set it to instance variable.
-                                    this.connection = connection.createUnmanagedCopy();
-                                    refreshResourcesOnce(resourceLinks, request, this.connection, this.parent, mgr);
+                                    return;
                                 }
+                                // create an un-managed connection and set it to instance variable.
+                                this.connection = connection.createUnmanagedCopy();
+                                if (checkpoint != null && resumeFromCheckpoint(checkpoint, request, mgr)) {
+                                    return;
+                                }
+                                collectAllEndpointResources(request, this.parent.documentSelfLink)
+                                        .thenAccept(resourceLinks -> VsphereEnumerationHelper.submitWorkToVSpherePool(this,
+                                                () -> refreshResourcesOnce(resourceLinks, request, this.connection, this.parent, mgr)));
                             });
                 });
     }
 
+    /**
+     * Returns the checkpoint of the endpoint, or {@code null} when there is none or the enumeration
+     * is not incremental.
+     */
+    private DeferredResult<EnumerationCheckpointState> getCheckpoint(ComputeEnumerateResourceRequest request) {
+        if (EnumerationAction.START != request.enumerationAction) {
+            return DeferredResult.completed(null);
+        }
+        Operation get = Operation.createGet(this,
+                VSphereEnumerationCheckpointService.checkpointLink(request.endpointLink));
+        return sendWithDeferredResult(get, EnumerationCheckpointState.class)
+                .exceptionally(e -> null);
+    }
+
+    /**
+     * Resumes the property collectors of each datacenter from the checkpoint, see
+     * {@link PropertyCollectorCheckpoint#resume}. Returns {@code false} when the datacenters of
+     * the endpoint changed since the checkpoint, so that the endpoint has to be enumerated in full.
+     * This method executes in a thread managed by {@link VSphereIOThreadPoolAllocator}
+     */
+    private boolean resumeFromCheckpoint(EnumerationCheckpointState checkpoint,
+                                         ComputeEnumerateResourceRequest request, TaskManager mgr) {
+        Set<String> datacenters = new HashSet<>();
+        try {
+            for (Element element : new DatacenterLister(this.connection).listAllDatacenters()) {
+                datacenters.add(VimUtils.convertMoRefToString(element.object));
+            }
+        } catch (Exception e) {
+            logWarning(() -> String.format("Cannot list datacenters to resume enumeration: %s",
+                    Utils.toString(e)));
+            return false;
+        }
+
+        Set<String> checkpointed = checkpoint.datacenters.stream()
+                .map(dc -> dc.datacenter)
+                .collect(Collectors.toSet());
+        if (checkpointed.isEmpty() || !checkpointed.equals(datacenters)) {
+            logInfo("Datacenters of endpoint %s changed since the checkpoint, enumerating it again",
+                    request.endpointLink);
+            return false;
+        }
+
+        logInfo("Resuming incremental enumeration of endpoint %s from its checkpoint",
+                request.endpointLink);
+        this.collectors.addAll(checkpoint.datacenters);
+        enumerateIncrementally(request, this.parent, mgr, true);
+        return true;
+    }
+
     @Override
     public void handlePatch(Operation patch) {
         // complete the patch immediately.
@@ -207,109 +268,176 @@ public class VSphereIncrementalEnumerationService extends StatelessService {
                     logInfo("Submitting job to threadpool.");
                     VsphereEnumerationHelper.submitWorkToVSpherePool(this, () -> {
                         logInfo("Incremental enumeration job started for endpoint %s", enumerationRequest.request.endpointLink);
-
-                        ComputeStateWithDescription computeStateWithDesc =
-                                o.getBody(ComputeStateWithDescription.class);
-                        VapiConnection vapiConnection = VapiConnection.createFromVimConnection(this.connection);
-                        logInfo("Establishing VAPI connection for endpoint %s", enumerationRequest.request.endpointLink);
-                        try {
-                            vapiConnection.login();
-                        } catch (IOException | RpcException rpce) {
-                            logWarning(() -> String.format("Cannot login into vAPI endpoint: %s",
-                                    Utils.toString(rpce)));
-                            mgr.patchTaskToFailure(rpce);
-                            // self delete service so that full enumeration kicks in next invocation.
-                            selfDeleteService();
-                            return;
-                        }
-                        try {
-                            // Get instanceUuid of the vCenter
-                            AboutInfo vCenter = this.connection.getServiceContent().getAbout();
-                            EnumerationClient enumerationClient = new EnumerationClient(this.connection);
-                            EnumerationProgress ctx = new EnumerationProgress(Collections.emptySet(), request,
-                                    computeStateWithDesc, vapiConnection, null, vCenter.getInstanceUuid());
-                            //sync storage profiles
-                            logInfo("Syncing storage profiles for vcenter [%s]", vCenter.getInstanceUuid());
-                            VsphereStoragePolicyEnumerationHelper.syncStorageProfiles(this, enumerationClient, ctx);
-
-                            for (CollectorDetails collectorDetails : this.collectors) {
-                                logInfo("Retrieving  resources incremental data for data center: %s",
-                                        collectorDetails.datacenter);
-
-                                EnumerationProgress enumerationProgress = new EnumerationProgress(new HashSet<>(), request,
-                                        computeStateWithDesc, vapiConnection, collectorDetails.datacenter,
-                                        vCenter.getInstanceUuid());
-
-                                enumerationProgress.setDisksToStoragePolicyMap(ctx.getDiskToStoragePolicyAssociationMap());
-                                enumerationProgress.setDataStoresToStoragePolicyMap(ctx.getDataStoresToStoragePolicyMap());
-
-                                EnumerationClient client = new EnumerationClient(this.connection, computeStateWithDesc,
-                                        VimUtils.convertStringToMoRef(collectorDetails.datacenter));
-
-                                List<ObjectUpdate> resourcesUpdates = collectResourcesData(collectorDetails);
-
-                                List<ObjectUpdate> vmUpdates = collectVMData(collectorDetails);
-                                logInfo("Received resources updates for datacenter: %s : %s",
-                                        collectorDetails.datacenter, resourcesUpdates.size());
-                                logInfo("Received vm updates for datacenter: %s : %s",
-                                        collectorDetails.datacenter, vmUpdates.size());
-
-                                logInfo("Resources Updates: %s", Utils.toJson(resourcesUpdates));
-
-                                logInfo("VM Updates: %s", Utils.toJson(vmUpdates));
-
-                                if (!resourcesUpdates.isEmpty()) {
-                                    SegregatedOverlays segregatedOverlays =
-                                            segregateObjectUpdates(enumerationProgress, resourcesUpdates);
-                                    this.logInfo("Processing incremental changes for folders for datacenter [%s]", collectorDetails.datacenter);
-                                    VsphereFolderEnumerationHelper.handleFolderChanges(this, segregatedOverlays.folders, enumerationProgress, client);
-                                    logInfo("Processing incremental changes for networks for datacenter [%s]", collectorDetails.datacenter);
-                                    VSphereNetworkEnumerationHelper
-                                            .handleNetworkChanges(this, segregatedOverlays.networks, enumerationProgress, client);
-                                    logInfo("Processing incremental changes for Datastores for datacenter [%s]", collectorDetails.datacenter);
-                                    VsphereDatastoreEnumerationHelper
-                                            .handleDatastoreChanges(this, segregatedOverlays.datastores, enumerationProgress);
-                                    logInfo("Processing incremental changes for compute resource for datacenter [%s]", collectorDetails.datacenter);
-                                    VsphereComputeResourceEnumerationHelper
-                                            .handleComputeResourceChanges(this, segregatedOverlays.clusters, enumerationProgress, client, segregatedOverlays.hosts);
-                                    logInfo("Processing incremental changes for host system for datacenter [%s]", collectorDetails.datacenter);
-                                    VSphereHostSystemEnumerationHelper
-                                            .handleHostSystemChanges(this, segregatedOverlays.hosts, enumerationProgress, client);
-                                    logInfo("Processing incremental changes for resource pool for datacenter [%s]", collectorDetails.datacenter);
-                                    VSphereResourcePoolEnumerationHelper
-                                            .handleResourcePoolChanges(this, segregatedOverlays.resourcePools, enumerationProgress, client);
-                                }
-                                if (!vmUpdates.isEmpty()) {
-                                    logInfo("Processing incremental changes for virtual machines for datacenter [%s]", collectorDetails.datacenter);
-                                    VSphereVirtualMachineEnumerationHelper.handleVMChanges(this, vmUpdates, enumerationProgress, client);
-                                }
-                            }
-                            mgr.patchTask(TaskStage.FINISHED);
-                        } catch (Exception exception) {
-                            String msg = "Error processing PropertyCollector results during incremental retrieval";
-                            logWarning(() -> msg + ": " + exception.toString());
-                            mgr.patchTaskToFailure(exception);
-                            // self delete service so that full enumeration kicks in next invocation.
-                            //TODO: This is not complete. We need to enable owner selection on this service.
-                            selfDeleteService();
-                            return;
-                        } finally {
-                            vapiConnection.close();
-                        }
+                        enumerateIncrementally(request, o.getBody(ComputeStateWithDescription.class), mgr, false);
                     });
                 }, mgr).sendWith(this);
     }
 
+    /**
+     * Processes the updates of the property collectors of each datacenter. When resuming, the
+     * collectors come from a checkpoint and may have to be re-created, see
+     * {@link PropertyCollectorCheckpoint#resume}.
+     * This method executes in a thread managed by {@link VSphereIOThreadPoolAllocator}
+     */
+    private void enumerateIncrementally(ComputeEnumerateResourceRequest request,
+                                        ComputeStateWithDescription computeStateWithDesc,
+                                        TaskManager mgr, boolean resume) {
+        VapiConnection vapiConnection = VapiConnection.createFromVimConnection(this.connection);
+        logInfo("Establishing VAPI connection for endpoint %s", request.endpointLink);
+        try {
+            vapiConnection.login();
+        } catch (IOException | RpcException rpce) {
+            logWarning(() -> String.format("Cannot login into vAPI endpoint: %s",
+                    Utils.toString(rpce)));
+            mgr.patchTaskToFailure(rpce);
+            // self delete service so that the next invocation resumes from the checkpoint.
+            selfDeleteService();
+            return;
+        }
+        this.taggingStats.reset();
+        List<String> positionsBefore = getCollectorPositions();
+        try {
+            // Get instanceUuid of the vCenter
+            AboutInfo vCenter = this.connection.getServiceContent().getAbout();
+            EnumerationClient enumerationClient = new EnumerationClient(this.connection);
+            EnumerationProgress ctx = new EnumerationProgress(Collections.emptySet(), request,
+                    computeStateWithDesc, vapiConnection, null, vCenter.getInstanceUuid());
+            //sync storage profiles
+            logInfo("Syncing storage profiles for vcenter [%s]", vCenter.getInstanceUuid());
+            VsphereStoragePolicyEnumerationHelper.syncStorageProfiles(this, enumerationClient, ctx);
+
+            for (DatacenterCheckpoint collectorDetails : this.collectors) {
+                logInfo("Retrieving  resources incremental data for data center: %s",
+                        collectorDetails.datacenter);
+
+                EnumerationProgress enumerationProgress = new EnumerationProgress(new HashSet<>(), request,
+                        computeStateWithDesc, vapiConnection, collectorDetails.datacenter,
+                        vCenter.getInstanceUuid());
+
+                enumerationProgress.setDisksToStoragePolicyMap(ctx.getDiskToStoragePolicyAssociationMap());
+                enumerationProgress.setDataStoresToStoragePolicyMap(ctx.getDataStoresToStoragePolicyMap());
+
+                EnumerationClient client = new EnumerationClient(this.connection, computeStateWithDesc,
+                        VimUtils.convertStringToMoRef(collectorDetails.datacenter));
+
+                List<ObjectUpdate> resourcesUpdates;
+                List<ObjectUpdate> vmUpdates;
+                if (resume) {
+                    resourcesUpdates = collectorDetails.resources.resume(this.connection.getVimPort(),
+                            () -> client.createPropertyCollectorWithFilter(client.createResourcesFilterSpec()));
+                    vmUpdates = collectorDetails.vms.resume(this.connection.getVimPort(),
+                            () -> client.createPropertyCollectorWithFilter(
+                                    client.createVmFilterSpec(client.getDatacenter())));
+                } else {
+                    resourcesUpdates = collectorDetails.resources.collect(this.connection.getVimPort());
+                    vmUpdates = collectorDetails.vms.collect(this.connection.getVimPort());
+                }
+                logInfo("Received resources updates for datacenter: %s : %s",
+                        collectorDetails.datacenter, resourcesUpdates.size());
+                logInfo("Received vm updates for datacenter: %s : %s",
+                        collectorDetails.datacenter, vmUpdates.size());
+
+                logInfo("Resources Updates: %s", Utils.toJson(resourcesUpdates));
+
+                logInfo("VM Updates: %s", Utils.toJson(vmUpdates));
+
+                if (!resourcesUpdates.isEmpty()) {
+                    SegregatedOverlays segregatedOverlays =
+                            segregateObjectUpdates(enumerationProgress, resourcesUpdates);
+                    prefetchAttachedTags(enumerationProgress, segregatedOverlays);
+                    this.logInfo("Processing incremental changes for folders for datacenter [%s]", collectorDetails.datacenter);
+                    VsphereFolderEnumerationHelper.handleFolderChanges(this, segregatedOverlays.folders, enumerationProgress, client);
+                    logInfo("Processing incremental changes for networks for datacenter [%s]", collectorDetails.datacenter);
+                    VSphereNetworkEnumerationHelper
+                            .handleNetworkChanges(this, segregatedOverlays.networks, enumerationProgress, client);
+                    logInfo("Processing incremental changes for Datastores for datacenter [%s]", collectorDetails.datacenter);
+                    VsphereDatastoreEnumerationHelper
+                            .handleDatastoreChanges(this, segregatedOverlays.datastores, enumerationProgress);
+                    logInfo("Processing incremental changes for compute resource for datacenter [%s]", collectorDetails.datacenter);
+                    VsphereComputeResourceEnumerationHelper
+                            .handleComputeResourceChanges(this, segregatedOverlays.clusters, enumerationProgress, client, segregatedOverlays.hosts);
+                    logInfo("Processing incremental changes for host system for datacenter [%s]", collectorDetails.datacenter);
+                    VSphereHostSystemEnumerationHelper
+                            .handleHostSystemChanges(this, segregatedOverlays.hosts, enumerationProgress, client);
+                    logInfo("Processing incremental changes for resource pool for datacenter [%s]", collectorDetails.datacenter);
+                    VSphereResourcePoolEnumerationHelper
+                            .handleResourcePoolChanges(this, segregatedOverlays.resourcePools, enumerationProgress, client);
+                }
+                if (!vmUpdates.isEmpty()) {
+                    VsphereEnumerationHelper.prefetchAttachedTags(this, enumerationProgress, vmUpdates.stream()
+                            .filter(update -> update.getKind() != ObjectUpdateKind.LEAVE
+                                    && VimUtils.isVirtualMachine(update.getObj()))
+                            .map(ObjectUpdate::getObj)
+                            .collect(Collectors.toList()));
+                    logInfo("Processing incremental changes for virtual machines for datacenter [%s]", collectorDetails.datacenter);
+                    VSphereVirtualMachineEnumerationHelper.handleVMChanges(this, vmUpdates, enumerationProgress, client);
+                }
+            }
+            // save once all datacenters are processed, and only if a collector moved. If a
+            // datacenter fails, the next invocation processes the cycle again from the previous
+            // checkpoint.
+            if (!positionsBefore.equals(getCollectorPositions())) {
+                saveCheckpoint(request);
+            }
+            this.taggingStats.publishStats(this);
+            mgr.patchTask(TaskStage.FINISHED);
+        } catch (Exception exception) {
+            String msg = "Error processing PropertyCollector results during incremental retrieval";
+            logWarning(() -> msg + ": " + exception.toString());
+            mgr.patchTaskToFailure(exception);
+            // self delete service so that the next invocation resumes from the checkpoint.
+            //TODO: This is not complete. We need to enable owner selection on this service.
+            selfDeleteService();
+        } finally {
+            vapiConnection.close();
+        }
+    }
+
+    /**
+     * Returns the collector and version of every property collector, to tell whether any of
+     * them moved since.
+     */
+    private List<String> getCollectorPositions() {
+        List<String> positions = new ArrayList<>(this.collectors.size() * 2);
+        for (DatacenterCheckpoint collector : this.collectors) {
+            positions.add(collector.resources.collector + "@" + collector.resources.version);
+            positions.add(collector.vms.collector + "@" + collector.vms.version);
+        }
+        return positions;
+    }
+
+    /**
+     * Saves the position of the property collectors of all datacenters.
+     */
+    private void saveCheckpoint(ComputeEnumerateResourceRequest request) {
+        EnumerationCheckpointState checkpoint = new EnumerationCheckpointState();
+        checkpoint.documentSelfLink = UriUtils.getLastPathSegment(request.endpointLink);
+        checkpoint.endpointLink = request.endpointLink;
+        checkpoint.datacenters = this.collectors;
+        // serialize now, the collectors keep changing while the checkpoint is saved
+        Operation.createPost(this, VSphereEnumerationCheckpointService.FACTORY_LINK)
+                .setBody(Utils.toJson(checkpoint))
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        logWarning(() -> String.format("Cannot save enumeration checkpoint of endpoint %s: %s",
+                                request.endpointLink, Utils.toString(e)));
+                    }
+                })
+                .sendWith(this);
+    }
+
     private void selfDeleteService() {
         this.sendRequest(Operation.createDelete(this.getUri()));
     }
 
     private void cleanupConnection() {
         logFine("Destroying property collectors for endpoint : " + this.getUri().getPath());
-        for (CollectorDetails collector : this.collectors) {
+        for (DatacenterCheckpoint collector : this.collectors) {
             try {
-                this.connection.getVimPort().destroyPropertyCollector(collector.resourcesPropertyCollector);
-                this.connection.getVimPort().destroyPropertyCollector(collector.vmPropertyCollector);
+                this.connection.getVimPort().destroyPropertyCollector(
+                        VimUtils.convertStringToMoRef(collector.resources.collector));
+                this.connection.getVimPort().destroyPropertyCollector(
+                        VimUtils.convertStringToMoRef(collector.vms.collector));
             } catch (RuntimeFaultFaultMsg runtimeFaultFaultMsg) {
                 logSevere("Error while destroying property collectors for endpoint : " + this.getUri().getPath());
                 logSevere(runtimeFaultFaultMsg);
@@ -432,6 +560,7 @@ public class VSphereIncrementalEnumerationService extends StatelessService {
             mgr.patchTaskToFailure(e);
             return;
         }
+        this.taggingStats.reset();
 
         DatacenterLister lister = new DatacenterLister(connection);
         try {
@@ -496,65 +625,34 @@ public class VSphereIncrementalEnumerationService extends StatelessService {
                     Utils.toString(e)));
         }
 
+        this.taggingStats.publishStats(this);
+
         // after all dc's are enumerated untouched resource links are the only ones left
         // in resourceLinks
         garbageCollectUntouchedComputeResources(request, resourceLinks, mgr);
         // cleanup the connection if the enumeration action is REFRESH.
         if (EnumerationAction.REFRESH.equals(request.enumerationAction)) {
             cleanupConnection();
+        } else if (EnumerationAction.START.equals(request.enumerationAction)) {
+            saveCheckpoint(request);
         }
     }
 
-    private List<ObjectUpdate> collectResourcesData(CollectorDetails collectorDetails) {
-        EnumerationClient.ObjectUpdateIterator resourcesIterator =
-                new EnumerationClient.ObjectUpdateIterator(
-                        collectorDetails.resourcesPropertyCollector, this.connection.getVimPort(),
-                        collectorDetails.resourcesCollectorVersion);
-        List<ObjectUpdate> updates = collectUpdates(resourcesIterator);
-        //update the version number soon after iterating
-        collectorDetails.resourcesCollectorVersion = resourcesIterator.getVersion();
-        return updates;
-    }
-
-    private List<ObjectUpdate> collectUpdates(ObjectUpdateIterator objectUpdateIterator) {
-        List<ObjectUpdate> updates = new ArrayList<>();
-        while (objectUpdateIterator.hasNext()) {
-            UpdateSet page = objectUpdateIterator.next();
-            if (null != page) {
-                for (PropertyFilterUpdate propertyFilterUpdate : page.getFilterSet()) {
-                    updates.addAll(propertyFilterUpdate.getObjectSet());
-                }
-            }
-        }
-        return updates;
-    }
-
-    private List<ObjectUpdate> collectVMData(CollectorDetails collectorDetails) {
-        EnumerationClient.ObjectUpdateIterator vmIterator =
-                new EnumerationClient.ObjectUpdateIterator(
-                        collectorDetails.vmPropertyCollector, this.connection.getVimPort(),
-                        collectorDetails.vmCollectorVersion);
-        List<ObjectUpdate> updates = collectUpdates(vmIterator);
-        //update the version number soon after iterating
-        collectorDetails.vmCollectorVersion = vmIterator.getVersion();
-        return updates;
-    }
-
     private void refreshResourcesOnDatacenter(EnumerationClient client, EnumerationProgress ctx,
                                               TaskManager mgr) throws Exception {
         Set<String> sharedDatastores = new HashSet<>();
 
         // put results in different buckets by type
         PropertyFilterSpec spec = client.createResourcesFilterSpec();
-        CollectorDetails collectorDetails = new CollectorDetails();
+        DatacenterCheckpoint collectorDetails = new DatacenterCheckpoint();
         EnumerationClient.ObjectUpdateIterator resourcesIterator;
+        List<ObjectUpdate> updates = new ArrayList<>();
         SegregatedOverlays segregatedOverlays;
         logInfo("Processing resources on datacenter: %s", ctx.getDcLink());
         try {
             ManagedObjectReference resourcesPropertyCollector = client.createPropertyCollectorWithFilter(spec);
             // remove getObjectIterator API
             resourcesIterator = new ObjectUpdateIterator(resourcesPropertyCollector, this.connection.getVimPort(), "");
-            List<ObjectUpdate> updates = new ArrayList<>();
             while (resourcesIterator.hasNext()) {
                 UpdateSet page = resourcesIterator.next();
                 if (null != page) {
@@ -569,6 +667,7 @@ public class VSphereIncrementalEnumerationService extends StatelessService {
             logWarning(() -> msg + ": " + e.toString());
             throw new Exception(e);
         }
+        prefetchAttachedTags(ctx, segregatedOverlays);
 
         // This will split the folders into two lists. Default folders (vm, host, network, datastore) have parent as datacenter
         // and are not visible in vCenter. These need not be persisted. Any other folders will have another folder as a parent
@@ -689,6 +788,7 @@ public class VSphereIncrementalEnumerationService extends StatelessService {
         logInfo("Processing VMs on datacenter: %s", ctx.getDcLink());
         spec = client.createVmFilterSpec(client.getDatacenter());
         List<VmOverlay> vmOverlayList = new ArrayList<>();
+        List<ObjectUpdate> vmUpdates = new ArrayList<>();
         EnumerationClient.ObjectUpdateIterator vmIterator;
         try {
             ManagedObjectReference vmPropertyCollector = client.createPropertyCollectorWithFilter(spec);
@@ -698,7 +798,9 @@ public class VSphereIncrementalEnumerationService extends StatelessService {
                 if (null != page) {
                     for (PropertyFilterUpdate propertyFilterUpdate : page.getFilterSet()) {
                         ctx.resetVmTracker();
+                        List<VmOverlay> pageVms = new ArrayList<>();
                         for (ObjectUpdate cont : propertyFilterUpdate.getObjectSet()) {
+                            vmUpdates.add(cont);
                             if (!VimUtils.isVirtualMachine(cont.getObj())) {
                                 continue;
                             }
@@ -712,11 +814,18 @@ public class VSphereIncrementalEnumerationService extends StatelessService {
                                                 + " instanceUuid: %s",
                                         VimUtils.convertMoRefToString(vm.getId())));
                             } else {
-                                ctx.getVmTracker().register();
-                                vmOverlayList.add(vm);
-                                VSphereVirtualMachineEnumerationHelper.processFoundVm(this, ctx, vm);
+                                pageVms.add(vm);
                             }
                         }
+                        // list the tags of the VMs of the page in bulk
+                        VsphereEnumerationHelper.prefetchAttachedTags(this, ctx, pageVms.stream()
+                                .map(VmOverlay::getId)
+                                .collect(Collectors.toList()));
+                        for (VmOverlay vm : pageVms) {
+                            ctx.getVmTracker().register();
+                            vmOverlayList.add(vm);
+                            VSphereVirtualMachineEnumerationHelper.processFoundVm(this, ctx, vm);
+                        }
                         ctx.getVmTracker().arriveAndAwaitAdvance();
                         VSphereVMSnapshotEnumerationHelper.enumerateSnapshots(this, ctx, vmOverlayList);
                     }
@@ -739,15 +848,31 @@ public class VSphereIncrementalEnumerationService extends StatelessService {
 
         // if enumeration action is start and this is the initial enumeration, then store the property collectors and versions.
         if (EnumerationAction.START == ctx.getRequest().enumerationAction) {
-            collectorDetails.vmCollectorVersion = vmIterator.getVersion();
-            collectorDetails.vmPropertyCollector = vmIterator.getPropertyCollector();
-            collectorDetails.resourcesCollectorVersion = resourcesIterator.getVersion();
-            collectorDetails.resourcesPropertyCollector = resourcesIterator.getPropertyCollector();
+            collectorDetails.vms = new PropertyCollectorCheckpoint(vmIterator);
+            vmUpdates.forEach(collectorDetails.vms::track);
+            collectorDetails.resources = new PropertyCollectorCheckpoint(resourcesIterator);
+            updates.forEach(collectorDetails.resources::track);
             collectorDetails.datacenter = ctx.getRegionId();
             this.collectors.add(collectorDetails);
         }
     }
 
+    /**
+     * Lists in bulk the tags of the datastores, clusters and hosts to be processed.
+     */
+    private void prefetchAttachedTags(EnumerationProgress ctx, SegregatedOverlays segregatedOverlays) {
+        List<AbstractOverlay> overlays = new ArrayList<>(segregatedOverlays.datastores);
+        overlays.addAll(segregatedOverlays.clusters);
+        overlays.addAll(segregatedOverlays.hosts);
+        List<ManagedObjectReference> refs = new ArrayList<>();
+        for (AbstractOverlay overlay : overlays) {
+            if (overlay.getObjectUpdateKind() != ObjectUpdateKind.LEAVE) {
+                refs.add(overlay.getId());
+            }
+        }
+        VsphereEnumerationHelper.prefetchAttachedTags(this, ctx, refs);
+    }
+
     private void updateServerDisks(EnumerationProgress ctx, HostSystemOverlay hostSystemOverlay) {
         QueryTask queryTask = queryForServerDisks(ctx, hostSystemOverlay);
         withTaskResults(this, queryTask, null, serviceDocumentQueryResult -> {
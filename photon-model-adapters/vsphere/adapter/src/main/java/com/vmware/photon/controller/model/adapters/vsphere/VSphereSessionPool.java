@@ -0,0 +1,401 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.vsphere;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.vmware.photon.controller.model.adapters.util.LatencyHistogram;
+import com.vmware.photon.controller.model.adapters.vsphere.VSphereIOThreadPool.ConnectionCallback;
+import com.vmware.photon.controller.model.adapters.vsphere.util.connection.BasicConnection;
+import com.vmware.photon.controller.model.adapters.vsphere.util.connection.ConnectionException;
+import com.vmware.photon.controller.model.adapters.vsphere.util.connection.GetMoRef;
+import com.vmware.xenon.common.OperationContext;
+import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Pool of logged in vSphere sessions, keyed by endpoint and credentials. Callbacks borrow a
+ * session for their duration and return it to the pool, instead of paying a login and a logout
+ * each.
+ * <ul>
+ * <li>At most {@link #MAX_SESSIONS_PER_ENDPOINT} sessions are open per key. Further callbacks are
+ * queued, without holding a thread, until a session is returned.</li>
+ * <li>Idle sessions are checked, and so kept alive on vCenter, every {@link #KEEP_ALIVE_SECONDS}.
+ * A session found not authenticated, either then or when borrowed, is transparently replaced by a
+ * new login.</li>
+ * <li>Sessions idle for more than {@link #IDLE_TIMEOUT_SECONDS} are logged out, and keys without
+ * sessions are dropped.</li>
+ * <li>Sessions closed by their callback are dropped from the pool.</li>
+ * </ul>
+ */
+public class VSphereSessionPool {
+    private static final Logger logger = Logger.getLogger(VSphereSessionPool.class.getName());
+
+    public static final int MAX_SESSIONS_PER_ENDPOINT = Integer
+            .getInteger("vsphere.session.pool.max.sessions.per.endpoint", 16);
+    public static final long KEEP_ALIVE_SECONDS = Long
+            .getLong("vsphere.session.pool.keep.alive.seconds", TimeUnit.MINUTES.toSeconds(5));
+    public static final long IDLE_TIMEOUT_SECONDS = Long
+            .getLong("vsphere.session.pool.idle.timeout.seconds", TimeUnit.MINUTES.toSeconds(10));
+
+    public static final String STAT_NAME_SESSION_POOL_HITS = "vSphereSessionPoolHits";
+    public static final String STAT_NAME_SESSION_POOL_MISSES = "vSphereSessionPoolMisses";
+    public static final String STAT_NAME_SESSION_POOL_HIT_RATE = "vSphereSessionPoolHitRatePercent";
+    public static final String STAT_NAME_SESSION_LOGINS = "vSphereSessionLogins";
+    public static final String STAT_NAME_SESSION_WAIT_P50 = "vSphereSessionWaitP50Micros";
+    public static final String STAT_NAME_SESSION_WAIT_P99 = "vSphereSessionWaitP99Micros";
+    public static final String STAT_NAME_SESSION_WAIT_MAX = "vSphereSessionWaitMaxMicros";
+
+    private static final String PROPERTY_CURRENT_SESSION = "currentSession";
+
+    private static final class PooledSession {
+        final BasicConnection connection;
+        long lastUsedNanos;
+        long lastCheckedNanos;
+
+        PooledSession(BasicConnection connection, long nowNanos) {
+            this.connection = connection;
+            this.lastUsedNanos = nowNanos;
+            this.lastCheckedNanos = nowNanos;
+        }
+    }
+
+    private static final class Borrower {
+        final Supplier<BasicConnection> connectionFactory;
+        final ConnectionCallback callback;
+        final OperationContext operationContext;
+        final long submittedNanos = System.nanoTime();
+
+        Borrower(Supplier<BasicConnection> connectionFactory, ConnectionCallback callback) {
+            this.connectionFactory = connectionFactory;
+            this.callback = callback;
+            this.operationContext = OperationContext.getOperationContext();
+        }
+    }
+
+    /**
+     * The sessions of a single endpoint and credentials. Guarded by its own monitor.
+     */
+    private static final class EndpointSessions {
+        final Deque<PooledSession> idle = new ArrayDeque<>();
+        final Deque<Borrower> waiting = new ArrayDeque<>();
+        // Idle and borrowed sessions, including the ones being logged in
+        int open;
+        // Set once dropped from the pool by the sweep, so that no session is added anymore
+        boolean removed;
+    }
+
+    private final ScheduledExecutorService executorService;
+    private final int maxSessionsPerEndpoint;
+    private final long keepAliveNanos;
+    private final long idleTimeoutNanos;
+
+    private final Map<String, EndpointSessions> sessionsByKey = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong logins = new AtomicLong();
+    private final LatencyHistogram waitHistogram = new LatencyHistogram();
+
+    public VSphereSessionPool(ScheduledExecutorService executorService) {
+        this(executorService, MAX_SESSIONS_PER_ENDPOINT, KEEP_ALIVE_SECONDS, IDLE_TIMEOUT_SECONDS,
+                TimeUnit.SECONDS);
+    }
+
+    public VSphereSessionPool(ScheduledExecutorService executorService,
+            int maxSessionsPerEndpoint, long keepAlive, long idleTimeout, TimeUnit unit) {
+        this.executorService = executorService;
+        this.maxSessionsPerEndpoint = maxSessionsPerEndpoint;
+        this.keepAliveNanos = unit.toNanos(keepAlive);
+        this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+
+        long sweepPeriodMillis = Math.max(1, unit.toMillis(Math.min(keepAlive, idleTimeout)) / 2);
+        this.executorService.scheduleWithFixedDelay(this::sweep, sweepPeriodMillis,
+                sweepPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Builds the key of the sessions of the given endpoint and credentials.
+     */
+    public static String sessionKey(String endpoint, String... credentials) {
+        return endpoint + "#" + Utils.computeHash(String.join("\n", credentials));
+    }
+
+    /**
+     * Runs the callback on the executor with a session of the given key, borrowed from the pool or
+     * created with the given factory, connected and logged in. The session is returned to the
+     * pool when the callback completes. The factory must not connect.
+     */
+    public void execute(String key, Supplier<BasicConnection> connectionFactory,
+            ConnectionCallback callback) {
+        Borrower borrower = new Borrower(connectionFactory, callback);
+        while (true) {
+            EndpointSessions sessions = this.sessionsByKey.computeIfAbsent(key,
+                    k -> new EndpointSessions());
+
+            PooledSession session;
+            synchronized (sessions) {
+                if (sessions.removed) {
+                    // dropped by the sweep in the meantime
+                    continue;
+                }
+                session = sessions.idle.pollFirst();
+                if (session == null) {
+                    if (sessions.open >= this.maxSessionsPerEndpoint) {
+                        sessions.waiting.addLast(borrower);
+                        return;
+                    }
+                    sessions.open++;
+                }
+            }
+            dispatch(key, sessions, session, borrower);
+            return;
+        }
+    }
+
+    private void dispatch(String key, EndpointSessions sessions, PooledSession session,
+            Borrower borrower) {
+        this.executorService.execute(() -> {
+            OperationContext.restoreOperationContext(borrower.operationContext);
+            this.waitHistogram.record(TimeUnit.NANOSECONDS
+                    .toMicros(System.nanoTime() - borrower.submittedNanos));
+
+            PooledSession borrowed = session;
+            if (borrowed != null && System.nanoTime() - borrowed.lastCheckedNanos
+                    >= this.keepAliveNanos) {
+                if (isAlive(borrowed.connection)) {
+                    borrowed.lastCheckedNanos = System.nanoTime();
+                } else {
+                    URI uri = borrowed.connection.getURI();
+                    logger.fine(() -> String.format("vSphere session to %s is no longer"
+                            + " authenticated, logging in again", uri));
+                    borrowed.connection.closeQuietly();
+                    borrowed = null;
+                }
+            }
+
+            if (borrowed != null) {
+                this.hits.incrementAndGet();
+            } else {
+                this.misses.incrementAndGet();
+                BasicConnection connection = borrower.connectionFactory.get();
+                try {
+                    // login and session creation
+                    connection.connect();
+                    this.logins.incrementAndGet();
+                } catch (ConnectionException e) {
+                    release(key, sessions, null, false);
+                    borrower.callback.doInConnection(null, e);
+                    return;
+                }
+                borrowed = new PooledSession(connection, System.nanoTime());
+            }
+
+            try {
+                borrower.callback.doInConnection(borrowed.connection, null);
+            } catch (Exception e) {
+                logger.log(Level.SEVERE,
+                        "Uncaught exception in vSphere IO Pool: " + Utils.toString(e));
+            } finally {
+                release(key, sessions, borrowed, true);
+            }
+        });
+    }
+
+    /**
+     * Returns a session to the pool, or gives up its slot if {@code null} or closed, and hands
+     * the session or the slot over to the next waiting callback.
+     *
+     * @param used
+     *            whether the session was used by a callback, rather than just checked. Only
+     *            checks update the time the session was last checked, as a callback may have
+     *            used the session without validating it.
+     */
+    private void release(String key, EndpointSessions sessions, PooledSession session,
+            boolean used) {
+        boolean reusable = session != null && session.connection.getUserSession() != null;
+        if (session != null && !reusable) {
+            session.connection.closeQuietly();
+        }
+
+        PooledSession next = null;
+        Borrower borrower;
+        synchronized (sessions) {
+            if (reusable) {
+                long now = System.nanoTime();
+                if (used) {
+                    session.lastUsedNanos = now;
+                }
+                sessions.idle.addFirst(session);
+            } else {
+                sessions.open--;
+            }
+
+            borrower = sessions.waiting.pollFirst();
+            if (borrower != null) {
+                next = sessions.idle.pollFirst();
+                if (next == null) {
+                    sessions.open++;
+                }
+            }
+        }
+
+        if (borrower != null) {
+            dispatch(key, sessions, next, borrower);
+        }
+    }
+
+    /**
+     * Logs out the sessions idle for too long and checks, so keeping them alive, the ones which
+     * have not been checked for a while. Drops the keys left without sessions.
+     */
+    private void sweep() {
+        try {
+            this.sessionsByKey.forEach((key, sessions) -> {
+                List<PooledSession> expired = new ArrayList<>();
+                List<PooledSession> stale = new ArrayList<>();
+                long now = System.nanoTime();
+                synchronized (sessions) {
+                    for (Iterator<PooledSession> it = sessions.idle.iterator(); it.hasNext(); ) {
+                        PooledSession session = it.next();
+                        if (now - session.lastUsedNanos >= this.idleTimeoutNanos) {
+                            expired.add(session);
+                        } else if (now - session.lastCheckedNanos >= this.keepAliveNanos) {
+                            stale.add(session);
+                        } else {
+                            continue;
+                        }
+                        it.remove();
+                    }
+                    sessions.open -= expired.size();
+                    if (sessions.open == 0 && sessions.waiting.isEmpty()) {
+                        sessions.removed = true;
+                        this.sessionsByKey.remove(key, sessions);
+                    }
+                }
+
+                expired.forEach(session -> closeQuietly(session.connection));
+                stale.forEach(session -> {
+                    if (isAlive(session.connection)) {
+                        session.lastCheckedNanos = System.nanoTime();
+                        release(key, sessions, session, false);
+                    } else {
+                        session.connection.closeQuietly();
+                        release(key, sessions, null, false);
+                    }
+                });
+            });
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Error sweeping vSphere sessions: " + Utils.toString(e));
+        }
+    }
+
+    /**
+     * Checks whether the session of the given connection is still authenticated.
+     */
+    protected boolean isAlive(BasicConnection connection) {
+        if (connection.getUserSession() == null) {
+            return false;
+        }
+        try {
+            return new GetMoRef(connection).entityProp(
+                    connection.getServiceContent().getSessionManager(),
+                    PROPERTY_CURRENT_SESSION) != null;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private void closeQuietly(BasicConnection connection) {
+        try {
+            connection.close();
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Error closing connection to " + connection.getURI() + ": "
+                    + Utils.toString(e));
+        }
+    }
+
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    public long getLoginCount() {
+        return this.logins.get();
+    }
+
+    public LatencyHistogram getWaitHistogram() {
+        return this.waitHistogram;
+    }
+
+    /**
+     * Returns the number of open sessions, idle or borrowed, for the given key.
+     */
+    public int getOpenSessionCount(String key) {
+        EndpointSessions sessions = this.sessionsByKey.get(key);
+        if (sessions == null) {
+            return 0;
+        }
+        synchronized (sessions) {
+            return sessions.open;
+        }
+    }
+
+    /**
+     * Returns the number of idle sessions for the given key.
+     */
+    public int getIdleSessionCount(String key) {
+        EndpointSessions sessions = this.sessionsByKey.get(key);
+        if (sessions == null) {
+            return 0;
+        }
+        synchronized (sessions) {
+            return sessions.idle.size();
+        }
+    }
+
+    /**
+     * Publishes the hit rate, login count and wait time of the pool as stats of the given service.
+     */
+    public void publishStats(Service service) {
+        long hitCount = this.hits.get();
+        long missCount = this.misses.get();
+        service.setStat(STAT_NAME_SESSION_POOL_HITS, hitCount);
+        service.setStat(STAT_NAME_SESSION_POOL_MISSES, missCount);
+        if (hitCount + missCount > 0) {
+            service.setStat(STAT_NAME_SESSION_POOL_HIT_RATE,
+                    100.0 * hitCount / (hitCount + missCount));
+        }
+        service.setStat(STAT_NAME_SESSION_LOGINS, this.logins.get());
+        service.setStat(STAT_NAME_SESSION_WAIT_P50, this.waitHistogram.getPercentileMicros(50));
+        service.setStat(STAT_NAME_SESSION_WAIT_P99, this.waitHistogram.getPercentileMicros(99));
+        service.setStat(STAT_NAME_SESSION_WAIT_MAX, this.waitHistogram.getMaxMicros());
+    }
+}
@@ -0,0 +1,496 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.vsphere;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.w3c.dom.Element;
+
+import com.vmware.photon.controller.model.adapters.util.LatencyHistogram;
+import com.vmware.photon.controller.model.adapters.vsphere.util.VimPath;
+import com.vmware.photon.controller.model.adapters.vsphere.util.connection.Connection;
+import com.vmware.photon.controller.model.adapters.vsphere.util.connection.GetMoRef;
+import com.vmware.vim25.InvalidCollectorVersionFaultMsg;
+import com.vmware.vim25.InvalidPropertyFaultMsg;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectSpec;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.ObjectUpdateKind;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.PropertySpec;
+import com.vmware.vim25.RequestCanceled;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+import com.vmware.vim25.TaskInfo;
+import com.vmware.vim25.TaskInfoState;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.WaitOptions;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Watches the completion of the tasks of a vCenter. A single thread per vCenter and credentials
+ * runs a {@code waitForUpdatesEx} loop on its own property collector, with a filter on
+ * {@code info.state} per outstanding task, and completes the {@link DeferredResult} of each task
+ * once it succeeds or fails. Callers submit the task and return their thread immediately, instead
+ * of parking it in a wait per task.
+ * <ul>
+ * <li>The watcher logs in with its own session, a copy of the connection of the first task, and
+ * logs out when no task has been watched for {@link #IDLE_TIMEOUT_SECONDS}.</li>
+ * <li>A new task cancels the current wait, if any, so that it is registered right away; waits
+ * otherwise last at most {@link #MAX_WAIT_SECONDS}.</li>
+ * <li>If the session fails, the watcher logs in again and registers the outstanding tasks again,
+ * and fails them after {@link #MAX_RECONNECTS} failures in a row.</li>
+ * </ul>
+ * Results are completed on the common fork-join pool: continuations that call vCenter must be
+ * submitted to the {@link VSphereIOThreadPool}.
+ */
+public class VSphereTaskWatcher {
+    private static final Logger logger = Logger.getLogger(VSphereTaskWatcher.class.getName());
+
+    public static final boolean ENABLED = Boolean.parseBoolean(
+            System.getProperty("vsphere.task.watcher.enabled", "true"));
+    public static final int MAX_WAIT_SECONDS = Integer
+            .getInteger("vsphere.task.watcher.max.wait.seconds", 1);
+    public static final long IDLE_TIMEOUT_SECONDS = Long
+            .getLong("vsphere.task.watcher.idle.timeout.seconds", TimeUnit.MINUTES.toSeconds(1));
+    public static final int MAX_RECONNECTS = Integer
+            .getInteger("vsphere.task.watcher.max.reconnects", 3);
+
+    public static final String STAT_NAME_TASKS_IN_FLIGHT = "vSphereTaskWatcherTasksInFlight";
+    public static final String STAT_NAME_WATCHER_LAG_P99 = "vSphereTaskWatcherLagP99Micros";
+    public static final String STAT_NAME_WATCHER_LAG_MAX = "vSphereTaskWatcherLagMaxMicros";
+    public static final String STAT_NAME_TASK_COMPLETION_P50 = "vSphereTaskCompletionP50Micros";
+    public static final String STAT_NAME_TASK_COMPLETION_P99 = "vSphereTaskCompletionP99Micros";
+
+    private static final ConcurrentMap<String, VSphereTaskWatcher> watchers =
+            new ConcurrentHashMap<>();
+
+    // Tasks watched, time to register them and time to complete them, across all the watchers
+    private static final AtomicInteger totalInFlight = new AtomicInteger();
+    private static final LatencyHistogram lagHistogram = new LatencyHistogram();
+    private static final LatencyHistogram completionHistogram = new LatencyHistogram();
+
+    private static final class Watch {
+        final ManagedObjectReference task;
+        final DeferredResult<TaskInfo> result = new DeferredResult<>();
+        final long submittedNanos = System.nanoTime();
+        ManagedObjectReference filter;
+
+        Watch(ManagedObjectReference task) {
+            this.task = task;
+        }
+    }
+
+    private final String name;
+    private final Supplier<Connection> connectionFactory;
+    private final Executor completionExecutor;
+    private final long idleTimeoutMillis;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // Guarded by this
+    private final Deque<Watch> pending = new ArrayDeque<>();
+    private boolean running;
+    private boolean waiting;
+    private boolean wakeUpRequested;
+
+    // Confined to the watcher thread, except for the session which submitting threads read
+    // holding the monitor while the watcher is waiting, to cancel the wait
+    private final Map<String, Watch> watched = new HashMap<>();
+    private final List<Watch> unregistered = new ArrayList<>();
+    private Connection connection;
+    private ManagedObjectReference propertyCollector;
+    private boolean connected;
+    private String version;
+
+    /**
+     * @param name
+     *            name of the watcher thread
+     * @param connectionFactory
+     *            creates a connected session, owned by the watcher
+     */
+    public VSphereTaskWatcher(String name, Supplier<Connection> connectionFactory,
+            Executor completionExecutor, long idleTimeout, TimeUnit unit) {
+        this.name = name;
+        this.connectionFactory = connectionFactory;
+        this.completionExecutor = completionExecutor;
+        this.idleTimeoutMillis = unit.toMillis(idleTimeout);
+    }
+
+    /**
+     * Returns the watcher of the vCenter and credentials of the given connection, or {@code null}
+     * if the watcher is disabled or cannot log in with a copy of the connection.
+     */
+    public static VSphereTaskWatcher of(Connection connection) {
+        if (!ENABLED || connection.getURI() == null || connection.getUsername() == null) {
+            return null;
+        }
+        String key = VSphereSessionPool.sessionKey(connection.getURI().toString(),
+                connection.getUsername(), connection.getPassword());
+        return watchers.computeIfAbsent(key, k -> new VSphereTaskWatcher(
+                "vsphere-task-watcher-" + connection.getURI().getHost(),
+                connection::createUnmanagedCopy, ForkJoinPool.commonPool(),
+                IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Watches the given task.
+     *
+     * @return the info of the task once it succeeded or failed
+     */
+    public DeferredResult<TaskInfo> watch(ManagedObjectReference task) {
+        Watch watch = new Watch(task);
+        this.inFlight.incrementAndGet();
+        totalInFlight.incrementAndGet();
+
+        boolean wakeUp = false;
+        Connection waitingConnection = null;
+        ManagedObjectReference waitingCollector = null;
+        synchronized (this) {
+            this.pending.add(watch);
+            if (!this.running) {
+                this.running = true;
+                Thread thread = new Thread(this::run, this.name);
+                thread.setDaemon(true);
+                thread.start();
+            } else if (this.waiting) {
+                // cancel the wait once, for all the tasks submitted meanwhile
+                if (!this.wakeUpRequested) {
+                    this.wakeUpRequested = true;
+                    wakeUp = true;
+                    waitingConnection = this.connection;
+                    waitingCollector = this.propertyCollector;
+                }
+            } else {
+                notifyAll();
+            }
+        }
+
+        if (wakeUp) {
+            try {
+                cancelWaitForUpdates(waitingConnection, waitingCollector);
+            } catch (Exception e) {
+                // the task is registered after the current wait anyway
+                logger.log(Level.FINE, "Error waking up the vSphere task watcher " + this.name
+                        + ": " + Utils.toString(e));
+            }
+        }
+        return watch.result;
+    }
+
+    public int getInFlightCount() {
+        return this.inFlight.get();
+    }
+
+    /**
+     * Publishes the tasks in flight, the watcher lag, i.e. the time until a task is registered,
+     * and the completion latency of the tasks of all the watchers as stats of the given service.
+     */
+    public static void publishStats(Service service) {
+        service.setStat(STAT_NAME_TASKS_IN_FLIGHT, totalInFlight.get());
+        service.setStat(STAT_NAME_WATCHER_LAG_P99, lagHistogram.getPercentileMicros(99));
+        service.setStat(STAT_NAME_WATCHER_LAG_MAX, lagHistogram.getMaxMicros());
+        service.setStat(STAT_NAME_TASK_COMPLETION_P50, completionHistogram.getPercentileMicros(50));
+        service.setStat(STAT_NAME_TASK_COMPLETION_P99, completionHistogram.getPercentileMicros(99));
+    }
+
+    private void run() {
+        int failures = 0;
+        try {
+            while (takePending()) {
+                try {
+                    if (!this.connected) {
+                        connect();
+                        this.connected = true;
+                        this.version = "";
+                    }
+                    register();
+                    if (!this.watched.isEmpty()) {
+                        processUpdates(waitForUpdatesOrTasks());
+                    }
+                    failures = 0;
+                } catch (Exception e) {
+                    failures++;
+                    logger.log(Level.WARNING, String.format("Error watching vSphere tasks in %s "
+                            + "(%d in a row): %s", this.name, failures, Utils.toString(e)));
+                    this.connected = false;
+                    disconnect();
+
+                    // the filters are gone with the session, register the tasks again
+                    this.watched.values().forEach(watch -> watch.filter = null);
+                    this.unregistered.addAll(this.watched.values());
+                    this.watched.clear();
+
+                    if (failures >= MAX_RECONNECTS) {
+                        this.unregistered.forEach(watch -> complete(watch, null, e));
+                        this.unregistered.clear();
+                        failures = 0;
+                    } else {
+                        Thread.sleep(TimeUnit.SECONDS.toMillis(failures));
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            synchronized (this) {
+                this.unregistered.addAll(this.pending);
+                this.unregistered.addAll(this.watched.values());
+                this.unregistered.forEach(watch -> complete(watch, null, e));
+                this.pending.clear();
+                this.unregistered.clear();
+                this.watched.clear();
+                stop();
+            }
+        }
+    }
+
+    /**
+     * Logs out and marks the watcher as stopped, so that the next task starts a new thread. Must
+     * be called holding the monitor of the watcher, so that the new thread sees it logged out.
+     */
+    private void stop() {
+        this.connected = false;
+        disconnect();
+        this.running = false;
+    }
+
+    /**
+     * Moves the pending tasks to the ones to register, waiting for some if no task is watched.
+     *
+     * @return {@code false} if the watcher has been idle for too long and must stop
+     */
+    private boolean takePending() throws InterruptedException {
+        synchronized (this) {
+            if (this.watched.isEmpty() && this.unregistered.isEmpty()) {
+                long deadline = System.currentTimeMillis() + this.idleTimeoutMillis;
+                long remaining = this.idleTimeoutMillis;
+                while (this.pending.isEmpty() && remaining > 0) {
+                    wait(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+                if (this.pending.isEmpty()) {
+                    stop();
+                    return false;
+                }
+            }
+            this.unregistered.addAll(this.pending);
+            this.pending.clear();
+            return true;
+        }
+    }
+
+    /**
+     * Waits for updates, unless tasks are pending. A task submitted meanwhile cancels the wait.
+     *
+     * @return the updates, or {@code null} if none came before the wait timed out or was
+     *         canceled
+     */
+    private UpdateSet waitForUpdatesOrTasks() throws Exception {
+        synchronized (this) {
+            if (!this.pending.isEmpty()) {
+                return null;
+            }
+            this.waiting = true;
+        }
+        try {
+            return waitForUpdates(this.version);
+        } catch (RuntimeFaultFaultMsg e) {
+            if (e.getFaultInfo() instanceof RequestCanceled) {
+                // woken up by a new task, possibly one submitted during a previous wait
+                return null;
+            }
+            throw e;
+        } finally {
+            synchronized (this) {
+                this.waiting = false;
+                this.wakeUpRequested = false;
+            }
+        }
+    }
+
+    private void register() throws Exception {
+        while (!this.unregistered.isEmpty()) {
+            Watch watch = this.unregistered.get(this.unregistered.size() - 1);
+            try {
+                watch.filter = createFilter(watch.task);
+            } catch (InvalidPropertyFaultMsg | RuntimeFaultFaultMsg e) {
+                // the task does not exist, or cannot be watched
+                this.unregistered.remove(this.unregistered.size() - 1);
+                complete(watch, null, e);
+                continue;
+            }
+            this.unregistered.remove(this.unregistered.size() - 1);
+            this.watched.put(watch.task.getValue(), watch);
+            lagHistogram.record(TimeUnit.NANOSECONDS.toMicros(
+                    System.nanoTime() - watch.submittedNanos));
+        }
+    }
+
+    private void processUpdates(UpdateSet updateSet) throws Exception {
+        if (updateSet == null || updateSet.getFilterSet() == null) {
+            // timed out, nothing changed
+            return;
+        }
+        this.version = updateSet.getVersion();
+
+        for (PropertyFilterUpdate filterUpdate : updateSet.getFilterSet()) {
+            for (ObjectUpdate objectUpdate : filterUpdate.getObjectSet()) {
+                Watch watch = this.watched.get(objectUpdate.getObj().getValue());
+                if (watch == null) {
+                    continue;
+                }
+                if (objectUpdate.getKind() == ObjectUpdateKind.LEAVE) {
+                    finish(watch, null, new IllegalStateException("Task "
+                            + VimUtils.convertMoRefToString(watch.task) + " no longer exists"));
+                    continue;
+                }
+                for (PropertyChange change : objectUpdate.getChangeSet()) {
+                    if (!VimPath.task_info_state.equals(change.getName())) {
+                        continue;
+                    }
+                    TaskInfoState state = toTaskInfoState(change.getVal());
+                    if (state == TaskInfoState.SUCCESS || state == TaskInfoState.ERROR) {
+                        finish(watch, retrieveTaskInfo(watch.task), null);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts the value of the {@code info.state} property, which JAX-WS sometimes leaves as a
+     * DOM element.
+     */
+    static TaskInfoState toTaskInfoState(Object value) {
+        if (value instanceof TaskInfoState) {
+            return (TaskInfoState) value;
+        }
+        if (value instanceof Element) {
+            try {
+                return TaskInfoState.fromValue(((Element) value).getTextContent().trim());
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private void finish(Watch watch, TaskInfo info, Throwable failure) {
+        this.watched.remove(watch.task.getValue());
+        try {
+            destroyFilter(watch.filter);
+        } catch (Exception e) {
+            logger.log(Level.FINE, "Error destroying the filter of vSphere task "
+                    + VimUtils.convertMoRefToString(watch.task) + ": " + Utils.toString(e));
+        }
+        complete(watch, info, failure);
+    }
+
+    private void complete(Watch watch, TaskInfo info, Throwable failure) {
+        this.inFlight.decrementAndGet();
+        totalInFlight.decrementAndGet();
+        completionHistogram.record(TimeUnit.NANOSECONDS.toMicros(
+                System.nanoTime() - watch.submittedNanos));
+
+        this.completionExecutor.execute(() -> {
+            if (failure != null) {
+                watch.result.fail(failure);
+            } else {
+                watch.result.complete(info);
+            }
+        });
+    }
+
+    /**
+     * Logs in and creates the property collector of the watcher.
+     */
+    protected void connect() throws RuntimeFaultFaultMsg {
+        this.connection = this.connectionFactory.get();
+        this.propertyCollector = this.connection.getVimPort().createPropertyCollector(
+                this.connection.getServiceContent().getPropertyCollector());
+    }
+
+    /**
+     * Logs out, which destroys the property collector of the watcher and its filters.
+     */
+    protected void disconnect() {
+        if (this.connection != null) {
+            this.connection.closeQuietly();
+            this.connection = null;
+            this.propertyCollector = null;
+        }
+    }
+
+    protected ManagedObjectReference createFilter(ManagedObjectReference task)
+            throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
+        ObjectSpec objectSpec = new ObjectSpec();
+        objectSpec.setObj(task);
+        objectSpec.setSkip(Boolean.FALSE);
+
+        PropertySpec propertySpec = new PropertySpec();
+        propertySpec.setType(task.getType());
+        propertySpec.getPathSet().add(VimPath.task_info_state);
+
+        PropertyFilterSpec filterSpec = new PropertyFilterSpec();
+        filterSpec.getObjectSet().add(objectSpec);
+        filterSpec.getPropSet().add(propertySpec);
+
+        return this.connection.getVimPort().createFilter(this.propertyCollector, filterSpec,
+                true);
+    }
+
+    protected UpdateSet waitForUpdates(String version)
+            throws InvalidCollectorVersionFaultMsg, RuntimeFaultFaultMsg {
+        WaitOptions waitOptions = new WaitOptions();
+        waitOptions.setMaxWaitSeconds(MAX_WAIT_SECONDS);
+        return this.connection.getVimPort().waitForUpdatesEx(this.propertyCollector, version,
+                waitOptions);
+    }
+
+    /**
+     * Cancels the wait of the watcher thread. Called from the thread submitting a task, with the
+     * session of the watcher.
+     */
+    protected void cancelWaitForUpdates(Connection connection,
+            ManagedObjectReference propertyCollector) throws RuntimeFaultFaultMsg {
+        connection.getVimPort().cancelWaitForUpdates(propertyCollector);
+    }
+
+    protected TaskInfo retrieveTaskInfo(ManagedObjectReference task)
+            throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
+        return new GetMoRef(this.connection).entityProp(task, VimPath.task_info);
+    }
+
+    protected void destroyFilter(ManagedObjectReference filter) throws RuntimeFaultFaultMsg {
+        if (filter != null && this.connection != null) {
+            this.connection.getVimPort().destroyPropertyFilter(filter);
+        }
+    }
+}
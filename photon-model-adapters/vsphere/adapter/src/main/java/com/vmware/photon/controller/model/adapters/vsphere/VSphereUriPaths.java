@@ -40,6 +40,7 @@ public class VSphereUriPaths {
     public static final String HEALTH_SERVICE = PROVISIONING + "/health-adapter";
     public static final String ENUMERATION_SERVICE = PROVISIONING + "/enumeration-adapter";
     public static final String INCREMENTAL_ENUMERATION_SERVICE = PROVISIONING + "/incremental-enumeration-adapter";
+    public static final String ENUMERATION_CHECKPOINT_SERVICE = PROVISIONING + "/enumeration-checkpoints";
     public static final String IMAGE_ENUMERATION_SERVICE = PROVISIONING + "/image-enumeration-adapter";
     public static final String STATS_SERVICE = PROVISIONING + "/stats-adapter";
     public static final String ENDPOINT_CONFIG_ADAPTER = PROVISIONING + "/endpoint-config-adapter";
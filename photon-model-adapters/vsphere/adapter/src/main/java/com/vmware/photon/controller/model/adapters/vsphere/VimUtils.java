@@ -24,6 +24,7 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.GregorianCalendar;
 import java.util.Objects;
+import java.util.concurrent.CompletionException;
 
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
@@ -43,6 +44,8 @@ import com.vmware.vim25.MethodFault;
 import com.vmware.vim25.RuntimeFaultFaultMsg;
 import com.vmware.vim25.TaskInfo;
 import com.vmware.vim25.TaskInfoState;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.OperationContext;
 import com.vmware.xenon.common.Utils;
 
 /**
@@ -88,6 +91,22 @@ public final class VimUtils {
         throw ex;
     }
 
+    /**
+     * Returns the given info if its task succeeded, otherwise throws a {@link CompletionException}
+     * wrapping the fault of the task as {@link #rethrow(LocalizedMethodFault)} does. Meant for the
+     * continuations of {@link #watchTaskEnd(Connection, ManagedObjectReference)}.
+     */
+    public static TaskInfo requireSuccess(TaskInfo info) {
+        if (info.getState() == TaskInfoState.ERROR) {
+            try {
+                rethrow(info.getError());
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }
+        return info;
+    }
+
     /**
      * Converts an URI in the format file://datastoreName/path/to/file to a string like
      * "[datastoreName] /path/to/file".
@@ -233,6 +252,12 @@ public final class VimUtils {
         return ref;
     }
 
+    /**
+     * Blocks until the given task succeeds or fails, with a property collector of the connection.
+     * Flows which can continue asynchronously should use
+     * {@link #watchTaskEnd(Connection, ManagedObjectReference)} instead, which does not hold the
+     * calling thread.
+     */
     public static TaskInfo waitTaskEnd(Connection connection, ManagedObjectReference task)
             throws InvalidCollectorVersionFaultMsg, InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
         WaitForValues waitForValues = new WaitForValues(connection);
@@ -248,6 +273,44 @@ public final class VimUtils {
         return (TaskInfo) info[0];
     }
 
+    /**
+     * Watches the given task with the {@link VSphereTaskWatcher} of the vCenter, so that the
+     * calling thread is released until the task succeeds or fails. If the task cannot be watched
+     * so, blocks until it ends instead.
+     * <p>
+     * Continuations run with the operation context of the calling thread, which is reset
+     * afterwards; those which call vCenter must still be submitted to the
+     * {@link VSphereIOThreadPool}.
+     */
+    public static DeferredResult<TaskInfo> watchTaskEnd(Connection connection,
+            ManagedObjectReference task) {
+        VSphereTaskWatcher watcher = VSphereTaskWatcher.of(connection);
+        if (watcher != null) {
+            OperationContext operationContext = OperationContext.getOperationContext();
+            DeferredResult<TaskInfo> result = new DeferredResult<>();
+            watcher.watch(task).whenComplete((info, e) -> {
+                OperationContext previous = OperationContext.getOperationContext();
+                OperationContext.restoreOperationContext(operationContext);
+                try {
+                    if (e != null) {
+                        result.fail(e);
+                    } else {
+                        result.complete(info);
+                    }
+                } finally {
+                    OperationContext.restoreOperationContext(previous);
+                }
+            });
+            return result;
+        }
+
+        try {
+            return DeferredResult.completed(waitTaskEnd(connection, task));
+        } catch (Exception e) {
+            return DeferredResult.failed(e);
+        }
+    }
+
     public static boolean isVirtualMachine(ManagedObjectReference obj) {
         if (obj == null) {
             return false;
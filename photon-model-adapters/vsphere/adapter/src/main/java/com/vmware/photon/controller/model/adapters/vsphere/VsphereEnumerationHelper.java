@@ -18,6 +18,7 @@ import static com.vmware.photon.controller.model.adapters.vsphere.util.VimNames.
 import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -37,7 +38,6 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.vmware.photon.controller.model.adapters.util.TagsUtil;
 import com.vmware.photon.controller.model.adapters.vsphere.vapi.RpcException;
 import com.vmware.photon.controller.model.adapters.vsphere.vapi.TaggingClient;
-import com.vmware.photon.controller.model.adapters.vsphere.vapi.VapiConnection;
 import com.vmware.photon.controller.model.query.QueryUtils;
 import com.vmware.photon.controller.model.resources.ComputeService;
 import com.vmware.photon.controller.model.resources.ComputeService.ComputeStateWithDescription;
@@ -66,6 +66,11 @@ public class VsphereEnumerationHelper {
 
     static final long QUERY_TASK_EXPIRY_MICROS = TimeUnit.MINUTES.toMicros(1);
 
+    /**
+     * The number of objects whose attached tags are listed in one call.
+     */
+    static final int TAGGING_BULK_SIZE = Integer.getInteger("vsphere.tagging.bulk.size", 200);
+
     public static String getSelfLinkFromOperation(Operation o) {
         return o.getBody(ServiceDocument.class).documentSelfLink;
     }
@@ -166,14 +171,18 @@ public class VsphereEnumerationHelper {
     }
 
     /**
-     * Builds a function to retrieve tags given and endpoint.
+     * Builds a function to retrieve tags given and endpoint. The names of the categories are
+     * cached too.
      *
+     * @param service
      * @param client
      * @return
      */
-    static Function<String, TagState> newTagRetriever(TaggingClient client) {
+    static Function<String, TagState> newTagRetriever(VSphereIncrementalEnumerationService service,
+            TaggingClient client) {
         return (tagId) -> {
             try {
+                service.getTaggingStats().tagModelCall();
                 ObjectNode tagModel = client.getTagModel(tagId);
                 if (tagModel == null) {
                     return null;
@@ -181,8 +190,16 @@ public class VsphereEnumerationHelper {
 
                 TagState res = new TagState();
                 res.value = tagModel.get("name").asText();
-                res.key = client.getCategoryName(tagModel.get("category_id").asText());
-                return res;
+                res.key = service.getTagCache().getCategoryName(
+                        tagModel.get("category_id").asText(), catId -> {
+                            service.getTaggingStats().tagCategoryCall();
+                            try {
+                                return client.getCategoryName(catId);
+                            } catch (IOException | RpcException e) {
+                                return null;
+                            }
+                        });
+                return res.key == null ? null : res;
             } catch (IOException | RpcException e) {
                 return null;
             }
@@ -190,21 +207,62 @@ public class VsphereEnumerationHelper {
     }
 
     /**
-     * Retreives all tags for a MoRef from an endpoint.
+     * Lists the tags attached to the given objects, {@link #TAGGING_BULK_SIZE} objects per call,
+     * ahead of processing them, so that {@link #retrieveAttachedTags} does not list them one
+     * object at a time. When the tags cannot be listed in bulk, e.g. before vSphere 6.5, they are
+     * listed per object as before.
+     */
+    static void prefetchAttachedTags(VSphereIncrementalEnumerationService service,
+            EnumerationProgress enumerationProgress, List<ManagedObjectReference> refs) {
+        if (refs.isEmpty() || enumerationProgress.getEndpoint() == null) {
+            return;
+        }
+
+        TaggingClient taggingClient = enumerationProgress.getEndpoint().newTaggingClient();
+        for (int i = 0; i < refs.size(); i += TAGGING_BULK_SIZE) {
+            List<ManagedObjectReference> batch = refs.subList(i,
+                    Math.min(refs.size(), i + TAGGING_BULK_SIZE));
+            Map<String, List<String>> tagIds;
+            try {
+                service.getTaggingStats().bulkAttachedTagCall();
+                tagIds = taggingClient.getAttachedTags(batch);
+            } catch (IOException | RpcException e) {
+                service.logFine("Cannot list attached tags in bulk, listing them per object: %s",
+                        e.getMessage());
+                return;
+            }
+            for (ManagedObjectReference ref : batch) {
+                String key = VimUtils.convertMoRefToString(ref);
+                // objects without tags are not listed
+                enumerationProgress.putAttachedTags(key,
+                        tagIds.getOrDefault(key, Collections.emptyList()));
+            }
+        }
+    }
+
+    /**
+     * Retreives all tags for a MoRef from an endpoint, using the tags listed by
+     * {@link #prefetchAttachedTags} if any.
      *
      * @return empty list if no tags found, never null
      */
     static List<TagState> retrieveAttachedTags(
-            VSphereIncrementalEnumerationService service, VapiConnection endpoint,
-            ManagedObjectReference ref, List<String> tenantLinks) throws IOException, RpcException {
-        TaggingClient taggingClient = endpoint.newTaggingClient();
-        List<String> tagIds = taggingClient.getAttachedTags(ref);
+            VSphereIncrementalEnumerationService service, EnumerationProgress enumerationProgress,
+            ManagedObjectReference ref) throws IOException, RpcException {
+        TaggingClient taggingClient = enumerationProgress.getEndpoint().newTaggingClient();
+        List<String> tagIds = enumerationProgress.getAttachedTags(ref);
+        if (tagIds == null) {
+            service.getTaggingStats().attachedTagCall();
+            tagIds = taggingClient.getAttachedTags(ref);
+        }
 
         List<TagState> res = new ArrayList<>();
         for (String id : tagIds) {
-            TagState cached = service.getTagCache().get(id, newTagRetriever(taggingClient));
+            service.getTaggingStats().tagLookup();
+            TagState cached = service.getTagCache().get(id, newTagRetriever(service, taggingClient));
             if (cached != null) {
-                TagState tag = TagsUtil.newTagState(cached.key, cached.value, true, tenantLinks);
+                TagState tag = TagsUtil.newTagState(cached.key, cached.value, true,
+                        enumerationProgress.getTenantLinks());
                 res.add(tag);
             }
         }
@@ -236,11 +294,11 @@ public class VsphereEnumerationHelper {
      * and the selfLinks are collected ready to be used in a ComputeState#tagLinks.
      */
     static Set<String> retrieveTagLinksAndCreateTagsAsync(
-            VSphereIncrementalEnumerationService service, VapiConnection endpoint,
-            ManagedObjectReference ref, List<String> tenantLinks) {
+            VSphereIncrementalEnumerationService service, EnumerationProgress enumerationProgress,
+            ManagedObjectReference ref) {
         List<TagState> tags = null;
         try {
-            tags = retrieveAttachedTags(service, endpoint, ref, tenantLinks);
+            tags = retrieveAttachedTags(service, enumerationProgress, ref);
         } catch (IOException | RpcException ignore) {
 
         }
@@ -251,8 +309,8 @@ public class VsphereEnumerationHelper {
     static void populateTags(
             VSphereIncrementalEnumerationService service, EnumerationProgress enumerationProgress,
             AbstractOverlay obj, ResourceState state) {
-        state.tagLinks = retrieveTagLinksAndCreateTagsAsync(service, enumerationProgress.getEndpoint(),
-                obj.getId(), enumerationProgress.getTenantLinks());
+        state.tagLinks = retrieveTagLinksAndCreateTagsAsync(service, enumerationProgress,
+                obj.getId());
     }
 
     static void submitWorkToVSpherePool(VSphereIncrementalEnumerationService service, Runnable work) {
@@ -277,9 +335,7 @@ public class VsphereEnumerationHelper {
                                 ResourceState patchResponse) {
         List<TagState> tags;
         try {
-            tags = retrieveAttachedTags(service, enumerationProgress.getEndpoint(),
-                    obj.getId(),
-                    enumerationProgress.getTenantLinks());
+            tags = retrieveAttachedTags(service, enumerationProgress, obj.getId());
         } catch (IOException | RpcException e) {
             service.logWarning("Error updating local tags for %s", patchResponse.documentSelfLink);
             return;
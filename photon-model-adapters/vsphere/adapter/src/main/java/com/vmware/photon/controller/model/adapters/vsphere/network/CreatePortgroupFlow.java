@@ -16,6 +16,7 @@ package com.vmware.photon.controller.model.adapters.vsphere.network;
 import static com.vmware.photon.controller.model.UriPaths.IAAS_API_ENABLED;
 
 import java.util.Map;
+import java.util.function.Consumer;
 
 import com.vmware.photon.controller.model.adapterapi.SubnetInstanceRequest;
 import com.vmware.photon.controller.model.adapters.vsphere.CustomProperties;
@@ -33,7 +34,6 @@ import com.vmware.vim25.DistributedVirtualPortgroupPortgroupType;
 import com.vmware.vim25.InvalidPropertyFaultMsg;
 import com.vmware.vim25.ManagedObjectReference;
 import com.vmware.vim25.RuntimeFaultFaultMsg;
-import com.vmware.vim25.TaskInfo;
 import com.vmware.vim25.TaskInfoState;
 import com.vmware.xenon.common.DeferredResult;
 import com.vmware.xenon.common.Operation;
@@ -94,21 +94,23 @@ public class CreatePortgroupFlow extends BaseVsphereNetworkProvisionFlow {
                             res.fail(throwable);
                             return;
                         }
-                        getVsphereIoPool().submit(this.networkState.adapterManagementReference,
-                                authCredentialsServiceState, createPortgroupInVsphere(res));
+                        createPortgroupInVsphere(res, callback -> getVsphereIoPool().submit(
+                                this.networkState.adapterManagementReference,
+                                authCredentialsServiceState, callback));
                     });
         } else {
-            getVsphereIoPool().submit(getService(),
+            createPortgroupInVsphere(res, callback -> getVsphereIoPool().submit(getService(),
                     this.networkState.adapterManagementReference,
                     this.networkState.authCredentialsLink,
-                    createPortgroupInVsphere(res));
+                    callback));
         }
 
         return res;
     }
 
-    private ConnectionCallback createPortgroupInVsphere(DeferredResult<Void> result) {
-        return (connection, error) -> {
+    private void createPortgroupInVsphere(DeferredResult<Void> result,
+            Consumer<ConnectionCallback> submitter) {
+        submitter.accept((connection, error) -> {
             if (error != null) {
                 result.fail(error);
                 return;
@@ -128,21 +130,34 @@ public class CreatePortgroupFlow extends BaseVsphereNetworkProvisionFlow {
                 return;
             }
 
-            TaskInfo taskInfo;
-            try {
-                taskInfo = VimUtils.waitTaskEnd(connection, task);
-            } catch (Exception e) {
-                result.fail(e);
-                return;
-            }
+            // the task is watched without holding the connection or this thread, the portgroup
+            // is then read with a connection borrowed anew
+            VimUtils.watchTaskEnd(connection, task).whenComplete((taskInfo, e) -> {
+                if (e != null) {
+                    result.fail(e);
+                    return;
+                }
 
-            if (taskInfo.getState() != TaskInfoState.SUCCESS) {
-                IllegalStateException e = new IllegalStateException(taskInfo.getError().getLocalizedMessage());
-                result.fail(e);
+                if (taskInfo.getState() != TaskInfoState.SUCCESS) {
+                    result.fail(new IllegalStateException(
+                            taskInfo.getError().getLocalizedMessage()));
+                    return;
+                }
+
+                submitter.accept(updateSubnet(result,
+                        (ManagedObjectReference) taskInfo.getResult()));
+            });
+        });
+    }
+
+    private ConnectionCallback updateSubnet(DeferredResult<Void> result,
+            ManagedObjectReference pg) {
+        return (connection, error) -> {
+            if (error != null) {
+                result.fail(error);
                 return;
             }
 
-            ManagedObjectReference pg = (ManagedObjectReference) taskInfo.getResult();
             AssertUtil.assertNotNull(pg, "MoRef of dvPortGroup");
 
             String pgKey = null;
@@ -24,7 +24,6 @@ import com.vmware.photon.controller.model.resources.SessionUtil;
 import com.vmware.photon.controller.model.resources.SubnetService.SubnetState;
 import com.vmware.photon.controller.model.util.PhotonModelUriUtils;
 import com.vmware.vim25.ManagedObjectReference;
-import com.vmware.vim25.TaskInfo;
 import com.vmware.vim25.TaskInfoState;
 import com.vmware.xenon.common.DeferredResult;
 import com.vmware.xenon.common.Operation;
@@ -124,23 +123,23 @@ public class DeletePortgroupFlow extends BaseVsphereNetworkProvisionFlow {
                 return;
             }
 
-            TaskInfo taskInfo;
-            try {
-                taskInfo = VimUtils.waitTaskEnd(connection, task);
-            } catch (Exception e) {
-                result.fail(e);
-                return;
-            }
-
-            if (taskInfo.getState() != TaskInfoState.SUCCESS) {
-                IllegalStateException e = new IllegalStateException(taskInfo.getError().getLocalizedMessage());
-                result.fail(e);
-                return;
-            }
-
-            // finish task
-            getTaskManager().patchTask(TaskStage.FINISHED);
-            result.complete(null);
+            // the task is watched without holding the connection or this thread
+            VimUtils.watchTaskEnd(connection, task).whenComplete((taskInfo, e) -> {
+                if (e != null) {
+                    result.fail(e);
+                    return;
+                }
+
+                if (taskInfo.getState() != TaskInfoState.SUCCESS) {
+                    result.fail(new IllegalStateException(
+                            taskInfo.getError().getLocalizedMessage()));
+                    return;
+                }
+
+                // finish task
+                getTaskManager().patchTask(TaskStage.FINISHED);
+                result.complete(null);
+            });
         };
     }
 
@@ -50,7 +50,7 @@ public class CountingEntityWrapper extends HttpEntityWrapper {
             @Override
             public void write(byte[] b, int off, int len) throws IOException {
                 this.out.write(b, off, len);
-                CountingEntityWrapper.this.updater.advance(len - off);
+                CountingEntityWrapper.this.updater.advance(len);
             }
         });
     }
@@ -16,6 +16,7 @@ package com.vmware.photon.controller.model.adapters.vsphere.ovf;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
@@ -34,7 +35,8 @@ import com.vmware.vim25.TimedoutFaultMsg;
 import com.vmware.vim25.VimPortType;
 
 /**
- * Keeps an HttpNfcLease alive, updating the progress every few seconds.
+ * Keeps an HttpNfcLease alive, updating the progress every few seconds. The progress is the
+ * total of the bytes uploaded for all disks of the lease, which may be uploaded in parallel.
  */
 public class LeaseProgressUpdater {
     public static final int LEASE_UPDATE_INTERVAL_MILLIS = 10000;
@@ -48,6 +50,8 @@ public class LeaseProgressUpdater {
     private final ManagedObjectReference nfcLease;
     private final AtomicLong reported = new AtomicLong(0);
     private final AtomicBoolean done = new AtomicBoolean(false);
+    private final AtomicInteger disks = new AtomicInteger();
+    private final AtomicInteger completedDisks = new AtomicInteger();
     private final long total;
     private final Connection connection;
     private final GetMoRef get;
@@ -68,6 +72,38 @@ public class LeaseProgressUpdater {
         this.reported.addAndGet(delta);
     }
 
+    /**
+     * Adds disks being uploaded, whose bytes are reported with {@link #advance(long)}.
+     */
+    public void addDisks(int count) {
+        this.disks.addAndGet(count);
+    }
+
+    public void completeDisk() {
+        this.completedDisks.incrementAndGet();
+    }
+
+    /**
+     * Returns the percentage of the bytes of all disks reported so far, which is 100 only once
+     * all of them were reported.
+     */
+    public int getProgressPercent() {
+        long reported = this.reported.get();
+        int pct = (int) Math.floor((double) reported / this.total * 100);
+
+        // normalize pct
+        if (pct > 100) {
+            pct = 100;
+        } else if (pct < 0) {
+            pct = 0;
+        }
+        if (pct >= 100 && reported != this.total) {
+            // rounding got to 100 but still not done
+            pct = 99;
+        }
+        return pct;
+    }
+
     public void complete() {
         this.done.set(true);
 
@@ -101,21 +137,11 @@ public class LeaseProgressUpdater {
     }
 
     private void updateLease() throws TimedoutFaultMsg, RuntimeFaultFaultMsg {
-        long reported = this.reported.get();
-        int pct = (int) Math.floor((double) reported / this.total * 100);
-
-        // normalize pct
-        if (pct > 100) {
-            pct = 100;
-        } else if (pct < 0) {
-            pct = 0;
-        }
-        if (pct >= 100 && reported != this.total) {
-            // rounding got to 100 but still not done
-            pct = 99;
-        }
+        int pct = getProgressPercent();
 
-        logger.info("Updating nfcLease {}: {} %", VimUtils.convertMoRefToString(this.nfcLease), pct);
+        logger.info("Updating nfcLease {}: {} % ({}/{} disks)",
+                VimUtils.convertMoRefToString(this.nfcLease), pct, this.completedDisks.get(),
+                this.disks.get());
         getVimPort().httpNfcLeaseProgress(this.nfcLease, pct);
     }
 
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.vsphere.ovf;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Directory of the OVAs extracted by {@link OvfRetriever}, with a folder per OVA, bounded in size
+ * by evicting the least recently used folders.
+ * <p>
+ * A folder is only used once its marker file is written, after the archive was read completely.
+ * The marker records the size of each extracted file, and a folder whose files do not match it,
+ * for example because they were truncated or deleted, is extracted again.
+ */
+public class OvaExtractionCache {
+
+    public static final String MARKER_FILE = "status.properties";
+
+    /**
+     * Size of the extracted OVAs above which the least recently used ones are deleted.
+     */
+    public static final long DEFAULT_MAX_SIZE_BYTES = Long.getLong("vsphere.ova.cache.max.bytes",
+            20L * 1024 * 1024 * 1024);
+
+    /**
+     * Folders used more recently are not evicted, as an import may still be reading them.
+     */
+    public static final long MIN_IDLE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Marker property prefix of the size of an extracted file.
+     */
+    public static final String PROP_FILE_PREFIX = "file.";
+
+    private static final Logger logger = LoggerFactory.getLogger(OvaExtractionCache.class.getName());
+
+    private static final ConcurrentMap<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+
+    private final File baseDir;
+    private final long maxSizeBytes;
+
+    public OvaExtractionCache(File baseDir) {
+        this(baseDir, DEFAULT_MAX_SIZE_BYTES);
+    }
+
+    public OvaExtractionCache(File baseDir, long maxSizeBytes) {
+        this.baseDir = baseDir;
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    public File getFolder(String name) {
+        return new File(this.baseDir, name);
+    }
+
+    /**
+     * Returns the lock to hold while a folder is read or extracted, shared by the caches of the
+     * same base directory. Folders whose lock is held are never evicted.
+     */
+    public ReentrantLock getLock(File folder) {
+        return locks.computeIfAbsent(folder.getAbsolutePath(), k -> new ReentrantLock());
+    }
+
+    /**
+     * Returns the marker of the given folder and marks the folder as recently used, or
+     * {@code null} if it was not completely extracted or its files changed since.
+     */
+    public Properties getMarker(File folder) {
+        File markerFile = new File(folder, MARKER_FILE);
+        if (!markerFile.isFile()) {
+            return null;
+        }
+
+        Properties marker = new Properties();
+        try (InputStream is = new FileInputStream(markerFile)) {
+            marker.load(is);
+        } catch (IOException e) {
+            logger.warn("Cannot read marker file {}", markerFile, e);
+            return null;
+        }
+
+        for (String key : marker.stringPropertyNames()) {
+            if (!key.startsWith(PROP_FILE_PREFIX)) {
+                continue;
+            }
+            File file = new File(folder, key.substring(PROP_FILE_PREFIX.length()));
+            if (file.length() != Long.parseLong(marker.getProperty(key))) {
+                logger.warn("{} does not match its marker, discarding {}", file, folder);
+                return null;
+            }
+        }
+
+        markerFile.setLastModified(System.currentTimeMillis());
+        return marker;
+    }
+
+    /**
+     * Records the sizes of the files extracted into the given folder in its marker, then writes
+     * the marker, which makes the folder usable.
+     */
+    public void commit(File folder, Properties marker) throws IOException {
+        File[] files = folder.listFiles(File::isFile);
+        if (files != null) {
+            for (File file : files) {
+                marker.setProperty(PROP_FILE_PREFIX + file.getName(),
+                        Long.toString(file.length()));
+            }
+        }
+
+        // write next to the marker and rename, so that a partial marker is never read
+        File tmp = new File(folder, MARKER_FILE + ".tmp");
+        try (OutputStream os = new FileOutputStream(tmp)) {
+            marker.store(os, null);
+        }
+        if (!tmp.renameTo(new File(folder, MARKER_FILE))) {
+            throw new IOException("Cannot write marker file in " + folder);
+        }
+    }
+
+    /**
+     * Deletes the least recently used folders, except the given one, until the cache fits its
+     * max size. Folders which were not used for a while without being completely extracted are
+     * left over by failed extractions and deleted first. Folders being extracted, whose lock is
+     * held, are skipped.
+     */
+    public void evict(File keep) {
+        File[] folders = this.baseDir.listFiles(File::isDirectory);
+        if (folders == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long totalSize = 0;
+        List<File> candidates = new ArrayList<>();
+        for (File folder : folders) {
+            File marker = new File(folder, MARKER_FILE);
+            if (!marker.isFile() && now - folder.lastModified() > MIN_IDLE_MILLIS
+                    && deleteIncomplete(folder)) {
+                continue;
+            }
+            totalSize += sizeOf(folder);
+            if (!folder.equals(keep) && marker.isFile()
+                    && now - marker.lastModified() > MIN_IDLE_MILLIS) {
+                candidates.add(folder);
+            }
+        }
+
+        candidates.sort(Comparator.comparingLong(f -> new File(f, MARKER_FILE).lastModified()));
+        for (File folder : candidates) {
+            if (totalSize <= this.maxSizeBytes) {
+                break;
+            }
+            ReentrantLock lock = getLock(folder);
+            if (!lock.tryLock()) {
+                continue;
+            }
+            try {
+                long size = sizeOf(folder);
+                logger.info("Evicting extracted OVA {} ({} bytes)", folder, size);
+                delete(folder);
+                totalSize -= size;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Deletes the given folder if it is still not completely extracted and no extraction is in
+     * progress. The modification time of a folder does not change while a large file in it is
+     * written, so only its lock tells whether it is still being extracted.
+     */
+    private boolean deleteIncomplete(File folder) {
+        ReentrantLock lock = getLock(folder);
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            if (new File(folder, MARKER_FILE).isFile()) {
+                return false;
+            }
+            logger.info("Deleting incomplete OVA extraction {}", folder);
+            delete(folder);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static long sizeOf(File file) {
+        if (file.isFile()) {
+            return file.length();
+        }
+        long size = 0;
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                size += sizeOf(child);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Deletes the given file or folder with its content.
+     */
+    public static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            logger.warn("Cannot delete {}", file);
+        }
+    }
+}
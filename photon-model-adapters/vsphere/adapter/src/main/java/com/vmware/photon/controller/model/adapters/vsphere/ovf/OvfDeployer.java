@@ -13,28 +13,19 @@
 
 package com.vmware.photon.controller.model.adapters.vsphere.ovf;
 
-import java.io.File;
-import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.methods.HttpPut;
-import org.apache.http.entity.FileEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.vmware.photon.controller.model.adapters.vsphere.VimUtils;
+import com.vmware.photon.controller.model.adapters.vsphere.ovf.OvfDiskUploader.DiskUpload;
 import com.vmware.photon.controller.model.adapters.vsphere.util.connection.BaseHelper;
 import com.vmware.photon.controller.model.adapters.vsphere.util.connection.Connection;
 import com.vmware.photon.controller.model.adapters.vsphere.util.connection.GetMoRef;
@@ -50,7 +41,6 @@ import com.vmware.vim25.OvfFileItem;
 import com.vmware.vim25.OvfNetworkMapping;
 import com.vmware.vim25.VirtualMachineConfigSpec;
 import com.vmware.vim25.VmConfigSpec;
-import com.vmware.xenon.common.Operation;
 
 public class OvfDeployer extends BaseHelper {
     public static final String CONTENT_TYPE_VMDK = "application/x-vnd.vmware-streamVmdk";
@@ -156,6 +146,7 @@ public class OvfDeployer extends BaseHelper {
 
             String basePath = extractBasePath(ovfUri);
 
+            List<DiskUpload> uploads = new ArrayList<>();
             for (HttpNfcLeaseDeviceUrl deviceUrl : deviceUrls) {
                 String deviceKey = deviceUrl.getImportKey();
 
@@ -164,12 +155,13 @@ public class OvfDeployer extends BaseHelper {
                         logger.debug("Importing device id: {}", deviceKey);
                         String sourceUri = computeDiskSourceUri(basePath, ovfFileItem);
                         String uploadUri = makUploadUri(ip, deviceUrl);
-                        uploadVmdkFile(ovfFileItem, sourceUri, uploadUri, leaseUpdater, this.ovfRetriever.getClient());
-                        logger.info("Completed uploading VMDK file {}", sourceUri);
+                        uploads.add(new DiskUpload(sourceUri, uploadUri, ovfFileItem.isCreate()));
                     }
                 }
             }
 
+            new OvfDiskUploader(this.ovfRetriever).uploadAll(uploads, leaseUpdater);
+
             // complete lease
             leaseUpdater.complete();
         } catch (Exception e) {
@@ -217,51 +209,6 @@ public class OvfDeployer extends BaseHelper {
                 .substring(0, ovfUri.toString().lastIndexOf("/") + 1);
     }
 
-    private void uploadVmdkFile(
-            OvfFileItem ovfFileItem,
-            String sourceUri,
-            String uploadUri,
-            LeaseProgressUpdater leaseUpdater,
-            HttpClient client) throws IOException {
-
-        //prepare upload method
-        HttpEntityEnclosingRequestBase upload;
-        if (ovfFileItem.isCreate()) {
-            upload = new HttpPut(uploadUri);
-        } else {
-            upload = new HttpPost(uploadUri);
-        }
-
-        upload.setHeader(Operation.CONTENT_TYPE_HEADER, CONTENT_TYPE_VMDK);
-
-        HttpEntity entityToUpload;
-
-        if (sourceUri.startsWith("file:/")) {
-            entityToUpload = new FileEntity(new File(URI.create(sourceUri)));
-        } else {
-            //prepare download method
-            HttpGet download = new HttpGet(sourceUri);
-
-            //start download
-            HttpResponse downloadResponse = client.execute(download);
-            entityToUpload = downloadResponse.getEntity();
-        }
-
-        //chain download to upload
-        upload.setEntity(newCountingEntity(entityToUpload, leaseUpdater));
-
-        //start chained upload
-        HttpResponse uploadResponse = client.execute(upload);
-
-        //block until upload completes
-        EntityUtils.consume(uploadResponse.getEntity());
-    }
-
-    private CountingEntityWrapper newCountingEntity(HttpEntity httpEntity,
-            LeaseProgressUpdater leaseUpdater) {
-        return new CountingEntityWrapper(httpEntity, leaseUpdater);
-    }
-
     public OvfRetriever getRetriever() {
         return this.ovfRetriever;
     }
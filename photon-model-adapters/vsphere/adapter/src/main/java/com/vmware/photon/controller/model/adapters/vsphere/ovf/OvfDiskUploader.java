@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.vsphere.ovf;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.FileEntity;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vmware.xenon.common.Operation;
+
+/**
+ * Uploads the disks of an HttpNfcLease, up to {@link #DEFAULT_CONCURRENCY} at a time. Each disk
+ * is streamed from its source, as returned by {@link OvfRetriever#newDiskRequest(String)}, to its
+ * device url, advancing the progress of the lease.
+ * <p>
+ * The first failed upload aborts the others, as the lease is aborted anyway.
+ */
+public class OvfDiskUploader {
+
+    public static final int DEFAULT_CONCURRENCY = Integer.getInteger(
+            "vsphere.ovf.upload.concurrency", 4);
+
+    private static final Logger logger = LoggerFactory.getLogger(OvfDiskUploader.class.getName());
+
+    /**
+     * A disk to upload from its source to a device url of a lease.
+     */
+    public static class DiskUpload {
+        public final String sourceUri;
+        public final String uploadUri;
+        public final boolean create;
+
+        public DiskUpload(String sourceUri, String uploadUri, boolean create) {
+            this.sourceUri = sourceUri;
+            this.uploadUri = uploadUri;
+            this.create = create;
+        }
+    }
+
+    private final OvfRetriever retriever;
+    private final int concurrency;
+
+    // The requests of the ongoing uploads, aborted on failure. Guarded by itself.
+    private final List<HttpRequestBase> requests = new ArrayList<>();
+    private boolean aborted;
+
+    public OvfDiskUploader(OvfRetriever retriever) {
+        this(retriever, DEFAULT_CONCURRENCY);
+    }
+
+    public OvfDiskUploader(OvfRetriever retriever, int concurrency) {
+        this.retriever = retriever;
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * Uploads the given disks, returning once all are uploaded or throwing the failure of the
+     * first one which could not be.
+     */
+    public void uploadAll(List<DiskUpload> uploads, LeaseProgressUpdater leaseUpdater)
+            throws Exception {
+        if (uploads.isEmpty()) {
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(this.concurrency, uploads.size()));
+        CompletionService<DiskUpload> completionService = new ExecutorCompletionService<>(
+                executor);
+        List<Future<DiskUpload>> futures = new ArrayList<>(uploads.size());
+        synchronized (this.requests) {
+            this.requests.clear();
+            this.aborted = false;
+        }
+        leaseUpdater.addDisks(uploads.size());
+
+        try {
+            for (DiskUpload upload : uploads) {
+                futures.add(completionService.submit(() -> {
+                    upload(upload, leaseUpdater);
+                    return upload;
+                }));
+            }
+
+            for (int i = 0; i < uploads.size(); i++) {
+                try {
+                    DiskUpload upload = completionService.take().get();
+                    leaseUpdater.completeDisk();
+                    logger.info("Completed uploading VMDK file {}", upload.sourceUri);
+                } catch (ExecutionException e) {
+                    abort(futures);
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        } catch (InterruptedException e) {
+            abort(futures);
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void abort(List<Future<DiskUpload>> futures) {
+        futures.forEach(f -> f.cancel(true));
+        synchronized (this.requests) {
+            this.aborted = true;
+            this.requests.forEach(HttpRequestBase::abort);
+        }
+    }
+
+    private void register(HttpRequestBase request) throws IOException {
+        synchronized (this.requests) {
+            if (this.aborted) {
+                throw new IOException("Upload aborted");
+            }
+            this.requests.add(request);
+        }
+    }
+
+    private void upload(DiskUpload diskUpload, LeaseProgressUpdater leaseUpdater)
+            throws IOException {
+        HttpClient client = this.retriever.getClient();
+        logger.debug("Uploading {} to {}", diskUpload.sourceUri, diskUpload.uploadUri);
+
+        //prepare upload method
+        HttpEntityEnclosingRequestBase upload;
+        if (diskUpload.create) {
+            upload = new HttpPut(diskUpload.uploadUri);
+        } else {
+            upload = new HttpPost(diskUpload.uploadUri);
+        }
+
+        upload.setHeader(Operation.CONTENT_TYPE_HEADER, OvfDeployer.CONTENT_TYPE_VMDK);
+
+        HttpEntity entityToUpload;
+        HttpGet download = this.retriever.newDiskRequest(diskUpload.sourceUri);
+        if (download == null) {
+            entityToUpload = new FileEntity(new File(URI.create(diskUpload.sourceUri)));
+        } else {
+            //start download
+            register(download);
+            HttpResponse downloadResponse = client.execute(download);
+            if (downloadResponse.getStatusLine().getStatusCode() >= 300) {
+                EntityUtils.consumeQuietly(downloadResponse.getEntity());
+                throw new IOException("Cannot download " + diskUpload.sourceUri + ": "
+                        + downloadResponse.getStatusLine());
+            }
+            entityToUpload = downloadResponse.getEntity();
+        }
+
+        //chain download to upload
+        upload.setEntity(new CountingEntityWrapper(entityToUpload, leaseUpdater));
+
+        //start chained upload
+        register(upload);
+        HttpResponse uploadResponse = client.execute(upload);
+
+        //block until upload completes
+        EntityUtils.consume(uploadResponse.getEntity());
+        if (uploadResponse.getStatusLine().getStatusCode() >= 300) {
+            throw new IOException("Cannot upload " + diskUpload.sourceUri + ": "
+                    + uploadResponse.getStatusLine());
+        }
+    }
+}
@@ -16,6 +16,7 @@ package com.vmware.photon.controller.model.adapters.vsphere.ovf;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -29,6 +30,7 @@ import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.Date;
 import java.util.Properties;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
@@ -44,8 +46,12 @@ import javax.xml.parsers.SAXParserFactory;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.archivers.tar.TarUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.conn.ssl.X509HostnameVerifier;
@@ -61,15 +67,27 @@ import com.vmware.xenon.common.Utils;
 
 /**
  * Downloads an OVF descriptor over http or file. Only checks if the input is a valid xml.
+ * <p>
+ * OVAs are extracted to a folder of the {@link OvaExtractionCache}. When the server of the OVA
+ * supports range requests only the descriptors are downloaded, and the disks are later read
+ * straight out of the archive by {@link #newDiskRequest(String)}.
  */
 public class OvfRetriever {
 
     public static final int TAR_MAGIC_OFFSET = 0x101;
-    private static final String MARKER_FILE = "status.properties";
+
+    private static final String OVA_EXTRACTION_DIR = "photon-model-ova";
+
+    private static final String PROP_MODE = "mode";
+    private static final String PROP_ENTRY_PREFIX = "entry.";
+    private static final String MODE_STREAMED = "streamed";
+    private static final String MODE_EXTRACTED = "extracted";
+    private static final String PROP_DOWNLOAD_URI = "download-uri";
 
     private static final Logger logger = LoggerFactory.getLogger(OvfRetriever.class.getName());
 
     private HttpClient client;
+    private OvaExtractionCache extractionCache;
 
     /**
      * TAR magic numbers https://en.wikipedia.org/wiki/Tar_(computing)
@@ -91,8 +109,9 @@ public class OvfRetriever {
         return HttpClientBuilder.create()
                 .setHostnameVerifier(newNaiveVerifier())
                 .setSslcontext(newNaiveSslContext())
-                .setMaxConnPerRoute(4)
-                .setMaxConnTotal(8)
+                // each parallel disk upload holds a connection to the source and one to the host
+                .setMaxConnPerRoute(Math.max(4, OvfDiskUploader.DEFAULT_CONCURRENCY))
+                .setMaxConnTotal(2 * Math.max(4, OvfDiskUploader.DEFAULT_CONCURRENCY))
                 .build();
     }
 
@@ -258,18 +277,148 @@ public class OvfRetriever {
         }
 
         // it's an OVA (at least a tar file), download to a local folder
-        String folderName = hash(ovaOrOvfUri);
-        File destination = new File(getBaseOvaExtractionDir(), folderName);
-        if (new File(destination, MARKER_FILE).isFile()) {
-            // marker file exists so the archive is already downloaded
-            logger.info("Marker file for {} exists in {}, not downloading again", ovaOrOvfUri, destination);
-            return findFirstOvfInFolder(destination);
+        OvaExtractionCache cache = getExtractionCache();
+        File destination = cache.getFolder(hash(ovaOrOvfUri));
+        ReentrantLock lock = cache.getLock(destination);
+        lock.lock();
+        try {
+            if (cache.getMarker(destination) != null) {
+                // marker file exists so the archive is already downloaded
+                logger.info("Marker file for {} exists in {}, not downloading again", ovaOrOvfUri,
+                        destination);
+                return findFirstOvfInFolder(destination);
+            }
+
+            // left over by a failed or corrupted extraction
+            OvaExtractionCache.delete(destination);
+            destination.mkdirs();
+
+            Properties marker = new Properties();
+            if (indexOva(ovaOrOvfUri, destination, marker)) {
+                marker.setProperty(PROP_MODE, MODE_STREAMED);
+            } else {
+                OvaExtractionCache.delete(destination);
+                destination.mkdirs();
+                marker.clear();
+                extractOva(ovaOrOvfUri, destination);
+                marker.setProperty(PROP_MODE, MODE_EXTRACTED);
+            }
+
+            // store download progress
+            writeMarkerFile(destination, ovaOrOvfUri, marker);
+        } finally {
+            lock.unlock();
+        }
+
+        cache.evict(destination);
+
+        return findFirstOvfInFolder(destination);
+    }
+
+    /**
+     * Walks the headers of the OVA with range requests, downloading the descriptors to the
+     * destination and recording the offset and size of the disks in the marker.
+     *
+     * @return false if the server does not support range requests or the archive uses
+     * extended headers, in which case the OVA has to be extracted
+     */
+    private boolean indexOva(URI ovaUri, File destination, Properties marker)
+            throws IOException {
+        logger.info("Indexing OVA {} to {}", ovaUri, destination);
+
+        long offset = 0;
+        while (true) {
+            byte[] header = new byte[TarConstants.DEFAULT_RCDSIZE];
+            HttpResponse response = this.client.execute(
+                    newRangeRequest(ovaUri, offset, header.length));
+            try {
+                int status = response.getStatusLine().getStatusCode();
+                if (status == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE) {
+                    // past the end of an archive without end of archive blocks
+                    return true;
+                }
+                if (status != HttpStatus.SC_PARTIAL_CONTENT) {
+                    logger.info("{} does not support range requests, extracting OVA", ovaUri);
+                    return false;
+                }
+                if (IOUtils.read(response.getEntity().getContent(), header) != header.length
+                        || isZeroBlock(header)) {
+                    return true;
+                }
+            } finally {
+                EntityUtils.consumeQuietly(response.getEntity());
+            }
+
+            if (!TarUtils.verifyCheckSum(header)) {
+                logger.info("Unexpected tar header in {} at {}, extracting OVA", ovaUri, offset);
+                return false;
+            }
+            TarArchiveEntry entry = new TarArchiveEntry(header);
+            if (entry.isPaxHeader() || entry.isGlobalPaxHeader() || entry.isGNULongNameEntry()) {
+                logger.info("{} uses extended tar headers, extracting OVA", ovaUri);
+                return false;
+            }
+
+            long dataOffset = offset + header.length;
+            long size = entry.getSize();
+            if (entry.isDirectory()) {
+                new File(destination, entry.getName()).mkdirs();
+            } else if (isDescriptor(entry.getName()) || size == 0) {
+                downloadRange(ovaUri, dataOffset, size, new File(destination, entry.getName()));
+            } else {
+                marker.setProperty(PROP_ENTRY_PREFIX + entry.getName(), dataOffset + ":" + size);
+            }
+
+            // entries are padded to whole records
+            long records = (size + header.length - 1) / header.length;
+            offset = dataOffset + records * header.length;
+        }
+    }
+
+    private static boolean isDescriptor(String name) {
+        return name.endsWith(".ovf") || name.endsWith(".mf") || name.endsWith(".cert");
+    }
+
+    private static boolean isZeroBlock(byte[] header) {
+        for (byte b : header) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static HttpGet newRangeRequest(URI uri, long offset, long length) {
+        HttpGet get = new HttpGet(uri);
+        get.setHeader(HttpHeaders.RANGE, "bytes=" + offset + "-" + (offset + length - 1));
+        return get;
+    }
+
+    private void downloadRange(URI uri, long offset, long length, File file) throws IOException {
+        if (length == 0) {
+            file.createNewFile();
+            return;
+        }
+
+        HttpResponse response = this.client.execute(newRangeRequest(uri, offset, length));
+        try {
+            if (response.getStatusLine().getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT) {
+                throw new IOException("Cannot download " + file.getName() + " from " + uri + ": "
+                        + response.getStatusLine());
+            }
+            try (FileOutputStream fos = new FileOutputStream(file)) {
+                logger.debug("Downloading {} to {}", file.getName(), file.getAbsoluteFile());
+                IOUtils.copy(response.getEntity().getContent(), fos);
+            }
+        } finally {
+            EntityUtils.consumeQuietly(response.getEntity());
         }
+    }
 
-        destination.mkdirs();
+    private void extractOva(URI ovaUri, File destination) throws IOException {
         logger.info("Downloading OVA to {}", destination);
 
-        get = new HttpGet(ovaOrOvfUri);
+        HttpGet get = new HttpGet(ovaUri);
         HttpResponse response = null;
         try {
             response = this.client.execute(get);
@@ -283,11 +432,41 @@ public class OvfRetriever {
                 EntityUtils.consumeQuietly(response.getEntity());
             }
         }
+    }
+
+    /**
+     * Returns the request downloading a disk of an OVF, or {@code null} if the disk is a local
+     * file. A disk of an OVA which was not extracted is read from the archive with a range
+     * request.
+     */
+    public HttpGet newDiskRequest(String sourceUri) throws IOException {
+        if (!sourceUri.startsWith("file:/")) {
+            return new HttpGet(sourceUri);
+        }
 
-        // store download progress
-        writeMarkerFile(destination, ovaOrOvfUri);
+        File file = new File(URI.create(sourceUri));
+        if (file.isFile()) {
+            return null;
+        }
 
-        return findFirstOvfInFolder(destination);
+        // the ovf is at the root of the folder of the OVA, look up the marker from the disk
+        for (File folder = file.getParentFile(); folder != null; folder = folder.getParentFile()) {
+            Properties marker = getExtractionCache().getMarker(folder);
+            if (marker == null) {
+                continue;
+            }
+            String name = folder.toURI().relativize(file.toURI()).getPath();
+            String entry = marker.getProperty(PROP_ENTRY_PREFIX + name);
+            if (entry == null) {
+                break;
+            }
+            String[] offsetAndSize = entry.split(":");
+            URI ovaUri = URI.create(marker.getProperty(PROP_DOWNLOAD_URI));
+            return newRangeRequest(ovaUri, Long.parseLong(offsetAndSize[0]),
+                    Long.parseLong(offsetAndSize[1]));
+        }
+
+        throw new FileNotFoundException(file.getAbsolutePath());
     }
 
     protected URI findFirstOvfInFolder(File destination) throws IOException {
@@ -299,25 +478,22 @@ public class OvfRetriever {
         return files[0].toURI();
     }
 
-    private void writeMarkerFile(File destination, URI ovaOrOvfUri) {
-        Properties props = new Properties();
-        props.setProperty("download-uri", ovaOrOvfUri.toString());
+    private void writeMarkerFile(File destination, URI ovaOrOvfUri, Properties props)
+            throws IOException {
+        props.setProperty(PROP_DOWNLOAD_URI, ovaOrOvfUri.toString());
         props.setProperty("download-date", new Date().toString());
         props.setProperty("download-folder", destination.getAbsolutePath());
 
-        try {
-            File propFile = new File(destination, MARKER_FILE);
-            try (FileOutputStream fos = new FileOutputStream(propFile)) {
-                try {
-                    props.store(fos, null);
-                    logger.debug("Stored OVA download progress to {}", propFile.getAbsoluteFile());
-                } catch (IOException ignore) {
-
-                }
-            }
-        } catch (IOException e) {
+        getExtractionCache().commit(destination, props);
+        logger.debug("Stored OVA download progress to {}", destination.getAbsoluteFile());
+    }
 
+    protected synchronized OvaExtractionCache getExtractionCache() {
+        if (this.extractionCache == null) {
+            this.extractionCache = new OvaExtractionCache(
+                    new File(getBaseOvaExtractionDir(), OVA_EXTRACTION_DIR));
         }
+        return this.extractionCache;
     }
 
     protected String getBaseOvaExtractionDir() {
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.vsphere.stats;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.vmware.photon.controller.model.adapters.vsphere.VSphereIOThreadPool;
+import com.vmware.photon.controller.model.adapters.vsphere.VSphereSessionPool;
+import com.vmware.photon.controller.model.adapters.vsphere.VimUtils;
+import com.vmware.photon.controller.model.adapters.vsphere.util.connection.Connection;
+import com.vmware.vim25.InvalidPropertyFaultMsg;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+import com.vmware.xenon.common.OperationContext;
+import com.vmware.xenon.common.ServiceStats.ServiceStat;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.AuthCredentialsService.AuthCredentialsServiceState;
+
+/**
+ * Coalesces the stats queries of the VMs, hosts and clusters of an endpoint, which the stats
+ * collection sends one compute at a time, into queryPerf calls of up to {@link #BATCH_SIZE} query
+ * specs. A batch is sent when full, or {@link #LINGER_MILLIS} after its first query. The fetched
+ * metrics are handed back to each query separately, under the {@link OperationContext} of the
+ * query.
+ * <p>
+ * If the query of a batch fails, for example because one of its entities no longer exists, the
+ * entities of the batch are queried one by one so that the failure only affects the offending
+ * ones.
+ */
+public class PerfQueryBatcher {
+    private static final Logger logger = Logger.getLogger(PerfQueryBatcher.class.getName());
+
+    /**
+     * Max number of metrics per queryPerf call. vCenter rejects larger queries, see
+     * config.vpxd.stats.maxQueryMetrics, which is 64 by default.
+     */
+    public static final int MAX_QUERY_METRICS = Integer
+            .getInteger("vsphere.stats.query.max.metrics", 64);
+
+    /**
+     * Max number of entities per queryPerf call, so that their metrics stay within
+     * {@link #MAX_QUERY_METRICS}. 1 disables batching.
+     */
+    public static final int BATCH_SIZE = Math.max(1,
+            MAX_QUERY_METRICS / StatsClient.DEFAULT_METRICS_PER_ENTITY);
+
+    public static final long LINGER_MILLIS = Long
+            .getLong("vsphere.stats.query.batch.linger.millis", 250);
+
+    private static final class PendingQuery {
+        final ManagedObjectReference entity;
+        final BiConsumer<List<ServiceStat>, Throwable> callback;
+        final OperationContext operationContext;
+
+        PendingQuery(ManagedObjectReference entity,
+                BiConsumer<List<ServiceStat>, Throwable> callback) {
+            this.entity = entity;
+            this.callback = callback;
+            this.operationContext = OperationContext.getOperationContext();
+        }
+
+        void complete(List<ServiceStat> stats, Throwable e) {
+            OperationContext previous = OperationContext.getOperationContext();
+            OperationContext.restoreOperationContext(this.operationContext);
+            try {
+                this.callback.accept(stats, e);
+            } finally {
+                OperationContext.restoreOperationContext(previous);
+            }
+        }
+    }
+
+    private static final class Batch {
+        final URI adapterReference;
+        final AuthCredentialsServiceState credentials;
+        final List<PendingQuery> queries = new ArrayList<>();
+
+        Batch(URI adapterReference, AuthCredentialsServiceState credentials) {
+            this.adapterReference = adapterReference;
+            this.credentials = credentials;
+        }
+    }
+
+    private final VSphereIOThreadPool pool;
+    private final int batchSize;
+    private final long lingerMillis;
+
+    // Batches not sent yet, by endpoint and credentials. Guarded by this.
+    private final Map<String, Batch> openBatches = new HashMap<>();
+
+    public PerfQueryBatcher(VSphereIOThreadPool pool) {
+        this(pool, BATCH_SIZE, LINGER_MILLIS);
+    }
+
+    public PerfQueryBatcher(VSphereIOThreadPool pool, int batchSize, long lingerMillis) {
+        this.pool = pool;
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+    }
+
+    /**
+     * Queries the default metrics of the given entity in the next batch of its endpoint. The
+     * callback is called on a thread of the pool, under the operation context of the caller, with
+     * the stats, empty if nothing was fetched, or the failure.
+     */
+    public void query(URI adapterReference, AuthCredentialsServiceState credentials,
+            ManagedObjectReference entity, BiConsumer<List<ServiceStat>, Throwable> callback) {
+        String key = VSphereSessionPool.sessionKey(adapterReference.toString(), credentials.type,
+                credentials.privateKeyId, credentials.privateKey);
+
+        Batch batch;
+        boolean first;
+        boolean full;
+        synchronized (this) {
+            batch = this.openBatches.computeIfAbsent(key,
+                    k -> new Batch(adapterReference, credentials));
+            batch.queries.add(new PendingQuery(entity, callback));
+            first = batch.queries.size() == 1;
+            full = batch.queries.size() >= this.batchSize;
+            if (full) {
+                this.openBatches.remove(key);
+            }
+        }
+
+        if (full) {
+            send(batch);
+        } else if (first) {
+            schedule(() -> flush(key, batch), this.lingerMillis);
+        }
+    }
+
+    private void flush(String key, Batch batch) {
+        synchronized (this) {
+            // already sent if it filled up in the meantime
+            if (!this.openBatches.remove(key, batch)) {
+                return;
+            }
+        }
+        send(batch);
+    }
+
+    private void send(Batch batch) {
+        submit(batch.adapterReference, batch.credentials, (connection, ce) -> {
+            if (ce != null) {
+                batch.queries.forEach(q -> q.complete(null, ce));
+                return;
+            }
+
+            List<ManagedObjectReference> entities = new ArrayList<>(batch.queries.size());
+            batch.queries.forEach(q -> entities.add(q.entity));
+            Map<String, List<ServiceStat>> stats;
+            try {
+                stats = retrieveMetrics(connection, entities);
+            } catch (Exception e) {
+                if (entities.size() == 1) {
+                    batch.queries.get(0).complete(null, e);
+                    return;
+                }
+                logger.log(Level.WARNING, String.format("Error querying the stats of %d entities"
+                        + " of %s, querying them one by one: %s", entities.size(),
+                        batch.adapterReference, Utils.toString(e)));
+                batch.queries.forEach(q -> querySingle(connection, q));
+                return;
+            }
+
+            batch.queries.forEach(q -> q.complete(stats.getOrDefault(
+                    VimUtils.convertMoRefToString(q.entity), Collections.emptyList()), null));
+        });
+    }
+
+    private void querySingle(Connection connection, PendingQuery query) {
+        List<ServiceStat> stats;
+        try {
+            stats = retrieveMetrics(connection, Collections.singletonList(query.entity))
+                    .getOrDefault(VimUtils.convertMoRefToString(query.entity),
+                            Collections.emptyList());
+        } catch (Exception e) {
+            query.complete(null, e);
+            return;
+        }
+        query.complete(stats, null);
+    }
+
+    protected void submit(URI adapterReference, AuthCredentialsServiceState credentials,
+            VSphereIOThreadPool.ConnectionCallback callback) {
+        this.pool.submit(adapterReference, credentials, callback);
+    }
+
+    protected void schedule(Runnable task, long delayMillis) {
+        this.pool.schedule(task, (int) delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    protected Map<String, List<ServiceStat>> retrieveMetrics(Connection connection,
+            List<ManagedObjectReference> entities) throws InvalidPropertyFaultMsg,
+            RuntimeFaultFaultMsg {
+        return new StatsClient(connection).retrieveMetrics(entities);
+    }
+}
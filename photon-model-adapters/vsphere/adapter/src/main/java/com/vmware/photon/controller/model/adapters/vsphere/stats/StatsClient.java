@@ -23,11 +23,14 @@ import static com.vmware.vim25.PerformanceManagerUnit.PERCENT;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
+import com.vmware.photon.controller.model.adapters.vsphere.VimUtils;
 import com.vmware.photon.controller.model.adapters.vsphere.util.VimNames;
 import com.vmware.photon.controller.model.adapters.vsphere.util.connection.BaseHelper;
 import com.vmware.photon.controller.model.adapters.vsphere.util.connection.Connection;
@@ -41,6 +44,7 @@ import com.vmware.vim25.PerfEntityMetricBase;
 import com.vmware.vim25.PerfMetricId;
 import com.vmware.vim25.PerfMetricIntSeries;
 import com.vmware.vim25.PerfMetricSeries;
+import com.vmware.vim25.PerfQuerySpec;
 import com.vmware.vim25.PerfStatsType;
 import com.vmware.vim25.PerfSummaryType;
 import com.vmware.vim25.PerformanceManagerUnit;
@@ -76,6 +80,11 @@ public class StatsClient extends BaseHelper {
     private static final int DEFAULT_INTERVAL_ID = 300;
     private static final int COLLECT_INTERVAL_HOURS = 24;
 
+    /**
+     * Number of metrics queried for each entity by {@link #retrieveMetrics(List)}.
+     */
+    public static final int DEFAULT_METRICS_PER_ENTITY = 3;
+
     static {
         PERF_MGR_MOREF.setType(VimNames.TYPE_PERFORMANCE_MANAGER);
         PERF_MGR_MOREF.setValue("PerfMgr");
@@ -154,15 +163,52 @@ public class StatsClient extends BaseHelper {
         List<PerfEntityMetricBase> metrics = getVimPort().queryPerf(PERF_MGR_MOREF,
                 Collections.singletonList(ctx.getSpec()));
 
-        List<ServiceStat> res = new ArrayList<>();
-
         if (metrics.isEmpty()) {
             // nothing fetched
             return Collections.emptyList();
         }
 
         // the metrics for the single entity
-        PerfEntityMetric m = (PerfEntityMetric) metrics.get(0);
+        return toStats(ctx, (PerfEntityMetric) metrics.get(0));
+    }
+
+    /**
+     * Retrieves the default metrics of many VMs, hosts or clusters with a single queryPerf call,
+     * with one query spec per entity.
+     *
+     * @param entities
+     *            the entities, which may be of different types
+     * @return the stats of each entity, by {@link VimUtils#convertMoRefToString} of the entity.
+     *         Entities for which nothing was fetched are missing.
+     */
+    public Map<String, List<ServiceStat>> retrieveMetrics(List<ManagedObjectReference> entities)
+            throws RuntimeFaultFaultMsg {
+        Map<String, StatCollectionContext> contexts = new HashMap<>();
+        List<PerfQuerySpec> specs = new ArrayList<>(entities.size());
+        for (ManagedObjectReference entity : entities) {
+            StatCollectionContext ctx = createDefaultContext(entity);
+            if (contexts.putIfAbsent(VimUtils.convertMoRefToString(entity), ctx) == null) {
+                specs.add(ctx.getSpec());
+            }
+        }
+
+        Map<String, List<ServiceStat>> res = new HashMap<>();
+        if (specs.isEmpty()) {
+            return res;
+        }
+
+        for (PerfEntityMetricBase metric : getVimPort().queryPerf(PERF_MGR_MOREF, specs)) {
+            String entity = VimUtils.convertMoRefToString(metric.getEntity());
+            StatCollectionContext ctx = contexts.get(entity);
+            if (ctx != null && metric instanceof PerfEntityMetric) {
+                res.put(entity, toStats(ctx, (PerfEntityMetric) metric));
+            }
+        }
+        return res;
+    }
+
+    private List<ServiceStat> toStats(StatCollectionContext ctx, PerfEntityMetric m) {
+        List<ServiceStat> res = new ArrayList<>();
 
         for (PerfMetricSeries pms : m.getValue()) {
             PerfMetricId metricId = pms.getId();
@@ -183,13 +229,16 @@ public class StatsClient extends BaseHelper {
 
     public List<ServiceStat> retrieveMetricsForVm(ManagedObjectReference vm)
             throws RuntimeFaultFaultMsg {
+        return querySingleEntity(createDefaultContext(vm));
+    }
 
-        StatCollectionContext ctx = new StatCollectionContext(vm);
+    private StatCollectionContext createDefaultContext(ManagedObjectReference entity) {
+        StatCollectionContext ctx = new StatCollectionContext(entity);
 
         ctx.limitResults(DEFAULT_INTERVAL_ID, COLLECT_INTERVAL_HOURS, TimeUnit.HOURS);
 
         addDefaultMetrics(ctx);
-        return querySingleEntity(ctx);
+        return ctx;
     }
 
     private void addDefaultMetrics(StatCollectionContext ctx) {
@@ -216,23 +265,11 @@ public class StatsClient extends BaseHelper {
 
     public List<ServiceStat> retrieveMetricsForHost(ManagedObjectReference host)
             throws RuntimeFaultFaultMsg {
-        StatCollectionContext ctx = new StatCollectionContext(host);
-
-        ctx.limitResults(DEFAULT_INTERVAL_ID, COLLECT_INTERVAL_HOURS, TimeUnit.HOURS);
-
-        addDefaultMetrics(ctx);
-
-        return querySingleEntity(ctx);
+        return querySingleEntity(createDefaultContext(host));
     }
 
     public List<ServiceStat> retrieveMetricsForCluster(ManagedObjectReference cluster)
             throws RuntimeFaultFaultMsg {
-        StatCollectionContext ctx = new StatCollectionContext(cluster);
-
-        ctx.limitResults(DEFAULT_INTERVAL_ID, COLLECT_INTERVAL_HOURS, TimeUnit.HOURS);
-
-        addDefaultMetrics(ctx);
-
-        return querySingleEntity(ctx);
+        return querySingleEntity(createDefaultContext(cluster));
     }
 }
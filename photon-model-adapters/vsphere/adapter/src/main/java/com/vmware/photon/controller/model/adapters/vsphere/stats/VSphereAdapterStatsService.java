@@ -39,6 +39,8 @@ public class VSphereAdapterStatsService extends StatelessService {
 
     public static final String SELF_LINK = VSphereUriPaths.STATS_SERVICE;
 
+    private PerfQueryBatcher perfQueryBatcher;
+
     @Override
     public void handlePatch(Operation op) {
         if (!op.hasBody()) {
@@ -77,6 +79,26 @@ public class VSphereAdapterStatsService extends StatelessService {
     }
 
     private void collectStats(ProvisionContext ctx, ComputeStatsRequest statsRequest) {
+        String type = CustomProperties.of(ctx.child).getString(CustomProperties.TYPE);
+        if (PerfQueryBatcher.BATCH_SIZE > 1 && isSupportedType(type)) {
+            ManagedObjectReference obj = CustomProperties.of(ctx.child)
+                    .getMoRef(CustomProperties.MOREF);
+            getPerfQueryBatcher(ctx).query(ctx.getAdapterManagementReference(),
+                    ctx.vSphereCredentials, obj, (stats, e) -> {
+                        if (e != null) {
+                            ctx.failWithMessage("Error retrieving stats", e);
+                            return;
+                        }
+
+                        try {
+                            persistStats(stats, statsRequest);
+                        } catch (Exception ex) {
+                            ctx.failWithMessage("Error persisting stats", ex);
+                        }
+                    });
+            return;
+        }
+
         ctx.pool.submit(ctx.getAdapterManagementReference(), ctx.vSphereCredentials,
                 (conn, ce) -> {
                     if (ctx.fail(ce)) {
@@ -141,6 +163,20 @@ public class VSphereAdapterStatsService extends StatelessService {
                 .setBody(respBody));
     }
 
+    private static boolean isSupportedType(String type) {
+        return VimNames.TYPE_VM.equals(type)
+                || VimNames.TYPE_COMPUTE_RESOURCE.equals(type)
+                || VimNames.TYPE_CLUSTER_COMPUTE_RESOURCE.equals(type)
+                || VimNames.TYPE_HOST.equals(type);
+    }
+
+    private synchronized PerfQueryBatcher getPerfQueryBatcher(ProvisionContext ctx) {
+        if (this.perfQueryBatcher == null) {
+            this.perfQueryBatcher = new PerfQueryBatcher(ctx.pool);
+        }
+        return this.perfQueryBatcher;
+    }
+
     private List<ServiceStat> getStats(StatsClient client, String type, ManagedObjectReference obj)
             throws RuntimeFaultFaultMsg {
         List<ServiceStat> metrics = null;
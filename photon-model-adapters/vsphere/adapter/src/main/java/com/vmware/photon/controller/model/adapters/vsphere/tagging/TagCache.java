@@ -13,6 +13,7 @@
 
 package com.vmware.photon.controller.model.adapters.vsphere.tagging;
 
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
@@ -21,31 +22,100 @@ import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap.Builder;
 import com.vmware.photon.controller.model.resources.TagService.TagState;
 
 /**
- * Caches TagState in a LRU cache to avoid too many remote calls to the tags service.
+ * Caches TagState and category names in LRU caches to avoid too many remote calls to the tags
+ * service. The {@link #getShared() shared} cache is reused by all enumerations, and its entries
+ * expire after {@link #DEFAULT_TTL_MILLIS}, so that renamed tags and categories are picked up.
  */
 public class TagCache {
-    private static final int MAX_TAGS = 500;
+    public static final int DEFAULT_MAX_SIZE = Integer.getInteger("vsphere.tag.cache.size", 5000);
 
-    private final ConcurrentLinkedHashMap<String, TagState> cache;
+    public static final long DEFAULT_TTL_MILLIS = Long.getLong("vsphere.tag.cache.ttl.millis",
+            TimeUnit.MINUTES.toMillis(10));
+
+    private static final TagCache SHARED = new TagCache(DEFAULT_MAX_SIZE, DEFAULT_TTL_MILLIS);
+
+    private static class Entry<T> {
+        final T value;
+        final long expirationNanos;
+
+        Entry(T value, long expirationNanos) {
+            this.value = value;
+            this.expirationNanos = expirationNanos;
+        }
+    }
+
+    private final ConcurrentLinkedHashMap<String, Entry<TagState>> cache;
+    private final ConcurrentLinkedHashMap<String, Entry<String>> categories;
+    private final long ttlNanos;
 
     public TagCache() {
-        // TODO integrate proper LRU cache
-        this.cache = new Builder<String, TagState>().maximumWeightedCapacity(MAX_TAGS).build();
+        this(DEFAULT_MAX_SIZE, DEFAULT_TTL_MILLIS);
+    }
+
+    public TagCache(int maxSize, long ttlMillis) {
+        this.cache = new Builder<String, Entry<TagState>>().maximumWeightedCapacity(maxSize)
+                .build();
+        this.categories = new Builder<String, Entry<String>>().maximumWeightedCapacity(maxSize)
+                .build();
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    /**
+     * Returns the cache shared by all enumerations.
+     */
+    public static TagCache getShared() {
+        return SHARED;
     }
 
+    /**
+     * Returns the tag of the given id, retrieving it with the value provider if it is not cached
+     * or has expired. Tags which cannot be retrieved, for which the provider returns {@code null},
+     * are not cached.
+     */
     public TagState get(String id, Function<String, TagState> valueProvider) {
-        return this.cache.computeIfAbsent(id, valueProvider);
+        return get(this.cache, id, valueProvider);
+    }
+
+    /**
+     * Same as {@link #get(String, Function)}, for the name of the category of the given id.
+     */
+    public String getCategoryName(String id, Function<String, String> valueProvider) {
+        return get(this.categories, id, valueProvider);
     }
 
     public TagState getAndPutIfAbsent(String id, TagState tagState) {
-        TagState result = this.cache.putIfAbsent(id, tagState);
+        TagState result = get(id);
         if (result == null) {
+            this.cache.put(id, new Entry<>(tagState, nanoTime() + this.ttlNanos));
             result = tagState;
         }
         return result;
     }
 
     public TagState get(String id) {
-        return this.cache.get(id);
+        Entry<TagState> entry = this.cache.get(id);
+        return isValid(entry) ? entry.value : null;
+    }
+
+    private <T> T get(ConcurrentLinkedHashMap<String, Entry<T>> map, String id,
+            Function<String, T> valueProvider) {
+        Entry<T> entry = map.get(id);
+        if (isValid(entry)) {
+            return entry.value;
+        }
+        // concurrent misses may retrieve the same value, but no lock is held during the retrieval
+        T value = valueProvider.apply(id);
+        if (value != null) {
+            map.put(id, new Entry<>(value, nanoTime() + this.ttlNanos));
+        }
+        return value;
+    }
+
+    private boolean isValid(Entry<?> entry) {
+        return entry != null && nanoTime() - entry.expirationNanos < 0;
+    }
+
+    protected long nanoTime() {
+        return System.nanoTime();
     }
-}
\ No newline at end of file
+}
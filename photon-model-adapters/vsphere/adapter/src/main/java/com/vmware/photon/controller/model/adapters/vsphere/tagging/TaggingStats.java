@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.vsphere.tagging;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vmware.xenon.common.Service;
+
+/**
+ * Counts the calls to the tagging service made by an enumeration.
+ */
+public class TaggingStats {
+    public static final String STAT_NAME_ATTACHED_TAG_CALLS = "vSphereAttachedTagCalls";
+    public static final String STAT_NAME_BULK_ATTACHED_TAG_CALLS = "vSphereBulkAttachedTagCalls";
+    public static final String STAT_NAME_TAG_MODEL_CALLS = "vSphereTagModelCalls";
+    public static final String STAT_NAME_TAG_CATEGORY_CALLS = "vSphereTagCategoryCalls";
+    public static final String STAT_NAME_TAG_LOOKUPS = "vSphereTagLookups";
+
+    private final AtomicLong attachedTagCalls = new AtomicLong();
+    private final AtomicLong bulkAttachedTagCalls = new AtomicLong();
+    private final AtomicLong tagModelCalls = new AtomicLong();
+    private final AtomicLong tagCategoryCalls = new AtomicLong();
+    private final AtomicLong tagLookups = new AtomicLong();
+
+    /**
+     * Counts a call listing the tags attached to a single object.
+     */
+    public void attachedTagCall() {
+        this.attachedTagCalls.incrementAndGet();
+    }
+
+    /**
+     * Counts a call listing the tags attached to many objects.
+     */
+    public void bulkAttachedTagCall() {
+        this.bulkAttachedTagCalls.incrementAndGet();
+    }
+
+    public void tagModelCall() {
+        this.tagModelCalls.incrementAndGet();
+    }
+
+    public void tagCategoryCall() {
+        this.tagCategoryCalls.incrementAndGet();
+    }
+
+    /**
+     * Counts a tag resolved from its id, from the cache or not.
+     */
+    public void tagLookup() {
+        this.tagLookups.incrementAndGet();
+    }
+
+    public long getAttachedTagCallCount() {
+        return this.attachedTagCalls.get();
+    }
+
+    public long getBulkAttachedTagCallCount() {
+        return this.bulkAttachedTagCalls.get();
+    }
+
+    public long getTagModelCallCount() {
+        return this.tagModelCalls.get();
+    }
+
+    public long getTagCategoryCallCount() {
+        return this.tagCategoryCalls.get();
+    }
+
+    /**
+     * Starts counting the calls of a new enumeration.
+     */
+    public void reset() {
+        this.attachedTagCalls.set(0);
+        this.bulkAttachedTagCalls.set(0);
+        this.tagModelCalls.set(0);
+        this.tagCategoryCalls.set(0);
+        this.tagLookups.set(0);
+    }
+
+    /**
+     * Publishes the calls counted since the last {@link #reset()} as stats of the given service.
+     */
+    public void publishStats(Service service) {
+        service.setStat(STAT_NAME_ATTACHED_TAG_CALLS, this.attachedTagCalls.get());
+        service.setStat(STAT_NAME_BULK_ATTACHED_TAG_CALLS, this.bulkAttachedTagCalls.get());
+        service.setStat(STAT_NAME_TAG_MODEL_CALLS, this.tagModelCalls.get());
+        service.setStat(STAT_NAME_TAG_CATEGORY_CALLS, this.tagCategoryCalls.get());
+        service.setStat(STAT_NAME_TAG_LOOKUPS, this.tagLookups.get());
+    }
+}
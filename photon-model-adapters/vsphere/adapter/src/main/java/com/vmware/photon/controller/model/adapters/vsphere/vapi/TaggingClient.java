@@ -15,8 +15,14 @@ package com.vmware.photon.controller.model.adapters.vsphere.vapi;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import org.apache.http.client.HttpClient;
@@ -53,6 +59,56 @@ public class TaggingClient extends VapiClient {
         return toStringList(resp.result);
     }
 
+    /**
+     * Lists the tags attached to each of the given objects in one call. Objects without tags are
+     * not in the result. Needs vSphere 6.5 or later.
+     *
+     * @return the ids of the attached tags, by {@link VimUtils#convertMoRefToString(ManagedObjectReference)}
+     */
+    public Map<String, List<String>> getAttachedTags(Collection<ManagedObjectReference> refs)
+            throws IOException, RpcException {
+        RpcRequest call = newCall("com.vmware.cis.tagging.tag_association",
+                "list_attached_tags_on_objects");
+        bindToSession(call, this.sessionId);
+
+        call.params.input = newNode();
+        ArrayNode objectIds = call.params.input
+                .putObject(K_STRUCTURE)
+                .putObject(K_OPERATION_INPUT)
+                .putArray("object_ids");
+        for (ManagedObjectReference ref : refs) {
+            objectIds.add(newDynamicId(ref));
+        }
+
+        RpcResponse resp = rpc(call);
+        throwIfError("Cannot get tags for " + refs.size() + " objects", resp);
+
+        Map<String, List<String>> res = new HashMap<>();
+        JsonNode output = resp.result == null ? null : resp.result.get(K_OUTPUT);
+        if (output == null) {
+            return res;
+        }
+        for (JsonNode objectToTags : output) {
+            JsonNode struct = objectToTags
+                    .path(K_STRUCTURE)
+                    .path("com.vmware.cis.tagging.tag_association.object_to_tags");
+            JsonNode objectId = struct
+                    .path("object_id")
+                    .path(K_STRUCTURE)
+                    .path("com.vmware.vapi.std.dynamic_ID");
+            List<String> tagIds = new ArrayList<>();
+            for (JsonNode tagId : struct.path("tag_ids")) {
+                tagIds.add(tagId.asText());
+            }
+            ManagedObjectReference ref = new ManagedObjectReference();
+            ref.setType(objectId.path("type").asText());
+            ref.setValue(objectId.path("id").asText());
+            res.put(VimUtils.convertMoRefToString(ref), tagIds);
+        }
+
+        return res;
+    }
+
     public ObjectNode getTagModel(String tagId) throws IOException, RpcException {
         RpcRequest call = newCall("com.vmware.cis.tagging.tag", "get");
         bindToSession(call, this.sessionId);
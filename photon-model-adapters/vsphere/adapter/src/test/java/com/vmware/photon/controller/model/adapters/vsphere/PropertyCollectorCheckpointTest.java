@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.vsphere;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.adapters.vsphere.util.VimNames;
+import com.vmware.vim25.InvalidCollectorVersionFaultMsg;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.ObjectUpdateKind;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyChangeOp;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.VimPortType;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Unit test for {@link PropertyCollectorCheckpoint}, against a simulated property collector.
+ */
+public class PropertyCollectorCheckpointTest {
+
+    private static final int VM_COUNT = 5000;
+
+    private final Logger logger = Logger.getLogger(PropertyCollectorCheckpointTest.class.getName());
+
+    private SimulatedPropertyCollector simulator;
+    private VimPortType vimPort;
+
+    @Before
+    public void setUp() {
+        this.simulator = new SimulatedPropertyCollector();
+        this.vimPort = (VimPortType) Proxy.newProxyInstance(VimPortType.class.getClassLoader(),
+                new Class<?>[] { VimPortType.class }, this.simulator);
+        for (int i = 0; i < VM_COUNT; i++) {
+            this.simulator.put("vm-" + i, VimNames.PROPERTY_NAME, "vm " + i);
+        }
+    }
+
+    /**
+     * Returns the checkpoint of a collector which reported all the VMs, as saved and loaded.
+     */
+    private PropertyCollectorCheckpoint initialCheckpoint() throws Exception {
+        PropertyCollectorCheckpoint checkpoint = new PropertyCollectorCheckpoint();
+        List<ObjectUpdate> updates = checkpoint.resume(this.vimPort,
+                this.simulator::createCollector);
+        assertEquals(VM_COUNT, updates.size());
+        assertEquals(VM_COUNT, count(updates, ObjectUpdateKind.ENTER));
+        return reload(checkpoint);
+    }
+
+    private static PropertyCollectorCheckpoint reload(PropertyCollectorCheckpoint checkpoint) {
+        return Utils.fromJson(Utils.toJson(checkpoint), PropertyCollectorCheckpoint.class);
+    }
+
+    private static long count(List<ObjectUpdate> updates, ObjectUpdateKind kind) {
+        return updates.stream().filter(u -> u.getKind() == kind).count();
+    }
+
+    @Test
+    public void testResumeFromSavedVersion() throws Exception {
+        PropertyCollectorCheckpoint checkpoint = initialCheckpoint();
+        this.simulator.put("vm-1", VimNames.PROPERTY_NAME, "renamed");
+
+        List<ObjectUpdate> updates = checkpoint.resume(this.vimPort,
+                this.simulator::createCollector);
+
+        assertEquals(1, updates.size());
+        assertEquals(ObjectUpdateKind.MODIFY, updates.get(0).getKind());
+        // the saved collector was resumed
+        assertEquals(1, this.simulator.createdCollectors);
+    }
+
+    @Test
+    public void testResyncAfterRestartReportsOnlyChanges() throws Exception {
+        PropertyCollectorCheckpoint checkpoint = initialCheckpoint();
+
+        // the session of the collector ends with the restart, and VMs change meanwhile
+        this.simulator.endSession();
+        this.simulator.put("vm-1", VimNames.PROPERTY_NAME, "renamed");
+        this.simulator.put("vm-2", VimNames.PROPERTY_NAME, "renamed");
+        this.simulator.remove("vm-3");
+        this.simulator.put("vm-new", VimNames.PROPERTY_NAME, "new");
+
+        long start = System.nanoTime();
+        List<ObjectUpdate> updates = checkpoint.resume(this.vimPort,
+                this.simulator::createCollector);
+        long resumeNanos = System.nanoTime() - start;
+
+        assertEquals(4, updates.size());
+        assertEquals(2, count(updates, ObjectUpdateKind.MODIFY));
+        assertEquals(1, count(updates, ObjectUpdateKind.LEAVE));
+        assertEquals(1, count(updates, ObjectUpdateKind.ENTER));
+        assertEquals(2, this.simulator.createdCollectors);
+
+        // the enumeration goes on from the new collector
+        this.simulator.put("vm-4", VimNames.PROPERTY_NAME, "renamed");
+        assertEquals(1, reload(checkpoint).collect(this.vimPort).size());
+
+        // a full enumeration reports all the VMs again
+        start = System.nanoTime();
+        List<ObjectUpdate> all = new PropertyCollectorCheckpoint().resume(this.vimPort,
+                this.simulator::createCollector);
+        long fullNanos = System.nanoTime() - start;
+        assertEquals(VM_COUNT, all.size());
+
+        this.logger.info(String.format("Resumed %d VMs with %d updates in %d ms, full"
+                        + " enumeration reports %d updates in %d ms", VM_COUNT, updates.size(),
+                TimeUnit.NANOSECONDS.toMillis(resumeNanos), all.size(),
+                TimeUnit.NANOSECONDS.toMillis(fullNanos)));
+        // resuming compares the digests of all the VMs, which costs about a full enumeration,
+        // with room for timing noise
+        assertTrue("resumed in " + TimeUnit.NANOSECONDS.toMillis(resumeNanos) + " ms",
+                resumeNanos < Math.max(10 * fullNanos, TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    @Test
+    public void testStaleVersionIsResynced() throws Exception {
+        PropertyCollectorCheckpoint checkpoint = initialCheckpoint();
+        checkpoint.version = "999999";
+
+        List<ObjectUpdate> updates = checkpoint.resume(this.vimPort,
+                this.simulator::createCollector);
+
+        assertTrue(updates.isEmpty());
+        assertEquals(2, this.simulator.createdCollectors);
+    }
+
+    @Test
+    public void testModifiedObjectsAreResentOnResync() throws Exception {
+        PropertyCollectorCheckpoint checkpoint = initialCheckpoint();
+        this.simulator.put("vm-1", "summary.config.numCpu", 4);
+        assertEquals(1, checkpoint.collect(this.vimPort).size());
+
+        // the digest of a modified object is not known, so it is reported again
+        this.simulator.endSession();
+        List<ObjectUpdate> updates = reload(checkpoint).resume(this.vimPort,
+                this.simulator::createCollector);
+
+        assertEquals(1, updates.size());
+        assertEquals("vm-1", updates.get(0).getObj().getValue());
+        assertEquals(ObjectUpdateKind.MODIFY, updates.get(0).getKind());
+    }
+
+    /**
+     * A property collector of VMs which keeps a log of their changes, and whose versions are
+     * positions in that log. All collectors end with the session.
+     */
+    private static class SimulatedPropertyCollector implements InvocationHandler {
+        private final Map<String, Map<String, Object>> objects = new LinkedHashMap<>();
+        private final List<ObjectUpdate> changes = new ArrayList<>();
+        private final Set<String> collectors = new HashSet<>();
+        private int createdCollectors;
+
+        ManagedObjectReference createCollector() {
+            ManagedObjectReference pc = new ManagedObjectReference();
+            pc.setType("PropertyCollector");
+            pc.setValue("session[" + this.createdCollectors++ + "]");
+            this.collectors.add(pc.getValue());
+            return pc;
+        }
+
+        void endSession() {
+            this.collectors.clear();
+        }
+
+        void put(String vm, String name, Object value) {
+            Map<String, Object> properties = this.objects.get(vm);
+            ObjectUpdate update;
+            if (properties == null) {
+                properties = new HashMap<>();
+                this.objects.put(vm, properties);
+                properties.put(name, value);
+                update = enter(vm, properties);
+            } else {
+                properties.put(name, value);
+                update = update(vm, ObjectUpdateKind.MODIFY);
+                update.getChangeSet().add(change(name, value));
+            }
+            this.changes.add(update);
+        }
+
+        void remove(String vm) {
+            this.objects.remove(vm);
+            this.changes.add(update(vm, ObjectUpdateKind.LEAVE));
+        }
+
+        private static ObjectUpdate update(String vm, ObjectUpdateKind kind) {
+            ManagedObjectReference ref = new ManagedObjectReference();
+            ref.setType(VimNames.TYPE_VM);
+            ref.setValue(vm);
+            ObjectUpdate update = new ObjectUpdate();
+            update.setObj(ref);
+            update.setKind(kind);
+            return update;
+        }
+
+        private static ObjectUpdate enter(String vm, Map<String, Object> properties) {
+            ObjectUpdate update = update(vm, ObjectUpdateKind.ENTER);
+            properties.forEach((name, value) -> update.getChangeSet().add(change(name, value)));
+            return update;
+        }
+
+        private static PropertyChange change(String name, Object value) {
+            PropertyChange change = new PropertyChange();
+            change.setName(name);
+            change.setOp(PropertyChangeOp.ASSIGN);
+            change.setVal(value);
+            return change;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            ManagedObjectReference pc = (ManagedObjectReference) args[0];
+            switch (method.getName()) {
+            case "waitForUpdatesEx":
+                return waitForUpdatesEx(pc, (String) args[1]);
+            case "destroyCollector":
+            case "destroyPropertyCollector":
+                this.collectors.remove(pc.getValue());
+                return null;
+            default:
+                throw new UnsupportedOperationException(method.getName());
+            }
+        }
+
+        private UpdateSet waitForUpdatesEx(ManagedObjectReference pc, String version)
+                throws RuntimeFaultFaultMsg, InvalidCollectorVersionFaultMsg {
+            if (!this.collectors.contains(pc.getValue())) {
+                throw new RuntimeFaultFaultMsg("The object has already been deleted: "
+                        + pc.getValue());
+            }
+
+            PropertyFilterUpdate filterUpdate = new PropertyFilterUpdate();
+            if (version.isEmpty()) {
+                this.objects.forEach((vm, properties) -> filterUpdate.getObjectSet()
+                        .add(enter(vm, properties)));
+            } else {
+                int since = Integer.parseInt(version);
+                if (since > this.changes.size()) {
+                    throw new InvalidCollectorVersionFaultMsg("Invalid version: " + version);
+                }
+                filterUpdate.getObjectSet().addAll(this.changes.subList(since,
+                        this.changes.size()));
+            }
+
+            UpdateSet updateSet = new UpdateSet();
+            updateSet.setVersion(Integer.toString(this.changes.size()));
+            updateSet.setTruncated(false);
+            updateSet.getFilterSet().add(filterUpdate);
+            return updateSet;
+        }
+    }
+}
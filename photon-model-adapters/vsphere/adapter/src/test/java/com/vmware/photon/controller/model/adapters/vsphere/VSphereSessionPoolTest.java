@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.vsphere;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.adapters.vsphere.util.connection.BasicConnection;
+import com.vmware.photon.controller.model.adapters.vsphere.util.connection.Connection;
+import com.vmware.vim25.UserSession;
+
+public class VSphereSessionPoolTest {
+
+    private static final String KEY = VSphereSessionPool.sessionKey("https://vc/sdk", "user",
+            "password");
+
+    private ScheduledExecutorService executor;
+    private AtomicInteger logins;
+    private AtomicInteger logouts;
+
+    /**
+     * Connection which logs in and out without a vCenter.
+     */
+    private class FakeConnection extends BasicConnection {
+        private UserSession session;
+
+        @Override
+        public void connect() {
+            VSphereSessionPoolTest.this.logins.incrementAndGet();
+            this.session = new UserSession();
+        }
+
+        @Override
+        public UserSession getUserSession() {
+            return this.session;
+        }
+
+        @Override
+        public void close() {
+            if (this.session != null) {
+                VSphereSessionPoolTest.this.logouts.incrementAndGet();
+                this.session = null;
+            }
+        }
+    }
+
+    @Before
+    public void setUp() {
+        this.executor = Executors.newScheduledThreadPool(4);
+        this.logins = new AtomicInteger();
+        this.logouts = new AtomicInteger();
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    private VSphereSessionPool createPool(int maxSessions, boolean alive) {
+        return new VSphereSessionPool(this.executor, maxSessions, 1, 1, TimeUnit.HOURS) {
+            @Override
+            protected boolean isAlive(BasicConnection connection) {
+                return alive && connection.getUserSession() != null;
+            }
+        };
+    }
+
+    private Connection borrow(VSphereSessionPool pool) throws InterruptedException {
+        return borrow(pool, false);
+    }
+
+    /**
+     * Runs a callback with a session of the pool and waits until the session is returned.
+     */
+    private Connection borrow(VSphereSessionPool pool, boolean close)
+            throws InterruptedException {
+        Connection[] borrowed = new Connection[1];
+        CountDownLatch done = new CountDownLatch(1);
+        pool.execute(KEY, FakeConnection::new, (connection, error) -> {
+            assertNull(error);
+            borrowed[0] = connection;
+            if (close) {
+                connection.close();
+            }
+            done.countDown();
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (pool.getIdleSessionCount(KEY) != pool.getOpenSessionCount(KEY)) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+        return borrowed[0];
+    }
+
+    @Test
+    public void testSessionIsReused() throws InterruptedException {
+        VSphereSessionPool pool = createPool(4, true);
+
+        Connection first = borrow(pool);
+        assertNotNull(first);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(first, borrow(pool));
+        }
+
+        assertEquals(1, this.logins.get());
+        assertEquals(0, this.logouts.get());
+        assertEquals(1, pool.getLoginCount());
+        assertEquals(1, pool.getMissCount());
+        assertEquals(10, pool.getHitCount());
+        assertEquals(11, pool.getWaitHistogram().getCount());
+    }
+
+    @Test
+    public void testSessionsPerEndpointAreBounded() throws InterruptedException {
+        VSphereSessionPool pool = createPool(2, true);
+        int callbacks = 20;
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(callbacks);
+
+        for (int i = 0; i < callbacks; i++) {
+            pool.execute(KEY, FakeConnection::new, (connection, error) -> {
+                maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                active.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(maxActive.get() <= 2);
+        assertTrue(this.logins.get() <= 2);
+        assertTrue(pool.getOpenSessionCount(KEY) <= 2);
+    }
+
+    @Test
+    public void testSessionClosedByCallbackIsDropped() throws InterruptedException {
+        VSphereSessionPool pool = createPool(4, true);
+
+        borrow(pool, true);
+        assertEquals(0, pool.getOpenSessionCount(KEY));
+
+        borrow(pool);
+        assertEquals(2, this.logins.get());
+        assertEquals(1, pool.getOpenSessionCount(KEY));
+    }
+
+    @Test
+    public void testNotAuthenticatedSessionIsReplaced() throws InterruptedException {
+        // A zero keep alive checks the session on every borrow. The sweeper may also drop the
+        // session in between.
+        VSphereSessionPool pool = new VSphereSessionPool(this.executor, 4, 0, 1,
+                TimeUnit.HOURS) {
+            @Override
+            protected boolean isAlive(BasicConnection connection) {
+                return false;
+            }
+        };
+
+        Connection first = borrow(pool);
+        Connection second = borrow(pool);
+        assertTrue(first != second);
+        assertEquals(2, this.logins.get());
+        assertTrue(this.logouts.get() >= 1);
+    }
+}
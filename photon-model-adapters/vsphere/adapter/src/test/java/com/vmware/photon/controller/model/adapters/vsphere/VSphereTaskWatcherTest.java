@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.vsphere;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.adapters.vsphere.util.VimPath;
+import com.vmware.photon.controller.model.adapters.vsphere.util.connection.Connection;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.ObjectUpdateKind;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyChangeOp;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.RequestCanceled;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+import com.vmware.vim25.TaskInfo;
+import com.vmware.vim25.TaskInfoState;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.xenon.common.DeferredResult;
+
+public class VSphereTaskWatcherTest {
+
+    /**
+     * Watcher which watches tasks without a vCenter: the tasks end when the test says so.
+     */
+    private static class FakeWatcher extends VSphereTaskWatcher {
+        static final String CANCELED = "";
+
+        final AtomicInteger logins = new AtomicInteger();
+        final AtomicInteger logouts = new AtomicInteger();
+        final AtomicInteger filters = new AtomicInteger();
+        final BlockingQueue<String> ended = new LinkedBlockingQueue<>();
+        volatile boolean failLogin;
+        volatile long waitMillis = 50;
+
+        FakeWatcher(long idleTimeoutMillis) {
+            super("test-task-watcher", () -> null, Runnable::run, idleTimeoutMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+
+        void end(ManagedObjectReference task) {
+            this.ended.add(task.getValue());
+        }
+
+        @Override
+        protected void connect() throws RuntimeFaultFaultMsg {
+            if (this.failLogin) {
+                throw new IllegalStateException("Cannot log in");
+            }
+            this.logins.incrementAndGet();
+        }
+
+        @Override
+        protected void disconnect() {
+            this.logouts.incrementAndGet();
+        }
+
+        @Override
+        protected ManagedObjectReference createFilter(ManagedObjectReference task) {
+            ManagedObjectReference filter = new ManagedObjectReference();
+            filter.setType("PropertyFilter");
+            filter.setValue("filter-" + this.filters.incrementAndGet());
+            return filter;
+        }
+
+        @Override
+        protected UpdateSet waitForUpdates(String version) throws RuntimeFaultFaultMsg {
+            String taskValue;
+            try {
+                taskValue = this.ended.poll(this.waitMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            if (taskValue == null) {
+                return null;
+            }
+            if (CANCELED.equals(taskValue)) {
+                throw new RuntimeFaultFaultMsg("Canceled", new RequestCanceled());
+            }
+
+            PropertyChange change = new PropertyChange();
+            change.setName(VimPath.task_info_state);
+            change.setOp(PropertyChangeOp.ASSIGN);
+            change.setVal(TaskInfoState.SUCCESS);
+
+            ObjectUpdate objectUpdate = new ObjectUpdate();
+            objectUpdate.setObj(task(taskValue));
+            objectUpdate.setKind(ObjectUpdateKind.MODIFY);
+            objectUpdate.getChangeSet().add(change);
+
+            PropertyFilterUpdate filterUpdate = new PropertyFilterUpdate();
+            filterUpdate.getObjectSet().add(objectUpdate);
+
+            UpdateSet updateSet = new UpdateSet();
+            updateSet.setVersion(version + "1");
+            updateSet.getFilterSet().add(filterUpdate);
+            return updateSet;
+        }
+
+        @Override
+        protected void cancelWaitForUpdates(Connection connection,
+                ManagedObjectReference propertyCollector) {
+            this.ended.add(CANCELED);
+        }
+
+        @Override
+        protected TaskInfo retrieveTaskInfo(ManagedObjectReference task) {
+            TaskInfo info = new TaskInfo();
+            info.setTask(task);
+            info.setKey(task.getValue());
+            info.setState(TaskInfoState.SUCCESS);
+            return info;
+        }
+
+        @Override
+        protected void destroyFilter(ManagedObjectReference filter) {
+        }
+    }
+
+    private static ManagedObjectReference task(String value) {
+        ManagedObjectReference task = new ManagedObjectReference();
+        task.setType("Task");
+        task.setValue(value);
+        return task;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static TaskInfo join(DeferredResult<TaskInfo> result) {
+        return ((CompletableFuture<TaskInfo>) result.toCompletionStage()).join();
+    }
+
+    @Test
+    public void testTasksShareOneSession() {
+        FakeWatcher watcher = new FakeWatcher(TimeUnit.MINUTES.toMillis(1));
+
+        List<ManagedObjectReference> tasks = new ArrayList<>();
+        List<DeferredResult<TaskInfo>> results = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            ManagedObjectReference task = task("task-" + i);
+            tasks.add(task);
+            results.add(watcher.watch(task));
+        }
+        assertEquals(10, watcher.getInFlightCount());
+
+        // the tasks end in any order
+        for (int i = tasks.size() - 1; i >= 0; i--) {
+            watcher.end(tasks.get(i));
+        }
+        for (int i = 0; i < tasks.size(); i++) {
+            assertEquals(tasks.get(i).getValue(), join(results.get(i)).getKey());
+        }
+
+        assertEquals(0, watcher.getInFlightCount());
+        assertEquals(1, watcher.logins.get());
+        assertEquals(10, watcher.filters.get());
+    }
+
+    @Test
+    public void testNewTaskCancelsWait() throws Exception {
+        FakeWatcher watcher = new FakeWatcher(TimeUnit.MINUTES.toMillis(1));
+        watcher.waitMillis = TimeUnit.MINUTES.toMillis(10);
+
+        ManagedObjectReference task1 = task("task-1");
+        DeferredResult<TaskInfo> result1 = watcher.watch(task1);
+        waitForFilters(watcher, 1);
+
+        // registered without waiting for the update of the first task
+        ManagedObjectReference task2 = task("task-2");
+        DeferredResult<TaskInfo> result2 = watcher.watch(task2);
+        waitForFilters(watcher, 2);
+
+        watcher.end(task1);
+        watcher.end(task2);
+        assertEquals(task1.getValue(), join(result1).getKey());
+        assertEquals(task2.getValue(), join(result2).getKey());
+        assertEquals(1, watcher.logins.get());
+    }
+
+    private static void waitForFilters(FakeWatcher watcher, int count) throws Exception {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (watcher.filters.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, watcher.filters.get());
+    }
+
+    @Test
+    public void testLogoutWhenIdle() throws Exception {
+        FakeWatcher watcher = new FakeWatcher(100);
+
+        ManagedObjectReference task = task("task-1");
+        DeferredResult<TaskInfo> result = watcher.watch(task);
+        watcher.end(task);
+        join(result);
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (watcher.logouts.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, watcher.logouts.get());
+
+        // the next task logs in again
+        task = task("task-2");
+        result = watcher.watch(task);
+        watcher.end(task);
+        join(result);
+        assertEquals(2, watcher.logins.get());
+    }
+
+    @Test
+    public void testFailAfterReconnects() {
+        FakeWatcher watcher = new FakeWatcher(TimeUnit.MINUTES.toMillis(1));
+        watcher.failLogin = true;
+
+        DeferredResult<TaskInfo> result = watcher.watch(task("task-1"));
+        try {
+            join(result);
+            fail("Task should have failed");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(0, watcher.getInFlightCount());
+        assertEquals(VSphereTaskWatcher.MAX_RECONNECTS, watcher.logouts.get());
+    }
+
+    @Test
+    public void testToTaskInfoState() {
+        assertEquals(TaskInfoState.ERROR, VSphereTaskWatcher.toTaskInfoState(TaskInfoState.ERROR));
+        assertNull(VSphereTaskWatcher.toTaskInfoState("success"));
+        assertNull(VSphereTaskWatcher.toTaskInfoState(null));
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.vsphere.ovf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link OvaExtractionCache}
+ */
+public class OvaExtractionCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private OvaExtractionCache cache;
+
+    @Before
+    public void setUp() {
+        this.cache = new OvaExtractionCache(this.tmp.getRoot(), 500);
+    }
+
+    private File extract(String name, int size, long lastUsedHoursAgo) throws IOException {
+        File folder = this.cache.getFolder(name);
+        folder.mkdirs();
+        try (FileOutputStream fos = new FileOutputStream(new File(folder, "disk.vmdk"))) {
+            fos.write(new byte[size]);
+        }
+        this.cache.commit(folder, new Properties());
+        new File(folder, OvaExtractionCache.MARKER_FILE).setLastModified(
+                System.currentTimeMillis() - TimeUnit.HOURS.toMillis(lastUsedHoursAgo));
+        return folder;
+    }
+
+    @Test
+    public void testMarkerDetectsChangedFiles() throws IOException {
+        File folder = extract("ova", 100, 0);
+        assertNotNull(this.cache.getMarker(folder));
+
+        try (FileOutputStream fos = new FileOutputStream(new File(folder, "disk.vmdk"))) {
+            fos.write(new byte[10]);
+        }
+        assertNull(this.cache.getMarker(folder));
+        assertNull(this.cache.getMarker(this.cache.getFolder("missing")));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedAreEvicted() throws IOException {
+        File oldest = extract("oldest", 100, 4);
+        File old = extract("old", 100, 3);
+        File recent = extract("recent", 100, 2);
+        File current = extract("current", 100, 5);
+
+        // using a folder makes it the most recently used
+        assertNotNull(this.cache.getMarker(oldest));
+
+        this.cache.evict(current);
+
+        assertTrue(oldest.exists());
+        assertFalse(old.exists());
+        assertTrue(recent.exists());
+        assertTrue(current.exists());
+    }
+
+    @Test
+    public void testRecentlyUsedAreNotEvicted() throws IOException {
+        File first = extract("first", 300, 0);
+        File second = extract("second", 300, 0);
+
+        this.cache.evict(second);
+
+        assertTrue(first.exists());
+        assertTrue(second.exists());
+    }
+
+    @Test
+    public void testIncompleteExtractionsAreDeleted() throws IOException {
+        File incomplete = this.cache.getFolder("incomplete");
+        incomplete.mkdirs();
+        File ongoing = this.cache.getFolder("ongoing");
+        ongoing.mkdirs();
+        incomplete.setLastModified(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2));
+
+        this.cache.evict(null);
+
+        assertFalse(incomplete.exists());
+        assertTrue(ongoing.exists());
+        assertEquals(1, this.tmp.getRoot().list().length);
+    }
+
+    @Test
+    public void testExtractionsInProgressAreNotDeleted() throws Exception {
+        File ongoing = this.cache.getFolder("ongoing");
+        ongoing.mkdirs();
+        ongoing.setLastModified(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2));
+
+        // the extracting thread holds the lock of the folder
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch evicted = new CountDownLatch(1);
+        Thread extraction = new Thread(() -> {
+            ReentrantLock lock = this.cache.getLock(ongoing);
+            lock.lock();
+            try {
+                locked.countDown();
+                evicted.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                lock.unlock();
+            }
+        });
+        extraction.start();
+        assertTrue(locked.await(10, TimeUnit.SECONDS));
+
+        this.cache.evict(null);
+        assertTrue(ongoing.exists());
+
+        evicted.countDown();
+        extraction.join();
+        this.cache.evict(null);
+        assertFalse(ongoing.exists());
+    }
+}
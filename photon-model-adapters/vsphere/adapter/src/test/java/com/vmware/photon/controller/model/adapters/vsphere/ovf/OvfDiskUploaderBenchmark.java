@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.vsphere.ovf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.vmware.photon.controller.model.adapters.vsphere.ovf.OvfDiskUploader.DiskUpload;
+
+/**
+ * Measures the time to upload the {@code disks} disks of an OVF, of {@code diskMegabytes} each,
+ * uploading {@code concurrency} disks at a time. The disks are served by a local http server, and
+ * uploaded to a fake NFC lease endpoint which accepts {@code megabytesPerSecond} per connection,
+ * like a host limits the throughput of a single disk. A concurrency of 1 is the cost of the former
+ * sequential upload. Run with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.vmware.photon.controller.model.adapters.vsphere.ovf.OvfDiskUploaderBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class OvfDiskUploaderBenchmark {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    @Param({ "1", "2", "4" })
+    public int concurrency;
+
+    @Param({ "4" })
+    public int disks;
+
+    @Param({ "32" })
+    public int diskMegabytes;
+
+    @Param({ "64" })
+    public int megabytesPerSecond;
+
+    private ExecutorService serverExecutor;
+    private HttpServer source;
+    private HttpServer nfc;
+    private CloseableHttpClient client;
+    private OvfDiskUploader uploader;
+    private List<DiskUpload> uploads;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.serverExecutor = Executors.newCachedThreadPool();
+
+        this.source = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.source.createContext("/", this::serveDisk);
+        this.source.setExecutor(this.serverExecutor);
+        this.source.start();
+
+        this.nfc = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.nfc.createContext("/nfc", this::receiveDisk);
+        this.nfc.setExecutor(this.serverExecutor);
+        this.nfc.start();
+
+        this.client = OvfRetriever.newInsecureClient();
+        this.uploader = new OvfDiskUploader(new OvfRetriever(this.client), this.concurrency);
+
+        this.uploads = new ArrayList<>(this.disks);
+        for (int i = 0; i < this.disks; i++) {
+            this.uploads.add(new DiskUpload(
+                    "http://localhost:" + this.source.getAddress().getPort() + "/disk-" + i,
+                    "http://localhost:" + this.nfc.getAddress().getPort() + "/nfc/disk-" + i,
+                    true));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.client.close();
+        this.source.stop(0);
+        this.nfc.stop(0);
+        this.serverExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public int upload() throws Exception {
+        long totalBytes = (long) this.disks * this.diskMegabytes * 1024 * 1024;
+        // the lease progress is not sent, so no connection is needed
+        LeaseProgressUpdater leaseUpdater = new LeaseProgressUpdater(null, null, totalBytes);
+
+        this.uploader.uploadAll(this.uploads, leaseUpdater);
+
+        if (leaseUpdater.getProgressPercent() != 100) {
+            throw new IllegalStateException("Not all bytes were uploaded");
+        }
+        return leaseUpdater.getProgressPercent();
+    }
+
+    private void serveDisk(HttpExchange exchange) throws IOException {
+        long size = (long) this.diskMegabytes * 1024 * 1024;
+        exchange.sendResponseHeaders(200, size);
+        byte[] chunk = new byte[CHUNK_SIZE];
+        try (OutputStream os = exchange.getResponseBody()) {
+            for (long sent = 0; sent < size; sent += chunk.length) {
+                os.write(chunk, 0, (int) Math.min(chunk.length, size - sent));
+            }
+        }
+    }
+
+    private void receiveDisk(HttpExchange exchange) throws IOException {
+        long bytesPerSecond = (long) this.megabytesPerSecond * 1024 * 1024;
+        long start = System.nanoTime();
+        long received = 0;
+        byte[] chunk = new byte[CHUNK_SIZE];
+        try (InputStream is = exchange.getRequestBody()) {
+            int read;
+            while ((read = is.read(chunk)) != -1) {
+                received += read;
+                long dueNanos = TimeUnit.SECONDS.toNanos(received) / bytesPerSecond;
+                long aheadNanos = dueNanos - (System.nanoTime() - start);
+                if (aheadNanos > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(aheadNanos);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException(e);
+                    }
+                }
+            }
+        }
+        exchange.sendResponseHeaders(200, -1);
+        exchange.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(OvfDiskUploaderBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
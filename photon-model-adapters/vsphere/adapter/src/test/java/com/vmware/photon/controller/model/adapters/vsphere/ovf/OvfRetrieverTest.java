@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.vsphere.ovf;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link OvfRetriever}
+ */
+public class OvfRetrieverTest {
+
+    private static final String OVF = "<?xml version=\"1.0\"?><Envelope/>";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private HttpServer server;
+    private CloseableHttpClient client;
+    private OvfRetriever retriever;
+    private byte[] ova;
+    private byte[] disk;
+    private final AtomicInteger ovaRequests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        this.disk = new byte[3000];
+        new Random(42).nextBytes(this.disk);
+        this.ova = createOva(this.disk);
+
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/ranges.ova", exchange -> serve(exchange, true));
+        this.server.createContext("/noranges.ova", exchange -> serve(exchange, false));
+        this.server.start();
+
+        this.client = OvfRetriever.newInsecureClient();
+        this.retriever = new OvfRetriever(this.client) {
+            @Override
+            protected String getBaseOvaExtractionDir() {
+                return OvfRetrieverTest.this.tmp.getRoot().getAbsolutePath();
+            }
+        };
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.client.close();
+        this.server.stop(0);
+    }
+
+    private static byte[] createOva(byte[] disk) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(bytes)) {
+            addEntry(tar, "test.ovf", OVF.getBytes(StandardCharsets.UTF_8));
+            addEntry(tar, "disk1.vmdk", disk);
+            addEntry(tar, "empty.vmdk", new byte[0]);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void addEntry(TarArchiveOutputStream tar, String name, byte[] content)
+            throws IOException {
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(content.length);
+        tar.putArchiveEntry(entry);
+        tar.write(content);
+        tar.closeArchiveEntry();
+    }
+
+    private void serve(HttpExchange exchange, boolean ranges) throws IOException {
+        this.ovaRequests.incrementAndGet();
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        byte[] body = this.ova;
+        int status = 200;
+        if (ranges && range != null) {
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            int start = Integer.parseInt(bounds[0]);
+            int end = Math.min(Integer.parseInt(bounds[1]), this.ova.length - 1);
+            if (start >= this.ova.length) {
+                exchange.sendResponseHeaders(416, -1);
+                exchange.close();
+                return;
+            }
+            body = Arrays.copyOfRange(this.ova, start, end + 1);
+            status = 206;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + this.server.getAddress().getPort() + path);
+    }
+
+    private byte[] readDisk(File folder, String name) throws IOException {
+        String sourceUri = new File(folder, name).toURI().toString();
+        HttpGet get = this.retriever.newDiskRequest(sourceUri);
+        if (get == null) {
+            return Files.readAllBytes(new File(folder, name).toPath());
+        }
+        HttpResponse response = this.client.execute(get);
+        return EntityUtils.toByteArray(response.getEntity());
+    }
+
+    @Test
+    public void testDisksAreStreamedFromOva() throws IOException {
+        URI ovfUri = this.retriever.downloadIfOva(uri("/ranges.ova"));
+        File folder = new File(ovfUri).getParentFile();
+
+        assertEquals(OVF, this.retriever.retrieveAsString(ovfUri));
+        // only the descriptor is downloaded
+        assertFalse(new File(folder, "disk1.vmdk").exists());
+        assertNotNull(this.retriever.newDiskRequest(new File(folder, "disk1.vmdk").toURI()
+                .toString()));
+        assertArrayEquals(this.disk, readDisk(folder, "disk1.vmdk"));
+
+        // the index is reused
+        int requests = this.ovaRequests.get();
+        assertEquals(ovfUri, this.retriever.downloadIfOva(uri("/ranges.ova")));
+        assertEquals(requests + 1, this.ovaRequests.get());
+    }
+
+    @Test
+    public void testOvaIsExtractedWithoutRanges() throws IOException {
+        URI ovfUri = this.retriever.downloadIfOva(uri("/noranges.ova"));
+        File folder = new File(ovfUri).getParentFile();
+
+        assertTrue(new File(folder, "disk1.vmdk").isFile());
+        assertNull(this.retriever.newDiskRequest(new File(folder, "disk1.vmdk").toURI()
+                .toString()));
+        assertArrayEquals(this.disk, readDisk(folder, "disk1.vmdk"));
+    }
+
+    @Test
+    public void testCorruptedExtractionIsRedone() throws IOException {
+        URI ovfUri = this.retriever.downloadIfOva(uri("/noranges.ova"));
+        File disk = new File(new File(ovfUri).getParentFile(), "disk1.vmdk");
+        try (FileOutputStream fos = new FileOutputStream(disk)) {
+            fos.write(1);
+        }
+
+        assertEquals(ovfUri, this.retriever.downloadIfOva(uri("/noranges.ova")));
+        assertArrayEquals(this.disk, Files.readAllBytes(disk.toPath()));
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.vsphere.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.adapters.vsphere.VSphereIOThreadPool;
+import com.vmware.photon.controller.model.adapters.vsphere.VimUtils;
+import com.vmware.photon.controller.model.adapters.vsphere.util.VimNames;
+import com.vmware.photon.controller.model.adapters.vsphere.util.connection.Connection;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+import com.vmware.xenon.common.OperationContext;
+import com.vmware.xenon.common.ServiceStats.ServiceStat;
+import com.vmware.xenon.services.common.AuthCredentialsService.AuthCredentialsServiceState;
+
+public class PerfQueryBatcherTest {
+    private static final URI ADAPTER_REFERENCE = URI.create("https://vcenter/sdk");
+    private static final String MISSING_VM = "vm-missing";
+
+    /**
+     * Batcher which queries the stats without a vCenter: each entity has one stat named after
+     * it, and a query which contains {@link #MISSING_VM} fails.
+     */
+    private static class FakeBatcher extends PerfQueryBatcher {
+        final List<List<String>> queries = new CopyOnWriteArrayList<>();
+        final ScheduledExecutorService executor;
+
+        FakeBatcher(ScheduledExecutorService executor, int batchSize, long lingerMillis) {
+            super(null, batchSize, lingerMillis);
+            this.executor = executor;
+        }
+
+        @Override
+        protected void submit(URI adapterReference, AuthCredentialsServiceState credentials,
+                VSphereIOThreadPool.ConnectionCallback callback) {
+            this.executor.execute(() -> callback.doInConnection(null, null));
+        }
+
+        @Override
+        protected void schedule(Runnable task, long delayMillis) {
+            this.executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        protected Map<String, List<ServiceStat>> retrieveMetrics(Connection connection,
+                List<ManagedObjectReference> entities) throws RuntimeFaultFaultMsg {
+            List<String> values = new ArrayList<>();
+            entities.forEach(e -> values.add(e.getValue()));
+            this.queries.add(values);
+
+            if (values.contains(MISSING_VM)) {
+                throw new RuntimeFaultFaultMsg("The object has already been deleted");
+            }
+
+            Map<String, List<ServiceStat>> res = new HashMap<>();
+            for (ManagedObjectReference entity : entities) {
+                ServiceStat stat = new ServiceStat();
+                stat.name = entity.getValue();
+                res.put(VimUtils.convertMoRefToString(entity), Collections.singletonList(stat));
+            }
+            return res;
+        }
+    }
+
+    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(2);
+    private final Map<String, List<ServiceStat>> stats = new ConcurrentHashMap<>();
+    private final Map<String, Throwable> failures = new ConcurrentHashMap<>();
+    private final Map<String, String> contextIds = new ConcurrentHashMap<>();
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void testBatchSizeWithinMaxQueryMetrics() {
+        assertTrue(PerfQueryBatcher.BATCH_SIZE >= 1);
+        assertTrue(PerfQueryBatcher.BATCH_SIZE * StatsClient.DEFAULT_METRICS_PER_ENTITY
+                <= Math.max(PerfQueryBatcher.MAX_QUERY_METRICS,
+                        StatsClient.DEFAULT_METRICS_PER_ENTITY));
+    }
+
+    @Test
+    public void testFullBatchIsSentAtOnce() throws Exception {
+        FakeBatcher batcher = new FakeBatcher(this.executor, 3, TimeUnit.HOURS.toMillis(1));
+
+        query(batcher, "vm-1", "vm-2", "vm-3", "vm-4", "vm-5", "vm-6");
+
+        assertEquals(2, batcher.queries.size());
+        assertEquals(6, batcher.queries.stream().mapToInt(List::size).sum());
+        assertEquals(3, batcher.queries.get(0).size());
+        assertEquals(3, batcher.queries.get(1).size());
+        assertStats("vm-1", "vm-2", "vm-3", "vm-4", "vm-5", "vm-6");
+    }
+
+    @Test
+    public void testLingerFlushesPartialBatch() throws Exception {
+        FakeBatcher batcher = new FakeBatcher(this.executor, 10, 50);
+
+        long start = System.nanoTime();
+        query(batcher, "vm-1", "vm-2");
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("flushed after " + elapsedMillis + " ms", elapsedMillis >= 50);
+        assertEquals(1, batcher.queries.size());
+        assertEquals(2, batcher.queries.get(0).size());
+        assertStats("vm-1", "vm-2");
+    }
+
+    @Test
+    public void testFailedBatchIsQueriedOneByOne() throws Exception {
+        FakeBatcher batcher = new FakeBatcher(this.executor, 3, TimeUnit.HOURS.toMillis(1));
+
+        query(batcher, "vm-1", MISSING_VM, "vm-3");
+
+        // the batch, then each entity
+        assertEquals(4, batcher.queries.size());
+        assertEquals(3, batcher.queries.get(0).size());
+        for (List<String> query : batcher.queries.subList(1, 4)) {
+            assertEquals(1, query.size());
+        }
+        assertStats("vm-1", "vm-3");
+        assertNotNull(this.failures.get(MISSING_VM));
+        assertNull(this.stats.get(MISSING_VM));
+    }
+
+    @Test
+    public void testCallbacksRunInContextOfQuery() throws Exception {
+        FakeBatcher batcher = new FakeBatcher(this.executor, 3, TimeUnit.HOURS.toMillis(1));
+
+        query(batcher, "vm-1", "vm-2", "vm-3");
+
+        for (String vm : new String[] { "vm-1", "vm-2", "vm-3" }) {
+            assertEquals("context-" + vm, this.contextIds.get(vm));
+        }
+    }
+
+    private void query(PerfQueryBatcher batcher, String... vms) throws InterruptedException {
+        AuthCredentialsServiceState credentials = new AuthCredentialsServiceState();
+        credentials.privateKeyId = "user";
+        credentials.privateKey = "password";
+
+        CountDownLatch done = new CountDownLatch(vms.length);
+        OperationContext original = OperationContext.getOperationContext();
+        try {
+            for (String vm : vms) {
+                ManagedObjectReference entity = new ManagedObjectReference();
+                entity.setType(VimNames.TYPE_VM);
+                entity.setValue(vm);
+
+                OperationContext.setContextId("context-" + vm);
+                batcher.query(ADAPTER_REFERENCE, credentials, entity, (s, e) -> {
+                    this.contextIds.put(vm, String.valueOf(OperationContext.getContextId()));
+                    if (e != null) {
+                        this.failures.put(vm, e);
+                    } else {
+                        this.stats.put(vm, s);
+                    }
+                    done.countDown();
+                });
+            }
+        } finally {
+            OperationContext.restoreOperationContext(original);
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    private void assertStats(String... vms) {
+        for (String vm : vms) {
+            List<ServiceStat> vmStats = this.stats.get(vm);
+            assertNotNull(vm, vmStats);
+            assertEquals(1, vmStats.size());
+            assertEquals(vm, vmStats.get(0).name);
+        }
+    }
+}
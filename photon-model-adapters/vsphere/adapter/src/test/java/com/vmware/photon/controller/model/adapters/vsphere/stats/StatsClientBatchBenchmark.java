@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.vsphere.stats;
+
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.vmware.photon.controller.model.adapters.vsphere.VimUtils;
+import com.vmware.photon.controller.model.adapters.vsphere.util.VimNames;
+import com.vmware.photon.controller.model.adapters.vsphere.util.connection.Connection;
+import com.vmware.vim25.ArrayOfPerfCounterInfo;
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.ElementDescription;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.PerfCounterInfo;
+import com.vmware.vim25.PerfEntityMetric;
+import com.vmware.vim25.PerfEntityMetricBase;
+import com.vmware.vim25.PerfMetricId;
+import com.vmware.vim25.PerfMetricIntSeries;
+import com.vmware.vim25.PerfQuerySpec;
+import com.vmware.vim25.PerfSampleInfo;
+import com.vmware.vim25.PerfStatsType;
+import com.vmware.vim25.PerfSummaryType;
+import com.vmware.vim25.PerformanceManagerUnit;
+import com.vmware.vim25.RetrieveResult;
+import com.vmware.vim25.ServiceContent;
+import com.vmware.vim25.VimPortType;
+
+/**
+ * Measures the time to collect the stats of an endpoint with {@code vms} VMs, querying
+ * {@code batchSize} VMs per queryPerf call. vCenter is simulated by a VimPortType which takes
+ * {@code roundTripMillis} per call plus {@code specMicros} per query spec, so a batch size of 1
+ * is the cost of the former one call per VM. Run with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.vmware.photon.controller.model.adapters.vsphere.stats.StatsClientBatchBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class StatsClientBatchBenchmark {
+
+    private static final AtomicInteger endpoints = new AtomicInteger();
+
+    private static final int SAMPLES = 288;
+
+    @Param({ "1", "16", "64", "256" })
+    public int batchSize;
+
+    @Param({ "5000" })
+    public int vms;
+
+    @Param({ "2" })
+    public int roundTripMillis;
+
+    @Param({ "20" })
+    public int specMicros;
+
+    private List<ManagedObjectReference> entities;
+    private StatsClient client;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        this.entities = new ArrayList<>(this.vms);
+        for (int i = 0; i < this.vms; i++) {
+            ManagedObjectReference vm = new ManagedObjectReference();
+            vm.setType(VimNames.TYPE_VM);
+            vm.setValue("vm-" + i);
+            this.entities.add(vm);
+        }
+
+        // the perf counters are cached by URI, use a new one so that each trial looks them up
+        URI uri = URI.create("https://vc-" + endpoints.incrementAndGet() + "/sdk");
+        this.client = new StatsClient(createConnection(createVimPort(), uri));
+    }
+
+    @Benchmark
+    public int collect() throws Exception {
+        int collected = 0;
+        for (int i = 0; i < this.entities.size(); i += this.batchSize) {
+            List<ManagedObjectReference> batch = this.entities.subList(i,
+                    Math.min(i + this.batchSize, this.entities.size()));
+            Map<String, ?> stats = this.client.retrieveMetrics(batch);
+            collected += stats.size();
+        }
+        return collected;
+    }
+
+    private VimPortType createVimPort() {
+        ArrayOfPerfCounterInfo counters = new ArrayOfPerfCounterInfo();
+        counters.getPerfCounterInfo().add(counter(1, "cpu", "usage", PerfStatsType.RATE,
+                PerformanceManagerUnit.PERCENT));
+        counters.getPerfCounterInfo().add(counter(2, "cpu", "usagemhz", PerfStatsType.RATE,
+                PerformanceManagerUnit.MEGA_HERTZ));
+        counters.getPerfCounterInfo().add(counter(3, "mem", "consumed", PerfStatsType.ABSOLUTE,
+                PerformanceManagerUnit.KILO_BYTES));
+
+        return (VimPortType) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { VimPortType.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "retrievePropertiesEx":
+                        return perfCounters(counters);
+                    case "queryPerf":
+                        @SuppressWarnings("unchecked")
+                        List<PerfQuerySpec> specs = (List<PerfQuerySpec>) args[1];
+                        return queryPerf(specs);
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private List<PerfEntityMetricBase> queryPerf(List<PerfQuerySpec> specs)
+            throws InterruptedException {
+        TimeUnit.MICROSECONDS.sleep(TimeUnit.MILLISECONDS.toMicros(this.roundTripMillis)
+                + (long) this.specMicros * specs.size());
+
+        List<PerfEntityMetricBase> res = new ArrayList<>(specs.size());
+        long now = System.currentTimeMillis();
+        for (PerfQuerySpec spec : specs) {
+            PerfEntityMetric metric = new PerfEntityMetric();
+            metric.setEntity(spec.getEntity());
+            for (int i = 0; i < SAMPLES; i++) {
+                PerfSampleInfo info = new PerfSampleInfo();
+                info.setInterval(spec.getIntervalId());
+                info.setTimestamp(VimUtils.convertMillisToXmlCalendar(
+                        now - TimeUnit.MINUTES.toMillis(5) * (SAMPLES - i)));
+                metric.getSampleInfo().add(info);
+            }
+            for (PerfMetricId metricId : spec.getMetricId()) {
+                PerfMetricIntSeries series = new PerfMetricIntSeries();
+                series.setId(metricId);
+                for (int i = 0; i < SAMPLES; i++) {
+                    series.getValue().add((long) i);
+                }
+                metric.getValue().add(series);
+            }
+            res.add(metric);
+        }
+        return res;
+    }
+
+    private static RetrieveResult perfCounters(ArrayOfPerfCounterInfo counters) {
+        DynamicProperty property = new DynamicProperty();
+        property.setName("perfCounter");
+        property.setVal(counters);
+        ObjectContent content = new ObjectContent();
+        content.getPropSet().add(property);
+        RetrieveResult result = new RetrieveResult();
+        result.getObjects().add(content);
+        return result;
+    }
+
+    private static PerfCounterInfo counter(int key, String group, String name,
+            PerfStatsType type, PerformanceManagerUnit unit) {
+        PerfCounterInfo counter = new PerfCounterInfo();
+        counter.setKey(key);
+        counter.setGroupInfo(description(group));
+        counter.setNameInfo(description(name));
+        counter.setUnitInfo(description(unit.value()));
+        counter.setRollupType(PerfSummaryType.AVERAGE);
+        counter.setStatsType(type);
+        return counter;
+    }
+
+    private static ElementDescription description(String key) {
+        ElementDescription description = new ElementDescription();
+        description.setKey(key);
+        return description;
+    }
+
+    private Connection createConnection(VimPortType vimPort, URI uri) {
+        ServiceContent serviceContent = new ServiceContent();
+        ManagedObjectReference propertyCollector = new ManagedObjectReference();
+        propertyCollector.setType("PropertyCollector");
+        propertyCollector.setValue("propertyCollector");
+        serviceContent.setPropertyCollector(propertyCollector);
+
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "getVimPort":
+                        return vimPort;
+                    case "getServiceContent":
+                        return serviceContent;
+                    case "getURI":
+                        return uri;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(StatsClientBatchBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.adapters.vsphere.tagging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.resources.TagService.TagState;
+
+/**
+ * Unit test for {@link TagCache}.
+ */
+public class TagCacheTest {
+
+    private static final long TTL_MILLIS = 1000;
+
+    private long now;
+    private TagCache cache;
+    private AtomicInteger calls;
+
+    @Before
+    public void setUp() {
+        this.now = 0;
+        this.calls = new AtomicInteger();
+        this.cache = new TagCache(2, TTL_MILLIS) {
+            @Override
+            protected long nanoTime() {
+                return TagCacheTest.this.now;
+            }
+        };
+    }
+
+    private Function<String, TagState> tagProvider() {
+        return id -> {
+            this.calls.incrementAndGet();
+            TagState tag = new TagState();
+            tag.key = "category-of-" + id;
+            tag.value = id;
+            return tag;
+        };
+    }
+
+    @Test
+    public void testTagsAreRetrievedOnce() {
+        TagState tag = this.cache.get("tag-1", tagProvider());
+
+        assertSame(tag, this.cache.get("tag-1", tagProvider()));
+        assertSame(tag, this.cache.get("tag-1"));
+        assertEquals(1, this.calls.get());
+    }
+
+    @Test
+    public void testExpiredTagsAreRetrievedAgain() {
+        TagState tag = this.cache.get("tag-1", tagProvider());
+
+        this.now += TimeUnit.MILLISECONDS.toNanos(TTL_MILLIS) - 1;
+        assertSame(tag, this.cache.get("tag-1", tagProvider()));
+
+        this.now += 1;
+        assertNull(this.cache.get("tag-1"));
+        this.cache.get("tag-1", tagProvider());
+        assertEquals(2, this.calls.get());
+    }
+
+    @Test
+    public void testMissingTagsAreNotCached() {
+        this.cache.get("tag-1", id -> null);
+
+        this.cache.get("tag-1", tagProvider());
+        assertEquals(1, this.calls.get());
+    }
+
+    @Test
+    public void testCacheIsBounded() {
+        this.cache.get("tag-1", tagProvider());
+        this.cache.get("tag-2", tagProvider());
+        this.cache.get("tag-3", tagProvider());
+
+        // the least recently used tag was evicted
+        this.cache.get("tag-1", tagProvider());
+        assertEquals(4, this.calls.get());
+    }
+
+    @Test
+    public void testCategoryNames() {
+        Function<String, String> categoryProvider = id -> {
+            this.calls.incrementAndGet();
+            return "name of " + id;
+        };
+
+        assertEquals("name of category-1",
+                this.cache.getCategoryName("category-1", categoryProvider));
+        assertEquals("name of category-1",
+                this.cache.getCategoryName("category-1", categoryProvider));
+        assertEquals(1, this.calls.get());
+
+        this.now += TimeUnit.MILLISECONDS.toNanos(TTL_MILLIS);
+        this.cache.getCategoryName("category-1", categoryProvider);
+        assertEquals(2, this.calls.get());
+    }
+}
@@ -787,6 +787,8 @@ public class EndpointAllocationTaskService
         scheduledTaskState.customProperties = new HashMap<>();
         scheduledTaskState.customProperties.put(ENDPOINT_LINK_PROP_NAME,
                 endpoint.documentSelfLink);
+        scheduledTaskState.customProperties.put(ScheduledTaskService.ENDPOINT_TYPE_PROP_NAME,
+                endpoint.endpointType);
 
         Operation.createPost(this, ScheduledTaskService.FACTORY_LINK)
                 .addPragmaDirective(Operation.PRAGMA_DIRECTIVE_FORCE_INDEX_UPDATE)
@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.tasks;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.photon.controller.model.UriPaths;
+import com.vmware.photon.controller.model.resources.IPAddressService.IPAddressState;
+import com.vmware.photon.controller.model.resources.IPAddressService.IPAddressState.IPAddressStatus;
+import com.vmware.photon.controller.model.resources.SubnetRangeService.SubnetRangeState;
+import com.vmware.photon.controller.model.util.IpHelper;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Allocation index of the IPv4 addresses of a subnet range: a bitmap of the addresses in use,
+ * i.e. allocated, released or reserved by an allocation in progress, and the documents of the
+ * range which are {@link IPAddressStatus#AVAILABLE} for reuse.
+ * <p>
+ * Reserving an address is synchronized on the index and amortized O(1), so concurrent
+ * allocations on a host never pick the same address, and do not scan the range. The indexes of
+ * a host are kept in memory, see {@link #get(ServiceHost, String)}, and are rebuilt from the
+ * IP address documents of the subnet ({@link #build(SubnetRangeState, Collection)}) when
+ * missing, older than {@link #INDEX_TTL_MICROS}, or after an allocation conflicted with another
+ * host.
+ * <p>
+ * A reservation is in flight until the allocation records the address as used
+ * ({@link #markUsed(ServiceHost, String, String)}), or releases it on failure
+ * ({@link #release(ServiceHost, String, String)}). The reservations in flight of the index kept
+ * by the host are carried over to the index which replaces it, so that a rebuild does not hand
+ * out again an address whose allocation is in progress.
+ */
+public class IPAddressAllocationIndex {
+
+    public static final String INDEX_TTL_SECONDS_PROPERTY = UriPaths.PROPERTY_PREFIX
+            + "ipam.allocation.index.ttl.seconds";
+    public static final long DEFAULT_INDEX_TTL_SECONDS = TimeUnit.MINUTES.toSeconds(5);
+
+    public static final long INDEX_TTL_MICROS = TimeUnit.SECONDS.toMicros(
+            Long.getLong(INDEX_TTL_SECONDS_PROPERTY, DEFAULT_INDEX_TTL_SECONDS));
+
+    private static final ConcurrentMap<String, IPAddressAllocationIndex> indexes =
+            new ConcurrentHashMap<>();
+
+    public final String subnetRangeLink;
+    public final String subnetLink;
+
+    private final long beginAddress;
+    private final int size;
+    private final long buildTimeMicros;
+
+    /* Addresses allocated, released or reserved */
+    private final BitSet used;
+
+    /* Links of the AVAILABLE documents of the range, by address, not reserved */
+    private final TreeMap<Integer, String> reusable = new TreeMap<>();
+
+    /* Reservations not yet recorded as used nor released, by address */
+    private final Map<Integer, Reservation> inFlight = new HashMap<>();
+
+    private int usedCount;
+
+    /* Where to look for a new address, next to the last one reserved */
+    private int cursor;
+
+    /**
+     * An address reserved by an allocation in progress, and the link of its document if it was
+     * {@link IPAddressStatus#AVAILABLE}.
+     */
+    private static class Reservation {
+        final String documentSelfLink;
+        final long reservedMicros;
+
+        Reservation(String documentSelfLink, long reservedMicros) {
+            this.documentSelfLink = documentSelfLink;
+            this.reservedMicros = reservedMicros;
+        }
+    }
+
+    IPAddressAllocationIndex(String subnetRangeLink, String subnetLink, long beginAddress,
+            long endAddress, long buildTimeMicros) {
+        if (endAddress < beginAddress || endAddress - beginAddress >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid address range %s - %s of subnet range %s",
+                    IpHelper.longToIpString(beginAddress), IpHelper.longToIpString(endAddress),
+                    subnetRangeLink));
+        }
+        this.subnetRangeLink = subnetRangeLink;
+        this.subnetLink = subnetLink;
+        this.beginAddress = beginAddress;
+        this.size = (int) (endAddress - beginAddress) + 1;
+        this.buildTimeMicros = buildTimeMicros;
+        this.used = new BitSet(this.size);
+    }
+
+    /**
+     * Builds the index of the given IPv4 subnet range from the IP address documents of its
+     * subnet. The addresses of the range which have a document in another range of the subnet are
+     * in use too.
+     */
+    public static IPAddressAllocationIndex build(SubnetRangeState subnetRangeState,
+            Collection<IPAddressState> ipAddressStates) {
+        IPAddressAllocationIndex index = new IPAddressAllocationIndex(
+                subnetRangeState.documentSelfLink, subnetRangeState.subnetLink,
+                IpHelper.ipStringToLong(subnetRangeState.startIPAddress),
+                IpHelper.ipStringToLong(subnetRangeState.endIPAddress),
+                Utils.getNowMicrosUtc());
+        for (IPAddressState ipAddressState : ipAddressStates) {
+            int offset = index.offsetOf(ipAddressState.ipAddress);
+            if (offset < 0) {
+                continue;
+            }
+            if (ipAddressState.ipAddressStatus == IPAddressStatus.AVAILABLE
+                    && index.subnetRangeLink.equals(ipAddressState.subnetRangeLink)) {
+                index.reusable.put(offset, ipAddressState.documentSelfLink);
+            } else {
+                index.setUsed(offset);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns the index of the given subnet range kept by the host, if not expired.
+     */
+    public static IPAddressAllocationIndex get(ServiceHost host, String subnetRangeLink) {
+        IPAddressAllocationIndex index = indexes.get(key(host, subnetRangeLink));
+        if (index == null || index.isExpired(Utils.getNowMicrosUtc())) {
+            return null;
+        }
+        return index;
+    }
+
+    /**
+     * Keeps the given index in the host, unless it already keeps a more recent index of the same
+     * range. The reservations in flight of the index replaced are carried over.
+     *
+     * @return the index kept
+     */
+    public static IPAddressAllocationIndex put(ServiceHost host, IPAddressAllocationIndex index) {
+        return indexes.merge(key(host, index.subnetRangeLink), index,
+                (current, built) -> {
+                    if (current.buildTimeMicros > built.buildTimeMicros) {
+                        return current;
+                    }
+                    built.keepReservations(current);
+                    return built;
+                });
+    }
+
+    /**
+     * Drops the index of the given subnet range, so that it is rebuilt on the next allocation.
+     */
+    public static void invalidate(ServiceHost host, String subnetRangeLink) {
+        indexes.remove(key(host, subnetRangeLink));
+    }
+
+    /**
+     * Drops the indexes kept by the host of the ranges of the given subnet which are not among
+     * the given ranges, i.e. which were deleted.
+     */
+    public static void retainRanges(ServiceHost host, String subnetLink,
+            Collection<String> subnetRangeLinks) {
+        if (subnetLink == null) {
+            return;
+        }
+        indexes.entrySet().removeIf(entry -> {
+            IPAddressAllocationIndex index = entry.getValue();
+            return subnetLink.equals(index.subnetLink)
+                    && !subnetRangeLinks.contains(index.subnetRangeLink)
+                    && entry.getKey().equals(key(host, index.subnetRangeLink));
+        });
+    }
+
+    /**
+     * Releases in the index kept by the host, if any, the reservation in flight of the given
+     * address, e.g. when its allocation failed.
+     */
+    public static void release(ServiceHost host, String subnetRangeLink, String ipAddress) {
+        if (subnetRangeLink == null) {
+            return;
+        }
+        IPAddressAllocationIndex index = indexes.get(key(host, subnetRangeLink));
+        if (index != null) {
+            index.release(ipAddress);
+        }
+    }
+
+    /**
+     * Records in the index kept by the host, if any, that the given document became
+     * {@link IPAddressStatus#AVAILABLE}.
+     */
+    public static void markAvailable(ServiceHost host, IPAddressState ipAddressState) {
+        if (ipAddressState.subnetRangeLink == null) {
+            return;
+        }
+        IPAddressAllocationIndex index = indexes.get(key(host, ipAddressState.subnetRangeLink));
+        if (index != null) {
+            index.markAvailable(ipAddressState.ipAddress, ipAddressState.documentSelfLink);
+        }
+    }
+
+    /**
+     * Records in the index kept by the host, if any, that the given address is in use.
+     */
+    public static void markUsed(ServiceHost host, String subnetRangeLink, String ipAddress) {
+        if (subnetRangeLink == null) {
+            return;
+        }
+        IPAddressAllocationIndex index = indexes.get(key(host, subnetRangeLink));
+        if (index != null) {
+            index.markUsed(ipAddress);
+        }
+    }
+
+    private static String key(ServiceHost host, String subnetRangeLink) {
+        return UriUtils.buildUriPath(host.getId(), subnetRangeLink);
+    }
+
+    boolean isExpired(long nowMicros) {
+        return nowMicros - this.buildTimeMicros > INDEX_TTL_MICROS;
+    }
+
+    /**
+     * Reserves an address whose document is {@link IPAddressStatus#AVAILABLE}.
+     *
+     * @return the link, address and range of the document, or {@code null} if there is none
+     */
+    public synchronized IPAddressState reserveReusable() {
+        Entry<Integer, String> entry = this.reusable.pollFirstEntry();
+        if (entry == null) {
+            return null;
+        }
+        setUsed(entry.getKey());
+        this.inFlight.put(entry.getKey(),
+                new Reservation(entry.getValue(), Utils.getNowMicrosUtc()));
+
+        IPAddressState ipAddressState = new IPAddressState();
+        ipAddressState.documentSelfLink = entry.getValue();
+        ipAddressState.ipAddress = addressOf(entry.getKey());
+        ipAddressState.subnetRangeLink = this.subnetRangeLink;
+        return ipAddressState;
+    }
+
+    /**
+     * Reserves an address which has no document yet.
+     *
+     * @return the address, or {@code null} if all the addresses of the range have a document
+     */
+    public synchronized String reserveNew() {
+        int offset = nextNew(this.cursor);
+        if (offset < 0 && this.cursor > 0) {
+            offset = nextNew(0);
+        }
+        if (offset < 0) {
+            return null;
+        }
+        setUsed(offset);
+        this.inFlight.put(offset, new Reservation(null, Utils.getNowMicrosUtc()));
+        this.cursor = offset + 1;
+        return addressOf(offset);
+    }
+
+    private int nextNew(int from) {
+        int offset = this.used.nextClearBit(from);
+        while (offset < this.size && this.reusable.containsKey(offset)) {
+            offset = this.used.nextClearBit(offset + 1);
+        }
+        return offset < this.size ? offset : -1;
+    }
+
+    /**
+     * Records that the given address is in use, e.g. allocated on request.
+     */
+    public synchronized void markUsed(String ipAddress) {
+        int offset = offsetOf(ipAddress);
+        if (offset >= 0) {
+            this.inFlight.remove(offset);
+            this.reusable.remove(offset);
+            setUsed(offset);
+        }
+    }
+
+    /**
+     * Releases the reservation in flight of the given address: it is not in use anymore, and its
+     * document, if it was {@link IPAddressStatus#AVAILABLE}, can be reused again. An address which
+     * is not reserved is left as is.
+     */
+    public synchronized void release(String ipAddress) {
+        int offset = offsetOf(ipAddress);
+        Reservation reservation = offset >= 0 ? this.inFlight.remove(offset) : null;
+        if (reservation == null) {
+            return;
+        }
+        this.used.clear(offset);
+        this.usedCount--;
+        if (reservation.documentSelfLink != null) {
+            this.reusable.put(offset, reservation.documentSelfLink);
+        }
+    }
+
+    /**
+     * Records that the given document of the range became {@link IPAddressStatus#AVAILABLE}.
+     */
+    public synchronized void markAvailable(String ipAddress, String documentSelfLink) {
+        int offset = offsetOf(ipAddress);
+        if (offset >= 0) {
+            this.inFlight.remove(offset);
+            if (this.used.get(offset)) {
+                this.used.clear(offset);
+                this.usedCount--;
+            }
+            this.reusable.put(offset, documentSelfLink);
+        }
+    }
+
+    /**
+     * Returns whether there are addresses whose document is {@link IPAddressStatus#AVAILABLE}.
+     */
+    public synchronized boolean hasReusable() {
+        return !this.reusable.isEmpty();
+    }
+
+    /**
+     * Returns the number of addresses not in use, with or without a document.
+     */
+    public synchronized int getAvailableCount() {
+        return this.size - this.usedCount;
+    }
+
+    public int getSize() {
+        return this.size;
+    }
+
+    /*
+     * Carries over the reservations in flight of the given index of the same range. The ones of
+     * addresses which are in use according to the documents stay in use, and the ones older than
+     * the time to live of an index, whose allocation is not in progress anymore, are dropped.
+     */
+    private void keepReservations(IPAddressAllocationIndex other) {
+        long nowMicros = Utils.getNowMicrosUtc();
+        Map<Integer, Reservation> reservations;
+        synchronized (other) {
+            reservations = new HashMap<>(other.inFlight);
+        }
+        synchronized (this) {
+            for (Entry<Integer, Reservation> entry : reservations.entrySet()) {
+                if (this.used.get(entry.getKey())
+                        || nowMicros - entry.getValue().reservedMicros > INDEX_TTL_MICROS) {
+                    continue;
+                }
+                this.reusable.remove(entry.getKey());
+                setUsed(entry.getKey());
+                this.inFlight.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void setUsed(int offset) {
+        if (!this.used.get(offset)) {
+            this.used.set(offset);
+            this.usedCount++;
+        }
+    }
+
+    private int offsetOf(String ipAddress) {
+        long offset = IpHelper.ipStringToLong(ipAddress) - this.beginAddress;
+        return offset >= 0 && offset < this.size ? (int) offset : -1;
+    }
+
+    private String addressOf(int offset) {
+        return IpHelper.longToIpString(this.beginAddress + offset);
+    }
+}
@@ -23,11 +23,9 @@ import static com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOp
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
@@ -57,6 +55,7 @@ import com.vmware.xenon.common.Service;
 import com.vmware.xenon.common.ServiceDocument;
 import com.vmware.xenon.common.ServiceDocumentDescription;
 import com.vmware.xenon.common.ServiceErrorResponse;
+import com.vmware.xenon.common.ServiceHost;
 import com.vmware.xenon.common.TaskState;
 import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.Utils;
@@ -74,6 +73,11 @@ public class IPAddressAllocationTaskService extends
 
     public static final String CUSTOM_PROPERTY_SUFFIX_IP_ADDRESS_LINK = "-IPAddressLink";
 
+    /**
+     * The number of times an allocation is retried after conflicting with other hosts.
+     */
+    private static final int MAX_ALLOCATION_RETRIES = 10;
+
     /**
      * Service context that is created for passing intermediate data between async calls.
      * Used only during allocation.
@@ -95,11 +99,8 @@ public class IPAddressAllocationTaskService extends
         /*A reference to state that gets passed in to the request*/
         public IPAddressAllocationTaskState serviceState;
 
-        /*All the ips associated with the subnet state*/
-        public List<IPAddressState> ipAddressStates;
-
-        /*Existing IP addresses in the subnet that are not available*/
-        public Set<Long> unavailableIpAddresses;
+        /*The allocation index of each IPv4 subnet range, by subnet range link*/
+        public Map<String, IPAddressAllocationIndex> allocationIndexes = new ConcurrentHashMap<>();
 
         /*The string is the resource link. And the list is the list of all ip addresses assigned
           to that resource.*/
@@ -111,10 +112,11 @@ public class IPAddressAllocationTaskService extends
         /*The total possible IP addresses in all the subnet ranges*/
         public int maxPossibleIpsCount;
 
+        /*The number of times the allocation was retried after a conflict*/
+        public int retryCount;
+
         public IPAddressAllocationContext() {
             this.subnetRangeStates = new ArrayList<>();
-            this.ipAddressStates = new ArrayList<>();
-            this.unavailableIpAddresses = new HashSet<>();
         }
 
         public DeferredResult<IPAddressAllocationContext> populate(
@@ -126,9 +128,8 @@ public class IPAddressAllocationTaskService extends
             return this.populateContextWithSubnet(ipAddressAllocationTaskService, state.subnetLink)
                     .thenCompose(ctxt -> populateContextWithExistingSubnetRanges
                             (ipAddressAllocationTaskService))
-                    .thenCompose(ctxt -> populateContextWithExistingIpAddresses
-                            (ipAddressAllocationTaskService))
-                    .thenCompose(ctxt -> this.setUnAvailableIps())
+                    .thenCompose(ctxt -> populateAllocationIndexes
+                            (ipAddressAllocationTaskService, false))
                     .thenCompose(ctxt -> this.setRequiredIpCounts());
         }
 
@@ -179,15 +180,41 @@ public class IPAddressAllocationTaskService extends
         }
 
         /**
-         * This method finds all the IP address documents in the subnet and adds it to the context.
+         * Adds the allocation index of each IPv4 subnet range to the context.
          *
-         * The way this is done is, we iterate thru all the subnet ranges in the subnet. We get the
-         * subnet range document self link. Then we query IP address docs that hold a reference to this
-         * subnet range document self link.
-         * @return
+         * The indexes kept by the host are used as long as all the ranges of the subnet have one.
+         * Otherwise, or when {@code rebuild} is set, we iterate thru all the subnet ranges in the
+         * subnet and query the IP address docs that hold a reference to each subnet range, to
+         * build the indexes again. The indexes of the ranges deleted from the subnet are
+         * dropped.
          */
-        private DeferredResult<IPAddressAllocationContext> populateContextWithExistingIpAddresses(
-                IPAddressAllocationTaskService ipAddressAllocationTaskService) {
+        private DeferredResult<IPAddressAllocationContext> populateAllocationIndexes(
+                IPAddressAllocationTaskService ipAddressAllocationTaskService, boolean rebuild) {
+
+            ServiceHost host = ipAddressAllocationTaskService.getHost();
+            IPAddressAllocationIndex.retainRanges(host, this.subnetState.documentSelfLink,
+                    this.subnetRangeStates.stream()
+                            .map(subnetRangeState -> subnetRangeState.documentSelfLink)
+                            .collect(toList()));
+            List<SubnetRangeState> ipv4RangeStates = this.subnetRangeStates.stream()
+                    .filter(subnetRangeState -> IPVersion.IPv4.equals(subnetRangeState.ipVersion))
+                    .collect(toList());
+
+            this.allocationIndexes.clear();
+            if (!rebuild) {
+                for (SubnetRangeState subnetRangeState : ipv4RangeStates) {
+                    IPAddressAllocationIndex index = IPAddressAllocationIndex.get(host,
+                            subnetRangeState.documentSelfLink);
+                    if (index == null) {
+                        this.allocationIndexes.clear();
+                        break;
+                    }
+                    this.allocationIndexes.put(subnetRangeState.documentSelfLink, index);
+                }
+                if (this.allocationIndexes.size() == ipv4RangeStates.size()) {
+                    return DeferredResult.completed(this);
+                }
+            }
 
             List<DeferredResult<List<IPAddressState>>> results = new ArrayList<>();
 
@@ -197,24 +224,22 @@ public class IPAddressAllocationTaskService extends
             }
 
             return DeferredResult.allOf(results).thenApply((lstIps) -> {
-                lstIps.forEach((item) -> this.ipAddressStates.addAll(item));
+                List<IPAddressState> ipAddressStates = new ArrayList<>();
+                lstIps.forEach(ipAddressStates::addAll);
 
+                for (SubnetRangeState subnetRangeState : ipv4RangeStates) {
+                    IPAddressAllocationIndex index = IPAddressAllocationIndex.put(host,
+                            IPAddressAllocationIndex.build(subnetRangeState, ipAddressStates));
+                    this.allocationIndexes.put(subnetRangeState.documentSelfLink, index);
+                }
                 return this;
             });
         }
 
-        private DeferredResult<IPAddressAllocationContext> setUnAvailableIps() {
-
-            List<IPAddressState> existingIpStates = this.ipAddressStates;
-
-            //Add ips that are not available
-            for (IPAddressState ipState : existingIpStates) {
-                if (ipState.ipAddressStatus != IPAddressState.IPAddressStatus.AVAILABLE) {
-                    this.unavailableIpAddresses
-                            .add(IpHelper.ipStringToLong(ipState.ipAddress));
-                }
-            }
-            return DeferredResult.completed(this);
+        /*The number of addresses not in use in all the IPv4 subnet ranges*/
+        private int getAvailableIpsCount() {
+            return this.allocationIndexes.values().stream()
+                    .mapToInt(IPAddressAllocationIndex::getAvailableCount).sum();
         }
 
         /*Every connected resource has a count that tells you how many IPs are needed */
@@ -680,6 +705,13 @@ public class IPAddressAllocationTaskService extends
         IPAddressAllocationContext ipAddressAllocationContext = new IPAddressAllocationContext();
 
         ipAddressAllocationContext.populate(this, state)
+                .thenCompose(ctxt -> {
+                    // the indexes kept by the host may miss addresses released on other hosts
+                    if (ctxt.getAvailableIpsCount() < ctxt.requestedIpCount) {
+                        return ctxt.populateAllocationIndexes(this, true);
+                    }
+                    return DeferredResult.completed(ctxt);
+                })
                 .thenAccept(ctxt ->
                 {
                     if (ctxt.subnetRangeStates == null || ctxt.subnetRangeStates.size() == 0) {
@@ -774,8 +806,6 @@ public class IPAddressAllocationTaskService extends
                                     String ipAddress = ipAddressState.ipAddress;
                                     logInfo("Successfully allocated IP %s for resource %s",
                                             ipAddress, connectedResourceLink);
-                                    long longIpAddr = IpHelper.ipStringToLong(ipAddress);
-                                    context.unavailableIpAddresses.add(longIpAddr);
                                     addIpToContext(context, connectedResourceLink,
                                             ipAddressState);
                                 }
@@ -792,38 +822,33 @@ public class IPAddressAllocationTaskService extends
     }
 
     /**
-     * The context has all the existing IP address documents owned by the subnet.
-     * We go through each of those IP address docs and check if it's status is available.
-     * If it is, we allocate it to the passed in, connected resource.
+     * The allocation indexes in the context know the existing IP address documents of each
+     * subnet range whose status is available. We reserve one of them in the first range that has
+     * one, and allocate it to the passed in, connected resource.
      *
      * @param context IPAddressAllocationContext
      * @param connectedResourceLink The resource that needs an IP address
-     * @return A DeferredResult of an IPAddressState
+     * @return A DeferredResult of an IPAddressState, or null if there is no available IP address
      *
      */
     private DeferredResult<IPAddressState> assignExistingIpToResource(IPAddressAllocationContext context,
             String connectedResourceLink) {
 
-        List<IPAddressState> existingIpAddressStates = context.ipAddressStates;
-        DeferredResult<IPAddressState> returnIp = new DeferredResult<>();
-
-        for (IPAddressState addressState : existingIpAddressStates) {
-            Long longIp = IpHelper.ipStringToLong(addressState.ipAddress);
-            if (addressState.ipAddressStatus == IPAddressState.IPAddressStatus.AVAILABLE
-                    && (!context.unavailableIpAddresses.contains(longIp))) {
-                context.unavailableIpAddresses.add(longIp);
+        for (SubnetRangeState subnetRangeState : context.subnetRangeStates) {
+            IPAddressAllocationIndex index = context.allocationIndexes
+                    .get(subnetRangeState.documentSelfLink);
+            IPAddressState addressState = index == null ? null : index.reserveReusable();
+            if (addressState != null) {
                 addressState.ipAddressStatus = IPAddressState.IPAddressStatus.ALLOCATED;
                 addressState.connectedResourceLink = connectedResourceLink;
                 logInfo("Picking an existing IP %s for resource %s", addressState.ipAddress,
                         connectedResourceLink);
-                return updateExistingIpAddressResource(addressState, context);
-            } else {
-                context.unavailableIpAddresses.add(longIp);
+                return releaseOnFailure(updateExistingIpAddressResource(addressState, context),
+                        addressState.subnetRangeLink, addressState.ipAddress);
             }
         }
 
-        returnIp.complete(null);
-        return returnIp;
+        return DeferredResult.completed(null);
     }
 
     /**
@@ -861,8 +886,6 @@ public class IPAddressAllocationTaskService extends
                                             String ipAddress = ipAddressState.ipAddress;
                                             logInfo("Successfully created IP %s for resource %s",
                                                     ipAddress, connectedResourceLink);
-                                            long longIpAddr = IpHelper.ipStringToLong(ipAddress);
-                                            context.unavailableIpAddresses.add(longIpAddr);
                                             addIpToContext(context, connectedResourceLink,
                                                     ipAddressState);
                                         }
@@ -911,30 +934,38 @@ public class IPAddressAllocationTaskService extends
     }
 
     /**
-     * This method goes thru all the IP addresses in the subnet range. If that IP is not in the
-     * unavailable IP list, then a new IP address doc for that IP gets created.
+     * This method reserves an IP address of the subnet range that has no IP address doc yet in
+     * the allocation index of the range, then a new IP address doc for that IP gets created.
      * @param context
      * @param connectedResourceLink
      * @param subnetRangeState
-     * @return
+     * @return null if all the IP addresses of the range are in use
      */
     private DeferredResult<IPAddressState> createIpInRange(IPAddressAllocationContext context,
             String connectedResourceLink, SubnetRangeState subnetRangeState) {
-        DeferredResult<IPAddressState> returnIp = null;
-        long beginAddress = IpHelper.ipStringToLong(subnetRangeState.startIPAddress);
-        long endAddress = IpHelper.ipStringToLong(subnetRangeState.endIPAddress);
-
-        for (long address = beginAddress; address <= endAddress; address++) {
-            if (!context.unavailableIpAddresses.contains(address)) {
-                context.unavailableIpAddresses.add(address);
-                String ipAddress = IpHelper.longToIpString(address);
-                returnIp = createNewIpAddressResource(ipAddress,
-                        subnetRangeState.documentSelfLink,
-                        connectedResourceLink, context);
-                break;
-            }
+        IPAddressAllocationIndex index = context.allocationIndexes
+                .get(subnetRangeState.documentSelfLink);
+        String ipAddress = index == null ? null : index.reserveNew();
+        if (ipAddress == null) {
+            return null;
         }
-        return returnIp;
+        return releaseOnFailure(createNewIpAddressResource(ipAddress,
+                subnetRangeState.documentSelfLink, connectedResourceLink, context),
+                subnetRangeState.documentSelfLink, ipAddress);
+    }
+
+    /**
+     * Releases the address reserved in the allocation index if its allocation fails, whatever the
+     * failure. If another host allocated it meanwhile, the rebuild of the index before retrying
+     * finds it in use.
+     */
+    private DeferredResult<IPAddressState> releaseOnFailure(DeferredResult<IPAddressState> result,
+            String subnetRangeLink, String ipAddress) {
+        return result.whenComplete((ipAddressState, e) -> {
+            if (e != null) {
+                IPAddressAllocationIndex.release(getHost(), subnetRangeLink, ipAddress);
+            }
+        });
     }
 
     /**
@@ -998,13 +1029,9 @@ public class IPAddressAllocationTaskService extends
                         String msg = String
                                 .format("IP Address %s is already allocated. Will re-attempt allocation with a different IP Address.",
                                         addressState.ipAddress);
-                        long longIpAddr = IpHelper.ipStringToLong(addressState.ipAddress);
-                        context.unavailableIpAddresses.add(longIpAddr);
                         ipAddressStateDeferredResult
                                 .fail(new ConcurrentRequestException(msg));
                     } else {
-                        long longIpAddr = IpHelper.ipStringToLong(addressState.ipAddress);
-                        context.unavailableIpAddresses.add(longIpAddr);
                         ipAddressStateDeferredResult.complete(addressState);
                     }
                 }));
@@ -1159,9 +1186,7 @@ public class IPAddressAllocationTaskService extends
     private void checkEnoughIPsAvailableOrFail(IPAddressAllocationContext context) {
         int requiredIpCounts = context.requestedIpCount;
         setMaxPossibleIpCountInSubnet(context);
-        int countOfTotalPossibleIPs = context.maxPossibleIpsCount;
-        int availableIpsCount =
-                countOfTotalPossibleIPs - context.unavailableIpAddresses.size();
+        int availableIpsCount = context.getAvailableIpsCount();
 
         if (requiredIpCounts > availableIpsCount) {
             String message = String.format("%d IPs are required to complete the task" +
@@ -1208,12 +1233,16 @@ public class IPAddressAllocationTaskService extends
         logInfo("Adding to context, resource %s mapping to IP %s",connectedResourceLink,
                 ipAddressState.ipAddress);
         ipStatesForResource.add(ipAddressState);
+
+        // IPs allocated on request are not reserved from the allocation index
+        IPAddressAllocationIndex.markUsed(getHost(), ipAddressState.subnetRangeLink,
+                ipAddressState.ipAddress);
     }
 
     /**
      * We try to allocate existing IP address docs to the connected resources that requested an IP.
      *
-     * We perform retries on this method because multiple threads could see the same IP document
+     * We perform retries on this method because multiple hosts could see the same IP document
      * as available and request for it. Only one thread will be granted this IP and others will
      * fail. In that case we want to retry and look for another IP address doc that may be available.
      * We keep retrying as long as there are existing IP address docs with their state as available.
@@ -1233,41 +1262,39 @@ public class IPAddressAllocationTaskService extends
             } else if (exception instanceof ConcurrentRequestException
                     || exception instanceof CompletionException) {
                 //Comes in here when there is a ConcurrentRequestException exception
+                //Another host allocated the same IP, so before we retry, we query to find all
+                //the existing IP address documents and rebuild the allocation indexes from them.
                 //If there are IP address docs with state as available try again.
-                long availableStatusCount = context.ipAddressStates.stream().filter(state -> state
-                        .ipAddressStatus == IPAddressStatus.AVAILABLE).count();
-
-                if (availableStatusCount > 0) {
-
-                    if (getAllocatedIpsCount(context) < requiredIpCount) {
-
-                        logInfo("Retrying to allocate from existing IPs.");
-
-                        //Before we retry, we query to find all the existing IP address documents
-                        //And then we use that list to figure out the unavailable IPs
-                        context.populateContextWithExistingIpAddresses(this)
-                                .thenCompose(IPAddressAllocationContext::setUnAvailableIps)
-                                .thenCompose((refreshedIPsCtxt) ->
-                                        allocateFromExistingIPswithRetry(refreshedIPsCtxt))
-                                .whenComplete((completedContext, e) -> {
-                                    if (e != null) {
-                                        deferredResult.fail(e);
-                                    } else {
-                                        deferredResult.complete(completedContext);
-                                    }
-                                });
-                    } else {
-                        //There is an exception but you still have enough IPs
-                        //Should not come in here
-                        logWarning("Unexpected code path for ip allocation for %s", context
-                                .subnetState.documentSelfLink);
-                        deferredResult.complete(context);
-                    }
-                } else {
-                    //No more available IPs left left.
+                if (++context.retryCount > MAX_ALLOCATION_RETRIES) {
                     logInfo("Could not allocate from existing IPs. %s", exception.getMessage());
                     deferredResult.complete(context);
+                    return;
                 }
+                context.populateAllocationIndexes(this, true)
+                        .thenCompose((refreshedIPsCtxt) -> {
+                            if (!hasReusableIps(refreshedIPsCtxt)) {
+                                //No more available IPs left.
+                                logInfo("Could not allocate from existing IPs. %s",
+                                        exception.getMessage());
+                                return DeferredResult.completed(refreshedIPsCtxt);
+                            }
+                            if (getAllocatedIpsCount(refreshedIPsCtxt) >= requiredIpCount) {
+                                //There is an exception but you still have enough IPs
+                                //Should not come in here
+                                logWarning("Unexpected code path for ip allocation for %s",
+                                        context.subnetState.documentSelfLink);
+                                return DeferredResult.completed(refreshedIPsCtxt);
+                            }
+                            logInfo("Retrying to allocate from existing IPs.");
+                            return allocateFromExistingIPswithRetry(refreshedIPsCtxt);
+                        })
+                        .whenComplete((completedContext, e) -> {
+                            if (e != null) {
+                                deferredResult.fail(e);
+                            } else {
+                                deferredResult.complete(completedContext);
+                            }
+                        });
             } else {
                 // For all other exceptions
                 logInfo("Could not allocate from existing IPs. %s", exception.getMessage());
@@ -1279,6 +1306,11 @@ public class IPAddressAllocationTaskService extends
     }
 
     /**
+     * We create new IP address docs for the connected resources that still need IPs.
+     *
+     * We perform retries on this method because another host could create or allocate the same
+     * IP. In that case we rebuild the allocation indexes from the existing IP address documents
+     * and retry, as long as there are IP addresses not in use.
      *
      * @param context
      * @return
@@ -1295,36 +1327,36 @@ public class IPAddressAllocationTaskService extends
             } else if (exception instanceof ConcurrentRequestException
                     || exception instanceof CompletionException) {
                 //Comes in here when there is an exception
-                if (context.maxPossibleIpsCount > context.unavailableIpAddresses.size()) {
-                    logInfo("Retrying to create new IPs.");
-
-                    if (getAllocatedIpsCount(context) < requiredIpCount) {
-
-                        context.populateContextWithExistingIpAddresses(this)
-                                .thenCompose(IPAddressAllocationContext::setUnAvailableIps)
-                                .thenCompose((refreshedIPsCtxt) ->
-                                        createNewIpsWithRetry(refreshedIPsCtxt))
-                                .whenComplete((completedContext, e) -> {
-                                    if (e != null) {
-                                        deferredResult.fail(e);
-                                    } else {
-                                        deferredResult.complete(completedContext);
-                                    }
-                                });
-                    } else {
-                        //There is an exception but you still have enough IPs
-                        //Should not come in here
-                        logWarning("Unexpected code path for ip allocation for %s", context
-                                .subnetState.documentSelfLink);
-                        deferredResult.complete(context);
-                    }
-
-                } else {
-                    //No more IPs left in ranges left. Fail method call.
-                    logSevere("No more IPs available for allocation. Failing task.");
+                if (++context.retryCount > MAX_ALLOCATION_RETRIES) {
+                    logSevere("Could not create new IPs after %d retries. Failing task.",
+                            MAX_ALLOCATION_RETRIES);
                     deferredResult.fail(exception);
+                    return;
                 }
-
+                context.populateAllocationIndexes(this, true)
+                        .thenCompose((refreshedIPsCtxt) -> {
+                            if (refreshedIPsCtxt.getAvailableIpsCount() == 0) {
+                                //No more IPs left in ranges left. Fail method call.
+                                logSevere("No more IPs available for allocation. Failing task.");
+                                return DeferredResult.<IPAddressAllocationContext>failed(exception);
+                            }
+                            if (getAllocatedIpsCount(refreshedIPsCtxt) >= requiredIpCount) {
+                                //There is an exception but you still have enough IPs
+                                //Should not come in here
+                                logWarning("Unexpected code path for ip allocation for %s",
+                                        context.subnetState.documentSelfLink);
+                                return DeferredResult.completed(refreshedIPsCtxt);
+                            }
+                            logInfo("Retrying to create new IPs.");
+                            return createNewIpsWithRetry(refreshedIPsCtxt);
+                        })
+                        .whenComplete((completedContext, e) -> {
+                            if (e != null) {
+                                deferredResult.fail(e);
+                            } else {
+                                deferredResult.complete(completedContext);
+                            }
+                        });
             } else {
                 // For all other exceptions, fail request
                 deferredResult.fail(exception);
@@ -1334,6 +1366,11 @@ public class IPAddressAllocationTaskService extends
 
     }
 
+    private boolean hasReusableIps(IPAddressAllocationContext context) {
+        return context.allocationIndexes.values().stream()
+                .anyMatch(IPAddressAllocationIndex::hasReusable);
+    }
+
     private void addResultToState(IPAddressAllocationContext context, IPAddressAllocationTaskState
             state) {
 
@@ -115,6 +115,7 @@ public class IPAddressReleaseTaskService extends StatelessService {
                                     ipAddressState.ipAddress, e.getMessage());
                         } else {
                             logInfo("The IP address %s is made available", ipAddressState.ipAddress);
+                            IPAddressAllocationIndex.markAvailable(getHost(), ipAddressState);
                         }
                     });
 
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.tasks;
+
+import com.vmware.photon.controller.model.UriPaths;
+
+/**
+ * {@link SubTaskService} which runs on the node it is created on, without replicating its state.
+ * Its state is persisted instead, every {@link SubTaskState#checkpointInterval} completions if
+ * set. Meant for tasks which track many completions reported to the node they run on.
+ * <p>
+ * Completions are acknowledged before they are persisted, so the completions reported since the
+ * last checkpoint are lost if the node restarts: the sub task then never completes and expires.
+ */
+public class LocalSubTaskService<E extends Enum<E>> extends SubTaskService<E> {
+
+    public static final String FACTORY_LINK = UriPaths.TASKS + "/local-sub-tasks";
+
+    public LocalSubTaskService() {
+        super.toggleOption(ServiceOption.REPLICATION, false);
+        super.toggleOption(ServiceOption.OWNER_SELECTION, false);
+        super.toggleOption(ServiceOption.PERSISTENCE, true);
+    }
+}
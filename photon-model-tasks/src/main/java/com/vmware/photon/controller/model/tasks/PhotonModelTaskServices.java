@@ -19,6 +19,8 @@ import static com.vmware.photon.controller.model.util.StartServicesHelper.Servic
 import java.util.List;
 
 import com.vmware.photon.controller.model.resources.util.PhotonModelUtils;
+import com.vmware.photon.controller.model.tasks.helpers.ResourcePoolMembershipIndex;
+import com.vmware.photon.controller.model.tasks.monitoring.BatchStatsAggregationTaskService;
 import com.vmware.photon.controller.model.tasks.monitoring.SingleResourceStatsAggregationTaskService;
 import com.vmware.photon.controller.model.tasks.monitoring.SingleResourceStatsCollectionTaskService;
 import com.vmware.photon.controller.model.tasks.monitoring.StatsAggregationTaskService;
@@ -76,12 +78,16 @@ public class PhotonModelTaskServices {
                     SingleResourceStatsAggregationTaskService::createFactory),
             factoryService(StatsAggregationTaskService.class,
                     StatsAggregationTaskService::createFactory),
+            factoryService(BatchStatsAggregationTaskService.class,
+                    BatchStatsAggregationTaskService::createFactory),
             factoryService(SingleResourceStatsCollectionTaskService.class,
                     SingleResourceStatsCollectionTaskService::createFactory),
             factoryService(StatsCollectionTaskService.class,
                     StatsCollectionTaskService::createFactory),
             factoryService(SubTaskService.class,
                     () -> TaskFactoryService.create(SubTaskService.class)),
+            factoryService(LocalSubTaskService.class,
+                    () -> TaskFactoryService.create(LocalSubTaskService.class)),
             factoryService(NicSecurityGroupsTaskService.class,
                     () -> TaskFactoryService
                             .create(NicSecurityGroupsTaskService.class)),
@@ -94,6 +100,9 @@ public class PhotonModelTaskServices {
     public static final String[] LINKS = StartServicesHelper.getServiceLinks(SERVICES_METADATA);
 
     public static DeferredResult<List<Operation>> startServices(ServiceHost host) throws Throwable {
+        if (ResourcePoolMembershipIndex.ENABLED) {
+            ResourcePoolMembershipIndex.start(host);
+        }
         return StartServicesHelper.startServices(host, SERVICES_METADATA);
     }
 
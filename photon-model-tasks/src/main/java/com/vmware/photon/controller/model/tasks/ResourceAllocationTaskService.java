@@ -17,16 +17,20 @@ import static com.vmware.photon.controller.model.ComputeProperties.CUSTOM_DISPLA
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import com.vmware.photon.controller.model.UriPaths;
+import com.vmware.photon.controller.model.adapterapi.ResourceOperationResponse;
 import com.vmware.photon.controller.model.query.QueryUtils;
 import com.vmware.photon.controller.model.resources.ComputeDescriptionService;
 import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
@@ -38,6 +42,7 @@ import com.vmware.photon.controller.model.resources.NetworkInterfaceDescriptionS
 import com.vmware.photon.controller.model.resources.NetworkInterfaceService;
 import com.vmware.photon.controller.model.resources.NetworkInterfaceService.NetworkInterfaceState;
 import com.vmware.photon.controller.model.resources.ResourceDescriptionService;
+import com.vmware.photon.controller.model.tasks.helpers.ResourcePoolMembershipIndex;
 import com.vmware.xenon.common.DeferredResult;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.ServiceDocument;
@@ -60,6 +65,11 @@ public class ResourceAllocationTaskService
 
     private static final String DEFAULT_NAME_PREFIX = "vm";
 
+    public static final String PROPERTY_NAME_BULK_BATCH_SIZE = UriPaths.PROPERTY_PREFIX
+            + "ResourceAllocationTaskService.bulkBatchSize";
+    private static final int BULK_BATCH_SIZE = Integer.getInteger(PROPERTY_NAME_BULK_BATCH_SIZE,
+            100);
+
     /**
      * SubStage.
      */
@@ -83,6 +93,12 @@ public class ResourceAllocationTaskService
          */
         public boolean isMockRequest = false;
 
+        /**
+         * If set, the documents of the compute resources are created in batches, from disk and
+         * network interface descriptions retrieved once for all the resources.
+         */
+        public boolean isBulkRequest = false;
+
         /**
          * Specifies the allowed percentage (between 0 and 1.0) of resources requested to fail
          * before setting the task status to FAILED.
@@ -294,6 +310,19 @@ public class ResourceAllocationTaskService
             throw new IllegalArgumentException("computeType not set");
         }
 
+        if (computeDescriptionLinks != null) {
+            // the computes of the pool can be found without a query once the membership index
+            // is built; otherwise, or if none is found yet, query and retry as usual
+            ResourcePoolMembershipIndex index = ResourcePoolMembershipIndex.getIfReady(getHost());
+            List<String> parentLinks = index != null
+                    ? index.getComputeLinks(currentState.resourcePoolLink, computeDescriptionLinks)
+                    : null;
+            if (parentLinks != null && !parentLinks.isEmpty()) {
+                proceedWithParents(currentState, parentLinks);
+                return;
+            }
+        }
+
         String kind = computeDescriptionLinks == null ? Utils
                 .buildKind(ComputeDescriptionService.ComputeDescription.class)
                 : Utils.buildKind(ComputeService.ComputeState.class);
@@ -410,11 +439,7 @@ public class ResourceAllocationTaskService
                         rsp.results.documentLinks);
                 return;
             } else {
-                SubStage nextStage = determineStageFromHostType(ComputeType
-                        .valueOf(currentState.computeType));
-                currentState.taskSubStage = nextStage;
-                currentState.parentLinks = rsp.results.documentLinks;
-                sendSelfPatch(currentState);
+                proceedWithParents(currentState, rsp.results.documentLinks);
                 return;
             }
         }
@@ -438,6 +463,15 @@ public class ResourceAllocationTaskService
         return;
     }
 
+    private void proceedWithParents(ResourceAllocationTaskState currentState,
+            List<String> parentLinks) {
+        SubStage nextStage = determineStageFromHostType(ComputeType
+                .valueOf(currentState.computeType));
+        currentState.taskSubStage = nextStage;
+        currentState.parentLinks = parentLinks;
+        sendSelfPatch(currentState);
+    }
+
     private void getQueryResults(ResourceAllocationTaskState currentState,
             ComputeDescriptionService.ComputeDescription desc,
             String queryLink, Collection<String> computeDescriptionLinks) {
@@ -457,12 +491,62 @@ public class ResourceAllocationTaskService
     private void doComputeResourceProvisioning(
             ResourceAllocationTaskState currentState,
             ComputeDescriptionService.ComputeDescription desc) {
-        Collection<String> parentLinks = currentState.parentLinks;
+        // supply a sub task, which keeps count of completions, to the provision tasks. When all
+        // provision tasks have PATCHed the sub task to FINISHED, it will issue a single PATCH to
+        // us, with stage = FINISHED
+        createSubTaskForProvisionCallbacks(currentState, subTaskLink -> {
+            ServiceTaskCallback<SubStage> callback = ServiceTaskCallback
+                    .create(UriUtils.buildPublicUri(getHost(), subTaskLink));
+            callback.onSuccessFinishTask();
+
+            if (currentState.isBulkRequest) {
+                doBulkComputeResourceProvisioning(currentState, desc, callback);
+            } else {
+                doComputeResourceProvisioning(currentState, desc, callback);
+            }
+        });
+    }
 
+    private void createSubTaskForProvisionCallbacks(ResourceAllocationTaskState currentState,
+            Consumer<String> subTaskLinkConsumer) {
         ServiceTaskCallback<SubStage> callback = ServiceTaskCallback
                 .create(UriUtils.buildPublicUri(getHost(), getSelfLink()));
         callback.onSuccessFinishTask();
 
+        SubTaskService.SubTaskState<SubStage> subTaskInitState = new SubTaskService.SubTaskState<>();
+
+        // tell the sub task with what to patch us, on completion
+        subTaskInitState.serviceTaskCallback = callback;
+        subTaskInitState.completionsRemaining = currentState.resourceCount;
+        subTaskInitState.errorThreshold = currentState.errorThreshold;
+        subTaskInitState.countOnly = true;
+        subTaskInitState.tenantLinks = currentState.tenantLinks;
+        subTaskInitState.documentExpirationTimeMicros = currentState.documentExpirationTimeMicros;
+        Operation startPost = Operation
+                .createPost(this, SubTaskService.FACTORY_LINK)
+                .setBody(subTaskInitState)
+                .setCompletion(
+                        (o, e) -> {
+                            if (e != null) {
+                                logWarning(() -> String.format("Failure creating sub task: %s",
+                                        Utils.toString(e)));
+                                sendFailureSelfPatch(e);
+                                return;
+                            }
+                            SubTaskService.SubTaskState<?> body = o
+                                    .getBody(SubTaskService.SubTaskState.class);
+
+                            subTaskLinkConsumer.accept(body.documentSelfLink);
+                        });
+        sendRequest(startPost);
+    }
+
+    private void doComputeResourceProvisioning(
+            ResourceAllocationTaskState currentState,
+            ComputeDescriptionService.ComputeDescription desc,
+            ServiceTaskCallback<SubStage> callback) {
+        Collection<String> parentLinks = currentState.parentLinks;
+
         // for human debugging reasons only, prefix the compute host resource id
         // with the allocation
         // task id
@@ -477,13 +561,7 @@ public class ResourceAllocationTaskService
 
         logFine(() -> String.format("Creating %d provision tasks, reporting through sub task %s",
                 currentState.resourceCount, callback.serviceURI));
-        String name;
-        if (currentState.customProperties != null
-                && currentState.customProperties.get(CUSTOM_DISPLAY_NAME) != null) {
-            name = currentState.customProperties.get(CUSTOM_DISPLAY_NAME);
-        } else {
-            name = DEFAULT_NAME_PREFIX + String.valueOf(System.currentTimeMillis());
-        }
+        String name = getComputeNamePrefix(currentState);
 
         for (int i = 0; i < currentState.resourceCount; i++) {
             if (parentIterator == null || !parentIterator.hasNext()) {
@@ -511,21 +589,9 @@ public class ResourceAllocationTaskService
 
             String computeResourceLink = UriUtils.buildUriPath(
                     ComputeService.FACTORY_LINK, computeResourceId);
-            ProvisionComputeTaskService.ProvisionComputeTaskState provisionTaskState = new ProvisionComputeTaskService.ProvisionComputeTaskState();
-            provisionTaskState.computeLink = computeResourceLink;
-
-            // supply the sub task, which keeps count of completions, to the
-            // provision tasks.
-            // When all provision tasks have PATCHed the sub task to FINISHED,
-            // it will issue a
-            // single PATCH to us, with stage = FINISHED
-            provisionTaskState.serviceTaskCallback = callback;
-            provisionTaskState.isMockRequest = currentState.isMockRequest;
-            provisionTaskState.taskSubStage = ProvisionComputeTaskService.ProvisionComputeTaskState.SubStage.CREATING_HOST;
-            provisionTaskState.tenantLinks = currentState.tenantLinks;
             sendRequest(Operation
                     .createPost(this, ProvisionComputeTaskService.FACTORY_LINK)
-                    .setBody(provisionTaskState)
+                    .setBody(newProvisionTaskState(currentState, computeResourceLink, callback))
                     .setCompletion((o, e) -> {
                         if (e == null) {
                             // task will patch us when done
@@ -541,6 +607,147 @@ public class ResourceAllocationTaskService
         }
     }
 
+    /**
+     * Creates the compute resources in batches of {@link #PROPERTY_NAME_BULK_BATCH_SIZE}. The
+     * disk and network interface descriptions are retrieved once for all the resources, then the
+     * documents and the provision task of each resource of a batch are created in parallel, and
+     * the next batch is started once they are all created. The resources which could not be
+     * created are reported to the sub task as failed, so that the error threshold applies to them.
+     */
+    private void doBulkComputeResourceProvisioning(ResourceAllocationTaskState currentState,
+            ComputeDescription desc, ServiceTaskCallback<SubStage> callback) {
+        logFine(() -> String.format("Creating %d provision tasks in batches of %d, reporting"
+                + " through sub task %s", currentState.resourceCount, BULK_BATCH_SIZE,
+                callback.serviceURI));
+
+        DeferredResult<List<DiskState>> diskTemplates = DeferredResult.allOf(
+                getOrEmpty(desc.diskDescLinks).stream()
+                        .map(link -> sendWithDeferredResult(Operation.createGet(this, link),
+                                DiskState.class))
+                        .collect(Collectors.toList()));
+        DeferredResult<List<NetworkInterfaceDescription>> nicTemplates = DeferredResult.allOf(
+                getOrEmpty(desc.networkInterfaceDescLinks).stream()
+                        .map(link -> sendWithDeferredResult(Operation.createGet(this, link),
+                                NetworkInterfaceDescription.class))
+                        .collect(Collectors.toList()));
+
+        diskTemplates.thenCompose(disks -> nicTemplates.thenCompose(nics -> {
+            BulkProvisioningContext context = new BulkProvisioningContext();
+            context.state = currentState;
+            context.desc = desc;
+            context.callback = callback;
+            context.name = getComputeNamePrefix(currentState);
+            context.diskTemplates = disks;
+            context.nicTemplates = nics;
+            return createComputeResourceBatches(context, 0);
+        })).whenComplete((ignore, e) -> {
+            if (e != null) {
+                logWarning(() -> String.format("Failure creating compute resources: %s",
+                        e.toString()));
+                sendFailureSelfPatch(e);
+            }
+        });
+    }
+
+    private DeferredResult<Void> createComputeResourceBatches(BulkProvisioningContext context,
+            int from) {
+        int to = (int) Math.min(context.state.resourceCount, (long) from + BULK_BATCH_SIZE);
+        List<DeferredResult<ResourceOperationResponse>> batch = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            String computeResourceLink = getBulkComputeResourceLink(i);
+            batch.add(createBulkComputeResource(context, i).handle((o, e) -> e == null ? null
+                    : ResourceOperationResponse.fail(computeResourceLink, e)));
+        }
+
+        return DeferredResult.allOf(batch).thenCompose(responses -> {
+            List<ResourceOperationResponse> failures = responses.stream()
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList());
+            if (!failures.isEmpty()) {
+                // no provision task reports for these resources, report their failures at once
+                ResourceOperationResponse first = failures.get(0);
+                logWarning(() -> String.format("Failure creating %d compute resources: %s",
+                        failures.size(), first.taskInfo.failure.message));
+                SubTaskService.SubTaskState<SubStage> patch = SubTaskService
+                        .createCompletionsPatch(0, failures.size(), first.taskInfo.failure);
+                patch.failureMessage = first.taskInfo.failure.message;
+                patch.failures = new HashSet<>(failures.subList(0,
+                        Math.min(failures.size(),
+                                SubTaskService.SubTaskState.DEFAULT_MAX_FAILURE_SAMPLES)));
+                sendRequest(Operation.createPatch(context.callback.serviceURI).setBody(patch));
+            }
+            return to < context.state.resourceCount
+                    ? createComputeResourceBatches(context, to)
+                    : DeferredResult.<Void>completed(null);
+        });
+    }
+
+    private String getBulkComputeResourceLink(int i) {
+        return UriUtils.buildUriPath(ComputeService.FACTORY_LINK,
+                getSelfId() + ID_DELIMITER_CHAR + i);
+    }
+
+    private DeferredResult<Operation> createBulkComputeResource(BulkProvisioningContext context,
+            int i) {
+        ResourceAllocationTaskState currentState = context.state;
+        String computeResourceLink = getBulkComputeResourceLink(i);
+        // round robin through the parent hosts
+        String parentLink = currentState.parentLinks.get(i % currentState.parentLinks.size());
+        String computeName = currentState.resourceCount > 1 ? context.name + i : context.name;
+
+        DeferredResult<List<String>> diskLinks = DeferredResult.allOf(
+                context.diskTemplates.stream()
+                        .map(d -> sendWithDeferredResult(Operation
+                                .createPost(this, DiskService.FACTORY_LINK)
+                                .setBody(newDiskStateFromTemplate(currentState, d)),
+                                DiskState.class)
+                                        .thenApply(ds -> ds.documentSelfLink))
+                        .collect(Collectors.toList()));
+        DeferredResult<List<String>> networkLinks = DeferredResult.allOf(
+                context.nicTemplates.stream()
+                        .map(nid -> sendWithDeferredResult(Operation
+                                .createPost(this, NetworkInterfaceService.FACTORY_LINK)
+                                .setBody(newNicStateFromDescription(currentState, nid)),
+                                NetworkInterfaceState.class)
+                                        .thenApply(nic -> nic.documentSelfLink))
+                        .collect(Collectors.toList()));
+
+        return diskLinks
+                .thenCompose(disks -> networkLinks.thenCompose(nics -> sendWithDeferredResult(
+                        Operation.createPost(this, ComputeService.FACTORY_LINK)
+                                .setBody(newComputeState(currentState, parentLink,
+                                        computeResourceId, computeName, disks, nics,
+                                        context.desc)))))
+                .thenCompose(o -> sendWithDeferredResult(Operation
+                        .createPost(this, ProvisionComputeTaskService.FACTORY_LINK)
+                        .setBody(newProvisionTaskState(currentState, computeResourceLink,
+                                context.callback))));
+    }
+
+    private ProvisionComputeTaskService.ProvisionComputeTaskState newProvisionTaskState(
+            ResourceAllocationTaskState currentState, String computeResourceLink,
+            ServiceTaskCallback<SubStage> callback) {
+        ProvisionComputeTaskService.ProvisionComputeTaskState provisionTaskState = new ProvisionComputeTaskService.ProvisionComputeTaskState();
+        provisionTaskState.computeLink = computeResourceLink;
+        provisionTaskState.serviceTaskCallback = callback;
+        provisionTaskState.isMockRequest = currentState.isMockRequest;
+        provisionTaskState.taskSubStage = ProvisionComputeTaskService.ProvisionComputeTaskState.SubStage.CREATING_HOST;
+        provisionTaskState.tenantLinks = currentState.tenantLinks;
+        return provisionTaskState;
+    }
+
+    private static String getComputeNamePrefix(ResourceAllocationTaskState currentState) {
+        if (currentState.customProperties != null
+                && currentState.customProperties.get(CUSTOM_DISPLAY_NAME) != null) {
+            return currentState.customProperties.get(CUSTOM_DISPLAY_NAME);
+        }
+        return DEFAULT_NAME_PREFIX + String.valueOf(System.currentTimeMillis());
+    }
+
+    private static List<String> getOrEmpty(List<String> links) {
+        return links != null ? links : Collections.emptyList();
+    }
+
     // Create all the dependencies, then create the compute document. createDisk
     // and createNetwork
     // will create their documents, then recurse back here with the appropriate
@@ -568,19 +775,8 @@ public class ResourceAllocationTaskService
     private void createComputeState(ResourceAllocationTaskState currentState,
             String parentLink, String computeResourceId, String name,
             List<String> diskLinks, List<String> networkLinks, ComputeDescription cd) {
-        ComputeService.ComputeState computeState = new ComputeService.ComputeState();
-        computeState.id = computeResourceId;
-        computeState.name = name;
-        computeState.parentLink = parentLink;
-        computeState.type = ComputeType.VM_GUEST;
-        computeState.environmentName = cd.environmentName;
-        computeState.descriptionLink = currentState.computeDescriptionLink;
-        computeState.resourcePoolLink = currentState.resourcePoolLink;
-        computeState.diskLinks = diskLinks;
-        computeState.networkInterfaceLinks = networkLinks;
-        computeState.customProperties = currentState.customProperties;
-        computeState.tenantLinks = currentState.tenantLinks;
-        computeState.documentSelfLink = computeState.id;
+        ComputeService.ComputeState computeState = newComputeState(currentState, parentLink,
+                computeResourceId, name, diskLinks, networkLinks, cd);
 
         sendRequest(Operation
                 .createPost(this, ComputeService.FACTORY_LINK)
@@ -598,6 +794,25 @@ public class ResourceAllocationTaskService
                         }));
     }
 
+    private ComputeService.ComputeState newComputeState(ResourceAllocationTaskState currentState,
+            String parentLink, String computeResourceId, String name,
+            List<String> diskLinks, List<String> networkLinks, ComputeDescription cd) {
+        ComputeService.ComputeState computeState = new ComputeService.ComputeState();
+        computeState.id = computeResourceId;
+        computeState.name = name;
+        computeState.parentLink = parentLink;
+        computeState.type = ComputeType.VM_GUEST;
+        computeState.environmentName = cd.environmentName;
+        computeState.descriptionLink = currentState.computeDescriptionLink;
+        computeState.resourcePoolLink = currentState.resourcePoolLink;
+        computeState.diskLinks = diskLinks;
+        computeState.networkInterfaceLinks = networkLinks;
+        computeState.customProperties = currentState.customProperties;
+        computeState.tenantLinks = currentState.tenantLinks;
+        computeState.documentSelfLink = computeState.id;
+        return computeState;
+    }
+
     /**
      * Create disks to attach to the compute resource. Use the disk description links to figure out
      * what type of disks to create.
@@ -623,22 +838,10 @@ public class ResourceAllocationTaskService
                             Operation op = Operation.createGet(this, link);
                             return this.sendWithDeferredResult(op, DiskState.class);
                         })
-                        .map(dr -> dr.thenCompose(d -> {
-                            String link = d.documentSelfLink;
-                            // create a new disk based off the template but use a
-                            // unique ID
-                            d.id = UUID.randomUUID().toString();
-                            d.documentSelfLink = null;
-                            d.tenantLinks = currentState.tenantLinks;
-                            if (d.customProperties == null) {
-                                d.customProperties = new HashMap<>();
-                            }
-                            d.descriptionLink = link;
-
-                            return this.sendWithDeferredResult(
-                                    Operation.createPost(this, DiskService.FACTORY_LINK).setBody(d),
-                                    DiskState.class);
-                        }))
+                        .map(dr -> dr.thenCompose(d -> this.sendWithDeferredResult(
+                                Operation.createPost(this, DiskService.FACTORY_LINK)
+                                        .setBody(newDiskStateFromTemplate(currentState, d)),
+                                DiskState.class)))
                         .map(dsr -> dsr
                                 .thenApply(ds -> ds.documentSelfLink))
                         .collect(Collectors.toList()));
@@ -693,6 +896,20 @@ public class ResourceAllocationTaskService
 
     }
 
+    private DiskState newDiskStateFromTemplate(ResourceAllocationTaskState state,
+            DiskState template) {
+        // create a new disk based off the template but use a unique ID
+        DiskState d = Utils.clone(template);
+        d.id = UUID.randomUUID().toString();
+        d.documentSelfLink = null;
+        d.tenantLinks = state.tenantLinks;
+        if (d.customProperties == null) {
+            d.customProperties = new HashMap<>();
+        }
+        d.descriptionLink = template.documentSelfLink;
+        return d;
+    }
+
     private NetworkInterfaceState newNicStateFromDescription(
             ResourceAllocationTaskState state,
             NetworkInterfaceDescription nid) {
@@ -719,6 +936,18 @@ public class ResourceAllocationTaskService
         return nic;
     }
 
+    /**
+     * What the compute resources of a bulk request are created from.
+     */
+    private static class BulkProvisioningContext {
+        ResourceAllocationTaskState state;
+        ComputeDescription desc;
+        ServiceTaskCallback<SubStage> callback;
+        String name;
+        List<DiskState> diskTemplates;
+        List<NetworkInterfaceDescription> nicTemplates;
+    }
+
     @Override
     public String getSelfId() {
         return getSelfLink().substring(
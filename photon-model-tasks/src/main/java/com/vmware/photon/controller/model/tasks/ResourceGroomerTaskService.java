@@ -16,16 +16,19 @@ package com.vmware.photon.controller.model.tasks;
 import static com.vmware.photon.controller.model.constants.PhotonModelConstants.CUSTOM_PROP_ENDPOINT_LINK;
 import static com.vmware.photon.controller.model.constants.PhotonModelConstants.SOURCE_TASK_LINK;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 import com.vmware.photon.controller.model.UriPaths;
 import com.vmware.photon.controller.model.constants.PhotonModelConstants;
@@ -49,6 +52,7 @@ import com.vmware.photon.controller.model.resources.StorageDescriptionService.St
 import com.vmware.photon.controller.model.resources.SubnetService.SubnetState;
 import com.vmware.photon.controller.model.resources.util.PhotonModelUtils;
 import com.vmware.photon.controller.model.tasks.ResourceGroomerTaskService.EndpointResourceDeletionRequest;
+import com.vmware.xenon.common.DeferredResult;
 import com.vmware.xenon.common.FactoryService;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.OperationJoin;
@@ -78,6 +82,10 @@ import com.vmware.xenon.services.common.TaskService;
  *
  * The task is invoked by EndpointRemovalTaskService for a single endpoint to disassociate/delete
  * documents which were associated with the endpoint being deleted.
+ *
+ * The deleted endpointLinks are collected once per run. The resource documents are then streamed
+ * page by page, with only the fields needed to groom them: the stale documents of each page are
+ * deleted/disassociated in a window of concurrent operations, while the next page is fetched.
  */
 public class ResourceGroomerTaskService
         extends TaskService<EndpointResourceDeletionRequest> {
@@ -87,6 +95,16 @@ public class ResourceGroomerTaskService
     public static final int QUERY_RESULT_LIMIT = Math.min(1000, QueryUtils.MAX_RESULT_LIMIT);
     public static final int OPERATION_BATCH_SIZE = PhotonModelConstants.OPERATION_BATCH_SIZE;
 
+    /**
+     * The maximum number of pages whose stale documents are being deleted/disassociated while the
+     * next page is fetched.
+     */
+    public static final String MAX_CONCURRENT_WINDOWS_PROPERTY = UriPaths.PROPERTY_PREFIX
+            + "ResourceGroomerTaskService.maxConcurrentWindows";
+    public static final int DEFAULT_MAX_CONCURRENT_WINDOWS = 4;
+    public static final int MAX_CONCURRENT_WINDOWS = Math.max(1, Integer.getInteger(
+            MAX_CONCURRENT_WINDOWS_PROPERTY, DEFAULT_MAX_CONCURRENT_WINDOWS));
+
     // Set max document size to 1 MB.
     public static final int MAX_SERIALIZED_STATE_SIZE_BYTES = 1 * 1024 * 1024;
 
@@ -95,7 +113,12 @@ public class ResourceGroomerTaskService
     public static final String STAT_NAME_DOCUMENTS_DELETED = "documentsDeletedCount";
     public static final String STAT_NAME_ENDPOINT_LINKS_PATCHED = "endpointLinksPatchedCount";
     public static final String STAT_NAME_ENDPOINT_LINK_PATCHED = "endpointLinkPatchedCount";
+    public static final String STAT_NAME_DOCUMENTS_PROCESSED = "documentsProcessedCount";
+    public static final String STAT_NAME_DOCUMENTS_PROCESSED_PER_SECOND = "documentsProcessedPerSecond";
+    public static final String STAT_NAME_PEAK_HEAP_USED = "peakHeapUsedBytes";
     public static final String STAT_UNIT_COUNT = "count";
+    public static final String STAT_UNIT_DOCUMENTS_PER_SECOND = "documentsPerSecond";
+    public static final String STAT_UNIT_BYTES = "bytes";
 
     public static final String COMPUTE_STATE_DOCUMENT_KIND = Utils.buildKind(ComputeState.class);
     public static final String DISK_STATE_DOCUMENT_KIND = Utils.buildKind(DiskState.class);
@@ -135,32 +158,31 @@ public class ResourceGroomerTaskService
             AUTH_CREDENTIALS_SERVICE_STATE_KIND
     );
 
-    public enum SubStage {
-        /**
-         * Query for resource documents, process the first query page and populate
-         * endpointLinksByDocumentLinks.
-         */
-        QUERY_DOCUMENT_LINKS_AND_ASSOCIATED_ENDPOINT_LINKS,
-
-        /**
-         * Get the next page of documents to process. If last page, finish the flow.
-         */
-        GET_NEXT_PAGE_OR_FINISH,
+    /**
+     * The fields of the resource documents needed to groom them, selected instead of expanding
+     * the whole documents.
+     */
+    private static final Collection<String> SELECTED_FIELDS = Arrays.asList(
+            ServiceDocument.FIELD_NAME_SELF_LINK,
+            ServiceDocument.FIELD_NAME_KIND,
+            ResourceState.FIELD_NAME_ENDPOINT_LINK,
+            ResourceState.FIELD_NAME_ENDPOINT_LINKS,
+            ResourceState.FIELD_NAME_CUSTOM_PROPERTIES,
+            ImageState.FIELD_NAME_ENDPOINT_TYPE
+    );
 
+    public enum SubStage {
         /**
-         * Get endpointLinks of all documents and collect those which are deleted.
+         * Collect the deleted endpointLinks of the tenant, once per run. If endpointLink is
+         * specified, only check that it is deleted.
          */
         COLLECT_DELETED_ENDPOINT_LINKS,
 
         /**
-         * Collect those documents for deletion/disassociation whose endpointLinks are not valid.
-         */
-        COLLECT_DOCUMENTS_TO_BE_DELETED_OR_DISASSOCIATED,
-
-        /**
-         * Delete/disassociate stale documents whose endpointLinks are not valid.
+         * Query for resource documents and stream their pages: collect the documents of each page
+         * to be deleted/disassociated and delete/disassociate them while fetching the next page.
          */
-        DELETE_OR_DISASSOCIATE_STALE_DOCUMENTS,
+        GROOM_DOCUMENTS,
 
         /**
          * Deletion flow finished successfully.
@@ -205,34 +227,10 @@ public class ResourceGroomerTaskService
         public Set<String> tenantLinks;
 
 
-        // Valid endpointLinks.
+        // Deleted endpointLinks, collected once per run.
         @UsageOption(option = PropertyUsageOption.SERVICE_USE)
         public Set<String> deletedEndpointLinks;
 
-        // List of stale documents to be deleted.
-        @UsageOption(option = PropertyUsageOption.SERVICE_USE)
-        public Set<String> documentsToBeDeletedLinks;
-
-        // Map of endpointLinks by stale document link.
-        @UsageOption(option = PropertyUsageOption.SERVICE_USE)
-        public Map<String, Set<String>> endpointLinksByDocumentsToBeDisassociated;
-
-        // Map of endpointLink to be PATCHed by document link.
-        @UsageOption(option = PropertyUsageOption.SERVICE_USE)
-        public Map<String, String> endpointLinkToBePatchedByDocumentLinks;
-
-        // Map of all documentLinks with their associated endpointLinks.
-        @UsageOption(option = PropertyUsageOption.SERVICE_USE)
-        public Map<String, Set<String>> endpointLinksByDocumentLinks;
-
-        // Map of all documentLinks with their associated endpointLink.
-        @UsageOption(option = PropertyUsageOption.SERVICE_USE)
-        public Map<String, String> endpointLinkByDocumentLinks;
-
-        // Next page link of documents query.
-        @UsageOption(option = PropertyUsageOption.SERVICE_USE)
-        public String nextPageLink;
-
         // Endpoint link is passed when caller wants the groomer task to run
         // only in context of a single endpoint i.e. only the documents that contain this
         // endpoint are disassociated/deleted.
@@ -252,14 +250,58 @@ public class ResourceGroomerTaskService
         @UsageOption(option = PropertyUsageOption.SERVICE_USE)
         public int endpointLinkPatchedCount;
 
+        // Total number of resource documents processed by the task.
+        @UsageOption(option = PropertyUsageOption.SERVICE_USE)
+        public int documentsProcessedCount;
+
+        // Time spent grooming the resource documents.
+        @UsageOption(option = PropertyUsageOption.SERVICE_USE)
+        public long groomingDurationMicros;
+
+        // Peak heap used while grooming the resource documents.
+        @UsageOption(option = PropertyUsageOption.SERVICE_USE)
+        public long peakHeapUsedBytes;
+
         public EndpointResourceDeletionRequest() {
-            this.subStage = SubStage.QUERY_DOCUMENT_LINKS_AND_ASSOCIATED_ENDPOINT_LINKS;
+            this.subStage = SubStage.COLLECT_DELETED_ENDPOINT_LINKS;
             this.deletedEndpointLinks = new HashSet<>();
-            this.documentsToBeDeletedLinks = new HashSet<>();
-            this.endpointLinkToBePatchedByDocumentLinks = new ConcurrentHashMap<>();
-            this.endpointLinksByDocumentsToBeDisassociated = new ConcurrentHashMap<>();
-            this.endpointLinksByDocumentLinks = new ConcurrentHashMap<>();
-            this.endpointLinkByDocumentLinks = new ConcurrentHashMap<>();
+        }
+    }
+
+    /**
+     * Documents of a query page, by link, with their endpointLinks, and those to be
+     * deleted/disassociated/patched.
+     */
+    private static class StaleDocuments {
+        // Map of all documentLinks with their associated endpointLinks.
+        final Map<String, Set<String>> endpointLinksByDocumentLinks = new HashMap<>();
+
+        // Map of all documentLinks with their associated endpointLink.
+        final Map<String, String> endpointLinkByDocumentLinks = new HashMap<>();
+
+        // List of stale documents to be deleted.
+        final Set<String> documentsToBeDeletedLinks = new HashSet<>();
+
+        // Map of endpointLinks by stale document link.
+        final Map<String, Set<String>> endpointLinksByDocumentsToBeDisassociated = new HashMap<>();
+
+        // Map of endpointLink to be PATCHed by document link.
+        final Map<String, String> endpointLinkToBePatchedByDocumentLinks = new HashMap<>();
+    }
+
+    /**
+     * Context of the grooming of the resource documents, i.e. the windows of operations deleting
+     * and disassociating the stale documents of the pages processed, which are still in flight.
+     */
+    private static class GroomingContext {
+        final EndpointResourceDeletionRequest task;
+        final SubStage next;
+        final long startTimeMicros = Utils.getNowMicrosUtc();
+        final Deque<DeferredResult<Void>> windows = new ArrayDeque<>();
+
+        GroomingContext(EndpointResourceDeletionRequest task, SubStage next) {
+            this.task = task;
+            this.next = next;
         }
     }
 
@@ -296,17 +338,12 @@ public class ResourceGroomerTaskService
             EndpointResourceDeletionRequest patchBody) {
 
         currentTask.deletedEndpointLinks = patchBody.deletedEndpointLinks;
-        currentTask.documentsToBeDeletedLinks = patchBody.documentsToBeDeletedLinks;
-        currentTask.endpointLinkToBePatchedByDocumentLinks = patchBody
-                .endpointLinkToBePatchedByDocumentLinks;
-        currentTask.endpointLinksByDocumentsToBeDisassociated = patchBody
-                .endpointLinksByDocumentsToBeDisassociated;
-        currentTask.endpointLinksByDocumentLinks = patchBody.endpointLinksByDocumentLinks;
-        currentTask.endpointLinkByDocumentLinks = patchBody.endpointLinkByDocumentLinks;
-        currentTask.nextPageLink = patchBody.nextPageLink;
         currentTask.documentsDeletedCount = patchBody.documentsDeletedCount;
         currentTask.endpointLinksPatchedCount = patchBody.endpointLinksPatchedCount;
         currentTask.endpointLinkPatchedCount = patchBody.endpointLinkPatchedCount;
+        currentTask.documentsProcessedCount = patchBody.documentsProcessedCount;
+        currentTask.groomingDurationMicros = patchBody.groomingDurationMicros;
+        currentTask.peakHeapUsedBytes = patchBody.peakHeapUsedBytes;
 
         super.updateState(currentTask, patchBody);
     }
@@ -348,21 +385,11 @@ public class ResourceGroomerTaskService
     private void handleSubStage(EndpointResourceDeletionRequest task) {
 
         switch (task.subStage) {
-        case QUERY_DOCUMENT_LINKS_AND_ASSOCIATED_ENDPOINT_LINKS:
-            queryDocumentLinksAndAssociatedEndpointLinks(task,
-                    SubStage.COLLECT_DELETED_ENDPOINT_LINKS);
-            break;
-        case GET_NEXT_PAGE_OR_FINISH:
-            getNextPageOrFinish(task, SubStage.COLLECT_DELETED_ENDPOINT_LINKS);
-            break;
         case COLLECT_DELETED_ENDPOINT_LINKS:
-            collectDeletedEndpoints(task, SubStage.COLLECT_DOCUMENTS_TO_BE_DELETED_OR_DISASSOCIATED);
-            break;
-        case COLLECT_DOCUMENTS_TO_BE_DELETED_OR_DISASSOCIATED:
-            collectDocumentsToBeDeletedAndDisassociated(task, SubStage.DELETE_OR_DISASSOCIATE_STALE_DOCUMENTS);
+            collectDeletedEndpoints(task, SubStage.GROOM_DOCUMENTS);
             break;
-        case DELETE_OR_DISASSOCIATE_STALE_DOCUMENTS:
-            deleteDisassociatePatchStaleDocuments(task, SubStage.GET_NEXT_PAGE_OR_FINISH);
+        case GROOM_DOCUMENTS:
+            groomDocuments(task, SubStage.FINISHED);
             break;
         case FINISHED:
             setStats(task);
@@ -382,15 +409,13 @@ public class ResourceGroomerTaskService
     }
 
     /**
-     * Queries resource documents and their associated endpointLinks for given context and starts
-     * the document deletion flow for first page.
+     * Collect deleted endpointLinks by querying for the endpoints of the tenant with
+     * INCLUDE_DELETED. If endpointLink is specified, only query for that endpoint.
      */
-    private void queryDocumentLinksAndAssociatedEndpointLinks(EndpointResourceDeletionRequest task,
+    private void collectDeletedEndpoints(EndpointResourceDeletionRequest task,
             SubStage next) {
 
-        QueryTask queryTask = buildQueryTask(task);
-
-        QueryUtils.startInventoryQueryTask(this, queryTask)
+        QueryUtils.startInventoryQueryTask(this, buildDeletedEndpointsQueryTask(task))
                 .whenComplete((response, e) -> {
                     if (e != null) {
                         task.failureMessage = e.getMessage();
@@ -399,42 +424,45 @@ public class ResourceGroomerTaskService
                         return;
                     }
 
-                    if (response.results != null && response.results.documents != null) {
-                        populateEndpointLinksByDocumentLinks(response.results.documents,
-                                task.endpointLinksByDocumentLinks, task.endpointLinkByDocumentLinks);
-                    }
-
-                    task.nextPageLink = null;
-
-                    if (response.results != null) {
-                        task.nextPageLink = response.results.nextPageLink;
-                    }
-
-                    task.subStage = next;
-                    sendSelfPatch(task);
+                    processDeletedEndpointLinksQueryPage(task, response, next);
                 });
     }
 
     /**
-     * Gets the next page and starts stale document deletion for it. Finishes if last page is
-     * already processed.
+     * Collects pages of deleted endpoints.
      */
-    private void getNextPageOrFinish(EndpointResourceDeletionRequest task, SubStage next) {
+    private void processDeletedEndpointLinksQueryPage(EndpointResourceDeletionRequest task,
+            QueryTask response, SubStage next) {
+
+        if (response.results != null && response.results.documents != null) {
+            response.results.documents.values().stream()
+                    .forEach(obj -> {
+                        EndpointState state = Utils.fromJson(obj, EndpointState.class);
+                        if (state.documentUpdateAction.equals(Action.DELETE.name())) {
+                            task.deletedEndpointLinks.add(state.documentSelfLink);
+                        }
+                    });
+        }
+
+        if (response.results == null || response.results.nextPageLink == null) {
+            logInfo("Collected deleted endpointLinks. [endpointCount=%s]",
+                    task.deletedEndpointLinks.size());
+
+            if (isEndpointSpecified(task)
+                    && !task.deletedEndpointLinks.contains(task.endpointLink)) {
+                task.failureMessage = "Deletion/Disassociation of documents for valid "
+                        + "endpoints is not supported.";
+                task.subStage = SubStage.FAILED;
+                sendSelfPatch(task);
+                return;
+            }
 
-        if (task.nextPageLink == null) {
-            task.subStage = SubStage.FINISHED;
+            task.subStage = next;
             sendSelfPatch(task);
             return;
         }
 
-        task.endpointLinksByDocumentLinks.clear();
-        task.endpointLinkByDocumentLinks.clear();
-        task.deletedEndpointLinks.clear();
-        task.documentsToBeDeletedLinks.clear();
-        task.endpointLinkToBePatchedByDocumentLinks.clear();
-        task.endpointLinksByDocumentsToBeDisassociated.clear();
-
-        Operation.createGet(this.getHost(), task.nextPageLink)
+        Operation.createGet(this.getHost(), response.results.nextPageLink)
                 .setReferer(this.getUri())
                 .setCompletion((o, e) -> {
                     if (e != null) {
@@ -444,156 +472,118 @@ public class ResourceGroomerTaskService
                         return;
                     }
 
-                    QueryTask response = o.getBody(QueryTask.class);
-
-                    if (response.results != null && response.results.documents != null) {
-                        populateEndpointLinksByDocumentLinks(response.results.documents,
-                                task.endpointLinksByDocumentLinks, task.endpointLinkByDocumentLinks);
-                    }
-
-                    task.nextPageLink = null;
-
-                    if (response.results != null) {
-                        task.nextPageLink = response.results.nextPageLink;
-
-                    }
-
-                    task.subStage = next;
-                    sendSelfPatch(task);
+                    processDeletedEndpointLinksQueryPage(task, o.getBody(QueryTask.class), next);
                 }).sendWith(this);
     }
 
     /**
-     * Get endpointLinks for all documents and collect deleted endpointLinks by querying for all links
-     * with INCLUDE_DELETED.
+     * Queries resource documents and streams their pages through the deletion flow.
      */
-    private void collectDeletedEndpoints(EndpointResourceDeletionRequest task,
-            SubStage next) {
+    private void groomDocuments(EndpointResourceDeletionRequest task, SubStage next) {
 
-        QueryTask queryTask;
+        GroomingContext context = new GroomingContext(task, next);
 
-        // If endpointLink is specified, only query for that endpoint. Otherwise collect all endpointLinks
-        // from all documents and query for those.
-        if (isEndpointSpecified(task)) {
-            queryTask = buildQueryTask(task, true, Collections.singleton(task.endpointLink));
-        } else {
-            Set<String> currentEndpointLinks = new HashSet<>();
-            task.endpointLinksByDocumentLinks.values().stream()
-                    .forEach(links -> {
-                        currentEndpointLinks.addAll(links);
-                    });
-            currentEndpointLinks.addAll(task.endpointLinkByDocumentLinks.values());
-
-            if (currentEndpointLinks.isEmpty()) {
-                task.subStage = next;
-                sendSelfPatch(task);
-                return;
-            }
-            queryTask = buildQueryTask(task, true, currentEndpointLinks);
-        }
-
-        QueryUtils.startInventoryQueryTask(this, queryTask)
+        QueryUtils.startInventoryQueryTask(this, buildQueryTask(task))
                 .whenComplete((response, e) -> {
                     if (e != null) {
-                        task.failureMessage = e.getMessage();
-                        task.subStage = SubStage.FAILED;
-                        sendSelfPatch(task);
-                        return;
-                    }
-
-                    if (response.results != null && response.results.documents != null) {
-                        response.results.documents.values().stream()
-                                .forEach(obj -> {
-                                    EndpointState state = Utils.fromJson(obj, EndpointState.class);
-                                    if (state.documentUpdateAction.equals(Action.DELETE.name())) {
-                                        task.deletedEndpointLinks.add(state.documentSelfLink);
-                                    }
-                                });
-                    }
-
-                    if (response.results != null && response.results.nextPageLink != null) {
-                        processDeletedEndpointLinksQueryPage(task, response.results.nextPageLink,
-                                next);
+                        finishGrooming(context, e);
                         return;
                     }
 
-                    task.subStage = next;
-                    sendSelfPatch(task);
+                    groomPage(context, response);
                 });
     }
 
     /**
-     * Collects pages of deleted endpoints.
+     * Starts the deletion/disassociation of the stale documents of the given page, and fetches the
+     * next page meanwhile, unless {@link #MAX_CONCURRENT_WINDOWS} pages are already in flight, in
+     * which case the oldest one is waited for first. Finishes when the windows of all the pages
+     * are done.
      */
-    private void processDeletedEndpointLinksQueryPage(EndpointResourceDeletionRequest task,
-            String nextPageLink, SubStage next) {
+    private void groomPage(GroomingContext context, QueryTask page) {
+
+        EndpointResourceDeletionRequest task = context.task;
+        StaleDocuments staleDocuments = new StaleDocuments();
+
+        if (page.results != null && page.results.documents != null) {
+            populateEndpointLinksByDocumentLinks(page.results.documents,
+                    staleDocuments.endpointLinksByDocumentLinks,
+                    staleDocuments.endpointLinkByDocumentLinks);
+            task.documentsProcessedCount += page.results.documents.size();
+        }
 
+        collectDocumentsToBeDeletedAndDisassociated(task, staleDocuments);
+        context.windows.add(deleteDisassociatePatchStaleDocuments(task, staleDocuments));
+
+        Runtime runtime = Runtime.getRuntime();
+        task.peakHeapUsedBytes = Math.max(task.peakHeapUsedBytes,
+                runtime.totalMemory() - runtime.freeMemory());
+
+        String nextPageLink = page.results != null ? page.results.nextPageLink : null;
         if (nextPageLink == null) {
-            task.subStage = next;
-            sendSelfPatch(task);
+            DeferredResult.allOf(new ArrayList<>(context.windows))
+                    .whenComplete((o, e) -> finishGrooming(context, e));
             return;
         }
 
-        Operation.createGet(this.getHost(), nextPageLink)
-                .setReferer(this.getUri())
-                .setCompletion((o, e) -> {
+        DeferredResult<Void> window = context.windows.size() < MAX_CONCURRENT_WINDOWS
+                ? DeferredResult.completed(null)
+                : context.windows.poll();
+
+        window.thenCompose(ignore -> sendWithDeferredResult(
+                Operation.createGet(this.getHost(), nextPageLink).setReferer(this.getUri()),
+                QueryTask.class))
+                .whenComplete((nextPage, e) -> {
                     if (e != null) {
-                        task.failureMessage = e.getMessage();
-                        task.subStage = SubStage.FAILED;
-                        sendSelfPatch(task);
+                        finishGrooming(context, e);
                         return;
                     }
 
-                    QueryTask response = o.getBody(QueryTask.class);
+                    groomPage(context, nextPage);
+                });
+    }
 
-                    if (response.results != null && response.results.documents != null) {
-                        response.results.documents.values().stream()
-                                .forEach(obj -> {
-                                    EndpointState state = Utils.fromJson(obj, EndpointState.class);
-                                    if (state.documentUpdateAction.equals(Action.DELETE.name())) {
-                                        task.deletedEndpointLinks.add(state.documentSelfLink);
-                                    }
-                                });
-                    }
+    /**
+     * Records the duration of the grooming and moves to the next stage, or fails the task.
+     */
+    private void finishGrooming(GroomingContext context, Throwable e) {
 
-                    if (response.results != null && response.results.nextPageLink != null) {
-                        processDeletedEndpointLinksQueryPage(task, response.results.nextPageLink, next);
-                        return;
-                    }
+        EndpointResourceDeletionRequest task = context.task;
+        task.groomingDurationMicros = Utils.getNowMicrosUtc() - context.startTimeMicros;
 
-                    task.subStage = next;
-                    sendSelfPatch(task);
-                }).sendWith(this);
+        if (e != null) {
+            if (e instanceof CompletionException && e.getCause() != null) {
+                e = e.getCause();
+            }
+            task.failureMessage = e.getMessage();
+            task.subStage = SubStage.FAILED;
+            sendSelfPatch(task);
+            return;
+        }
+
+        task.subStage = context.next;
+        sendSelfPatch(task);
     }
 
     /**
      * Collect documents for deletion/disassociation/patching.
      */
-    private void collectDocumentsToBeDeletedAndDisassociated(EndpointResourceDeletionRequest task,
-            SubStage next) {
+    private static void collectDocumentsToBeDeletedAndDisassociated(
+            EndpointResourceDeletionRequest task, StaleDocuments staleDocuments) {
         if (!isEndpointSpecified(task)) {
-            collectDocumentsForAllEndpoints(task, next);
-            return;
-        }
-
-        if (task.deletedEndpointLinks.contains(task.endpointLink)) {
-            collectDocumentsForSpecifiedEndpoint(task, next);
+            collectDocumentsForAllEndpoints(task, staleDocuments);
         } else {
-            task.failureMessage = "Deletion/Disassociation of documents for valid "
-                    + "endpoints is not supported.";
-            task.subStage = SubStage.FAILED;
-            sendSelfPatch(task);
+            collectDocumentsForSpecifiedEndpoint(task, staleDocuments);
         }
-
     }
 
     /**
      * Collects all documents whose endpointLink is invalid for deletion/disassociation/patching.
      */
-    private void collectDocumentsForAllEndpoints(EndpointResourceDeletionRequest task,
-            SubStage next) {
+    private static void collectDocumentsForAllEndpoints(EndpointResourceDeletionRequest task,
+            StaleDocuments staleDocuments) {
 
-        task.endpointLinksByDocumentLinks.entrySet().stream()
+        staleDocuments.endpointLinksByDocumentLinks.entrySet().stream()
                 .forEach(entry -> {
                     // If endpointLinks set for a documentLink is empty, check the endpointLink for
                     // that document. If the document has a deleted endpointLink,
@@ -609,49 +599,47 @@ public class ResourceGroomerTaskService
                     // with one of the remaining valid endpointLinks.
                     Set<String> existingEndpointLinks = entry.getValue();
                     if (existingEndpointLinks.isEmpty()) {
-                        String endpointLink = task.endpointLinkByDocumentLinks.get(entry.getKey());
+                        String endpointLink = staleDocuments.endpointLinkByDocumentLinks
+                                .get(entry.getKey());
                         if (endpointLink == null) {
-                            task.documentsToBeDeletedLinks.add(entry.getKey());
+                            staleDocuments.documentsToBeDeletedLinks.add(entry.getKey());
                         } else if (endpointLink.equals(EMPTY_STRING)
                                 || !endpointLink.equals(EMPTY_STRING)
                                 && task.deletedEndpointLinks.contains(endpointLink)) {
-                            task.documentsToBeDeletedLinks.add(entry.getKey());
+                            staleDocuments.documentsToBeDeletedLinks.add(entry.getKey());
                         }
                     } else {
                         Set<String> endpointLinks = new HashSet<>(existingEndpointLinks);
                         endpointLinks.removeIf(link -> task.deletedEndpointLinks.contains(link));
                         if (endpointLinks.isEmpty()) {
-                            task.documentsToBeDeletedLinks.add(entry.getKey());
+                            staleDocuments.documentsToBeDeletedLinks.add(entry.getKey());
                         } else {
                             existingEndpointLinks.removeAll(endpointLinks);
                             if (!existingEndpointLinks.isEmpty()) {
-                                task.endpointLinksByDocumentsToBeDisassociated
+                                staleDocuments.endpointLinksByDocumentsToBeDisassociated
                                         .put(entry.getKey(), existingEndpointLinks);
                             }
-                            String endpointLink = task.endpointLinkByDocumentLinks
+                            String endpointLink = staleDocuments.endpointLinkByDocumentLinks
                                     .get(entry.getKey());
                             if (endpointLink != null && !endpointLinks.isEmpty() &&
                                     !endpointLinks.contains(endpointLink)) {
                                 List<String> sortedEndpointLinks = new ArrayList<>(endpointLinks);
                                 Collections.sort(sortedEndpointLinks);
-                                task.endpointLinkToBePatchedByDocumentLinks
+                                staleDocuments.endpointLinkToBePatchedByDocumentLinks
                                         .put(entry.getKey(), sortedEndpointLinks.get(0));
                             }
                         }
                     }
                 });
-
-        task.subStage = next;
-        sendSelfPatch(task);
     }
 
     /**
      * Collects documents for for deletion/disassociation/patching only for the endpoint being
      * deleted specified in the task and ignores other endpoints, even if invalid.
      */
-    private void collectDocumentsForSpecifiedEndpoint(EndpointResourceDeletionRequest task,
-            SubStage next) {
-        task.endpointLinksByDocumentLinks.entrySet().stream()
+    private static void collectDocumentsForSpecifiedEndpoint(EndpointResourceDeletionRequest task,
+            StaleDocuments staleDocuments) {
+        staleDocuments.endpointLinksByDocumentLinks.entrySet().stream()
                 .forEach(entry -> {
                     // If endpointLinks set for a documentLink is empty, check the endpointLink for
                     // that document. If the document has a null/empty or endpointLink currently
@@ -664,62 +652,61 @@ public class ResourceGroomerTaskService
                     // deleted, replace it with next valid endpointLink from endpointLinks.
                     Set<String> existingEndpointLinks = entry.getValue();
                     if (existingEndpointLinks.isEmpty()) {
-                        String endpointLink = task.endpointLinkByDocumentLinks.get(entry.getKey());
+                        String endpointLink = staleDocuments.endpointLinkByDocumentLinks
+                                .get(entry.getKey());
                         if (endpointLink == null) {
-                            task.documentsToBeDeletedLinks.add(entry.getKey());
+                            staleDocuments.documentsToBeDeletedLinks.add(entry.getKey());
                         } else if (endpointLink.equals(EMPTY_STRING)
                                 || endpointLink.equals(task.endpointLink)) {
-                            task.documentsToBeDeletedLinks.add(entry.getKey());
+                            staleDocuments.documentsToBeDeletedLinks.add(entry.getKey());
                         }
                     } else if (existingEndpointLinks.size() == 1
                             && existingEndpointLinks.contains(task.endpointLink)) {
-                        task.documentsToBeDeletedLinks.add(entry.getKey());
+                        staleDocuments.documentsToBeDeletedLinks.add(entry.getKey());
                     } else {
-                        task.endpointLinksByDocumentsToBeDisassociated.put(entry.getKey(),
+                        staleDocuments.endpointLinksByDocumentsToBeDisassociated.put(entry.getKey(),
                                 Collections.singleton(task.endpointLink));
-                        if (task.endpointLinkByDocumentLinks.get(entry.getKey())
+                        if (staleDocuments.endpointLinkByDocumentLinks.get(entry.getKey())
                                 .equals(task.endpointLink)) {
-                            Set<String> endpointLinks = task.endpointLinksByDocumentLinks
+                            Set<String> endpointLinks = staleDocuments.endpointLinksByDocumentLinks
                                     .get(entry.getKey());
                             endpointLinks.remove(task.endpointLink);
                             if (!endpointLinks.isEmpty()) {
                                 List<String> sortedEndpointLinks = new ArrayList<>(endpointLinks);
                                 Collections.sort(sortedEndpointLinks);
-                                task.endpointLinkToBePatchedByDocumentLinks
+                                staleDocuments.endpointLinkToBePatchedByDocumentLinks
                                         .put(entry.getKey(), sortedEndpointLinks.get(0));
                             }
                         }
                     }
                 });
-
-        task.subStage = next;
-        sendSelfPatch(task);
     }
 
     /**
      * Deletes documents that have no endpointLinks associated with them.
      * Disassociate documents if they have invalid endpointLinks by sending a collection update
      * patch.
+     *
+     * @return the window of operations, at most {@link #OPERATION_BATCH_SIZE} of which are sent
+     * concurrently
      */
-    private void deleteDisassociatePatchStaleDocuments(EndpointResourceDeletionRequest task,
-            SubStage next) {
+    private DeferredResult<Void> deleteDisassociatePatchStaleDocuments(
+            EndpointResourceDeletionRequest task, StaleDocuments staleDocuments) {
 
-        if (task.documentsToBeDeletedLinks.isEmpty()
-                && task.endpointLinksByDocumentsToBeDisassociated.isEmpty()) {
-            task.subStage = next;
-            sendSelfPatch(task);
-            return;
+        if (staleDocuments.documentsToBeDeletedLinks.isEmpty()
+                && staleDocuments.endpointLinksByDocumentsToBeDisassociated.isEmpty()) {
+            return DeferredResult.completed(null);
         }
 
         List<Operation> deletePatchOperations = new ArrayList<>();
 
-        task.documentsToBeDeletedLinks.stream()
+        staleDocuments.documentsToBeDeletedLinks.stream()
                 .forEach(documentLink -> {
                     deletePatchOperations.add(Operation.createDelete(this.getHost(), documentLink)
                             .setReferer(this.getHost().getUri()));
                 });
 
-        task.endpointLinksByDocumentsToBeDisassociated.entrySet().stream()
+        staleDocuments.endpointLinksByDocumentsToBeDisassociated.entrySet().stream()
                 .forEach(entry -> {
                     Map<String, Collection<Object>> itemsToRemove = Collections.singletonMap
                             (ResourceState.FIELD_NAME_ENDPOINT_LINKS, new ArrayList<>(entry.getValue()));
@@ -732,7 +719,7 @@ public class ResourceGroomerTaskService
                             entry.getValue(), entry.getKey());
                 });
 
-        task.endpointLinkToBePatchedByDocumentLinks.entrySet().stream()
+        staleDocuments.endpointLinkToBePatchedByDocumentLinks.entrySet().stream()
                 .forEach(entry -> {
                     if (entry.getKey().startsWith(ResourceGroupService.FACTORY_LINK) ||
                             entry.getKey().startsWith(AuthCredentialsService.FACTORY_LINK)) {
@@ -746,84 +733,89 @@ public class ResourceGroomerTaskService
                 });
 
         logInfo("Deleting stale documents that have invalid endpointLinks. [documentCount=%s]",
-                task.documentsToBeDeletedLinks.size());
+                staleDocuments.documentsToBeDeletedLinks.size());
         logInfo("Patching stale documents that have invalid endpointLinks list. [documentCount=%s]",
-                task.endpointLinksByDocumentsToBeDisassociated.size());
+                staleDocuments.endpointLinksByDocumentsToBeDisassociated.size());
         logInfo("Patching stale documents that have invalid endpointLink. [documentCount=%s]",
-                task.endpointLinkToBePatchedByDocumentLinks.size());
+                staleDocuments.endpointLinkToBePatchedByDocumentLinks.size());
 
-        task.documentsDeletedCount += task.documentsToBeDeletedLinks.size();
-        task.endpointLinksPatchedCount += task.endpointLinksByDocumentsToBeDisassociated.size();
-        task.endpointLinkPatchedCount += task.endpointLinkToBePatchedByDocumentLinks.size();
+        task.documentsDeletedCount += staleDocuments.documentsToBeDeletedLinks.size();
+        task.endpointLinksPatchedCount += staleDocuments.endpointLinksByDocumentsToBeDisassociated
+                .size();
+        task.endpointLinkPatchedCount += staleDocuments.endpointLinkToBePatchedByDocumentLinks
+                .size();
 
+        DeferredResult<Void> window = new DeferredResult<>();
         OperationJoin.create(deletePatchOperations)
                 .setCompletion((o, e) -> {
                     if (e != null) {
-                        task.failureMessage = e.values().iterator().next().getMessage();
-                        task.subStage = SubStage.FAILED;
-                        sendSelfFailurePatch(task, task.failureMessage);
+                        window.fail(e.values().iterator().next());
                         return;
                     }
 
-                    task.subStage = next;
-                    sendSelfPatch(task);
+                    window.complete(null);
                 }).sendWith(this, OPERATION_BATCH_SIZE);
+        return window;
     }
 
     /**
-     * Helper for building resource document query.
+     * Builds QueryTask for resource documents, selecting only the fields needed to groom them.
+     * If endpointLink is specified, adds clauses for that.
      */
     private static QueryTask buildQueryTask(EndpointResourceDeletionRequest task) {
-        return buildQueryTask(task, false, null);
+
+        Query query = Query.Builder.create()
+                .addInClause(ServiceDocument.FIELD_NAME_KIND, DOCUMENT_KINDS)
+                .addInCollectionItemClause(ResourceState.FIELD_NAME_TENANT_LINKS, task.tenantLinks)
+                .build();
+
+        if (isEndpointSpecified(task)) {
+            Query endpointSpecificClauses = Query.Builder.create(Occurance.MUST_OCCUR)
+                    .addFieldClause(ResourceState.FIELD_NAME_ENDPOINT_LINK, task.endpointLink,
+                            Occurance.SHOULD_OCCUR)
+                    .addCollectionItemClause(ResourceState.FIELD_NAME_ENDPOINT_LINKS,
+                            task.endpointLink, Occurance.SHOULD_OCCUR)
+                    .build();
+
+            query.addBooleanClause(endpointSpecificClauses);
+        }
+
+        QueryTask.Builder queryTaskBuilder = QueryTask.Builder.createDirectTask()
+                .setQuery(query)
+                .addOption(QueryOption.EXPAND_SELECTED_FIELDS)
+                .setResultLimit(QUERY_RESULT_LIMIT);
+        SELECTED_FIELDS.forEach(queryTaskBuilder::addSelectTerm);
+
+        QueryTask queryTask = queryTaskBuilder.build();
+        queryTask.tenantLinks = new ArrayList<>(task.tenantLinks);
+
+        return queryTask;
     }
 
     /**
-     * Builds QueryTask for resource document query and endpoint query.
-     * If endpointLink is specified, adds clauses for that and creates a
-     * QueryTask to be executed in tenant's context.
+     * Builds QueryTask for the links of the deleted endpoints of the tenant, or of the
+     * endpointLink if specified.
      */
-    private static QueryTask buildQueryTask(EndpointResourceDeletionRequest task,
-            boolean isEndpointQuery, Set<String> currentEndpointLinks) {
-
-        Query query;
-
-        if (isEndpointQuery) {
-            query = Query.Builder.create()
-                    .addInClause(ServiceDocument.FIELD_NAME_SELF_LINK, currentEndpointLinks)
-                    .addFieldClause(ServiceDocument.FIELD_NAME_UPDATE_ACTION,
-                            Action.DELETE.name())
-                    .addInCollectionItemClause(ResourceState.FIELD_NAME_TENANT_LINKS, task.tenantLinks)
-                    .build();
-        } else {
-            query = Query.Builder.create()
-                    .addInClause(ServiceDocument.FIELD_NAME_KIND, DOCUMENT_KINDS)
-                    .addInCollectionItemClause(ResourceState.FIELD_NAME_TENANT_LINKS, task.tenantLinks)
-                    .build();
+    private static QueryTask buildDeletedEndpointsQueryTask(EndpointResourceDeletionRequest task) {
 
-            if (isEndpointSpecified(task)) {
-                Query endpointSpecificClauses = Query.Builder.create(Occurance.MUST_OCCUR)
-                        .addFieldClause(ResourceState.FIELD_NAME_ENDPOINT_LINK, task.endpointLink,
-                                Occurance.SHOULD_OCCUR)
-                        .addCollectionItemClause(ResourceState.FIELD_NAME_ENDPOINT_LINKS,
-                                task.endpointLink, Occurance.SHOULD_OCCUR)
-                        .build();
+        Query.Builder queryBuilder = Query.Builder.create()
+                .addKindFieldClause(EndpointState.class)
+                .addFieldClause(ServiceDocument.FIELD_NAME_UPDATE_ACTION, Action.DELETE.name())
+                .addInCollectionItemClause(ResourceState.FIELD_NAME_TENANT_LINKS, task.tenantLinks);
 
-                query.addBooleanClause(endpointSpecificClauses);
-            }
+        if (isEndpointSpecified(task)) {
+            queryBuilder.addFieldClause(ServiceDocument.FIELD_NAME_SELF_LINK, task.endpointLink);
         }
 
         QueryTask queryTask = QueryTask.Builder.createDirectTask()
-                .setQuery(query)
+                .setQuery(queryBuilder.build())
                 .addOption(QueryOption.EXPAND_CONTENT)
+                .addOption(QueryOption.INCLUDE_DELETED)
+                .addOption(QueryOption.BROADCAST)
+                .addOption(QueryOption.OWNER_SELECTION)
                 .setResultLimit(QUERY_RESULT_LIMIT)
                 .build();
 
-        if (isEndpointQuery) {
-            queryTask.querySpec.options.add(QueryOption.INCLUDE_DELETED);
-            queryTask.querySpec.options.add(QueryOption.BROADCAST);
-            queryTask.querySpec.options.add(QueryOption.OWNER_SELECTION);
-        }
-
         queryTask.tenantLinks = new ArrayList<>(task.tenantLinks);
 
         return queryTask;
@@ -991,7 +983,8 @@ public class ResourceGroomerTaskService
     }
 
     /**
-     * Set service stats, number of documents deleted and number of documents patched.
+     * Set service stats, number of documents deleted and number of documents patched, and the
+     * throughput and peak heap of the run.
      */
     private void setStats(EndpointResourceDeletionRequest task) {
         PhotonModelUtils.setStat(this, STAT_NAME_DOCUMENTS_DELETED, STAT_UNIT_COUNT,
@@ -1000,6 +993,23 @@ public class ResourceGroomerTaskService
                 task.endpointLinksPatchedCount);
         PhotonModelUtils.setStat(this, STAT_NAME_ENDPOINT_LINK_PATCHED, STAT_UNIT_COUNT,
                 task.endpointLinkPatchedCount);
+        PhotonModelUtils.setStat(this, STAT_NAME_DOCUMENTS_PROCESSED, STAT_UNIT_COUNT,
+                task.documentsProcessedCount);
+
+        double documentsPerSecond = task.groomingDurationMicros > 0
+                ? task.documentsProcessedCount * (double) TimeUnit.SECONDS.toMicros(1)
+                        / task.groomingDurationMicros
+                : 0;
+        PhotonModelUtils.setStat(this, STAT_NAME_DOCUMENTS_PROCESSED_PER_SECOND,
+                STAT_UNIT_DOCUMENTS_PER_SECOND, documentsPerSecond);
+        PhotonModelUtils.setStat(this, STAT_NAME_PEAK_HEAP_USED, STAT_UNIT_BYTES,
+                task.peakHeapUsedBytes);
+
+        logInfo("Groomed resource documents. [documentCount=%s] [durationMillis=%s] "
+                        + "[documentsPerSecond=%.1f] [peakHeapUsedBytes=%s]",
+                task.documentsProcessedCount,
+                TimeUnit.MICROSECONDS.toMillis(task.groomingDurationMicros),
+                documentsPerSecond, task.peakHeapUsedBytes);
     }
 
     /**
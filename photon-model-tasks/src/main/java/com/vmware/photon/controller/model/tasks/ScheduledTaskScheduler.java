@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.tasks;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.vmware.photon.controller.model.UriPaths;
+import com.vmware.xenon.common.ServiceHost;
+
+/**
+ * Decides when the runs of the {@link ScheduledTaskService}s of a host may start.
+ * <ul>
+ * <li>Each scheduled task runs at a fixed phase within its interval, derived from its self link,
+ * so that the tasks with the same interval do not all run at the same time.</li>
+ * <li>The runs in flight on the host are capped per factory link of the invoked task and per
+ * endpoint type. A run is in flight until the invoked task completes, or for at most an
+ * interval.</li>
+ * <li>No run starts while the backlog of the host executor or the average latency of the
+ * invocations exceeds a threshold. The average decays while no invocation completes, so that runs
+ * start again, and measure the latency again, some time after slow invocations.</li>
+ * </ul>
+ * Runs which cannot start are deferred by {@link ScheduledTaskService}, and skipped if they
+ * cannot start within half an interval.
+ */
+public class ScheduledTaskScheduler {
+    public static final String PROPERTY_NAME_MAX_CONCURRENT_PER_KIND = UriPaths.PROPERTY_PREFIX
+            + "ScheduledTaskScheduler.maxConcurrentPerKind";
+    private static final int MAX_CONCURRENT_PER_KIND = Integer
+            .getInteger(PROPERTY_NAME_MAX_CONCURRENT_PER_KIND, 32);
+
+    public static final String PROPERTY_NAME_MAX_CONCURRENT_PER_ENDPOINT_TYPE =
+            UriPaths.PROPERTY_PREFIX + "ScheduledTaskScheduler.maxConcurrentPerEndpointType";
+    private static final int MAX_CONCURRENT_PER_ENDPOINT_TYPE = Integer
+            .getInteger(PROPERTY_NAME_MAX_CONCURRENT_PER_ENDPOINT_TYPE, 16);
+
+    public static final String PROPERTY_NAME_MAX_HOST_BACKLOG = UriPaths.PROPERTY_PREFIX
+            + "ScheduledTaskScheduler.maxHostBacklog";
+    private static final int MAX_HOST_BACKLOG = Integer
+            .getInteger(PROPERTY_NAME_MAX_HOST_BACKLOG, 10000);
+
+    public static final String PROPERTY_NAME_MAX_INVOCATION_LATENCY_MICROS =
+            UriPaths.PROPERTY_PREFIX + "ScheduledTaskScheduler.maxInvocationLatencyMicros";
+    private static final long MAX_INVOCATION_LATENCY_MICROS = Long.getLong(
+            PROPERTY_NAME_MAX_INVOCATION_LATENCY_MICROS, TimeUnit.SECONDS.toMicros(10));
+
+    /**
+     * Weight of the latest invocation in the average invocation latency.
+     */
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    /**
+     * Time for the average invocation latency to halve while no invocation completes.
+     */
+    static final long LATENCY_HALF_LIFE_MICROS = TimeUnit.SECONDS.toMicros(30);
+
+    private static final Map<ServiceHost, ScheduledTaskScheduler> schedulers =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final ServiceHost host;
+    private final int maxConcurrentPerKind;
+    private final int maxConcurrentPerEndpointType;
+    private final int maxHostBacklog;
+    private final long maxInvocationLatencyMicros;
+
+    private final ConcurrentMap<String, AtomicInteger> inFlightByKind = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicInteger> inFlightByEndpointType =
+            new ConcurrentHashMap<>();
+
+    // Guarded by this
+    private double invocationLatencyMicros;
+    private long invocationLatencyTimeMicros;
+
+    /**
+     * A run admitted to start. Must be released once the invoked task completes.
+     */
+    public class Permit {
+        private final String kind;
+        private final String endpointType;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(String kind, String endpointType) {
+            this.kind = kind;
+            this.endpointType = endpointType;
+        }
+
+        /**
+         * Releases the permit. Further calls have no effect.
+         */
+        public void release() {
+            if (this.released.compareAndSet(false, true)) {
+                ScheduledTaskScheduler.this.inFlightByKind.get(this.kind).decrementAndGet();
+                if (this.endpointType != null) {
+                    ScheduledTaskScheduler.this.inFlightByEndpointType.get(this.endpointType)
+                            .decrementAndGet();
+                }
+            }
+        }
+    }
+
+    ScheduledTaskScheduler(ServiceHost host, int maxConcurrentPerKind,
+            int maxConcurrentPerEndpointType, int maxHostBacklog,
+            long maxInvocationLatencyMicros) {
+        this.host = host;
+        this.maxConcurrentPerKind = maxConcurrentPerKind;
+        this.maxConcurrentPerEndpointType = maxConcurrentPerEndpointType;
+        this.maxHostBacklog = maxHostBacklog;
+        this.maxInvocationLatencyMicros = maxInvocationLatencyMicros;
+    }
+
+    /**
+     * Returns the scheduler of the given host.
+     */
+    public static ScheduledTaskScheduler of(ServiceHost host) {
+        synchronized (schedulers) {
+            return schedulers.computeIfAbsent(host, h -> new ScheduledTaskScheduler(h,
+                    MAX_CONCURRENT_PER_KIND, MAX_CONCURRENT_PER_ENDPOINT_TYPE, MAX_HOST_BACKLOG,
+                    MAX_INVOCATION_LATENCY_MICROS));
+        }
+    }
+
+    /**
+     * Returns the phase of the scheduled task with the given self link within its interval. The
+     * phase is the same on all the nodes and across restarts.
+     */
+    public static long getPhaseMicros(String selfLink, long intervalMicros) {
+        // spread the hashes of similar links over the interval
+        long hash = selfLink.hashCode() * 0x9E3779B97F4A7C15L;
+        hash ^= hash >>> 32;
+        return Math.floorMod(hash, intervalMicros);
+    }
+
+    /**
+     * Returns the delay from the given time to the next time at the given phase of the interval.
+     */
+    public static long getDelayToPhaseMicros(long nowMicros, long intervalMicros,
+            long phaseMicros) {
+        long delayMicros = phaseMicros - Math.floorMod(nowMicros, intervalMicros);
+        return delayMicros < 0 ? delayMicros + intervalMicros : delayMicros;
+    }
+
+    /**
+     * Admits a run invoking the given factory for the given endpoint type, if the caps and the
+     * load of the host allow it.
+     *
+     * @param endpointType
+     *            the endpoint type of the run, or {@code null}
+     * @return the permit of the run, or {@code null} if it must be deferred
+     */
+    public Permit tryAcquire(String kind, String endpointType) {
+        if (isOverloaded()) {
+            return null;
+        }
+
+        AtomicInteger kindCount = this.inFlightByKind.computeIfAbsent(kind,
+                k -> new AtomicInteger());
+        if (!tryIncrement(kindCount, this.maxConcurrentPerKind)) {
+            return null;
+        }
+        if (endpointType != null) {
+            AtomicInteger endpointTypeCount = this.inFlightByEndpointType.computeIfAbsent(
+                    endpointType, k -> new AtomicInteger());
+            if (!tryIncrement(endpointTypeCount, this.maxConcurrentPerEndpointType)) {
+                kindCount.decrementAndGet();
+                return null;
+            }
+        }
+        return new Permit(kind, endpointType);
+    }
+
+    /**
+     * Records the latency of an invocation, i.e. the time for the factory to accept the run.
+     */
+    public void recordInvocationLatency(long latencyMicros) {
+        recordInvocationLatency(latencyMicros, nowMicros());
+    }
+
+    synchronized void recordInvocationLatency(long latencyMicros, long nowMicros) {
+        double average = getInvocationLatencyMicros(nowMicros);
+        this.invocationLatencyMicros = average == 0 ? latencyMicros
+                : average + LATENCY_WEIGHT * (latencyMicros - average);
+        this.invocationLatencyTimeMicros = nowMicros;
+    }
+
+    /**
+     * Returns the average invocation latency, halved for each {@link #LATENCY_HALF_LIFE_MICROS}
+     * since the latest invocation completed.
+     */
+    synchronized double getInvocationLatencyMicros(long nowMicros) {
+        long elapsedMicros = Math.max(nowMicros - this.invocationLatencyTimeMicros, 0);
+        return this.invocationLatencyMicros
+                * Math.pow(0.5, (double) elapsedMicros / LATENCY_HALF_LIFE_MICROS);
+    }
+
+    public int getInFlightCount(String kind) {
+        AtomicInteger count = this.inFlightByKind.get(kind);
+        return count != null ? count.get() : 0;
+    }
+
+    boolean isOverloaded() {
+        return isOverloaded(nowMicros());
+    }
+
+    boolean isOverloaded(long nowMicros) {
+        return getHostBacklog() > this.maxHostBacklog
+                || getInvocationLatencyMicros(nowMicros) > this.maxInvocationLatencyMicros;
+    }
+
+    /**
+     * Returns the number of tasks queued in the executor of the host, if known.
+     */
+    int getHostBacklog() {
+        ExecutorService executor = this.host != null ? this.host.getExecutor() : null;
+        if (executor instanceof ForkJoinPool) {
+            ForkJoinPool pool = (ForkJoinPool) executor;
+            return (int) Math.min(Integer.MAX_VALUE,
+                    pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount());
+        }
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getQueue().size();
+        }
+        return 0;
+    }
+
+    private static long nowMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime());
+    }
+
+    private static boolean tryIncrement(AtomicInteger count, int max) {
+        while (true) {
+            int current = count.get();
+            if (max > 0 && current >= max) {
+                return false;
+            }
+            if (count.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+}
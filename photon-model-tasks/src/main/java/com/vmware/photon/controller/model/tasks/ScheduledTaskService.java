@@ -15,10 +15,13 @@ package com.vmware.photon.controller.model.tasks;
 
 import static com.vmware.photon.controller.model.resources.util.PhotonModelUtils.addPartitionIdToOperation;
 
+import java.net.URI;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 import com.esotericsoftware.kryo.serializers.VersionFieldSerializer.Since;
 
@@ -30,6 +33,8 @@ import com.vmware.xenon.common.ServiceDocument;
 import com.vmware.xenon.common.ServiceDocumentDescription.PropertyIndexingOption;
 import com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption;
 import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.ServiceSubscriptionState.ServiceSubscriber;
+import com.vmware.xenon.common.TaskState;
 import com.vmware.xenon.common.Utils;
 import com.vmware.xenon.services.common.TaskService;
 
@@ -37,10 +42,24 @@ import com.vmware.xenon.services.common.TaskService;
  * Task service to invoke other tasks on a schedule. The interval
  * to invoke the tasks is controlled by the maintenance interval
  * set for the service.
+ *
+ * <p>Each run starts at the phase of the interval given by {@link ScheduledTaskState#delayMicros},
+ * which defaults to a phase derived from the self link, and is admitted by the
+ * {@link ScheduledTaskScheduler} of the host.
  */
 public class ScheduledTaskService extends TaskService<ScheduledTaskService.ScheduledTaskState> {
     public static final String FACTORY_LINK = UriPaths.PROVISIONING + "/scheduled-tasks";
     public static final String INVOCATION_COUNT = "invocationCount";
+    public static final String SCHEDULE_LAG_MICROS = "scheduleLagMicros";
+    public static final String DEFERRED_RUN_COUNT = "deferredRunCount";
+    public static final String SKIPPED_RUN_COUNT = "skippedRunCount";
+
+    /**
+     * Custom property with the endpoint type of the invoked task, used to cap the runs in flight
+     * per endpoint type.
+     */
+    public static final String ENDPOINT_TYPE_PROP_NAME =
+            EndpointAllocationTaskService.CUSTOM_PROP_ENPOINT_TYPE;
 
     public static class ScheduledTaskState
             extends com.vmware.xenon.services.common.TaskService.TaskServiceState {
@@ -79,7 +98,9 @@ public class ScheduledTaskService extends TaskService<ScheduledTaskService.Sched
         public Map<String, String> customProperties;
 
         /**
-         * delay before kicking off the task
+         * delay before kicking off the task. A delay shorter than {@link #intervalMicros} is the
+         * phase of the interval at which the task runs; it defaults to a phase derived from the
+         * self link, so that tasks with the same interval run at different times
          */
         @UsageOption(option = PropertyUsageOption.AUTO_MERGE_IF_NOT_NULL)
         public Long delayMicros;
@@ -150,7 +171,7 @@ public class ScheduledTaskService extends TaskService<ScheduledTaskService.Sched
                 this.setMaintenanceIntervalMicros(state.intervalMicros);
             }
             state.delayMicros = state.delayMicros != null ? state.delayMicros
-                    : new Random().longs(1, 0, state.intervalMicros).findFirst().getAsLong();
+                    : ScheduledTaskScheduler.getPhaseMicros(getSelfLink(), state.intervalMicros);
             invokeTask(state,
                     !start.hasPragmaDirective(Operation.PRAGMA_DIRECTIVE_FROM_MIGRATION_TASK));
             start.complete();
@@ -226,6 +247,9 @@ public class ScheduledTaskService extends TaskService<ScheduledTaskService.Sched
         final long delayMicros;
         if (isInitial && state.noDelayOnInitialExecution == Boolean.TRUE) {
             delayMicros = 0;
+        } else if (state.delayMicros < state.intervalMicros) {
+            delayMicros = ScheduledTaskScheduler.getDelayToPhaseMicros(Utils.getNowMicrosUtc(),
+                    state.intervalMicros, state.delayMicros);
         } else {
             delayMicros = state.delayMicros;
         }
@@ -249,42 +273,135 @@ public class ScheduledTaskService extends TaskService<ScheduledTaskService.Sched
         logInfo("Scheduling task: %s with delay(micros) %d and next maintenance time %d  ",
                 state.documentSelfLink, delayMicros, state.expectedNextMaintenanceTimeMicros);
 
-        getHost().schedule(() -> {
-            logInfo("Invoking schedule task: %s", state.documentSelfLink);
-            Operation op = Operation.createPost(this, state.factoryLink);
-
-            if (getHost().isAuthorizationEnabled()) {
-                if (state.userLink != null) {
-                    try {
-                        TaskUtils.assumeIdentity(this, op, state.userLink);
-                    } catch (Exception e) {
-                        logWarning(() -> String.format("Unhandled exception while assuming identity"
-                                + " for %s: %s", state.userLink, e.getMessage()));
-                        return;
-                    }
-                } else if (isInitial) {
-                    // make sure system authz context is used for the initial execution so that
-                    // it does not differ from periodic ones
-                    setAuthorizationContext(op, getSystemAuthorizationContext());
+        long scheduledTimeMicros = Utils.fromNowMicrosUtc(delayMicros);
+        getHost().schedule(() -> runTask(state, isInitial, scheduledTimeMicros), delayMicros,
+                TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * Invokes the task once the scheduler admits it, deferring it meanwhile up to half an
+     * interval after the time it was scheduled at.
+     */
+    private void runTask(ScheduledTaskState state, boolean isInitial, long scheduledTimeMicros) {
+        String endpointType = state.customProperties != null
+                ? state.customProperties.get(ENDPOINT_TYPE_PROP_NAME) : null;
+        ScheduledTaskScheduler.Permit permit = ScheduledTaskScheduler.of(getHost())
+                .tryAcquire(state.factoryLink, endpointType);
+        if (permit == null) {
+            long retryDelayMicros = Math.max(state.intervalMicros / 10, 1);
+            if (Utils.fromNowMicrosUtc(retryDelayMicros)
+                    > scheduledTimeMicros + state.intervalMicros / 2) {
+                adjustStat(SKIPPED_RUN_COUNT, 1);
+                logWarning(() -> String.format("Skipping run of scheduled task %s: too many"
+                        + " runs in flight or host overloaded", state.documentSelfLink));
+                return;
+            }
+            adjustStat(DEFERRED_RUN_COUNT, 1);
+            getHost().schedule(() -> runTask(state, isInitial, scheduledTimeMicros),
+                    retryDelayMicros, TimeUnit.MICROSECONDS);
+            return;
+        }
+
+        long startTimeMicros = Utils.getNowMicrosUtc();
+        setStat(SCHEDULE_LAG_MICROS, Math.max(startTimeMicros - scheduledTimeMicros, 0));
+
+        logInfo("Invoking schedule task: %s", state.documentSelfLink);
+        Operation op = Operation.createPost(this, state.factoryLink);
+
+        if (getHost().isAuthorizationEnabled()) {
+            if (state.userLink != null) {
+                try {
+                    TaskUtils.assumeIdentity(this, op, state.userLink);
+                } catch (Exception e) {
+                    logWarning(() -> String.format("Unhandled exception while assuming identity"
+                            + " for %s: %s", state.userLink, e.getMessage()));
+                    permit.release();
+                    return;
                 }
+            } else if (isInitial) {
+                // make sure system authz context is used for the initial execution so that
+                // it does not differ from periodic ones
+                setAuthorizationContext(op, getSystemAuthorizationContext());
             }
+        }
+
+        addPartitionIdToOperation(op, state.partitionId);
+        sendRequest(op.setBody(state.initialStateJson)
+                .addPragmaDirective(Operation.PRAGMA_DIRECTIVE_FORCE_INDEX_UPDATE)
+                .setCompletion(
+                        (o, e) -> {
+                            ScheduledTaskScheduler.of(getHost()).recordInvocationLatency(
+                                    Utils.getNowMicrosUtc() - startTimeMicros);
+                            adjustStat(INVOCATION_COUNT, 1);
+                            // if a task instance is already running, just log the fact
+                            if (o.getStatusCode() == Operation.STATUS_CODE_NOT_MODIFIED) {
+                                logFine(() -> "Service instance already running.");
+                                permit.release();
+                                return;
+                            } else if (e != null) {
+                                logWarning(() -> String.format("Scheduled task invocation"
+                                                + " failed: %s", e.getMessage()));
+                                permit.release();
+                                return;
+                            }
+                            ServiceDocument task = o.hasBody()
+                                    ? o.getBody(ServiceDocument.class) : null;
+                            releaseOnCompletion(permit,
+                                    task != null ? task.documentSelfLink : null,
+                                    state.intervalMicros);
+                        }));
+    }
 
-            addPartitionIdToOperation(op, state.partitionId);
-            sendRequest(op.setBody(state.initialStateJson)
-                    .addPragmaDirective(Operation.PRAGMA_DIRECTIVE_FORCE_INDEX_UPDATE)
-                    .setCompletion(
-                            (o, e) -> {
-                                adjustStat(INVOCATION_COUNT, 1);
-                                // if a task instance is already running, just log the fact
-                                if (o.getStatusCode() == Operation.STATUS_CODE_NOT_MODIFIED) {
-                                    logFine(() -> "Service instance already running.");
-                                } else if (e != null) {
-                                    logWarning(() -> String.format("Scheduled task invocation"
-                                                    + " failed: %s", e.getMessage()));
-                                    return;
-                                }
-                            }));
-        }, delayMicros, TimeUnit.MICROSECONDS);
+    /**
+     * Releases the permit of a run once the invoked task is no longer in progress, or after an
+     * interval at most, e.g. if the invoked service does not notify its changes. Either way the
+     * subscription to the task is stopped.
+     */
+    private void releaseOnCompletion(ScheduledTaskScheduler.Permit permit, String taskLink,
+            long intervalMicros) {
+        if (taskLink == null) {
+            permit.release();
+            return;
+        }
+        AtomicBoolean released = new AtomicBoolean();
+        AtomicReference<URI> subscriptionUri = new AtomicReference<>();
+        Runnable release = () -> {
+            released.set(true);
+            permit.release();
+            URI uri = subscriptionUri.getAndSet(null);
+            if (uri != null) {
+                getHost().stopSubscriptionService(
+                        Operation.createDelete(this, taskLink).setReferer(getUri()), uri);
+            }
+        };
+        getHost().schedule(release, intervalMicros, TimeUnit.MICROSECONDS);
+
+        Operation subscribe = Operation.createPost(this, taskLink)
+                .setReferer(getUri())
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        release.run();
+                    }
+                });
+        Consumer<Operation> notificationConsumer = notification -> {
+            notification.complete();
+            boolean done = notification.getAction() == Action.DELETE;
+            if (!done && notification.hasBody()) {
+                TaskServiceState taskState = notification.getBody(TaskServiceState.class);
+                done = taskState.taskInfo != null && (TaskState.isFinished(taskState.taskInfo)
+                        || TaskState.isFailed(taskState.taskInfo)
+                        || TaskState.isCancelled(taskState.taskInfo));
+            }
+            if (done) {
+                release.run();
+            }
+        };
+        subscriptionUri.set(getHost().startSubscriptionService(subscribe, notificationConsumer,
+                ServiceSubscriber.create(true)));
+        // the run may have been released while subscribing
+        if (released.get()) {
+            release.run();
+        }
     }
 
     @Override
@@ -13,6 +13,8 @@
 
 package com.vmware.photon.controller.model.tasks;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -21,6 +23,8 @@ import com.vmware.photon.controller.model.UriPaths;
 import com.vmware.photon.controller.model.adapterapi.ResourceOperationResponse;
 import com.vmware.photon.controller.model.tasks.ServiceTaskCallback.ServiceTaskCallbackResponse;
 import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceErrorResponse;
+import com.vmware.xenon.common.TaskState;
 import com.vmware.xenon.common.TaskState.TaskStage;
 import com.vmware.xenon.common.Utils;
 import com.vmware.xenon.services.common.TaskService;
@@ -30,6 +34,11 @@ import com.vmware.xenon.services.common.TaskService;
  * operation they issue a PATCH to this service with the taskInfo.stage set to FINISHED, or if the
  * operation fails, set to FAILED. The subtask service then issues one PATCH to the service
  * referenced via parentTaskLink
+ * <p>
+ * Several completions can be reported by a single PATCH, built with
+ * {@link #createCompletionsPatch(long, long, ServiceErrorResponse)}. For large numbers of tasks,
+ * {@link SubTaskState#countOnly} and {@link SubTaskState#checkpointInterval} keep the cost of a
+ * completion independent of the number of completions already reported.
  */
 public class SubTaskService<E extends Enum<E>> extends TaskService<SubTaskService.SubTaskState<E>> {
 
@@ -38,6 +47,8 @@ public class SubTaskService<E extends Enum<E>> extends TaskService<SubTaskServic
      * Represent the state of subtask service.
      */
     public static class SubTaskState<E extends Enum<E>> extends TaskService.TaskServiceState {
+        public static final int DEFAULT_MAX_FAILURE_SAMPLES = 10;
+
         /**
          * Number of tasks to track.
          */
@@ -64,12 +75,40 @@ public class SubTaskService<E extends Enum<E>> extends TaskService<SubTaskServic
 
         public Set<ResourceOperationResponse> completed = new HashSet<>();
 
+        /**
+         * If set, only the numbers of completions are kept: {@link #completed} is not populated
+         * and {@link #failures} keeps at most {@link #maxFailureSamples} failures.
+         */
+        public boolean countOnly;
+
+        /**
+         * Maximum number of failures kept when {@link #countOnly} is set.
+         */
+        public int maxFailureSamples = DEFAULT_MAX_FAILURE_SAMPLES;
+
+        /**
+         * If greater than 1, the state is only updated every {@code checkpointInterval}
+         * completions and on the last one, instead of on every completion; the completions in
+         * between are counted in memory. The completions counted since the last checkpoint are
+         * lost if the service is restarted or moves to another node, in which case the sub task
+         * never completes and expires.
+         */
+        public long checkpointInterval;
+
         /**
          * Tenant links.
          */
         public List<String> tenantLinks;
     }
 
+    /**
+     * The up to date state of the sub task when {@link SubTaskState#checkpointInterval} is set,
+     * resumed from the last checkpoint by the first PATCH after the service starts.
+     */
+    private SubTaskState<E> uncheckpointedState;
+
+    private long completionsSinceCheckpoint;
+
     public SubTaskService() {
         super(SubTaskState.class);
 
@@ -77,6 +116,24 @@ public class SubTaskService<E extends Enum<E>> extends TaskService<SubTaskServic
         super.toggleOption(ServiceOption.OWNER_SELECTION, true);
     }
 
+    /**
+     * Creates the body of a PATCH reporting several completions to a sub task at once.
+     *
+     * @param failure
+     *            the failure reported to the parent if the sub task fails on this PATCH, or
+     *            {@code null}
+     */
+    public static <E extends Enum<E>> SubTaskState<E> createCompletionsPatch(long finishedCount,
+            long failCount, ServiceErrorResponse failure) {
+        SubTaskState<E> patch = new SubTaskState<>();
+        patch.taskInfo = new TaskState();
+        patch.taskInfo.stage = failCount > 0 ? TaskStage.FAILED : TaskStage.FINISHED;
+        patch.taskInfo.failure = failure;
+        patch.finishedCount = finishedCount;
+        patch.failCount = failCount;
+        return patch;
+    }
+
     @Override
     public void handlePatch(Operation patch) {
         SubTaskState<E> patchBody = getBody(patch);
@@ -89,31 +146,20 @@ public class SubTaskService<E extends Enum<E>> extends TaskService<SubTaskServic
             return;
         }
 
-        if (currentState.completionsRemaining == 0) {
+        boolean isCheckpointed = currentState.checkpointInterval > 1;
+        if (isCheckpointed && this.uncheckpointedState == null) {
+            this.uncheckpointedState = Utils.clone(currentState);
+        }
+        SubTaskState<E> state = isCheckpointed ? this.uncheckpointedState : currentState;
+
+        if (state.completionsRemaining == 0) {
             // don't do anything, we are done
             patch.complete();
             return;
         }
 
-        if (patchBody.taskInfo.stage == TaskStage.FAILED
-                || patchBody.taskInfo.stage == TaskStage.CANCELLED) {
-            currentState.failCount++;
-            currentState.completionsRemaining--;
-
-            if (ResourceOperationResponse.KIND.equals(patchBody.documentKind)) {
-                ResourceOperationResponse r = patch.getBody(ResourceOperationResponse.class);
-                currentState.failures.add(r);
-            }
-        } else if (patchBody.taskInfo.stage == TaskStage.FINISHED) {
-            currentState.completionsRemaining--;
-            currentState.finishedCount++;
-            if (ResourceOperationResponse.KIND.equals(patchBody.documentKind)) {
-                ResourceOperationResponse r = patch.getBody(ResourceOperationResponse.class);
-                currentState.completed.add(r);
-            }
-        } else if (patchBody.taskInfo.stage == TaskStage.STARTED) {
-            // don't decrement completions remaining.
-        } else {
+        long completions = applyCompletions(patch, patchBody, state);
+        if (completions < 0) {
             logFine(() -> String.format("ignoring patch from %s", patch.getReferer()));
             // ignore status updates from boot/power services
             patch.complete();
@@ -123,38 +169,111 @@ public class SubTaskService<E extends Enum<E>> extends TaskService<SubTaskServic
         // any operation on state before a operation is completed, is guaranteed
         // to be atomic
         // (service is synchronized)
-        logFine(() -> String.format("Remaining %d", currentState.completionsRemaining));
-        boolean isFinished = currentState.completionsRemaining == 0;
+        logFine(() -> String.format("Remaining %d", state.completionsRemaining));
+        boolean isFinished = state.completionsRemaining == 0;
+
+        if (isCheckpointed) {
+            this.completionsSinceCheckpoint += completions;
+            if (!isFinished && this.completionsSinceCheckpoint < state.checkpointInterval) {
+                patch.setStatusCode(Operation.STATUS_CODE_NOT_MODIFIED).complete();
+                return;
+            }
+            this.completionsSinceCheckpoint = 0;
+            currentState.completionsRemaining = state.completionsRemaining;
+            currentState.failCount = state.failCount;
+            currentState.finishedCount = state.finishedCount;
+            currentState.failures = new HashSet<>(state.failures);
+            currentState.completed = new HashSet<>(state.completed);
+        }
         patch.complete();
 
         if (!isFinished) {
             return;
         }
 
-        ServiceTaskCallbackResponse<E> parentPatchBody = currentState.serviceTaskCallback
+        ServiceTaskCallbackResponse<E> parentPatchBody = state.serviceTaskCallback
                 .getFinishedResponse();
-        if (currentState.failCount > 0) {
-            double failedRatio = (double) currentState.failCount
-                    / (double) (currentState.finishedCount
-                            + currentState.failCount + currentState.completionsRemaining);
+        if (state.failCount > 0) {
+            double failedRatio = (double) state.failCount
+                    / (double) (state.finishedCount
+                            + state.failCount + state.completionsRemaining);
 
-            if (currentState.errorThreshold == 0
-                    || failedRatio > currentState.errorThreshold) {
+            if (state.errorThreshold == 0
+                    || failedRatio > state.errorThreshold) {
                 logWarning(() -> String.format("Notifying parent of task failure: %s (%s)",
                         Utils.toJsonHtml(patchBody.failureMessage),
                         patchBody.taskInfo.stage));
 
-                parentPatchBody = currentState.serviceTaskCallback
+                parentPatchBody = state.serviceTaskCallback
                         .getFailedResponse(patchBody.taskInfo.failure);
             }
         }
 
-        parentPatchBody.completed = currentState.completed;
-        parentPatchBody.failures = currentState.failures;
+        parentPatchBody.completed = state.completed;
+        parentPatchBody.failures = state.failures;
 
-        currentState.serviceTaskCallback.sendResponse(this, parentPatchBody);
+        state.serviceTaskCallback.sendResponse(this, parentPatchBody);
 
         // we are a one shot task, self DELETE
         sendRequest(Operation.createDelete(this, getSelfLink()));
     }
+
+    /**
+     * Counts the completions reported by the given PATCH into the given state.
+     *
+     * @return the number of completions, or -1 if the PATCH is to be ignored
+     */
+    private long applyCompletions(Operation patch, SubTaskState<E> patchBody,
+            SubTaskState<E> state) {
+        long finished = 0;
+        long failed = 0;
+        if (patchBody.finishedCount > 0 || patchBody.failCount > 0) {
+            // completions coalesced by the sender
+            finished = patchBody.finishedCount;
+            failed = patchBody.failCount;
+            addFailures(state, patchBody.failures);
+            if (!state.countOnly && patchBody.completed != null) {
+                state.completed.addAll(patchBody.completed);
+            }
+        } else if (patchBody.taskInfo.stage == TaskStage.FAILED
+                || patchBody.taskInfo.stage == TaskStage.CANCELLED) {
+            failed = 1;
+            if (ResourceOperationResponse.KIND.equals(patchBody.documentKind)) {
+                ResourceOperationResponse r = patch.getBody(ResourceOperationResponse.class);
+                addFailures(state, Collections.singleton(r));
+            }
+        } else if (patchBody.taskInfo.stage == TaskStage.FINISHED) {
+            finished = 1;
+            if (!state.countOnly
+                    && ResourceOperationResponse.KIND.equals(patchBody.documentKind)) {
+                ResourceOperationResponse r = patch.getBody(ResourceOperationResponse.class);
+                state.completed.add(r);
+            }
+        } else if (patchBody.taskInfo.stage == TaskStage.STARTED) {
+            // don't decrement completions remaining.
+        } else {
+            return -1;
+        }
+
+        // never count more completions than remaining
+        failed = Math.min(failed, state.completionsRemaining);
+        finished = Math.min(finished, state.completionsRemaining - failed);
+        state.failCount += failed;
+        state.finishedCount += finished;
+        state.completionsRemaining -= failed + finished;
+        return failed + finished;
+    }
+
+    private static void addFailures(SubTaskState<?> state,
+            Collection<ResourceOperationResponse> failures) {
+        if (failures == null) {
+            return;
+        }
+        for (ResourceOperationResponse failure : failures) {
+            if (state.countOnly && state.failures.size() >= state.maxFailureSamples) {
+                return;
+            }
+            state.failures.add(failure);
+        }
+    }
 }
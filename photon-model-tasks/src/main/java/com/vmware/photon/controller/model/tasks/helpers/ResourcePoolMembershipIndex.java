@@ -0,0 +1,535 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.tasks.helpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import com.vmware.photon.controller.model.UriPaths;
+import com.vmware.photon.controller.model.query.QueryUtils.QueryByPages;
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.photon.controller.model.resources.ResourcePoolService.ResourcePoolState;
+import com.vmware.photon.controller.model.resources.ResourcePoolService.ResourcePoolState.ResourcePoolProperty;
+import com.vmware.photon.controller.model.util.ClusterUtil;
+import com.vmware.photon.controller.model.util.ClusterUtil.ServiceTypeCluster;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Service.Action;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceDocumentDescription;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.ServiceSubscriptionState.ServiceSubscriber;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryFilter;
+import com.vmware.xenon.services.common.QueryTask;
+import com.vmware.xenon.services.common.QueryTask.Query;
+import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryOption;
+import com.vmware.xenon.services.common.ServiceUriPaths;
+
+/**
+ * {@code ResourcePoolMembershipIndex} keeps the computes of each resource pool of a host in
+ * memory, so that {@link ResourcePoolQueryHelper} and the resource allocation do not need to run
+ * the query of every resource pool against the compute index on each request.
+ *
+ * <p>The index is loaded from the local document index and then maintained by a continuous query
+ * on resource pools and computes:
+ * <ul>
+ * <li>The computes of non-elastic pools are looked up by {@link ComputeState#resourcePoolLink},
+ * which is what their auto-generated query matches.
+ * <li>The query of each elastic pool is evaluated in memory against every created or updated
+ * compute. Pools with queries that cannot be evaluated in memory are not indexed, and clients
+ * query their computes as before.
+ * </ul>
+ *
+ * <p>The index is rebuilt from scratch when the node group changes, since the documents owned by
+ * a node may then change, and periodically in case a notification has been missed. It is not
+ * used until its first build completes, or if the inventory is in a separate cluster, and follows
+ * the changes of the documents with the delay of their notifications.
+ */
+public class ResourcePoolMembershipIndex {
+    public static final String PROPERTY_NAME_ENABLED = UriPaths.PROPERTY_PREFIX
+            + "rp.membership.index.enabled";
+    public static final boolean ENABLED = Boolean.getBoolean(PROPERTY_NAME_ENABLED);
+
+    public static final String PROPERTY_NAME_REBUILD_INTERVAL_MICROS = UriPaths.PROPERTY_PREFIX
+            + "rp.membership.index.rebuild.interval.micros";
+    private static final long REBUILD_INTERVAL_MICROS = Long.getLong(
+            PROPERTY_NAME_REBUILD_INTERVAL_MICROS, TimeUnit.MINUTES.toMicros(10));
+
+    private static final int PAGE_SIZE = Integer
+            .getInteger(UriPaths.PROPERTY_PREFIX + "rp.membership.index.page.size", 1024);
+
+    /**
+     * Continuous queries cannot be infinite and are not persisted, so a long expiration is fine.
+     */
+    private static final long QUERY_TASK_EXPIRATION_DAYS = 5 * 365;
+
+    private static final ConcurrentMap<ServiceHost, ResourcePoolMembershipIndex> indexes =
+            new ConcurrentHashMap<>();
+
+    private final ServiceHost host;
+
+    // Guarded by this
+    private Membership membership;
+    private boolean ready;
+    private List<ServiceDocument> changesDuringRebuild;
+    private boolean rebuildRequested;
+
+    private ResourcePoolMembershipIndex(ServiceHost host) {
+        this.host = host;
+        this.membership = new Membership();
+    }
+
+    /**
+     * Starts maintaining the index of the given host, unless already started or the inventory is
+     * in a separate cluster.
+     */
+    public static void start(ServiceHost host) {
+        if (ClusterUtil.isClusterDefined(ServiceTypeCluster.INVENTORY_SERVICE)) {
+            host.log(Level.INFO, "Resource pool membership index not started: the inventory is"
+                    + " in a separate cluster");
+            return;
+        }
+
+        ResourcePoolMembershipIndex index = new ResourcePoolMembershipIndex(host);
+        if (indexes.putIfAbsent(host, index) != null) {
+            return;
+        }
+
+        index.subscribeToChanges();
+        index.subscribeToNodeGroup();
+        index.rebuild();
+        index.scheduleRebuild();
+    }
+
+    /**
+     * Stops using and maintaining the index of the given host.
+     */
+    public static void stop(ServiceHost host) {
+        indexes.remove(host);
+    }
+
+    /**
+     * Returns the index of the given host if it has been built, or {@code null}.
+     */
+    public static ResourcePoolMembershipIndex getIfReady(ServiceHost host) {
+        ResourcePoolMembershipIndex index = indexes.get(host);
+        if (index == null) {
+            return null;
+        }
+        synchronized (index) {
+            return index.ready ? index : null;
+        }
+    }
+
+    /**
+     * Returns the computes of the given resource pool which have all the given tenant links and
+     * match the given filter, or {@code null} if the pool is not indexed.
+     *
+     * @param additionalFilter
+     *            additional criteria, or {@code null}
+     */
+    public synchronized Map<String, ComputeState> getComputes(String resourcePoolLink,
+            List<String> tenantLinks, QueryFilter additionalFilter) {
+        return this.membership.getComputes(resourcePoolLink, tenantLinks, additionalFilter);
+    }
+
+    /**
+     * Returns the links of the computes which {@link ComputeState#resourcePoolLink} is the given
+     * link and which {@link ComputeState#descriptionLink} is one of the given links.
+     */
+    public synchronized List<String> getComputeLinks(String resourcePoolLink,
+            Collection<String> descriptionLinks) {
+        return this.membership.getComputeLinks(resourcePoolLink, descriptionLinks);
+    }
+
+    /**
+     * Returns the links of the indexed resource pools the given compute participates in.
+     */
+    public synchronized Set<String> getResourcePoolLinks(String computeLink) {
+        return this.membership.getResourcePoolLinks(computeLink);
+    }
+
+    private void subscribeToChanges() {
+        Query query = Query.Builder.create()
+                .addInClause(ServiceDocument.FIELD_NAME_KIND, Arrays.asList(
+                        Utils.buildKind(ResourcePoolState.class),
+                        Utils.buildKind(ComputeState.class)))
+                .build();
+        QueryTask task = QueryTask.Builder.create()
+                .addOption(QueryOption.CONTINUOUS)
+                .addOption(QueryOption.EXPAND_CONTENT)
+                .setQuery(query)
+                .build();
+        task.documentSelfLink = UUID.randomUUID().toString();
+        task.documentExpirationTimeMicros = Utils.fromNowMicrosUtc(
+                TimeUnit.DAYS.toMicros(QUERY_TASK_EXPIRATION_DAYS));
+
+        Operation.createPost(UriUtils.buildUri(this.host, ServiceUriPaths.CORE_LOCAL_QUERY_TASKS))
+                .setBody(task)
+                .setReferer(this.host.getUri())
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        this.host.log(Level.SEVERE, "Cannot create the continuous query of the"
+                                + " resource pool membership index: %s", Utils.toString(e));
+                        stop(this.host);
+                        return;
+                    }
+
+                    Operation subscribe = Operation.createPost(this.host, UriUtils.buildUriPath(
+                            ServiceUriPaths.CORE_LOCAL_QUERY_TASKS, task.documentSelfLink))
+                            .setReferer(this.host.getUri())
+                            .setCompletion((op, ex) -> {
+                                if (ex != null) {
+                                    this.host.log(Level.SEVERE, "Cannot subscribe to the"
+                                            + " continuous query of the resource pool membership"
+                                            + " index: %s", Utils.toString(ex));
+                                    stop(this.host);
+                                }
+                            });
+                    this.host.startSubscriptionService(subscribe, this::handleChanges,
+                            ServiceSubscriber.create(false));
+                })
+                .sendWith(this.host);
+    }
+
+    private void subscribeToNodeGroup() {
+        Operation subscribe = Operation
+                .createPost(UriUtils.buildUri(this.host, ServiceUriPaths.DEFAULT_NODE_GROUP))
+                .setReferer(this.host.getUri())
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        this.host.log(Level.WARNING, "Cannot subscribe to the node group, the"
+                                + " resource pool membership index is only rebuilt periodically:"
+                                + " %s", Utils.toString(e));
+                    }
+                });
+        this.host.startSubscriptionService(subscribe, notification -> {
+            notification.complete();
+            // the owners of the documents may have changed
+            rebuild();
+        });
+    }
+
+    private void scheduleRebuild() {
+        this.host.schedule(() -> {
+            if (this.host.isStopping()) {
+                indexes.remove(this.host, this);
+                return;
+            }
+            if (indexes.get(this.host) != this) {
+                return;
+            }
+            rebuild();
+            scheduleRebuild();
+        }, REBUILD_INTERVAL_MICROS, TimeUnit.MICROSECONDS);
+    }
+
+    private void handleChanges(Operation notification) {
+        QueryTask body = notification.getBody(QueryTask.class);
+        notification.complete();
+        if (body.results == null || body.results.documents == null) {
+            return;
+        }
+
+        List<ServiceDocument> changes = new ArrayList<>(body.results.documents.size());
+        for (Object json : body.results.documents.values()) {
+            ServiceDocument document = Utils.fromJson(json, ServiceDocument.class);
+            if (Utils.buildKind(ComputeState.class).equals(document.documentKind)) {
+                changes.add(Utils.fromJson(json, ComputeState.class));
+            } else if (Utils.buildKind(ResourcePoolState.class).equals(document.documentKind)) {
+                changes.add(Utils.fromJson(json, ResourcePoolState.class));
+            }
+        }
+
+        synchronized (this) {
+            changes.forEach(this.membership::apply);
+            if (this.changesDuringRebuild != null) {
+                this.changesDuringRebuild.addAll(changes);
+            }
+        }
+    }
+
+    /**
+     * Loads all resource pools and computes into a new membership, replays the changes notified
+     * meanwhile and swaps it in. A rebuild requested while another is running runs after it.
+     */
+    private void rebuild() {
+        synchronized (this) {
+            if (this.changesDuringRebuild != null) {
+                this.rebuildRequested = true;
+                return;
+            }
+            this.changesDuringRebuild = new ArrayList<>();
+        }
+
+        long startTimeMicros = Utils.getNowMicrosUtc();
+        Membership newMembership = new Membership();
+
+        QueryByPages<ResourcePoolState> rpQuery = new QueryByPages<>(this.host,
+                Query.Builder.create().addKindFieldClause(ResourcePoolState.class).build(),
+                ResourcePoolState.class, null);
+        QueryByPages<ComputeState> computeQuery = new QueryByPages<>(this.host,
+                Query.Builder.create().addKindFieldClause(ComputeState.class).build(),
+                ComputeState.class, null);
+
+        rpQuery.setMaxPageSize(PAGE_SIZE).queryDocuments(newMembership::apply)
+                .thenCompose(ignore -> computeQuery.setMaxPageSize(PAGE_SIZE)
+                        .queryDocuments(newMembership::apply))
+                .whenComplete((ignore, e) -> {
+                    boolean rebuildAgain;
+                    synchronized (this) {
+                        if (e == null) {
+                            this.changesDuringRebuild.forEach(newMembership::apply);
+                            this.membership = newMembership;
+                            this.ready = true;
+                        }
+                        this.changesDuringRebuild = null;
+                        rebuildAgain = this.rebuildRequested;
+                        this.rebuildRequested = false;
+                    }
+
+                    if (e != null) {
+                        this.host.log(Level.WARNING, "Cannot rebuild the resource pool"
+                                + " membership index: %s", Utils.toString(e));
+                    } else {
+                        this.host.log(Level.FINE, "Rebuilt the resource pool membership index"
+                                + " in %d ms", TimeUnit.MICROSECONDS.toMillis(
+                                        Utils.getNowMicrosUtc() - startTimeMicros));
+                    }
+                    if (rebuildAgain) {
+                        rebuild();
+                    }
+                });
+    }
+
+    /**
+     * The resource pools, the computes and their relations at a point in time. Not thread-safe.
+     */
+    static class Membership {
+        private static final ServiceDocumentDescription COMPUTE_DESCRIPTION =
+                ServiceDocumentDescription.Builder.create().buildDescription(ComputeState.class);
+
+        private static class PoolEntry {
+            ResourcePoolState state;
+            boolean elastic;
+            /**
+             * The compiled query of an elastic pool, or {@code null} if it cannot be evaluated.
+             */
+            QueryFilter filter;
+            /**
+             * The computes matched by the query of an elastic pool.
+             */
+            Set<String> computeLinks = new HashSet<>();
+        }
+
+        private final Map<String, PoolEntry> pools = new HashMap<>();
+        private final Map<String, PoolEntry> elasticPools = new HashMap<>();
+        private final Map<String, ComputeState> computes = new HashMap<>();
+        private final Map<String, Set<String>> computeLinksByResourcePoolLink = new HashMap<>();
+        private final Map<String, Set<String>> elasticPoolLinksByComputeLink = new HashMap<>();
+
+        /**
+         * Applies a created, updated or deleted resource pool or compute.
+         */
+        void apply(ServiceDocument document) {
+            boolean deleted = Action.DELETE.name().equals(document.documentUpdateAction);
+            if (document instanceof ComputeState) {
+                if (deleted) {
+                    removeCompute(document.documentSelfLink);
+                } else {
+                    updateCompute((ComputeState) document);
+                }
+            } else if (document instanceof ResourcePoolState) {
+                if (deleted) {
+                    removePool(document.documentSelfLink);
+                } else {
+                    updatePool((ResourcePoolState) document);
+                }
+            }
+        }
+
+        void updatePool(ResourcePoolState pool) {
+            PoolEntry entry = this.pools.get(pool.documentSelfLink);
+            if (entry != null
+                    && entry.state.documentUpdateTimeMicros > pool.documentUpdateTimeMicros) {
+                return;
+            }
+
+            boolean elastic = pool.properties != null
+                    && pool.properties.contains(ResourcePoolProperty.ELASTIC);
+            if (entry != null && entry.elastic == elastic && (!elastic
+                    || Utils.toJson(entry.state.query).equals(Utils.toJson(pool.query)))) {
+                // same members
+                entry.state = pool;
+                return;
+            }
+
+            removePool(pool.documentSelfLink);
+            entry = new PoolEntry();
+            entry.state = pool;
+            entry.elastic = elastic;
+            this.pools.put(pool.documentSelfLink, entry);
+            if (!elastic) {
+                return;
+            }
+
+            this.elasticPools.put(pool.documentSelfLink, entry);
+            try {
+                entry.filter = QueryFilter.create(pool.query);
+            } catch (Exception e) {
+                // not indexed
+                return;
+            }
+            for (ComputeState compute : this.computes.values()) {
+                if (entry.filter.evaluate(compute, COMPUTE_DESCRIPTION)) {
+                    entry.computeLinks.add(compute.documentSelfLink);
+                    this.elasticPoolLinksByComputeLink
+                            .computeIfAbsent(compute.documentSelfLink, k -> new HashSet<>())
+                            .add(pool.documentSelfLink);
+                }
+            }
+        }
+
+        void removePool(String poolLink) {
+            PoolEntry entry = this.pools.remove(poolLink);
+            if (entry == null || !entry.elastic) {
+                return;
+            }
+            this.elasticPools.remove(poolLink);
+            for (String computeLink : entry.computeLinks) {
+                Set<String> poolLinks = this.elasticPoolLinksByComputeLink.get(computeLink);
+                poolLinks.remove(poolLink);
+                if (poolLinks.isEmpty()) {
+                    this.elasticPoolLinksByComputeLink.remove(computeLink);
+                }
+            }
+        }
+
+        void updateCompute(ComputeState compute) {
+            ComputeState old = this.computes.get(compute.documentSelfLink);
+            if (old != null && old.documentUpdateTimeMicros > compute.documentUpdateTimeMicros) {
+                return;
+            }
+
+            removeCompute(compute.documentSelfLink);
+            this.computes.put(compute.documentSelfLink, compute);
+            if (compute.resourcePoolLink != null) {
+                this.computeLinksByResourcePoolLink
+                        .computeIfAbsent(compute.resourcePoolLink, k -> new HashSet<>())
+                        .add(compute.documentSelfLink);
+            }
+
+            Set<String> poolLinks = new HashSet<>();
+            for (PoolEntry entry : this.elasticPools.values()) {
+                if (entry.filter != null && entry.filter.evaluate(compute, COMPUTE_DESCRIPTION)) {
+                    entry.computeLinks.add(compute.documentSelfLink);
+                    poolLinks.add(entry.state.documentSelfLink);
+                }
+            }
+            if (!poolLinks.isEmpty()) {
+                this.elasticPoolLinksByComputeLink.put(compute.documentSelfLink, poolLinks);
+            }
+        }
+
+        void removeCompute(String computeLink) {
+            ComputeState compute = this.computes.remove(computeLink);
+            if (compute == null) {
+                return;
+            }
+
+            if (compute.resourcePoolLink != null) {
+                Set<String> computeLinks = this.computeLinksByResourcePoolLink
+                        .get(compute.resourcePoolLink);
+                computeLinks.remove(computeLink);
+                if (computeLinks.isEmpty()) {
+                    this.computeLinksByResourcePoolLink.remove(compute.resourcePoolLink);
+                }
+            }
+
+            Set<String> poolLinks = this.elasticPoolLinksByComputeLink.remove(computeLink);
+            if (poolLinks != null) {
+                poolLinks.forEach(poolLink -> this.elasticPools.get(poolLink).computeLinks
+                        .remove(computeLink));
+            }
+        }
+
+        Map<String, ComputeState> getComputes(String poolLink, List<String> tenantLinks,
+                QueryFilter additionalFilter) {
+            PoolEntry entry = this.pools.get(poolLink);
+            if (entry == null || (entry.elastic && entry.filter == null)) {
+                return null;
+            }
+
+            Set<String> computeLinks = entry.elastic ? entry.computeLinks
+                    : this.computeLinksByResourcePoolLink.getOrDefault(poolLink,
+                            Collections.emptySet());
+            Map<String, ComputeState> result = new HashMap<>();
+            for (String computeLink : computeLinks) {
+                ComputeState compute = this.computes.get(computeLink);
+                if (tenantLinks != null && (compute.tenantLinks == null
+                        || !compute.tenantLinks.containsAll(tenantLinks))) {
+                    continue;
+                }
+                if (additionalFilter != null
+                        && !additionalFilter.evaluate(compute, COMPUTE_DESCRIPTION)) {
+                    continue;
+                }
+                result.put(computeLink, compute);
+            }
+            return result;
+        }
+
+        List<String> getComputeLinks(String resourcePoolLink,
+                Collection<String> descriptionLinks) {
+            List<String> result = new ArrayList<>();
+            for (String computeLink : this.computeLinksByResourcePoolLink
+                    .getOrDefault(resourcePoolLink, Collections.emptySet())) {
+                if (descriptionLinks.contains(this.computes.get(computeLink).descriptionLink)) {
+                    result.add(computeLink);
+                }
+            }
+            Collections.sort(result);
+            return result;
+        }
+
+        Set<String> getResourcePoolLinks(String computeLink) {
+            ComputeState compute = this.computes.get(computeLink);
+            if (compute == null) {
+                return Collections.emptySet();
+            }
+
+            Set<String> result = new HashSet<>(this.elasticPoolLinksByComputeLink
+                    .getOrDefault(computeLink, Collections.emptySet()));
+            PoolEntry entry = compute.resourcePoolLink != null
+                    ? this.pools.get(compute.resourcePoolLink) : null;
+            if (entry != null && !entry.elastic) {
+                result.add(compute.resourcePoolLink);
+            }
+            return result;
+        }
+    }
+}
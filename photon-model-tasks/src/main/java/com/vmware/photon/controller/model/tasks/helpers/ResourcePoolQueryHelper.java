@@ -36,6 +36,8 @@ import com.vmware.photon.controller.model.util.ClusterUtil.ServiceTypeCluster;
 import com.vmware.xenon.common.DeferredResult;
 import com.vmware.xenon.common.ServiceDocument;
 import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryFilter;
 import com.vmware.xenon.services.common.QueryTask.Query;
 
 /**
@@ -60,6 +62,9 @@ import com.vmware.xenon.services.common.QueryTask.Query;
  *
  * <p>By default computes are not expanded and values in {@link QueryResult#computesByLink} are
  * {@code null}. Use {@link ResourcePoolQueryHelper#setExpandComputes(boolean)} to change this.
+ *
+ * <p>When the {@link ResourcePoolMembershipIndex} of the host is started, the computes of the
+ * indexed resource pools are taken from it instead of running the resource pool queries.
  */
 public class ResourcePoolQueryHelper {
     private static final int PAGE_SIZE = Integer
@@ -254,10 +259,31 @@ public class ResourcePoolQueryHelper {
     private DeferredResult<Void> executeRpQueries() {
         List<DeferredResult<Void>> rpQueryDRs = new ArrayList<>(this.result.resourcesPools.size());
         Map<String, Map<String, ComputeState>> computeMapByRpLink = new ConcurrentHashMap<>();
+        ResourcePoolMembershipIndex index = ResourcePoolMembershipIndex.getIfReady(this.host);
+        QueryFilter additionalFilter = null;
+        if (index != null && (this.computeLinks == null || this.computeLinks.isEmpty())
+                && this.additionalQueryClausesProvider != null) {
+            try {
+                Query.Builder queryBuilder = Query.Builder.create();
+                this.additionalQueryClausesProvider.accept(queryBuilder);
+                additionalFilter = QueryFilter.create(queryBuilder.build());
+            } catch (Exception e) {
+                // the additional clauses cannot be evaluated in memory, query all the pools
+                index = null;
+            }
+        }
+
         for (ResourcePoolData rpData : this.result.resourcesPools.values()) {
             String rpLink = rpData.resourcePoolState.documentSelfLink;
             Query rpQuery = rpData.resourcePoolState.query;
 
+            Map<String, ComputeState> indexedComputes = index != null
+                    ? getIndexedComputes(index, rpLink, additionalFilter) : null;
+            if (indexedComputes != null) {
+                computeMapByRpLink.put(rpLink, indexedComputes);
+                continue;
+            }
+
             Query.Builder queryBuilder = Query.Builder.create().addClause(rpQuery);
             if (this.computeLinks != null && !this.computeLinks.isEmpty()) {
                 queryBuilder.addInClause(ServiceDocument.FIELD_NAME_SELF_LINK, this.computeLinks);
@@ -290,6 +316,25 @@ public class ResourcePoolQueryHelper {
                 .thenApply(ignore -> (Void)null);
     }
 
+    /**
+     * Returns the computes of the given resource pool from the membership index, restricted to the
+     * requested computes if any, or {@code null} if the pool is not indexed.
+     */
+    private Map<String, ComputeState> getIndexedComputes(ResourcePoolMembershipIndex index,
+            String rpLink, QueryFilter additionalFilter) {
+        Map<String, ComputeState> computesMap = index.getComputes(rpLink, this.tenantLinks,
+                additionalFilter);
+        if (computesMap == null) {
+            return null;
+        }
+        if (this.computeLinks != null && !this.computeLinks.isEmpty()) {
+            computesMap.keySet().retainAll(this.computeLinks);
+        }
+        // the indexed documents are shared, hand out copies
+        computesMap.replaceAll((csLink, cs) -> this.expandComputes ? Utils.clone(cs) : null);
+        return computesMap;
+    }
+
     /**
      * Finds computes that are not part of any resource pool.
      *
@@ -0,0 +1,632 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.tasks.monitoring;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import com.vmware.photon.controller.model.UriPaths;
+import com.vmware.photon.controller.model.monitoring.ColumnarResourceMetricsService;
+import com.vmware.photon.controller.model.monitoring.ColumnarResourceMetricsService.ColumnarMetricsQuery;
+import com.vmware.photon.controller.model.monitoring.ColumnarResourceMetricsService.ColumnarMetricsQueryResult;
+import com.vmware.photon.controller.model.monitoring.ColumnarResourceMetricsService.MetricPoints;
+import com.vmware.photon.controller.model.monitoring.InMemoryResourceMetricService;
+import com.vmware.photon.controller.model.monitoring.InMemoryResourceMetricService.InMemoryResourceMetric;
+import com.vmware.photon.controller.model.monitoring.ResourceMetricsService;
+import com.vmware.photon.controller.model.monitoring.ResourceMetricsService.ResourceMetrics;
+import com.vmware.photon.controller.model.monitoring.ResourceMetricsService.StorageMode;
+import com.vmware.photon.controller.model.query.QueryUtils.QueryByPages;
+import com.vmware.photon.controller.model.resources.util.PhotonModelUtils;
+import com.vmware.photon.controller.model.tasks.ServiceTaskCallback;
+import com.vmware.photon.controller.model.tasks.ServiceTaskCallback.ServiceTaskCallbackResponse;
+import com.vmware.photon.controller.model.tasks.TaskUtils;
+import com.vmware.photon.controller.model.tasks.monitoring.SingleResourceStatsAggregationTaskService.RollupMetricHolder;
+import com.vmware.photon.controller.model.tasks.monitoring.SingleResourceStatsAggregationTaskService.SingleResourceStatsAggregationTaskState;
+import com.vmware.photon.controller.model.util.ClusterUtil;
+import com.vmware.photon.controller.model.util.ClusterUtil.ServiceTypeCluster;
+
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.FactoryService;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.OperationJoin;
+import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption;
+import com.vmware.xenon.common.ServiceStats;
+import com.vmware.xenon.common.ServiceStats.TimeSeriesStats.TimeBin;
+import com.vmware.xenon.common.TaskState;
+import com.vmware.xenon.common.TaskState.TaskStage;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryTask.NumericRange;
+import com.vmware.xenon.services.common.QueryTask.Query;
+import com.vmware.xenon.services.common.QueryTask.Query.Occurance;
+import com.vmware.xenon.services.common.QueryTask.QuerySpecification;
+import com.vmware.xenon.services.common.QueryTask.QueryTerm.MatchType;
+import com.vmware.xenon.services.common.ServiceUriPaths;
+import com.vmware.xenon.services.common.TaskFactoryService;
+import com.vmware.xenon.services.common.TaskService;
+
+/**
+ * Task to aggregate resource stats for a page of resources at once. It is the batched
+ * counterpart of {@link SingleResourceStatsAggregationTaskService} for resources that aggregate
+ * their own metrics: instead of per resource queries, the last rollup times missing from the
+ * in-memory stats of all resources are looked up with a single paged query, and the raw metrics
+ * of all resources are fetched with a single paged query keyed by the resource links, each
+ * bounded by the oldest rollup time of interest of its resource. The rollup logic and the
+ * published documents are the same as for the single resource task.
+ *
+ * The number of queries and the time spent are recorded as stats of the task and reported back
+ * through the {@link BatchStatsAggregationTaskState#serviceTaskCallback}.
+ */
+public class BatchStatsAggregationTaskService
+        extends TaskService<BatchStatsAggregationTaskService.BatchStatsAggregationTaskState> {
+
+    public static final String FACTORY_LINK = UriPaths.MONITORING + "/batch-stats-aggregation";
+
+    public static FactoryService createFactory() {
+        TaskFactoryService fs = new TaskFactoryService(BatchStatsAggregationTaskState.class) {
+            @Override
+            public Service createServiceInstance() throws Throwable {
+                return new BatchStatsAggregationTaskService();
+            }
+        };
+        fs.setPeerNodeSelectorPath(ServiceUriPaths.DEFAULT_1X_NODE_SELECTOR);
+        return fs;
+    }
+
+    public static final String LAST_ROLLUP_LOOKBACK_HOURS = UriPaths.PROPERTY_PREFIX
+            + "BatchStatsAggregationTaskService.lastRollup.lookbackHours";
+    private static final int DEFAULT_LAST_ROLLUP_LOOKBACK_HOURS = 6;
+
+    public static final String QUERY_PAGE_SIZE = UriPaths.PROPERTY_PREFIX
+            + "BatchStatsAggregationTaskService.query.pageSize";
+    private static final int DEFAULT_QUERY_PAGE_SIZE = 10000;
+
+    public static final String STAT_NAME_QUERY_COUNT = "queryCount";
+    public static final String STAT_NAME_RESOURCE_COUNT = "resourceCount";
+    public static final String STAT_NAME_AGGREGATION_TIME_MICROS = "aggregationTimeMicros";
+
+    public static final String PROP_QUERY_COUNT = "__queryCount";
+
+    public static class BatchStatsAggregationTaskState extends TaskService.TaskServiceState {
+
+        @Documentation(description = "Resources to invoke stats aggregation on")
+        @UsageOption(option = PropertyUsageOption.REQUIRED)
+        public List<String> resourceLinks;
+
+        @Documentation(description = "The set of metric names to aggregate on")
+        @UsageOption(option = PropertyUsageOption.REQUIRED)
+        public Set<String> metricNames;
+
+        @Documentation(description = "Callback to notify once the stats are aggregated")
+        @UsageOption(option = PropertyUsageOption.OPTIONAL)
+        public ServiceTaskCallback<?> serviceTaskCallback;
+
+        @Documentation(description = "Number of queries issued by the task")
+        @UsageOption(option = PropertyUsageOption.SERVICE_USE)
+        @UsageOption(option = PropertyUsageOption.AUTO_MERGE_IF_NOT_NULL)
+        public Long queryCount;
+
+        @Documentation(description = "Time spent aggregating the stats")
+        @UsageOption(option = PropertyUsageOption.SERVICE_USE)
+        @UsageOption(option = PropertyUsageOption.AUTO_MERGE_IF_NOT_NULL)
+        public Long aggregationTimeMicros;
+    }
+
+    /**
+     * Per resource aggregation state, kept in memory for the duration of the batch.
+     */
+    private static class ResourceAggregation {
+        SingleResourceStatsAggregationTaskState state;
+        Map<String, SortedMap<Long, List<TimeBin>>> inMemoryStats = new HashMap<>();
+        Map<String, List<ResourceMetrics>> rawMetricsForKey = new HashMap<>();
+        Set<RollupMetricHolder> rawMetricHolders;
+    }
+
+    /**
+     * Batch execution context.
+     */
+    private static class BatchAggregationContext {
+        BatchStatsAggregationTaskState taskState;
+        long startTimeMicros = Utils.getNowMicrosUtc();
+        long queryCount;
+
+        // resource id -> aggregation
+        Map<String, ResourceAggregation> resources = new HashMap<>();
+
+        // resource id -> raw metric keys that are not available in memory
+        Map<String, Set<String>> metricsToBeQueried = new HashMap<>();
+    }
+
+    public BatchStatsAggregationTaskService() {
+        super(BatchStatsAggregationTaskState.class);
+        super.toggleOption(ServiceOption.IDEMPOTENT_POST, true);
+        super.toggleOption(ServiceOption.INSTRUMENTATION, true);
+    }
+
+    @Override
+    protected BatchStatsAggregationTaskState validateStartPost(Operation postOp) {
+        BatchStatsAggregationTaskState state = super.validateStartPost(postOp);
+        if (state == null) {
+            return null;
+        }
+        if (state.resourceLinks == null || state.resourceLinks.isEmpty()) {
+            postOp.fail(new IllegalArgumentException("resourceLinks needs to be specified"));
+            return null;
+        }
+        if (state.metricNames == null || state.metricNames.isEmpty()) {
+            postOp.fail(new IllegalArgumentException("metricNames needs to be specified"));
+            return null;
+        }
+        return state;
+    }
+
+    @Override
+    public void handlePatch(Operation patch) {
+        BatchStatsAggregationTaskState currentState = getState(patch);
+        BatchStatsAggregationTaskState patchState = getBody(patch);
+        validateTransition(patch, currentState, patchState);
+        updateState(currentState, patchState);
+        patch.setBody(currentState);
+        patch.complete();
+
+        switch (currentState.taskInfo.stage) {
+        case STARTED:
+            BatchAggregationContext context = new BatchAggregationContext();
+            context.taskState = currentState;
+            getLastRollupTime(context);
+            break;
+        case FINISHED:
+        case FAILED:
+        case CANCELLED:
+            if (TaskState.isFailed(currentState.taskInfo) ||
+                    TaskState.isCancelled(currentState.taskInfo)) {
+                if (currentState.failureMessage != null) {
+                    logWarning(() -> currentState.failureMessage);
+                }
+            }
+            notifyParentTask(currentState);
+            sendRequest(Operation.createDelete(getUri()));
+            break;
+        default:
+            break;
+        }
+    }
+
+    @Override
+    public void handlePut(Operation put) {
+        PhotonModelUtils.handleIdempotentPut(this, put);
+    }
+
+    private void notifyParentTask(BatchStatsAggregationTaskState currentState) {
+        if (currentState.serviceTaskCallback == null) {
+            return;
+        }
+        ServiceTaskCallbackResponse<?> response = TaskState.isFinished(currentState.taskInfo)
+                ? currentState.serviceTaskCallback.getFinishedResponse()
+                : currentState.serviceTaskCallback.getFailedResponse(
+                        currentState.taskInfo.failure);
+        if (currentState.queryCount != null) {
+            response.addProperty(PROP_QUERY_COUNT, String.valueOf(currentState.queryCount));
+        }
+        sendRequest(Operation.createPatch(currentState.serviceTaskCallback.serviceURI)
+                .setBody(response));
+    }
+
+    /**
+     * Looks up the last rollup time of every metric from the in-memory stats of the resources.
+     */
+    private void getLastRollupTime(BatchAggregationContext context) {
+        List<Operation> operations = new ArrayList<>();
+        for (String resourceLink : context.taskState.resourceLinks) {
+            ResourceAggregation resource = new ResourceAggregation();
+            resource.state = createResourceState(resourceLink, context.taskState.metricNames);
+            context.resources.put(UriUtils.getLastPathSegment(resourceLink), resource);
+
+            URI statsUri = UriUtils.buildStatsUri(UriUtils.extendUri(ClusterUtil.getClusterUri(
+                    getHost(), ServiceTypeCluster.INVENTORY_SERVICE), resourceLink));
+            operations.add(Operation.createGet(statsUri));
+        }
+
+        OperationJoin.create(operations)
+                .setCompletion((ops, exs) -> {
+                    for (Operation operation : ops.values()) {
+                        if (exs != null && exs.containsKey(operation.getId())) {
+                            continue;
+                        }
+                        ServiceStats serviceStats = operation.getBody(ServiceStats.class);
+                        ResourceAggregation resource = context.resources.get(
+                                UriUtils.getLastPathSegment(UriUtils.getParentPath(
+                                        operation.getUri().getPath())));
+                        if (resource == null || serviceStats.entries == null) {
+                            continue;
+                        }
+                        resource.state.lastRollupTimeForMetric.replaceAll(
+                                (rollupKey, lastRollupTime) -> serviceStats.entries
+                                        .containsKey(rollupKey)
+                                                ? (long) serviceStats.entries.get(rollupKey).latestValue
+                                                : null);
+                    }
+                    getLastRollupTimeFromQuery(context);
+                })
+                .sendWith(this);
+    }
+
+    /**
+     * Looks up the last rollup time of the metrics missing in memory with a single paged query
+     * over the aggregate metrics of all resources. Only aggregates within the lookback window are
+     * considered; metrics without a recent aggregate are rolled up from all available raw
+     * metrics, as for a resource that was never aggregated.
+     */
+    private void getLastRollupTimeFromQuery(BatchAggregationContext context) {
+        Set<String> rollupKeys = new HashSet<>();
+        List<String> resourceIds = new ArrayList<>();
+        for (Entry<String, ResourceAggregation> resource : context.resources.entrySet()) {
+            boolean missing = false;
+            for (Entry<String, Long> rollupTime : resource.getValue().state
+                    .lastRollupTimeForMetric.entrySet()) {
+                if (rollupTime.getValue() == null) {
+                    rollupKeys.add(rollupTime.getKey());
+                    missing = true;
+                }
+            }
+            if (missing) {
+                resourceIds.add(resource.getKey());
+            }
+        }
+        if (resourceIds.isEmpty()) {
+            getInMemoryMetrics(context);
+            return;
+        }
+
+        Query.Builder resourcesClause = Query.Builder.create(Occurance.MUST_OCCUR);
+        for (String resourceId : resourceIds) {
+            resourcesClause.addClause(Query.Builder.create(Occurance.SHOULD_OCCUR)
+                    .addFieldClause(ServiceDocument.FIELD_NAME_SELF_LINK,
+                            UriUtils.buildUriPath(ResourceMetricsService.FACTORY_LINK,
+                                    resourceId + StatsUtil.SEPARATOR),
+                            MatchType.PREFIX)
+                    .build());
+        }
+        Query.Builder metricsClause = Query.Builder.create(Occurance.MUST_OCCUR);
+        for (String rollupKey : rollupKeys) {
+            metricsClause.addClause(Query.Builder.create(Occurance.SHOULD_OCCUR)
+                    .addRangeClause(QuerySpecification.buildCompositeFieldName(
+                            ResourceMetrics.FIELD_NAME_ENTRIES, rollupKey),
+                            NumericRange.createDoubleRange(0.0, Double.MAX_VALUE, true, true))
+                    .build());
+        }
+        long lookbackHours = Integer.getInteger(LAST_ROLLUP_LOOKBACK_HOURS,
+                DEFAULT_LAST_ROLLUP_LOOKBACK_HOURS);
+        Query query = Query.Builder.create()
+                .addKindFieldClause(ResourceMetrics.class)
+                .addClause(resourcesClause.build())
+                .addClause(metricsClause.build())
+                .addRangeClause(ResourceMetrics.FIELD_NAME_TIMESTAMP,
+                        NumericRange.createGreaterThanOrEqualRange(Utils.getNowMicrosUtc()
+                                - TimeUnit.HOURS.toMicros(lookbackHours)))
+                .build();
+
+        context.queryCount++;
+        queryMetrics(query, metric -> {
+            ResourceAggregation resource = context.resources.get(getResourceId(metric));
+            if (resource == null) {
+                return;
+            }
+            Map<String, Long> lastRollupTimes = resource.state.lastRollupTimeForMetric;
+            for (String rollupKey : metric.entries.keySet()) {
+                // keep the most recent aggregate of every metric
+                if (lastRollupTimes.containsKey(rollupKey)
+                        && (lastRollupTimes.get(rollupKey) == null
+                        || lastRollupTimes.get(rollupKey) < metric.timestampMicrosUtc)) {
+                    lastRollupTimes.put(rollupKey, metric.timestampMicrosUtc);
+                }
+            }
+        }).whenComplete((ignore, queryEx) -> {
+            if (queryEx != null) {
+                sendSelfFailurePatch(context.taskState, queryEx.getMessage());
+                return;
+            }
+            getInMemoryMetrics(context);
+        });
+    }
+
+    /**
+     * Passes all the metrics matching the query to the consumer, page by page, so that no
+     * metric is dropped however many resources and metrics the batch covers.
+     */
+    private DeferredResult<Void> queryMetrics(Query query, Consumer<ResourceMetrics> consumer) {
+        return new QueryByPages<>(getHost(), query, ResourceMetrics.class, null)
+                .setClusterType(ServiceTypeCluster.METRIC_SERVICE)
+                .setReferer(getUri())
+                .setMaxPageSize(Integer.getInteger(QUERY_PAGE_SIZE, DEFAULT_QUERY_PAGE_SIZE))
+                .queryDocuments(consumer);
+    }
+
+    /**
+     * Gets the in-memory metrics of all resources and buckets their time bins. Metrics that are
+     * not fully covered in memory are collected in
+     * {@link BatchAggregationContext#metricsToBeQueried}.
+     */
+    private void getInMemoryMetrics(BatchAggregationContext context) {
+        List<Operation> operations = new ArrayList<>();
+        for (String resourceId : context.resources.keySet()) {
+            for (String rollupKey : SingleResourceStatsAggregationTaskService
+                    .buildRollupKeys(resourceId)) {
+                operations.add(Operation.createGet(this, UriUtils.buildUriPath(
+                        InMemoryResourceMetricService.FACTORY_LINK, rollupKey)));
+            }
+        }
+
+        OperationJoin.create(operations)
+                .setCompletion((ops, exs) -> {
+                    for (Operation operation : ops.values()) {
+                        String resourceId = SingleResourceStatsAggregationTaskService
+                                .stripRollupKey(UriUtils.getLastPathSegment(operation.getUri()));
+                        ResourceAggregation resource = context.resources.get(resourceId);
+                        if (resource == null) {
+                            continue;
+                        }
+                        if (operation.getStatusCode() != Operation.STATUS_CODE_OK) {
+                            SingleResourceStatsAggregationTaskService.processFailedOperations(
+                                    resource.state, context.metricsToBeQueried,
+                                    operation.getUri());
+                            continue;
+                        }
+                        SingleResourceStatsAggregationTaskService.processInMemoryMetrics(
+                                resource.state, context.metricsToBeQueried,
+                                resource.inMemoryStats,
+                                operation.getBody(InMemoryResourceMetric.class));
+                    }
+                    getRawMetrics(context);
+                })
+                .sendWith(this);
+    }
+
+    /**
+     * Fetches the raw metrics not available in memory for all resources with a single paged
+     * query. The metrics of every resource are bounded by the oldest rollup time of interest of
+     * that resource; the holders filter the rest.
+     */
+    private void getRawMetrics(BatchAggregationContext context) {
+        // resource link -> start time of the scan, null if unbounded
+        Map<String, Long> startTimeByResourceLink = new HashMap<>();
+        Set<String> metricKeys = new HashSet<>();
+        for (Entry<String, Set<String>> entry : context.metricsToBeQueried.entrySet()) {
+            ResourceAggregation resource = context.resources.get(entry.getKey());
+            if (resource == null || entry.getValue().isEmpty()) {
+                continue;
+            }
+            resource.rawMetricHolders = SingleResourceStatsAggregationTaskService
+                    .buildRollupMetricHolders(resource.state).stream()
+                    .filter(h -> entry.getValue().contains(
+                            SingleResourceStatsAggregationTaskService.stripRollupKey(h.rollupKey)))
+                    .collect(Collectors.toSet());
+            Long startTimeMicros = null;
+            for (RollupMetricHolder holder : resource.rawMetricHolders) {
+                if (holder.beginTimestampMicros == null) {
+                    startTimeMicros = null;
+                    break;
+                }
+                if (startTimeMicros == null || holder.beginTimestampMicros < startTimeMicros) {
+                    startTimeMicros = holder.beginTimestampMicros;
+                }
+            }
+            startTimeByResourceLink.put(resource.state.resourceLink, startTimeMicros);
+            metricKeys.addAll(entry.getValue());
+        }
+        if (startTimeByResourceLink.isEmpty()) {
+            aggregateAndPublish(context);
+            return;
+        }
+
+        if (ResourceMetricsService.getStorageMode() == StorageMode.COLUMNAR) {
+            getRawMetricsFromColumnarStore(context, startTimeByResourceLink, metricKeys);
+            return;
+        }
+
+        Query.Builder resourcesClause = Query.Builder.create(Occurance.MUST_OCCUR);
+        for (Entry<String, Long> entry : startTimeByResourceLink.entrySet()) {
+            // the resource link custom property is indexed case insensitive
+            Query.Builder resourceClause = Query.Builder.create(Occurance.SHOULD_OCCUR)
+                    .addFieldClause(QuerySpecification.buildCompositeFieldName(
+                            ResourceMetrics.FIELD_NAME_CUSTOM_PROPERTIES,
+                            ResourceMetrics.PROPERTY_RESOURCE_LINK),
+                            entry.getKey().toLowerCase());
+            if (entry.getValue() != null) {
+                resourceClause.addRangeClause(ResourceMetrics.FIELD_NAME_TIMESTAMP,
+                        NumericRange.createGreaterThanOrEqualRange(entry.getValue()));
+            }
+            resourcesClause.addClause(resourceClause.build());
+        }
+        Query.Builder metricsClause = Query.Builder.create(Occurance.MUST_OCCUR);
+        for (String metricKey : metricKeys) {
+            metricsClause.addClause(Query.Builder.create(Occurance.SHOULD_OCCUR)
+                    .addRangeClause(QuerySpecification.buildCompositeFieldName(
+                            ResourceMetrics.FIELD_NAME_ENTRIES, metricKey),
+                            NumericRange.createDoubleRange(0.0, Double.MAX_VALUE, true, true))
+                    .build());
+        }
+        Query query = Query.Builder.create()
+                .addKindFieldClause(ResourceMetrics.class)
+                .addClause(resourcesClause.build())
+                .addClause(metricsClause.build())
+                .build();
+
+        context.queryCount++;
+        queryMetrics(query, rawMetric -> addRawMetric(context, getResourceId(rawMetric), rawMetric))
+                .whenComplete((ignore, queryEx) -> {
+                    if (queryEx != null) {
+                        sendSelfFailurePatch(context.taskState, queryEx.getMessage());
+                        return;
+                    }
+                    aggregateAndPublish(context);
+                });
+    }
+
+    /**
+     * Fetches the raw metrics from the columnar store, with one query per distinct start time.
+     */
+    private void getRawMetricsFromColumnarStore(BatchAggregationContext context,
+            Map<String, Long> startTimeByResourceLink, Set<String> metricKeys) {
+        Map<Long, List<String>> resourceLinksByStartTime = new HashMap<>();
+        for (Entry<String, Long> entry : startTimeByResourceLink.entrySet()) {
+            resourceLinksByStartTime.computeIfAbsent(entry.getValue(), k -> new ArrayList<>())
+                    .add(entry.getKey());
+        }
+        List<Operation> operations = new ArrayList<>();
+        for (Entry<Long, List<String>> entry : resourceLinksByStartTime.entrySet()) {
+            ColumnarMetricsQuery query = new ColumnarMetricsQuery();
+            query.resourceLinks = entry.getValue();
+            query.metricNames = metricKeys;
+            query.startTimeMicros = entry.getKey();
+            operations.add(Operation.createPatch(UriUtils.buildUri(
+                    ClusterUtil.getClusterUri(getHost(), ServiceTypeCluster.METRIC_SERVICE),
+                    ColumnarResourceMetricsService.SELF_LINK))
+                    .setBody(query));
+        }
+
+        context.queryCount += operations.size();
+        OperationJoin.create(operations)
+                .setCompletion((ops, exs) -> {
+                    if (exs != null && !exs.isEmpty()) {
+                        sendSelfFailurePatch(context.taskState,
+                                exs.values().iterator().next().getMessage());
+                        return;
+                    }
+                    for (Operation operation : ops.values()) {
+                        addColumnarRawMetrics(context,
+                                operation.getBody(ColumnarMetricsQueryResult.class));
+                    }
+                    aggregateAndPublish(context);
+                })
+                .sendWith(this);
+    }
+
+    private void addColumnarRawMetrics(BatchAggregationContext context,
+            ColumnarMetricsQueryResult result) {
+        if (result.points == null) {
+            return;
+        }
+        for (Entry<String, Map<String, MetricPoints>> resourcePoints : result.points.entrySet()) {
+            String resourceId = UriUtils.getLastPathSegment(resourcePoints.getKey());
+            for (Entry<String, MetricPoints> entry : resourcePoints.getValue().entrySet()) {
+                MetricPoints points = entry.getValue();
+                for (int i = 0; i < points.values.length; i++) {
+                    ResourceMetrics rawMetric = new ResourceMetrics();
+                    rawMetric.timestampMicrosUtc = points.timestampsMicros[i];
+                    rawMetric.entries = Collections.singletonMap(entry.getKey(),
+                            points.values[i]);
+                    addRawMetric(context, resourceId, rawMetric);
+                }
+            }
+        }
+    }
+
+    private void addRawMetric(BatchAggregationContext context, String resourceId,
+            ResourceMetrics rawMetric) {
+        ResourceAggregation resource = context.resources.get(resourceId);
+        if (resource == null || resource.rawMetricHolders == null) {
+            return;
+        }
+        SingleResourceStatsAggregationTaskService.addRawMetric(resource.rawMetricHolders,
+                resource.rawMetricsForKey, rawMetric);
+    }
+
+    /**
+     * Rolls up the in-memory and raw metrics of every resource and publishes the aggregates of
+     * the whole batch.
+     */
+    private void aggregateAndPublish(BatchAggregationContext context) {
+        List<Operation> operations = new ArrayList<>();
+        for (ResourceAggregation resource : context.resources.values()) {
+            SingleResourceStatsAggregationTaskService.aggregateInMemoryMetrics(resource.state,
+                    resource.inMemoryStats);
+            SingleResourceStatsAggregationTaskService.aggregateRawMetrics(resource.state,
+                    resource.rawMetricsForKey);
+            operations.addAll(SingleResourceStatsAggregationTaskService
+                    .createPublishOperations(getHost(), resource.state));
+        }
+
+        if (operations.isEmpty()) {
+            finish(context, null);
+            return;
+        }
+        SingleResourceStatsAggregationTaskService.batchPublishMetrics(this, operations, 0,
+                e -> finish(context, e));
+    }
+
+    private void finish(BatchAggregationContext context, Throwable e) {
+        long aggregationTimeMicros = Utils.getNowMicrosUtc() - context.startTimeMicros;
+        setStat(STAT_NAME_QUERY_COUNT, context.queryCount);
+        setStat(STAT_NAME_RESOURCE_COUNT, context.resources.size());
+        setStat(STAT_NAME_AGGREGATION_TIME_MICROS, aggregationTimeMicros);
+        logFine(() -> String.format("Aggregated stats of %d resources in %d ms with %d queries",
+                context.resources.size(), TimeUnit.MICROSECONDS.toMillis(aggregationTimeMicros),
+                context.queryCount));
+
+        BatchStatsAggregationTaskState patchBody = new BatchStatsAggregationTaskState();
+        patchBody.queryCount = context.queryCount;
+        patchBody.aggregationTimeMicros = aggregationTimeMicros;
+        if (e != null) {
+            patchBody.taskInfo = TaskUtils.createTaskState(TaskStage.FAILED);
+            patchBody.taskInfo.failure = Utils.toServiceErrorResponse(e);
+            patchBody.failureMessage = e.getMessage();
+        } else {
+            patchBody.taskInfo = TaskUtils.createTaskState(TaskStage.FINISHED);
+        }
+        sendSelfPatch(patchBody);
+    }
+
+    /**
+     * Returns the id of the resource the metric belongs to, or {@code null} if its link does not
+     * follow the metric key format.
+     */
+    private static String getResourceId(ResourceMetrics metric) {
+        try {
+            return StatsUtil.getResourceId(metric.documentSelfLink);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static SingleResourceStatsAggregationTaskState createResourceState(
+            String resourceLink, Set<String> metricNames) {
+        SingleResourceStatsAggregationTaskState state = new SingleResourceStatsAggregationTaskState();
+        state.resourceLink = resourceLink;
+        state.metricNames = metricNames;
+        state.aggregations = Collections.emptyMap();
+        state.latestValueOnly = Collections.emptySet();
+        state.lastRollupTimeForMetric = new HashMap<>();
+        for (String metricName : metricNames) {
+            for (String rollupKey : SingleResourceStatsAggregationTaskService
+                    .buildRollupKeys(metricName)) {
+                state.lastRollupTimeForMetric.put(rollupKey, null);
+            }
+        }
+        return state;
+    }
+}
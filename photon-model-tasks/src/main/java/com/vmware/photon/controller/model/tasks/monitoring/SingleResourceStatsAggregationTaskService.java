@@ -30,12 +30,18 @@ import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import com.vmware.photon.controller.model.UriPaths;
+import com.vmware.photon.controller.model.monitoring.ColumnarResourceMetricsService;
+import com.vmware.photon.controller.model.monitoring.ColumnarResourceMetricsService.ColumnarMetricsQuery;
+import com.vmware.photon.controller.model.monitoring.ColumnarResourceMetricsService.ColumnarMetricsQueryResult;
+import com.vmware.photon.controller.model.monitoring.ColumnarResourceMetricsService.MetricPoints;
 import com.vmware.photon.controller.model.monitoring.InMemoryResourceMetricService;
 import com.vmware.photon.controller.model.monitoring.InMemoryResourceMetricService.InMemoryResourceMetric;
 import com.vmware.photon.controller.model.monitoring.ResourceMetricsService;
 import com.vmware.photon.controller.model.monitoring.ResourceMetricsService.ResourceMetrics;
+import com.vmware.photon.controller.model.monitoring.ResourceMetricsService.StorageMode;
 import com.vmware.photon.controller.model.query.QueryUtils;
 import com.vmware.photon.controller.model.resources.util.PhotonModelUtils;
 import com.vmware.photon.controller.model.tasks.TaskUtils;
@@ -51,6 +57,7 @@ import com.vmware.xenon.common.ServiceDocument;
 import com.vmware.xenon.common.ServiceDocumentDescription;
 import com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption;
 import com.vmware.xenon.common.ServiceDocumentDescription.TypeName;
+import com.vmware.xenon.common.ServiceHost;
 import com.vmware.xenon.common.ServiceStats;
 import com.vmware.xenon.common.ServiceStats.TimeSeriesStats;
 import com.vmware.xenon.common.ServiceStats.TimeSeriesStats.AggregationType;
@@ -567,7 +574,7 @@ public class SingleResourceStatsAggregationTaskService extends
     /**
      * Process in-memory metrics.
      */
-    private void processInMemoryMetrics(SingleResourceStatsAggregationTaskState currentState,
+    static void processInMemoryMetrics(SingleResourceStatsAggregationTaskState currentState,
             Map<String, Set<String>> metricsToBeQueried,
             Map<String, SortedMap<Long, List<TimeBin>>> inMemoryStats,
             InMemoryResourceMetric metric) {
@@ -613,7 +620,7 @@ public class SingleResourceStatsAggregationTaskService extends
      * Process in-memory time bins. This method buckets bins from time series stats appropriately
      * in the inMemoryStats data structure.
      */
-    private void processInMemoryTimeBins(SingleResourceStatsAggregationTaskState currentState,
+    private static void processInMemoryTimeBins(SingleResourceStatsAggregationTaskState currentState,
             Map<String, SortedMap<Long, List<TimeBin>>> inMemoryStats,
             Entry<String, Long> metricEntry,
             TimeSeriesStats timeSeriesStats) {
@@ -663,7 +670,7 @@ public class SingleResourceStatsAggregationTaskService extends
     /**
      * Process failed operation uris and adds to the list of metrics to be queried.
      */
-    private void processFailedOperations(SingleResourceStatsAggregationTaskState currentState,
+    static void processFailedOperations(SingleResourceStatsAggregationTaskState currentState,
             Map<String, Set<String>> metricsToBeQueried, URI uri) {
         String metricKey = UriUtils.getLastPathSegment(uri);
         String resourceId = stripRollupKey(metricKey);
@@ -677,7 +684,7 @@ public class SingleResourceStatsAggregationTaskService extends
     /**
      *  Class that holds the rollup metric keys of interest and their last rollup time.
      */
-    private static class RollupMetricHolder {
+    static class RollupMetricHolder {
         String rollupKey;
         Long beginTimestampMicros;
     }
@@ -690,6 +697,12 @@ public class SingleResourceStatsAggregationTaskService extends
             return;
         }
 
+        if (ResourceMetricsService.getStorageMode() == StorageMode.COLUMNAR) {
+            getRawMetricsFromColumnarStore(currentState, resourceQueryTask, metricsToBeQueried,
+                    inMemoryStats);
+            return;
+        }
+
         Query.Builder overallQueryBuilder = Query.Builder.create();
         for (Entry<String, Set<String>> entry : metricsToBeQueried.entrySet()) {
             String resourceId = entry.getKey();
@@ -723,20 +736,7 @@ public class SingleResourceStatsAggregationTaskService extends
             }
         }
 
-        // create a set of rollup metric keys we are interested in and the timestamp
-        // to rollup from for each
-        Set<RollupMetricHolder> rollupMetricHolder = new HashSet<>();
-        for (Entry<String, Long> metricEntry : currentState.lastRollupTimeForMetric
-                .entrySet()) {
-            RollupMetricHolder metric = new RollupMetricHolder();
-            metric.rollupKey = metricEntry.getKey();
-            if (metricEntry.getValue() != null && metricEntry.getValue() != 0) {
-                metric.beginTimestampMicros = StatsUtil.computeIntervalBeginMicros(
-                        metricEntry.getValue() - 1,
-                        lookupBinSize(metricEntry.getKey()));
-            }
-            rollupMetricHolder.add(metric);
-        }
+        Set<RollupMetricHolder> rollupMetricHolder = buildRollupMetricHolders(currentState);
 
         QueryTask task = QueryTask.Builder.createDirectTask()
                 .addOption(QueryOption.EXPAND_CONTENT)
@@ -755,28 +755,125 @@ public class SingleResourceStatsAggregationTaskService extends
                     Map<String, List<ResourceMetrics>> rawMetricsForKey = new HashMap<>();
                     for (Object obj : response.results.documents.values()) {
                         ResourceMetrics rawMetric = Utils.fromJson(obj, ResourceMetrics.class);
-                        for (RollupMetricHolder metric : rollupMetricHolder) {
-                            for (String rawMetricKey : rawMetric.entries.keySet()) {
-                                if (!rawMetricKey.contains(stripRollupKey(metric.rollupKey))) {
-                                    continue;
-                                }
-                                // we want to consider raw metrics with the specified key and the appropriate timestamp
-                                if ((metric.beginTimestampMicros == null ||
-                                        rawMetric.timestampMicrosUtc >= metric.beginTimestampMicros)) {
-                                    List<ResourceMetrics> rawMetricResultSet = rawMetricsForKey
-                                            .get(metric.rollupKey);
-                                    if (rawMetricResultSet == null) {
-                                        rawMetricResultSet = new ArrayList<>();
-                                        rawMetricsForKey.put(metric.rollupKey, rawMetricResultSet);
-                                    }
-                                    rawMetricResultSet.add(rawMetric);
+                        addRawMetric(rollupMetricHolder, rawMetricsForKey, rawMetric);
+                    }
+                    aggregateMetrics(currentState, resourceQueryTask, rawMetricsForKey,
+                            inMemoryStats);
+                });
+    }
+
+    /**
+     * Reads raw metrics with one range scan over the columnar metrics store for all resources in
+     * the page, instead of a query over the per-sample metric documents.
+     */
+    private void getRawMetricsFromColumnarStore(
+            SingleResourceStatsAggregationTaskState currentState,
+            QueryTask resourceQueryTask, Map<String, Set<String>> metricsToBeQueried,
+            Map<String, SortedMap<Long, List<TimeBin>>> inMemoryStats) {
+        Set<RollupMetricHolder> rollupMetricHolder = buildRollupMetricHolders(currentState);
+
+        // the scan starts from the oldest rollup time of interest; the holders filter the rest
+        Long startTimeMicros = null;
+        boolean unbounded = false;
+        for (RollupMetricHolder metric : rollupMetricHolder) {
+            if (metric.beginTimestampMicros == null) {
+                unbounded = true;
+            } else if (startTimeMicros == null || metric.beginTimestampMicros < startTimeMicros) {
+                startTimeMicros = metric.beginTimestampMicros;
+            }
+        }
+
+        ColumnarMetricsQuery query = new ColumnarMetricsQuery();
+        query.resourceLinks = new ArrayList<>();
+        query.metricNames = new HashSet<>();
+        query.startTimeMicros = unbounded ? null : startTimeMicros;
+        for (String resourceLink : resourceQueryTask.results.documentLinks) {
+            Set<String> metricKeys = metricsToBeQueried
+                    .get(UriUtils.getLastPathSegment(resourceLink));
+            if (metricKeys != null) {
+                query.resourceLinks.add(resourceLink);
+                query.metricNames.addAll(metricKeys);
+            }
+        }
+        if (query.resourceLinks.isEmpty()) {
+            aggregateMetrics(currentState, resourceQueryTask, null, inMemoryStats);
+            return;
+        }
+
+        sendRequest(Operation.createPatch(UriUtils.buildUri(
+                ClusterUtil.getClusterUri(getHost(), ServiceTypeCluster.METRIC_SERVICE),
+                ColumnarResourceMetricsService.SELF_LINK))
+                .setBody(query)
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        sendSelfFailurePatch(currentState, e.getMessage());
+                        return;
+                    }
+                    ColumnarMetricsQueryResult result = o.getBody(ColumnarMetricsQueryResult.class);
+                    Map<String, List<ResourceMetrics>> rawMetricsForKey = new HashMap<>();
+                    if (result.points != null) {
+                        for (Map<String, MetricPoints> pointsByMetric : result.points.values()) {
+                            for (Entry<String, MetricPoints> entry : pointsByMetric.entrySet()) {
+                                MetricPoints points = entry.getValue();
+                                for (int i = 0; i < points.values.length; i++) {
+                                    ResourceMetrics rawMetric = new ResourceMetrics();
+                                    rawMetric.timestampMicrosUtc = points.timestampsMicros[i];
+                                    rawMetric.entries = Collections.singletonMap(entry.getKey(),
+                                            points.values[i]);
+                                    addRawMetric(rollupMetricHolder, rawMetricsForKey, rawMetric);
                                 }
                             }
                         }
                     }
                     aggregateMetrics(currentState, resourceQueryTask, rawMetricsForKey,
                             inMemoryStats);
-                });
+                }));
+    }
+
+    /**
+     * Creates a set of rollup metric keys we are interested in and the timestamp to rollup from
+     * for each.
+     */
+    static Set<RollupMetricHolder> buildRollupMetricHolders(
+            SingleResourceStatsAggregationTaskState currentState) {
+        Set<RollupMetricHolder> rollupMetricHolder = new HashSet<>();
+        for (Entry<String, Long> metricEntry : currentState.lastRollupTimeForMetric
+                .entrySet()) {
+            RollupMetricHolder metric = new RollupMetricHolder();
+            metric.rollupKey = metricEntry.getKey();
+            if (metricEntry.getValue() != null && metricEntry.getValue() != 0) {
+                metric.beginTimestampMicros = StatsUtil.computeIntervalBeginMicros(
+                        metricEntry.getValue() - 1,
+                        lookupBinSize(metricEntry.getKey()));
+            }
+            rollupMetricHolder.add(metric);
+        }
+        return rollupMetricHolder;
+    }
+
+    /**
+     * Adds the raw metric to the result set of every rollup key it contributes to.
+     */
+    static void addRawMetric(Set<RollupMetricHolder> rollupMetricHolder,
+            Map<String, List<ResourceMetrics>> rawMetricsForKey, ResourceMetrics rawMetric) {
+        for (RollupMetricHolder metric : rollupMetricHolder) {
+            for (String rawMetricKey : rawMetric.entries.keySet()) {
+                if (!rawMetricKey.contains(stripRollupKey(metric.rollupKey))) {
+                    continue;
+                }
+                // we want to consider raw metrics with the specified key and the appropriate timestamp
+                if ((metric.beginTimestampMicros == null ||
+                        rawMetric.timestampMicrosUtc >= metric.beginTimestampMicros)) {
+                    List<ResourceMetrics> rawMetricResultSet = rawMetricsForKey
+                            .get(metric.rollupKey);
+                    if (rawMetricResultSet == null) {
+                        rawMetricResultSet = new ArrayList<>();
+                        rawMetricsForKey.put(metric.rollupKey, rawMetricResultSet);
+                    }
+                    rawMetricResultSet.add(rawMetric);
+                }
+            }
+        }
     }
 
     private void aggregateMetrics(SingleResourceStatsAggregationTaskState currentState,
@@ -804,7 +901,7 @@ public class SingleResourceStatsAggregationTaskService extends
         sendSelfPatch(patchBody);
     }
 
-    private void aggregateRawMetrics(
+    static void aggregateRawMetrics(
             SingleResourceStatsAggregationTaskState currentState,
             Map<String, List<ResourceMetrics>> rawMetricsForKey) {
         Map<String, Map<Long, TimeBin>> aggregatedTimeBinMap = currentState.aggregatedTimeBinMap;
@@ -873,7 +970,7 @@ public class SingleResourceStatsAggregationTaskService extends
         }
     }
 
-    private void aggregateInMemoryMetrics(SingleResourceStatsAggregationTaskState currentState,
+    static void aggregateInMemoryMetrics(SingleResourceStatsAggregationTaskState currentState,
             Map<String, SortedMap<Long, List<TimeBin>>> inMemoryStats) {
         Map<String, Map<Long, TimeBin>> aggregatedTimeBinMap = currentState.aggregatedTimeBinMap;
         for (Entry<String, SortedMap<Long, List<TimeBin>>> inMemoryStatEntry : inMemoryStats
@@ -923,7 +1020,7 @@ public class SingleResourceStatsAggregationTaskService extends
      *
      * TODO VSYM-2481: Add custom mock stats adapter based test for this.
      */
-    private Collection<ResourceMetrics> getLatestMetrics(List<ResourceMetrics> metrics,
+    private static Collection<ResourceMetrics> getLatestMetrics(List<ResourceMetrics> metrics,
             String metricKeyWithInterval) {
         if (metrics.isEmpty()) {
             return Collections.emptyList();
@@ -972,7 +1069,7 @@ public class SingleResourceStatsAggregationTaskService extends
         return result;
     }
 
-    private void addLastRollupTimeForMissingKeys(
+    private static void addLastRollupTimeForMissingKeys(ServiceHost host,
             SingleResourceStatsAggregationTaskState currentState,
             Set<String> publishedKeys, List<Operation> operations) {
         // for all those metrics with no aggregate value was computed and the existing rollup time
@@ -987,7 +1084,7 @@ public class SingleResourceStatsAggregationTaskService extends
             lastUpdateStat.name = rollupTime.getKey();
             lastUpdateStat.latestValue = 0;
             URI inMemoryStatsUri = UriUtils.buildStatsUri(UriUtils.extendUri(
-                    ClusterUtil.getClusterUri(getHost(), ServiceTypeCluster.INVENTORY_SERVICE),
+                    ClusterUtil.getClusterUri(host, ServiceTypeCluster.INVENTORY_SERVICE),
                     currentState.resourceLink));
             operations.add(Operation.createPost(inMemoryStatsUri).setBody(lastUpdateStat));
         }
@@ -997,16 +1094,33 @@ public class SingleResourceStatsAggregationTaskService extends
      * Publish aggregate metric values
      */
     private void publishMetrics(SingleResourceStatsAggregationTaskState currentState) {
+        List<Operation> operations = createPublishOperations(getHost(), currentState);
+
+        if (operations.isEmpty()) {
+            // nothing to persist, just finish the task
+            sendSelfPatch(currentState, TaskStage.FINISHED, null);
+            return;
+        }
+
+        batchPublishMetrics(currentState, operations, 0);
+    }
+
+    /**
+     * Creates the operations persisting the aggregate metric values of the given state and
+     * recording the last rollup time of each metric as a stat of the resource.
+     */
+    static List<Operation> createPublishOperations(ServiceHost host,
+            SingleResourceStatsAggregationTaskState currentState) {
         long expirationTime = Utils.getNowMicrosUtc() + TimeUnit.DAYS.toMicros(EXPIRATION_INTERVAL);
         List<Operation> operations = new ArrayList<>();
         Set<String> publishedKeys = new HashSet<>();
 
         if (!currentState.hasResources) {
             // reset the metrics to default, when no stats endpoint is available for a resource
-            operations = setDefaultMetricValue(currentState, operations, publishedKeys);
+            operations = setDefaultMetricValue(host, currentState, operations, publishedKeys);
         } else {
             if (currentState.aggregatedTimeBinMap == null) {
-                addLastRollupTimeForMissingKeys(currentState, publishedKeys, operations);
+                addLastRollupTimeForMissingKeys(host, currentState, publishedKeys, operations);
             } else {
                 for (Entry<String, Map<Long, TimeBin>> aggregateEntries : currentState.aggregatedTimeBinMap
                         .entrySet()) {
@@ -1027,7 +1141,7 @@ public class SingleResourceStatsAggregationTaskService extends
                         resourceMetrics.documentExpirationTimeMicros = expirationTime;
 
                         operations.add(Operation.createPost(UriUtils.buildUri(
-                                ClusterUtil.getClusterUri(getHost(),
+                                ClusterUtil.getClusterUri(host,
                                         ServiceTypeCluster.METRIC_SERVICE),
                                 ResourceMetricsService.FACTORY_LINK))
                                 .setBody(resourceMetrics));
@@ -1040,22 +1154,15 @@ public class SingleResourceStatsAggregationTaskService extends
                     lastUpdateStat.latestValue = latestTimeKey;
 
                     URI inMemoryStatsUri = UriUtils.buildStatsUri(UriUtils.extendUri(
-                            ClusterUtil.getClusterUri(getHost(),
+                            ClusterUtil.getClusterUri(host,
                                     ServiceTypeCluster.INVENTORY_SERVICE),
                             currentState.resourceLink));
                     operations.add(Operation.createPost(inMemoryStatsUri).setBody(lastUpdateStat));
                 }
-                addLastRollupTimeForMissingKeys(currentState, publishedKeys, operations);
+                addLastRollupTimeForMissingKeys(host, currentState, publishedKeys, operations);
             }
         }
-
-        if (operations.isEmpty()) {
-            // nothing to persist, just finish the task
-            sendSelfPatch(currentState, TaskStage.FINISHED, null);
-            return;
-        }
-
-        batchPublishMetrics(currentState, operations, 0);
+        return operations;
     }
 
     /**
@@ -1064,7 +1171,7 @@ public class SingleResourceStatsAggregationTaskService extends
      * 'AverageBurnRatePerHour' stored in 'lastRollupTimeForMetric' map attribute will be
      * set to 0 when project is newly created or has all endpoints removed.
      */
-    private List<Operation> setDefaultMetricValue(
+    private static List<Operation> setDefaultMetricValue(ServiceHost host,
             SingleResourceStatsAggregationTaskState currentState,
             List<Operation> operations, Set<String> publishedKeys) {
 
@@ -1085,7 +1192,7 @@ public class SingleResourceStatsAggregationTaskService extends
 
             operations.add(Operation
                     .createPost(UriUtils.buildUri(
-                            ClusterUtil.getClusterUri(getHost(),
+                            ClusterUtil.getClusterUri(host,
                                     ServiceTypeCluster.METRIC_SERVICE),
                             ResourceMetricsService.FACTORY_LINK))
                     .setBody(resourceMetrics));
@@ -1095,7 +1202,7 @@ public class SingleResourceStatsAggregationTaskService extends
             lastUpdateStat.name = aggregateEntries.getKey();
             lastUpdateStat.latestValue = aggregateMetricLastRollUpTime;
             URI inMemoryStatsUri = UriUtils.buildStatsUri(UriUtils.extendUri(
-                    ClusterUtil.getClusterUri(getHost(),
+                    ClusterUtil.getClusterUri(host,
                             ServiceTypeCluster.INVENTORY_SERVICE),
                     currentState.resourceLink));
             operations.add(Operation.createPost(inMemoryStatsUri).setBody(lastUpdateStat));
@@ -1105,6 +1212,21 @@ public class SingleResourceStatsAggregationTaskService extends
 
     public void batchPublishMetrics(SingleResourceStatsAggregationTaskState currentState,
             List<Operation> operations, int batchIndex) {
+        batchPublishMetrics(this, operations, batchIndex, e -> {
+            if (e != null) {
+                sendSelfFailurePatch(currentState, e.getMessage());
+                return;
+            }
+            sendSelfPatch(currentState, TaskStage.FINISHED, null);
+        });
+    }
+
+    /**
+     * Sends the given operations in sequences of 100 and invokes the completion once all of them
+     * are sent or the first failure occurs.
+     */
+    static void batchPublishMetrics(Service sender, List<Operation> operations, int batchIndex,
+            Consumer<Throwable> completion) {
         OperationSequence opSequence = null;
         Integer nextBatchIndex = null;
         for (int i = batchIndex; i < operations.size(); i++) {
@@ -1127,25 +1249,25 @@ public class SingleResourceStatsAggregationTaskService extends
         Integer finalNextBatchIndex = nextBatchIndex;
         opSequence.setCompletion((ops, exc) -> {
             if (exc != null) {
-                sendSelfFailurePatch(currentState, exc.values().iterator().next().getMessage());
+                completion.accept(exc.values().iterator().next());
                 return;
             }
 
             if (finalNextBatchIndex == null || finalNextBatchIndex == operations.size()) {
-                sendSelfPatch(currentState, TaskStage.FINISHED, null);
+                completion.accept(null);
                 return;
             }
 
-            batchPublishMetrics(currentState, operations, finalNextBatchIndex);
+            batchPublishMetrics(sender, operations, finalNextBatchIndex, completion);
         });
-        opSequence.sendWith(this);
+        opSequence.sendWith(sender);
     }
 
     /**
      * Build the keys used to represent rolled up data. We currently support hourly and daily
      * rollups.
      */
-    private List<String> buildRollupKeys(String baseKey) {
+    static List<String> buildRollupKeys(String baseKey) {
         List<String> returnList = new ArrayList<>();
         returnList.add(baseKey + StatsConstants.HOUR_SUFFIX);
         // TODO VSYM-3109: Re-enable this once we fix daily rollup performance.
@@ -1156,7 +1278,7 @@ public class SingleResourceStatsAggregationTaskService extends
     /**
      * Returns the raw metric key by stripping the rollup metric key suffix.
      */
-    private String stripRollupKey(String rollupKey) {
+    static String stripRollupKey(String rollupKey) {
         if (rollupKey.contains(StatsConstants.HOUR_SUFFIX)) {
             return rollupKey.replace(StatsConstants.HOUR_SUFFIX, "");
         }
@@ -1166,7 +1288,7 @@ public class SingleResourceStatsAggregationTaskService extends
     /**
      * Lookup the size of the time bin based on the metric key
      */
-    private int lookupBinSize(String metricKey) {
+    private static int lookupBinSize(String metricKey) {
         if (metricKey.contains(StatsConstants.HOUR_SUFFIX)) {
             return StatsConstants.BUCKET_SIZE_HOURS_IN_MILLIS;
         }
@@ -1176,7 +1298,7 @@ public class SingleResourceStatsAggregationTaskService extends
     /**
      * Update time bin with raw value.
      */
-    private TimeBin updateBin(TimeBin inputBin, double value,
+    private static TimeBin updateBin(TimeBin inputBin, double value,
             Set<AggregationType> aggregationTypes) {
         if (aggregationTypes.contains(AggregationType.MAX)) {
             if (inputBin.max == null || inputBin.max < value) {
@@ -1212,7 +1334,7 @@ public class SingleResourceStatsAggregationTaskService extends
     /**
      * Update time bin based on given time bin value.
      */
-    private TimeBin updateBin(TimeBin currentBin, TimeBin value,
+    private static TimeBin updateBin(TimeBin currentBin, TimeBin value,
             Set<AggregationType> aggregationTypes) {
         if (aggregationTypes.contains(AggregationType.MAX)) {
             if (currentBin.max == null || currentBin.max < value.max) {
@@ -15,6 +15,7 @@ package com.vmware.photon.controller.model.tasks.monitoring;
 
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashMap;
@@ -27,10 +28,15 @@ import com.vmware.photon.controller.model.UriPaths;
 import com.vmware.photon.controller.model.adapterapi.ComputeStatsRequest;
 import com.vmware.photon.controller.model.adapterapi.ComputeStatsResponse.ComputeStats;
 import com.vmware.photon.controller.model.constants.PhotonModelConstants;
+import com.vmware.photon.controller.model.monitoring.ColumnarResourceMetricsService;
+import com.vmware.photon.controller.model.monitoring.ColumnarResourceMetricsService.ColumnarMetricsQuery;
+import com.vmware.photon.controller.model.monitoring.ColumnarResourceMetricsService.ColumnarMetricsQueryResult;
+import com.vmware.photon.controller.model.monitoring.CompactTimeSeries;
 import com.vmware.photon.controller.model.monitoring.InMemoryResourceMetricService;
 import com.vmware.photon.controller.model.monitoring.InMemoryResourceMetricService.InMemoryResourceMetric;
 import com.vmware.photon.controller.model.monitoring.ResourceMetricsService;
 import com.vmware.photon.controller.model.monitoring.ResourceMetricsService.ResourceMetrics;
+import com.vmware.photon.controller.model.monitoring.ResourceMetricsService.StorageMode;
 import com.vmware.photon.controller.model.query.QueryUtils;
 import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
 import com.vmware.photon.controller.model.resources.ComputeService.ComputeStateWithDescription;
@@ -50,7 +56,6 @@ import com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption;
 import com.vmware.xenon.common.ServiceDocumentDescription.TypeName;
 import com.vmware.xenon.common.ServiceStats;
 import com.vmware.xenon.common.ServiceStats.ServiceStat;
-import com.vmware.xenon.common.ServiceStats.TimeSeriesStats;
 import com.vmware.xenon.common.ServiceStats.TimeSeriesStats.AggregationType;
 import com.vmware.xenon.common.TaskState;
 import com.vmware.xenon.common.TaskState.TaskStage;
@@ -393,6 +398,8 @@ public class SingleResourceStatsCollectionTaskService
             // TODO: https://jira-hzn.eng.vmware.com/browse/VSYM-330
 
             InMemoryResourceMetric hourlyMemoryState = new InMemoryResourceMetric();
+            // samples are accumulated in primitive arrays and materialized once per metric
+            Map<String, CompactTimeSeries> hourlySeries = new HashMap<>();
             if (currentState.publishInMemory) {
                 String computeId = UriUtils.getLastPathSegment(stats.computeLink);
 
@@ -414,18 +421,27 @@ public class SingleResourceStatsCollectionTaskService
                     }
                     if (currentState.publishInMemory) {
                         // update in-memory stats
-                        updateInMemoryStats(hourlyMemoryState, entries.getKey(), serviceStat,
+                        updateInMemoryStats(hourlySeries, entries.getKey(), serviceStat,
                                 StatsConstants.BUCKET_SIZE_HOURS_IN_MILLIS);
                     }
                     populateResourceMetrics(metricsList, entries.getKey(),
                             serviceStat, computeLink, expirationTime, stats.getCustomProperties());
                 }
             }
+            for (Entry<String, CompactTimeSeries> series : hourlySeries.entrySet()) {
+                hourlyMemoryState.timeSeriesStats.put(series.getKey(),
+                        series.getValue().toTimeSeriesStats());
+            }
         }
+        // In columnar mode raw samples are appended to the column store instead of being
+        // created as one document per sample.
+        String metricsLink = ResourceMetricsService.getStorageMode() == StorageMode.COLUMNAR
+                ? ColumnarResourceMetricsService.SELF_LINK
+                : ResourceMetricsService.FACTORY_LINK;
         for (ResourceMetrics metrics : metricsList) {
             operations.add(Operation.createPost(UriUtils.buildUri(
                     ClusterUtil.getClusterUri(getHost(), ServiceTypeCluster.METRIC_SERVICE),
-                    ResourceMetricsService.FACTORY_LINK)).setBodyNoCloning(metrics));
+                    metricsLink)).setBodyNoCloning(metrics));
         }
         if (currentState.publishInMemory) {
             for (InMemoryResourceMetric metric : inMemoryMetricsList) {
@@ -483,20 +499,11 @@ public class SingleResourceStatsCollectionTaskService
         opSequence.sendWith(this);
     }
 
-    private void updateInMemoryStats(InMemoryResourceMetric inMemoryMetric, String metricKey,
-            ServiceStat serviceStat, int bucketSize) {
-        // update in-memory stats
-        if (inMemoryMetric.timeSeriesStats.containsKey(metricKey)) {
-            inMemoryMetric.timeSeriesStats.get(metricKey)
-                    .add(serviceStat.sourceTimeMicrosUtc, serviceStat.latestValue,
-                            serviceStat.latestValue);
-        } else {
-            TimeSeriesStats tStats = new TimeSeriesStats(2, bucketSize,
-                    EnumSet.allOf(AggregationType.class));
-            tStats.add(serviceStat.sourceTimeMicrosUtc, serviceStat.latestValue,
-                    serviceStat.latestValue);
-            inMemoryMetric.timeSeriesStats.put(metricKey, tStats);
-        }
+    private void updateInMemoryStats(Map<String, CompactTimeSeries> inMemorySeries,
+            String metricKey, ServiceStat serviceStat, int bucketSize) {
+        inMemorySeries.computeIfAbsent(metricKey, k -> new CompactTimeSeries(2, bucketSize,
+                EnumSet.allOf(AggregationType.class)))
+                .add(serviceStat.sourceTimeMicrosUtc, serviceStat.latestValue);
     }
 
     private void populateResourceMetrics(List<ResourceMetrics> metricsList,
@@ -582,6 +589,11 @@ public class SingleResourceStatsCollectionTaskService
         String statsAdapterLink = getAdapterLinkFromURI(patchUri);
         String lastSuccessfulRunMetricKey = getLastCollectionMetricKeyForAdapterLink(
                 statsAdapterLink, false);
+        if (ResourceMetricsService.getStorageMode() == StorageMode.COLUMNAR) {
+            populateLastCollectionTimeFromColumnarStore(currentState, computeStatsRequest,
+                    patchUri, lastSuccessfulRunMetricKey);
+            return;
+        }
         Query.Builder builder = Query.Builder.create();
         builder.addKindFieldClause(ResourceMetrics.class);
         builder.addFieldClause(ServiceDocument.FIELD_NAME_SELF_LINK,
@@ -627,6 +639,39 @@ public class SingleResourceStatsCollectionTaskService
                 });
     }
 
+    /**
+     * Looks up the last successful collection time in the columnar metrics store.
+     */
+    private void populateLastCollectionTimeFromColumnarStore(
+            SingleResourceStatsCollectionTaskState currentState,
+            ComputeStatsRequest computeStatsRequest, URI patchUri,
+            String lastSuccessfulRunMetricKey) {
+        ColumnarMetricsQuery query = new ColumnarMetricsQuery();
+        query.resourceLinks = Collections.singletonList(currentState.computeLink);
+        query.metricNames = Collections.singleton(lastSuccessfulRunMetricKey);
+        query.latestOnly = true;
+        sendRequest(Operation.createPatch(UriUtils.buildUri(
+                ClusterUtil.getClusterUri(getHost(), ServiceTypeCluster.METRIC_SERVICE),
+                ColumnarResourceMetricsService.SELF_LINK))
+                .setBody(query)
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        logSevere(() -> String.format("Could not get the last collection time"
+                                + " from columnar metrics: %s", Utils.toString(e)));
+                        sendStatsRequestToAdapter(currentState, patchUri, computeStatsRequest);
+                        return;
+                    }
+                    ColumnarMetricsQueryResult result = o.getBody(ColumnarMetricsQueryResult.class);
+                    Map<String, Long> latest = result.latestTimestamps == null ? null
+                            : result.latestTimestamps.get(currentState.computeLink);
+                    if (latest != null && latest.containsKey(lastSuccessfulRunMetricKey)) {
+                        computeStatsRequest.lastCollectionTimeMicrosUtc = latest
+                                .get(lastSuccessfulRunMetricKey);
+                    }
+                    sendStatsRequestToAdapter(currentState, patchUri, computeStatsRequest);
+                }));
+    }
+
     /**
      * Sends the Stats request to the Stats adapter
      */
@@ -17,6 +17,7 @@ import static com.vmware.photon.controller.model.util.PhotonModelUriUtils.create
 
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import com.vmware.photon.controller.model.UriPaths;
 import com.vmware.photon.controller.model.query.QueryUtils;
@@ -25,6 +26,7 @@ import com.vmware.photon.controller.model.tasks.ServiceTaskCallback;
 import com.vmware.photon.controller.model.tasks.ServiceTaskCallback.ServiceTaskCallbackResponse;
 import com.vmware.photon.controller.model.tasks.SubTaskService;
 import com.vmware.photon.controller.model.tasks.TaskUtils;
+import com.vmware.photon.controller.model.tasks.monitoring.BatchStatsAggregationTaskService.BatchStatsAggregationTaskState;
 import com.vmware.photon.controller.model.tasks.monitoring.SingleResourceStatsAggregationTaskService.SingleResourceStatsAggregationTaskState;
 import com.vmware.xenon.common.FactoryService;
 import com.vmware.xenon.common.Operation;
@@ -34,6 +36,7 @@ import com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption;
 import com.vmware.xenon.common.TaskState;
 import com.vmware.xenon.common.TaskState.TaskStage;
 import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
 import com.vmware.xenon.services.common.QueryTask;
 import com.vmware.xenon.services.common.QueryTask.Query;
 import com.vmware.xenon.services.common.ServiceUriPaths;
@@ -62,6 +65,12 @@ public class StatsAggregationTaskService extends TaskService<StatsAggregationTas
     private static final int DEFAULT_QUERY_RESULT_LIMIT = 50;
     private static final String PROP_NEXT_PAGE_LINK = "__nextPageLink";
 
+    public static final String BATCH_AGGREGATION = UriPaths.PROPERTY_PREFIX
+            + "StatsAggregationTaskService.batchAggregation";
+
+    public static final String STAT_NAME_CYCLE_TIME_MICROS = "cycleTimeMicros";
+    public static final String STAT_NAME_QUERY_COUNT = "queryCount";
+
     public static class StatsAggregationTaskState extends TaskService.TaskServiceState {
 
         @Documentation(description = "The set of metric names to aggregate on")
@@ -83,6 +92,20 @@ public class StatsAggregationTaskService extends TaskService<StatsAggregationTas
         @UsageOption(option = PropertyUsageOption.SERVICE_USE)
         @UsageOption(option = ServiceDocumentDescription.PropertyUsageOption.AUTO_MERGE_IF_NOT_NULL)
         public String queryResultLink;
+
+        @Documentation(description = "Aggregate every page of resources in a single batch task"
+                + " instead of one task per resource. Defaults to the value of the "
+                + BATCH_AGGREGATION + " system property")
+        @UsageOption(option = PropertyUsageOption.OPTIONAL)
+        public Boolean batchAggregation;
+
+        // time the aggregation cycle started
+        @UsageOption(option = PropertyUsageOption.SERVICE_USE)
+        public Long cycleStartTimeMicros;
+
+        // number of queries issued by the batch tasks so far; accumulated on every callback
+        @UsageOption(option = PropertyUsageOption.SERVICE_USE)
+        public Long queryCount;
     }
 
     public enum StatsAggregationStage {
@@ -92,6 +115,7 @@ public class StatsAggregationTaskService extends TaskService<StatsAggregationTas
     public StatsAggregationTaskService() {
         super(StatsAggregationTaskState.class);
         super.toggleOption(ServiceOption.IDEMPOTENT_POST, true);
+        super.toggleOption(ServiceOption.INSTRUMENTATION, true);
     }
 
     @Override
@@ -116,6 +140,10 @@ public class StatsAggregationTaskService extends TaskService<StatsAggregationTas
         logFine(() -> "Started stats aggregation");
         super.initializeState(state, postOp);
         state.taskSubStage = StatsAggregationStage.INIT;
+        state.cycleStartTimeMicros = Utils.getNowMicrosUtc();
+        if (state.batchAggregation == null) {
+            state.batchAggregation = Boolean.getBoolean(BATCH_AGGREGATION);
+        }
     }
 
     @Override
@@ -124,6 +152,10 @@ public class StatsAggregationTaskService extends TaskService<StatsAggregationTas
         StatsAggregationTaskState patchState = getTaskBody(patch);
         validateTransition(patch, currentState, patchState);
         updateState(currentState, patchState);
+        if (patchState.queryCount != null) {
+            currentState.queryCount = (currentState.queryCount == null ? 0
+                    : currentState.queryCount) + patchState.queryCount;
+        }
         patch.setBody(currentState);
         patch.complete();
 
@@ -143,7 +175,16 @@ public class StatsAggregationTaskService extends TaskService<StatsAggregationTas
                     logWarning(currentState.failureMessage);
                 }
             }
-            logInfo(() -> "Finished stats aggregation");
+            if (Boolean.TRUE.equals(currentState.batchAggregation)) {
+                long cycleTimeMicros = Utils.getNowMicrosUtc() - currentState.cycleStartTimeMicros;
+                long queryCount = currentState.queryCount == null ? 0 : currentState.queryCount;
+                setStat(STAT_NAME_CYCLE_TIME_MICROS, cycleTimeMicros);
+                setStat(STAT_NAME_QUERY_COUNT, queryCount);
+                logInfo(() -> String.format("Finished stats aggregation in %d ms with %d queries",
+                        TimeUnit.MICROSECONDS.toMillis(cycleTimeMicros), queryCount));
+            } else {
+                logInfo(() -> "Finished stats aggregation");
+            }
             sendRequest(Operation
                         .createDelete(getUri()));
             break;
@@ -224,6 +265,10 @@ public class StatsAggregationTaskService extends TaskService<StatsAggregationTas
         } else {
             callback.onSuccessFinishTask();
         }
+        if (Boolean.TRUE.equals(currentState.batchAggregation)) {
+            createBatchTask(computeResources, callback, currentState);
+            return;
+        }
         SubTaskService.SubTaskState<StatsAggregationStage> subTaskInitState =
                 new SubTaskService.SubTaskState<>();
         subTaskInitState.errorThreshold = 0;
@@ -264,11 +309,35 @@ public class StatsAggregationTaskService extends TaskService<StatsAggregationTas
                     }));
     }
 
+    /**
+     * Aggregates the whole page in a single task, which reports back to this task directly.
+     */
+    private void createBatchTask(List<String> resourceLinks,
+            ServiceTaskCallback<StatsAggregationStage> callback,
+            StatsAggregationTaskState currentState) {
+        BatchStatsAggregationTaskState initState = new BatchStatsAggregationTaskState();
+        initState.resourceLinks = resourceLinks;
+        initState.metricNames = currentState.metricNames;
+        initState.serviceTaskCallback = callback;
+        sendRequest(Operation
+                .createPost(this, BatchStatsAggregationTaskService.FACTORY_LINK)
+                .setBody(initState)
+                .setCompletion((postOp, postEx) -> {
+                    if (postEx != null) {
+                        TaskUtils.sendFailurePatch(this, new StatsAggregationTaskState(), postEx);
+                    }
+                }));
+    }
+
     private StatsAggregationTaskState getTaskBody(Operation op) {
         StatsAggregationTaskState body = op.getBody(StatsAggregationTaskState.class);
         if (ServiceTaskCallbackResponse.KIND.equals(body.documentKind)) {
             ServiceTaskCallbackResponse<?> cr = op.getBody(ServiceTaskCallbackResponse.class);
             body.queryResultLink = cr.getProperty(PROP_NEXT_PAGE_LINK);
+            String queryCount = cr.getProperty(BatchStatsAggregationTaskService.PROP_QUERY_COUNT);
+            if (queryCount != null) {
+                body.queryCount = Long.valueOf(queryCount);
+            }
         }
         return body;
     }
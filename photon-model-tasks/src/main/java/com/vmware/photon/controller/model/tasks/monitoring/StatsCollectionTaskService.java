@@ -337,6 +337,8 @@ public class StatsCollectionTaskService extends TaskService<StatsCollectionTaskS
         subTaskInitState.errorThreshold = 0;
         subTaskInitState.completionsRemaining = computeResources.size();
         subTaskInitState.serviceTaskCallback = callback;
+        // only the count of the collections is needed
+        subTaskInitState.countOnly = true;
         Operation startPost = Operation
                 .createPost(this, SubTaskService.FACTORY_LINK)
                 .setBody(subTaskInitState)
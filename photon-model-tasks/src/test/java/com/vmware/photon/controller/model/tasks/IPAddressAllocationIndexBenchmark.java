@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.tasks;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.vmware.photon.controller.model.resources.IPAddressService.IPAddressState;
+import com.vmware.photon.controller.model.resources.IPAddressService.IPAddressState.IPAddressStatus;
+import com.vmware.photon.controller.model.resources.SubnetRangeService.SubnetRangeState;
+import com.vmware.photon.controller.model.util.IpHelper;
+
+/**
+ * Measures the allocations per second into a /16 subnet range of which {@code usedPercent}
+ * addresses are already in use: with {@link IPAddressAllocationIndex}, and with the linear scan
+ * of the range over the set of unavailable addresses it replaces. Run with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.vmware.photon.controller.model.tasks.IPAddressAllocationIndexBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class IPAddressAllocationIndexBenchmark {
+
+    private static final String RANGE_LINK = "/resources/subnet-ranges/benchmark";
+    private static final String START_IP_ADDRESS = "10.10.0.0";
+    private static final String END_IP_ADDRESS = "10.10.255.255";
+
+    @Param({ "0", "50", "90" })
+    public int usedPercent;
+
+    private SubnetRangeState subnetRangeState;
+    private List<IPAddressState> ipAddressStates;
+
+    private IPAddressAllocationIndex index;
+    private Set<Long> unavailableIpAddresses;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.subnetRangeState = new SubnetRangeState();
+        this.subnetRangeState.documentSelfLink = RANGE_LINK;
+        this.subnetRangeState.startIPAddress = START_IP_ADDRESS;
+        this.subnetRangeState.endIPAddress = END_IP_ADDRESS;
+
+        long begin = IpHelper.ipStringToLong(START_IP_ADDRESS);
+        long size = IpHelper.ipStringToLong(END_IP_ADDRESS) - begin + 1;
+        this.ipAddressStates = new ArrayList<>();
+        for (long i = 0; i < size * this.usedPercent / 100; i++) {
+            IPAddressState ipAddressState = new IPAddressState();
+            ipAddressState.subnetRangeLink = RANGE_LINK;
+            ipAddressState.ipAddress = IpHelper.longToIpString(begin + i);
+            ipAddressState.ipAddressStatus = IPAddressStatus.ALLOCATED;
+            this.ipAddressStates.add(ipAddressState);
+        }
+    }
+
+    /**
+     * Starts each iteration from the same addresses in use, since the allocations fill the range.
+     */
+    @Setup(Level.Iteration)
+    public void reset() {
+        this.index = IPAddressAllocationIndex.build(this.subnetRangeState, this.ipAddressStates);
+        this.unavailableIpAddresses = new HashSet<>();
+        for (IPAddressState ipAddressState : this.ipAddressStates) {
+            this.unavailableIpAddresses.add(IpHelper.ipStringToLong(ipAddressState.ipAddress));
+        }
+    }
+
+    @Benchmark
+    public String allocateWithIndex() {
+        String ipAddress = this.index.reserveNew();
+        if (ipAddress == null) {
+            reset();
+            ipAddress = this.index.reserveNew();
+        }
+        return ipAddress;
+    }
+
+    @Benchmark
+    public String allocateWithLinearScan() {
+        long beginAddress = IpHelper.ipStringToLong(this.subnetRangeState.startIPAddress);
+        long endAddress = IpHelper.ipStringToLong(this.subnetRangeState.endIPAddress);
+
+        for (long address = beginAddress; address <= endAddress; address++) {
+            if (!this.unavailableIpAddresses.contains(address)) {
+                this.unavailableIpAddresses.add(address);
+                return IpHelper.longToIpString(address);
+            }
+        }
+        reset();
+        return null;
+    }
+
+    @Benchmark
+    public IPAddressAllocationIndex rebuildIndex() {
+        return IPAddressAllocationIndex.build(this.subnetRangeState, this.ipAddressStates);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(IPAddressAllocationIndexBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.tasks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.resources.IPAddressService.IPAddressState;
+import com.vmware.photon.controller.model.resources.IPAddressService.IPAddressState.IPAddressStatus;
+import com.vmware.photon.controller.model.resources.SubnetRangeService.SubnetRangeState;
+import com.vmware.photon.controller.model.support.IPVersion;
+import com.vmware.xenon.common.test.VerificationHost;
+
+/**
+ * Unit test for {@link IPAddressAllocationIndex}.
+ */
+public class IPAddressAllocationIndexTest {
+
+    private static final String SUBNET_LINK = "/resources/subnets/subnet-1";
+    private static final String RANGE_LINK = "/resources/subnet-ranges/range-1";
+
+    private static VerificationHost host;
+
+    @BeforeClass
+    public static void setUpHost() throws Throwable {
+        host = VerificationHost.create(0);
+        host.start();
+    }
+
+    @AfterClass
+    public static void tearDownHost() {
+        if (host != null) {
+            host.tearDown();
+        }
+    }
+
+    static SubnetRangeState subnetRange(String link, String startIPAddress,
+            String endIPAddress) {
+        SubnetRangeState subnetRangeState = new SubnetRangeState();
+        subnetRangeState.documentSelfLink = link;
+        subnetRangeState.subnetLink = SUBNET_LINK;
+        subnetRangeState.startIPAddress = startIPAddress;
+        subnetRangeState.endIPAddress = endIPAddress;
+        subnetRangeState.ipVersion = IPVersion.IPv4;
+        return subnetRangeState;
+    }
+
+    static IPAddressState ipAddress(String subnetRangeLink, String ipAddress,
+            IPAddressStatus status) {
+        IPAddressState ipAddressState = new IPAddressState();
+        ipAddressState.documentSelfLink = "/resources/ip-addresses/" + ipAddress;
+        ipAddressState.subnetRangeLink = subnetRangeLink;
+        ipAddressState.ipAddress = ipAddress;
+        ipAddressState.ipAddressStatus = status;
+        return ipAddressState;
+    }
+
+    @Test
+    public void testReserveSkipsAddressesInUse() {
+        IPAddressAllocationIndex index = IPAddressAllocationIndex.build(
+                subnetRange(RANGE_LINK, "12.12.12.2", "12.12.12.6"), Arrays.asList(
+                        ipAddress(RANGE_LINK, "12.12.12.2", IPAddressStatus.ALLOCATED),
+                        ipAddress(RANGE_LINK, "12.12.12.3", IPAddressStatus.RELEASED),
+                        ipAddress(RANGE_LINK, "12.12.12.4", IPAddressStatus.AVAILABLE),
+                        // addresses out of the range are ignored
+                        ipAddress(RANGE_LINK, "12.12.12.20", IPAddressStatus.ALLOCATED)));
+
+        assertEquals(5, index.getSize());
+        assertEquals(3, index.getAvailableCount());
+
+        assertEquals("12.12.12.5", index.reserveNew());
+        assertEquals("12.12.12.6", index.reserveNew());
+        assertNull(index.reserveNew());
+
+        IPAddressState reusable = index.reserveReusable();
+        assertEquals("12.12.12.4", reusable.ipAddress);
+        assertEquals("/resources/ip-addresses/12.12.12.4", reusable.documentSelfLink);
+        assertEquals(RANGE_LINK, reusable.subnetRangeLink);
+        assertNull(index.reserveReusable());
+        assertEquals(0, index.getAvailableCount());
+    }
+
+    @Test
+    public void testAddressesOfOtherRangesAreInUse() {
+        String otherRangeLink = "/resources/subnet-ranges/range-2";
+        IPAddressAllocationIndex index = IPAddressAllocationIndex.build(
+                subnetRange(RANGE_LINK, "12.12.12.2", "12.12.12.3"), Arrays.asList(
+                        ipAddress(otherRangeLink, "12.12.12.2", IPAddressStatus.AVAILABLE)));
+
+        // the document of the other range cannot be reused, nor created again
+        assertFalse(index.hasReusable());
+        assertEquals("12.12.12.3", index.reserveNew());
+        assertNull(index.reserveNew());
+    }
+
+    @Test
+    public void testReleasedAddressesAreReused() {
+        IPAddressAllocationIndex index = IPAddressAllocationIndex.build(
+                subnetRange(RANGE_LINK, "12.12.12.2", "12.12.12.3"), Collections.emptyList());
+        String first = index.reserveNew();
+        String second = index.reserveNew();
+        assertEquals(0, index.getAvailableCount());
+
+        index.markAvailable(first, "/resources/ip-addresses/first");
+
+        assertEquals(1, index.getAvailableCount());
+        assertTrue(index.hasReusable());
+        // the address has a document, so it is not created again
+        assertNull(index.reserveNew());
+        assertEquals(first, index.reserveReusable().ipAddress);
+
+        index.markAvailable(second, "/resources/ip-addresses/second");
+        index.markUsed(second);
+        assertFalse(index.hasReusable());
+        assertEquals(0, index.getAvailableCount());
+    }
+
+    @Test
+    public void testReleaseOnFailure() {
+        IPAddressAllocationIndex index = IPAddressAllocationIndex.build(
+                subnetRange(RANGE_LINK, "12.12.12.2", "12.12.12.3"), Arrays.asList(
+                        ipAddress(RANGE_LINK, "12.12.12.2", IPAddressStatus.AVAILABLE)));
+
+        IPAddressState reusable = index.reserveReusable();
+        String created = index.reserveNew();
+        assertEquals("12.12.12.3", created);
+        assertEquals(0, index.getAvailableCount());
+
+        index.release(reusable.ipAddress);
+        index.release(created);
+
+        // the document is reused again, and the address without a document is created again
+        assertEquals(2, index.getAvailableCount());
+        assertEquals(reusable.documentSelfLink, index.reserveReusable().documentSelfLink);
+        assertEquals(created, index.reserveNew());
+
+        // an address recorded as used is not reserved anymore
+        index.markUsed(created);
+        index.release(created);
+        assertEquals(0, index.getAvailableCount());
+        assertNull(index.reserveNew());
+    }
+
+    @Test
+    public void testReleaseInIndexKeptByHost() {
+        String rangeLink = RANGE_LINK + "-release";
+        IPAddressAllocationIndex index = IPAddressAllocationIndex.put(host,
+                IPAddressAllocationIndex.build(subnetRange(rangeLink, "12.12.12.2", "12.12.12.2"),
+                        Collections.emptyList()));
+        String ipAddress = index.reserveNew();
+        assertNull(index.reserveNew());
+
+        IPAddressAllocationIndex.release(host, rangeLink, ipAddress);
+
+        assertEquals(ipAddress, index.reserveNew());
+    }
+
+    @Test
+    public void testRebuildKeepsReservationsInFlight() {
+        String rangeLink = RANGE_LINK + "-rebuild";
+        SubnetRangeState subnetRange = subnetRange(rangeLink, "12.12.12.2", "12.12.12.5");
+        IPAddressAllocationIndex index = IPAddressAllocationIndex.put(host,
+                IPAddressAllocationIndex.build(subnetRange, Arrays.asList(
+                        ipAddress(rangeLink, "12.12.12.2", IPAddressStatus.AVAILABLE))));
+        IPAddressState reusable = index.reserveReusable();
+        String created = index.reserveNew();
+        String allocated = index.reserveNew();
+
+        // the documents are not updated yet, but for the one of the last address
+        IPAddressAllocationIndex rebuilt = IPAddressAllocationIndex.put(host,
+                IPAddressAllocationIndex.build(subnetRange, Arrays.asList(
+                        ipAddress(rangeLink, "12.12.12.2", IPAddressStatus.AVAILABLE),
+                        ipAddress(rangeLink, allocated, IPAddressStatus.ALLOCATED))));
+
+        assertTrue(rebuilt != index);
+        assertEquals(1, rebuilt.getAvailableCount());
+        assertFalse(rebuilt.hasReusable());
+        assertEquals("12.12.12.5", rebuilt.reserveNew());
+        assertNull(rebuilt.reserveNew());
+
+        // the reservations are still released, or recorded as used, in the index kept
+        IPAddressAllocationIndex.release(host, rangeLink, reusable.ipAddress);
+        IPAddressAllocationIndex.markUsed(host, rangeLink, created);
+        // the address allocated by another host meanwhile stays in use
+        IPAddressAllocationIndex.release(host, rangeLink, allocated);
+        assertEquals(1, rebuilt.getAvailableCount());
+        assertEquals(reusable.documentSelfLink, rebuilt.reserveReusable().documentSelfLink);
+    }
+
+    @Test
+    public void testDeletedRangesAreDropped() {
+        String subnetLink = SUBNET_LINK + "-deleted-ranges";
+        String rangeLink = RANGE_LINK + "-kept";
+        String deletedRangeLink = RANGE_LINK + "-deleted";
+        SubnetRangeState subnetRange = subnetRange(rangeLink, "12.12.12.2", "12.12.12.3");
+        subnetRange.subnetLink = subnetLink;
+        SubnetRangeState deletedSubnetRange = subnetRange(deletedRangeLink, "12.12.12.4",
+                "12.12.12.5");
+        deletedSubnetRange.subnetLink = subnetLink;
+        IPAddressAllocationIndex.put(host,
+                IPAddressAllocationIndex.build(subnetRange, Collections.emptyList()));
+        IPAddressAllocationIndex.put(host,
+                IPAddressAllocationIndex.build(deletedSubnetRange, Collections.emptyList()));
+
+        // the ranges of other subnets are left as is
+        IPAddressAllocationIndex.retainRanges(host, SUBNET_LINK + "-other",
+                Collections.emptyList());
+        assertNotNull(IPAddressAllocationIndex.get(host, deletedRangeLink));
+
+        IPAddressAllocationIndex.retainRanges(host, subnetLink,
+                Collections.singletonList(rangeLink));
+        assertNotNull(IPAddressAllocationIndex.get(host, rangeLink));
+        assertNull(IPAddressAllocationIndex.get(host, deletedRangeLink));
+    }
+
+    @Test
+    public void testReserveWrapsAround() {
+        IPAddressAllocationIndex index = IPAddressAllocationIndex.build(
+                subnetRange(RANGE_LINK, "10.0.0.0", "10.0.0.3"), Collections.emptyList());
+        for (int i = 0; i < 4; i++) {
+            index.reserveNew();
+        }
+        index.markAvailable("10.0.0.1", "/resources/ip-addresses/10.0.0.1");
+        index.reserveReusable();
+        assertNull(index.reserveNew());
+
+        // a free address before the cursor is found again
+        IPAddressAllocationIndex rebuilt = IPAddressAllocationIndex.build(
+                subnetRange(RANGE_LINK, "10.0.0.0", "10.0.0.3"), Arrays.asList(
+                        ipAddress(RANGE_LINK, "10.0.0.0", IPAddressStatus.ALLOCATED),
+                        ipAddress(RANGE_LINK, "10.0.0.2", IPAddressStatus.ALLOCATED)));
+        assertEquals("10.0.0.1", rebuilt.reserveNew());
+        assertEquals("10.0.0.3", rebuilt.reserveNew());
+        assertNull(rebuilt.reserveNew());
+    }
+
+    @Test
+    public void testConcurrentReservationsDoNotOverlap() throws Exception {
+        IPAddressAllocationIndex index = IPAddressAllocationIndex.build(
+                subnetRange(RANGE_LINK, "10.10.0.0", "10.10.255.255"), Collections.emptyList());
+        int threads = 8;
+        int perThread = index.getSize() / threads;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<String>>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    List<String> reserved = new ArrayList<>();
+                    for (int i = 0; i < perThread; i++) {
+                        reserved.add(index.reserveNew());
+                    }
+                    return reserved;
+                }));
+            }
+
+            Set<String> all = new HashSet<>();
+            for (Future<List<String>> future : futures) {
+                all.addAll(future.get());
+            }
+            assertEquals(threads * perThread, all.size());
+            assertFalse(all.contains(null));
+            assertEquals(0, index.getAvailableCount());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testExpiry() {
+        IPAddressAllocationIndex index = new IPAddressAllocationIndex(RANGE_LINK, SUBNET_LINK, 0, 9,
+                1000);
+
+        assertFalse(index.isExpired(1000 + IPAddressAllocationIndex.INDEX_TTL_MICROS));
+        assertTrue(index.isExpired(1001 + IPAddressAllocationIndex.INDEX_TTL_MICROS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRange() {
+        IPAddressAllocationIndex.build(subnetRange(RANGE_LINK, "12.12.12.3", "12.12.12.2"),
+                Collections.emptyList());
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.tasks;
+
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.vmware.photon.controller.model.PhotonModelServices;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription.ComputeType;
+import com.vmware.photon.controller.model.resources.ComputeService;
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.photon.controller.model.resources.DiskService;
+import com.vmware.photon.controller.model.resources.DiskService.DiskState;
+import com.vmware.photon.controller.model.resources.NetworkInterfaceDescriptionService;
+import com.vmware.photon.controller.model.resources.NetworkInterfaceDescriptionService.NetworkInterfaceDescription;
+import com.vmware.photon.controller.model.resources.NetworkService;
+import com.vmware.photon.controller.model.tasks.ResourceAllocationTaskService.ResourceAllocationTaskState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.TaskState;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.test.TestRequestSender;
+import com.vmware.xenon.common.test.VerificationHost;
+
+/**
+ * Measures the time for a {@link ResourceAllocationTaskService} to provision 1, 100 and 1000
+ * computes, with a disk and a network interface each, against {@link MockAdapter}: one by one,
+ * and as a bulk request. Run with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.vmware.photon.controller.model.tasks.ResourceAllocationTaskServiceBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ResourceAllocationTaskServiceBenchmark {
+
+    @Param({ "1", "100", "1000" })
+    public int resourceCount;
+
+    @Param({ "false", "true" })
+    public boolean isBulkRequest;
+
+    private VerificationHost host;
+    private TestRequestSender sender;
+    private String resourcePoolLink;
+    private String computeDescriptionLink;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        this.host = VerificationHost.create(0);
+        this.host.setMaintenanceIntervalMicros(TimeUnit.MILLISECONDS.toMicros(10));
+        this.host.setTimeoutSeconds((int) TimeUnit.MINUTES.toSeconds(10));
+        this.host.start();
+
+        PhotonModelServices.startServices(this.host);
+        PhotonModelTaskServices.startServices(this.host);
+        this.host.startService(new MockAdapter.MockSuccessInstanceAdapter());
+        this.host.waitForServiceAvailable(PhotonModelServices.LINKS);
+        this.host.waitForServiceAvailable(PhotonModelTaskServices.LINKS);
+        this.host.waitForServiceAvailable(MockAdapter.MockSuccessInstanceAdapter.SELF_LINK);
+        this.sender = this.host.getTestRequestSender();
+
+        this.resourcePoolLink = UUID.randomUUID().toString();
+
+        ComputeDescription parentDescription = new ComputeDescription();
+        parentDescription.id = UUID.randomUUID().toString();
+        parentDescription.name = "parent";
+        parentDescription.supportedChildren = Collections
+                .singletonList(ComputeType.VM_GUEST.toString());
+        parentDescription = post(ComputeDescriptionService.FACTORY_LINK, parentDescription);
+
+        ComputeState parent = new ComputeState();
+        parent.id = UUID.randomUUID().toString();
+        parent.name = "parent";
+        parent.descriptionLink = parentDescription.documentSelfLink;
+        parent.resourcePoolLink = this.resourcePoolLink;
+        post(ComputeService.FACTORY_LINK, parent);
+
+        DiskState disk = new DiskState();
+        disk.id = UUID.randomUUID().toString();
+        disk.name = "disk";
+        disk.type = DiskService.DiskType.HDD;
+        disk.capacityMBytes = 100L;
+        disk = post(DiskService.FACTORY_LINK, disk);
+
+        NetworkInterfaceDescription nic = new NetworkInterfaceDescription();
+        nic.id = UUID.randomUUID().toString();
+        nic.networkLink = UriUtils.buildUriPath(NetworkService.FACTORY_LINK, "network");
+        nic = post(NetworkInterfaceDescriptionService.FACTORY_LINK, nic);
+
+        ComputeDescription description = new ComputeDescription();
+        description.id = UUID.randomUUID().toString();
+        description.name = "vm";
+        description.instanceAdapterReference = UriUtils.buildUri(this.host,
+                MockAdapter.MockSuccessInstanceAdapter.SELF_LINK);
+        description.diskDescLinks = Collections.singletonList(disk.documentSelfLink);
+        description.networkInterfaceDescLinks = Collections.singletonList(nic.documentSelfLink);
+        this.computeDescriptionLink = post(ComputeDescriptionService.FACTORY_LINK, description)
+                .documentSelfLink;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.host.tearDown();
+    }
+
+    @Benchmark
+    public ResourceAllocationTaskState allocate() {
+        ResourceAllocationTaskState state = new ResourceAllocationTaskState();
+        state.resourceCount = this.resourceCount;
+        state.isBulkRequest = this.isBulkRequest;
+        state.isMockRequest = true;
+        state.resourcePoolLink = this.resourcePoolLink;
+        state.computeDescriptionLink = this.computeDescriptionLink;
+        state.computeType = ComputeType.VM_GUEST.toString();
+        String taskLink = post(ResourceAllocationTaskService.FACTORY_LINK, state)
+                .documentSelfLink;
+
+        AtomicReference<ResourceAllocationTaskState> result = new AtomicReference<>();
+        this.host.waitFor("Allocation did not complete", () -> {
+            result.set(this.sender.sendAndWait(Operation.createGet(this.host, taskLink),
+                    ResourceAllocationTaskState.class));
+            return TaskState.isFinished(result.get().taskInfo)
+                    || TaskState.isFailed(result.get().taskInfo);
+        });
+        if (TaskState.isFailed(result.get().taskInfo)) {
+            throw new IllegalStateException(result.get().taskInfo.failure.message);
+        }
+        return result.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends ServiceDocument> T post(String factoryLink, T body) {
+        return this.sender.sendAndWait(Operation.createPost(this.host, factoryLink)
+                .setBody(body), (Class<T>) body.getClass());
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(ResourceAllocationTaskServiceBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
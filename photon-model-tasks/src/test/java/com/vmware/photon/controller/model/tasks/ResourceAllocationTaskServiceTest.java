@@ -626,6 +626,48 @@ public class ResourceAllocationTaskServiceTest extends Suite {
                     is(TaskState.TaskStage.FINISHED));
         }
 
+        @Test
+        public void testBulkRequest() throws Throwable {
+            String resourcePool = UUID.randomUUID().toString();
+
+            createParentCompute(this, resourcePool);
+
+            ComputeDescriptionService.ComputeDescription cd = createComputeDescription(
+                    this, MockAdapter.MockSuccessInstanceAdapter.SELF_LINK,
+                    MockAdapter.MockSuccessBootAdapter.SELF_LINK,
+                    createNetworkDescription(this), createDiskDescription(this));
+
+            ResourceAllocationTaskState startState = createAllocationRequest(
+                    resourcePool, cd.documentSelfLink);
+            startState.resourceCount = 5;
+            startState.isBulkRequest = true;
+
+            ResourceAllocationTaskState returnState = this
+                    .postServiceSynchronously(
+                            ResourceAllocationTaskService.FACTORY_LINK,
+                            startState, ResourceAllocationTaskState.class);
+
+            ResourceAllocationTaskState completeState = this
+                    .waitForServiceState(
+                            ResourceAllocationTaskState.class,
+                            returnState.documentSelfLink,
+                            state -> TaskState.TaskStage.FINISHED.ordinal() <= state.taskInfo.stage
+                                    .ordinal());
+
+            assertThat(completeState.taskInfo.stage,
+                    is(TaskState.TaskStage.FINISHED));
+
+            String taskId = UriUtils.getLastPathSegment(returnState.documentSelfLink);
+            for (int i = 0; i < startState.resourceCount; i++) {
+                ComputeService.ComputeState cs = this.getServiceSynchronously(
+                        UriUtils.buildUriPath(ComputeService.FACTORY_LINK,
+                                taskId + ResourceAllocationTaskService.ID_DELIMITER_CHAR + i),
+                        ComputeService.ComputeState.class);
+                assertThat(cs.diskLinks.size(), is(1));
+                assertThat(cs.networkInterfaceLinks.size(), is(1));
+            }
+        }
+
         @Test
         public void testProvisionDiskFailure() throws Throwable {
             String resourcePool = UUID.randomUUID().toString();
@@ -14,6 +14,8 @@
 package com.vmware.photon.controller.model.tasks;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.net.URI;
 import java.util.ArrayList;
@@ -497,5 +499,11 @@ public class ResourceGroomerTaskServiceTest extends BasicTestCase {
                 .STAT_NAME_ENDPOINT_LINKS_PATCHED).latestValue, 0);
         assertEquals(endpointLinkPatchedCount, stats.entries.get(ResourceGroomerTaskService
                 .STAT_NAME_ENDPOINT_LINK_PATCHED).latestValue, 0);
+        assertTrue(stats.entries.get(ResourceGroomerTaskService
+                .STAT_NAME_DOCUMENTS_PROCESSED).latestValue >= deletedDocumentCount);
+        assertNotNull(stats.entries.get(ResourceGroomerTaskService
+                .STAT_NAME_DOCUMENTS_PROCESSED_PER_SECOND));
+        assertTrue(stats.entries.get(ResourceGroomerTaskService
+                .STAT_NAME_PEAK_HEAP_USED).latestValue > 0);
     }
 }
\ No newline at end of file
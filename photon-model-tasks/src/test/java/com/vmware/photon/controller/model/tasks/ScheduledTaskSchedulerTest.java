@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.tasks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link ScheduledTaskScheduler}.
+ */
+public class ScheduledTaskSchedulerTest {
+    private static final String ENUMERATION = ResourceEnumerationTaskService.FACTORY_LINK;
+    private static final long INTERVAL_MICROS = TimeUnit.MINUTES.toMicros(5);
+
+    @Test
+    public void testPhaseIsStableAndSpread() {
+        Set<Long> buckets = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            String selfLink = "/provisioning/scheduled-tasks/endpoint-" + i;
+            long phase = ScheduledTaskScheduler.getPhaseMicros(selfLink, INTERVAL_MICROS);
+            assertEquals(phase, ScheduledTaskScheduler.getPhaseMicros(selfLink, INTERVAL_MICROS));
+            assertTrue(phase >= 0 && phase < INTERVAL_MICROS);
+            buckets.add(phase * 10 / INTERVAL_MICROS);
+        }
+        // similar links do not end up in the same part of the interval
+        assertEquals(10, buckets.size());
+    }
+
+    @Test
+    public void testDelayToPhase() {
+        assertEquals(30, ScheduledTaskScheduler.getDelayToPhaseMicros(1070, 100, 0));
+        assertEquals(20, ScheduledTaskScheduler.getDelayToPhaseMicros(1070, 100, 90));
+        assertEquals(0, ScheduledTaskScheduler.getDelayToPhaseMicros(1090, 100, 90));
+        assertEquals(99, ScheduledTaskScheduler.getDelayToPhaseMicros(1091, 100, 90));
+    }
+
+    @Test
+    public void testConcurrencyCaps() {
+        ScheduledTaskScheduler scheduler = new ScheduledTaskScheduler(null, 2, 1, 0,
+                Long.MAX_VALUE);
+
+        ScheduledTaskScheduler.Permit aws = scheduler.tryAcquire(ENUMERATION, "aws");
+        assertNotNull(aws);
+        // capped per endpoint type
+        assertNull(scheduler.tryAcquire(ENUMERATION, "aws"));
+        ScheduledTaskScheduler.Permit azure = scheduler.tryAcquire(ENUMERATION, "azure");
+        assertNotNull(azure);
+        // capped per kind
+        assertNull(scheduler.tryAcquire(ENUMERATION, "vsphere"));
+        assertNull(scheduler.tryAcquire(ENUMERATION, null));
+        assertNotNull(scheduler.tryAcquire(ResourceGroomerTaskService.FACTORY_LINK, null));
+        assertEquals(2, scheduler.getInFlightCount(ENUMERATION));
+
+        aws.release();
+        aws.release();
+        assertEquals(1, scheduler.getInFlightCount(ENUMERATION));
+        assertNotNull(scheduler.tryAcquire(ENUMERATION, "aws"));
+        assertNull(scheduler.tryAcquire(ENUMERATION, "aws"));
+    }
+
+    @Test
+    public void testDeferWhenInvocationsAreSlow() {
+        ScheduledTaskScheduler scheduler = new ScheduledTaskScheduler(null, 0, 0, 0,
+                TimeUnit.SECONDS.toMicros(1));
+        assertFalse(scheduler.isOverloaded());
+
+        scheduler.recordInvocationLatency(TimeUnit.SECONDS.toMicros(10));
+        assertTrue(scheduler.isOverloaded());
+        assertNull(scheduler.tryAcquire(ENUMERATION, null));
+
+        for (int i = 0; i < 20; i++) {
+            scheduler.recordInvocationLatency(TimeUnit.MILLISECONDS.toMicros(10));
+        }
+        assertFalse(scheduler.isOverloaded());
+        assertNotNull(scheduler.tryAcquire(ENUMERATION, null));
+    }
+
+    @Test
+    public void testInvocationLatencyDecays() {
+        ScheduledTaskScheduler scheduler = new ScheduledTaskScheduler(null, 0, 0, 0,
+                TimeUnit.SECONDS.toMicros(1));
+        long halfLife = ScheduledTaskScheduler.LATENCY_HALF_LIFE_MICROS;
+
+        scheduler.recordInvocationLatency(TimeUnit.SECONDS.toMicros(10), 0);
+        assertTrue(scheduler.isOverloaded(0));
+        assertTrue(scheduler.isOverloaded(3 * halfLife));
+        // no invocation completed since, runs start again
+        assertFalse(scheduler.isOverloaded(4 * halfLife));
+
+        // the next invocation is averaged with the decayed latency
+        scheduler.recordInvocationLatency(TimeUnit.SECONDS.toMicros(10), 4 * halfLife);
+        assertTrue(scheduler.isOverloaded(4 * halfLife));
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.tasks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.vmware.photon.controller.model.UriPaths;
+import com.vmware.photon.controller.model.adapterapi.ResourceOperationResponse;
+import com.vmware.photon.controller.model.tasks.ServiceTaskCallback.ServiceTaskCallbackResponse;
+import com.vmware.photon.controller.model.tasks.SubTaskService.SubTaskState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.TaskState.TaskStage;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.test.TestRequestSender;
+import com.vmware.xenon.common.test.VerificationHost;
+
+/**
+ * Measures the time for a sub task to track 10k completions, each reported as a
+ * {@link ResourceOperationResponse}:
+ * <ul>
+ * <li>{@code DEFAULT}: keeping all the responses, as before {@link SubTaskState#countOnly}</li>
+ * <li>{@code COUNT_ONLY}: keeping only the counts</li>
+ * <li>{@code COALESCED}: keeping only the counts, with completions reported 100 per PATCH</li>
+ * <li>{@code LOCAL_CHECKPOINT}: keeping only the counts in a {@link LocalSubTaskService}
+ * checkpointed every 1000 completions</li>
+ * </ul>
+ * Run with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.vmware.photon.controller.model.tasks.SubTaskServiceBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SubTaskServiceBenchmark {
+
+    private static final int COALESCED_COMPLETIONS = 100;
+    private static final int CHECKPOINT_INTERVAL = 1000;
+    private static final int MAX_PENDING_PATCHES = 1000;
+
+    /**
+     * Completes the pending invocation when a sub task PATCHes it.
+     */
+    public static class ParentService extends StatelessService {
+        public static final String SELF_LINK = UriPaths.TASKS + "/sub-task-benchmark-parent";
+
+        volatile CompletableFuture<ServiceTaskCallbackResponse<?>> response;
+
+        @Override
+        public void handlePatch(Operation patch) {
+            this.response.complete(patch.getBody(ServiceTaskCallbackResponse.class));
+            patch.complete();
+        }
+    }
+
+    @Param({ "10000" })
+    public int completions;
+
+    @Param({ "DEFAULT", "COUNT_ONLY", "COALESCED", "LOCAL_CHECKPOINT" })
+    public String mode;
+
+    private VerificationHost host;
+    private TestRequestSender sender;
+    private ParentService parent;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        this.host = VerificationHost.create(0);
+        this.host.setTimeoutSeconds((int) TimeUnit.MINUTES.toSeconds(10));
+        this.host.start();
+
+        PhotonModelTaskServices.startServices(this.host);
+        this.parent = new ParentService();
+        this.host.startService(this.parent);
+        this.host.waitForServiceAvailable(PhotonModelTaskServices.LINKS);
+        this.host.waitForServiceAvailable(ParentService.SELF_LINK);
+        this.sender = this.host.getTestRequestSender();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.host.tearDown();
+    }
+
+    @Benchmark
+    public ServiceTaskCallbackResponse<?> trackCompletions() throws Exception {
+        ServiceTaskCallback<TaskStage> callback = ServiceTaskCallback
+                .create(UriUtils.buildUri(this.host, ParentService.SELF_LINK));
+        callback.onSuccessFinishTask();
+
+        SubTaskState<TaskStage> state = new SubTaskState<>();
+        state.completionsRemaining = this.completions;
+        state.serviceTaskCallback = callback;
+        state.countOnly = !"DEFAULT".equals(this.mode);
+        String factoryLink = SubTaskService.FACTORY_LINK;
+        if ("LOCAL_CHECKPOINT".equals(this.mode)) {
+            state.checkpointInterval = CHECKPOINT_INTERVAL;
+            factoryLink = LocalSubTaskService.FACTORY_LINK;
+        }
+        String subTaskLink = this.sender.sendAndWait(
+                Operation.createPost(this.host, factoryLink).setBody(state), SubTaskState.class)
+                .documentSelfLink;
+
+        this.parent.response = new CompletableFuture<>();
+        List<Operation> patches = new ArrayList<>();
+        if ("COALESCED".equals(this.mode)) {
+            for (int i = 0; i < this.completions; i += COALESCED_COMPLETIONS) {
+                patches.add(Operation.createPatch(this.host, subTaskLink)
+                        .setBody(SubTaskService.createCompletionsPatch(
+                                Math.min(COALESCED_COMPLETIONS, this.completions - i), 0,
+                                null)));
+            }
+        } else {
+            for (int i = 0; i < this.completions; i++) {
+                patches.add(Operation.createPatch(this.host, subTaskLink)
+                        .setBody(ResourceOperationResponse.finish("/resources/compute/c" + i)));
+            }
+        }
+        // stay below the limit of operations queued by a service
+        for (int i = 0; i < patches.size(); i += MAX_PENDING_PATCHES) {
+            this.sender.sendAndWait(
+                    patches.subList(i, Math.min(patches.size(), i + MAX_PENDING_PATCHES)));
+        }
+        return this.parent.response.get(10, TimeUnit.MINUTES);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(SubTaskServiceBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.tasks;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.UriPaths;
+import com.vmware.photon.controller.model.adapterapi.ResourceOperationResponse;
+import com.vmware.photon.controller.model.helpers.BaseModelTest;
+import com.vmware.photon.controller.model.tasks.ServiceTaskCallback.ServiceTaskCallbackResponse;
+import com.vmware.photon.controller.model.tasks.SubTaskService.SubTaskState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.TaskState;
+import com.vmware.xenon.common.TaskState.TaskStage;
+import com.vmware.xenon.common.UriUtils;
+
+/**
+ * Tests for {@link SubTaskService} and {@link LocalSubTaskService}.
+ */
+public class SubTaskServiceTest extends BaseModelTest {
+    private static final String PROP_ID = "id";
+
+    /**
+     * Records the PATCHes sent by the sub tasks once complete, by the id of the sub task.
+     */
+    public static class ParentService extends StatelessService {
+        public static final String SELF_LINK = UriPaths.TASKS + "/sub-task-test-parent";
+
+        static final Map<String, ServiceTaskCallbackResponse<?>> responses =
+                new ConcurrentHashMap<>();
+
+        @Override
+        public void handlePatch(Operation patch) {
+            ServiceTaskCallbackResponse<?> response = patch
+                    .getBody(ServiceTaskCallbackResponse.class);
+            responses.put(response.getProperty(PROP_ID), response);
+            patch.complete();
+        }
+    }
+
+    @Override
+    protected void startRequiredServices() throws Throwable {
+        super.startRequiredServices();
+        PhotonModelTaskServices.startServices(getHost());
+        if (getHost().getServiceStage(ParentService.SELF_LINK) == null) {
+            getHost().startService(new ParentService());
+        }
+        waitForServiceAvailability(SubTaskService.FACTORY_LINK, LocalSubTaskService.FACTORY_LINK,
+                ParentService.SELF_LINK);
+    }
+
+    @Test
+    public void testCountOnlyKeepsSampleOfFailures() throws Throwable {
+        String id = UUID.randomUUID().toString();
+        SubTaskState<TaskStage> state = createState(id, 5);
+        state.countOnly = true;
+        state.maxFailureSamples = 2;
+        state.errorThreshold = 1.0;
+        String link = postServiceSynchronously(SubTaskService.FACTORY_LINK, state,
+                SubTaskState.class).documentSelfLink;
+
+        for (int i = 0; i < 4; i++) {
+            patchServiceSynchronously(link, ResourceOperationResponse.fail("/resources/compute/c"
+                    + i, new IllegalStateException("failure " + i)));
+        }
+        patchServiceSynchronously(link, ResourceOperationResponse.finish("/resources/compute/c4"));
+
+        ServiceTaskCallbackResponse<?> response = waitForResponse(id);
+        assertThat(response.taskInfo.stage, is(TaskStage.FINISHED));
+        assertThat(response.failures.size(), is(2));
+        assertThat(response.completed, is(empty()));
+    }
+
+    @Test
+    public void testCoalescedCompletions() throws Throwable {
+        String id = UUID.randomUUID().toString();
+        String link = postServiceSynchronously(SubTaskService.FACTORY_LINK, createState(id, 100),
+                SubTaskState.class).documentSelfLink;
+
+        patchServiceSynchronously(link, SubTaskService.createCompletionsPatch(60, 0, null));
+        SubTaskState<?> state = getServiceSynchronously(link, SubTaskState.class);
+        assertThat(state.completionsRemaining, is(40L));
+        assertThat(state.finishedCount, is(60L));
+
+        SubTaskState<TaskStage> patch = SubTaskService.createCompletionsPatch(30, 10, null);
+        patch.failures = Collections.singleton(ResourceOperationResponse.fail(
+                "/resources/compute/c0", new IllegalStateException("failure")));
+        patchServiceSynchronously(link, patch);
+
+        ServiceTaskCallbackResponse<?> response = waitForResponse(id);
+        assertThat(response.taskInfo.stage, is(TaskStage.FAILED));
+        assertThat(response.failures.size(), is(1));
+    }
+
+    @Test
+    public void testCheckpointInterval() throws Throwable {
+        String id = UUID.randomUUID().toString();
+        SubTaskState<TaskStage> state = createState(id, 10);
+        state.checkpointInterval = 4;
+        String link = postServiceSynchronously(LocalSubTaskService.FACTORY_LINK, state,
+                SubTaskState.class).documentSelfLink;
+
+        for (int i = 0; i < 5; i++) {
+            patchServiceSynchronously(link, finishedPatch());
+        }
+        // the fifth completion is only counted in memory
+        state = getServiceSynchronously(link, SubTaskState.class);
+        assertThat(state.completionsRemaining, is(6L));
+
+        for (int i = 0; i < 5; i++) {
+            patchServiceSynchronously(link, finishedPatch());
+        }
+        ServiceTaskCallbackResponse<?> response = waitForResponse(id);
+        assertThat(response.taskInfo.stage, is(TaskStage.FINISHED));
+    }
+
+    private SubTaskState<TaskStage> createState(String id, long completions) {
+        ServiceTaskCallback<TaskStage> callback = ServiceTaskCallback
+                .create(UriUtils.buildUri(getHost(), ParentService.SELF_LINK));
+        callback.onSuccessFinishTask();
+        callback.addProperty(PROP_ID, id);
+
+        SubTaskState<TaskStage> state = new SubTaskState<>();
+        state.completionsRemaining = completions;
+        state.serviceTaskCallback = callback;
+        return state;
+    }
+
+    private static SubTaskState<?> finishedPatch() {
+        SubTaskState<?> patch = new SubTaskState<>();
+        patch.taskInfo = new TaskState();
+        patch.taskInfo.stage = TaskStage.FINISHED;
+        return patch;
+    }
+
+    private ServiceTaskCallbackResponse<?> waitForResponse(String id) {
+        getHost().waitFor("Sub task did not complete",
+                () -> ParentService.responses.containsKey(id));
+        return ParentService.responses.remove(id);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.tasks.helpers;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.photon.controller.model.resources.ResourcePoolService.ResourcePoolState;
+import com.vmware.photon.controller.model.resources.ResourcePoolService.ResourcePoolState.ResourcePoolProperty;
+import com.vmware.photon.controller.model.tasks.helpers.ResourcePoolMembershipIndex.Membership;
+import com.vmware.xenon.common.ServiceDocumentDescription;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryFilter;
+import com.vmware.xenon.services.common.QueryTask.Query;
+
+/**
+ * Measures the lookups of the computes of a resource pool among 500 pools, a tenth of them
+ * elastic, and 50k computes: from the membership index, and by evaluating the query of the pool
+ * against every compute, as running the pool queries on each request does. Also measures the
+ * update of a compute and the full rebuild of the index. Run with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.vmware.photon.controller.model.tasks.helpers.ResourcePoolMembershipIndexBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ResourcePoolMembershipIndexBenchmark {
+
+    private static final int DESCRIPTION_COUNT = 20;
+    private static final ServiceDocumentDescription COMPUTE_DESCRIPTION =
+            ServiceDocumentDescription.Builder.create().buildDescription(ComputeState.class);
+
+    @Param({ "500" })
+    public int poolCount;
+
+    @Param({ "50000" })
+    public int computeCount;
+
+    private List<ResourcePoolState> pools;
+    private List<ComputeState> computes;
+    private List<QueryFilter> poolFilters;
+    private Membership membership;
+    private Random random;
+    private long updateTimeMicros;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        this.random = new Random(0);
+
+        this.pools = new ArrayList<>();
+        this.poolFilters = new ArrayList<>();
+        for (int i = 0; i < this.poolCount; i++) {
+            ResourcePoolState pool = new ResourcePoolState();
+            pool.documentSelfLink = "/resources/pools/rp-" + i;
+            pool.documentKind = Utils.buildKind(ResourcePoolState.class);
+            pool.name = pool.documentSelfLink;
+            Query.Builder query = Query.Builder.create().addKindFieldClause(ComputeState.class);
+            if (i % 10 == 0) {
+                pool.properties = EnumSet.of(ResourcePoolProperty.ELASTIC);
+                query.addFieldClause(ComputeState.FIELD_NAME_DESCRIPTION_LINK,
+                        descriptionLink(i % DESCRIPTION_COUNT + 1));
+            } else {
+                pool.properties = EnumSet.noneOf(ResourcePoolProperty.class);
+                query.addFieldClause(ComputeState.FIELD_NAME_RESOURCE_POOL_LINK,
+                        pool.documentSelfLink);
+            }
+            pool.query = query.build();
+            this.pools.add(pool);
+            this.poolFilters.add(QueryFilter.create(pool.query));
+        }
+
+        this.computes = new ArrayList<>();
+        for (int i = 0; i < this.computeCount; i++) {
+            ComputeState compute = new ComputeState();
+            compute.documentSelfLink = "/resources/compute/c-" + i;
+            compute.documentKind = Utils.buildKind(ComputeState.class);
+            compute.documentUpdateTimeMicros = ++this.updateTimeMicros;
+            compute.resourcePoolLink = this.pools.get(i % this.poolCount).documentSelfLink;
+            compute.descriptionLink = descriptionLink(i % DESCRIPTION_COUNT);
+            this.computes.add(compute);
+        }
+
+        this.membership = rebuild();
+    }
+
+    @Benchmark
+    public Map<String, ComputeState> lookupWithIndex() {
+        String poolLink = this.pools.get(this.random.nextInt(this.poolCount)).documentSelfLink;
+        return this.membership.getComputes(poolLink, null, null);
+    }
+
+    @Benchmark
+    public List<ComputeState> lookupByEvaluatingPoolQuery() {
+        QueryFilter filter = this.poolFilters.get(this.random.nextInt(this.poolCount));
+        List<ComputeState> result = new ArrayList<>();
+        for (ComputeState compute : this.computes) {
+            if (filter.evaluate(compute, COMPUTE_DESCRIPTION)) {
+                result.add(compute);
+            }
+        }
+        return result;
+    }
+
+    @Benchmark
+    public Membership updateCompute() {
+        ComputeState compute = Utils.clone(
+                this.computes.get(this.random.nextInt(this.computeCount)));
+        compute.documentUpdateTimeMicros = ++this.updateTimeMicros;
+        compute.resourcePoolLink = this.pools.get(this.random.nextInt(this.poolCount))
+                .documentSelfLink;
+        compute.descriptionLink = descriptionLink(this.random.nextInt(DESCRIPTION_COUNT));
+        this.membership.apply(compute);
+        return this.membership;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 5)
+    public Membership rebuild() {
+        Membership membership = new Membership();
+        this.pools.forEach(membership::apply);
+        this.computes.forEach(membership::apply);
+        return membership;
+    }
+
+    private static String descriptionLink(int i) {
+        return "/resources/compute-descriptions/cd-" + i;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(ResourcePoolMembershipIndexBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.tasks.helpers;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.photon.controller.model.resources.ResourcePoolService.ResourcePoolState;
+import com.vmware.photon.controller.model.resources.ResourcePoolService.ResourcePoolState.ResourcePoolProperty;
+import com.vmware.photon.controller.model.tasks.helpers.ResourcePoolMembershipIndex.Membership;
+import com.vmware.xenon.common.Service.Action;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryFilter;
+import com.vmware.xenon.services.common.QueryTask.Query;
+
+/**
+ * Tests for the membership kept by {@link ResourcePoolMembershipIndex}.
+ */
+public class ResourcePoolMembershipIndexTest {
+    private static final String RP1 = "/resources/pools/rp1";
+    private static final String RP2 = "/resources/pools/rp2";
+    private static final String ELASTIC_RP = "/resources/pools/elastic";
+    private static final String CD1 = "/resources/compute-descriptions/cd1";
+    private static final String CD2 = "/resources/compute-descriptions/cd2";
+
+    private Membership membership;
+    private long updateTimeMicros;
+
+    @Before
+    public void setUp() {
+        this.membership = new Membership();
+        this.membership.apply(pool(RP1, null));
+        this.membership.apply(pool(RP2, null));
+        this.membership.apply(pool(ELASTIC_RP, Query.Builder.create()
+                .addKindFieldClause(ComputeState.class)
+                .addFieldClause(ComputeState.FIELD_NAME_DESCRIPTION_LINK, CD2)
+                .build()));
+
+        this.membership.apply(compute("c1", RP1, CD1));
+        this.membership.apply(compute("c2", RP1, CD2));
+        this.membership.apply(compute("c3", RP2, CD1));
+        this.membership.apply(compute("c4", null, CD2));
+    }
+
+    @Test
+    public void testComputesByResourcePool() {
+        assertThat(this.membership.getComputes(RP1, null, null).keySet(),
+                containsInAnyOrder("c1", "c2"));
+        assertThat(this.membership.getComputes(RP2, null, null).keySet(), contains("c3"));
+        assertThat(this.membership.getComputes(ELASTIC_RP, null, null).keySet(),
+                containsInAnyOrder("c2", "c4"));
+        assertThat(this.membership.getComputes("/resources/pools/unknown", null, null),
+                is(nullValue()));
+
+        assertThat(this.membership.getResourcePoolLinks("c2"),
+                containsInAnyOrder(RP1, ELASTIC_RP));
+        assertThat(this.membership.getResourcePoolLinks("c4"), contains(ELASTIC_RP));
+    }
+
+    @Test
+    public void testComputeChanges() {
+        // moves to another pool and no longer matches the elastic pool
+        this.membership.apply(compute("c2", RP2, CD1));
+        assertThat(this.membership.getComputes(RP1, null, null).keySet(), contains("c1"));
+        assertThat(this.membership.getComputes(RP2, null, null).keySet(),
+                containsInAnyOrder("c2", "c3"));
+        assertThat(this.membership.getComputes(ELASTIC_RP, null, null).keySet(), contains("c4"));
+
+        ComputeState deleted = compute("c4", null, CD2);
+        deleted.documentUpdateAction = Action.DELETE.name();
+        this.membership.apply(deleted);
+        assertThat(this.membership.getComputes(ELASTIC_RP, null, null).keySet(), is(empty()));
+        assertThat(this.membership.getResourcePoolLinks("c4"), is(empty()));
+    }
+
+    @Test
+    public void testOutdatedChangeIgnored() {
+        ComputeState outdated = compute("c1", RP2, CD1);
+        outdated.documentUpdateTimeMicros = 0;
+        this.membership.apply(outdated);
+
+        assertThat(this.membership.getComputes(RP1, null, null).keySet(),
+                containsInAnyOrder("c1", "c2"));
+    }
+
+    @Test
+    public void testPoolChanges() {
+        this.membership.apply(pool(ELASTIC_RP, Query.Builder.create()
+                .addKindFieldClause(ComputeState.class)
+                .addFieldClause(ComputeState.FIELD_NAME_DESCRIPTION_LINK, CD1)
+                .build()));
+        assertThat(this.membership.getComputes(ELASTIC_RP, null, null).keySet(),
+                containsInAnyOrder("c1", "c3"));
+        assertThat(this.membership.getResourcePoolLinks("c4"), is(empty()));
+
+        ResourcePoolState deleted = pool(RP1, null);
+        deleted.documentUpdateAction = Action.DELETE.name();
+        this.membership.apply(deleted);
+        assertThat(this.membership.getComputes(RP1, null, null), is(nullValue()));
+        assertThat(this.membership.getResourcePoolLinks("c1"), contains(ELASTIC_RP));
+
+        // the computes are still found by their pool once it is recreated
+        this.membership.apply(pool(RP1, null));
+        assertThat(this.membership.getComputes(RP1, null, null).keySet(),
+                containsInAnyOrder("c1", "c2"));
+    }
+
+    @Test
+    public void testTenantLinksAndAdditionalFilter() throws Exception {
+        ComputeState tenantCompute = compute("c5", RP1, CD1);
+        tenantCompute.tenantLinks = Arrays.asList("/tenants/t1", "/tenants/t2");
+        this.membership.apply(tenantCompute);
+
+        assertThat(this.membership.getComputes(RP1, Collections.singletonList("/tenants/t1"),
+                null).keySet(), contains("c5"));
+        assertThat(this.membership.getComputes(RP1, Arrays.asList("/tenants/t1", "/tenants/t3"),
+                null).keySet(), is(empty()));
+
+        QueryFilter filter = QueryFilter.create(Query.Builder.create()
+                .addFieldClause(ComputeState.FIELD_NAME_DESCRIPTION_LINK, CD2)
+                .build());
+        assertThat(this.membership.getComputes(RP1, null, filter).keySet(), contains("c2"));
+    }
+
+    @Test
+    public void testComputeLinksByDescription() {
+        assertThat(this.membership.getComputeLinks(RP1, Collections.singletonList(CD1)),
+                contains("c1"));
+        assertThat(this.membership.getComputeLinks(RP1, Arrays.asList(CD1, CD2)),
+                contains("c1", "c2"));
+        assertThat(this.membership.getComputeLinks(ELASTIC_RP, Arrays.asList(CD1, CD2)),
+                is(empty()));
+    }
+
+    private ResourcePoolState pool(String link, Query query) {
+        ResourcePoolState pool = new ResourcePoolState();
+        pool.documentSelfLink = link;
+        pool.documentKind = Utils.buildKind(ResourcePoolState.class);
+        pool.documentUpdateTimeMicros = ++this.updateTimeMicros;
+        pool.name = link;
+        pool.query = query;
+        pool.properties = query != null ? EnumSet.of(ResourcePoolProperty.ELASTIC)
+                : EnumSet.noneOf(ResourcePoolProperty.class);
+        return pool;
+    }
+
+    private ComputeState compute(String link, String resourcePoolLink, String descriptionLink) {
+        ComputeState compute = new ComputeState();
+        compute.documentSelfLink = link;
+        compute.documentKind = Utils.buildKind(ComputeState.class);
+        compute.documentUpdateTimeMicros = ++this.updateTimeMicros;
+        compute.resourcePoolLink = resourcePoolLink;
+        compute.descriptionLink = descriptionLink;
+        return compute;
+    }
+}
@@ -56,6 +56,7 @@ public class StatsAggregationTaskServiceTest extends BaseModelTest {
         this.host.waitForServiceAvailable(StatsCollectionTaskService.FACTORY_LINK);
         this.host.waitForServiceAvailable(SingleResourceStatsAggregationTaskService.FACTORY_LINK);
         this.host.waitForServiceAvailable(StatsAggregationTaskService.FACTORY_LINK);
+        this.host.waitForServiceAvailable(BatchStatsAggregationTaskService.FACTORY_LINK);
         this.host.waitForServiceAvailable(MockStatsAdapter.SELF_LINK);
     }
 
@@ -81,11 +82,18 @@ public class StatsAggregationTaskServiceTest extends BaseModelTest {
 
     @Test
     public void verifyStatsAggregation() throws Throwable {
-        this.testStatsAggregation(false);
-        this.testStatsAggregation(true);
+        this.testStatsAggregation(false, false);
+        this.testStatsAggregation(true, false);
     }
 
-    private void testStatsAggregation(boolean testOnCluster) throws Throwable {
+    @Test
+    public void verifyBatchStatsAggregation() throws Throwable {
+        this.testStatsAggregation(false, true);
+        this.testStatsAggregation(true, true);
+    }
+
+    private void testStatsAggregation(boolean testOnCluster, boolean batchAggregation)
+            throws Throwable {
         VerificationHost metricHost = null;
         if (testOnCluster) {
             metricHost = this.setupMetricHost();
@@ -123,6 +131,7 @@ public class StatsAggregationTaskServiceTest extends BaseModelTest {
                 .addFieldClause(ComputeState.FIELD_NAME_RESOURCE_POOL_LINK, rpReturnState.documentSelfLink).build();
         aggregationTaskState.query =  taskQuery;
         aggregationTaskState.metricNames = Collections.singleton(MockStatsAdapter.KEY_1);
+        aggregationTaskState.batchAggregation = batchAggregation;
         aggregationTaskState.taskInfo = TaskState.createDirect();
         postServiceSynchronously(
                 StatsAggregationTaskService.FACTORY_LINK, aggregationTaskState,
@@ -150,6 +159,7 @@ public class StatsAggregationTaskServiceTest extends BaseModelTest {
         aggregationTaskState = new StatsAggregationTaskState();
         aggregationTaskState.query =  taskQuery;
         aggregationTaskState.metricNames = Collections.singleton(MockStatsAdapter.KEY_1);
+        aggregationTaskState.batchAggregation = batchAggregation;
         aggregationTaskState.taskInfo = TaskState.createDirect();
         postServiceSynchronously(StatsAggregationTaskService.FACTORY_LINK, aggregationTaskState,
                 StatsAggregationTaskState.class);
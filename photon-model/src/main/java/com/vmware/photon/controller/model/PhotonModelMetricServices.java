@@ -14,9 +14,11 @@
 package com.vmware.photon.controller.model;
 
 import static com.vmware.photon.controller.model.util.StartServicesHelper.ServiceMetadata.factoryService;
+import static com.vmware.photon.controller.model.util.StartServicesHelper.ServiceMetadata.service;
 
 import java.util.List;
 
+import com.vmware.photon.controller.model.monitoring.ColumnarResourceMetricsService;
 import com.vmware.photon.controller.model.monitoring.ResourceMetricsService;
 import com.vmware.photon.controller.model.resources.util.PhotonModelUtils;
 import com.vmware.photon.controller.model.util.StartServicesHelper;
@@ -34,7 +36,8 @@ import com.vmware.xenon.common.UriUtils;
 public class PhotonModelMetricServices {
 
     public static final ServiceMetadata[] SERVICES_METADATA = {
-            factoryService(ResourceMetricsService.class, ResourceMetricsService::createFactory)
+            factoryService(ResourceMetricsService.class, ResourceMetricsService::createFactory),
+            service(ColumnarResourceMetricsService.class)
     };
 
     public static final String[] LINKS = StartServicesHelper.getServiceLinks(SERVICES_METADATA);
@@ -0,0 +1,633 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.monitoring;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.vmware.xenon.common.ServiceStats.TimeSeriesStats.TimeBin;
+
+/**
+ * Columnar storage engine for raw resource metrics.
+ *
+ * <p>
+ * Samples are kept per resource and metric name. Recent samples of a series are buffered in
+ * primitive arrays; once a buffer fills up, crosses a partition boundary or {@link #flush()} is
+ * called, it is sealed into a block compressed with {@link TimeSeriesBlockCodec} and appended to
+ * the segment file of its time partition. Range scans read only the blocks overlapping the
+ * requested range with positional reads, so they are served from the page cache without going
+ * through the document index, and segment files are not limited in size.
+ *
+ * <p>
+ * The block index is held in memory and rebuilt from the segment files when the store is opened.
+ * Buffered samples that were not flushed yet are lost if the process dies.
+ */
+public class ColumnarMetricsStore implements Closeable {
+
+    public static final long DEFAULT_PARTITION_DURATION_MICROS = TimeUnit.DAYS.toMicros(1);
+    public static final int DEFAULT_MAX_SAMPLES_PER_BLOCK = 256;
+
+    private static final String SEGMENT_FILE_PREFIX = "segment-";
+    private static final String SEGMENT_FILE_SUFFIX = ".dat";
+    private static final int BLOCK_MAGIC = 0x50544D42;
+    // magic + 2 string lengths + minTs + maxTs + count + payload length
+    private static final int BLOCK_FIXED_HEADER_BYTES = 4 + 2 + 2 + 8 + 8 + 4 + 4;
+    private static final int LOAD_BUFFER_BYTES = 64 * 1024;
+
+    /**
+     * Samples of a single metric, ordered by timestamp.
+     */
+    public static class DataPoints {
+        public final long[] timestamps;
+        public final double[] values;
+        public final int size;
+
+        DataPoints(long[] timestamps, double[] values, int size) {
+            this.timestamps = timestamps;
+            this.values = values;
+            this.size = size;
+        }
+    }
+
+    private static class BlockRef {
+        final Segment segment;
+        final long payloadOffset;
+        final int payloadLength;
+        final int count;
+        final long minTimestamp;
+        final long maxTimestamp;
+
+        BlockRef(Segment segment, long payloadOffset, int payloadLength, int count,
+                long minTimestamp, long maxTimestamp) {
+            this.segment = segment;
+            this.payloadOffset = payloadOffset;
+            this.payloadLength = payloadLength;
+            this.count = count;
+            this.minTimestamp = minTimestamp;
+            this.maxTimestamp = maxTimestamp;
+        }
+    }
+
+    private static class Series {
+        final List<BlockRef> blocks = new ArrayList<>();
+        long[] headTimestamps;
+        double[] headValues;
+        int headCount;
+        long headPartition;
+
+        Series(int capacity) {
+            this.headTimestamps = new long[capacity];
+            this.headValues = new double[capacity];
+        }
+    }
+
+    private static class Segment implements Closeable {
+        final long partition;
+        final Path path;
+        final FileChannel channel;
+        long size;
+
+        Segment(long partition, Path path) throws IOException {
+            this.partition = partition;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.size = this.channel.size();
+        }
+
+        long append(ByteBuffer record) throws IOException {
+            long offset = this.size;
+            while (record.hasRemaining()) {
+                this.size += this.channel.write(record, this.size);
+            }
+            return offset;
+        }
+
+        byte[] read(long offset, int length) throws IOException {
+            // positional reads do not move the channel position and may run concurrently
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (this.channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new EOFException(String.format("Block at %d of %s is truncated",
+                            offset, this.path));
+                }
+            }
+            return buffer.array();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+    }
+
+    private final Path directory;
+    private final long partitionDurationMicros;
+    private final int maxSamplesPerBlock;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Map<String, Series>> seriesByResource = new HashMap<>();
+    private final SortedMap<Long, Segment> segments = new TreeMap<>();
+    private long sampleCount;
+
+    private ColumnarMetricsStore(Path directory, long partitionDurationMicros,
+            int maxSamplesPerBlock) {
+        this.directory = directory;
+        this.partitionDurationMicros = partitionDurationMicros;
+        this.maxSamplesPerBlock = maxSamplesPerBlock;
+    }
+
+    /**
+     * Opens (or creates) a store in the given directory with the default partitioning.
+     */
+    public static ColumnarMetricsStore open(Path directory) throws IOException {
+        return open(directory, DEFAULT_PARTITION_DURATION_MICROS, DEFAULT_MAX_SAMPLES_PER_BLOCK);
+    }
+
+    /**
+     * Opens (or creates) a store in the given directory and rebuilds the block index from the
+     * existing segment files.
+     */
+    public static ColumnarMetricsStore open(Path directory, long partitionDurationMicros,
+            int maxSamplesPerBlock) throws IOException {
+        if (partitionDurationMicros <= 0) {
+            throw new IllegalArgumentException("partitionDurationMicros must be positive");
+        }
+        if (maxSamplesPerBlock <= 1) {
+            throw new IllegalArgumentException("maxSamplesPerBlock must be greater than 1");
+        }
+        Files.createDirectories(directory);
+        ColumnarMetricsStore store = new ColumnarMetricsStore(directory, partitionDurationMicros,
+                maxSamplesPerBlock);
+        store.loadSegments();
+        return store;
+    }
+
+    /**
+     * Appends one sample per metric for the given resource.
+     */
+    public void append(String resourceLink, long timestampMicros, Map<String, Double> entries)
+            throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            Map<String, Series> seriesByMetric = this.seriesByResource
+                    .computeIfAbsent(resourceLink, k -> new HashMap<>());
+            long partition = partitionOf(timestampMicros);
+            for (Entry<String, Double> entry : entries.entrySet()) {
+                if (entry.getValue() == null || Double.isNaN(entry.getValue())) {
+                    continue;
+                }
+                Series series = seriesByMetric.computeIfAbsent(entry.getKey(),
+                        k -> new Series(this.maxSamplesPerBlock));
+                if (series.headCount > 0 && (series.headPartition != partition
+                        || series.headCount == this.maxSamplesPerBlock)) {
+                    seal(resourceLink, entry.getKey(), series);
+                }
+                series.headPartition = partition;
+                series.headTimestamps[series.headCount] = timestampMicros;
+                series.headValues[series.headCount] = entry.getValue();
+                series.headCount++;
+                this.sampleCount++;
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the samples of a metric within [startMicros, endMicros]. {@code null} bounds are
+     * open.
+     */
+    public DataPoints rangeScan(String resourceLink, String metricName, Long startMicros,
+            Long endMicros) throws IOException {
+        long start = startMicros == null ? Long.MIN_VALUE : startMicros;
+        long end = endMicros == null ? Long.MAX_VALUE : endMicros;
+
+        this.lock.readLock().lock();
+        try {
+            Series series = getSeries(resourceLink, metricName);
+            if (series == null) {
+                return new DataPoints(new long[0], new double[0], 0);
+            }
+
+            long[] timestamps = new long[16];
+            double[] values = new double[16];
+            int size = 0;
+            long[] blockTimestamps = new long[this.maxSamplesPerBlock];
+            double[] blockValues = new double[this.maxSamplesPerBlock];
+
+            for (BlockRef block : series.blocks) {
+                if (block.maxTimestamp < start || block.minTimestamp > end) {
+                    continue;
+                }
+                if (blockTimestamps.length < block.count) {
+                    blockTimestamps = new long[block.count];
+                    blockValues = new double[block.count];
+                }
+                byte[] payload = block.segment.read(block.payloadOffset, block.payloadLength);
+                TimeSeriesBlockCodec.decode(payload, block.count, blockTimestamps, blockValues);
+                for (int i = 0; i < block.count; i++) {
+                    if (blockTimestamps[i] < start || blockTimestamps[i] > end) {
+                        continue;
+                    }
+                    if (size == timestamps.length) {
+                        timestamps = Arrays.copyOf(timestamps, size * 2);
+                        values = Arrays.copyOf(values, size * 2);
+                    }
+                    timestamps[size] = blockTimestamps[i];
+                    values[size] = blockValues[i];
+                    size++;
+                }
+            }
+            for (int i = 0; i < series.headCount; i++) {
+                if (series.headTimestamps[i] < start || series.headTimestamps[i] > end) {
+                    continue;
+                }
+                if (size == timestamps.length) {
+                    timestamps = Arrays.copyOf(timestamps, size * 2);
+                    values = Arrays.copyOf(values, size * 2);
+                }
+                timestamps[size] = series.headTimestamps[i];
+                values[size] = series.headValues[i];
+                size++;
+            }
+            sortByTimestamp(timestamps, values, size);
+            return new DataPoints(timestamps, values, size);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the most recent sample of a metric, or {@code null} if there is none.
+     */
+    public Long getLatestTimestamp(String resourceLink, String metricName) {
+        this.lock.readLock().lock();
+        try {
+            Series series = getSeries(resourceLink, metricName);
+            if (series == null) {
+                return null;
+            }
+            Long latest = null;
+            for (BlockRef block : series.blocks) {
+                if (latest == null || block.maxTimestamp > latest) {
+                    latest = block.maxTimestamp;
+                }
+            }
+            for (int i = 0; i < series.headCount; i++) {
+                if (latest == null || series.headTimestamps[i] > latest) {
+                    latest = series.headTimestamps[i];
+                }
+            }
+            return latest;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Aggregates the samples of a metric within [startMicros, endMicros] into bins of
+     * {@code bucketDurationMicros}. Bins are keyed by the bucket start time in microseconds.
+     */
+    public SortedMap<Long, TimeBin> downsample(String resourceLink, String metricName,
+            Long startMicros, Long endMicros, long bucketDurationMicros) throws IOException {
+        if (bucketDurationMicros <= 0) {
+            throw new IllegalArgumentException("bucketDurationMicros must be positive");
+        }
+        DataPoints points = rangeScan(resourceLink, metricName, startMicros, endMicros);
+        SortedMap<Long, TimeBin> bins = new TreeMap<>();
+        TimeBin bin = null;
+        long binKey = 0;
+        for (int i = 0; i < points.size; i++) {
+            long key = Math.floorDiv(points.timestamps[i], bucketDurationMicros)
+                    * bucketDurationMicros;
+            if (bin == null || key != binKey) {
+                bin = new TimeBin();
+                bin.min = points.values[i];
+                bin.max = points.values[i];
+                binKey = key;
+                bins.put(binKey, bin);
+            }
+            double value = points.values[i];
+            bin.count++;
+            bin.sum = (bin.sum == null ? 0 : bin.sum) + value;
+            bin.avg = bin.sum / bin.count;
+            bin.min = Math.min(bin.min, value);
+            bin.max = Math.max(bin.max, value);
+            bin.latest = value;
+        }
+        return bins;
+    }
+
+    /**
+     * Returns the names of the metrics stored for the given resource.
+     */
+    public Set<String> getMetricNames(String resourceLink) {
+        this.lock.readLock().lock();
+        try {
+            Map<String, Series> seriesByMetric = this.seriesByResource.get(resourceLink);
+            return seriesByMetric == null ? new HashSet<>()
+                    : new HashSet<>(seriesByMetric.keySet());
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Seals all buffered samples into blocks and forces the segment files to disk.
+     */
+    public void flush() throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            for (Entry<String, Map<String, Series>> resource : this.seriesByResource.entrySet()) {
+                for (Entry<String, Series> metric : resource.getValue().entrySet()) {
+                    if (metric.getValue().headCount > 0) {
+                        seal(resource.getKey(), metric.getKey(), metric.getValue());
+                    }
+                }
+            }
+            for (Segment segment : this.segments.values()) {
+                segment.channel.force(false);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Deletes all partitions that end before the given time.
+     *
+     * @return number of deleted segment files
+     */
+    public int deletePartitionsBefore(long timestampMicros) throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            long lastExpiredPartition = partitionOf(timestampMicros) - 1;
+            SortedMap<Long, Segment> expired = new TreeMap<>(
+                    this.segments.headMap(lastExpiredPartition + 1));
+            if (expired.isEmpty()) {
+                return 0;
+            }
+            for (Map<String, Series> seriesByMetric : this.seriesByResource.values()) {
+                for (Series series : seriesByMetric.values()) {
+                    series.blocks.removeIf(b -> b.segment.partition <= lastExpiredPartition);
+                    if (series.headCount > 0 && series.headPartition <= lastExpiredPartition) {
+                        series.headCount = 0;
+                    }
+                }
+                seriesByMetric.values()
+                        .removeIf(s -> s.blocks.isEmpty() && s.headCount == 0);
+            }
+            this.seriesByResource.values().removeIf(Map::isEmpty);
+            for (Segment segment : expired.values()) {
+                this.segments.remove(segment.partition);
+                segment.close();
+                Files.deleteIfExists(segment.path);
+            }
+            this.sampleCount = countSamples();
+            return expired.size();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the total size of all segment files.
+     */
+    public long getDiskFootprintBytes() {
+        this.lock.readLock().lock();
+        try {
+            long size = 0;
+            for (Segment segment : this.segments.values()) {
+                size += segment.size;
+            }
+            return size;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of samples held by the store, including buffered ones.
+     */
+    public long getSampleCount() {
+        this.lock.readLock().lock();
+        try {
+            return this.sampleCount;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        this.lock.writeLock().lock();
+        try {
+            for (Segment segment : this.segments.values()) {
+                segment.close();
+            }
+            this.segments.clear();
+            this.seriesByResource.clear();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private long partitionOf(long timestampMicros) {
+        return Math.floorDiv(timestampMicros, this.partitionDurationMicros);
+    }
+
+    private Series getSeries(String resourceLink, String metricName) {
+        Map<String, Series> seriesByMetric = this.seriesByResource.get(resourceLink);
+        return seriesByMetric == null ? null : seriesByMetric.get(metricName);
+    }
+
+    private long countSamples() {
+        long count = 0;
+        for (Map<String, Series> seriesByMetric : this.seriesByResource.values()) {
+            for (Series series : seriesByMetric.values()) {
+                count += series.headCount;
+                for (BlockRef block : series.blocks) {
+                    count += block.count;
+                }
+            }
+        }
+        return count;
+    }
+
+    private void seal(String resourceLink, String metricName, Series series) throws IOException {
+        long minTimestamp = Long.MAX_VALUE;
+        long maxTimestamp = Long.MIN_VALUE;
+        for (int i = 0; i < series.headCount; i++) {
+            minTimestamp = Math.min(minTimestamp, series.headTimestamps[i]);
+            maxTimestamp = Math.max(maxTimestamp, series.headTimestamps[i]);
+        }
+        byte[] payload = TimeSeriesBlockCodec.encode(series.headTimestamps, series.headValues,
+                series.headCount);
+        byte[] resourceBytes = resourceLink.getBytes(StandardCharsets.UTF_8);
+        byte[] metricBytes = metricName.getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer record = ByteBuffer.allocate(BLOCK_FIXED_HEADER_BYTES + resourceBytes.length
+                + metricBytes.length + payload.length);
+        record.putInt(BLOCK_MAGIC);
+        record.putShort((short) resourceBytes.length);
+        record.put(resourceBytes);
+        record.putShort((short) metricBytes.length);
+        record.put(metricBytes);
+        record.putLong(minTimestamp);
+        record.putLong(maxTimestamp);
+        record.putInt(series.headCount);
+        record.putInt(payload.length);
+        int headerLength = record.position();
+        record.put(payload);
+        record.flip();
+
+        Segment segment = getOrCreateSegment(series.headPartition);
+        long offset = segment.append(record);
+        series.blocks.add(new BlockRef(segment, offset + headerLength, payload.length,
+                series.headCount, minTimestamp, maxTimestamp));
+        series.headCount = 0;
+    }
+
+    private Segment getOrCreateSegment(long partition) throws IOException {
+        Segment segment = this.segments.get(partition);
+        if (segment == null) {
+            Path path = this.directory.resolve(SEGMENT_FILE_PREFIX
+                    + (partition * this.partitionDurationMicros) + SEGMENT_FILE_SUFFIX);
+            segment = new Segment(partition, path);
+            this.segments.put(partition, segment);
+        }
+        return segment;
+    }
+
+    private void loadSegments() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory,
+                SEGMENT_FILE_PREFIX + "*" + SEGMENT_FILE_SUFFIX)) {
+            for (Path path : files) {
+                String name = path.getFileName().toString();
+                long partitionStart = Long.parseLong(name.substring(SEGMENT_FILE_PREFIX.length(),
+                        name.length() - SEGMENT_FILE_SUFFIX.length()));
+                Segment segment = new Segment(partitionOf(partitionStart), path);
+                this.segments.put(segment.partition, segment);
+                loadBlocks(segment);
+            }
+        }
+        for (Map<String, Series> seriesByMetric : this.seriesByResource.values()) {
+            for (Series series : seriesByMetric.values()) {
+                series.blocks.sort((a, b) -> Long.compare(a.minTimestamp, b.minTimestamp));
+            }
+        }
+        this.sampleCount = countSamples();
+    }
+
+    private void loadBlocks(Segment segment) throws IOException {
+        if (segment.size == 0) {
+            return;
+        }
+        // the stream is not closed, as that would close the channel of the segment
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(segment.channel.position(0)), LOAD_BUFFER_BYTES));
+        long position = 0;
+        while (segment.size - position >= BLOCK_FIXED_HEADER_BYTES) {
+            if (in.readInt() != BLOCK_MAGIC) {
+                break;
+            }
+            int resourceLength = in.readUnsignedShort();
+            if (segment.size - position < BLOCK_FIXED_HEADER_BYTES + resourceLength) {
+                break;
+            }
+            String resourceLink = readString(in, resourceLength);
+            int metricLength = in.readUnsignedShort();
+            long headerLength = BLOCK_FIXED_HEADER_BYTES + resourceLength + metricLength;
+            if (segment.size - position < headerLength) {
+                break;
+            }
+            String metricName = readString(in, metricLength);
+            long minTimestamp = in.readLong();
+            long maxTimestamp = in.readLong();
+            int count = in.readInt();
+            int payloadLength = in.readInt();
+            if (payloadLength < 0 || segment.size - position - headerLength < payloadLength
+                    || in.skipBytes(payloadLength) != payloadLength) {
+                break;
+            }
+            long payloadOffset = position + headerLength;
+            position = payloadOffset + payloadLength;
+
+            Series series = this.seriesByResource
+                    .computeIfAbsent(resourceLink, k -> new HashMap<>())
+                    .computeIfAbsent(metricName, k -> new Series(this.maxSamplesPerBlock));
+            series.blocks.add(new BlockRef(segment, payloadOffset, payloadLength, count,
+                    minTimestamp, maxTimestamp));
+        }
+        if (position < segment.size) {
+            // drop a partially written trailing record
+            segment.channel.truncate(position);
+            segment.size = position;
+        }
+    }
+
+    private static String readString(DataInputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void sortByTimestamp(long[] timestamps, double[] values, int size) {
+        boolean sorted = true;
+        for (int i = 1; i < size && sorted; i++) {
+            sorted = timestamps[i - 1] <= timestamps[i];
+        }
+        if (sorted) {
+            return;
+        }
+        // insertion sort; out of order samples are rare and local
+        for (int i = 1; i < size; i++) {
+            long timestamp = timestamps[i];
+            double value = values[i];
+            int j = i - 1;
+            while (j >= 0 && timestamps[j] > timestamp) {
+                timestamps[j + 1] = timestamps[j];
+                values[j + 1] = values[j];
+                j--;
+            }
+            timestamps[j + 1] = timestamp;
+            values[j + 1] = value;
+        }
+    }
+}
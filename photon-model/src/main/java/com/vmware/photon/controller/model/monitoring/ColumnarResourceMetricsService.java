@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.monitoring;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.vmware.photon.controller.model.UriPaths;
+import com.vmware.photon.controller.model.monitoring.ColumnarMetricsStore.DataPoints;
+import com.vmware.photon.controller.model.monitoring.ResourceMetricsService.ResourceMetrics;
+
+import com.vmware.xenon.common.NodeSelectorService.SelectOwnerResponse;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceStats.TimeSeriesStats.TimeBin;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.ServiceUriPaths;
+
+/**
+ * Service fronting the {@link ColumnarMetricsStore} of the host. Used as the backend for raw
+ * resource metrics when {@link ResourceMetricsService#getStorageMode()} is
+ * {@link ResourceMetricsService.StorageMode#COLUMNAR}.
+ *
+ * <ul>
+ * <li>POST a {@link ResourceMetrics} to append its entries for the resource identified by the
+ * {@link ResourceMetrics#PROPERTY_RESOURCE_LINK} custom property.</li>
+ * <li>PATCH a {@link ColumnarMetricsQuery} to range-scan or downsample stored metrics.</li>
+ * </ul>
+ *
+ * <p>
+ * The store is local to the node, so in a node group all requests are forwarded to the node
+ * owning {@link #SELF_LINK} as selected by the default node selector. When the owner changes
+ * (a node joins or leaves the group), new samples go to the store of the new owner; samples
+ * stored by the previous owner are no longer returned and expire there with the retention limit.
+ */
+public class ColumnarResourceMetricsService extends StatelessService {
+
+    public static final String SELF_LINK = UriPaths.MONITORING + "/columnar-resource-metrics";
+
+    public static final String STORAGE_DIRECTORY_PROPERTY = UriPaths.PROPERTY_PREFIX
+            + "ColumnarResourceMetricsService.storageDirectory";
+
+    public static final String RETENTION_LIMIT_DAYS_PROPERTY = UriPaths.PROPERTY_PREFIX
+            + "ColumnarResourceMetricsService.retentionLimitDays";
+    private static final int DEFAULT_RETENTION_LIMIT_DAYS = 56; // 8*7 (8 weeks)
+
+    private static final long MAINTENANCE_INTERVAL_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    /**
+     * Marks requests forwarded by a non-owner node, so that they are handled by the receiver.
+     */
+    static final String FORWARDED_HEADER = "x-columnar-metrics-forwarded";
+
+    public static final String STAT_NAME_SAMPLES_APPENDED = "samplesAppended";
+    public static final String STAT_NAME_SAMPLE_COUNT = "sampleCount";
+    public static final String STAT_NAME_DISK_FOOTPRINT_BYTES = "diskFootprintBytes";
+    public static final String STAT_NAME_QUERY_COUNT = "queryCount";
+
+    /**
+     * Range-scan or downsample request.
+     */
+    public static class ColumnarMetricsQuery {
+        /**
+         * Resources to query.
+         */
+        public List<String> resourceLinks;
+
+        /**
+         * Metrics to return. All metrics of a resource are returned if not set.
+         */
+        public Set<String> metricNames;
+
+        /**
+         * Inclusive lower bound; open if not set.
+         */
+        public Long startTimeMicros;
+
+        /**
+         * Inclusive upper bound; open if not set.
+         */
+        public Long endTimeMicros;
+
+        /**
+         * If set, samples are aggregated in bins of this size and returned in
+         * {@link ColumnarMetricsQueryResult#bins} instead of {@link ColumnarMetricsQueryResult#points}.
+         */
+        public Long bucketDurationMicros;
+
+        /**
+         * Return only the timestamp of the most recent sample for every metric.
+         */
+        public boolean latestOnly;
+    }
+
+    /**
+     * Raw samples of a single metric.
+     */
+    public static class MetricPoints {
+        public long[] timestampsMicros;
+        public double[] values;
+    }
+
+    public static class ColumnarMetricsQueryResult {
+        /**
+         * Resource link -> metric name -> samples.
+         */
+        public Map<String, Map<String, MetricPoints>> points;
+
+        /**
+         * Resource link -> metric name -> bucket start time -> aggregated bin.
+         */
+        public Map<String, Map<String, SortedMap<Long, TimeBin>>> bins;
+
+        /**
+         * Resource link -> metric name -> latest sample time.
+         */
+        public Map<String, Map<String, Long>> latestTimestamps;
+    }
+
+    private ColumnarMetricsStore store;
+
+    public ColumnarResourceMetricsService() {
+        super.toggleOption(ServiceOption.INSTRUMENTATION, true);
+        super.toggleOption(ServiceOption.PERIODIC_MAINTENANCE, true);
+        super.setMaintenanceIntervalMicros(MAINTENANCE_INTERVAL_MICROS);
+    }
+
+    @Override
+    public void handleStart(Operation start) {
+        try {
+            String directory = System.getProperty(STORAGE_DIRECTORY_PROPERTY);
+            Path storePath = directory != null ? Paths.get(directory)
+                    : Paths.get(getHost().getStorageSandbox()).resolve("columnar-metrics");
+            this.store = ColumnarMetricsStore.open(storePath);
+            start.complete();
+        } catch (Throwable t) {
+            start.fail(t);
+        }
+    }
+
+    @Override
+    public void handleStop(Operation stop) {
+        try {
+            if (this.store != null) {
+                this.store.close();
+            }
+        } catch (Throwable t) {
+            logWarning(() -> String.format("Failed to close columnar metrics store: %s",
+                    Utils.toString(t)));
+        }
+        super.handleStop(stop);
+    }
+
+    @Override
+    public void handlePost(Operation post) {
+        handleOnOwner(post, this::handleLocalPost);
+    }
+
+    @Override
+    public void handlePatch(Operation patch) {
+        handleOnOwner(patch, this::handleLocalPatch);
+    }
+
+    private void handleOnOwner(Operation op, Consumer<Operation> localHandler) {
+        if (op.getRequestHeader(FORWARDED_HEADER) != null) {
+            localHandler.accept(op);
+            return;
+        }
+        Operation selectOp = Operation.createPost(null)
+                .setExpiration(op.getExpirationMicrosUtc())
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        op.fail(e);
+                        return;
+                    }
+                    SelectOwnerResponse response = o.getBody(SelectOwnerResponse.class);
+                    if (response.isLocalHostOwner) {
+                        localHandler.accept(op);
+                    } else {
+                        forward(op, response.ownerNodeReference);
+                    }
+                });
+        getHost().selectOwner(ServiceUriPaths.DEFAULT_NODE_SELECTOR, SELF_LINK, selectOp);
+    }
+
+    private void forward(Operation op, URI ownerNodeReference) {
+        Operation forwardOp = Operation.createPost(
+                UriUtils.buildUri(ownerNodeReference, SELF_LINK))
+                .setAction(op.getAction())
+                .setBody(op.getBodyRaw())
+                .setExpiration(op.getExpirationMicrosUtc())
+                .addRequestHeader(FORWARDED_HEADER, Boolean.TRUE.toString())
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        op.fail(e);
+                        return;
+                    }
+                    op.setBodyNoCloning(o.getBodyRaw()).complete();
+                });
+        sendRequest(forwardOp);
+    }
+
+    private void handleLocalPost(Operation post) {
+        if (!post.hasBody()) {
+            post.fail(new IllegalArgumentException("body is required"));
+            return;
+        }
+        try {
+            ResourceMetrics metrics = post.getBody(ResourceMetrics.class);
+            String resourceLink = metrics.customProperties == null ? null
+                    : metrics.customProperties.get(ResourceMetrics.PROPERTY_RESOURCE_LINK);
+            if (resourceLink == null || metrics.timestampMicrosUtc == null
+                    || metrics.entries == null) {
+                post.fail(new IllegalArgumentException(
+                        "resourceLink, timestampMicrosUtc and entries are required"));
+                return;
+            }
+            this.store.append(resourceLink, metrics.timestampMicrosUtc, metrics.entries);
+            adjustStat(STAT_NAME_SAMPLES_APPENDED, metrics.entries.size());
+            post.complete();
+        } catch (Throwable t) {
+            post.fail(t);
+        }
+    }
+
+    private void handleLocalPatch(Operation patch) {
+        if (!patch.hasBody()) {
+            patch.fail(new IllegalArgumentException("body is required"));
+            return;
+        }
+        try {
+            ColumnarMetricsQuery query = patch.getBody(ColumnarMetricsQuery.class);
+            if (query.resourceLinks == null || query.resourceLinks.isEmpty()) {
+                patch.fail(new IllegalArgumentException("resourceLinks is required"));
+                return;
+            }
+            patch.setBodyNoCloning(executeQuery(query)).complete();
+            adjustStat(STAT_NAME_QUERY_COUNT, 1);
+        } catch (Throwable t) {
+            patch.fail(t);
+        }
+    }
+
+    @Override
+    public void handlePeriodicMaintenance(Operation maintenance) {
+        maintenance.complete();
+        try {
+            this.store.flush();
+            long retentionDays = Integer.getInteger(RETENTION_LIMIT_DAYS_PROPERTY,
+                    DEFAULT_RETENTION_LIMIT_DAYS);
+            this.store.deletePartitionsBefore(
+                    Utils.getNowMicrosUtc() - TimeUnit.DAYS.toMicros(retentionDays));
+            setStat(STAT_NAME_SAMPLE_COUNT, this.store.getSampleCount());
+            setStat(STAT_NAME_DISK_FOOTPRINT_BYTES, this.store.getDiskFootprintBytes());
+        } catch (Throwable t) {
+            logWarning(() -> String.format("Columnar metrics store maintenance failed: %s",
+                    Utils.toString(t)));
+        }
+    }
+
+    private ColumnarMetricsQueryResult executeQuery(ColumnarMetricsQuery query)
+            throws Exception {
+        ColumnarMetricsQueryResult result = new ColumnarMetricsQueryResult();
+        if (query.latestOnly) {
+            result.latestTimestamps = new HashMap<>();
+        } else if (query.bucketDurationMicros != null) {
+            result.bins = new HashMap<>();
+        } else {
+            result.points = new HashMap<>();
+        }
+
+        for (String resourceLink : query.resourceLinks) {
+            Set<String> metricNames = query.metricNames != null ? query.metricNames
+                    : this.store.getMetricNames(resourceLink);
+            for (String metricName : metricNames) {
+                if (query.latestOnly) {
+                    Long latest = this.store.getLatestTimestamp(resourceLink, metricName);
+                    if (latest != null) {
+                        result.latestTimestamps
+                                .computeIfAbsent(resourceLink, k -> new HashMap<>())
+                                .put(metricName, latest);
+                    }
+                } else if (query.bucketDurationMicros != null) {
+                    SortedMap<Long, TimeBin> bins = this.store.downsample(resourceLink,
+                            metricName, query.startTimeMicros, query.endTimeMicros,
+                            query.bucketDurationMicros);
+                    if (!bins.isEmpty()) {
+                        result.bins.computeIfAbsent(resourceLink, k -> new HashMap<>())
+                                .put(metricName, bins);
+                    }
+                } else {
+                    DataPoints dataPoints = this.store.rangeScan(resourceLink, metricName,
+                            query.startTimeMicros, query.endTimeMicros);
+                    if (dataPoints.size > 0) {
+                        MetricPoints points = new MetricPoints();
+                        points.timestampsMicros = Arrays.copyOf(dataPoints.timestamps,
+                                dataPoints.size);
+                        points.values = Arrays.copyOf(dataPoints.values,
+                                dataPoints.size);
+                        result.points.computeIfAbsent(resourceLink, k -> new HashMap<>())
+                                .put(metricName, points);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the store backing this service; exposed for tests and benchmarks.
+     */
+    ColumnarMetricsStore getStore() {
+        return this.store;
+    }
+}
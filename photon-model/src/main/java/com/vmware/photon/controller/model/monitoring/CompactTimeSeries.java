@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.monitoring;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.xenon.common.ServiceStats.TimeSeriesStats;
+import com.vmware.xenon.common.ServiceStats.TimeSeriesStats.AggregationType;
+import com.vmware.xenon.common.ServiceStats.TimeSeriesStats.TimeBin;
+
+/**
+ * Primitive-array counterpart of {@link TimeSeriesStats}: bin keys and aggregates are kept in
+ * parallel {@code long[]}/{@code double[]} arrays sorted by bin key, so adding samples or merging
+ * bins does not allocate boxed map entries. Absent aggregates are stored as {@code NaN}.
+ *
+ * <p>
+ * Bin keys use the same normalization as {@link TimeSeriesStats}: milliseconds, floored to the
+ * bin duration. Instances are not thread safe.
+ */
+public class CompactTimeSeries {
+
+    private final int numBins;
+    private final long binDurationMillis;
+    private final EnumSet<AggregationType> aggregationTypes;
+
+    private final long[] binKeys;
+    private final double[] counts;
+    private final double[] avgs;
+    private final double[] sums;
+    private final double[] mins;
+    private final double[] maxs;
+    private final double[] latests;
+    private int size;
+
+    public CompactTimeSeries(int numBins, long binDurationMillis,
+            EnumSet<AggregationType> aggregationTypes) {
+        if (numBins <= 0) {
+            throw new IllegalArgumentException("numBins must be positive");
+        }
+        this.numBins = numBins;
+        this.binDurationMillis = binDurationMillis;
+        this.aggregationTypes = aggregationTypes;
+        this.binKeys = new long[numBins];
+        this.counts = new double[numBins];
+        this.avgs = new double[numBins];
+        this.sums = new double[numBins];
+        this.mins = new double[numBins];
+        this.maxs = new double[numBins];
+        this.latests = new double[numBins];
+    }
+
+    /**
+     * Creates a compact copy of the given time series.
+     */
+    public static CompactTimeSeries from(TimeSeriesStats stats) {
+        CompactTimeSeries series = new CompactTimeSeries(stats.numBins, stats.binDurationMillis,
+                stats.aggregationType);
+        series.merge(stats);
+        return series;
+    }
+
+    /**
+     * Adds a single sample.
+     */
+    public void add(long timestampMicros, double value) {
+        long key = normalize(timestampMicros);
+        int index = indexFor(key);
+        if (index < 0) {
+            return;
+        }
+        double count = this.counts[index];
+        this.avgs[index] = count == 0 ? value
+                : (this.avgs[index] * count + value) / (count + 1);
+        this.sums[index] = count == 0 ? value : this.sums[index] + value;
+        this.mins[index] = count == 0 ? value : Math.min(this.mins[index], value);
+        this.maxs[index] = count == 0 ? value : Math.max(this.maxs[index], value);
+        this.latests[index] = value;
+        this.counts[index] = count + 1;
+    }
+
+    /**
+     * Merges the bin aggregates of the given time series, see
+     * {@link TimeBinMerger#mergeBin(TimeBin, TimeBin)}.
+     */
+    public void merge(TimeSeriesStats stats) {
+        if (stats.bins == null) {
+            return;
+        }
+        for (Entry<Long, TimeBin> entry : stats.bins.entrySet()) {
+            TimeBin bin = entry.getValue();
+            mergeBin(entry.getKey(), bin.count, valueOf(bin.avg), valueOf(bin.sum),
+                    valueOf(bin.min), valueOf(bin.max), valueOf(bin.latest));
+        }
+    }
+
+    /**
+     * Merges the bin aggregates of another compact time series.
+     */
+    public void merge(CompactTimeSeries other) {
+        for (int i = 0; i < other.size; i++) {
+            mergeBin(other.binKeys[i], other.counts[i], other.avgs[i], other.sums[i],
+                    other.mins[i], other.maxs[i], other.latests[i]);
+        }
+    }
+
+    /**
+     * Materializes this series as a {@link TimeSeriesStats}, tracking only the configured
+     * aggregation types.
+     */
+    public TimeSeriesStats toTimeSeriesStats() {
+        TimeSeriesStats stats = new TimeSeriesStats(this.numBins, this.binDurationMillis,
+                this.aggregationTypes);
+        for (int i = 0; i < this.size; i++) {
+            TimeBin bin = new TimeBin();
+            bin.count = this.counts[i];
+            if (this.aggregationTypes.contains(AggregationType.AVG)) {
+                bin.avg = boxed(this.avgs[i]);
+            }
+            if (this.aggregationTypes.contains(AggregationType.SUM)) {
+                bin.sum = boxed(this.sums[i]);
+            }
+            if (this.aggregationTypes.contains(AggregationType.MIN)) {
+                bin.min = boxed(this.mins[i]);
+            }
+            if (this.aggregationTypes.contains(AggregationType.MAX)) {
+                bin.max = boxed(this.maxs[i]);
+            }
+            if (this.aggregationTypes.contains(AggregationType.LATEST)) {
+                bin.latest = boxed(this.latests[i]);
+            }
+            stats.bins.put(this.binKeys[i], bin);
+        }
+        return stats;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public long getBinKey(int index) {
+        return this.binKeys[index];
+    }
+
+    public double getCount(int index) {
+        return this.counts[index];
+    }
+
+    public double getAvg(int index) {
+        return this.avgs[index];
+    }
+
+    private void mergeBin(long key, double count, double avg, double sum, double min, double max,
+            double latest) {
+        if (count == 0) {
+            return;
+        }
+        int index = indexFor(key);
+        if (index < 0) {
+            return;
+        }
+        double currentCount = this.counts[index];
+        if (currentCount == 0) {
+            this.avgs[index] = avg;
+            this.sums[index] = sum;
+            this.mins[index] = min;
+            this.maxs[index] = max;
+            this.latests[index] = latest;
+            this.counts[index] = count;
+            return;
+        }
+        if (!Double.isNaN(avg)) {
+            this.avgs[index] = Double.isNaN(this.avgs[index]) ? avg
+                    : (this.avgs[index] * currentCount + avg * count) / (currentCount + count);
+        }
+        if (!Double.isNaN(sum)) {
+            this.sums[index] = Double.isNaN(this.sums[index]) ? sum : this.sums[index] + sum;
+        }
+        if (!Double.isNaN(min) && (Double.isNaN(this.mins[index]) || min < this.mins[index])) {
+            this.mins[index] = min;
+        }
+        if (!Double.isNaN(max) && (Double.isNaN(this.maxs[index]) || max > this.maxs[index])) {
+            this.maxs[index] = max;
+        }
+        if (!Double.isNaN(latest)) {
+            this.latests[index] = latest;
+        }
+        this.counts[index] = currentCount + count;
+    }
+
+    /**
+     * Returns the slot of the given bin, inserting an empty one if needed, or -1 if the bin is
+     * older than all retained bins and the series is full.
+     */
+    private int indexFor(long key) {
+        int index = Arrays.binarySearch(this.binKeys, 0, this.size, key);
+        if (index >= 0) {
+            return index;
+        }
+        int insertion = -index - 1;
+        if (this.size == this.numBins) {
+            if (insertion == 0) {
+                return -1;
+            }
+            // evict the oldest bin
+            shift(1, 0, insertion - 1);
+            insertion--;
+        } else {
+            shift(insertion, insertion + 1, this.size - insertion);
+            this.size++;
+        }
+        this.binKeys[insertion] = key;
+        this.counts[insertion] = 0;
+        this.avgs[insertion] = Double.NaN;
+        this.sums[insertion] = Double.NaN;
+        this.mins[insertion] = Double.NaN;
+        this.maxs[insertion] = Double.NaN;
+        this.latests[insertion] = Double.NaN;
+        return insertion;
+    }
+
+    private void shift(int from, int to, int length) {
+        if (length <= 0) {
+            return;
+        }
+        System.arraycopy(this.binKeys, from, this.binKeys, to, length);
+        System.arraycopy(this.counts, from, this.counts, to, length);
+        System.arraycopy(this.avgs, from, this.avgs, to, length);
+        System.arraycopy(this.sums, from, this.sums, to, length);
+        System.arraycopy(this.mins, from, this.mins, to, length);
+        System.arraycopy(this.maxs, from, this.maxs, to, length);
+        System.arraycopy(this.latests, from, this.latests, to, length);
+    }
+
+    private long normalize(long timestampMicros) {
+        long timeMillis = TimeUnit.MICROSECONDS.toMillis(timestampMicros);
+        return timeMillis - (timeMillis % this.binDurationMillis);
+    }
+
+    private static double valueOf(Double value) {
+        return value == null ? Double.NaN : value;
+    }
+
+    private static Double boxed(double value) {
+        return Double.isNaN(value) ? null : value;
+    }
+}
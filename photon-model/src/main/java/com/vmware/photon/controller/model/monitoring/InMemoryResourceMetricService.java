@@ -15,14 +15,12 @@ package com.vmware.photon.controller.model.monitoring;
 
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.TimeUnit;
 
 import com.vmware.photon.controller.model.UriPaths;
 import com.vmware.xenon.common.FactoryService;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.ServiceDocument;
 import com.vmware.xenon.common.ServiceStats.TimeSeriesStats;
-import com.vmware.xenon.common.ServiceStats.TimeSeriesStats.TimeBin;
 import com.vmware.xenon.common.StatefulService;
 
 /**
@@ -55,22 +53,20 @@ public class InMemoryResourceMetricService extends StatefulService {
     public void handlePut(Operation put) {
         if (!put.hasBody()) {
             put.fail(new IllegalArgumentException("body is required"));
+            return;
         }
 
         try {
             InMemoryResourceMetric currentState = getState(put);
             InMemoryResourceMetric updatedState = getBody(put);
-            // merge the state
+            // merge the bin aggregates; the incoming bins are combined with the current ones
+            // instead of replaying every sample they represent
             for (Entry<String, TimeSeriesStats> tsStats : updatedState.timeSeriesStats.entrySet()) {
                 TimeSeriesStats currentStats = currentState.timeSeriesStats.get(tsStats.getKey());
                 if (currentStats == null) {
                     currentState.timeSeriesStats.put(tsStats.getKey(), tsStats.getValue());
                 } else {
-                    for (Entry<Long, TimeBin> bin : tsStats.getValue().bins.entrySet()) {
-                        for (int i = 0; i < bin.getValue().count; i++) {
-                            currentStats.add(TimeUnit.MILLISECONDS.toMicros(bin.getKey()), bin.getValue().avg, bin.getValue().avg);
-                        }
-                    }
+                    TimeBinMerger.merge(currentStats, tsStats.getValue());
                 }
             }
             setState(put, currentState);
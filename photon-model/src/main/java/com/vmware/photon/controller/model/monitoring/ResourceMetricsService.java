@@ -33,6 +33,38 @@ public class ResourceMetricsService extends StatefulService {
 
     public static final String FACTORY_LINK = UriPaths.MONITORING + "/resource-metrics";
 
+    public static final String STORAGE_MODE_PROPERTY = UriPaths.PROPERTY_PREFIX
+            + "ResourceMetricsService.storageMode";
+
+    /**
+     * Storage backend for raw resource metrics.
+     */
+    public enum StorageMode {
+        /**
+         * Every sample is stored as an immutable, indexed {@link ResourceMetrics} document.
+         */
+        DOCUMENT,
+
+        /**
+         * Samples are appended to compressed column blocks through
+         * {@link ColumnarResourceMetricsService}. Aggregate (rolled up) metrics are still stored
+         * as {@link ResourceMetrics} documents.
+         */
+        COLUMNAR
+    }
+
+    /**
+     * Returns the configured storage mode for raw metrics; defaults to
+     * {@link StorageMode#DOCUMENT}.
+     */
+    public static StorageMode getStorageMode() {
+        String mode = System.getProperty(STORAGE_MODE_PROPERTY);
+        if (mode == null) {
+            return StorageMode.DOCUMENT;
+        }
+        return StorageMode.valueOf(mode.toUpperCase());
+    }
+
     public static FactoryService createFactory() {
         return FactoryService.createIdempotent(ResourceMetricsService.class);
     }
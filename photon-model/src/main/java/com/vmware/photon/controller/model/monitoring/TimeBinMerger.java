@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.monitoring;
+
+import java.util.Map.Entry;
+
+import com.vmware.xenon.common.ServiceStats.TimeSeriesStats;
+import com.vmware.xenon.common.ServiceStats.TimeSeriesStats.TimeBin;
+
+/**
+ * Merges {@link TimeSeriesStats} by combining the aggregates of matching bins, in O(bins) and
+ * without replaying the individual samples.
+ */
+public class TimeBinMerger {
+
+    private TimeBinMerger() {
+    }
+
+    /**
+     * Merges all bins of {@code source} into {@code target}. Bins that exist in both are combined,
+     * the others are copied. The oldest bins are dropped if {@code target} ends up with more than
+     * {@link TimeSeriesStats#numBins} bins.
+     */
+    public static void merge(TimeSeriesStats target, TimeSeriesStats source) {
+        if (source.bins == null || source.bins.isEmpty()) {
+            return;
+        }
+        for (Entry<Long, TimeBin> sourceBin : source.bins.entrySet()) {
+            TimeBin targetBin = target.bins.get(sourceBin.getKey());
+            if (targetBin == null) {
+                target.bins.put(sourceBin.getKey(), sourceBin.getValue());
+            } else {
+                mergeBin(targetBin, sourceBin.getValue());
+            }
+        }
+        if (target.numBins > 0) {
+            while (target.bins.size() > target.numBins) {
+                target.bins.remove(target.bins.firstKey());
+            }
+        }
+    }
+
+    /**
+     * Combines the aggregates of {@code source} into {@code target}. {@code source} is treated as
+     * the more recent one, so its latest value wins. Aggregates that are not tracked ({@code null})
+     * on one side are taken from the other.
+     */
+    public static void mergeBin(TimeBin target, TimeBin source) {
+        if (source.count == 0) {
+            return;
+        }
+        if (source.avg != null) {
+            target.avg = target.avg == null || target.count == 0 ? source.avg
+                    : (target.avg * target.count + source.avg * source.count)
+                            / (target.count + source.count);
+        }
+        if (source.sum != null) {
+            target.sum = target.sum == null ? source.sum : target.sum + source.sum;
+        }
+        if (source.min != null && (target.min == null || source.min < target.min)) {
+            target.min = source.min;
+        }
+        if (source.max != null && (target.max == null || source.max > target.max)) {
+            target.max = source.max;
+        }
+        if (source.latest != null) {
+            target.latest = source.latest;
+        }
+        target.count += source.count;
+    }
+}
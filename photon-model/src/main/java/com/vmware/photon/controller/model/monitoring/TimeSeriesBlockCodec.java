@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.monitoring;
+
+import java.util.Arrays;
+
+/**
+ * Compresses a block of (timestamp, value) samples of a single time series.
+ *
+ * <p>
+ * Timestamps are stored as delta-of-delta and values as the XOR against the previous value, as
+ * described in the Gorilla paper. Regularly collected metrics (fixed interval, slowly changing
+ * values) compress to a few bits per sample.
+ *
+ * <p>
+ * The number of samples is not part of the encoded payload and has to be stored by the caller.
+ */
+public class TimeSeriesBlockCodec {
+
+    // delta-of-delta buckets, sized for microsecond timestamps
+    private static final int DOD_BITS_1 = 14;
+    private static final int DOD_BITS_2 = 24;
+    private static final int DOD_BITS_3 = 34;
+
+    private TimeSeriesBlockCodec() {
+    }
+
+    /**
+     * Encodes the first {@code count} samples from the passed arrays.
+     */
+    public static byte[] encode(long[] timestamps, double[] values, int count) {
+        BitWriter out = new BitWriter(Math.max(16, count * 4));
+        if (count == 0) {
+            return out.toByteArray();
+        }
+
+        out.writeBits(timestamps[0], 64);
+        out.writeBits(Double.doubleToRawLongBits(values[0]), 64);
+
+        long prevTimestamp = timestamps[0];
+        long prevDelta = 0;
+        long prevValue = Double.doubleToRawLongBits(values[0]);
+        int prevLeading = Integer.MAX_VALUE;
+        int prevTrailing = 0;
+
+        for (int i = 1; i < count; i++) {
+            long delta = timestamps[i] - prevTimestamp;
+            long dod = delta - prevDelta;
+            writeDeltaOfDelta(out, dod);
+            prevDelta = delta;
+            prevTimestamp = timestamps[i];
+
+            long value = Double.doubleToRawLongBits(values[i]);
+            long xor = value ^ prevValue;
+            prevValue = value;
+            if (xor == 0) {
+                out.writeBit(false);
+                continue;
+            }
+            out.writeBit(true);
+
+            int leading = Long.numberOfLeadingZeros(xor);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (prevLeading != Integer.MAX_VALUE && leading >= prevLeading
+                    && trailing >= prevTrailing) {
+                // meaningful bits fit in the previous window
+                out.writeBit(false);
+                out.writeBits(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+            } else {
+                int meaningful = 64 - leading - trailing;
+                out.writeBit(true);
+                out.writeBits(leading, 6);
+                out.writeBits(meaningful - 1, 6);
+                out.writeBits(xor >>> trailing, meaningful);
+                prevLeading = leading;
+                prevTrailing = trailing;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes {@code count} samples from the payload into the passed arrays, which must be at
+     * least {@code count} long.
+     */
+    public static void decode(byte[] payload, int count, long[] timestamps, double[] values) {
+        if (count == 0) {
+            return;
+        }
+        BitReader in = new BitReader(payload);
+
+        long timestamp = in.readBits(64);
+        long value = in.readBits(64);
+        timestamps[0] = timestamp;
+        values[0] = Double.longBitsToDouble(value);
+
+        long delta = 0;
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 1; i < count; i++) {
+            delta += readDeltaOfDelta(in);
+            timestamp += delta;
+            timestamps[i] = timestamp;
+
+            if (in.readBit()) {
+                if (in.readBit()) {
+                    leading = (int) in.readBits(6);
+                    int meaningful = (int) in.readBits(6) + 1;
+                    trailing = 64 - leading - meaningful;
+                }
+                long xor = in.readBits(64 - leading - trailing) << trailing;
+                value ^= xor;
+            }
+            values[i] = Double.longBitsToDouble(value);
+        }
+    }
+
+    private static void writeDeltaOfDelta(BitWriter out, long dod) {
+        if (dod == 0) {
+            out.writeBit(false);
+        } else if (fits(dod, DOD_BITS_1)) {
+            out.writeBits(0b10, 2);
+            out.writeBits(dod, DOD_BITS_1);
+        } else if (fits(dod, DOD_BITS_2)) {
+            out.writeBits(0b110, 3);
+            out.writeBits(dod, DOD_BITS_2);
+        } else if (fits(dod, DOD_BITS_3)) {
+            out.writeBits(0b1110, 4);
+            out.writeBits(dod, DOD_BITS_3);
+        } else {
+            out.writeBits(0b1111, 4);
+            out.writeBits(dod, 64);
+        }
+    }
+
+    private static long readDeltaOfDelta(BitReader in) {
+        if (!in.readBit()) {
+            return 0;
+        }
+        if (!in.readBit()) {
+            return signExtend(in.readBits(DOD_BITS_1), DOD_BITS_1);
+        }
+        if (!in.readBit()) {
+            return signExtend(in.readBits(DOD_BITS_2), DOD_BITS_2);
+        }
+        if (!in.readBit()) {
+            return signExtend(in.readBits(DOD_BITS_3), DOD_BITS_3);
+        }
+        return in.readBits(64);
+    }
+
+    private static boolean fits(long value, int bits) {
+        long min = -(1L << (bits - 1));
+        long max = (1L << (bits - 1)) - 1;
+        return value >= min && value <= max;
+    }
+
+    private static long signExtend(long value, int bits) {
+        int shift = 64 - bits;
+        return (value << shift) >> shift;
+    }
+
+    /**
+     * Append-only bit buffer; bits are written most significant first.
+     */
+    private static class BitWriter {
+        private byte[] buffer;
+        private int bitPosition;
+
+        BitWriter(int initialCapacity) {
+            this.buffer = new byte[initialCapacity];
+        }
+
+        void writeBit(boolean bit) {
+            ensureCapacity(1);
+            if (bit) {
+                this.buffer[this.bitPosition >>> 3] |= (byte) (0x80 >>> (this.bitPosition & 7));
+            }
+            this.bitPosition++;
+        }
+
+        void writeBits(long value, int bits) {
+            ensureCapacity(bits);
+            for (int i = bits - 1; i >= 0; i--) {
+                if (((value >>> i) & 1L) != 0) {
+                    this.buffer[this.bitPosition >>> 3] |= (byte) (0x80 >>> (this.bitPosition & 7));
+                }
+                this.bitPosition++;
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(this.buffer, (this.bitPosition + 7) >>> 3);
+        }
+
+        private void ensureCapacity(int bits) {
+            int requiredBytes = (this.bitPosition + bits + 7) >>> 3;
+            if (requiredBytes > this.buffer.length) {
+                this.buffer = Arrays.copyOf(this.buffer,
+                        Math.max(requiredBytes, this.buffer.length * 2));
+            }
+        }
+    }
+
+    private static class BitReader {
+        private final byte[] buffer;
+        private int bitPosition;
+
+        BitReader(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        boolean readBit() {
+            boolean bit = (this.buffer[this.bitPosition >>> 3]
+                    & (0x80 >>> (this.bitPosition & 7))) != 0;
+            this.bitPosition++;
+            return bit;
+        }
+
+        long readBits(int bits) {
+            long value = 0;
+            for (int i = 0; i < bits; i++) {
+                value = (value << 1) | (readBit() ? 1L : 0L);
+            }
+            return value;
+        }
+    }
+}
@@ -20,6 +20,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.logging.Level;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import com.vmware.photon.controller.model.UriPaths;
@@ -698,6 +699,16 @@ public class QueryUtils {
                 return;
             }
 
+            consumeQueryTaskResults(getQueryTaskResults(qt), resultConsumer);
+        }
+
+        /**
+         * Get the QT results as a stream of documents or links, depending on whether the query
+         * expands the content.
+         */
+        @SuppressWarnings("rawtypes")
+        protected Stream getQueryTaskResults(QueryTask qt) {
+
             Stream resultsStream = Stream.empty();
 
             if (qt.querySpec.options.contains(QueryOption.EXPAND_CONTENT)) {
@@ -714,7 +725,7 @@ public class QueryUtils {
                 resultsStream = qt.results.documentLinks.stream();
             }
 
-            consumeQueryTaskResults(resultsStream, resultConsumer);
+            return resultsStream;
         }
 
         /**
@@ -814,6 +825,14 @@ public class QueryUtils {
                 + ".maxPageSize";
         public static final int DEFAULT_MAX_PAGE_SIZE = DEFAULT_RESULT_LIMIT;
 
+        /**
+         * Value is {@code photon-model.QueryByPages.prefetchPages}.
+         */
+        public static final String PROPERTY_NAME_PREFETCH_PAGES = UriPaths.PROPERTY_PREFIX
+                + QueryByPages.class.getSimpleName()
+                + ".prefetchPages";
+        public static final int DEFAULT_PREFETCH_PAGES = 0;
+
         /**
          * Get system default max number of documents per page from
          * {@link #PROPERTY_NAME_MAX_PAGE_SIZE} property. If not specified fallback to
@@ -823,7 +842,16 @@ public class QueryUtils {
             return Integer.getInteger(PROPERTY_NAME_MAX_PAGE_SIZE, DEFAULT_MAX_PAGE_SIZE);
         }
 
+        /**
+         * Get system default number of pages to prefetch from {@link #PROPERTY_NAME_PREFETCH_PAGES}
+         * property. If not specified fallback to {@link #DEFAULT_PREFETCH_PAGES}.
+         */
+        public static int getDefaultPrefetchPages() {
+            return Integer.getInteger(PROPERTY_NAME_PREFETCH_PAGES, DEFAULT_PREFETCH_PAGES);
+        }
+
         private int maxPageSize = getDefaultMaxPageSize();
+        private int prefetchPages = getDefaultPrefetchPages();
 
         public QueryByPages(ServiceHost host,
                 Query query,
@@ -860,6 +888,23 @@ public class QueryUtils {
             return this;
         }
 
+        /**
+         * Configure the number of pages held in memory while the results are consumed.
+         * <p>
+         * With a positive value the next pages are requested without waiting for the consumer,
+         * and their documents are decoded on the host executor, so that up to
+         * {@code prefetchPages} pages are being fetched, decoded or consumed at a time. The
+         * results are still passed to the consumer sequentially and in order. With 0 each page
+         * is requested once the previous one is consumed.
+         * <p>
+         * If not explicitly specified use the system default as returned by
+         * {@link #getDefaultPrefetchPages()}.
+         */
+        public QueryByPages<T> setPrefetchPages(int prefetchPages) {
+            this.prefetchPages = prefetchPages;
+            return this;
+        }
+
         /**
          * Return the number of max documents per page.
          */
@@ -887,6 +932,10 @@ public class QueryUtils {
                 return DeferredResult.completed((Void) null);
             }
 
+            if (this.prefetchPages > 0) {
+                return new PagePrefetcher(resultConsumer).start(queryTaskOp.getUri(), pageLink);
+            }
+
             this.host.log(this.level, this.msg + ": PAGE %s", pageLink);
 
             // For any subsequent get-page call we use the Host of previous Op!
@@ -908,6 +957,152 @@ public class QueryUtils {
                     // Handle NEXT page of results
                     .thenCompose(qtOp -> handleQueryTask(qtOp, resultConsumer));
         }
+
+        /**
+         * Fetches the pages of a query up to {@link QueryByPages#prefetchPages} ahead of the
+         * consumer. Each page is requested as soon as the link to it is known and there is room
+         * for it, and the decoded pages are chained so that they are consumed one after another.
+         */
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        private class PagePrefetcher {
+
+            private final Consumer resultConsumer;
+            private final DeferredResult<Void> result = new DeferredResult<>();
+
+            // The consumption of the last page fetched so far. Guarded by this.
+            private DeferredResult<Void> consumed = DeferredResult.completed(null);
+            // The pages being fetched, decoded or consumed. Guarded by this.
+            private int pages;
+            // The next page to fetch, once a page is consumed. Guarded by this.
+            private URI nextPageUri;
+            private boolean failed;
+
+            PagePrefetcher(Consumer resultConsumer) {
+                this.resultConsumer = resultConsumer;
+            }
+
+            DeferredResult<Void> start(URI uri, String pageLink) {
+                synchronized (this) {
+                    this.pages = 1;
+                }
+                fetch(UriUtils.buildUri(uri, pageLink));
+                return this.result;
+            }
+
+            private void fetch(URI pageUri) {
+                QueryByPages.this.host.log(QueryByPages.this.level,
+                        QueryByPages.this.msg + ": PAGE %s", pageUri.getPath());
+
+                Operation getQueryTaskOp = Operation.createGet(pageUri)
+                        .setReferer(QueryByPages.this.referer);
+
+                setContext(getQueryTaskOp);
+
+                QueryByPages.this.host.sendWithDeferredResult(getQueryTaskOp)
+                        .whenComplete((qtOp, e) -> {
+                            if (e != null) {
+                                fail(e);
+                                return;
+                            }
+                            onPage(qtOp);
+                        });
+            }
+
+            private void onPage(Operation qtOp) {
+                final QueryTask qt = qtOp.getBody(QueryTask.class);
+
+                // Decode off the I/O thread, while the previous pages are consumed
+                DeferredResult<List> decoded = new DeferredResult<>();
+                QueryByPages.this.host.getExecutor().execute(() -> {
+                    try {
+                        decoded.complete((List) getQueryTaskResults(qt)
+                                .collect(Collectors.toList()));
+                    } catch (Throwable t) {
+                        decoded.fail(t);
+                    }
+                });
+
+                final String pageLink = qt.results.nextPageLink;
+                URI fetchUri = null;
+                DeferredResult<Void> previousConsumed;
+                DeferredResult<Void> pageConsumed = new DeferredResult<>();
+                synchronized (this) {
+                    if (this.failed) {
+                        return;
+                    }
+
+                    previousConsumed = this.consumed;
+                    this.consumed = pageConsumed;
+
+                    if (pageLink != null) {
+                        // For any subsequent get-page call we use the Host of previous Op!
+                        URI pageUri = UriUtils.buildUri(qtOp.getUri(), pageLink);
+                        if (this.pages < QueryByPages.this.prefetchPages) {
+                            this.pages++;
+                            fetchUri = pageUri;
+                        } else {
+                            this.nextPageUri = pageUri;
+                        }
+                    }
+                }
+
+                // Consume the page once the previous one is consumed, outside of the lock
+                previousConsumed
+                        .thenCompose(ignore -> decoded)
+                        .thenAccept(results -> consume(qt, results))
+                        .whenComplete((ignore, e) -> {
+                            if (e != null) {
+                                pageConsumed.fail(e);
+                            } else {
+                                pageConsumed.complete(null);
+                            }
+                        });
+
+                pageConsumed.whenComplete((ignore, e) -> {
+                    if (e != null) {
+                        fail(e);
+                    } else if (pageLink == null) {
+                        QueryByPages.this.host.log(QueryByPages.this.level,
+                                QueryByPages.this.msg + ": FINISHED");
+                        this.result.complete(null);
+                    }
+                });
+
+                if (fetchUri != null) {
+                    fetch(fetchUri);
+                }
+            }
+
+            private void consume(QueryTask qt, List results) {
+                QueryByPages.this.host.log(QueryByPages.this.level, "%s: PROCESS %s docs",
+                        QueryByPages.this.msg, qt.results.documentCount);
+
+                consumeQueryTaskResults(results.stream(), this.resultConsumer);
+
+                URI fetchUri;
+                synchronized (this) {
+                    fetchUri = this.nextPageUri;
+                    this.nextPageUri = null;
+                    if (fetchUri == null) {
+                        this.pages--;
+                    }
+                }
+                if (fetchUri != null) {
+                    // The consumed page makes room for the next one
+                    fetch(fetchUri);
+                }
+            }
+
+            private void fail(Throwable e) {
+                synchronized (this) {
+                    if (this.failed) {
+                        return;
+                    }
+                    this.failed = true;
+                }
+                this.result.fail(e);
+            }
+        }
     }
 
     /**
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.vmware.photon.controller.model.monitoring.ColumnarMetricsStore.DataPoints;
+
+import com.vmware.xenon.common.ServiceStats.TimeSeriesStats.TimeBin;
+
+/**
+ * This class implements tests for the {@link ColumnarMetricsStore} class.
+ */
+public class ColumnarMetricsStoreTest {
+
+    private static final long HOUR_MICROS = TimeUnit.HOURS.toMicros(1);
+    private static final long MINUTE_MICROS = TimeUnit.MINUTES.toMicros(1);
+    private static final long START_MICROS = TimeUnit.DAYS.toMicros(17000);
+    private static final String RESOURCE_LINK = "/resources/compute/vm-1";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCodecRoundTrip() {
+        Random random = new Random(0);
+        int count = 500;
+        long[] timestamps = new long[count];
+        double[] values = new double[count];
+        long timestamp = START_MICROS;
+        for (int i = 0; i < count; i++) {
+            // irregular intervals and a mix of repeated, integral and random values
+            timestamp += MINUTE_MICROS + random.nextInt(5000) - 2500;
+            timestamps[i] = timestamp;
+            values[i] = i % 3 == 0 ? random.nextDouble() * 1000 : (i % 3 == 1 ? 42.0 : i);
+        }
+        timestamps[count - 1] = timestamps[0] - 1;
+
+        byte[] payload = TimeSeriesBlockCodec.encode(timestamps, values, count);
+        long[] decodedTimestamps = new long[count];
+        double[] decodedValues = new double[count];
+        TimeSeriesBlockCodec.decode(payload, count, decodedTimestamps, decodedValues);
+
+        for (int i = 0; i < count; i++) {
+            assertEquals(timestamps[i], decodedTimestamps[i]);
+            assertEquals(Double.doubleToRawLongBits(values[i]),
+                    Double.doubleToRawLongBits(decodedValues[i]));
+        }
+        assertTrue(payload.length < count * 16);
+    }
+
+    @Test
+    public void testRangeScanSurvivesReopen() throws Throwable {
+        Path directory = this.folder.newFolder().toPath();
+        int count = 300;
+        try (ColumnarMetricsStore store = ColumnarMetricsStore.open(directory, HOUR_MICROS, 32)) {
+            for (int i = 0; i < count; i++) {
+                Map<String, Double> entries = new HashMap<>();
+                entries.put("CPUUtilizationPercent", (double) i);
+                entries.put("MemoryUsedBytes", 1024.0);
+                store.append(RESOURCE_LINK, START_MICROS + i * MINUTE_MICROS, entries);
+            }
+            // buffered and sealed samples are both visible
+            assertEquals(count, store.rangeScan(RESOURCE_LINK, "CPUUtilizationPercent", null,
+                    null).size);
+        }
+
+        try (ColumnarMetricsStore store = ColumnarMetricsStore.open(directory, HOUR_MICROS, 32)) {
+            assertEquals(2 * count, store.getSampleCount());
+            DataPoints points = store.rangeScan(RESOURCE_LINK, "CPUUtilizationPercent",
+                    START_MICROS + 10 * MINUTE_MICROS, START_MICROS + 19 * MINUTE_MICROS);
+            assertEquals(10, points.size);
+            for (int i = 0; i < points.size; i++) {
+                assertEquals(START_MICROS + (10 + i) * MINUTE_MICROS, points.timestamps[i]);
+                assertEquals(10 + i, points.values[i], 0);
+            }
+            assertEquals(START_MICROS + (count - 1) * MINUTE_MICROS,
+                    store.getLatestTimestamp(RESOURCE_LINK, "MemoryUsedBytes").longValue());
+            assertNull(store.getLatestTimestamp(RESOURCE_LINK, "unknown"));
+        }
+    }
+
+    @Test
+    public void testDownsample() throws Throwable {
+        Path directory = this.folder.newFolder().toPath();
+        try (ColumnarMetricsStore store = ColumnarMetricsStore.open(directory)) {
+            for (int i = 0; i < 120; i++) {
+                store.append(RESOURCE_LINK, START_MICROS + i * MINUTE_MICROS,
+                        Collections.singletonMap("metric", (double) i));
+            }
+            SortedMap<Long, TimeBin> bins = store.downsample(RESOURCE_LINK, "metric", null, null,
+                    HOUR_MICROS);
+            assertEquals(2, bins.size());
+            TimeBin first = bins.get(START_MICROS);
+            assertEquals(60, first.count, 0);
+            assertEquals(0, first.min, 0);
+            assertEquals(59, first.max, 0);
+            assertEquals(29.5, first.avg, 0);
+            assertEquals(1770, first.sum, 0);
+            assertEquals(119, bins.get(START_MICROS + HOUR_MICROS).latest, 0);
+        }
+    }
+
+    @Test
+    public void testDeletePartitions() throws Throwable {
+        Path directory = this.folder.newFolder().toPath();
+        try (ColumnarMetricsStore store = ColumnarMetricsStore.open(directory, HOUR_MICROS, 16)) {
+            for (int i = 0; i < 180; i++) {
+                store.append(RESOURCE_LINK, START_MICROS + i * MINUTE_MICROS,
+                        Collections.singletonMap("metric", 1.0));
+            }
+            store.flush();
+            long footprint = store.getDiskFootprintBytes();
+            assertTrue(footprint > 0);
+
+            assertEquals(2, store.deletePartitionsBefore(START_MICROS + 2 * HOUR_MICROS));
+            assertEquals(60, store.getSampleCount());
+            assertTrue(store.getDiskFootprintBytes() < footprint);
+            assertEquals(START_MICROS + 2 * HOUR_MICROS,
+                    store.rangeScan(RESOURCE_LINK, "metric", null, null).timestamps[0]);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.EnumSet;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.vmware.xenon.common.ServiceStats.TimeSeriesStats;
+import com.vmware.xenon.common.ServiceStats.TimeSeriesStats.AggregationType;
+import com.vmware.xenon.common.ServiceStats.TimeSeriesStats.TimeBin;
+
+/**
+ * This class implements tests for the {@link CompactTimeSeries} and {@link TimeBinMerger} classes.
+ */
+public class CompactTimeSeriesTest {
+
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long MINUTE_MICROS = TimeUnit.MINUTES.toMicros(1);
+    private static final long START_MICROS = TimeUnit.DAYS.toMicros(17000);
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void testAddMatchesTimeSeriesStats() {
+        TimeSeriesStats expected = newStats(4);
+        CompactTimeSeries compact = new CompactTimeSeries(4, HOUR_MILLIS,
+                EnumSet.allOf(AggregationType.class));
+        for (int i = 0; i < 300; i++) {
+            double value = (i * 7) % 13;
+            expected.add(START_MICROS + i * MINUTE_MICROS, value, value);
+            compact.add(START_MICROS + i * MINUTE_MICROS, value);
+        }
+        assertBinsEqual(expected, compact.toTimeSeriesStats());
+    }
+
+    @Test
+    public void testMergeEqualsReplay() {
+        TimeSeriesStats first = newStats(3);
+        TimeSeriesStats second = newStats(3);
+        for (int i = 0; i < 150; i++) {
+            first.add(START_MICROS + i * MINUTE_MICROS, i, i);
+            second.add(START_MICROS + (i + 60) * MINUTE_MICROS, 2 * i, 2 * i);
+        }
+
+        CompactTimeSeries compact = CompactTimeSeries.from(first);
+        compact.merge(second);
+
+        TimeSeriesStats expected = newStats(3);
+        for (int i = 0; i < 150; i++) {
+            expected.add(START_MICROS + i * MINUTE_MICROS, i, i);
+        }
+        for (int i = 0; i < 150; i++) {
+            expected.add(START_MICROS + (i + 60) * MINUTE_MICROS, 2 * i, 2 * i);
+        }
+        assertBinsEqual(expected, compact.toTimeSeriesStats());
+
+        TimeBinMerger.merge(first, second);
+        assertBinsEqual(expected, first);
+    }
+
+    @Test
+    public void testOldestBinsAreEvicted() {
+        CompactTimeSeries compact = new CompactTimeSeries(2, HOUR_MILLIS,
+                EnumSet.of(AggregationType.AVG));
+        compact.add(START_MICROS + TimeUnit.HOURS.toMicros(1), 1);
+        compact.add(START_MICROS + TimeUnit.HOURS.toMicros(2), 2);
+        compact.add(START_MICROS + TimeUnit.HOURS.toMicros(3), 3);
+        // older than every retained bin: dropped
+        compact.add(START_MICROS, 0);
+
+        assertEquals(2, compact.size());
+        assertEquals(TimeUnit.MICROSECONDS.toMillis(START_MICROS) + 2 * HOUR_MILLIS,
+                compact.getBinKey(0));
+        assertEquals(3, compact.getAvg(1), DELTA);
+
+        TimeBin bin = compact.toTimeSeriesStats().bins.values().iterator().next();
+        assertNull(bin.sum);
+        assertNull(bin.latest);
+    }
+
+    private static TimeSeriesStats newStats(int numBins) {
+        return new TimeSeriesStats(numBins, HOUR_MILLIS, EnumSet.allOf(AggregationType.class));
+    }
+
+    private static void assertBinsEqual(TimeSeriesStats expected, TimeSeriesStats actual) {
+        assertEquals(expected.bins.keySet(), actual.bins.keySet());
+        for (Entry<Long, TimeBin> entry : expected.bins.entrySet()) {
+            TimeBin expectedBin = entry.getValue();
+            TimeBin actualBin = actual.bins.get(entry.getKey());
+            assertEquals(expectedBin.count, actualBin.count, DELTA);
+            assertEquals(expectedBin.avg, actualBin.avg, DELTA);
+            assertEquals(expectedBin.sum, actualBin.sum, DELTA);
+            assertEquals(expectedBin.min, actualBin.min, DELTA);
+            assertEquals(expectedBin.max, actualBin.max, DELTA);
+            assertEquals(expectedBin.latest, actualBin.latest, DELTA);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.monitoring;
+
+import java.util.EnumSet;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.vmware.xenon.common.ServiceStats.TimeSeriesStats;
+import com.vmware.xenon.common.ServiceStats.TimeSeriesStats.AggregationType;
+import com.vmware.xenon.common.ServiceStats.TimeSeriesStats.TimeBin;
+
+/**
+ * Compares the sample-replay merge previously done by {@link InMemoryResourceMetricService} with
+ * the aggregate merge of {@link TimeBinMerger} and {@link CompactTimeSeries}.
+ *
+ * <p>
+ * Hourly bins hold one sample per minute and daily bins one sample every five minutes, the
+ * collection intervals used by the stats adapters. Run with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.vmware.photon.controller.model.monitoring.InMemoryMetricMergeBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InMemoryMetricMergeBenchmark {
+
+    @Param({ "HOURLY", "DAILY" })
+    public String binSize;
+
+    @Param({ "24" })
+    public int numBins;
+
+    private TimeSeriesStats incoming;
+    private TimeSeriesStats current;
+    private CompactTimeSeries compactCurrent;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        long binDurationMillis;
+        long sampleIntervalMillis;
+        if ("HOURLY".equals(this.binSize)) {
+            binDurationMillis = TimeUnit.HOURS.toMillis(1);
+            sampleIntervalMillis = TimeUnit.MINUTES.toMillis(1);
+        } else {
+            binDurationMillis = TimeUnit.DAYS.toMillis(1);
+            sampleIntervalMillis = TimeUnit.MINUTES.toMillis(5);
+        }
+        EnumSet<AggregationType> types = EnumSet.allOf(AggregationType.class);
+        this.incoming = new TimeSeriesStats(this.numBins, binDurationMillis, types);
+        this.current = new TimeSeriesStats(this.numBins, binDurationMillis, types);
+
+        long start = TimeUnit.DAYS.toMillis(17000);
+        long end = start + this.numBins * binDurationMillis;
+        for (long t = start; t < end; t += sampleIntervalMillis) {
+            double value = (t / sampleIntervalMillis) % 100;
+            this.incoming.add(TimeUnit.MILLISECONDS.toMicros(t), value, value);
+            this.current.add(TimeUnit.MILLISECONDS.toMicros(t), value, value);
+        }
+        this.compactCurrent = CompactTimeSeries.from(this.current);
+    }
+
+    @Benchmark
+    public TimeSeriesStats replayMerge() {
+        for (Entry<Long, TimeBin> bin : this.incoming.bins.entrySet()) {
+            for (int i = 0; i < bin.getValue().count; i++) {
+                this.current.add(TimeUnit.MILLISECONDS.toMicros(bin.getKey()),
+                        bin.getValue().avg, bin.getValue().avg);
+            }
+        }
+        return this.current;
+    }
+
+    @Benchmark
+    public TimeSeriesStats aggregateMerge() {
+        TimeBinMerger.merge(this.current, this.incoming);
+        return this.current;
+    }
+
+    @Benchmark
+    public CompactTimeSeries compactMerge() {
+        this.compactCurrent.merge(this.incoming);
+        return this.compactCurrent;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(InMemoryMetricMergeBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2018 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.model.query;
+
+import static com.vmware.photon.controller.model.resources.util.PhotonModelUtils.waitToComplete;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.vmware.photon.controller.model.query.QueryUtils.QueryByPages;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.test.VerificationHost;
+import com.vmware.xenon.services.common.ExampleService;
+import com.vmware.xenon.services.common.ExampleService.ExampleServiceState;
+import com.vmware.xenon.services.common.QueryTask.Query;
+
+/**
+ * Measures the pages per second read by {@link QueryByPages#queryDocuments} from an in-process
+ * host holding {@code documents} documents, serially ({@code prefetchPages} 0) and with up to
+ * {@code prefetchPages} pages fetched ahead of the consumer. Run with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.vmware.photon.controller.model.query.QueryByPagesBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class QueryByPagesBenchmark {
+
+    private static final int CREATE_BATCH_SIZE = 1000;
+
+    @Param({ "0", "2", "4", "8" })
+    public int prefetchPages;
+
+    @Param({ "100" })
+    public int pageSize;
+
+    @Param({ "100000" })
+    public int documents;
+
+    private VerificationHost host;
+    private Query query;
+
+    /**
+     * Counts the pages and documents read, reported by JMH per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long pages;
+        public long docs;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        this.host = VerificationHost.create(0);
+        this.host.start();
+        this.host.waitForServiceAvailable(ExampleService.FACTORY_LINK);
+
+        for (int i = 0; i < this.documents; i += CREATE_BATCH_SIZE) {
+            List<DeferredResult<Operation>> posts = new ArrayList<>();
+            for (int j = i; j < Math.min(i + CREATE_BATCH_SIZE, this.documents); j++) {
+                ExampleServiceState state = new ExampleServiceState();
+                state.name = "example-" + j;
+                state.counter = (long) j;
+                posts.add(this.host.sendWithDeferredResult(Operation
+                        .createPost(UriUtils.buildUri(this.host, ExampleService.FACTORY_LINK))
+                        .setBody(state)
+                        .setReferer(this.host.getUri())));
+            }
+            waitToComplete(DeferredResult.allOf(posts));
+        }
+
+        this.query = Query.Builder.create()
+                .addKindFieldClause(ExampleServiceState.class)
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.host.tearDown();
+    }
+
+    @Benchmark
+    public long queryDocuments(Counters counters) {
+        long[] docs = new long[1];
+        waitToComplete(new QueryByPages<>(this.host, this.query, ExampleServiceState.class, null)
+                .setMaxPageSize(this.pageSize)
+                .setPrefetchPages(this.prefetchPages)
+                .queryDocuments(state -> docs[0]++));
+
+        counters.docs += docs[0];
+        counters.pages += (docs[0] + this.pageSize - 1) / this.pageSize;
+        return docs[0];
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(QueryByPagesBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -23,6 +23,7 @@ import static org.hamcrest.Matchers.notNullValue;
 
 import static com.vmware.photon.controller.model.resources.util.PhotonModelUtils.waitToComplete;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
@@ -100,6 +101,11 @@ public class QueryUtilsTest extends BaseModelTest {
                         queryForReferrers,
                         ComputeState.class,
                         tenantLinks),
+                new QueryByPages<>(
+                        getHost(),
+                        queryForReferrers,
+                        ComputeState.class,
+                        tenantLinks).setPrefetchPages(2),
                 new QueryTop<>(
                         getHost(),
                         queryForReferrers,
@@ -138,6 +144,43 @@ public class QueryUtilsTest extends BaseModelTest {
         }
     }
 
+    @Test
+    public void testQueryByPages_prefetchKeepsOrder() throws Throwable {
+
+        final ComputeDescription cd = ModelUtils.createComputeDescription(this, null, null);
+        for (int i = 0; i < 9; i++) {
+            ModelUtils.createCompute(this, cd);
+        }
+
+        Query queryForReferrers = QueryUtils.queryForReferrers(
+                cd.documentSelfLink,
+                ComputeState.class,
+                ComputeState.FIELD_NAME_DESCRIPTION_LINK);
+
+        List<String> expected = new ArrayList<>();
+        waitToComplete(new QueryByPages<>(
+                getHost(),
+                queryForReferrers,
+                ComputeState.class,
+                null)
+                .setPrefetchPages(0)
+                .queryDocuments(cs -> expected.add(cs.documentSelfLink)));
+        assertThat(expected.size(), equalTo(9));
+
+        for (int prefetchPages : Arrays.asList(1, 2, 10)) {
+            List<String> actual = new ArrayList<>();
+            waitToComplete(new QueryByPages<>(
+                    getHost(),
+                    queryForReferrers,
+                    ComputeState.class,
+                    null)
+                    .setPrefetchPages(prefetchPages)
+                    .queryDocuments(cs -> actual.add(cs.documentSelfLink)));
+
+            assertThat("prefetchPages: " + prefetchPages, actual, equalTo(expected));
+        }
+    }
+
     @Test
     public void testQueryReferrers_error() throws Throwable {
 